@@ -53,6 +53,14 @@ public enum BaseCode {
     
     EMAIL_ERROR_COUNT_TOO_MANY(519,"邮箱输入错误次数过多，请稍后重试"),
     
+    WORK_DATA_CENTER_ID_LEASE_EXPIRED(520,"workId和dataCenterId租约已失效，暂停生成id"),
+    
+    REQUEST_BODY_TOO_LARGE(521,"请求体过大"),
+    
+    REQUEST_BODY_FORMAT_ERROR(522,"请求体格式错误"),
+    
+    RESPONSE_BODY_TOO_LARGE(523,"需要加密的响应体过大"),
+    
     RSA_SIGN_ERROR(10000,"rsa签名验证失败"),
     
     RSA_DECRYPT_ERROR(10001,"rsa解密失败"),
@@ -85,6 +93,30 @@ public enum BaseCode {
     
     USER_AUTHENTICATION(10058,"用户已认证"),
     
+    API_DATA_CURSOR_ERROR(10059,"分页游标无效"),
+    
+    ORDER_LIST_CURSOR_ERROR(10060,"订单列表分页游标无效"),
+    
+    SHARD_MIGRATION_LAYOUT_ERROR(10061,"分片扩容的目标布局无效"),
+    
+    SHARD_MIGRATION_RUNNING(10062,"分片迁移任务正在执行"),
+    
+    SHARD_MIGRATION_DUAL_WRITE_DISABLED(10063,"分片迁移需要先在所有实例开启双写"),
+    
+    SHARD_MIGRATION_OPERATION_NOT_EXIST(10064,"分片迁移操作不存在"),
+    
+    ORDER_OUTBOX_CHANNEL_NOT_EXIST(10065,"订单发件箱消息发送渠道不存在"),
+    
+    SHARD_MIGRATION_ROUTING_CONFLICT(10066,"扩容后按订单编号和按用户id路由到的节点不一致，不能扩容"),
+    
+    BUSINESS_THREAD_POOL_NOT_EXIST(10067,"业务线程池没有配置"),
+    
+    DELAY_ORDER_CANCEL_FAIL(10068,"延迟订单取消失败"),
+    
+    ORDER_SHARD_HINT_CONFLICT(10069,"订单路由提示和sql中的分片值路由到的库表不一致"),
+    
+    SERVICE_LOCK_FAIL(10070,"分布式锁加锁失败"),
+    
     SUBMIT_FREQUENT(20000,"执行频繁，请稍后再试"),
     
     USER_MOBILE_AND_EMAIL_NOT_EXIST(20001,"用户手机和邮箱需要选择一个"),
@@ -0,0 +1,57 @@
+package com.damai.enums;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单发件箱消息发送渠道
+ * @author: 阿星不是程序员
+ **/
+public enum OrderOutboxChannel {
+    /**
+     * 订单发件箱消息发送渠道
+     * */
+    DELAY_QUEUE(2,"延迟队列"),
+    ;
+
+    private Integer code;
+
+    private String msg;
+
+    OrderOutboxChannel(Integer code, String msg) {
+        this.code = code;
+        this.msg = msg;
+    }
+
+    public Integer getCode() {
+        return code;
+    }
+
+    public void setCode(Integer code) {
+        this.code = code;
+    }
+
+    public String getMsg() {
+        return this.msg == null ? "" : this.msg;
+    }
+
+    public void setMsg(String msg) {
+        this.msg = msg;
+    }
+
+    public static String getMsg(Integer code) {
+        for (OrderOutboxChannel re : OrderOutboxChannel.values()) {
+            if (re.code.intValue() == code.intValue()) {
+                return re.msg;
+            }
+        }
+        return "";
+    }
+
+    public static OrderOutboxChannel getRc(Integer code) {
+        for (OrderOutboxChannel re : OrderOutboxChannel.values()) {
+            if (re.code.intValue() == code.intValue()) {
+                return re;
+            }
+        }
+        return null;
+    }
+}
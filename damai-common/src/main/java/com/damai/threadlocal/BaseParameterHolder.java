@@ -1,5 +1,6 @@
 package com.damai.threadlocal;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -7,6 +8,8 @@ import java.util.Optional;
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 线程绑定工具
+ * 线程中保存的map是不可变的，修改参数时复制出新的map，
+ * 这样传递到线程池时可以直接共享引用，不需要每个任务复制一次
  * @author: 阿星不是程序员
  **/
 public class BaseParameterHolder {
@@ -16,11 +19,9 @@ public class BaseParameterHolder {
     
     public static void setParameter(String name, String value) {
         Map<String, String> map = THREAD_LOCAL_MAP.get();
-        if (map == null) {
-            map = new HashMap<>(64);
-        }
-        map.put(name, value);
-
+        Map<String, String> copy = map == null ? new HashMap<>(8) : new HashMap<>(map);
+        copy.put(name, value);
+        THREAD_LOCAL_MAP.set(Collections.unmodifiableMap(copy));
     }
     
     public static String getParameter(String name) {
@@ -29,24 +30,37 @@ public class BaseParameterHolder {
     
     public static void removeParameter(String name) {
         Map<String, String> map = THREAD_LOCAL_MAP.get();
-        if (map != null) {
-            map.remove(name);
+        if (map == null || !map.containsKey(name)) {
+            return;
         }
+        Map<String, String> copy = new HashMap<>(map);
+        copy.remove(name);
+        setParameterMap(Collections.unmodifiableMap(copy));
     }
     
     public static ThreadLocal<Map<String, String>> getThreadLocal() {
         return THREAD_LOCAL_MAP;
     }
     
+    /**
+     * 返回当前线程的参数，不会复制，返回的map不可修改
+     * */
     public static Map<String, String> getParameterMap() {
         Map<String, String> map = THREAD_LOCAL_MAP.get();
         if (map == null) {
-            map = new HashMap<>(64);
+            return Collections.emptyMap();
         }
         return map;
     }
     
+    /**
+     * 直接保存map的引用，传入的map之后不能再被修改
+     * */
     public static void setParameterMap(Map<String, String> map) {
+        if (map == null || map.isEmpty()) {
+            THREAD_LOCAL_MAP.remove();
+            return;
+        }
         THREAD_LOCAL_MAP.set(map);
     }
     
@@ -36,6 +36,17 @@ public class RsaSignTool {
     
     private final static String CHARSET = "utf-8";
     
+    /**
+     * Signature不是线程安全的，每个线程复用自己的实例
+     * */
+    private final static ThreadLocal<Signature> SIGNATURE = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance(SignAlgorithm.SHA256withRSA.getValue());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    
     
     
     /**
@@ -104,17 +115,39 @@ public class RsaSignTool {
         }
     }
     
+    /**
+     * 使用已经解析好的公钥验证签名
+     * */
+    public static boolean verifyRsaSign256(Map<String, String> params, PublicKey publicKey){
+        try {
+            String sign = params.get("sign");
+            String content = getSignCheckContent(params);
+            return verifyRsaSign256(content.getBytes(CHARSET), sign, publicKey);
+        }catch (Exception e) {
+            log.error("verifyRsaSign256 error",e);
+            throw new DaMaiFrameException(BaseCode.RSA_SIGN_ERROR);
+        }
+    }
+    
     public static boolean verifyRsaSign256(byte[] dataBytes, String sign, String publicKey) throws NoSuchAlgorithmException, InvalidKeySpecException, InvalidKeyException, SignatureException {
-        
+        return verifyRsaSign256(dataBytes, sign, getPublicKey(publicKey));
+    }
+    
+    public static boolean verifyRsaSign256(byte[] dataBytes, String sign, PublicKey publicKey) throws InvalidKeyException, SignatureException {
         byte[] signByte = Base64.getDecoder().decode(sign);
-        byte[] encodedKey = Base64.getDecoder().decode(publicKey);
-        Signature signature = Signature.getInstance(SignAlgorithm.SHA256withRSA.getValue());
-        KeyFactory keyFac = KeyFactory.getInstance(SIGN_TYPE);
-        PublicKey puk = keyFac.generatePublic(new X509EncodedKeySpec(encodedKey));
-        signature.initVerify(puk);
+        Signature signature = SIGNATURE.get();
+        signature.initVerify(publicKey);
         signature.update(dataBytes);
         return signature.verify(signByte);
-        
+    }
+    
+    /**
+     * 获取验签公钥
+     * */
+    public static PublicKey getPublicKey(String publicKey) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        byte[] encodedKey = Base64.getDecoder().decode(publicKey);
+        KeyFactory keyFac = KeyFactory.getInstance(SIGN_TYPE);
+        return keyFac.generatePublic(new X509EncodedKeySpec(encodedKey));
     }
     
     /**
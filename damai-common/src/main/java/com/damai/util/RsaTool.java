@@ -9,11 +9,15 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.binary.Base64;
 
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.SecureRandom;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.HashMap;
@@ -44,6 +48,38 @@ public class RsaTool {
     public static final String PUBLIC_KEY = "publicKey";
     public static final String PRIVATE_KEY = "privateKey";
 	
+	private static final String AES_ALGORITHM = "AES";
+	
+	private static final String AES_TRANSFORMATION = "AES/GCM/NoPadding";
+	
+	/**
+	 * AES密钥长度(字节)
+	 */
+	private static final int AES_KEY_SIZE = 32;
+	
+	private static final int GCM_IV_LENGTH = 12;
+	
+	private static final int GCM_TAG_LENGTH = 128;
+	
+	private static final String HYBRID_SEPARATOR = ".";
+	
+	private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+	
+	/**
+	 * Cipher不是线程安全的，每个线程复用自己的实例，避免每次调用都Cipher.getInstance
+	 */
+	private static final ThreadLocal<Cipher> RSA_CIPHER = ThreadLocal.withInitial(() -> newCipher(KEY_ALGORITHM));
+	
+	private static final ThreadLocal<Cipher> AES_CIPHER = ThreadLocal.withInitial(() -> newCipher(AES_TRANSFORMATION));
+	
+	private static Cipher newCipher(String transformation) {
+		try {
+			return Cipher.getInstance(transformation);
+		} catch (Exception e) {
+			throw new IllegalStateException("cipher init error : " + transformation, e);
+		}
+	}
+	
 	/**
 	 * 生成公私钥
 	 */
@@ -68,29 +104,22 @@ public class RsaTool {
 	 * @return
 	 */
 	public static String encrypt(String data, PublicKey publicKey) throws Exception {
-		Cipher cipher = Cipher.getInstance("RSA");
+		Cipher cipher = RSA_CIPHER.get();
 		cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-		int inputLen = data.getBytes().length;
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] dataBytes = data.getBytes(StandardCharsets.UTF_8);
+		int inputLen = dataBytes.length;
+		ByteArrayOutputStream out = new ByteArrayOutputStream((inputLen / MAX_ENCRYPT_BLOCK + 1) * MAX_DECRYPT_BLOCK);
 		int offset = 0;
 		byte[] cache;
-		int i = 0;
 		// 对数据分段加密
 		while (inputLen - offset > 0) {
-			if (inputLen - offset > MAX_ENCRYPT_BLOCK) {
-				cache = cipher.doFinal(data.getBytes(), offset, MAX_ENCRYPT_BLOCK);
-			} else {
-				cache = cipher.doFinal(data.getBytes(), offset, inputLen - offset);
-			}
+			cache = cipher.doFinal(dataBytes, offset, Math.min(inputLen - offset, MAX_ENCRYPT_BLOCK));
 			out.write(cache, 0, cache.length);
-			i++;
-			offset = i * MAX_ENCRYPT_BLOCK;
+			offset += MAX_ENCRYPT_BLOCK;
 		}
-		byte[] encryptedData = out.toByteArray();
-		out.close();
 		// 获取加密内容使用base64进行编码,并以UTF-8为标准转化成字符串
 		// 加密后的字符串
-		return new String(Base64.encodeBase64(encryptedData));
+		return new String(Base64.encodeBase64(out.toByteArray()));
 	}
 	
 	/**
@@ -103,29 +132,83 @@ public class RsaTool {
 	 * @return
 	 */
 	public static String decrypt(String data, PrivateKey privateKey) throws Exception {
-		Cipher cipher = Cipher.getInstance("RSA");
+		Cipher cipher = RSA_CIPHER.get();
 		cipher.init(Cipher.DECRYPT_MODE, privateKey);
 		byte[] dataBytes = Base64.decodeBase64(data.replaceAll("%2B","+").getBytes());
 		int inputLen = dataBytes.length;
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(inputLen);
 		int offset = 0;
 		byte[] cache;
-		int i = 0;
 		// 对数据分段解密
 		while (inputLen - offset > 0) {
-			if (inputLen - offset > MAX_DECRYPT_BLOCK) {
-				cache = cipher.doFinal(dataBytes, offset, MAX_DECRYPT_BLOCK);
-			} else {
-				cache = cipher.doFinal(dataBytes, offset, inputLen - offset);
-			}
+			cache = cipher.doFinal(dataBytes, offset, Math.min(inputLen - offset, MAX_DECRYPT_BLOCK));
 			out.write(cache, 0, cache.length);
-			i++;
-			offset = i * MAX_DECRYPT_BLOCK;
+			offset += MAX_DECRYPT_BLOCK;
 		}
-		byte[] decryptedData = out.toByteArray();
-		out.close();
 		// 解密后的内容
-		return new String(decryptedData, "UTF-8");
+		return out.toString(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * 混合加密，随机生成AES-GCM密钥加密数据，再用RSA公钥加密AES密钥，
+	 * 数据无论多大都只需要一次RSA运算
+	 *
+	 * @param data
+	 *            待加密数据
+	 * @param publicKey
+	 *            公钥
+	 * @return RSA加密后的AES密钥.(iv+AES加密后的数据)，两部分都使用base64编码
+	 */
+	public static String hybridEncrypt(String data, PublicKey publicKey) throws Exception {
+		byte[] aesKey = new byte[AES_KEY_SIZE];
+		byte[] iv = new byte[GCM_IV_LENGTH];
+		SECURE_RANDOM.nextBytes(aesKey);
+		SECURE_RANDOM.nextBytes(iv);
+		
+		Cipher rsaCipher = RSA_CIPHER.get();
+		rsaCipher.init(Cipher.ENCRYPT_MODE, publicKey);
+		byte[] encryptedKey = rsaCipher.doFinal(aesKey);
+		
+		Cipher aesCipher = AES_CIPHER.get();
+		aesCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(aesKey, AES_ALGORITHM), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+		byte[] dataBytes = data.getBytes(StandardCharsets.UTF_8);
+		byte[] payload = new byte[GCM_IV_LENGTH + aesCipher.getOutputSize(dataBytes.length)];
+		System.arraycopy(iv, 0, payload, 0, GCM_IV_LENGTH);
+		aesCipher.doFinal(dataBytes, 0, dataBytes.length, payload, GCM_IV_LENGTH);
+		
+		return new String(Base64.encodeBase64(encryptedKey)) + HYBRID_SEPARATOR + new String(Base64.encodeBase64(payload));
+	}
+	
+	/**
+	 * 混合解密
+	 *
+	 * @param data
+	 *            hybridEncrypt加密后的数据
+	 * @param privateKey
+	 *            私钥
+	 * @return
+	 */
+	public static String hybridDecrypt(String data, PrivateKey privateKey) throws Exception {
+		String value = data.replaceAll("%2B","+");
+		int index = value.indexOf(HYBRID_SEPARATOR);
+		if (index < 0) {
+			throw new IllegalArgumentException("hybrid encrypt data format error");
+		}
+		byte[] encryptedKey = Base64.decodeBase64(value.substring(0, index));
+		byte[] payload = Base64.decodeBase64(value.substring(index + 1));
+		if (payload.length < GCM_IV_LENGTH) {
+			throw new IllegalArgumentException("hybrid encrypt data format error");
+		}
+		
+		Cipher rsaCipher = RSA_CIPHER.get();
+		rsaCipher.init(Cipher.DECRYPT_MODE, privateKey);
+		byte[] aesKey = rsaCipher.doFinal(encryptedKey);
+		
+		Cipher aesCipher = AES_CIPHER.get();
+		aesCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(aesKey, AES_ALGORITHM), 
+				new GCMParameterSpec(GCM_TAG_LENGTH, payload, 0, GCM_IV_LENGTH));
+		byte[] decryptedData = aesCipher.doFinal(payload, GCM_IV_LENGTH, payload.length - GCM_IV_LENGTH);
+		return new String(decryptedData, StandardCharsets.UTF_8);
 	}
 	
 	/**
@@ -173,6 +256,36 @@ public class RsaTool {
 			
 	}
 		
+	/**
+	 * 根据公钥串对数据进行混合加密
+	 * @param data
+	 * @param publicKey
+	 * @return
+	 */
+	public static String hybridEncrypt(String data, String publicKey) {
+		try {
+			return hybridEncrypt(data, RsaTool.getPublicKey(publicKey));
+		}catch (Exception e) {
+			log.error("hybrid encrypt error",e);
+			throw new DaMaiFrameException(BaseCode.RSA_ENCRYPT_ERROR);
+		}
+	}
+	
+	/**
+	 * 根据私钥串对数据进行混合解密
+	 * @param data
+	 * @param privateKeyStr
+	 * @return
+	 */
+	public static String hybridDecrypt(String data, String privateKeyStr) {
+		try {
+			return hybridDecrypt(data, RsaTool.getPrivateKey(privateKeyStr));
+		}catch (Exception e) {
+			log.error("hybrid decrypt error",e);
+			throw new DaMaiFrameException(BaseCode.RSA_DECRYPT_ERROR);
+		}
+	}
+	
 	/**
 	 * 获取公钥
 	 *
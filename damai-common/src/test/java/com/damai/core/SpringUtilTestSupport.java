@@ -0,0 +1,18 @@
+package com.damai.core;
+
+import org.springframework.context.support.GenericApplicationContext;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 测试中不启动spring容器时初始化SpringUtil，使用默认的环境，redis的key使用默认的前缀
+ * @author: 阿星不是程序员
+ **/
+public final class SpringUtilTestSupport {
+    
+    private SpringUtilTestSupport() {
+    }
+    
+    public static void initialize() {
+        new SpringUtil().initialize(new GenericApplicationContext());
+    }
+}
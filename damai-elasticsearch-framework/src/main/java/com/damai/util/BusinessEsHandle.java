@@ -38,6 +38,7 @@ import org.elasticsearch.search.sort.SortOrder;
 import org.springframework.data.mapping.model.Property;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -46,6 +47,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
@@ -56,6 +58,12 @@ import java.util.Objects;
 @AllArgsConstructor
 public class BusinessEsHandle {
     
+    private static final int BULK_MAX_RETRY_COUNT = 3;
+    
+    private static final long BULK_RETRY_INTERVAL_MILLIS = 200L;
+    
+    private static final ContentType NDJSON_CONTENT_TYPE = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+    
     private final RestClient restClient;
     
     private final Boolean esSwitch;
@@ -101,7 +109,7 @@ public class BusinessEsHandle {
         }
         builder = builder.endObject().endObject().startObject("settings").field("number_of_shards", 3)
                 .field("number_of_replicas", 1).endObject().endObject();
-    
+        
         indexRequest.source(builder);
         String source = indexRequest.source().utf8ToString();
         log.info("create index execute dsl : {}",source);
@@ -111,7 +119,7 @@ public class BusinessEsHandle {
         request.addParameters(Collections.<String, String>emptyMap());
         Response performRequest = restClient.performRequest(request);
     }
-
+    
     /**
      * 检查索引是否存在
      *
@@ -178,6 +186,224 @@ public class BusinessEsHandle {
         deleteIndex(indexName);
     }
     
+    /**
+     * 查询别名指向的索引
+     *
+     * @param aliasName 别名
+     * @return 索引名字集合 别名不存在时返回空集合，查询失败时返回null，调用方不能把查询失败当作别名不存在
+     */
+    public List<String> getAliasIndexList(String aliasName) {
+        if (!esSwitch) {
+            return new ArrayList<>();
+        }
+        try {
+            Request request = new Request("GET", "/_alias/" + aliasName);
+            request.addParameters(Collections.<String, String>emptyMap());
+            Response response = restClient.performRequest(request);
+            JSONObject result = JSONObject.parseObject(EntityUtils.toString(response.getEntity()));
+            return Objects.isNull(result) ? new ArrayList<>() : new ArrayList<>(result.keySet());
+        }catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() == RestStatus.NOT_FOUND.getStatus()) {
+                return new ArrayList<>();
+            }
+            log.error("getAliasIndexList error",e);
+        }catch (Exception e) {
+            log.error("getAliasIndexList error",e);
+        }
+        return null;
+    }
+    
+    /**
+     * 按通配符查询索引名字
+     *
+     * @param indexPattern 索引名字通配符 例如 prefix-program-*
+     * @return 索引名字集合
+     */
+    public List<String> getIndexList(String indexPattern) {
+        List<String> indexList = new ArrayList<>();
+        if (!esSwitch) {
+            return indexList;
+        }
+        try {
+            Request request = new Request("GET", "/_cat/indices/" + indexPattern);
+            request.addParameter("format", "json");
+            request.addParameter("h", "index");
+            Response response = restClient.performRequest(request);
+            JSONArray result = JSONArray.parseArray(EntityUtils.toString(response.getEntity()));
+            if (Objects.nonNull(result)) {
+                for (int i = 0; i < result.size(); i++) {
+                    indexList.add(result.getJSONObject(i).getString("index"));
+                }
+            }
+        }catch (Exception e) {
+            log.error("getIndexList error",e);
+        }
+        return indexList;
+    }
+    
+    /**
+     * 原子地把别名切换到新索引，一次 _aliases 请求中完成添加和移除，查询不会看到别名为空的中间状态
+     * 如果存在和别名同名的索引(改用别名之前创建的索引)，在同一次请求中删除，调用方需要在新索引校验通过后才能切换
+     * 查询别名失败时不切换，避免把同名的旧索引当作不存在
+     *
+     * @param aliasName 别名
+     * @param indexName 新索引名字
+     * @return boolean
+     */
+    public boolean switchAlias(String aliasName, String indexName) {
+        if (!esSwitch) {
+            return false;
+        }
+        List<String> oldIndexList = getAliasIndexList(aliasName);
+        if (Objects.isNull(oldIndexList)) {
+            log.error("switchAlias get alias index list error aliasName : {}", aliasName);
+            return false;
+        }
+        JSONArray actions = new JSONArray();
+        actions.add(aliasAction("add", indexName, aliasName));
+        for (String oldIndex : oldIndexList) {
+            if (!Objects.equals(oldIndex, indexName)) {
+                actions.add(aliasAction("remove", oldIndex, aliasName));
+            }
+        }
+        if (oldIndexList.isEmpty() && existIndex(aliasName)) {
+            JSONObject removeIndex = new JSONObject();
+            removeIndex.put("index", aliasName);
+            JSONObject action = new JSONObject();
+            action.put("remove_index", removeIndex);
+            actions.add(action);
+        }
+        JSONObject body = new JSONObject();
+        body.put("actions", actions);
+        try {
+            String source = body.toJSONString();
+            log.info("switch alias execute dsl : {}",source);
+            Request request = new Request("POST", "/_aliases");
+            request.setEntity(new NStringEntity(source, ContentType.APPLICATION_JSON));
+            request.addParameters(Collections.<String, String>emptyMap());
+            Response response = restClient.performRequest(request);
+            JSONObject result = JSONObject.parseObject(EntityUtils.toString(response.getEntity()));
+            return Objects.nonNull(result) && result.getBooleanValue("acknowledged");
+        }catch (Exception e) {
+            log.error("switchAlias error",e);
+        }
+        return false;
+    }
+    
+    private JSONObject aliasAction(String type, String indexName, String aliasName) {
+        JSONObject target = new JSONObject();
+        target.put("index", indexName);
+        target.put("alias", aliasName);
+        JSONObject action = new JSONObject();
+        action.put(type, target);
+        return action;
+    }
+    
+    /**
+     * 索引或者别名是否存在
+     *
+     * @param indexName 索引名字
+     * @return boolean
+     */
+    public boolean existIndex(String indexName) {
+        if (!esSwitch) {
+            return false;
+        }
+        try {
+            Request request = new Request("HEAD", "/" + indexName);
+            request.addParameters(Collections.<String, String>emptyMap());
+            Response response = restClient.performRequest(request);
+            return response.getStatusLine().getStatusCode() == RestStatus.OK.getStatus();
+        }catch (Exception e) {
+            log.error("existIndex error",e);
+        }
+        return false;
+    }
+    
+    /**
+     * 刷新索引，使已经写入的文档可以被查询和统计
+     *
+     * @param indexName 索引名字
+     * @return boolean
+     */
+    public boolean refreshIndex(String indexName) {
+        if (!esSwitch) {
+            return false;
+        }
+        try {
+            Request request = new Request("POST", "/" + indexName + "/_refresh");
+            request.addParameters(Collections.<String, String>emptyMap());
+            restClient.performRequest(request);
+            return true;
+        }catch (Exception e) {
+            log.error("refreshIndex error",e);
+        }
+        return false;
+    }
+    
+    /**
+     * 统计索引的文档数量
+     *
+     * @param indexName 索引名字
+     * @return 文档数量 失败时返回-1
+     */
+    public long count(String indexName) {
+        if (!esSwitch) {
+            return -1;
+        }
+        try {
+            Request request = new Request("GET", "/" + indexName + "/_count");
+            request.addParameters(Collections.<String, String>emptyMap());
+            Response response = restClient.performRequest(request);
+            JSONObject result = JSONObject.parseObject(EntityUtils.toString(response.getEntity()));
+            return Objects.isNull(result) ? -1 : result.getLongValue("count");
+        }catch (Exception e) {
+            log.error("count error",e);
+        }
+        return -1;
+    }
+    
+    /**
+     * 按文档id批量查询，统计存在的文档数量
+     *
+     * @param indexName 索引名字
+     * @param indexType 索引类型
+     * @param idList 文档id集合
+     * @return 存在的文档数量 失败时返回-1
+     */
+    public int countExistDocument(String indexName, String indexType, Collection<String> idList) {
+        if (!esSwitch) {
+            return -1;
+        }
+        if (CollectionUtil.isEmpty(idList)) {
+            return 0;
+        }
+        try {
+            String endpoint = esTypeSwitch ? "/" + indexName + "/" + indexType + "/_mget" : "/" + indexName + "/_mget";
+            JSONObject body = new JSONObject();
+            body.put("ids", idList);
+            Request request = new Request("POST", endpoint);
+            request.setEntity(new NStringEntity(body.toJSONString(), ContentType.APPLICATION_JSON));
+            request.addParameter("_source", "false");
+            Response response = restClient.performRequest(request);
+            JSONObject result = JSONObject.parseObject(EntityUtils.toString(response.getEntity()));
+            JSONArray docs = Objects.isNull(result) ? null : result.getJSONArray("docs");
+            if (Objects.isNull(docs)) {
+                return 0;
+            }
+            int existCount = 0;
+            for (int i = 0; i < docs.size(); i++) {
+                if (docs.getJSONObject(i).getBooleanValue("found")) {
+                    existCount++;
+                }
+            }
+            return existCount;
+        }catch (Exception e) {
+            log.error("countExistDocument error",e);
+        }
+        return -1;
+    }
+    
     /**
      * 添加
      *
@@ -218,7 +444,7 @@ public class BusinessEsHandle {
             if (StringUtil.isNotEmpty(id)) {
                 endpoint = endpoint + "/" + id;
             }
-            log.info("add dsl : {}",jsonString);
+            log.debug("add dsl : {}",jsonString);
             Request request = new Request("POST",endpoint);
             request.setEntity(entity);
             request.addParameters(Collections.<String, String>emptyMap());
@@ -231,6 +457,149 @@ public class BusinessEsHandle {
         return false;
     }
     
+    /**
+     * 批量添加，使用 _bulk 接口按请求体大小分批发送
+     * 每个文档的结果单独检查，被拒绝(429)或者es内部错误(5xx)的文档重试，其余失败的文档记录日志
+     *
+     * @param indexName 索引名字
+     * @param indexType 索引类型
+     * @param paramsList 参数集合 每个元素 key:字段名 value:具体值
+     * @param idParamName 作为文档id的字段名 为空则使用es默认id，指定后重试不会产生重复文档
+     * @param batchBytes 每次请求的最大字节数
+     * @return 全部添加成功返回true
+     */
+    public boolean bulkAdd(String indexName, String indexType, List<Map<String,Object>> paramsList, 
+                           String idParamName, long batchBytes) {
+        if (!esSwitch) {
+            return false;
+        }
+        if (CollectionUtil.isEmpty(paramsList)) {
+            return true;
+        }
+        String endpoint = esTypeSwitch ? "/" + indexName + "/" + indexType + "/_bulk" : "/" + indexName + "/_bulk";
+        List<String> itemList = new ArrayList<>(paramsList.size());
+        for (Map<String, Object> params : paramsList) {
+            JSONObject action = new JSONObject();
+            if (esTypeSwitch) {
+                action.put("_type", indexType);
+            }
+            if (StringUtil.isNotEmpty(idParamName) && Objects.nonNull(params.get(idParamName))) {
+                action.put("_id", String.valueOf(params.get(idParamName)));
+            }
+            JSONObject meta = new JSONObject();
+            meta.put("index", action);
+            itemList.add(meta.toJSONString() + "\n" + JSON.toJSONString(params) + "\n");
+        }
+        int failCount = 0;
+        List<String> batch = new ArrayList<>();
+        long batchSize = 0;
+        for (String item : itemList) {
+            long itemSize = item.getBytes(StandardCharsets.UTF_8).length;
+            if (!batch.isEmpty() && batchSize + itemSize > batchBytes) {
+                failCount += bulkExecute(endpoint, batch);
+                batch = new ArrayList<>();
+                batchSize = 0;
+            }
+            batch.add(item);
+            batchSize += itemSize;
+        }
+        if (!batch.isEmpty()) {
+            failCount += bulkExecute(endpoint, batch);
+        }
+        log.info("bulkAdd index : {} total : {} fail : {}", indexName, itemList.size(), failCount);
+        return failCount == 0;
+    }
+    
+    /**
+     * 执行一批 _bulk 请求，可重试的失败文档重新发送，_bulk 响应中items的顺序和请求中文档的顺序相同
+     *
+     * @return 最终失败的文档数量
+     */
+    private int bulkExecute(String endpoint, List<String> itemList) {
+        List<String> pendingList = itemList;
+        int failCount = 0;
+        for (int attempt = 0; attempt <= BULK_MAX_RETRY_COUNT && !pendingList.isEmpty(); attempt++) {
+            if (attempt > 0 && !sleepBeforeRetry(attempt)) {
+                break;
+            }
+            List<String> retryList = new ArrayList<>();
+            boolean lastAttempt = attempt == BULK_MAX_RETRY_COUNT;
+            JSONArray items;
+            try {
+                items = bulkRequest(endpoint, pendingList);
+            }catch (Exception e) {
+                if (!lastAttempt && isRetryable(e)) {
+                    log.warn("bulk request error attempt : {} size : {}", attempt, pendingList.size(), e);
+                    continue;
+                }
+                log.error("bulk request error size : {}", pendingList.size(), e);
+                return failCount + pendingList.size();
+            }
+            if (Objects.isNull(items)) {
+                return failCount;
+            }
+            for (int i = 0; i < pendingList.size(); i++) {
+                JSONObject result = i >= items.size() ? null : items.getJSONObject(i).getJSONObject("index");
+                int status = Objects.isNull(result) ? RestStatus.INTERNAL_SERVER_ERROR.getStatus() : result.getIntValue("status");
+                if (status >= RestStatus.OK.getStatus() && status < RestStatus.MULTIPLE_CHOICES.getStatus()) {
+                    continue;
+                }
+                if (!lastAttempt && isRetryable(status)) {
+                    retryList.add(pendingList.get(i));
+                }else {
+                    failCount++;
+                    log.error("bulk item error status : {} id : {} error : {}", status, 
+                            Objects.isNull(result) ? null : result.getString("_id"),
+                            Objects.isNull(result) ? null : result.getString("error"));
+                }
+            }
+            pendingList = retryList;
+        }
+        return failCount + pendingList.size();
+    }
+    
+    /**
+     * 发送 _bulk 请求
+     *
+     * @return 有文档失败时返回每个文档的结果，全部成功返回null
+     */
+    private JSONArray bulkRequest(String endpoint, List<String> itemList) throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (String item : itemList) {
+            body.append(item);
+        }
+        Request request = new Request("POST", endpoint);
+        request.setEntity(new NStringEntity(body.toString(), NDJSON_CONTENT_TYPE));
+        request.addParameters(Collections.<String, String>emptyMap());
+        Response response = restClient.performRequest(request);
+        JSONObject result = JSONObject.parseObject(EntityUtils.toString(response.getEntity()));
+        if (Objects.isNull(result) || !result.getBooleanValue("errors")) {
+            return null;
+        }
+        return result.getJSONArray("items");
+    }
+    
+    private boolean isRetryable(Exception e) {
+        if (e instanceof ResponseException) {
+            return isRetryable(((ResponseException)e).getResponse().getStatusLine().getStatusCode());
+        }
+        return e instanceof IOException;
+    }
+    
+    private boolean isRetryable(int status) {
+        return status == RestStatus.TOO_MANY_REQUESTS.getStatus() || status >= RestStatus.INTERNAL_SERVER_ERROR.getStatus();
+    }
+    
+    private boolean sleepBeforeRetry(int attempt) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(BULK_RETRY_INTERVAL_MILLIS << (attempt - 1));
+            return true;
+        }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
     /**
      * 查询
      *
@@ -0,0 +1,319 @@
+package com.damai.util;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 批量写入es的测试，用本地http服务模拟 _bulk 接口，可以按文档id指定每次返回的状态码，
+ * 校验请求按字节数拆分、文档使用指定的id、只有429和5xx的文档会退避重试
+ * @author: 阿星不是程序员
+ **/
+public class BusinessEsHandleBulkTest {
+    
+    private static final String INDEX_NAME = "damai-program";
+    
+    private static final String INDEX_TYPE = "_doc";
+    
+    private static final String ID_PARAM_NAME = "id";
+    
+    private HttpServer server;
+    
+    private RestClient restClient;
+    
+    /**
+     * 收到的每次 _bulk 请求
+     * */
+    private final List<BulkRequest> bulkRequestList = Collections.synchronizedList(new ArrayList<>());
+    
+    /**
+     * 文档id对应的接下来每次写入返回的状态码，没有指定时返回201
+     * */
+    private final Map<String, Deque<Integer>> itemStatusMap = new ConcurrentHashMap<>();
+    
+    /**
+     * 接下来整个请求返回的状态码，没有指定时返回200
+     * */
+    private final Deque<Integer> requestStatusDeque = new ConcurrentLinkedDeque<>();
+    
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        restClient = RestClient.builder(new HttpHost("127.0.0.1", server.getAddress().getPort())).build();
+    }
+    
+    @AfterEach
+    public void tearDown() throws IOException {
+        restClient.close();
+        server.stop(0);
+    }
+    
+    @Test
+    public void documentsUseExplicitIdAndRequestsAreSplitByBytes() {
+        List<Map<String, Object>> paramsList = paramsList(20);
+        long batchBytes = 400;
+        
+        assertTrue(handle(false).bulkAdd(INDEX_NAME, INDEX_TYPE, paramsList, ID_PARAM_NAME, batchBytes));
+        
+        assertTrue(bulkRequestList.size() > 1, "requestCount : " + bulkRequestList.size());
+        for (BulkRequest bulkRequest : bulkRequestList) {
+            assertEquals("/" + INDEX_NAME + "/_bulk", bulkRequest.path);
+            assertTrue(bulkRequest.contentType.startsWith("application/x-ndjson"), bulkRequest.contentType);
+            assertTrue(bulkRequest.bytes <= batchBytes || bulkRequest.idList.size() == 1, "bytes : " + bulkRequest.bytes);
+            bulkRequest.actionList.forEach(action -> assertFalse(action.containsKey("_type")));
+        }
+        assertEquals(idList(1, 20), sentIdList());
+        //_id和文档中的节目id相同，重试时覆盖同一个文档
+        for (BulkRequest bulkRequest : bulkRequestList) {
+            for (int i = 0; i < bulkRequest.idList.size(); i++) {
+                assertEquals(bulkRequest.sourceList.get(i).getString(ID_PARAM_NAME), bulkRequest.idList.get(i));
+            }
+        }
+    }
+    
+    @Test
+    public void singleRequestWhenBatchBytesIsLarge() {
+        assertTrue(handle(false).bulkAdd(INDEX_NAME, INDEX_TYPE, paramsList(20), ID_PARAM_NAME, 5 * 1024 * 1024));
+        
+        assertEquals(1, bulkRequestList.size());
+        assertEquals(idList(1, 20), bulkRequestList.get(0).idList);
+    }
+    
+    @Test
+    public void onlyRetryableItemsAreResent() {
+        itemStatus("3", 429);
+        itemStatus("5", 503);
+        itemStatus("7", 400);
+        
+        long start = System.currentTimeMillis();
+        boolean result = handle(false).bulkAdd(INDEX_NAME, INDEX_TYPE, paramsList(10), ID_PARAM_NAME, 5 * 1024 * 1024);
+        long elapsed = System.currentTimeMillis() - start;
+        
+        //400的文档不会重试，整体返回失败
+        assertFalse(result);
+        assertEquals(2, bulkRequestList.size());
+        assertEquals(idList(1, 10), bulkRequestList.get(0).idList);
+        assertEquals(List.of("3", "5"), bulkRequestList.get(1).idList);
+        assertTrue(elapsed >= 200, "elapsed : " + elapsed);
+    }
+    
+    @Test
+    public void retryableItemsSucceedAfterRetry() {
+        itemStatus("2", 429, 429);
+        itemStatus("4", 500);
+        
+        assertTrue(handle(false).bulkAdd(INDEX_NAME, INDEX_TYPE, paramsList(5), ID_PARAM_NAME, 5 * 1024 * 1024));
+        
+        assertEquals(3, bulkRequestList.size());
+        assertEquals(List.of("2", "4"), bulkRequestList.get(1).idList);
+        assertEquals(List.of("2"), bulkRequestList.get(2).idList);
+    }
+    
+    @Test
+    public void retryStopsAfterMaxRetryWithBackoff() {
+        itemStatus("1", 429, 429, 429, 429, 429);
+        
+        long start = System.currentTimeMillis();
+        boolean result = handle(false).bulkAdd(INDEX_NAME, INDEX_TYPE, paramsList(2), ID_PARAM_NAME, 5 * 1024 * 1024);
+        long elapsed = System.currentTimeMillis() - start;
+        
+        assertFalse(result);
+        //第一次发送加上3次重试
+        assertEquals(4, bulkRequestList.size());
+        for (int i = 1; i < bulkRequestList.size(); i++) {
+            assertEquals(List.of("1"), bulkRequestList.get(i).idList);
+        }
+        //退避间隔 200 + 400 + 800
+        assertTrue(elapsed >= 1400, "elapsed : " + elapsed);
+        assertEquals(1, itemStatusMap.get("1").size());
+    }
+    
+    @Test
+    public void rejectedRequestIsResentAsWhole() {
+        requestStatusDeque.add(503);
+        
+        assertTrue(handle(false).bulkAdd(INDEX_NAME, INDEX_TYPE, paramsList(5), ID_PARAM_NAME, 5 * 1024 * 1024));
+        
+        assertEquals(2, bulkRequestList.size());
+        assertEquals(bulkRequestList.get(0).idList, bulkRequestList.get(1).idList);
+    }
+    
+    @Test
+    public void badRequestIsNotResent() {
+        requestStatusDeque.add(400);
+        
+        assertFalse(handle(false).bulkAdd(INDEX_NAME, INDEX_TYPE, paramsList(5), ID_PARAM_NAME, 5 * 1024 * 1024));
+        
+        assertEquals(1, bulkRequestList.size());
+    }
+    
+    @Test
+    public void typeIsWrittenWhenTypeSwitchIsOn() {
+        assertTrue(handle(true).bulkAdd(INDEX_NAME, INDEX_TYPE, paramsList(3), ID_PARAM_NAME, 5 * 1024 * 1024));
+        
+        BulkRequest bulkRequest = bulkRequestList.get(0);
+        assertEquals("/" + INDEX_NAME + "/" + INDEX_TYPE + "/_bulk", bulkRequest.path);
+        bulkRequest.actionList.forEach(action -> assertEquals(INDEX_TYPE, action.getString("_type")));
+    }
+    
+    @Test
+    public void documentWithoutIdUsesGeneratedId() {
+        List<Map<String, Object>> paramsList = paramsList(3);
+        paramsList.get(1).remove(ID_PARAM_NAME);
+        
+        assertTrue(handle(false).bulkAdd(INDEX_NAME, INDEX_TYPE, paramsList, ID_PARAM_NAME, 5 * 1024 * 1024));
+        
+        List<JSONObject> actionList = bulkRequestList.get(0).actionList;
+        assertEquals("1", actionList.get(0).getString("_id"));
+        assertFalse(actionList.get(1).containsKey("_id"));
+        assertEquals("3", actionList.get(2).getString("_id"));
+    }
+    
+    @Test
+    public void nothingIsSentWhenSwitchIsOff() {
+        assertFalse(new BusinessEsHandle(restClient, false, false).bulkAdd(INDEX_NAME, INDEX_TYPE, paramsList(3),
+                ID_PARAM_NAME, 5 * 1024 * 1024));
+        assertTrue(handle(false).bulkAdd(INDEX_NAME, INDEX_TYPE, new ArrayList<>(), ID_PARAM_NAME, 5 * 1024 * 1024));
+        
+        assertTrue(bulkRequestList.isEmpty());
+    }
+    
+    private BusinessEsHandle handle(boolean esTypeSwitch) {
+        return new BusinessEsHandle(restClient, true, esTypeSwitch);
+    }
+    
+    private List<Map<String, Object>> paramsList(int size) {
+        List<Map<String, Object>> paramsList = new ArrayList<>(size);
+        for (long id = 1; id <= size; id++) {
+            Map<String, Object> params = new HashMap<>(4);
+            params.put(ID_PARAM_NAME, id);
+            //中文标题按utf-8计算字节数
+            params.put("title", "演唱会-" + id);
+            paramsList.add(params);
+        }
+        return paramsList;
+    }
+    
+    private List<String> idList(int start, int end) {
+        List<String> idList = new ArrayList<>();
+        for (int id = start; id <= end; id++) {
+            idList.add(String.valueOf(id));
+        }
+        return idList;
+    }
+    
+    private List<String> sentIdList() {
+        return bulkRequestList.stream().flatMap(bulkRequest -> bulkRequest.idList.stream()).collect(Collectors.toList());
+    }
+    
+    private void itemStatus(String id, Integer... statusArray) {
+        itemStatusMap.put(id, new ConcurrentLinkedDeque<>(List.of(statusArray)));
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] bytes;
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            bytes = inputStream.readAllBytes();
+        }
+        String path = exchange.getRequestURI().getPath();
+        if (!path.endsWith("/_bulk")) {
+            respond(exchange, 404, "{\"error\":\"not found\",\"status\":404}");
+            return;
+        }
+        BulkRequest bulkRequest = new BulkRequest(path, exchange.getRequestHeaders().getFirst("Content-Type"), bytes);
+        bulkRequestList.add(bulkRequest);
+        Integer requestStatus = requestStatusDeque.poll();
+        if (requestStatus != null) {
+            respond(exchange, requestStatus, "{\"error\":\"stub error\",\"status\":" + requestStatus + "}");
+            return;
+        }
+        boolean errors = false;
+        JSONArray items = new JSONArray();
+        for (String id : bulkRequest.idList) {
+            Deque<Integer> statusDeque = id == null ? null : itemStatusMap.get(id);
+            Integer status = statusDeque == null ? null : statusDeque.poll();
+            JSONObject result = new JSONObject();
+            result.put("_id", id);
+            result.put("status", status == null ? 201 : status);
+            if (status != null) {
+                errors = true;
+                result.put("error", "stub error " + status);
+            }
+            JSONObject item = new JSONObject();
+            item.put("index", result);
+            items.add(item);
+        }
+        JSONObject response = new JSONObject();
+        response.put("errors", errors);
+        response.put("items", items);
+        respond(exchange, 200, response.toJSONString());
+    }
+    
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+    
+    /**
+     * 解析后的 _bulk 请求，每个文档占两行，第一行是操作，第二行是文档内容
+     * */
+    private static class BulkRequest {
+        
+        private final String path;
+        
+        private final String contentType;
+        
+        private final long bytes;
+        
+        private final List<JSONObject> actionList = new ArrayList<>();
+        
+        private final List<JSONObject> sourceList = new ArrayList<>();
+        
+        private final List<String> idList = new ArrayList<>();
+        
+        private BulkRequest(String path, String contentType, byte[] body) {
+            this.path = path;
+            this.contentType = contentType == null ? "" : contentType;
+            this.bytes = body.length;
+            List<String> lineList = new String(body, StandardCharsets.UTF_8).lines().collect(Collectors.toList());
+            for (int i = 0; i + 1 < lineList.size(); i += 2) {
+                JSONObject action = JSONObject.parseObject(lineList.get(i)).getJSONObject("index");
+                actionList.add(action);
+                sourceList.add(JSONObject.parseObject(lineList.get(i + 1)));
+                idList.add(action.getString("_id"));
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.baidu.fsg.uid.impl;
+
+import com.baidu.fsg.uid.exception.UidGenerateException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 多线程getUid的吞吐量，CachedUidGenerator从RingBuffer中取，DefaultUidGenerator每次CAS计算，
+ * 消费速度超过填充速度时RingBuffer会拒绝take，拒绝的次数单独计数
+ * @author: 阿星不是程序员
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class UidGeneratorBenchmark {
+
+    private CachedUidGenerator cachedUidGenerator;
+
+    private DefaultUidGenerator defaultUidGenerator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        cachedUidGenerator = new CachedUidGenerator();
+        cachedUidGenerator.setWorkerIdAssigner(() -> 1L);
+        cachedUidGenerator.afterPropertiesSet();
+        defaultUidGenerator = new DefaultUidGenerator();
+        defaultUidGenerator.setWorkerIdAssigner(() -> 2L);
+        defaultUidGenerator.afterPropertiesSet();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        cachedUidGenerator.destroy();
+    }
+
+    @Benchmark
+    public long cachedGetUid(RejectedCounter rejectedCounter) {
+        try {
+            return cachedUidGenerator.getUid();
+        } catch (UidGenerateException e) {
+            rejectedCounter.rejected++;
+            return -1L;
+        }
+    }
+
+    @Benchmark
+    public long defaultGetUid() {
+        return defaultUidGenerator.getUid();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RejectedCounter {
+        
+        public long rejected;
+    }
+}
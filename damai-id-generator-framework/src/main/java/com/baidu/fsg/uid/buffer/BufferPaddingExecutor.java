@@ -135,9 +135,13 @@ public class BufferPaddingExecutor {
     }
 
     /**
-     * Padding buffer in the thread pool
+     * Padding buffer in the thread pool, skip submitting when the padding is already running
+     * to avoid piling up tasks for every take under the threshold
      */
     public void asyncPadding() {
+        if (running.get()) {
+            return;
+        }
         bufferPadExecutors.submit(this::paddingBuffer);
     }
 
@@ -153,20 +157,23 @@ public class BufferPaddingExecutor {
             return;
         }
 
-        // fill the rest slots until to catch the cursor
-        boolean isFullRingBuffer = false;
-        while (!isFullRingBuffer) {
-            List<Long> uidList = uidProvider.provide(lastSecond.incrementAndGet());
-            for (Long uid : uidList) {
-                isFullRingBuffer = !ringBuffer.put(uid);
-                if (isFullRingBuffer) {
-                    break;
+        // fill the rest slots until to catch the cursor, only this thread puts into the ring buffer while running
+        try {
+            ringBuffer.decayPaddingThreshold();
+            boolean isFullRingBuffer = false;
+            while (!isFullRingBuffer) {
+                List<Long> uidList = uidProvider.provide(lastSecond.incrementAndGet());
+                for (Long uid : uidList) {
+                    isFullRingBuffer = !ringBuffer.put(uid);
+                    if (isFullRingBuffer) {
+                        break;
+                    }
                 }
             }
+        } finally {
+            // not running now
+            running.compareAndSet(true, false);
         }
-
-        // not running now
-        running.compareAndSet(true, false);
         LOGGER.info("End to padding buffer lastSecond:{}. {}", lastSecond.get(), ringBuffer);
     }
 
@@ -16,6 +16,7 @@
 package com.baidu.fsg.uid.buffer;
 
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +35,10 @@ import com.baidu.fsg.uid.utils.PaddedAtomicLong;
  * <li><b>tail:</b> a sequence of the max slot position to produce 
  * <li><b>cursor:</b> a sequence of the min slot position to consume
  * 
+ * The ring is single-producer/multi-consumer: the only producer is the padding thread guarded by
+ * {@link BufferPaddingExecutor#isRunning()}, so the tail and flags are published with release semantics
+ * and read with acquire semantics instead of a lock
+ * 
  * @author yutianbao
  */
 public class RingBuffer {
@@ -44,6 +49,7 @@ public class RingBuffer {
     private static final long CAN_PUT_FLAG = 0L;
     private static final long CAN_TAKE_FLAG = 1L;
     public static final int DEFAULT_PADDING_PERCENT = 50;
+    public static final int MAX_PADDING_PERCENT = 90;
 
     /** The size of RingBuffer's slots, each slot hold a UID */
     private final int bufferSize;
@@ -57,8 +63,22 @@ public class RingBuffer {
     /** Cursor: current position sequence to consume */
     private final AtomicLong cursor = new PaddedAtomicLong(START_POINT);
 
-    /** Threshold for trigger padding buffer*/
-    private final int paddingThreshold; 
+    /** 
+     * Threshold for trigger padding buffer, grows when the consumers outpace the padding and decays back
+     * to the initial threshold step by step on the padding rounds without any raise
+     */
+    private volatile int paddingThreshold;
+    private final int initialPaddingThreshold;
+    private final int maxPaddingThreshold;
+    private final int paddingThresholdStep;
+    /** Raise count seen by the last padding round, only accessed by the padding thread */
+    private long lastPaddingRaiseCount;
+
+    /** Occupancy metrics */
+    private final LongAdder rejectedPutCount = new LongAdder();
+    private final LongAdder rejectedTakeCount = new LongAdder();
+    private final LongAdder paddingThresholdRaiseCount = new LongAdder();
+    private final LongAdder paddingThresholdDecayCount = new LongAdder();
     
     /** Reject put/take buffer handle policy */
     private RejectedPutBufferHandler rejectedPutHandler = this::discardPutBuffer;
@@ -96,45 +116,49 @@ public class RingBuffer {
         this.flags = initFlags(bufferSize);
         
         this.paddingThreshold = bufferSize * paddingFactor / 100;
+        this.initialPaddingThreshold = paddingThreshold;
+        this.maxPaddingThreshold = Math.max(paddingThreshold, bufferSize * MAX_PADDING_PERCENT / 100);
+        this.paddingThresholdStep = Math.max(1, bufferSize / 10);
     }
 
     /**
      * Put an UID in the ring & tail moved<br>
-     * We use 'synchronized' to guarantee the UID fill in slot & publish new tail sequence as atomic operations<br>
      * 
-     * <b>Note that: </b> It is recommended to put UID in a serialize way, cause we once batch generate a series UIDs and put
-     * the one by one into the buffer, so it is unnecessary put in multi-threads
+     * <b>Note that: </b> This is a single producer operation, UIDs are batch generated and put one by one into the buffer
+     * by the padding thread only, so the UID fill in slot & publish new tail sequence need no lock
      *
      * @param uid
      * @return false means that the buffer is full, apply {@link RejectedPutBufferHandler}
      */
-    public synchronized boolean put(long uid) {
+    public boolean put(long uid) {
         long currentTail = tail.get();
-        long currentCursor = cursor.get();
+        long currentCursor = cursor.getAcquire();
 
         // tail catches the cursor, means that you can't put any cause of RingBuffer is full
         long distance = currentTail - (currentCursor == START_POINT ? 0 : currentCursor);
         if (distance == bufferSize - 1) {
+            rejectedPutCount.increment();
             rejectedPutHandler.rejectPutBuffer(this, uid);
             return false;
         }
 
         // 1. pre-check whether the flag is CAN_PUT_FLAG
         int nextTailIndex = calSlotIndex(currentTail + 1);
-        if (flags[nextTailIndex].get() != CAN_PUT_FLAG) {
+        if (flags[nextTailIndex].getAcquire() != CAN_PUT_FLAG) {
+            rejectedPutCount.increment();
             rejectedPutHandler.rejectPutBuffer(this, uid);
             return false;
         }
 
         // 2. put UID in the next slot
-        // 3. update next slot' flag to CAN_TAKE_FLAG
-        // 4. publish tail with sequence increase by one
+        // 3. update next slot' flag to CAN_TAKE_FLAG with release semantics
+        // 4. publish tail with sequence increase by one with release semantics
         slots[nextTailIndex] = uid;
-        flags[nextTailIndex].set(CAN_TAKE_FLAG);
-        tail.incrementAndGet();
+        flags[nextTailIndex].setRelease(CAN_TAKE_FLAG);
+        tail.setRelease(currentTail + 1);
 
-        // The atomicity of operations above, guarantees by 'synchronized'. In another word,
-        // the take operation can't consume the UID we just put, until the tail is published(tail.incrementAndGet())
+        // The take operation can't consume the UID we just put, until the tail is published, and the acquire read
+        // of the tail & flag on the consumer side guarantees the slot written before is visible
         return true;
     }
 
@@ -149,40 +173,88 @@ public class RingBuffer {
      * @throws IllegalStateException if the cursor moved back
      */
     public long take() {
-        // spin get next available cursor
-        long currentCursor = cursor.get();
-        long nextCursor = cursor.updateAndGet(old -> old == tail.get() ? old : old + 1);
+        // spin get next available cursor, the cursor read & moved by the same CAS so that an unchanged cursor
+        // always means the ring is empty, instead of a cursor moved by other consumers in between
+        long currentCursor;
+        long nextCursor;
+        do {
+            currentCursor = cursor.get();
+            if (currentCursor == tail.getAcquire()) {
+                nextCursor = currentCursor;
+                break;
+            }
+            nextCursor = currentCursor + 1;
+        } while (!cursor.compareAndSet(currentCursor, nextCursor));
 
         // check for safety consideration, it never occurs
         Assert.isTrue(nextCursor >= currentCursor, "Curosr can't move back");
 
         // trigger padding in an async-mode if reach the threshold
-        long currentTail = tail.get();
-        if (currentTail - nextCursor < paddingThreshold) {
-            LOGGER.info("Reach the padding threshold:{}. tail:{}, cursor:{}, rest:{}", paddingThreshold, currentTail,
-                    nextCursor, currentTail - nextCursor);
+        long currentTail = tail.getAcquire();
+        int threshold = paddingThreshold;
+        long rest = currentTail - nextCursor;
+        if (rest < threshold) {
+            // the consumers outpace the padding thread, trigger padding earlier next time
+            if (bufferPaddingExecutor.isRunning() && rest < (threshold >> 1)) {
+                raisePaddingThreshold(threshold);
+            }
             bufferPaddingExecutor.asyncPadding();
         }
 
         // cursor catch the tail, means that there is no more available UID to take
         if (nextCursor == currentCursor) {
+            rejectedTakeCount.increment();
+            raisePaddingThreshold(threshold);
             rejectedTakeHandler.rejectTakeBuffer(this);
         }
 
         // 1. check next slot flag is CAN_TAKE_FLAG
         int nextCursorIndex = calSlotIndex(nextCursor);
-        Assert.isTrue(flags[nextCursorIndex].get() == CAN_TAKE_FLAG, "Curosr not in can take status");
+        Assert.isTrue(flags[nextCursorIndex].getAcquire() == CAN_TAKE_FLAG, "Curosr not in can take status");
 
         // 2. get UID from next slot
-        // 3. set next slot flag as CAN_PUT_FLAG.
+        // 3. set next slot flag as CAN_PUT_FLAG with release semantics.
         long uid = slots[nextCursorIndex];
-        flags[nextCursorIndex].set(CAN_PUT_FLAG);
+        flags[nextCursorIndex].setRelease(CAN_PUT_FLAG);
 
         // Note that: Step 2,3 can not swap. If we set flag before get value of slot, the producer may overwrite the
         // slot with a new UID, and this may cause the consumer take the UID twice after walk a round the ring
         return uid;
     }
 
+    /**
+     * Raise the padding threshold by one step until {@value #MAX_PADDING_PERCENT} percent of the buffer size,
+     * only the consumer which sees the expected threshold does the update
+     */
+    protected void raisePaddingThreshold(int expectedThreshold) {
+        if (expectedThreshold >= maxPaddingThreshold || paddingThreshold != expectedThreshold) {
+            return;
+        }
+        int raisedThreshold = Math.min(maxPaddingThreshold, expectedThreshold + paddingThresholdStep);
+        paddingThreshold = raisedThreshold;
+        paddingThresholdRaiseCount.increment();
+        LOGGER.info("Raise the padding threshold from {} to {}. {}", expectedThreshold, raisedThreshold, this);
+    }
+
+    /**
+     * Lower the padding threshold by one step towards the initial threshold when no consumer raised it since
+     * the last padding round, so that a single burst does not keep the padding early forever.<br>
+     * 
+     * <b>Note that: </b> Called by the padding thread only at the start of a padding round. A concurrent raise
+     * may overwrite the decayed threshold, both values are within the bounds and the next round decays again
+     */
+    protected void decayPaddingThreshold() {
+        long raiseCount = paddingThresholdRaiseCount.sum();
+        int threshold = paddingThreshold;
+        if (raiseCount == lastPaddingRaiseCount && threshold > initialPaddingThreshold) {
+            int decayedThreshold = Math.max(initialPaddingThreshold, threshold - paddingThresholdStep);
+            paddingThreshold = decayedThreshold;
+            paddingThresholdDecayCount.increment();
+            LOGGER.info("Decay the padding threshold from {} to {}. {}", threshold, decayedThreshold, this);
+        }
+        lastPaddingRaiseCount = raiseCount;
+    }
+
     /**
      * Calculate slot index with the slot sequence (sequence % bufferSize) 
      */
@@ -232,6 +304,41 @@ public class RingBuffer {
         return bufferSize;
     }
 
+    public int getPaddingThreshold() {
+        return paddingThreshold;
+    }
+
+    /**
+     * Count of available UIDs in the ring
+     */
+    public long getAvailableCount() {
+        long currentCursor = cursor.getAcquire();
+        return tail.getAcquire() - (currentCursor == START_POINT ? 0 : currentCursor);
+    }
+
+    /**
+     * Percent of the slots holding available UIDs
+     */
+    public double getOccupancy() {
+        return getAvailableCount() * 100.0D / bufferSize;
+    }
+
+    public long getRejectedPutCount() {
+        return rejectedPutCount.sum();
+    }
+
+    public long getRejectedTakeCount() {
+        return rejectedTakeCount.sum();
+    }
+
+    public long getPaddingThresholdRaiseCount() {
+        return paddingThresholdRaiseCount.sum();
+    }
+
+    public long getPaddingThresholdDecayCount() {
+        return paddingThresholdDecayCount.sum();
+    }
+
     /**
      * Setters
      */
@@ -253,7 +360,9 @@ public class RingBuffer {
         builder.append("RingBuffer [bufferSize=").append(bufferSize)
                .append(", tail=").append(tail)
                .append(", cursor=").append(cursor)
-               .append(", paddingThreshold=").append(paddingThreshold).append("]");
+               .append(", paddingThreshold=").append(paddingThreshold)
+               .append(", rejectedPut=").append(rejectedPutCount.sum())
+               .append(", rejectedTake=").append(rejectedTakeCount.sum()).append("]");
         
         return builder.toString();
     }
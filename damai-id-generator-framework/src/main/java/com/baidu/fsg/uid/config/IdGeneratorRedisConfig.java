@@ -1,6 +1,7 @@
 package com.baidu.fsg.uid.config;
 
 import com.baidu.fsg.uid.worker.WorkerIdAssigner;
+import com.damai.toolkit.WorkAndDataCenterIdHandler;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
@@ -29,7 +30,8 @@ public class IdGeneratorRedisConfig {
     }
     
     @Bean("disposableWorkerIdAssigner")
-    public WorkerIdAssigner redisDisposableWorkerIdAssigner(@Qualifier("idGeneratorRedisTemplate") RedisTemplate redisTemplate){
-        return new RedisDisposableWorkerIdAssigner(redisTemplate);
+    public WorkerIdAssigner redisDisposableWorkerIdAssigner(@Qualifier("idGeneratorRedisTemplate") RedisTemplate redisTemplate,
+                                                            WorkAndDataCenterIdHandler workAndDataCenterIdHandler){
+        return new RedisDisposableWorkerIdAssigner(redisTemplate, workAndDataCenterIdHandler);
     }
 }
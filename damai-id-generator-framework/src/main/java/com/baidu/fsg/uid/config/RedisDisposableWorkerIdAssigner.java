@@ -3,27 +3,49 @@ package com.baidu.fsg.uid.config;
 import com.baidu.fsg.uid.worker.WorkerIdAssigner;
 import com.damai.enums.BaseCode;
 import com.damai.exception.DaMaiFrameException;
+import com.damai.toolkit.WorkAndDataCenterIdHandler;
+import com.damai.toolkit.WorkDataCenterId;
 import org.springframework.data.redis.core.RedisTemplate;
 
+import java.util.Objects;
 import java.util.Optional;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: redis配置生成work_id
+ * 启用租约时直接使用租约占用的槽位作为work_id，节点重启后会复用空闲的槽位，不会无限增长，
+ * 租约丢失后重新获取到其他槽位时，返回新的槽位作为当前的work_id
  * @author: 阿星不是程序员
  **/
 public class RedisDisposableWorkerIdAssigner implements WorkerIdAssigner {
     
     private RedisTemplate redisTemplate;
     
-    public RedisDisposableWorkerIdAssigner (RedisTemplate redisTemplate){
+    private WorkAndDataCenterIdHandler workAndDataCenterIdHandler;
+    
+    public RedisDisposableWorkerIdAssigner (RedisTemplate redisTemplate, WorkAndDataCenterIdHandler workAndDataCenterIdHandler){
         this.redisTemplate = redisTemplate;
+        this.workAndDataCenterIdHandler = workAndDataCenterIdHandler;
     }
     
     @Override
     public long assignWorkerId() {
+        if (workAndDataCenterIdHandler.isLeaseEnabled()) {
+            WorkDataCenterId workDataCenterId = workAndDataCenterIdHandler.getValidWorkDataCenterId();
+            return Optional.ofNullable(workDataCenterId).map(WorkDataCenterId::getLeaseIndex)
+                    .orElseThrow(() -> new DaMaiFrameException(BaseCode.UID_WORK_ID_ERROR));
+        }
         String key = "uid_work_id";
         Long increment = redisTemplate.opsForValue().increment(key);
         return Optional.ofNullable(increment).orElseThrow(() -> new DaMaiFrameException(BaseCode.UID_WORK_ID_ERROR));
     }
+    
+    @Override
+    public Long getCurrentWorkerId(long workerId) {
+        if (!workAndDataCenterIdHandler.isLeaseEnabled()) {
+            return workerId;
+        }
+        WorkDataCenterId workDataCenterId = workAndDataCenterIdHandler.getValidWorkDataCenterId();
+        return Objects.nonNull(workDataCenterId) ? workDataCenterId.getLeaseIndex() : null;
+    }
 }
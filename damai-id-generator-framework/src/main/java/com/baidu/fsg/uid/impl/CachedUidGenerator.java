@@ -59,9 +59,9 @@ public class CachedUidGenerator extends DefaultUidGenerator implements Disposabl
     private RejectedPutBufferHandler rejectedPutBufferHandler;
     private RejectedTakeBufferHandler rejectedTakeBufferHandler;
 
-    /** RingBuffer */
-    private RingBuffer ringBuffer;
-    private BufferPaddingExecutor bufferPaddingExecutor;
+    /** RingBuffer, rebuilt when the worker id is switched */
+    private volatile RingBuffer ringBuffer;
+    private volatile BufferPaddingExecutor bufferPaddingExecutor;
 
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -69,17 +69,27 @@ public class CachedUidGenerator extends DefaultUidGenerator implements Disposabl
         super.afterPropertiesSet();
         
         // initialize RingBuffer & RingBufferPaddingExecutor
-        this.initRingBuffer();
+        this.initRingBuffer(workerId);
         LOGGER.info("Initialized RingBuffer successfully.");
     }
     
     @Override
     public long getUid() {
-        try {
-            return ringBuffer.take();
-        } catch (Exception e) {
-            LOGGER.error("Generate unique id exception. ", e);
-            throw new UidGenerateException(e);
+        while (true) {
+            checkWorkerId();
+            RingBuffer currentRingBuffer = ringBuffer;
+            try {
+                long uid = currentRingBuffer.take();
+                if (currentRingBuffer == ringBuffer) {
+                    return uid;
+                }
+            } catch (Exception e) {
+                if (currentRingBuffer == ringBuffer) {
+                    LOGGER.error("Generate unique id exception. ", e);
+                    throw new UidGenerateException(e);
+                }
+            }
+            // The ring buffer was rebuilt for a switched worker id while taking, the UID belongs to the lost worker id
         }
     }
     
@@ -103,6 +113,24 @@ public class CachedUidGenerator extends DefaultUidGenerator implements Disposabl
         bufferPaddingExecutor.shutdown();
     }
 
+    /**
+     * The UIDs padded in the ring buffer carry the lost worker id, which may be owned by another node now,
+     * so the ring buffer is dropped and rebuilt with the re-acquired worker id
+     */
+    @Override
+    protected synchronized void switchWorkerId(long newWorkerId) {
+        if (newWorkerId == workerId) {
+            return;
+        }
+        checkMaxWorkerId(newWorkerId);
+        // publish the worker id after the new ring buffer, the callers which see the lost worker id wait here
+        BufferPaddingExecutor lostBufferPaddingExecutor = bufferPaddingExecutor;
+        initRingBuffer(newWorkerId);
+        super.switchWorkerId(newWorkerId);
+        lostBufferPaddingExecutor.shutdown();
+        LOGGER.info("Rebuilt RingBuffer for worker id:{}", newWorkerId);
+    }
+
     /**
      * Get the UIDs in the same specified second under the max sequence
      * 
@@ -110,6 +138,13 @@ public class CachedUidGenerator extends DefaultUidGenerator implements Disposabl
      * @return UID list, size of {@link BitsAllocator#getMaxSequence()} + 1
      */
     protected List<Long> nextIdsForOneSecond(long currentSecond) {
+        return nextIdsForOneSecond(currentSecond, workerId);
+    }
+
+    /**
+     * Get the UIDs of the specified worker id in the same specified second under the max sequence
+     */
+    protected List<Long> nextIdsForOneSecond(long currentSecond, long workerId) {
         // Initialize result list size of (max sequence + 1)
         int listSize = (int) bitsAllocator.getMaxSequence() + 1;
         List<Long> uidList = new ArrayList<>(listSize);
@@ -126,35 +161,47 @@ public class CachedUidGenerator extends DefaultUidGenerator implements Disposabl
     /**
      * Initialize RingBuffer & RingBufferPaddingExecutor
      */
-    private void initRingBuffer() {
+    private void initRingBuffer(long ringWorkerId) {
         // initialize RingBuffer
         int bufferSize = ((int) bitsAllocator.getMaxSequence() + 1) << boostPower;
-        this.ringBuffer = new RingBuffer(bufferSize, paddingFactor);
+        RingBuffer newRingBuffer = new RingBuffer(bufferSize, paddingFactor);
         LOGGER.info("Initialized ring buffer size:{}, paddingFactor:{}", bufferSize, paddingFactor);
 
         // initialize RingBufferPaddingExecutor
         boolean usingSchedule = (scheduleInterval != null);
-        this.bufferPaddingExecutor = new BufferPaddingExecutor(ringBuffer, this::nextIdsForOneSecond, usingSchedule);
+        BufferPaddingExecutor newBufferPaddingExecutor = new BufferPaddingExecutor(newRingBuffer, 
+                currentSecond -> nextIdsForOneSecond(currentSecond, ringWorkerId), usingSchedule);
         if (usingSchedule) {
-            bufferPaddingExecutor.setScheduleInterval(scheduleInterval);
+            newBufferPaddingExecutor.setScheduleInterval(scheduleInterval);
         }
         
         LOGGER.info("Initialized BufferPaddingExecutor. Using schdule:{}, interval:{}", usingSchedule, scheduleInterval);
         
         // set rejected put/take handle policy
-        this.ringBuffer.setBufferPaddingExecutor(bufferPaddingExecutor);
+        newRingBuffer.setBufferPaddingExecutor(newBufferPaddingExecutor);
         if (rejectedPutBufferHandler != null) {
-            this.ringBuffer.setRejectedPutHandler(rejectedPutBufferHandler);
+            newRingBuffer.setRejectedPutHandler(rejectedPutBufferHandler);
         }
         if (rejectedTakeBufferHandler != null) {
-            this.ringBuffer.setRejectedTakeHandler(rejectedTakeBufferHandler);
+            newRingBuffer.setRejectedTakeHandler(rejectedTakeBufferHandler);
         }
         
         // fill in all slots of the RingBuffer
-        bufferPaddingExecutor.paddingBuffer();
+        newBufferPaddingExecutor.paddingBuffer();
         
         // start buffer padding threads
-        bufferPaddingExecutor.start();
+        newBufferPaddingExecutor.start();
+
+        // publish the filled RingBuffer, consumers never see a half initialized one when it is rebuilt
+        this.bufferPaddingExecutor = newBufferPaddingExecutor;
+        this.ringBuffer = newRingBuffer;
+    }
+
+    /**
+     * RingBuffer of the generator, exposes occupancy metrics such as available count, padding threshold & rejections
+     */
+    public RingBuffer getRingBuffer() {
+        return ringBuffer;
     }
 
     /**
@@ -19,6 +19,7 @@ import com.baidu.fsg.uid.BitsAllocator;
 import com.baidu.fsg.uid.UidGenerator;
 import com.baidu.fsg.uid.exception.UidGenerateException;
 import com.baidu.fsg.uid.utils.AbstractDateUtils;
+import com.baidu.fsg.uid.utils.PaddedAtomicLong;
 import com.baidu.fsg.uid.worker.WorkerIdAssigner;
 import com.damai.toolkit.SnowflakeIdGenerator;
 import org.apache.commons.lang.StringUtils;
@@ -70,13 +71,15 @@ public class DefaultUidGenerator implements UidGenerator, InitializingBean {
     protected String epochStr = "2024-05-20";
     protected long epochSeconds = TimeUnit.MILLISECONDS.toSeconds(1716134400000L);
 
-    /** Stable fields after spring bean initializing */
+    /** Stable fields after spring bean initializing, the worker id only changes when the node re-acquired another one */
     protected BitsAllocator bitsAllocator;
-    protected long workerId;
+    protected volatile long workerId;
 
-    /** Volatile fields caused by nextId() */
-    protected long sequence = 0L;
-    protected long lastSecond = -1L;
+    /** 
+     * Volatile state caused by nextId(), packed as (delta seconds << seqBits | sequence) so that
+     * the second & sequence can be moved forward together by a single CAS
+     */
+    protected final PaddedAtomicLong lastState = new PaddedAtomicLong(-1L);
 
     /** Spring property */
     protected WorkerIdAssigner workerIdAssigner;
@@ -102,6 +105,7 @@ public class DefaultUidGenerator implements UidGenerator, InitializingBean {
 
     @Override
     public long getUid() throws UidGenerateException {
+        checkWorkerId();
         try {
             return nextId();
         } catch (Exception e) {
@@ -147,32 +151,78 @@ public class DefaultUidGenerator implements UidGenerator, InitializingBean {
      * @return UID
      * @throws UidGenerateException in the case: Clock moved backwards; Exceeds the max timestamp
      */
-    protected synchronized long nextId() {
-        long currentSecond = getCurrentSecond();
+    protected long nextId() {
+        long maxSequence = bitsAllocator.getMaxSequence();
+        while (true) {
+            // Read the state before the clock, the second in the state was read no later than now,
+            // so a smaller current second here always means the clock really moved backwards
+            long state = lastState.get();
+            long currentSecond = getCurrentSecond();
+            long lastSecond = state < 0 ? -1L : (state >>> seqBits) + epochSeconds;
 
-        // Clock moved backwards, refuse to generate uid
-        if (currentSecond < lastSecond) {
-            long refusedSeconds = lastSecond - currentSecond;
-            throw new UidGenerateException("Clock moved backwards. Refusing for %d seconds", refusedSeconds);
-        }
+            // Clock moved backwards, refuse to generate uid
+            if (currentSecond < lastSecond) {
+                long refusedSeconds = lastSecond - currentSecond;
+                throw new UidGenerateException("Clock moved backwards. Refusing for %d seconds", refusedSeconds);
+            }
 
-        // At the same second, increase sequence
-        if (currentSecond == lastSecond) {
-            sequence = (sequence + 1) & bitsAllocator.getMaxSequence();
-            // Exceed the max sequence, we wait the next second to generate uid
-            if (sequence == 0) {
-                currentSecond = getNextSecond(lastSecond);
+            long nextState;
+            // At the same second, increase sequence
+            if (currentSecond == lastSecond) {
+                // Exceed the max sequence, we wait the next second to generate uid
+                if ((state & maxSequence) == maxSequence) {
+                    getNextSecond(lastSecond);
+                    continue;
+                }
+                nextState = state + 1;
+
+            // At the different second, sequence restart from zero
+            } else {
+                nextState = (currentSecond - epochSeconds) << seqBits;
             }
 
-        // At the different second, sequence restart from zero
-        } else {
-            sequence = 0L;
+            // Another thread moved the state, retry with the latest one
+            if (lastState.compareAndSet(state, nextState)) {
+                // Allocate bits for UID
+                return bitsAllocator.allocate(currentSecond - epochSeconds, workerId, nextState & maxSequence);
+            }
         }
+    }
 
-        lastSecond = currentSecond;
+    /**
+     * Refuse to generate UID when the worker id lease is lost, switch to the re-acquired worker id if there is one
+     *
+     * @throws UidGenerateException in the case: worker id is no longer owned by this node
+     */
+    protected void checkWorkerId() {
+        long usingWorkerId = workerId;
+        Long currentWorkerId = workerIdAssigner.getCurrentWorkerId(usingWorkerId);
+        if (currentWorkerId == null) {
+            throw new UidGenerateException("Worker id %d is no longer valid. Refusing UID generate", usingWorkerId);
+        }
+        if (currentWorkerId != usingWorkerId) {
+            switchWorkerId(currentWorkerId);
+        }
+    }
 
-        // Allocate bits for UID
-        return bitsAllocator.allocate(currentSecond - epochSeconds, workerId, sequence);
+    /**
+     * Switch to the worker id re-acquired after the former one was lost
+     *
+     * @param newWorkerId re-acquired worker id
+     */
+    protected synchronized void switchWorkerId(long newWorkerId) {
+        if (newWorkerId == workerId) {
+            return;
+        }
+        checkMaxWorkerId(newWorkerId);
+        LOGGER.warn("Switch worker id from {} to re-acquired {}", workerId, newWorkerId);
+        workerId = newWorkerId;
+    }
+
+    protected void checkMaxWorkerId(long newWorkerId) {
+        if (newWorkerId > bitsAllocator.getMaxWorkerId()) {
+            throw new UidGenerateException("Worker id %d exceeds the max %d", newWorkerId, bitsAllocator.getMaxWorkerId());
+        }
     }
 
     /**
@@ -190,7 +240,7 @@ public class DefaultUidGenerator implements UidGenerator, InitializingBean {
     /**
      * Get current second
      */
-    private long getCurrentSecond() {
+    protected long getCurrentSecond() {
         long currentSecond = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
         if (currentSecond - epochSeconds > bitsAllocator.getMaxDeltaSeconds()) {
             throw new UidGenerateException("Timestamp bits is exhausted. Refusing UID generate. Now: " + currentSecond);
@@ -29,5 +29,16 @@ public interface WorkerIdAssigner {
      * @return assigned worker id
      */
     long assignWorkerId();
+    
+    /**
+     * Worker id currently owned by this node, default as the assigned one. It differs from the assigned one
+     * when the node lost its worker id and re-acquired another one
+     * 
+     * @param workerId worker id in use
+     * @return null means that no worker id is owned now and UID generation must be refused
+     */
+    default Long getCurrentWorkerId(long workerId) {
+        return workerId;
+    }
 
 }
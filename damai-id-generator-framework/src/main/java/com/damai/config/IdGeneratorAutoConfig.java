@@ -3,6 +3,7 @@ package com.damai.config;
 import com.damai.toolkit.SnowflakeIdGenerator;
 import com.damai.toolkit.WorkAndDataCenterIdHandler;
 import com.damai.toolkit.WorkDataCenterId;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
@@ -11,11 +12,13 @@ import org.springframework.data.redis.core.StringRedisTemplate;
  * @description: 分布式id配置
  * @author: 阿星不是程序员
  **/
+@EnableConfigurationProperties(IdGeneratorProperties.class)
 public class IdGeneratorAutoConfig {
     
     @Bean
-    public WorkAndDataCenterIdHandler workAndDataCenterIdHandler(StringRedisTemplate stringRedisTemplate){
-        return new WorkAndDataCenterIdHandler(stringRedisTemplate);
+    public WorkAndDataCenterIdHandler workAndDataCenterIdHandler(StringRedisTemplate stringRedisTemplate, 
+                                                                 IdGeneratorProperties idGeneratorProperties){
+        return new WorkAndDataCenterIdHandler(stringRedisTemplate, idGeneratorProperties);
     }
     
     @Bean
@@ -24,7 +27,8 @@ public class IdGeneratorAutoConfig {
     }
     
     @Bean
-    public SnowflakeIdGenerator snowflakeIdGenerator(WorkDataCenterId workDataCenterId){
-        return new SnowflakeIdGenerator(workDataCenterId);
+    public SnowflakeIdGenerator snowflakeIdGenerator(WorkDataCenterId workDataCenterId, 
+                                                     WorkAndDataCenterIdHandler workAndDataCenterIdHandler){
+        return new SnowflakeIdGenerator(workDataCenterId, workAndDataCenterIdHandler);
     }
 }
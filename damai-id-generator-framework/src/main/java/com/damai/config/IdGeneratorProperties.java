@@ -0,0 +1,26 @@
+package com.damai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分布式id 配置属性
+ * @author: 阿星不是程序员
+ **/
+@Data
+@ConfigurationProperties(prefix = IdGeneratorProperties.PREFIX)
+public class IdGeneratorProperties {
+    
+    public static final String PREFIX = "id-generator";
+    
+    /**
+     * workId和dataCenterId租约时长(毫秒)
+     * */
+    private Long leaseTime = 30000L;
+    
+    /**
+     * 租约心跳续约间隔(毫秒)，需要小于租约时长
+     * */
+    private Long heartbeatInterval = 10000L;
+}
@@ -2,6 +2,8 @@ package com.damai.toolkit;
 
 import cn.hutool.core.date.SystemClock;
 import cn.hutool.core.lang.Assert;
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 
@@ -32,10 +34,10 @@ public class SnowflakeIdGenerator {
     private final long timestampLeftShift = sequenceBits + workerIdBits + datacenterIdBits;
     private final long sequenceMask = -1L ^ (-1L << sequenceBits);
     
-    private final long workerId;
+    private long workerId;
     
     
-    private final long datacenterId;
+    private long datacenterId;
    
     private long sequence = 0L;
    
@@ -43,6 +45,13 @@ public class SnowflakeIdGenerator {
     
     private InetAddress inetAddress;
     
+    private WorkAndDataCenterIdHandler workAndDataCenterIdHandler;
+    
+    public SnowflakeIdGenerator(WorkDataCenterId workDataCenterId, WorkAndDataCenterIdHandler workAndDataCenterIdHandler) {
+        this(workDataCenterId);
+        this.workAndDataCenterIdHandler = workAndDataCenterIdHandler;
+    }
+    
     public SnowflakeIdGenerator(WorkDataCenterId workDataCenterId) {
         if (Objects.nonNull(workDataCenterId.getDataCenterId())) {
             this.workerId = workDataCenterId.getWorkId();
@@ -108,7 +117,23 @@ public class SnowflakeIdGenerator {
         return id;
     }
     
+    /**
+     * 启用租约时，租约失效则拒绝生成id，重新获取租约后使用新的workId和dataCenterId
+     * */
+    private void checkLease() {
+        if (Objects.isNull(workAndDataCenterIdHandler) || !workAndDataCenterIdHandler.isLeaseEnabled()) {
+            return;
+        }
+        WorkDataCenterId workDataCenterId = workAndDataCenterIdHandler.getValidWorkDataCenterId();
+        if (Objects.isNull(workDataCenterId)) {
+            throw new DaMaiFrameException(BaseCode.WORK_DATA_CENTER_ID_LEASE_EXPIRED);
+        }
+        this.workerId = workDataCenterId.getWorkId();
+        this.datacenterId = workDataCenterId.getDataCenterId();
+    }
+    
     public long getBase(){
+        checkLease();
         int five = 5;
         long timestamp = timeGen();
         //闰秒
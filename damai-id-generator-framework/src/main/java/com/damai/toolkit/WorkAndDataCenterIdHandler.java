@@ -1,56 +1,186 @@
 package com.damai.toolkit;
 
 import com.alibaba.fastjson.JSON;
+import com.damai.config.IdGeneratorProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.scripting.support.ResourceScriptSource;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
  * @description: workId和dataCenterId
+ * 每个节点以租约的方式占用最小的空闲槽位，由心跳线程续约，关闭时释放，
+ * 租约失效后停止生成id，直到重新获取到租约。
+ * 所有槽位的租约保存在同一个hash中，脚本只操作这一个key，集群模式下不会访问未声明的key
  * @author: 阿星不是程序员
  **/
 @Slf4j
-public class WorkAndDataCenterIdHandler {
-    
-    private final String SNOWFLAKE_WORK_ID_KEY = "snowflake_work_id";
-    
-    private final String SNOWFLAKE_DATA_CENTER_ID_key = "snowflake_data_center_id";
-    
-    
-    public final List<String> keys = Arrays.asList(SNOWFLAKE_WORK_ID_KEY,SNOWFLAKE_DATA_CENTER_ID_key);
-    
+public class WorkAndDataCenterIdHandler implements DisposableBean {
+
+    private final String SNOWFLAKE_LEASE_KEY = "snowflake_work_data_center_id_lease";
+
+    private final String nodeId = UUID.randomUUID().toString();
+
     private final StringRedisTemplate stringRedisTemplate;
-    
-    private DefaultRedisScript<String> redisScript;
-    
-    public WorkAndDataCenterIdHandler(StringRedisTemplate stringRedisTemplate){
+
+    private final IdGeneratorProperties idGeneratorProperties;
+
+    private DefaultRedisScript<String> leaseScript;
+
+    private DefaultRedisScript<Long> renewScript;
+
+    private DefaultRedisScript<Long> releaseScript;
+
+    private ScheduledExecutorService heartbeatExecutor;
+
+    /**
+     * 是否启用了租约，redis不可用时会退化为根据本机信息计算
+     * */
+    private volatile boolean leaseEnabled = false;
+
+    /**
+     * 当前持有的租约，失去租约时为null
+     * */
+    private volatile WorkDataCenterId leasedWorkDataCenterId;
+
+    /**
+     * 本地计算的租约到期时间，以发起续约的时间为起点，比redis中的实际过期时间保守
+     * */
+    private volatile long leaseExpireTime;
+
+    public WorkAndDataCenterIdHandler(StringRedisTemplate stringRedisTemplate, IdGeneratorProperties idGeneratorProperties){
         this.stringRedisTemplate = stringRedisTemplate;
+        this.idGeneratorProperties = idGeneratorProperties;
         try {
-            redisScript = new DefaultRedisScript<>();
-            redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/workAndDataCenterId.lua")));
-            redisScript.setResultType(String.class);
+            leaseScript = new DefaultRedisScript<>();
+            leaseScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/workAndDataCenterIdLease.lua")));
+            leaseScript.setResultType(String.class);
+            renewScript = new DefaultRedisScript<>();
+            renewScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/workAndDataCenterIdRenew.lua")));
+            renewScript.setResultType(Long.class);
+            releaseScript = new DefaultRedisScript<>();
+            releaseScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/workAndDataCenterIdRelease.lua")));
+            releaseScript.setResultType(Long.class);
         } catch (Exception e) {
             log.error("redisScript init lua error",e);
         }
     }
-    
+
     public WorkDataCenterId getWorkAndDataCenterId(){
         WorkDataCenterId workDataCenterId = new WorkDataCenterId();
         try {
-            Object[] data = new String[2];
-            data[0] = String.valueOf(IdGeneratorConstant.MAX_WORKER_ID);
-            data[1] = String.valueOf(IdGeneratorConstant.MAX_DATA_CENTER_ID);
-            String result = stringRedisTemplate.execute(redisScript, keys, data);
-            workDataCenterId = JSON.parseObject(result,WorkDataCenterId.class);
+            WorkDataCenterId leased = acquire(-1L);
+            if (Objects.isNull(leased)) {
+                log.error("getWorkAndDataCenterId error, no free workId and dataCenterId lease");
+                return workDataCenterId;
+            }
+            leaseEnabled = true;
+            startHeartbeat();
+            workDataCenterId = leased;
         }catch (Exception e) {
             log.error("getWorkAndDataCenterId error",e);
         }
         return workDataCenterId;
     }
+
+    /**
+     * 是否启用了租约
+     * */
+    public boolean isLeaseEnabled() {
+        return leaseEnabled;
+    }
+
+    /**
+     * 获取当前有效的租约，租约已失效时返回null
+     * */
+    public WorkDataCenterId getValidWorkDataCenterId() {
+        WorkDataCenterId workDataCenterId = leasedWorkDataCenterId;
+        if (Objects.isNull(workDataCenterId) || System.currentTimeMillis() >= leaseExpireTime) {
+            return null;
+        }
+        return workDataCenterId;
+    }
+
+    private WorkDataCenterId acquire(long preferredLeaseIndex){
+        long start = System.currentTimeMillis();
+        Object[] data = new String[5];
+        data[0] = String.valueOf(IdGeneratorConstant.MAX_WORKER_ID);
+        data[1] = String.valueOf(IdGeneratorConstant.MAX_DATA_CENTER_ID);
+        data[2] = nodeId;
+        data[3] = String.valueOf(idGeneratorProperties.getLeaseTime());
+        data[4] = String.valueOf(preferredLeaseIndex);
+        String result = stringRedisTemplate.execute(leaseScript, Collections.singletonList(SNOWFLAKE_LEASE_KEY), data);
+        if (Objects.isNull(result)) {
+            return null;
+        }
+        WorkDataCenterId workDataCenterId = JSON.parseObject(result, WorkDataCenterId.class);
+        leaseExpireTime = start + idGeneratorProperties.getLeaseTime();
+        leasedWorkDataCenterId = workDataCenterId;
+        log.info("acquire workId and dataCenterId lease nodeId : {} workDataCenterId : {}", nodeId, JSON.toJSONString(workDataCenterId));
+        return workDataCenterId;
+    }
+
+    private void startHeartbeat(){
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setName("snowflake-lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = idGeneratorProperties.getHeartbeatInterval();
+        heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void heartbeat(){
+        WorkDataCenterId current = leasedWorkDataCenterId;
+        try {
+            if (Objects.nonNull(current)) {
+                long start = System.currentTimeMillis();
+                Long renewed = stringRedisTemplate.execute(renewScript,
+                        Collections.singletonList(SNOWFLAKE_LEASE_KEY), String.valueOf(current.getLeaseIndex()),
+                        nodeId, String.valueOf(idGeneratorProperties.getLeaseTime()));
+                if (Objects.equals(renewed, 1L)) {
+                    leaseExpireTime = start + idGeneratorProperties.getLeaseTime();
+                    return;
+                }
+                log.warn("workId and dataCenterId lease lost nodeId : {} leaseIndex : {}", nodeId, current.getLeaseIndex());
+                leasedWorkDataCenterId = null;
+            }
+            long preferredLeaseIndex = Objects.nonNull(current) ? current.getLeaseIndex() : -1L;
+            if (Objects.isNull(acquire(preferredLeaseIndex))) {
+                log.error("reacquire workId and dataCenterId lease error, no free lease nodeId : {}", nodeId);
+            }
+        }catch (Exception e) {
+            log.error("workId and dataCenterId lease heartbeat error nodeId : {}", nodeId, e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (Objects.nonNull(heartbeatExecutor)) {
+            heartbeatExecutor.shutdownNow();
+        }
+        WorkDataCenterId current = leasedWorkDataCenterId;
+        leasedWorkDataCenterId = null;
+        if (Objects.isNull(current)) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(releaseScript,
+                    Collections.singletonList(SNOWFLAKE_LEASE_KEY), String.valueOf(current.getLeaseIndex()), nodeId);
+            log.info("release workId and dataCenterId lease nodeId : {} leaseIndex : {}", nodeId, current.getLeaseIndex());
+        }catch (Exception e) {
+            log.error("release workId and dataCenterId lease error nodeId : {}", nodeId, e);
+        }
+    }
 }
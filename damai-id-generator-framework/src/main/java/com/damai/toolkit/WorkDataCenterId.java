@@ -13,4 +13,9 @@ public class WorkDataCenterId {
     private Long workId;
     
     private Long dataCenterId;
+    
+    /**
+     * 租约占用的槽位 dataCenterId * (MAX_WORKER_ID + 1) + workId
+     * */
+    private Long leaseIndex;
 }
@@ -0,0 +1,47 @@
+-- 所有槽位的租约保存在KEYS[1]这一个hash中，field为槽位，value为 节点id|过期时间(毫秒)
+-- 过期时间使用redis的服务器时间，各节点的时钟偏差不影响租约判断
+local lease_key = KEYS[1]
+local max_worker_id = tonumber(ARGV[1])
+local max_data_center_id = tonumber(ARGV[2])
+local node_id = ARGV[3]
+local lease_time = tonumber(ARGV[4])
+local preferred_index = tonumber(ARGV[5])
+local worker_count = max_worker_id + 1
+local slot_count = worker_count * (max_data_center_id + 1)
+
+if (redis.replicate_commands) then
+    redis.replicate_commands()
+end
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local function claim(index)
+    local lease = redis.call('hget', lease_key, tostring(index))
+    if (lease ~= false) then
+        local holder, expire_time = string.match(lease, '^(.*)|(%d+)$')
+        if (holder ~= node_id and expire_time ~= nil and tonumber(expire_time) > now) then
+            return false
+        end
+    end
+    redis.call('hset', lease_key, tostring(index), node_id .. '|' .. (now + lease_time))
+    return true
+end
+
+local function result(index)
+    return string.format('{"%s": %d, "%s": %d, "%s": %d}',
+            'workId', index % worker_count,
+            'dataCenterId', math.floor(index / worker_count),
+            'leaseIndex', index)
+end
+
+-- 重新获取租约时优先尝试之前持有的槽位
+if (preferred_index >= 0 and preferred_index < slot_count and claim(preferred_index)) then
+    return result(preferred_index)
+end
+-- 从最小的空闲槽位开始占用
+for index = 0, slot_count - 1 do
+    if (claim(index)) then
+        return result(index)
+    end
+end
+return nil
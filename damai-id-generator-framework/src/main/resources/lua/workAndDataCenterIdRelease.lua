@@ -0,0 +1,10 @@
+local lease_key = KEYS[1]
+local index = ARGV[1]
+local node_id = ARGV[2]
+
+local lease = redis.call('hget', lease_key, index)
+if (lease ~= false and string.match(lease, '^(.*)|%d+$') == node_id) then
+    redis.call('hdel', lease_key, index)
+    return 1
+end
+return 0
@@ -0,0 +1,21 @@
+local lease_key = KEYS[1]
+local index = ARGV[1]
+local node_id = ARGV[2]
+local lease_time = tonumber(ARGV[3])
+
+if (redis.replicate_commands) then
+    redis.replicate_commands()
+end
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 只有仍然持有且没有过期的租约可以续约，过期后需要重新获取
+local lease = redis.call('hget', lease_key, index)
+if (lease ~= false) then
+    local holder, expire_time = string.match(lease, '^(.*)|(%d+)$')
+    if (holder == node_id and tonumber(expire_time) > now) then
+        redis.call('hset', lease_key, index, node_id .. '|' .. (now + lease_time))
+        return 1
+    end
+end
+return 0
@@ -0,0 +1,158 @@
+package com.baidu.fsg.uid.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: RingBuffer单生产者多消费者的并发测试，容量很小让填充线程和消费者频繁绕环，重复多轮，
+ * 每个消费者取到的uid必须严格递增，所有消费者取到的uid不能重复；以及填充阈值的上升和回落
+ * @author: 阿星不是程序员
+ **/
+public class RingBufferTest {
+
+    private static final int ITERATIONS = 20;
+
+    private static final int BUFFER_SIZE = 256;
+
+    private static final int CONSUMER_SIZE = 8;
+
+    private static final int TAKES_PER_CONSUMER = 5_000;
+
+    private static final int UIDS_PER_SECOND = 32;
+
+    private static final int EMPTY_SPINS_BEFORE_YIELD = 64;
+
+    /**
+     * 取空时反复抛出，不填充堆栈，避免消费者重试时被创建异常拖慢
+     * */
+    private static final IllegalStateException EMPTY_EXCEPTION = new IllegalStateException("buffer is empty", null) {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    };
+
+    @Test
+    public void concurrentTakeIsUniqueAndMonotonic() throws InterruptedException {
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            runPutTakeRound();
+        }
+    }
+
+    @Test
+    public void paddingThresholdDecaysAfterBurst() {
+        RingBuffer ringBuffer = new RingBuffer(1024, 50);
+        BufferPaddingExecutor bufferPaddingExecutor = paddingExecutor(ringBuffer, new AtomicLong());
+        try {
+            int initialThreshold = ringBuffer.getPaddingThreshold();
+            for (int i = 0; i < 10; i++) {
+                ringBuffer.raisePaddingThreshold(ringBuffer.getPaddingThreshold());
+            }
+            assertEquals(1024 * RingBuffer.MAX_PADDING_PERCENT / 100, ringBuffer.getPaddingThreshold());
+
+            //上升之后的第一轮填充不回落，之后每轮没有上升的填充回落一步，直到初始阈值
+            bufferPaddingExecutor.paddingBuffer();
+            assertEquals(1024 * RingBuffer.MAX_PADDING_PERCENT / 100, ringBuffer.getPaddingThreshold());
+            for (int i = 0; i < 10; i++) {
+                bufferPaddingExecutor.paddingBuffer();
+            }
+            assertEquals(initialThreshold, ringBuffer.getPaddingThreshold());
+            assertEquals(5, ringBuffer.getPaddingThresholdDecayCount());
+
+            //两轮填充之间发生了上升则这一轮不回落
+            ringBuffer.raisePaddingThreshold(initialThreshold);
+            int raisedThreshold = ringBuffer.getPaddingThreshold();
+            bufferPaddingExecutor.paddingBuffer();
+            assertEquals(raisedThreshold, ringBuffer.getPaddingThreshold());
+            bufferPaddingExecutor.paddingBuffer();
+            assertEquals(initialThreshold, ringBuffer.getPaddingThreshold());
+        } finally {
+            bufferPaddingExecutor.shutdown();
+        }
+    }
+
+    private void runPutTakeRound() throws InterruptedException {
+        AtomicLong sequence = new AtomicLong();
+        RingBuffer ringBuffer = new RingBuffer(BUFFER_SIZE, 50);
+        BufferPaddingExecutor bufferPaddingExecutor = paddingExecutor(ringBuffer, sequence);
+        ringBuffer.setRejectedPutHandler((buffer, uid) -> { });
+        ringBuffer.setRejectedTakeHandler(buffer -> {
+            throw EMPTY_EXCEPTION;
+        });
+        bufferPaddingExecutor.paddingBuffer();
+
+        ConcurrentLinkedQueue<Throwable> errorQueue = new ConcurrentLinkedQueue<>();
+        List<long[]> uidArrayList = new ArrayList<>(CONSUMER_SIZE);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch finishLatch = new CountDownLatch(CONSUMER_SIZE);
+        for (int i = 0; i < CONSUMER_SIZE; i++) {
+            long[] uidArray = new long[TAKES_PER_CONSUMER];
+            uidArrayList.add(uidArray);
+            new Thread(() -> {
+                try {
+                    startLatch.await();
+                    int taken = 0;
+                    int emptyCount = 0;
+                    while (taken < TAKES_PER_CONSUMER) {
+                        try {
+                            uidArray[taken] = ringBuffer.take();
+                            taken++;
+                        }catch (IllegalStateException e) {
+                            //取空时自旋重试，和其它消费者在空环上竞争游标，隔一段时间让出cpu给填充线程
+                            if (++emptyCount % EMPTY_SPINS_BEFORE_YIELD == 0) {
+                                Thread.yield();
+                            }
+                        }
+                    }
+                }catch (Throwable e) {
+                    errorQueue.add(e);
+                }finally {
+                    finishLatch.countDown();
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        try {
+            assertTrue(finishLatch.await(60, TimeUnit.SECONDS));
+        } finally {
+            bufferPaddingExecutor.shutdown();
+        }
+        assertTrue(errorQueue.isEmpty(), () -> "take error : " + errorQueue.peek());
+
+        Set<Long> uidSet = new HashSet<>(CONSUMER_SIZE * TAKES_PER_CONSUMER * 2);
+        for (long[] uidArray : uidArrayList) {
+            for (int i = 0; i < uidArray.length; i++) {
+                if (i > 0) {
+                    assertTrue(uidArray[i] > uidArray[i - 1], "uid taken by one consumer must increase");
+                }
+                uidSet.add(uidArray[i]);
+            }
+        }
+        assertEquals(CONSUMER_SIZE * TAKES_PER_CONSUMER, uidSet.size());
+        uidSet.forEach(uid -> assertTrue(uid < sequence.get()));
+    }
+
+    private BufferPaddingExecutor paddingExecutor(RingBuffer ringBuffer, AtomicLong sequence) {
+        BufferPaddingExecutor bufferPaddingExecutor = new BufferPaddingExecutor(ringBuffer, second -> {
+            List<Long> uidList = new ArrayList<>(UIDS_PER_SECOND);
+            for (int i = 0; i < UIDS_PER_SECOND; i++) {
+                uidList.add(sequence.getAndIncrement());
+            }
+            return uidList;
+        }, false);
+        ringBuffer.setBufferPaddingExecutor(bufferPaddingExecutor);
+        return bufferPaddingExecutor;
+    }
+}
@@ -0,0 +1,102 @@
+package com.baidu.fsg.uid.impl;
+
+import com.baidu.fsg.uid.exception.UidGenerateException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 多线程生成uid的测试，时钟每读取若干次前进一秒，每秒最后一次读取时钟后暂停，放大读取时钟和更新状态之间的间隔，
+ * 跨秒时不能误判为时钟回拨，生成的uid不能重复；时钟真正回拨时拒绝生成
+ * @author: 阿星不是程序员
+ **/
+public class DefaultUidGeneratorTest {
+    
+    private static final int THREAD_SIZE = 8;
+    
+    private static final int UID_SIZE_PER_THREAD = 20_000;
+    
+    private static final int READS_PER_SECOND = 500;
+    
+    private final long baseSecond = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    
+    private final AtomicLong clockReadCount = new AtomicLong();
+    
+    private final AtomicLong clockOffsetSeconds = new AtomicLong();
+    
+    private DefaultUidGenerator defaultUidGenerator;
+    
+    @BeforeEach
+    public void setUp() throws Exception {
+        defaultUidGenerator = new DefaultUidGenerator() {
+            @Override
+            protected long getCurrentSecond() {
+                long readCount = clockReadCount.incrementAndGet();
+                long currentSecond = baseSecond + readCount / READS_PER_SECOND + clockOffsetSeconds.get();
+                //每秒最后一次读取时钟的线程暂停，让其它线程先进入下一秒并更新状态
+                if (readCount % READS_PER_SECOND == READS_PER_SECOND - 1) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+                }
+                return currentSecond;
+            }
+        };
+        defaultUidGenerator.setWorkerIdAssigner(() -> 1L);
+        defaultUidGenerator.afterPropertiesSet();
+    }
+    
+    @Test
+    public void concurrentUidAcrossSecondsIsUnique() throws InterruptedException {
+        ConcurrentLinkedQueue<Throwable> errorQueue = new ConcurrentLinkedQueue<>();
+        List<long[]> uidArrayList = new ArrayList<>(THREAD_SIZE);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch finishLatch = new CountDownLatch(THREAD_SIZE);
+        for (int i = 0; i < THREAD_SIZE; i++) {
+            long[] uidArray = new long[UID_SIZE_PER_THREAD];
+            uidArrayList.add(uidArray);
+            new Thread(() -> {
+                try {
+                    startLatch.await();
+                    for (int j = 0; j < UID_SIZE_PER_THREAD; j++) {
+                        uidArray[j] = defaultUidGenerator.getUid();
+                    }
+                }catch (Throwable e) {
+                    errorQueue.add(e);
+                }finally {
+                    finishLatch.countDown();
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        assertTrue(finishLatch.await(60, TimeUnit.SECONDS));
+        assertTrue(errorQueue.isEmpty(), () -> "uid generate error : " + errorQueue.peek());
+        Set<Long> uidSet = new HashSet<>(THREAD_SIZE * UID_SIZE_PER_THREAD * 2);
+        for (long[] uidArray : uidArrayList) {
+            for (long uid : uidArray) {
+                uidSet.add(uid);
+            }
+        }
+        assertEquals(THREAD_SIZE * UID_SIZE_PER_THREAD, uidSet.size());
+        assertTrue(clockReadCount.get() / READS_PER_SECOND > 1);
+    }
+    
+    @Test
+    public void clockMovedBackwardsIsRefused() {
+        defaultUidGenerator.getUid();
+        clockOffsetSeconds.set(-5);
+        assertThrows(UidGenerateException.class, () -> defaultUidGenerator.getUid());
+    }
+}
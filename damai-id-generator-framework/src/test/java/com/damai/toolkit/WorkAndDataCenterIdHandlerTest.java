@@ -0,0 +1,266 @@
+package com.damai.toolkit;
+
+import com.alibaba.fastjson.JSON;
+import com.baidu.fsg.uid.config.RedisDisposableWorkerIdAssigner;
+import com.baidu.fsg.uid.exception.UidGenerateException;
+import com.baidu.fsg.uid.impl.CachedUidGenerator;
+import com.damai.config.IdGeneratorProperties;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: workId和dataCenterId租约的测试，lua脚本在嵌入式redis中执行，
+ * 租约过期通过把hash中的过期时间改写为0来模拟
+ * @author: 阿星不是程序员
+ **/
+public class WorkAndDataCenterIdHandlerTest {
+
+    private static final String LEASE_KEY = "snowflake_work_data_center_id_lease";
+
+    private static final Pattern KEYS_PATTERN = Pattern.compile("KEYS\\[(\\d+)]");
+
+    private static final long LEASE_TIME = 30000L;
+
+    private static RedisServer redisServer;
+
+    private static LettuceConnectionFactory lettuceConnectionFactory;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private final List<WorkAndDataCenterIdHandler> handlerList = new CopyOnWriteArrayList<>();
+
+    @BeforeAll
+    public static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        redisServer = RedisServer.newRedisServer().port(port).bind("127.0.0.1").build();
+        redisServer.start();
+        lettuceConnectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        lettuceConnectionFactory.afterPropertiesSet();
+        lettuceConnectionFactory.start();
+        stringRedisTemplate = new StringRedisTemplate(lettuceConnectionFactory);
+    }
+
+    @AfterAll
+    public static void stopRedis() throws IOException {
+        lettuceConnectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        stringRedisTemplate.delete(LEASE_KEY);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        handlerList.forEach(WorkAndDataCenterIdHandler::destroy);
+    }
+
+    @Test
+    public void restartHundredTimesReusesSameSlot() {
+        for (int i = 0; i < 100; i++) {
+            WorkAndDataCenterIdHandler handler = handler();
+            WorkDataCenterId workDataCenterId = handler.getWorkAndDataCenterId();
+            assertTrue(handler.isLeaseEnabled());
+            assertEquals(0L, workDataCenterId.getLeaseIndex());
+            handler.destroy();
+            handlerList.remove(handler);
+        }
+        assertTrue(hash().isEmpty());
+    }
+
+    @Test
+    public void restartHundredTimesAfterCrashReclaimsExpiredSlot() {
+        for (int i = 0; i < 100; i++) {
+            //进程被杀掉没有释放租约，租约还没有过期时新进程占用下一个槽位
+            WorkAndDataCenterIdHandler crashed = handler();
+            assertEquals(0L, crashed.getWorkAndDataCenterId().getLeaseIndex());
+            assertEquals(1L, handler().getWorkAndDataCenterId().getLeaseIndex());
+            expire(0L);
+            assertEquals(0L, handler().getWorkAndDataCenterId().getLeaseIndex());
+            expire(0L);
+            expire(1L);
+        }
+        //过期的槽位都被复用，最多只用到两个槽位
+        assertEquals(2, hash().size());
+    }
+
+    @Test
+    public void crashedNodeCannotReleaseReclaimedSlot() {
+        WorkAndDataCenterIdHandler crashed = handler();
+        assertEquals(0L, crashed.getWorkAndDataCenterId().getLeaseIndex());
+        expire(0L);
+        WorkAndDataCenterIdHandler next = handler();
+        assertEquals(0L, next.getWorkAndDataCenterId().getLeaseIndex());
+
+        crashed.destroy();
+
+        assertTrue(hash().get("0").startsWith(nodeId(next) + "|"));
+    }
+
+    @Test
+    public void concurrentStartupGetsDistinctSlots() throws Exception {
+        int nodeCount = 64;
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<WorkDataCenterId>> futureList = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            futureList.add(executorService.submit(() -> {
+                WorkAndDataCenterIdHandler handler = handler();
+                start.await();
+                return handler.getWorkAndDataCenterId();
+            }));
+        }
+        start.countDown();
+        Set<Long> leaseIndexSet = new HashSet<>();
+        Set<String> workDataCenterIdSet = new HashSet<>();
+        for (Future<WorkDataCenterId> future : futureList) {
+            WorkDataCenterId workDataCenterId = future.get();
+            leaseIndexSet.add(workDataCenterId.getLeaseIndex());
+            workDataCenterIdSet.add(workDataCenterId.getWorkId() + "-" + workDataCenterId.getDataCenterId());
+        }
+        executorService.shutdown();
+
+        assertEquals(nodeCount, leaseIndexSet.size());
+        assertEquals(nodeCount, workDataCenterIdSet.size());
+        leaseIndexSet.forEach(leaseIndex -> assertTrue(leaseIndex < nodeCount));
+    }
+
+    @Test
+    public void heartbeatRenewsAndReacquiresLostLease() throws InterruptedException {
+        WorkAndDataCenterIdHandler handler = handler();
+        assertEquals(0L, handler.getWorkAndDataCenterId().getLeaseIndex());
+        long expireTime = expireTime(0L);
+        Thread.sleep(5L);
+        ReflectionTestUtils.invokeMethod(handler, "heartbeat");
+        assertTrue(expireTime(0L) > expireTime);
+        //续约后还没有过期，其他节点不能占用
+        assertEquals(1L, handler().getWorkAndDataCenterId().getLeaseIndex());
+
+        //心跳停顿超过租约时长，槽位被其他节点占用后重新获取
+        expire(0L);
+        WorkAndDataCenterIdHandler other = handler();
+        assertEquals(0L, other.getWorkAndDataCenterId().getLeaseIndex());
+        ReflectionTestUtils.invokeMethod(handler, "heartbeat");
+        WorkDataCenterId reacquired = handler.getValidWorkDataCenterId();
+        assertNotEquals(0L, reacquired.getLeaseIndex());
+        assertTrue(hash().get("0").startsWith(nodeId(other) + "|"));
+    }
+
+    @Test
+    public void uidGeneratorSwitchesToReacquiredSlot() throws Exception {
+        WorkAndDataCenterIdHandler handler = handler();
+        assertEquals(0L, handler.getWorkAndDataCenterId().getLeaseIndex());
+        CachedUidGenerator cachedUidGenerator = new CachedUidGenerator();
+        cachedUidGenerator.setWorkerIdAssigner(new RedisDisposableWorkerIdAssigner(stringRedisTemplate, handler));
+        cachedUidGenerator.afterPropertiesSet();
+        try {
+            assertEquals(0L, workerId(cachedUidGenerator, cachedUidGenerator.getUid()));
+
+            //租约丢失后槽位被其他节点占用，重新获取到租约之前拒绝生成
+            expire(0L);
+            assertEquals(0L, handler().getWorkAndDataCenterId().getLeaseIndex());
+            ReflectionTestUtils.setField(handler, "leaseExpireTime", 0L);
+            assertThrows(UidGenerateException.class, cachedUidGenerator::getUid);
+
+            //重新获取到其他槽位后，使用新的workerId生成，之前填充的uid全部丢弃
+            ReflectionTestUtils.invokeMethod(handler, "heartbeat");
+            long reacquiredLeaseIndex = handler.getValidWorkDataCenterId().getLeaseIndex();
+            assertEquals(1L, reacquiredLeaseIndex);
+            for (int i = 0; i < 100_000; i++) {
+                assertEquals(reacquiredLeaseIndex, workerId(cachedUidGenerator, cachedUidGenerator.getUid()));
+            }
+        } finally {
+            cachedUidGenerator.destroy();
+        }
+    }
+
+    @Test
+    public void scriptsUseDeclaredKeyOnly() throws IOException {
+        for (String script : List.of("workAndDataCenterIdLease", "workAndDataCenterIdRenew", "workAndDataCenterIdRelease")) {
+            String content = new ClassPathResource("lua/" + script + ".lua").getContentAsString(StandardCharsets.UTF_8);
+            int keyCount = 0;
+            for (String line : content.split("\n")) {
+                if (line.trim().startsWith("--")) {
+                    continue;
+                }
+                Matcher matcher = KEYS_PATTERN.matcher(line);
+                while (matcher.find()) {
+                    assertEquals("1", matcher.group(1), script);
+                    keyCount++;
+                }
+            }
+            assertEquals(1, keyCount, script);
+            assertFalse(content.contains("lease_key .."), script);
+        }
+    }
+
+    private WorkAndDataCenterIdHandler handler() {
+        IdGeneratorProperties idGeneratorProperties = new IdGeneratorProperties();
+        idGeneratorProperties.setLeaseTime(LEASE_TIME);
+        WorkAndDataCenterIdHandler handler = new WorkAndDataCenterIdHandler(stringRedisTemplate, idGeneratorProperties);
+        handlerList.add(handler);
+        return handler;
+    }
+
+    private String nodeId(WorkAndDataCenterIdHandler handler) {
+        return (String) ReflectionTestUtils.getField(handler, "nodeId");
+    }
+
+    private Map<String, String> hash() {
+        return stringRedisTemplate.<String, String>opsForHash().entries(LEASE_KEY);
+    }
+
+    private long expireTime(long index) {
+        String lease = hash().get(String.valueOf(index));
+        return Long.parseLong(lease.substring(lease.lastIndexOf('|') + 1));
+    }
+
+    /**
+     * 保留持有的节点，把过期时间改写为0，相当于租约已经过期
+     * */
+    private void expire(long index) {
+        String lease = hash().get(String.valueOf(index));
+        stringRedisTemplate.opsForHash().put(LEASE_KEY, String.valueOf(index),
+                lease.substring(0, lease.lastIndexOf('|')) + "|0");
+    }
+
+    private long workerId(CachedUidGenerator cachedUidGenerator, long uid) {
+        return JSON.parseObject(cachedUidGenerator.parseUid(uid)).getLongValue("workerId");
+    }
+}
@@ -21,6 +21,10 @@ public enum RedisKeyManage {
     DISTRIBUTED_DATACENTER_ID("distributed_datacenter_id:%s","分布式datacenter_id","分布式datacenter_id的值","lk"),
     
     ALL_RULE_HASH("all_rule_hash","所有规则的key","所有规则的Hash","k"),
+    ALL_RULE_VERSION("all_rule_version","所有规则版本的key","每次规则缓存更新时递增","k"),
+    
+    ALL_RULE_CHANGE_CHANNEL("all_rule_change_channel","规则变更通知的channel","消息为规则版本","k"),
+    
     RULE("rule","调用限制规则的key","调用限制规则的value","k"),
     
     RULE_LIMIT("rule_limit_%s","调用限制时间的key","调用限制时间的value","k"),
@@ -85,7 +89,9 @@ public enum RedisKeyManage {
     
     LOGIN_USER_EMAIL_ERROR("d_mai_login_user_email_error_%s","登录错误的用户邮箱key","登录错误的用户邮箱次数","k"),
     
-    AREA_PROVINCE_LIST("d_mai_area_province_list","省地区集合","省地区集合数据","k")
+    AREA_PROVINCE_LIST("d_mai_area_province_list","省地区集合","省地区集合数据","k"),
+    
+    ORDER_LIST_FIRST_PAGE_HASH("d_mai_order_list_first_page_hash_%s","用户订单列表首页_用户id","用户订单列表首页","k")
     ;
 
     /**
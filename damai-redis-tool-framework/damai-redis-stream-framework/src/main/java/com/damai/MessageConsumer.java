@@ -16,4 +16,11 @@ public interface MessageConsumer {
      * 
      * */
     void accept(ObjectRecord<String, String> message);
+    
+    /**
+     * 全量清空本地数据，广播消费启动时以及检测到消息丢失时调用
+     * */
+    default void flush(){
+    
+    }
 }
\ No newline at end of file
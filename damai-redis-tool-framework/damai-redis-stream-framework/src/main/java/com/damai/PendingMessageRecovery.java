@@ -0,0 +1,130 @@
+package com.damai;
+
+import com.damai.constant.RedisStreamConstant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 消费组模式下未确认消息的恢复
+ * 定时检查消费组的未确认消息，空闲时间超过pendingIdleTime的消息由当前消费者认领后重新处理，
+ * 投递次数达到maxDeliveryCount的消息转入死信stream并确认，避免一直重试；
+ * 未确认的消息可能已经被 XADD MAXLEN 裁剪，认领不到并且stream中也不存在时，按消息丢失记录到死信stream并确认
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+public class PendingMessageRecovery implements DisposableBean {
+    
+    private final RedisStreamHandler redisStreamHandler;
+    
+    private final RedisStreamConfigProperties redisStreamConfigProperties;
+    
+    private final RedisStreamListener redisStreamListener;
+    
+    private final ScheduledExecutorService recoveryExecutor;
+    
+    public PendingMessageRecovery(RedisStreamHandler redisStreamHandler, 
+                                  RedisStreamConfigProperties redisStreamConfigProperties, 
+                                  RedisStreamListener redisStreamListener){
+        this.redisStreamHandler = redisStreamHandler;
+        this.redisStreamConfigProperties = redisStreamConfigProperties;
+        this.redisStreamListener = redisStreamListener;
+        if (!RedisStreamConstant.GROUP.equals(redisStreamConfigProperties.getConsumerType())) {
+            //广播消费没有消费组，不需要恢复
+            this.recoveryExecutor = null;
+            return;
+        }
+        this.recoveryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setName("redis-stream-pending-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = redisStreamConfigProperties.getPendingCheckInterval();
+        recoveryExecutor.scheduleWithFixedDelay(this::recover, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    void recover(){
+        String streamName = redisStreamConfigProperties.getStreamName();
+        String group = redisStreamConfigProperties.getConsumerGroup();
+        Duration minIdleTime = Duration.ofMillis(redisStreamConfigProperties.getPendingIdleTime());
+        try {
+            PendingMessages pendingMessages = redisStreamHandler.pending(streamName, group, 
+                    redisStreamConfigProperties.getPendingCheckCount());
+            for (PendingMessage pendingMessage : pendingMessages) {
+                if (pendingMessage.getElapsedTimeSinceLastDelivery().compareTo(minIdleTime) < 0) {
+                    continue;
+                }
+                //先认领再处理，同一条消息被多个节点同时检查时只有一个节点能认领成功，认领会增加投递次数
+                List<MapRecord<String, Object, Object>> claimedList = redisStreamHandler.claim(streamName, group, 
+                        redisStreamConfigProperties.getConsumerName(), minIdleTime, pendingMessage.getId());
+                if (claimedList.isEmpty()) {
+                    //认领不到时消息还在stream中说明被其他节点认领了，不在stream中说明已经被裁剪
+                    if (!redisStreamHandler.exists(streamName, pendingMessage.getId())) {
+                        lost(streamName, group, pendingMessage);
+                    }
+                    continue;
+                }
+                for (MapRecord<String, Object, Object> claimed : claimedList) {
+                    if (pendingMessage.getTotalDeliveryCount() >= redisStreamConfigProperties.getMaxDeliveryCount()) {
+                        deadLetter(streamName, group, pendingMessage, claimed);
+                        continue;
+                    }
+                    log.warn("redis stream claim pending message streamName : {} group : {} messageId : {} deliveryCount : {}", 
+                            streamName, group, claimed.getId(), pendingMessage.getTotalDeliveryCount() + 1);
+                    redisStreamListener.onMessage(StreamRecords.newRecord()
+                            .in(streamName)
+                            .withId(claimed.getId())
+                            .ofObject(Objects.toString(claimed.getValue().get(RedisStreamConstant.PAYLOAD), null)));
+                }
+            }
+        }catch (Exception e) {
+            log.error("redis stream pending recovery error streamName : {} group : {}", streamName, group, e);
+        }
+    }
+    
+    private void deadLetter(String streamName, String group, PendingMessage pendingMessage, 
+                            MapRecord<String, Object, Object> record){
+        Map<Object, Object> value = new HashMap<>(record.getValue());
+        value.put("sourceId", pendingMessage.getIdAsString());
+        value.put("deliveryCount", String.valueOf(pendingMessage.getTotalDeliveryCount()));
+        redisStreamHandler.add(redisStreamConfigProperties.getDeadLetterStreamName(), value);
+        redisStreamHandler.ack(streamName, group, pendingMessage.getId());
+        log.error("redis stream message dead letter streamName : {} group : {} messageId : {} deliveryCount : {}", 
+                streamName, group, pendingMessage.getIdAsString(), pendingMessage.getTotalDeliveryCount());
+    }
+    
+    /**
+     * 消息内容已经不存在，死信中只记录消息id和投递次数
+     * */
+    private void lost(String streamName, String group, PendingMessage pendingMessage){
+        Map<Object, Object> value = new HashMap<>(4);
+        value.put("sourceId", pendingMessage.getIdAsString());
+        value.put("deliveryCount", String.valueOf(pendingMessage.getTotalDeliveryCount()));
+        value.put("reason", "trimmed");
+        redisStreamHandler.add(redisStreamConfigProperties.getDeadLetterStreamName(), value);
+        redisStreamHandler.ack(streamName, group, pendingMessage.getId());
+        log.error("redis stream pending message trimmed before recovery streamName : {} group : {} messageId : {} deliveryCount : {}", 
+                streamName, group, pendingMessage.getIdAsString(), pendingMessage.getTotalDeliveryCount());
+    }
+    
+    @Override
+    public void destroy() {
+        if (Objects.nonNull(recoveryExecutor)) {
+            recoveryExecutor.shutdownNow();
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.damai.constant.RedisStreamConstant;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.Objects;
+
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: redis-stream属性配置
@@ -34,5 +36,52 @@ public class RedisStreamConfigProperties {
      * 消费方式 group:消费组(默认)/broadcast:广播
      */
     private String consumerType = RedisStreamConstant.GROUP;
+    
+    /**
+     * stream保留的最大消息数(近似裁剪)，小于等于0时不裁剪
+     */
+    private Long maxLen = 10000L;
+    
+    /**
+     * 拉取消息的超时时间(毫秒)
+     */
+    private Long pollTimeout = 5000L;
+    
+    /**
+     * 每次拉取消息的数量
+     */
+    private Integer batchSize = 10;
+    
+    /**
+     * 消费组模式下，消息处于未确认状态超过该时间(毫秒)后会被认领重新处理
+     */
+    private Long pendingIdleTime = 60000L;
+    
+    /**
+     * 检查未确认消息的间隔(毫秒)
+     */
+    private Long pendingCheckInterval = 30000L;
+    
+    /**
+     * 每次检查的未确认消息数量
+     */
+    private Integer pendingCheckCount = 100;
+    
+    /**
+     * 消息的最大投递次数，达到后转入死信stream
+     */
+    private Integer maxDeliveryCount = 3;
+    
+    /**
+     * 死信stream名字，为空时为 streamName + "_dead_letter"
+     */
+    private String deadLetterStreamName;
+    
+    public String getDeadLetterStreamName(){
+        if (Objects.isNull(deadLetterStreamName) || deadLetterStreamName.isEmpty()) {
+            return streamName + RedisStreamConstant.DEAD_LETTER_SUFFIX;
+        }
+        return deadLetterStreamName;
+    }
 }
 
@@ -3,10 +3,17 @@ package com.damai;
 import com.alibaba.fastjson.JSON;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessages;
 import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -40,6 +47,18 @@ public class RedisStreamHandler {
         stringRedisTemplate.opsForStream().delete(key,recordIds);
     }
     
+    /**
+     * 获取stream中最新的一条消息，stream不存在或为空时返回null
+     * */
+    public MapRecord<String, Object, Object> lastRecord(String streamName){
+        List<MapRecord<String, Object, Object>> recordList = 
+                stringRedisTemplate.opsForStream().reverseRange(streamName, Range.unbounded(), Limit.limit().count(1));
+        if (Objects.isNull(recordList) || recordList.isEmpty()) {
+            return null;
+        }
+        return recordList.get(0);
+    }
+    
     public void streamBindingGroup(String streamName, String group){
         boolean hasKey = hasKey(streamName);
         if(!hasKey){
@@ -49,6 +68,43 @@ public class RedisStreamHandler {
             addGroup(streamName,group);
             del(streamName,recordId);
             log.info("initStream streamName : {} group : {}",streamName,group);
+        }else {
+            try {
+                addGroup(streamName,group);
+                log.info("initGroup streamName : {} group : {}",streamName,group);
+            }catch (Exception e) {
+                //消费组已经存在
+                log.debug("group already exists streamName : {} group : {}",streamName,group);
+            }
         }
     }
+    
+    public void ack(String streamName, String group, RecordId recordId){
+        stringRedisTemplate.opsForStream().acknowledge(streamName, group, recordId);
+    }
+    
+    public PendingMessages pending(String streamName, String group, long count){
+        return stringRedisTemplate.opsForStream().pending(streamName, group, Range.unbounded(), count);
+    }
+    
+    /**
+     * 认领空闲时间超过minIdleTime的未确认消息，已经被其他消费者认领的消息不会返回
+     * */
+    public List<MapRecord<String, Object, Object>> claim(String streamName, String group, String consumerName, 
+                                                         Duration minIdleTime, RecordId recordId){
+        return stringRedisTemplate.opsForStream().claim(streamName, group, consumerName, minIdleTime, recordId);
+    }
+    
+    /**
+     * 消息是否还在stream中，被 MAXLEN 裁剪或者删除的消息返回false
+     * */
+    public boolean exists(String streamName, RecordId recordId){
+        List<MapRecord<String, Object, Object>> recordList = stringRedisTemplate.opsForStream()
+                .range(streamName, Range.closed(recordId.getValue(), recordId.getValue()));
+        return Objects.nonNull(recordList) && !recordList.isEmpty();
+    }
+    
+    public RecordId add(String streamName, Map<Object, Object> value){
+        return stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(streamName).ofMap(value));
+    }
 }
@@ -1,33 +1,101 @@
 package com.damai;
 
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.connection.stream.ObjectRecord;
 import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
 import org.springframework.data.redis.stream.StreamListener;
 
+import java.util.Objects;
+
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: redis-stream监听
+ * 广播消费时检查缓存纪元是否连续，不连续说明有消息在断开期间被裁剪掉了(或纪元被重置)，此时全量清空本地数据
  * @author: 阿星不是程序员
  **/
 @Slf4j
-@AllArgsConstructor
 public class RedisStreamListener implements StreamListener<String, ObjectRecord<String, String>> {
     
     private final MessageConsumer messageConsumer;
     
+    private final boolean checkEpoch;
+    
+    /**
+     * 最后处理的缓存纪元，null表示未知
+     * */
+    private volatile Long lastEpoch;
+    
+    private final RedisStreamHandler redisStreamHandler;
+    
+    /**
+     * 消费组，不为空时处理成功后手动确认，处理失败的消息保持未确认状态，由PendingMessageRecovery重新处理
+     * */
+    private final String group;
+    
+    public RedisStreamListener(MessageConsumer messageConsumer, boolean checkEpoch, Long lastEpoch){
+        this.messageConsumer = messageConsumer;
+        this.checkEpoch = checkEpoch;
+        this.lastEpoch = lastEpoch;
+        this.redisStreamHandler = null;
+        this.group = null;
+    }
+    
+    public RedisStreamListener(MessageConsumer messageConsumer, RedisStreamHandler redisStreamHandler, String group){
+        this.messageConsumer = messageConsumer;
+        this.checkEpoch = false;
+        this.lastEpoch = null;
+        this.redisStreamHandler = redisStreamHandler;
+        this.group = group;
+    }
 
     @Override
     public void onMessage(ObjectRecord<String, String> message) {
+        RecordId messageId = message.getId();
         try{
-            RecordId messageId = message.getId();
             String value = message.getValue();
             log.info("redis stream 消费到了数据 messageId : {}, streamName : {}, message : {}", 
                     messageId, message.getStream(), value);
-            messageConsumer.accept(message);
+            consume(message);
         }catch (Exception e){
-            log.error("onMessage error",e);
+            log.error("onMessage error messageId : {}, streamName : {}", messageId, message.getStream(), e);
+            return;
+        }
+        if (Objects.nonNull(group)) {
+            try {
+                redisStreamHandler.ack(message.getStream(), group, messageId);
+            }catch (Exception e) {
+                log.error("ack error messageId : {}, streamName : {}", messageId, message.getStream(), e);
+            }
+        }
+    }
+    
+    private void consume(ObjectRecord<String, String> message){
+        RedisStreamMessage redisStreamMessage = RedisStreamMessage.parse(message.getValue());
+        if (Objects.isNull(redisStreamMessage)) {
+            messageConsumer.accept(message);
+            return;
+        }
+        if (checkEpoch) {
+            checkEpoch(message.getStream(), redisStreamMessage.getEpoch());
+        }
+        messageConsumer.accept(StreamRecords.newRecord()
+                .in(message.getStream())
+                .withId(message.getId())
+                .ofObject(redisStreamMessage.getBody()));
+    }
+    
+    private void checkEpoch(String streamName, Long epoch){
+        if (Objects.isNull(epoch)) {
+            return;
+        }
+        Long last = lastEpoch;
+        lastEpoch = epoch;
+        if (Objects.isNull(last) || epoch == last + 1) {
+            return;
         }
+        log.warn("redis stream epoch discontinuous, flush local data streamName : {}, lastEpoch : {}, epoch : {}", 
+                streamName, last, epoch);
+        messageConsumer.flush();
     }
 }
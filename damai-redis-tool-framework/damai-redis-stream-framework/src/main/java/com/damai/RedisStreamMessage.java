@@ -0,0 +1,41 @@
+package com.damai;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import lombok.Data;
+
+import java.util.Objects;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: redis-stream消息体，epoch为发送时递增的缓存纪元，body为业务消息
+ * @author: 阿星不是程序员
+ **/
+@Data
+public class RedisStreamMessage {
+    
+    private Long epoch;
+    
+    private String body;
+    
+    /**
+     * 解析消息，不是带纪元的消息(旧格式)时返回null
+     * */
+    public static RedisStreamMessage parse(String value){
+        if (Objects.isNull(value) || !value.startsWith("{")) {
+            return null;
+        }
+        try {
+            JSONObject jsonObject = JSON.parseObject(value);
+            if (!jsonObject.containsKey("epoch") || !jsonObject.containsKey("body")) {
+                return null;
+            }
+            RedisStreamMessage redisStreamMessage = new RedisStreamMessage();
+            redisStreamMessage.setEpoch(jsonObject.getLong("epoch"));
+            redisStreamMessage.setBody(jsonObject.getString("body"));
+            return redisStreamMessage;
+        }catch (Exception e) {
+            return null;
+        }
+    }
+}
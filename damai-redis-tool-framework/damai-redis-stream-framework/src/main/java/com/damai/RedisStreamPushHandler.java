@@ -1,33 +1,50 @@
 package com.damai;
 
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.stream.RecordId;
-import org.springframework.data.redis.connection.stream.StreamRecords;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+
+import java.util.Collections;
+import java.util.Objects;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: redis-stream发送消息
+ * 发送时在stream最后一条消息的缓存纪元上加一，并以 XADD MAXLEN ~ N 的方式近似裁剪stream，避免stream无限增长
+ * 纪元保存在stream的消息中，脚本只使用stream一个key，集群模式下不会出现CROSSSLOT
  * @author: 阿星不是程序员
  **/
 @Slf4j
-@AllArgsConstructor
 public class RedisStreamPushHandler {
 
-    
     private final StringRedisTemplate stringRedisTemplate;
     
     private final RedisStreamConfigProperties redisStreamConfigProperties;
+    
+    private DefaultRedisScript<String> pushScript;
+    
+    public RedisStreamPushHandler(StringRedisTemplate stringRedisTemplate, 
+                                  RedisStreamConfigProperties redisStreamConfigProperties){
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisStreamConfigProperties = redisStreamConfigProperties;
+        try {
+            pushScript = new DefaultRedisScript<>();
+            pushScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/redisStreamPush.lua")));
+            pushScript.setResultType(String.class);
+        } catch (Exception e) {
+            log.error("redisScript init lua error",e);
+        }
+    }
 
     public RecordId push(String msg){
-        ObjectRecord<String, String> record = StreamRecords.newRecord()
-                .in(redisStreamConfigProperties.getStreamName())
-                .ofObject(msg) 
-                .withId(RecordId.autoGenerate());
-        RecordId recordId = this.stringRedisTemplate.opsForStream().add(record);
-        log.info("redis streamName : {} message : {}", redisStreamConfigProperties.getStreamName(),msg);
-        return recordId;
+        String streamName = redisStreamConfigProperties.getStreamName();
+        long maxLen = Objects.isNull(redisStreamConfigProperties.getMaxLen()) ? 0L : redisStreamConfigProperties.getMaxLen();
+        String recordId = stringRedisTemplate.execute(pushScript, 
+                Collections.singletonList(streamName), String.valueOf(maxLen), msg);
+        log.info("redis streamName : {} message : {}", streamName, msg);
+        return RecordId.of(recordId);
     }
 }
@@ -1,9 +1,11 @@
 package com.damai.config;
 
 import com.damai.MessageConsumer;
+import com.damai.PendingMessageRecovery;
 import com.damai.RedisStreamConfigProperties;
 import com.damai.RedisStreamHandler;
 import com.damai.RedisStreamListener;
+import com.damai.RedisStreamMessage;
 import com.damai.RedisStreamPushHandler;
 import com.damai.constant.RedisStreamConstant;
 import com.damai.enums.BaseCode;
@@ -14,6 +16,7 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
 import org.springframework.data.redis.connection.stream.ObjectRecord;
 import org.springframework.data.redis.connection.stream.ReadOffset;
 import org.springframework.data.redis.connection.stream.StreamOffset;
@@ -21,6 +24,7 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.stream.StreamMessageListenerContainer;
 
 import java.time.Duration;
+import java.util.Objects;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -70,9 +74,9 @@ public class RedisStreamAutoConfig {
         StreamMessageListenerContainer.StreamMessageListenerContainerOptions<String, ObjectRecord<String, String>>
                 options = StreamMessageListenerContainer.StreamMessageListenerContainerOptions.builder()
                 //拉取消息超时时间
-                .pollTimeout(Duration.ofSeconds(5))
+                .pollTimeout(Duration.ofMillis(redisStreamConfigProperties.getPollTimeout()))
                 //批量抓取消息的数量
-                .batchSize(10)
+                .batchSize(redisStreamConfigProperties.getBatchSize())
                 //传递的数据类型
                 .targetType(String.class)
                 //获取消息的过程或获取到消息给具体的消息者处理的过程中，发生了异常的处理
@@ -83,27 +87,55 @@ public class RedisStreamAutoConfig {
                 StreamMessageListenerContainer.create(redisConnectionFactory, options);
         //检查消费类型，消费组或者广播
         checkConsumerType(redisStreamConfigProperties.getConsumerType());
-        //监听器
-        RedisStreamListener redisStreamListener = new RedisStreamListener(messageConsumer);
         //如果是分组消费
         if (RedisStreamConstant.GROUP.equals(redisStreamConfigProperties.getConsumerType())) {
+            //监听器，处理成功后手动确认
+            RedisStreamListener redisStreamListener = new RedisStreamListener(messageConsumer, redisStreamHandler, 
+                    redisStreamConfigProperties.getConsumerGroup());
             //绑定stream和消费组
             redisStreamHandler.streamBindingGroup(redisStreamConfigProperties.getStreamName(),
                     redisStreamConfigProperties.getConsumerGroup());
-            //这里用的是ack自动提交
-            container.receiveAutoAck(Consumer.from(redisStreamConfigProperties.getConsumerGroup(),
+            //不自动确认，处理失败或节点宕机时消息保持未确认状态，由PendingMessageRecovery认领后重新处理
+            container.receive(Consumer.from(redisStreamConfigProperties.getConsumerGroup(),
                             redisStreamConfigProperties.getConsumerName()),
                     StreamOffset.create(redisStreamConfigProperties.getStreamName(), ReadOffset.lastConsumed()),
                     redisStreamListener);
         } else {
-            //如果是广播消费
-            container.receive(StreamOffset.fromStart(redisStreamConfigProperties.getStreamName()), redisStreamListener);
+            //如果是广播消费，从启动时最新的一条消息之后开始消费，不再重放历史消息，
+            //启动前的消息对应的本地数据在启动时全量清空
+            String streamName = redisStreamConfigProperties.getStreamName();
+            MapRecord<String, Object, Object> lastRecord = redisStreamHandler.lastRecord(streamName);
+            ReadOffset readOffset = ReadOffset.from("0-0");
+            Long lastEpoch = null;
+            if (Objects.nonNull(lastRecord)) {
+                readOffset = ReadOffset.from(lastRecord.getId());
+                RedisStreamMessage redisStreamMessage = RedisStreamMessage.parse(
+                        Objects.toString(lastRecord.getValue().get(RedisStreamConstant.PAYLOAD), null));
+                if (Objects.nonNull(redisStreamMessage)) {
+                    lastEpoch = redisStreamMessage.getEpoch();
+                }
+            }
+            messageConsumer.flush();
+            container.receive(StreamOffset.create(streamName, readOffset), 
+                    new RedisStreamListener(messageConsumer, true, lastEpoch));
         }
         //启动监听
         container.start();
         return container;
     }
 
+    /**
+     * 消费组模式下未确认消息的恢复
+     * */
+    @Bean
+    @ConditionalOnBean(MessageConsumer.class)
+    public PendingMessageRecovery pendingMessageRecovery(RedisStreamConfigProperties redisStreamConfigProperties,
+                                                         RedisStreamHandler redisStreamHandler,
+                                                         MessageConsumer messageConsumer) {
+        return new PendingMessageRecovery(redisStreamHandler, redisStreamConfigProperties, 
+                new RedisStreamListener(messageConsumer, redisStreamHandler, redisStreamConfigProperties.getConsumerGroup()));
+    }
+
     public ThreadPoolExecutor createThreadPool(){
         //线程池
         int coreThreadCount = Runtime.getRuntime().availableProcessors();
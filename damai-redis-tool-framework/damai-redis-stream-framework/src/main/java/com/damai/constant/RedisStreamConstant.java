@@ -11,4 +11,14 @@ public class RedisStreamConstant {
     public static final String GROUP = "group";
     
     public static final String BROADCAST = "broadcast";
+    
+    /**
+     * spring-data-redis保存简单类型ObjectRecord时使用的字段名
+     * */
+    public static final String PAYLOAD = "payload";
+    
+    /**
+     * 死信stream名字的后缀
+     * */
+    public static final String DEAD_LETTER_SUFFIX = "_dead_letter";
 }
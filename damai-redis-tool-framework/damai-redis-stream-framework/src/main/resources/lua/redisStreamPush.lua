@@ -0,0 +1,23 @@
+-- 缓存纪元保存在stream最后一条消息中，读取后加一随新消息一起写入，只操作一个key，集群模式下不会跨slot
+-- 读取和写入在同一个脚本中执行，保证纪元的顺序和消息在stream中的顺序一致
+-- stream被删除后纪元从1重新开始，消费端判定为不连续并清空本地数据
+local epoch = 0
+local last = redis.call('XREVRANGE', KEYS[1], '+', '-', 'COUNT', 1)
+if #last > 0 then
+    local fields = last[1][2]
+    for i = 1, #fields, 2 do
+        if fields[i] == 'payload' then
+            local ok, message = pcall(cjson.decode, fields[i + 1])
+            if ok and type(message) == 'table' and message['epoch'] ~= nil then
+                epoch = tonumber(message['epoch']) or 0
+            end
+        end
+    end
+end
+epoch = epoch + 1
+local payload = cjson.encode({epoch = tostring(epoch), body = ARGV[2]})
+local max_len = tonumber(ARGV[1])
+if max_len > 0 then
+    return redis.call('XADD', KEYS[1], 'MAXLEN', '~', ARGV[1], '*', 'payload', payload)
+end
+return redis.call('XADD', KEYS[1], '*', 'payload', payload)
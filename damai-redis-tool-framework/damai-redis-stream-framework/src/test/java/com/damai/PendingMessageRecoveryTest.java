@@ -0,0 +1,150 @@
+package com.damai;
+
+import com.damai.constant.RedisStreamConstant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 消费者宕机后未确认消息的恢复测试，宕机的消费者持有的未确认消息中有一条在宕机期间被 MAXLEN 裁剪，
+ * 存在的消息被当前消费者认领并处理，被裁剪的消息记录到死信stream并确认，被其他节点认领的消息不处理
+ * @author: 阿星不是程序员
+ **/
+public class PendingMessageRecoveryTest {
+    
+    private static final String STREAM_NAME = "damai-stream";
+    
+    private static final String GROUP = "damai-group";
+    
+    private static final String CONSUMER_NAME = "consumer-b";
+    
+    /**
+     * 模拟的stream中还存在的消息
+     * */
+    private final Map<RecordId, MapRecord<String, Object, Object>> stream = new LinkedHashMap<>();
+    
+    private final List<RecordId> claimedByOtherList = new ArrayList<>();
+    
+    private final List<String> consumedList = new ArrayList<>();
+    
+    private RedisStreamHandler redisStreamHandler;
+    
+    private PendingMessageRecovery pendingMessageRecovery;
+    
+    @BeforeEach
+    public void setUp() {
+        RedisStreamConfigProperties redisStreamConfigProperties = new RedisStreamConfigProperties();
+        redisStreamConfigProperties.setStreamName(STREAM_NAME);
+        redisStreamConfigProperties.setConsumerGroup(GROUP);
+        redisStreamConfigProperties.setConsumerName(CONSUMER_NAME);
+        redisStreamConfigProperties.setConsumerType(RedisStreamConstant.GROUP);
+        redisStreamConfigProperties.setPendingIdleTime(1000L);
+        redisStreamConfigProperties.setPendingCheckInterval(Duration.ofHours(1).toMillis());
+        redisStreamConfigProperties.setMaxDeliveryCount(3);
+        
+        redisStreamHandler = Mockito.mock(RedisStreamHandler.class);
+        Mockito.when(redisStreamHandler.claim(eq(STREAM_NAME), eq(GROUP), eq(CONSUMER_NAME), any(), any()))
+                .thenAnswer(invocation -> {
+                    RecordId recordId = invocation.getArgument(4);
+                    MapRecord<String, Object, Object> record = stream.get(recordId);
+                    if (record == null || claimedByOtherList.contains(recordId)) {
+                        return Collections.emptyList();
+                    }
+                    return Collections.singletonList(record);
+                });
+        Mockito.when(redisStreamHandler.exists(eq(STREAM_NAME), any()))
+                .thenAnswer(invocation -> stream.containsKey(invocation.<RecordId>getArgument(1)));
+        RedisStreamListener redisStreamListener = new RedisStreamListener(
+                message -> consumedList.add(message.getValue()), redisStreamHandler, GROUP);
+        pendingMessageRecovery = new PendingMessageRecovery(redisStreamHandler, redisStreamConfigProperties, redisStreamListener);
+    }
+    
+    @AfterEach
+    public void tearDown() {
+        pendingMessageRecovery.destroy();
+    }
+    
+    @Test
+    public void crashedConsumerMessagesAreRecoveredOrDeadLettered() {
+        //consumer-a读到了1、2、3、4后宕机，宕机期间2被 MAXLEN 裁剪，4被其他节点先认领
+        RecordId first = write(1, "order-1");
+        RecordId trimmed = RecordId.of("2-0");
+        RecordId third = write(3, "order-3");
+        RecordId fourth = write(4, "order-4");
+        claimedByOtherList.add(fourth);
+        pending(pendingMessage(first, 1), pendingMessage(trimmed, 1), pendingMessage(third, 2), pendingMessage(fourth, 1));
+        
+        pendingMessageRecovery.recover();
+        
+        assertEquals(List.of("order-1", "order-3"), consumedList);
+        Mockito.verify(redisStreamHandler).ack(STREAM_NAME, GROUP, first);
+        Mockito.verify(redisStreamHandler).ack(STREAM_NAME, GROUP, third);
+        Mockito.verify(redisStreamHandler).ack(STREAM_NAME, GROUP, trimmed);
+        Mockito.verify(redisStreamHandler, Mockito.never()).ack(STREAM_NAME, GROUP, fourth);
+        
+        Map<Object, Object> deadLetter = singleDeadLetter();
+        assertEquals("2-0", deadLetter.get("sourceId"));
+        assertEquals("trimmed", deadLetter.get("reason"));
+        assertEquals("1", deadLetter.get("deliveryCount"));
+    }
+    
+    @Test
+    public void exhaustedMessageIsDeadLettered() {
+        RecordId recordId = write(5, "order-5");
+        pending(pendingMessage(recordId, 3));
+        
+        pendingMessageRecovery.recover();
+        
+        assertEquals(0, consumedList.size());
+        Map<Object, Object> deadLetter = singleDeadLetter();
+        assertEquals("5-0", deadLetter.get("sourceId"));
+        assertEquals("{\"epoch\":\"5\",\"body\":\"order-5\"}", deadLetter.get(RedisStreamConstant.PAYLOAD));
+        Mockito.verify(redisStreamHandler).ack(STREAM_NAME, GROUP, recordId);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> singleDeadLetter() {
+        ArgumentCaptor<Map<Object, Object>> valueCaptor = ArgumentCaptor.forClass(Map.class);
+        Mockito.verify(redisStreamHandler).add(eq(STREAM_NAME + RedisStreamConstant.DEAD_LETTER_SUFFIX), valueCaptor.capture());
+        return valueCaptor.getValue();
+    }
+    
+    private RecordId write(long sequence, String body) {
+        RecordId recordId = RecordId.of(sequence + "-0");
+        Map<Object, Object> value = new HashMap<>(2);
+        value.put(RedisStreamConstant.PAYLOAD, "{\"epoch\":\"" + sequence + "\",\"body\":\"" + body + "\"}");
+        stream.put(recordId, StreamRecords.newRecord().in(STREAM_NAME).withId(recordId).ofMap(value));
+        return recordId;
+    }
+    
+    private PendingMessage pendingMessage(RecordId recordId, long deliveryCount) {
+        return new PendingMessage(recordId, Consumer.from(GROUP, "consumer-a"), Duration.ofMinutes(5), deliveryCount);
+    }
+    
+    private void pending(PendingMessage... pendingMessages) {
+        Mockito.when(redisStreamHandler.pending(eq(STREAM_NAME), eq(GROUP), anyLong()))
+                .thenReturn(new PendingMessages(GROUP, List.of(pendingMessages)));
+    }
+}
@@ -0,0 +1,202 @@
+package com.damai;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.ObjectRecord;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: redis-stream缓存纪元在嵌入式redis上的测试，真实执行发送脚本，
+ * 检查发送端重启后纪元接着stream中最后一条消息继续递增，消息被 MAXLEN 裁剪后广播监听发现纪元不连续并清空本地数据，
+ * 以及 MAXLEN 裁剪后stream的长度
+ * @author: 阿星不是程序员
+ **/
+public class RedisStreamEpochTest {
+    
+    private static final String STREAM_NAME = "damai-stream-epoch";
+    
+    private static RedisServer redisServer;
+    
+    private static int port;
+    
+    private final List<LettuceConnectionFactory> connectionFactoryList = new ArrayList<>();
+    
+    private StringRedisTemplate stringRedisTemplate;
+    
+    @BeforeAll
+    public static void startRedis() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        redisServer = RedisServer.newRedisServer().port(port).bind("127.0.0.1").build();
+        redisServer.start();
+    }
+    
+    @AfterAll
+    public static void stopRedis() throws IOException {
+        redisServer.stop();
+    }
+    
+    @BeforeEach
+    public void setUp() {
+        stringRedisTemplate = stringRedisTemplate();
+        stringRedisTemplate.delete(STREAM_NAME);
+    }
+    
+    @AfterEach
+    public void tearDown() {
+        connectionFactoryList.forEach(LettuceConnectionFactory::destroy);
+    }
+    
+    @Test
+    public void epochContinuesAcrossProducerRestart() {
+        RedisStreamPushHandler first = pushHandler(stringRedisTemplate, 0L);
+        for (int i = 0; i < 3; i++) {
+            first.push("{\"id\":" + i + "}");
+        }
+        
+        //新的连接和新的发送实例，相当于发送端重启，纪元只从stream中读取
+        RedisStreamPushHandler restarted = pushHandler(stringRedisTemplate(), 0L);
+        restarted.push("{\"id\":3}");
+        restarted.push("{\"id\":4}");
+        
+        List<RedisStreamMessage> messageList = messages();
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), messageList.stream().map(RedisStreamMessage::getEpoch)
+                .collect(Collectors.toList()));
+        assertEquals("{\"id\":4}", messageList.get(4).getBody());
+    }
+    
+    @Test
+    public void epochRestartsAfterStreamIsDeleted() {
+        RedisStreamPushHandler redisStreamPushHandler = pushHandler(stringRedisTemplate, 0L);
+        redisStreamPushHandler.push("a");
+        redisStreamPushHandler.push("b");
+        stringRedisTemplate.delete(STREAM_NAME);
+        
+        redisStreamPushHandler.push("c");
+        
+        assertEquals(List.of(1L), messages().stream().map(RedisStreamMessage::getEpoch).collect(Collectors.toList()));
+    }
+    
+    @Test
+    public void listenerFlushesWhenTrimmedMessagesAreMissed() {
+        RedisStreamPushHandler redisStreamPushHandler = pushHandler(stringRedisTemplate, 0L);
+        redisStreamPushHandler.push("0");
+        //广播监听启动时记住stream中最后一条消息的纪元
+        AtomicInteger flushCount = new AtomicInteger();
+        List<String> consumedList = new ArrayList<>();
+        RedisStreamListener redisStreamListener = new RedisStreamListener(new MessageConsumer() {
+            @Override
+            public void accept(ObjectRecord<String, String> message) {
+                consumedList.add(message.getValue());
+            }
+            
+            @Override
+            public void flush() {
+                flushCount.incrementAndGet();
+            }
+        }, true, 1L);
+        for (int i = 1; i <= 3; i++) {
+            redisStreamPushHandler.push(String.valueOf(i));
+        }
+        List<ObjectRecord<String, String>> recordList = records();
+        recordList.subList(1, recordList.size()).forEach(redisStreamListener::onMessage);
+        assertEquals(List.of("1", "2", "3"), consumedList);
+        assertEquals(0, flushCount.get());
+        
+        //监听断开期间写入的消息超过了 MAXLEN，最早的消息被裁剪，重新连上后只能读到剩余的消息
+        RedisStreamPushHandler trimmingPushHandler = pushHandler(stringRedisTemplate, 10L);
+        for (int i = 4; i <= 500; i++) {
+            trimmingPushHandler.push(String.valueOf(i));
+        }
+        recordList = records();
+        long firstRemainingEpoch = epoch(recordList.get(0));
+        assertTrue(firstRemainingEpoch > 5, "first remaining epoch : " + firstRemainingEpoch);
+        consumedList.clear();
+        recordList.forEach(redisStreamListener::onMessage);
+        
+        assertEquals(1, flushCount.get());
+        assertEquals(recordList.size(), consumedList.size());
+        assertEquals("500", consumedList.get(consumedList.size() - 1));
+        
+        //之后连续的消息不再清空
+        redisStreamPushHandler.push("501");
+        recordList = records();
+        redisStreamListener.onMessage(recordList.get(recordList.size() - 1));
+        assertEquals(1, flushCount.get());
+    }
+    
+    @Test
+    public void maxLenTrimsStreamApproximately() {
+        RedisStreamPushHandler redisStreamPushHandler = pushHandler(stringRedisTemplate, 10L);
+        for (int i = 0; i < 1000; i++) {
+            redisStreamPushHandler.push(String.valueOf(i));
+        }
+        
+        Long size = stringRedisTemplate.opsForStream().size(STREAM_NAME);
+        //MAXLEN ~ 只删除完整的节点(默认每个节点最多100条)，保留的条数在 maxLen 和 maxLen + 100 之间
+        assertTrue(Objects.nonNull(size) && size >= 10 && size <= 110, "stream size : " + size);
+        List<RedisStreamMessage> messageList = messages();
+        assertEquals(1000L, messageList.get(messageList.size() - 1).getEpoch());
+    }
+    
+    @Test
+    public void zeroMaxLenDoesNotTrim() {
+        RedisStreamPushHandler redisStreamPushHandler = pushHandler(stringRedisTemplate, 0L);
+        for (int i = 0; i < 300; i++) {
+            redisStreamPushHandler.push(String.valueOf(i));
+        }
+        
+        assertEquals(300L, stringRedisTemplate.opsForStream().size(STREAM_NAME));
+    }
+    
+    private StringRedisTemplate stringRedisTemplate() {
+        LettuceConnectionFactory lettuceConnectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration("127.0.0.1", port));
+        lettuceConnectionFactory.afterPropertiesSet();
+        lettuceConnectionFactory.start();
+        connectionFactoryList.add(lettuceConnectionFactory);
+        return new StringRedisTemplate(lettuceConnectionFactory);
+    }
+    
+    private RedisStreamPushHandler pushHandler(StringRedisTemplate redisTemplate, Long maxLen) {
+        RedisStreamConfigProperties redisStreamConfigProperties = new RedisStreamConfigProperties();
+        redisStreamConfigProperties.setStreamName(STREAM_NAME);
+        redisStreamConfigProperties.setMaxLen(maxLen);
+        return new RedisStreamPushHandler(redisTemplate, redisStreamConfigProperties);
+    }
+    
+    /**
+     * 和监听容器一样把stream中的消息读取为字符串
+     * */
+    private List<ObjectRecord<String, String>> records() {
+        return stringRedisTemplate.opsForStream().range(String.class, STREAM_NAME, Range.unbounded());
+    }
+    
+    private List<RedisStreamMessage> messages() {
+        return records().stream().map(record -> RedisStreamMessage.parse(record.getValue())).collect(Collectors.toList());
+    }
+    
+    private long epoch(ObjectRecord<String, String> record) {
+        return RedisStreamMessage.parse(record.getValue()).getEpoch();
+    }
+}
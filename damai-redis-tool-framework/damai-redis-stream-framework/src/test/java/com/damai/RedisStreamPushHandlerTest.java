@@ -0,0 +1,61 @@
+package com.damai;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: redis-stream发送消息的测试，脚本只能使用stream一个key，集群模式下不会跨slot
+ * @author: 阿星不是程序员
+ **/
+public class RedisStreamPushHandlerTest {
+    
+    private static final Pattern KEYS_PATTERN = Pattern.compile("KEYS\\[(\\d+)]");
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void pushUsesStreamKeyOnly() {
+        StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(stringRedisTemplate.execute(Mockito.<RedisScript<String>>any(), Mockito.anyList(),
+                Mockito.<Object>any(), Mockito.<Object>any())).thenReturn("1700000000000-0");
+        RedisStreamConfigProperties redisStreamConfigProperties = new RedisStreamConfigProperties();
+        redisStreamConfigProperties.setStreamName("damai-stream");
+        redisStreamConfigProperties.setMaxLen(100L);
+        RedisStreamPushHandler redisStreamPushHandler = new RedisStreamPushHandler(stringRedisTemplate, redisStreamConfigProperties);
+        
+        RecordId recordId = redisStreamPushHandler.push("{\"id\":1}");
+        
+        ArgumentCaptor<List<String>> keysCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(stringRedisTemplate).execute(Mockito.<RedisScript<String>>any(), keysCaptor.capture(),
+                Mockito.eq("100"), Mockito.eq("{\"id\":1}"));
+        assertEquals(List.of("damai-stream"), keysCaptor.getValue());
+        assertEquals("1700000000000-0", recordId.getValue());
+    }
+    
+    @Test
+    public void scriptReadsEpochFromStreamOnly() throws IOException {
+        String script = new ClassPathResource("lua/redisStreamPush.lua").getContentAsString(StandardCharsets.UTF_8);
+        Matcher matcher = KEYS_PATTERN.matcher(script);
+        int keyCount = 0;
+        while (matcher.find()) {
+            assertEquals("1", matcher.group(1));
+            keyCount++;
+        }
+        assertTrue(keyCount > 0);
+        assertTrue(script.contains("XREVRANGE"));
+    }
+}
@@ -2,8 +2,10 @@ package com.damai.config;
 
 import com.damai.handler.BloomFilterHandler;
 import org.redisson.api.RedissonClient;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
@@ -20,4 +22,18 @@ public class BloomFilterAutoConfiguration {
     public BloomFilterHandler rBloomFilterUtil(RedissonClient redissonClient, BloomFilterProperties bloomFilterProperties) {
         return new BloomFilterHandler(redissonClient, bloomFilterProperties);
     }
+    
+    /**
+     * 引入了micrometer时注册监控指标
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.binder.MeterBinder")
+    static class BloomFilterMeterConfiguration {
+        
+        @Bean
+        public BloomFilterMeterBinder bloomFilterMeterBinder(BloomFilterHandler bloomFilterHandler, 
+                                                             BloomFilterProperties bloomFilterProperties) {
+            return new BloomFilterMeterBinder(bloomFilterHandler, bloomFilterProperties);
+        }
+    }
 }
@@ -0,0 +1,32 @@
+package com.damai.config;
+
+import com.damai.handler.BloomFilterHandler;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AllArgsConstructor;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 布隆过滤器 监控指标
+ * @author: 阿星不是程序员
+ **/
+@AllArgsConstructor
+public class BloomFilterMeterBinder implements MeterBinder {
+    
+    private final BloomFilterHandler bloomFilterHandler;
+    
+    private final BloomFilterProperties bloomFilterProperties;
+    
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        Gauge.builder("bloom.filter.false.probability", bloomFilterHandler, BloomFilterHandler::getEstimatedFalseProbability)
+                .description("根据已置位的位数估算的当前误判率")
+                .tag("name", bloomFilterProperties.getName())
+                .register(registry);
+        Gauge.builder("bloom.filter.generation", bloomFilterHandler, BloomFilterHandler::getGeneration)
+                .description("当前查询的布隆过滤器代数")
+                .tag("name", bloomFilterProperties.getName())
+                .register(registry);
+    }
+}
@@ -19,4 +19,39 @@ public class BloomFilterProperties {
     private Long expectedInsertions = 20000L;
     
     private Double falseProbability = 0.01D;
+    
+    /**
+     * 批量添加和查询时每次管道提交的数据条数
+     */
+    private Integer batchSize = 1000;
+    
+    /**
+     * 重建时分页读取数据的条数
+     */
+    private Integer pageSize = 1000;
+    
+    /**
+     * 重建时新一代的容量为 数据总量 * growthFactor，且不小于expectedInsertions
+     */
+    private Double growthFactor = 2.0D;
+    
+    /**
+     * 估算的误判率超过 falseProbability * rebuildFactor 时重建
+     */
+    private Double rebuildFactor = 2.0D;
+    
+    /**
+     * 检查是否需要重建的间隔(秒)
+     */
+    private Long rebuildCheckInterval = 3600L;
+    
+    /**
+     * 切换后旧一代保留的时间(秒)，期间还没有刷新元数据的节点仍然可以从旧一代查询
+     */
+    private Long oldGenerationExpire = 600L;
+    
+    /**
+     * 查询和写入时本地元数据的刷新间隔(毫秒)，重建时标记building后也会先等待这个时间再读取数据
+     */
+    private Long metaRefreshInterval = 1000L;
 }
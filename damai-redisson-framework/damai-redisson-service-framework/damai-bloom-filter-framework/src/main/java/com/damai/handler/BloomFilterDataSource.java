@@ -0,0 +1,25 @@
+package com.damai.handler;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 布隆过滤器重建时的数据来源
+ * @author: 阿星不是程序员
+ **/
+public interface BloomFilterDataSource {
+    
+    /**
+     * 数据总量，用于计算新一代布隆过滤器的容量
+     * @return 数据总量
+     * */
+    long count();
+    
+    /**
+     * 分页读取全部数据
+     * @param pageSize 每页条数
+     * @param pageConsumer 每页数据的处理
+     * */
+    void forEachPage(int pageSize, Consumer<List<String>> pageConsumer);
+}
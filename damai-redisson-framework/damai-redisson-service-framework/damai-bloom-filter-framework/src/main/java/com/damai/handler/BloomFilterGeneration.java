@@ -0,0 +1,111 @@
+package com.damai.handler;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 一代布隆过滤器，数据保存在redis的bitmap中
+ * 使用两个64位hash组合出hashIterations个位置(Kirsch-Mitzenmacher)
+ * @author: 阿星不是程序员
+ **/
+public class BloomFilterGeneration {
+    
+    /**
+     * redis bitmap的最大位数
+     * */
+    private static final long MAX_SIZE = 1L << 32;
+    
+    private final long generation;
+    
+    private final String key;
+    
+    private final long size;
+    
+    private final int hashIterations;
+    
+    private final long expectedInsertions;
+    
+    public BloomFilterGeneration(String name, long generation, long size, int hashIterations, long expectedInsertions) {
+        this.generation = generation;
+        this.key = name + ":v" + generation;
+        this.size = size;
+        this.hashIterations = hashIterations;
+        this.expectedInsertions = expectedInsertions;
+    }
+    
+    public static BloomFilterGeneration create(String name, long generation, long expectedInsertions, double falseProbability){
+        long insertions = Math.max(expectedInsertions, 1L);
+        long size = (long)Math.ceil(-insertions * Math.log(falseProbability) / (Math.log(2) * Math.log(2)));
+        size = Math.min(Math.max(size, 64L), MAX_SIZE);
+        int hashIterations = Math.max(1, (int)Math.round((double)size / insertions * Math.log(2)));
+        return new BloomFilterGeneration(name, generation, size, hashIterations, insertions);
+    }
+    
+    public long[] indexes(String data){
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        long hash1 = fnv1a64(bytes);
+        long hash2 = fmix64(hash1 ^ 0x9E3779B97F4A7C15L) | 1L;
+        long[] indexes = new long[hashIterations];
+        long combined = hash1;
+        for (int i = 0; i < hashIterations; i++) {
+            indexes[i] = Math.floorMod(combined, size);
+            combined += hash2;
+        }
+        return indexes;
+    }
+    
+    /**
+     * 根据已置位的位数估算误判率
+     * */
+    public double estimateFalseProbability(long cardinality){
+        return Math.pow((double)cardinality / size, hashIterations);
+    }
+    
+    /**
+     * 根据已置位的位数估算插入的数据量
+     * */
+    public long estimateCount(long cardinality){
+        if (cardinality >= size) {
+            return Long.MAX_VALUE;
+        }
+        return Math.round(-(double)size / hashIterations * Math.log(1 - (double)cardinality / size));
+    }
+    
+    private static long fnv1a64(byte[] bytes){
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return fmix64(hash);
+    }
+    
+    private static long fmix64(long hash){
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    
+    public long getGeneration() {
+        return generation;
+    }
+    
+    public String getKey() {
+        return key;
+    }
+    
+    public long getSize() {
+        return size;
+    }
+    
+    public int getHashIterations() {
+        return hashIterations;
+    }
+    
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+}
@@ -3,53 +3,396 @@ package com.damai.handler;
 
 import com.damai.config.BloomFilterProperties;
 import com.damai.core.SpringUtil;
-import org.redisson.api.RBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBitSetAsync;
+import org.redisson.api.RFuture;
+import org.redisson.api.RLock;
+import org.redisson.api.RMap;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.DisposableBean;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 布隆过滤器
+ * 按代保存(name:v1、name:v2...)，元数据hash中的current指向当前查询的一代，
+ * 重建时在后台分页读取数据构建下一代，构建期间新增的数据同时写入两代，构建完成后切换current，
+ * 旧一代保留oldGenerationExpire秒，让还没有刷新元数据的节点继续查询。
+ * 各节点本地缓存元数据，每隔metaRefreshInterval毫秒刷新一次，重建时标记building后先等待一个刷新间隔再读取数据，
+ * 之后所有节点新增的数据都会同时写入两代，等待之前新增的数据已经在数据来源中，会被分页读取到
  * @author: 阿星不是程序员
  **/
-public class BloomFilterHandler {
+@Slf4j
+public class BloomFilterHandler implements DisposableBean {
     
-    private final RBloomFilter<String> cachePenetrationBloomFilter;
+    private static final String CURRENT = "current";
+    
+    private static final String BUILDING = "building";
+    
+    private static final String SIZE = "size:";
+    
+    private static final String HASH_ITERATIONS = "hashIterations:";
+    
+    private static final String EXPECTED_INSERTIONS = "expectedInsertions:";
+    
+    /**
+     * 误判率估算结果的缓存时间
+     * */
+    private static final long ESTIMATE_CACHE_TIME = 60000;
+    
+    private final RedissonClient redissonClient;
+    
+    private final BloomFilterProperties bloomFilterProperties;
+    
+    private final String name;
+    
+    private final RMap<String, String> metaMap;
+    
+    /**
+     * 当前查询的一代，为null表示还没有构建完成
+     * */
+    private volatile BloomFilterGeneration current;
+    
+    /**
+     * 正在构建的一代
+     * */
+    private volatile BloomFilterGeneration building;
+    
+    private volatile long metaLoadTime;
+    
+    private volatile double estimatedFalseProbability = -1;
+    
+    private volatile long estimateTime;
+    
+    private ScheduledExecutorService rebuildExecutor;
     
     public BloomFilterHandler(RedissonClient redissonClient, BloomFilterProperties bloomFilterProperties){
-        RBloomFilter<String> cachePenetrationBloomFilter = redissonClient.getBloomFilter(
-                SpringUtil.getPrefixDistinctionName() + "-" + bloomFilterProperties.getName());
-        cachePenetrationBloomFilter.tryInit(bloomFilterProperties.getExpectedInsertions(), 
-                bloomFilterProperties.getFalseProbability());
-        this.cachePenetrationBloomFilter = cachePenetrationBloomFilter;
+        this.redissonClient = redissonClient;
+        this.bloomFilterProperties = bloomFilterProperties;
+        this.name = SpringUtil.getPrefixDistinctionName() + "-" + bloomFilterProperties.getName();
+        this.metaMap = redissonClient.getMap(name + ":meta", StringCodec.INSTANCE);
+        loadMeta();
     }
     
     public boolean add(String data) {
-        return cachePenetrationBloomFilter.add(data);
+        return addAll(Collections.singletonList(data)) > 0;
+    }
+    
+    /**
+     * 批量添加，按batchSize分批通过管道提交
+     * @return 新加入的数据条数
+     * */
+    public long addAll(Collection<String> dataList) {
+        refreshMeta();
+        BloomFilterGeneration currentGeneration = current;
+        BloomFilterGeneration buildingGeneration = building;
+        long added = 0;
+        for (List<String> batch : split(dataList)) {
+            if (Objects.nonNull(currentGeneration)) {
+                added += addBatch(currentGeneration, batch);
+            }
+            if (Objects.nonNull(buildingGeneration)) {
+                addBatch(buildingGeneration, batch);
+            }
+        }
+        return added;
     }
     
     public boolean contains(String data) {
-        return cachePenetrationBloomFilter.contains(data);
+        return containsAll(Collections.singletonList(data));
+    }
+    
+    /**
+     * 批量查询，全部存在时返回true，还没有构建完成时不做过滤，返回true
+     * */
+    public boolean containsAll(Collection<String> dataList) {
+        BloomFilterGeneration generation = currentGeneration();
+        if (Objects.isNull(generation)) {
+            return true;
+        }
+        for (List<String> batch : split(dataList)) {
+            RBatch rBatch = redissonClient.createBatch();
+            RBitSetAsync bitSet = rBatch.getBitSet(generation.getKey());
+            List<RFuture<Boolean>> futureList = new ArrayList<>(batch.size() * generation.getHashIterations());
+            for (String data : batch) {
+                for (long index : generation.indexes(data)) {
+                    futureList.add(bitSet.getAsync(index));
+                }
+            }
+            rBatch.execute();
+            for (RFuture<Boolean> future : futureList) {
+                if (!future.toCompletableFuture().join()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    private long addBatch(BloomFilterGeneration generation, List<String> batch){
+        RBatch rBatch = redissonClient.createBatch();
+        RBitSetAsync bitSet = rBatch.getBitSet(generation.getKey());
+        int hashIterations = generation.getHashIterations();
+        List<RFuture<Boolean>> futureList = new ArrayList<>(batch.size() * hashIterations);
+        for (String data : batch) {
+            for (long index : generation.indexes(data)) {
+                futureList.add(bitSet.setAsync(index));
+            }
+        }
+        rBatch.execute();
+        long added = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            for (int j = 0; j < hashIterations; j++) {
+                //setbit返回原来的值，有一位原来是0说明是新加入的数据
+                if (!futureList.get(i * hashIterations + j).toCompletableFuture().join()) {
+                    added++;
+                    break;
+                }
+            }
+        }
+        return added;
+    }
+    
+    /**
+     * 是否需要重建：还没有构建过，或者估算的误判率超过了 falseProbability * rebuildFactor
+     * */
+    public boolean needRebuild() {
+        loadMeta();
+        if (Objects.isNull(current)) {
+            return true;
+        }
+        return getEstimatedFalseProbability() > bloomFilterProperties.getFalseProbability() * bloomFilterProperties.getRebuildFactor();
+    }
+    
+    /**
+     * 构建下一代并切换，多个节点同时执行时只有获取到锁的节点执行
+     * @return 是否执行了重建
+     * */
+    public boolean rebuild(BloomFilterDataSource bloomFilterDataSource) {
+        RLock lock = redissonClient.getLock(name + ":rebuild_lock");
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            loadMeta();
+            BloomFilterGeneration oldGeneration = current;
+            long next = Math.max(generationNumber(CURRENT), generationNumber(BUILDING)) + 1;
+            long expectedInsertions = Math.max(bloomFilterProperties.getExpectedInsertions(),
+                    (long)(bloomFilterDataSource.count() * bloomFilterProperties.getGrowthFactor()));
+            BloomFilterGeneration generation = BloomFilterGeneration.create(name, next, expectedInsertions,
+                    bloomFilterProperties.getFalseProbability());
+            redissonClient.getBitSet(generation.getKey()).delete();
+            Map<String, String> meta = new HashMap<>(8);
+            meta.put(SIZE + next, String.valueOf(generation.getSize()));
+            meta.put(HASH_ITERATIONS + next, String.valueOf(generation.getHashIterations()));
+            meta.put(EXPECTED_INSERTIONS + next, String.valueOf(generation.getExpectedInsertions()));
+            meta.put(BUILDING, String.valueOf(next));
+            metaMap.putAll(meta);
+            building = generation;
+            long start = System.currentTimeMillis();
+            if (!awaitMetaRefresh()) {
+                metaMap.fastRemove(BUILDING, SIZE + next, HASH_ITERATIONS + next, EXPECTED_INSERTIONS + next);
+                redissonClient.getBitSet(generation.getKey()).delete();
+                building = null;
+                return false;
+            }
+            bloomFilterDataSource.forEachPage(bloomFilterProperties.getPageSize(), page -> {
+                for (List<String> batch : split(page)) {
+                    addBatch(generation, batch);
+                }
+            });
+            //切换current是一次写入，切换前后查询的都是完整的一代
+            metaMap.fastPut(CURRENT, String.valueOf(next));
+            metaMap.fastRemove(BUILDING);
+            if (Objects.nonNull(oldGeneration)) {
+                long old = oldGeneration.getGeneration();
+                redissonClient.getBitSet(oldGeneration.getKey())
+                        .expire(Duration.ofSeconds(bloomFilterProperties.getOldGenerationExpire()));
+                metaMap.fastRemove(SIZE + old, HASH_ITERATIONS + old, EXPECTED_INSERTIONS + old);
+            }
+            loadMeta();
+            estimateTime = 0;
+            log.info("bloom filter rebuild name : {} generation : {} expectedInsertions : {} size : {} hashIterations : {} cost : {}ms",
+                    name, next, generation.getExpectedInsertions(), generation.getSize(), generation.getHashIterations(),
+                    System.currentTimeMillis() - start);
+            return true;
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * 在后台线程中立即检查一次，之后每隔rebuildCheckInterval秒检查一次，需要时重建
+     * */
+    public synchronized void scheduleRebuild(BloomFilterDataSource bloomFilterDataSource) {
+        if (Objects.nonNull(rebuildExecutor)) {
+            return;
+        }
+        rebuildExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setName("bloom-filter-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuildExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                if (needRebuild()) {
+                    rebuild(bloomFilterDataSource);
+                }
+            }catch (Exception e) {
+                log.error("bloom filter rebuild error name : {}", name, e);
+            }
+        }, 0, bloomFilterProperties.getRebuildCheckInterval(), TimeUnit.SECONDS);
+    }
+    
+    /**
+     * 根据当前一代已置位的位数估算误判率，还没有构建时返回0
+     * */
+    public double getEstimatedFalseProbability() {
+        BloomFilterGeneration generation = currentGeneration();
+        if (Objects.isNull(generation)) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        if (now - estimateTime > ESTIMATE_CACHE_TIME) {
+            long cardinality = redissonClient.getBitSet(generation.getKey()).cardinality();
+            estimatedFalseProbability = generation.estimateFalseProbability(cardinality);
+            estimateTime = now;
+        }
+        return estimatedFalseProbability;
+    }
+    
+    public long getGeneration() {
+        BloomFilterGeneration generation = currentGeneration();
+        return Objects.isNull(generation) ? 0 : generation.getGeneration();
     }
     
     public long getExpectedInsertions() {
-        return cachePenetrationBloomFilter.getExpectedInsertions();
+        BloomFilterGeneration generation = currentGeneration();
+        return Objects.isNull(generation) ? bloomFilterProperties.getExpectedInsertions() : generation.getExpectedInsertions();
     }
     
     public double getFalseProbability() {
-        return cachePenetrationBloomFilter.getFalseProbability();
+        return bloomFilterProperties.getFalseProbability();
     }
     
     public long getSize() {
-        return cachePenetrationBloomFilter.getSize();
+        BloomFilterGeneration generation = currentGeneration();
+        return Objects.isNull(generation) ? 0 : generation.getSize();
     }
     
     public int getHashIterations() {
-        return cachePenetrationBloomFilter.getHashIterations();
+        BloomFilterGeneration generation = currentGeneration();
+        return Objects.isNull(generation) ? 0 : generation.getHashIterations();
     }
     
     public long count() {
-        return cachePenetrationBloomFilter.count();
+        BloomFilterGeneration generation = currentGeneration();
+        if (Objects.isNull(generation)) {
+            return 0;
+        }
+        return generation.estimateCount(redissonClient.getBitSet(generation.getKey()).cardinality());
+    }
+    
+    private BloomFilterGeneration currentGeneration(){
+        refreshMeta();
+        return current;
+    }
+    
+    /**
+     * 本地元数据超过metaRefreshInterval毫秒没有刷新时重新读取
+     * */
+    private void refreshMeta(){
+        if (System.currentTimeMillis() - metaLoadTime > bloomFilterProperties.getMetaRefreshInterval()) {
+            try {
+                loadMeta();
+            }catch (Exception e) {
+                log.error("bloom filter load meta error name : {}", name, e);
+            }
+        }
+    }
+    
+    /**
+     * 等待所有节点刷新元数据，之后新增的数据都会写入正在构建的一代
+     * @return 是否等待完成，线程被中断时返回false
+     * */
+    private boolean awaitMetaRefresh(){
+        try {
+            TimeUnit.MILLISECONDS.sleep(bloomFilterProperties.getMetaRefreshInterval());
+            return true;
+        }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("bloom filter rebuild interrupted name : {}", name);
+            return false;
+        }
+    }
+    
+    private void loadMeta(){
+        Map<String, String> meta = metaMap.readAllMap();
+        current = parseGeneration(meta, meta.get(CURRENT));
+        building = parseGeneration(meta, meta.get(BUILDING));
+        metaLoadTime = System.currentTimeMillis();
+    }
+    
+    private BloomFilterGeneration parseGeneration(Map<String, String> meta, String generationValue){
+        if (Objects.isNull(generationValue)) {
+            return null;
+        }
+        String size = meta.get(SIZE + generationValue);
+        String hashIterations = meta.get(HASH_ITERATIONS + generationValue);
+        String expectedInsertions = meta.get(EXPECTED_INSERTIONS + generationValue);
+        if (Objects.isNull(size) || Objects.isNull(hashIterations) || Objects.isNull(expectedInsertions)) {
+            return null;
+        }
+        return new BloomFilterGeneration(name, Long.parseLong(generationValue), Long.parseLong(size),
+                Integer.parseInt(hashIterations), Long.parseLong(expectedInsertions));
+    }
+    
+    private long generationNumber(String field){
+        String value = metaMap.get(field);
+        return Objects.isNull(value) ? 0 : Long.parseLong(value);
+    }
+    
+    private List<List<String>> split(Collection<String> dataList){
+        int batchSize = bloomFilterProperties.getBatchSize();
+        List<List<String>> batchList = new ArrayList<>(dataList.size() / batchSize + 1);
+        List<String> batch = new ArrayList<>(Math.min(dataList.size(), batchSize));
+        for (String data : dataList) {
+            if (Objects.isNull(data)) {
+                continue;
+            }
+            batch.add(data);
+            if (batch.size() >= batchSize) {
+                batchList.add(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batchList.add(batch);
+        }
+        return batchList;
+    }
+    
+    @Override
+    public void destroy() {
+        if (Objects.nonNull(rebuildExecutor)) {
+            rebuildExecutor.shutdownNow();
+        }
     }
 }
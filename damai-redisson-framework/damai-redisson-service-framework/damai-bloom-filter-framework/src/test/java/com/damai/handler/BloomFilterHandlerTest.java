@@ -0,0 +1,220 @@
+package com.damai.handler;
+
+import com.damai.config.BloomFilterProperties;
+import com.damai.core.SpringUtilTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBitSet;
+import org.redisson.api.RBitSetAsync;
+import org.redisson.api.RLock;
+import org.redisson.api.RMap;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.redisson.misc.CompletableFutureWrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 布隆过滤器的测试，redis使用内存实现，两个handler共享同一份数据模拟两个节点
+ * @author: 阿星不是程序员
+ **/
+public class BloomFilterHandlerTest {
+    
+    private final Map<String, String> metaStore = new HashMap<>();
+    
+    private final Map<String, BitSet> bitSetStore = new HashMap<>();
+    
+    private RMap<String, String> metaMap;
+    
+    private RedissonClient redissonClient;
+    
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        SpringUtilTestSupport.initialize();
+        
+        metaMap = Mockito.mock(RMap.class, invocation -> {
+            Object[] arguments = invocation.getRawArguments();
+            switch (invocation.getMethod().getName()) {
+                case "readAllMap":
+                    return new HashMap<>(metaStore);
+                case "putAll":
+                    metaStore.putAll((Map<String, String>) arguments[0]);
+                    return null;
+                case "fastPut":
+                    return metaStore.put((String) arguments[0], (String) arguments[1]) == null;
+                case "fastRemove":
+                    long removed = 0;
+                    for (Object key : (Object[]) arguments[0]) {
+                        removed += metaStore.remove(key) == null ? 0 : 1;
+                    }
+                    return removed;
+                case "get":
+                    return metaStore.get(arguments[0]);
+                default:
+                    return null;
+            }
+        });
+        RLock lock = Mockito.mock(RLock.class);
+        Mockito.when(lock.tryLock()).thenReturn(true);
+        Mockito.when(lock.isHeldByCurrentThread()).thenReturn(true);
+        redissonClient = Mockito.mock(RedissonClient.class);
+        Mockito.when(redissonClient.getMap(Mockito.anyString(), Mockito.any(Codec.class))).thenReturn((RMap) metaMap);
+        Mockito.when(redissonClient.getLock(Mockito.anyString())).thenReturn(lock);
+        Mockito.when(redissonClient.getBitSet(Mockito.anyString())).thenAnswer(invocation -> bitSet(invocation.getArgument(0)));
+        Mockito.when(redissonClient.createBatch()).thenAnswer(invocation -> batch());
+    }
+    
+    @Test
+    public void containsAfterRebuild() {
+        BloomFilterHandler bloomFilterHandler = handler(10L);
+        List<String> mobileList = mobileList(13800000000L, 1000);
+        assertTrue(bloomFilterHandler.contains("19900000000"));
+        
+        assertTrue(bloomFilterHandler.rebuild(dataSource(mobileList, page -> {})));
+        
+        assertEquals(1, bloomFilterHandler.getGeneration());
+        assertTrue(bloomFilterHandler.containsAll(mobileList));
+        int falsePositive = 0;
+        for (String mobile : mobileList(13900000000L, 1000)) {
+            if (bloomFilterHandler.contains(mobile)) {
+                falsePositive++;
+            }
+        }
+        assertTrue(falsePositive < 50, "falsePositive : " + falsePositive);
+    }
+    
+    @Test
+    public void nullDataIsSkipped() {
+        BloomFilterHandler bloomFilterHandler = handler(10L);
+        List<String> mobileList = new ArrayList<>(mobileList(13800000000L, 10));
+        mobileList.add(3, null);
+        
+        assertTrue(bloomFilterHandler.rebuild(dataSource(mobileList, page -> {})));
+        
+        assertTrue(bloomFilterHandler.contains("13800000009"));
+        assertEquals(1, bloomFilterHandler.addAll(Arrays.asList(null, "13700000000", null)));
+        assertTrue(bloomFilterHandler.contains("13700000000"));
+    }
+    
+    @Test
+    public void addAllUsesCachedMeta() {
+        handler(10L).rebuild(dataSource(Collections.emptyList(), page -> {}));
+        BloomFilterHandler bloomFilterHandler = handler(TimeUnit.MINUTES.toMillis(1));
+        Mockito.clearInvocations(metaMap);
+        
+        for (String mobile : mobileList(13800000000L, 100)) {
+            bloomFilterHandler.add(mobile);
+        }
+        
+        Mockito.verify(metaMap, Mockito.never()).readAllMap();
+        assertTrue(bloomFilterHandler.containsAll(mobileList(13800000000L, 100)));
+    }
+    
+    @Test
+    public void dataAddedByOtherNodeDuringRebuildIsKept() {
+        long metaRefreshInterval = 50L;
+        BloomFilterHandler rebuildNode = handler(metaRefreshInterval);
+        rebuildNode.rebuild(dataSource(mobileList(13800000000L, 10), page -> {}));
+        BloomFilterHandler otherNode = handler(metaRefreshInterval);
+        assertEquals(1, otherNode.getGeneration());
+        
+        //另一个节点在重建读取数据期间注册了新用户，新用户不在已经读取过的数据中
+        rebuildNode.rebuild(dataSource(mobileList(13800000000L, 10), page -> otherNode.add("13700000000")));
+        
+        assertEquals(2, rebuildNode.getGeneration());
+        assertTrue(rebuildNode.contains("13700000000"));
+        sleep(metaRefreshInterval * 2);
+        assertEquals(2, otherNode.getGeneration());
+        assertTrue(otherNode.contains("13700000000"));
+        assertFalse(metaStore.containsKey("building"));
+    }
+    
+    private BloomFilterHandler handler(long metaRefreshInterval) {
+        BloomFilterProperties bloomFilterProperties = new BloomFilterProperties();
+        bloomFilterProperties.setName("user-register-mobile");
+        bloomFilterProperties.setBatchSize(100);
+        bloomFilterProperties.setPageSize(100);
+        bloomFilterProperties.setMetaRefreshInterval(metaRefreshInterval);
+        return new BloomFilterHandler(redissonClient, bloomFilterProperties);
+    }
+    
+    private BloomFilterDataSource dataSource(List<String> dataList, Consumer<List<String>> afterPage) {
+        return new BloomFilterDataSource() {
+            @Override
+            public long count() {
+                return dataList.size();
+            }
+            
+            @Override
+            public void forEachPage(int pageSize, Consumer<List<String>> pageConsumer) {
+                for (int i = 0; i < dataList.size(); i += pageSize) {
+                    List<String> page = dataList.subList(i, Math.min(i + pageSize, dataList.size()));
+                    pageConsumer.accept(page);
+                    afterPage.accept(page);
+                }
+            }
+        };
+    }
+    
+    private List<String> mobileList(long start, int size) {
+        List<String> mobileList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            mobileList.add(String.valueOf(start + i));
+        }
+        return mobileList;
+    }
+    
+    private RBitSet bitSet(String key) {
+        RBitSet bitSet = Mockito.mock(RBitSet.class);
+        Mockito.when(bitSet.delete()).thenAnswer(invocation -> bitSetStore.remove(key) != null);
+        Mockito.when(bitSet.cardinality()).thenAnswer(invocation ->
+                (long) bitSetStore.getOrDefault(key, new BitSet()).cardinality());
+        return bitSet;
+    }
+    
+    /**
+     * 管道中的命令直接执行
+     * */
+    private RBatch batch() {
+        RBatch batch = Mockito.mock(RBatch.class);
+        Mockito.when(batch.getBitSet(Mockito.anyString())).thenAnswer(invocation -> {
+            String key = invocation.getArgument(0);
+            RBitSetAsync bitSet = Mockito.mock(RBitSetAsync.class);
+            Mockito.when(bitSet.setAsync(Mockito.anyLong())).thenAnswer(setInvocation -> {
+                BitSet bits = bitSetStore.computeIfAbsent(key, k -> new BitSet());
+                int index = Math.toIntExact(setInvocation.<Long>getArgument(0));
+                boolean old = bits.get(index);
+                bits.set(index);
+                return new CompletableFutureWrapper<>(old);
+            });
+            Mockito.when(bitSet.getAsync(Mockito.anyLong())).thenAnswer(getInvocation -> new CompletableFutureWrapper<>(
+                    bitSetStore.getOrDefault(key, new BitSet()).get(Math.toIntExact(getInvocation.<Long>getArgument(0)))));
+            return bitSet;
+        });
+        return batch;
+    }
+    
+    private void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
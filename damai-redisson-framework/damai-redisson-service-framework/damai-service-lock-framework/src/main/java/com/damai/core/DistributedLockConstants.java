@@ -6,7 +6,7 @@ package com.damai.core;
  * @author: 阿星不是程序员
  **/
 public class DistributedLockConstants {
-
+    
     /**
      * 	分布式id datacenterId
      * */
@@ -136,4 +136,14 @@ public class DistributedLockConstants {
      * 订单服务的订单支付后回调通知
      * */
     public final static String ORDER_PAY_NOTIFY_CHECK = "d_order_pay_notify_check_lock";
+    
+    /**
+     * 定制服务的api调用记录过期数据清理
+     * */
+    public final static String API_DATA_PURGE_LOCK = "d_api_data_purge_lock";
+    
+    /**
+     * 节目服务的es索引重建
+     * */
+    public final static String PROGRAM_ES_INIT_LOCK = "d_program_es_init_lock";
 }
@@ -15,7 +15,7 @@ import static com.damai.config.DelayQueueProperties.PREFIX;
 @Data
 @ConfigurationProperties(prefix = PREFIX)
 public class DelayQueueProperties {
-
+    
     public static final String PREFIX = "delay.queue";
     
     /**
@@ -44,4 +44,13 @@ public class DelayQueueProperties {
      * 延时队列的隔离分区数，延时有瓶颈时 可调大次数，但会增大redis的cpu消耗(同一个topic发送者和消费者的隔离分区数必须相同)
      * */
     private Integer isolationRegionCount = 5;
+    
+    /**
+     * 消费失败(消费者抛出异常)后重新投递消息的延迟时间，只对开启了重新投递的消费者生效，小于等于0时不重新投递
+     * */
+    private long consumeFailRetryDelayTime = 10;
+    /**
+     * 消费失败后重新投递消息的延迟时间的时间单位
+     * */
+    private TimeUnit consumeFailRetryUnit = TimeUnit.SECONDS;
 }
@@ -12,6 +12,15 @@ public interface ConsumerTask {
      * @param content 具体参数
      * */
     void execute(String content);
+    
+    /**
+     * 消费失败(execute抛出异常)时是否重新投递消息，重新投递的延迟时间见 delay.queue.consumeFailRetryDelayTime
+     * 只有消费可以重复执行并且失败可以通过重试恢复的任务才开启
+     * @return 是否重新投递
+     * */
+    default boolean retryWhenFail() {
+        return false;
+    }
     /**
      * 主题
      * @return 主题
@@ -1,7 +1,9 @@
 package com.damai.core;
 
+import com.damai.config.DelayQueueProperties;
 import com.damai.context.DelayQueuePart;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RDelayedQueue;
 
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
@@ -31,6 +33,13 @@ public class DelayConsumerQueue extends DelayBaseQueue{
     
     private final ConsumerTask consumerTask;
     
+    private final DelayQueueProperties delayQueueProperties;
+    
+    /**
+     * 消费失败的消息重新放回延迟队列
+     * */
+    private final RDelayedQueue<String> retryDelayedQueue;
+    
     public DelayConsumerQueue(DelayQueuePart delayQueuePart, String relTopic){
         super(delayQueuePart.getDelayQueueBasePart().getRedissonClient(),relTopic);
         this.listenStartThreadPool = new ThreadPoolExecutor(1,1,60, 
@@ -45,6 +54,8 @@ public class DelayConsumerQueue extends DelayBaseQueue{
                 r -> new Thread(Thread.currentThread().getThreadGroup(), r, 
                         "delay-queue-consume-thread-" + executeTaskThreadCount.getAndIncrement()));
         this.consumerTask = delayQueuePart.getConsumerTask();
+        this.delayQueueProperties = delayQueuePart.getDelayQueueBasePart().getDelayQueueProperties();
+        this.retryDelayedQueue = redissonClient.getDelayedQueue(blockingQueue);
     }
     
     public synchronized void listenStart(){
@@ -60,6 +71,7 @@ public class DelayConsumerQueue extends DelayBaseQueue{
                                 consumerTask.execute(content);
                             }catch (Exception e) {
                                 log.error("consumer execute error",e);
+                                retry(content);
                             }
                         });
                     } catch (InterruptedException e) {
@@ -72,6 +84,21 @@ public class DelayConsumerQueue extends DelayBaseQueue{
         }
     }
     
+    /**
+     * 消息从阻塞队列取出后就不在redis中了，消费失败时重新放回延迟队列，延迟后再次消费
+     * */
+    private void retry(String content){
+        if (!consumerTask.retryWhenFail() || delayQueueProperties.getConsumeFailRetryDelayTime() <= 0) {
+            return;
+        }
+        try {
+            retryDelayedQueue.offer(content, delayQueueProperties.getConsumeFailRetryDelayTime(),
+                    delayQueueProperties.getConsumeFailRetryUnit());
+        }catch (Exception e) {
+            log.error("consumer retry offer error content : {}",content,e);
+        }
+    }
+    
     public void destroy(ExecutorService executorService) {
         try {
             if (Objects.nonNull(executorService)) {
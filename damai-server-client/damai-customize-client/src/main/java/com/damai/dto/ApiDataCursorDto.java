@@ -0,0 +1,37 @@
+package com.damai.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.media.Schema.RequiredMode;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: api调用数据游标分页 dto
+ * @author: 阿星不是程序员
+ **/
+@Data
+@Schema(title="ApiDataCursorDto", description ="api被限制调用记录游标分页")
+public class ApiDataCursorDto {
+    
+    @Schema(name ="pageSize", type ="Integer", description ="每页条数", requiredMode= RequiredMode.REQUIRED)
+    @NotNull
+    @Max(500)
+    private Integer pageSize;
+    
+    @Schema(name ="cursor", type ="String", description ="上一页返回的游标，查询第一页时为空")
+    private String cursor;
+    
+    @Schema(name ="startDate", type ="String", description ="开始日期 yyyy-MM-dd HH:mm:ss")
+    private String startDate;
+    
+    @Schema(name ="endDate", type ="String", description ="结束日期 yyyy-MM-dd HH:mm:ss")
+    private String endDate;
+    
+    @Schema(name ="apiAddress", type ="String", description ="api的ip地址")
+    private String apiAddress;
+    
+    @Schema(name ="apiUrl", type ="String", description ="api路径")
+    private String apiUrl;
+}
@@ -0,0 +1,25 @@
+package com.damai.vo;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: api调用记录游标分页 vo
+ * @author: 阿星不是程序员
+ **/
+@Data
+@Schema(title="ApiDataCursorVo", description ="api被限制调用记录游标分页")
+public class ApiDataCursorVo {
+    
+    @Schema(name ="list", type ="List", description ="当前页数据")
+    private List<ApiDataVo> list;
+    
+    @Schema(name ="nextCursor", type ="String", description ="查询下一页时传入的游标，没有下一页时为空")
+    private String nextCursor;
+    
+    @Schema(name ="hasMore", type ="Boolean", description ="是否还有下一页")
+    private Boolean hasMore;
+}
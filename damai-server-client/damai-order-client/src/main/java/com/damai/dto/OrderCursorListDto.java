@@ -0,0 +1,34 @@
+package com.damai.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.media.Schema.RequiredMode;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单列表游标分页 dto
+ * @author: 阿星不是程序员
+ **/
+@Data
+@Schema(title="OrderCursorListDto", description ="订单列表游标分页")
+public class OrderCursorListDto {
+    
+    @Schema(name ="userId", type ="Long", description ="用户id", requiredMode= RequiredMode.REQUIRED)
+    @NotNull
+    private Long userId;
+    
+    @Schema(name ="pageSize", type ="Integer", description ="每页条数", requiredMode= RequiredMode.REQUIRED)
+    @NotNull
+    @Min(1)
+    @Max(50)
+    private Integer pageSize;
+    
+    @Schema(name ="cursor", type ="String", description ="上一页返回的游标，查询第一页时为空")
+    private String cursor;
+    
+    @Schema(name ="orderStatus", type ="Integer", description ="订单状态 1:未支付 2:已取消 3:已支付 4:已退单，为空时查询全部")
+    private Integer orderStatus;
+}
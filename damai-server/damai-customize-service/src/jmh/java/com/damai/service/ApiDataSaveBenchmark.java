@@ -0,0 +1,111 @@
+package com.damai.service;
+
+import com.damai.entity.ApiData;
+import com.damai.enums.BusinessStatus;
+import com.damai.mapper.ApiDataMapper;
+import com.damai.mapper.ApiDataTestDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: api调用记录入库的吞吐量(条/秒)，每次调用保存一次消费拉取到的500条记录，
+ * legacyPerRecord是批量之前每条记录先selectById再insert，batchSave是saveApiDataBatch的一次id查询加一条多行插入，
+ * 数据库是内存中的H2(MySQL模式)，没有网络往返，批量之前每条记录还要加一次redis锁，这里都没有计入，实际差距会更大
+ * @author: 阿星不是程序员
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiDataSaveBenchmark {
+    
+    private static final int BATCH_SIZE = 500;
+    
+    private ApiDataTestDatabase apiDataTestDatabase;
+    
+    private ApiDataMapper apiDataMapper;
+    
+    private ApiDataService apiDataService;
+    
+    private long nextId;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        apiDataTestDatabase = new ApiDataTestDatabase();
+        apiDataMapper = apiDataTestDatabase.getApiDataMapper();
+        apiDataService = new ApiDataService();
+        ReflectionTestUtils.setField(apiDataService, "apiDataMapper", apiDataMapper);
+        ReflectionTestUtils.setField(apiDataService, "insertBatchSize", BATCH_SIZE);
+    }
+    
+    @Setup(Level.Iteration)
+    public void clear() {
+        //每轮从空表开始，表的大小不影响两种方式的比较
+        apiDataTestDatabase.clear();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        apiDataTestDatabase.close();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int legacyPerRecord() {
+        int insertCount = 0;
+        for (ApiData apiData : nextBatch()) {
+            if (Objects.isNull(apiDataMapper.selectById(apiData.getId()))) {
+                insertCount += apiDataMapper.insert(apiData);
+            }
+        }
+        return insertCount;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int batchSave() {
+        return apiDataService.saveApiDataBatch(nextBatch());
+    }
+    
+    private List<ApiData> nextBatch() {
+        Date now = new Date();
+        List<ApiData> apiDataList = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ApiData apiData = new ApiData();
+            apiData.setId(++nextId);
+            apiData.setApiAddress("10.0.0." + (i % 256));
+            apiData.setApiUrl("/damai/order/create");
+            apiData.setCallDayTime("2024-01-01");
+            apiData.setCallHourTime("2024-01-01 10");
+            apiData.setCallMinuteTime("2024-01-01 10:00");
+            apiData.setCallSecondTime("2024-01-01 10:00:00");
+            apiData.setType(1);
+            apiData.setCreateTime(now);
+            apiData.setEditTime(now);
+            apiData.setStatus(BusinessStatus.YES.getCode());
+            apiDataList.add(apiData);
+        }
+        return apiDataList;
+    }
+}
@@ -2,8 +2,10 @@ package com.damai.controller;
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.damai.common.ApiResponse;
+import com.damai.dto.ApiDataCursorDto;
 import com.damai.dto.ApiDataDto;
 import com.damai.service.ApiDataService;
+import com.damai.vo.ApiDataCursorVo;
 import com.damai.vo.ApiDataVo;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -32,4 +34,10 @@ public class ApiDataController {
     public ApiResponse<Page<ApiDataVo>> pageList(@Valid @RequestBody ApiDataDto dto) {
         return ApiResponse.ok(apiDataService.pageList(dto));
     }
+    
+    @Operation(summary  = "游标分页查询api调用记录")
+    @RequestMapping(value = "/cursorList",method = RequestMethod.POST)
+    public ApiResponse<ApiDataCursorVo> cursorList(@Valid @RequestBody ApiDataCursorDto dto) {
+        return ApiResponse.ok(apiDataService.cursorList(dto));
+    }
 }
@@ -1,5 +1,7 @@
 package com.damai.entity;
 
+import com.baomidou.mybatisplus.annotation.FieldStrategy;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableName;
 import com.damai.data.BaseTableData;
 import lombok.Data;
@@ -17,6 +19,12 @@ public class ApiData extends BaseTableData implements Serializable {
     
     private Long id;
     
+    /**
+     * 写入顺序，由数据库自增分配，游标分页使用
+     * */
+    @TableField(insertStrategy = FieldStrategy.NEVER, updateStrategy = FieldStrategy.NEVER)
+    private Long insertSeq;
+    
     private String headVersion;
     
     private String apiAddress;
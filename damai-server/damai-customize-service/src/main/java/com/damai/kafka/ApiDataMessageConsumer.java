@@ -3,20 +3,25 @@ package com.damai.kafka;
 import com.alibaba.fastjson.JSON;
 import com.damai.entity.ApiData;
 import com.damai.service.ApiDataService;
+import com.damai.util.StringUtil;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.damai.constant.Constant.SPRING_INJECT_PREFIX_DISTINCTION_NAME;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: kafka 消费
+ * 按批拉取消息，整批解析后在一个事务中批量入库，入库成功后再手动提交offset，
+ * 入库失败时抛出异常，由容器重新投递整批消息，重复的数据按id去重
  * @author: 阿星不是程序员
  **/
 @Slf4j
@@ -27,16 +32,36 @@ public class ApiDataMessageConsumer {
     @Autowired
     private ApiDataService apiDataService;
     
-    @KafkaListener(topics = {SPRING_INJECT_PREFIX_DISTINCTION_NAME+"-"+"${spring.kafka.topic:save_api_data}"})
-    public void consumerOrderMessage(ConsumerRecord<String,String> consumerRecord){
+    @KafkaListener(topics = {SPRING_INJECT_PREFIX_DISTINCTION_NAME+"-"+"${spring.kafka.topic:save_api_data}"}, batch = "true")
+    public void consumerOrderMessage(List<ConsumerRecord<String,String>> consumerRecordList, Acknowledgment acknowledgment){
+        List<ApiData> apiDataList = new ArrayList<>(consumerRecordList.size());
+        for (ConsumerRecord<String, String> consumerRecord : consumerRecordList) {
+            parseApiData(consumerRecord, apiDataList);
+        }
+        if (!apiDataList.isEmpty()) {
+            apiDataService.saveApiDataBatch(apiDataList);
+        }
+        acknowledgment.acknowledge();
+    }
+    
+    /**
+     * 网关会把多条记录合并成一条json数组发送，同时兼容单条记录的消息，
+     * 无法解析的消息只记录日志后跳过，避免整批被反复投递
+     * */
+    private void parseApiData(ConsumerRecord<String,String> consumerRecord, List<ApiData> apiDataList){
+        String value = consumerRecord.value();
+        if (StringUtil.isEmpty(value)) {
+            return;
+        }
         try {
-            Optional.ofNullable(consumerRecord.value()).map(String::valueOf).ifPresent(value -> {
-                log.info("consumerOrderMessage message:{}",value);
-                ApiData apiData = JSON.parseObject(value, ApiData.class);
-                apiDataService.saveApiData(apiData);
-            });
+            if (value.trim().startsWith("[")) {
+                apiDataList.addAll(JSON.parseArray(value, ApiData.class));
+            }else {
+                apiDataList.add(JSON.parseObject(value, ApiData.class));
+            }
         }catch (Exception e) {
-            log.error("consumerApiDataMessage error",e);
+            log.error("consumerApiDataMessage parse error partition:{} offset:{} message:{}",
+                    consumerRecord.partition(),consumerRecord.offset(),value,e);
         }
     }
 }
@@ -2,9 +2,14 @@ package com.damai.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.damai.dto.ApiDataCursorDto;
 import com.damai.dto.ApiDataDto;
 import com.damai.entity.ApiData;
 import com.damai.vo.ApiDataVo;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
@@ -19,4 +24,36 @@ public interface ApiDataMapper extends BaseMapper<ApiData> {
      * @return 分页数据
      * */
     Page<ApiDataVo> pageList(Page<ApiData> page, ApiDataDto apiDataDto);
+    
+    /**
+     * 查询已经存在的id
+     * @param idList id集合
+     * @return 已存在的id
+     * */
+    List<Long> selectExistIdList(@Param("idList")List<Long> idList);
+    
+    /**
+     * 多行批量插入
+     * @param apiDataList 数据集合
+     * @return 插入的条数
+     * */
+    int insertBatch(@Param("apiDataList")List<ApiData> apiDataList);
+    
+    /**
+     * 按写入顺序倒序的游标分页
+     * @param dto 查询条件
+     * @param cursorSeq 上一页最后一条的写入顺序，第一页为null
+     * @param limit 查询条数
+     * @return 数据集合
+     * */
+    List<ApiData> selectCursorList(@Param("dto")ApiDataCursorDto dto, @Param("cursorSeq")Long cursorSeq, 
+                                   @Param("limit")int limit);
+    
+    /**
+     * 删除过期数据，每次最多删除limit条
+     * @param expireTime 过期时间
+     * @param limit 删除条数
+     * @return 删除的条数
+     * */
+    int deleteExpired(@Param("expireTime")Date expireTime, @Param("limit")int limit);
 }
@@ -0,0 +1,59 @@
+package com.damai.scheduletask;
+
+import com.damai.service.ApiDataService;
+import com.damai.servicelock.LockType;
+import com.damai.util.DateUtils;
+import com.damai.util.ServiceLockTool;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+
+import static com.damai.core.DistributedLockConstants.API_DATA_PURGE_LOCK;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: api调用记录过期数据清理定时任务，多个实例同时触发时只有拿到锁的实例执行
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+@Component
+public class ApiDataTask {
+    
+    @Autowired
+    private ApiDataService apiDataService;
+    
+    @Autowired
+    private ServiceLockTool serviceLockTool;
+    
+    /**
+     * 数据保留天数，小于等于0时不清理
+     * */
+    @Value("${api.data.retention-days:30}")
+    private int retentionDays;
+    
+    @Scheduled(cron = "${api.data.purge-cron:0 30 3 * * ?}")
+    public void executeTask(){
+        if (retentionDays <= 0) {
+            return;
+        }
+        RLock lock = serviceLockTool.getLock(LockType.Reentrant, API_DATA_PURGE_LOCK, new String[]{});
+        if (!lock.tryLock()) {
+            log.warn("api调用记录过期数据清理正在其他实例执行");
+            return;
+        }
+        try {
+            Date expireTime = DateUtils.addDay(DateUtils.getDateStart(DateUtils.now()), -retentionDays);
+            long deleteCount = apiDataService.deleteExpired(expireTime);
+            log.warn("api调用记录过期数据清理执行 expireTime:{} deleteCount:{}", DateUtils.formatDateTime(expireTime), deleteCount);
+        }catch (Exception e) {
+            log.error("executeTask error",e);
+        }finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,26 +1,38 @@
 package com.damai.service;
 
 import cn.hutool.core.collection.CollUtil;
-import com.alibaba.fastjson.JSON;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.damai.core.RepeatExecuteLimitConstants;
 import com.damai.util.StringUtil;
+import com.damai.dto.ApiDataCursorDto;
 import com.damai.dto.ApiDataDto;
 import com.damai.entity.ApiData;
+import com.damai.enums.BaseCode;
+import com.damai.enums.BusinessStatus;
+import com.damai.exception.DaMaiFrameException;
 import com.damai.mapper.ApiDataMapper;
-import com.damai.repeatexecutelimit.annotion.RepeatExecuteLimit;
+import com.damai.util.DateUtils;
+import com.damai.vo.ApiDataCursorVo;
 import com.damai.vo.ApiDataVo;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -31,16 +43,121 @@ import java.util.stream.Collectors;
 @Slf4j
 @Service
 public class ApiDataService extends ServiceImpl<ApiDataMapper,ApiData> {
-
+    
     @Autowired
     private ApiDataMapper apiDataMapper;
     
-    @RepeatExecuteLimit(name = RepeatExecuteLimitConstants.CONSUMER_API_DATA_MESSAGE,keys = {"#apiData.id"})
-    public void saveApiData(ApiData apiData){
-        ApiData dbApiData = apiDataMapper.selectById(apiData.getId());
-        if (Objects.isNull(dbApiData)) {
-            log.info("saveApiData apiData:{}", JSON.toJSONString(apiData));
-            apiDataMapper.insert(apiData);
+    /**
+     * 每条多行插入语句包含的最大行数
+     * */
+    @Value("${api.data.insert-batch-size:500}")
+    private int insertBatchSize;
+    
+    /**
+     * 删除过期数据时每条语句删除的最大行数
+     * */
+    @Value("${api.data.delete-batch-size:5000}")
+    private int deleteBatchSize;
+    
+    /**
+     * 批量保存，消息重复投递时按id去重，已存在的id不再插入
+     * */
+    @Transactional(rollbackFor = Exception.class)
+    public int saveApiDataBatch(List<ApiData> apiDataList){
+        Map<Long,ApiData> apiDataMap = new LinkedHashMap<>(apiDataList.size() * 2);
+        for (ApiData apiData : apiDataList) {
+            if (Objects.nonNull(apiData) && Objects.nonNull(apiData.getId())) {
+                apiDataMap.putIfAbsent(apiData.getId(), apiData);
+            }
+        }
+        if (apiDataMap.isEmpty()) {
+            return 0;
+        }
+        Date now = DateUtils.now();
+        int insertCount = 0;
+        for (List<Long> idList : CollUtil.split(apiDataMap.keySet(), insertBatchSize)) {
+            Set<Long> existIdSet = new HashSet<>(apiDataMapper.selectExistIdList(idList));
+            List<ApiData> insertList = new ArrayList<>(idList.size());
+            for (Long id : idList) {
+                if (existIdSet.contains(id)) {
+                    continue;
+                }
+                ApiData apiData = apiDataMap.get(id);
+                if (Objects.isNull(apiData.getCreateTime())) {
+                    apiData.setCreateTime(now);
+                }
+                apiData.setEditTime(now);
+                if (Objects.isNull(apiData.getStatus())) {
+                    apiData.setStatus(BusinessStatus.YES.getCode());
+                }
+                insertList.add(apiData);
+            }
+            if (CollUtil.isNotEmpty(insertList)) {
+                insertCount += apiDataMapper.insertBatch(insertList);
+            }
+        }
+        log.debug("saveApiDataBatch receive size:{} insert size:{}", apiDataList.size(), insertCount);
+        return insertCount;
+    }
+    
+    /**
+     * 按写入顺序(insert_seq)倒序的游标分页，翻页时只扫描游标之后的数据。
+     * insert_seq由数据库在写入时分配，网关批量上报的记录即使create_time和id较早，写入后序号也更大，
+     * 翻页期间新写入的数据排在游标之前，不会让后面的页重复或者遗漏已经提交的数据；
+     * 翻页时还没有提交的写入如果分到了比游标小的序号，提交后不会出现在这一轮翻页中
+     * */
+    public ApiDataCursorVo cursorList(final ApiDataCursorDto dto) {
+        Long cursorSeq = null;
+        if (StringUtil.isNotEmpty(dto.getCursor())) {
+            cursorSeq = decodeCursor(dto.getCursor());
+        }
+        int pageSize = dto.getPageSize();
+        List<ApiData> apiDataList = apiDataMapper.selectCursorList(dto, cursorSeq, pageSize + 1);
+        boolean hasMore = apiDataList.size() > pageSize;
+        if (hasMore) {
+            apiDataList = apiDataList.subList(0, pageSize);
+        }
+        List<ApiDataVo> apiDataVoList = new ArrayList<>(apiDataList.size());
+        for (ApiData apiData : apiDataList) {
+            ApiDataVo apiDataVo = new ApiDataVo();
+            BeanUtils.copyProperties(apiData,apiDataVo);
+            apiDataVoList.add(apiDataVo);
+        }
+        ApiDataCursorVo apiDataCursorVo = new ApiDataCursorVo();
+        apiDataCursorVo.setList(apiDataVoList);
+        apiDataCursorVo.setHasMore(hasMore);
+        if (hasMore) {
+            Long lastSeq = apiDataList.get(apiDataList.size() - 1).getInsertSeq();
+            if (Objects.isNull(lastSeq)) {
+                throw new DaMaiFrameException(BaseCode.API_DATA_CURSOR_ERROR);
+            }
+            apiDataCursorVo.setNextCursor(encodeCursor(lastSeq));
+        }
+        return apiDataCursorVo;
+    }
+    
+    /**
+     * 分批删除创建时间早于expireTime的数据
+     * */
+    public long deleteExpired(Date expireTime){
+        long total = 0;
+        int deleteCount;
+        do {
+            deleteCount = apiDataMapper.deleteExpired(expireTime, deleteBatchSize);
+            total += deleteCount;
+        } while (deleteCount >= deleteBatchSize);
+        return total;
+    }
+    
+    private String encodeCursor(long insertSeq){
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(String.valueOf(insertSeq).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private Long decodeCursor(String cursor){
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        }catch (Exception e) {
+            throw new DaMaiFrameException(BaseCode.API_DATA_CURSOR_ERROR);
         }
     }
     
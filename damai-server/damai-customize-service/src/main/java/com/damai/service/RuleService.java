@@ -131,5 +131,15 @@ public class RuleService {
         if (map.size() > 0 && Objects.nonNull(map.get(RedisKeyBuild.createRedisKey(RedisKeyManage.RULE).getRelKey()))) {
             redisCache.putHash(RedisKeyBuild.createRedisKey(RedisKeyManage.ALL_RULE_HASH),map);
         }
+        publishAllRuleVersion();
+    }
+    
+    /**
+     * 递增规则版本并通知网关重新加载规则
+     * */
+    private void publishAllRuleVersion(){
+        Long version = redisCache.incrBy(RedisKeyBuild.createRedisKey(RedisKeyManage.ALL_RULE_VERSION), 1);
+        redisCache.getInstance().convertAndSend(RedisKeyBuild.createRedisKey(RedisKeyManage.ALL_RULE_CHANGE_CHANNEL).getRelKey(), 
+                String.valueOf(version));
     }
 }
@@ -0,0 +1,73 @@
+package com.damai.kafka;
+
+import com.damai.entity.ApiData;
+import com.damai.service.ApiDataService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: api调用记录批量消费的测试，数组消息和单条消息一起解析入库，无法解析的消息跳过，
+ * 入库成功后才提交offset，入库失败时不提交
+ * @author: 阿星不是程序员
+ **/
+public class ApiDataMessageConsumerTest {
+    
+    private final ApiDataService apiDataService = Mockito.mock(ApiDataService.class);
+    
+    private final Acknowledgment acknowledgment = Mockito.mock(Acknowledgment.class);
+    
+    private final ApiDataMessageConsumer apiDataMessageConsumer = new ApiDataMessageConsumer(apiDataService);
+    
+    @Test
+    public void arrayAndSingleMessagesAreSavedInOneBatch() {
+        List<ConsumerRecord<String, String>> consumerRecordList = List.of(
+                record(0, "[{\"id\":1,\"apiUrl\":\"/a\"},{\"id\":2,\"apiUrl\":\"/b\"}]"),
+                record(1, " {\"id\":3,\"apiUrl\":\"/c\"}"),
+                record(2, ""),
+                record(3, "{\"id\":"),
+                record(4, "[{\"id\":4}]"));
+        
+        apiDataMessageConsumer.consumerOrderMessage(consumerRecordList, acknowledgment);
+        
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ApiData>> captor = ArgumentCaptor.forClass(List.class);
+        InOrder inOrder = Mockito.inOrder(apiDataService, acknowledgment);
+        inOrder.verify(apiDataService).saveApiDataBatch(captor.capture());
+        inOrder.verify(acknowledgment).acknowledge();
+        assertEquals(List.of(1L, 2L, 3L, 4L), captor.getValue().stream().map(ApiData::getId).collect(Collectors.toList()));
+        assertEquals("/c", captor.getValue().get(2).getApiUrl());
+    }
+    
+    @Test
+    public void saveFailureIsNotAcknowledged() {
+        Mockito.when(apiDataService.saveApiDataBatch(anyList())).thenThrow(new IllegalStateException("db error"));
+        
+        assertThrows(IllegalStateException.class,
+                () -> apiDataMessageConsumer.consumerOrderMessage(List.of(record(0, "[{\"id\":1}]")), acknowledgment));
+        Mockito.verify(acknowledgment, Mockito.never()).acknowledge();
+    }
+    
+    @Test
+    public void unparseableBatchIsAcknowledgedWithoutSaving() {
+        apiDataMessageConsumer.consumerOrderMessage(List.of(record(0, "[{\"id\":1"), record(1, null)), acknowledgment);
+        
+        Mockito.verify(apiDataService, Mockito.never()).saveApiDataBatch(anyList());
+        Mockito.verify(acknowledgment).acknowledge();
+    }
+    
+    private ConsumerRecord<String, String> record(long offset, String value) {
+        return new ConsumerRecord<>("damai-save_api_data", 0, offset, null, value);
+    }
+}
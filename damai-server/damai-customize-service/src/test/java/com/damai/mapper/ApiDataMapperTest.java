@@ -0,0 +1,214 @@
+package com.damai.mapper;
+
+import com.damai.dto.ApiDataCursorDto;
+import com.damai.entity.ApiData;
+import com.damai.enums.BusinessStatus;
+import com.damai.service.ApiDataService;
+import com.damai.util.DateUtils;
+import com.damai.vo.ApiDataCursorVo;
+import com.damai.vo.ApiDataVo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: ApiDataMapper.xml 中语句在H2(MySQL模式)上的测试，insertBatch的多行插入和数据库分配的insert_seq、
+ * selectExistIdList的去重查询、selectCursorList的条件和游标翻页，以及deleteExpired的分批删除
+ * @author: 阿星不是程序员
+ **/
+public class ApiDataMapperTest {
+    
+    private static final long BASE_TIME = 1_700_000_000_000L;
+    
+    private static final int PAGE_SIZE = 10;
+    
+    private ApiDataTestDatabase apiDataTestDatabase;
+    
+    private ApiDataMapper apiDataMapper;
+    
+    private ApiDataService apiDataService;
+    
+    @BeforeEach
+    public void setUp() throws Exception {
+        apiDataTestDatabase = new ApiDataTestDatabase();
+        apiDataMapper = apiDataTestDatabase.getApiDataMapper();
+        apiDataService = new ApiDataService();
+        ReflectionTestUtils.setField(apiDataService, "apiDataMapper", apiDataMapper);
+        ReflectionTestUtils.setField(apiDataService, "insertBatchSize", 3);
+        ReflectionTestUtils.setField(apiDataService, "deleteBatchSize", 4);
+    }
+    
+    @AfterEach
+    public void tearDown() {
+        apiDataTestDatabase.close();
+    }
+    
+    @Test
+    public void insertBatchAssignsInsertSeqInInsertOrder() {
+        //id和create_time的顺序与写入顺序相反，insert_seq仍然按写入顺序递增
+        List<ApiData> apiDataList = new ArrayList<>();
+        for (long id = 3; id >= 1; id--) {
+            apiDataList.add(apiData(id, "10.0.0.1", "/damai/order/create", new Date(BASE_TIME + id * 1000)));
+        }
+        
+        assertEquals(3, apiDataMapper.insertBatch(apiDataList));
+        
+        List<Map<String, Object>> rowList = apiDataTestDatabase.getJdbcTemplate().queryForList(
+                "select id, insert_seq, status, edit_time from d_api_data order by insert_seq");
+        assertEquals(List.of(3L, 2L, 1L), rowList.stream().map(row -> ((Number)row.get("id")).longValue())
+                .collect(Collectors.toList()));
+        assertEquals(List.of(1L, 2L, 3L), rowList.stream().map(row -> ((Number)row.get("insert_seq")).longValue())
+                .collect(Collectors.toList()));
+        assertEquals(BusinessStatus.YES.getCode(), ((Number)rowList.get(0).get("status")).intValue());
+        assertNotNull(rowList.get(0).get("edit_time"));
+    }
+    
+    @Test
+    public void selectExistIdListReturnsOnlyStoredIds() {
+        apiDataMapper.insertBatch(List.of(apiData(1L, null, null, null), apiData(2L, null, null, null)));
+        
+        assertEquals(Set.of(1L, 2L), new HashSet<>(apiDataMapper.selectExistIdList(List.of(1L, 2L, 99L))));
+        assertTrue(apiDataMapper.selectExistIdList(List.of(98L, 99L)).isEmpty());
+    }
+    
+    @Test
+    public void saveBatchIsIdempotentOnRealTable() {
+        List<ApiData> apiDataList = new ArrayList<>();
+        for (long id = 1; id <= 8; id++) {
+            ApiData apiData = new ApiData();
+            apiData.setId(id);
+            apiDataList.add(apiData);
+        }
+        ApiData duplicate = new ApiData();
+        duplicate.setId(2L);
+        apiDataList.add(duplicate);
+        
+        assertEquals(8, apiDataService.saveApiDataBatch(apiDataList));
+        assertEquals(8, apiDataTestDatabase.count());
+        //整批重新投递时主键不会冲突，也不会重复写入
+        assertEquals(0, apiDataService.saveApiDataBatch(apiDataList));
+        assertEquals(8, apiDataTestDatabase.count());
+        Integer unfilledCount = apiDataTestDatabase.getJdbcTemplate().queryForObject(
+                "select count(1) from d_api_data where create_time is null or edit_time is null or status is null", Integer.class);
+        assertEquals(0, unfilledCount);
+    }
+    
+    @Test
+    public void cursorListPagesByInsertSeqWhileLateRowsArrive() {
+        List<ApiData> apiDataList = new ArrayList<>();
+        for (long i = 0; i < 35; i++) {
+            apiDataList.add(apiData(10_000L + i, "10.0.0.1", "/damai/order/create", new Date(BASE_TIME + i * 1000)));
+        }
+        apiDataMapper.insertBatch(apiDataList);
+        
+        List<Long> pagedIdList = new ArrayList<>();
+        Set<Long> lateIdSet = new HashSet<>();
+        String cursor = null;
+        int page = 0;
+        boolean hasMore = true;
+        while (hasMore) {
+            ApiDataCursorVo apiDataCursorVo = apiDataService.cursorList(cursorDto(cursor, null, null));
+            apiDataCursorVo.getList().stream().map(ApiDataVo::getId).forEach(pagedIdList::add);
+            hasMore = apiDataCursorVo.getHasMore();
+            cursor = apiDataCursorVo.getNextCursor();
+            //网关延迟上报的记录，id和create_time都比已经翻过的数据早
+            long lateId = 100L + page;
+            apiDataMapper.insertBatch(List.of(apiData(lateId, "10.0.0.1", "/damai/order/create", new Date(BASE_TIME - 60_000L))));
+            lateIdSet.add(lateId);
+            page++;
+        }
+        
+        assertEquals(4, page);
+        assertNull(cursor);
+        assertEquals(35, pagedIdList.size());
+        assertEquals(35, new HashSet<>(pagedIdList).size());
+        assertTrue(pagedIdList.stream().noneMatch(lateIdSet::contains));
+        //重新从第一页开始时延迟的记录排在最前面
+        List<Long> firstPageIdList = apiDataService.cursorList(cursorDto(null, null, null)).getList().stream()
+                .map(ApiDataVo::getId).limit(lateIdSet.size()).collect(Collectors.toList());
+        assertEquals(lateIdSet, new HashSet<>(firstPageIdList));
+    }
+    
+    @Test
+    public void cursorListAppliesAddressUrlAndTimeConditions() {
+        List<ApiData> apiDataList = new ArrayList<>();
+        for (long i = 0; i < 20; i++) {
+            apiDataList.add(apiData(i + 1, i % 2 == 0 ? "10.0.0.1" : "10.0.0.2",
+                    i % 4 < 2 ? "/damai/order/create" : "/damai/program/detail", new Date(BASE_TIME + i * 60_000L)));
+        }
+        apiDataMapper.insertBatch(apiDataList);
+        ApiData deleted = apiData(100L, "10.0.0.1", "/damai/order/create", new Date(BASE_TIME));
+        deleted.setStatus(BusinessStatus.NO.getCode());
+        apiDataMapper.insertBatch(List.of(deleted));
+        
+        ApiDataCursorDto byAddressAndUrl = cursorDto(null, "10.0.0.1", "/damai/order/create");
+        List<ApiData> addressAndUrlList = apiDataMapper.selectCursorList(byAddressAndUrl, null, 100);
+        //i % 4 == 0 的记录，按insert_seq倒序，已删除的记录不返回
+        assertEquals(List.of(17L, 13L, 9L, 5L, 1L), addressAndUrlList.stream().map(ApiData::getId).collect(Collectors.toList()));
+        assertEquals(List.of(13L, 9L), apiDataMapper.selectCursorList(byAddressAndUrl, addressAndUrlList.get(0).getInsertSeq(), 2)
+                .stream().map(ApiData::getId).collect(Collectors.toList()));
+        
+        ApiDataCursorDto byTime = cursorDto(null, null, null);
+        byTime.setStartDate(dateTime(BASE_TIME + 5 * 60_000L));
+        byTime.setEndDate(dateTime(BASE_TIME + 8 * 60_000L));
+        assertEquals(List.of(9L, 8L, 7L, 6L), apiDataMapper.selectCursorList(byTime, null, 100).stream()
+                .map(ApiData::getId).collect(Collectors.toList()));
+    }
+    
+    @Test
+    public void deleteExpiredRemovesOnlyExpiredRowsInBatches() {
+        List<ApiData> apiDataList = new ArrayList<>();
+        for (long i = 0; i < 13; i++) {
+            apiDataList.add(apiData(i + 1, null, null, new Date(BASE_TIME + (i < 10 ? -1000 : 1000))));
+        }
+        apiDataMapper.insertBatch(apiDataList);
+        
+        assertEquals(4, apiDataMapper.deleteExpired(new Date(BASE_TIME), 4));
+        //每次最多删除4条，共执行3次
+        assertEquals(6, apiDataService.deleteExpired(new Date(BASE_TIME)));
+        assertEquals(3, apiDataTestDatabase.count());
+        assertFalse(apiDataMapper.selectExistIdList(List.of(11L, 12L, 13L)).isEmpty());
+        assertEquals(0, apiDataService.deleteExpired(new Date(BASE_TIME)));
+    }
+    
+    private ApiData apiData(long id, String apiAddress, String apiUrl, Date createTime) {
+        ApiData apiData = new ApiData();
+        apiData.setId(id);
+        apiData.setApiAddress(apiAddress);
+        apiData.setApiUrl(apiUrl);
+        apiData.setType(1);
+        apiData.setCreateTime(createTime);
+        apiData.setEditTime(new Date());
+        apiData.setStatus(BusinessStatus.YES.getCode());
+        return apiData;
+    }
+    
+    private ApiDataCursorDto cursorDto(String cursor, String apiAddress, String apiUrl) {
+        ApiDataCursorDto apiDataCursorDto = new ApiDataCursorDto();
+        apiDataCursorDto.setPageSize(PAGE_SIZE);
+        apiDataCursorDto.setCursor(cursor);
+        apiDataCursorDto.setApiAddress(apiAddress);
+        apiDataCursorDto.setApiUrl(apiUrl);
+        return apiDataCursorDto;
+    }
+    
+    private String dateTime(long time) {
+        return DateUtils.formatDateTime(new Date(time));
+    }
+}
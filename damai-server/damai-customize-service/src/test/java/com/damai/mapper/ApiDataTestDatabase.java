@@ -0,0 +1,64 @@
+package com.damai.mapper;
+
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.UUID;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: api调用记录测试使用的内存数据库，H2(MySQL模式)中按 damai_customize.sql 建好 d_api_data 表，
+ * mapper由mybatis-plus加载真实的 ApiDataMapper.xml 生成，执行的是和线上相同的sql
+ * @author: 阿星不是程序员
+ **/
+public class ApiDataTestDatabase implements AutoCloseable {
+    
+    private final JdbcTemplate jdbcTemplate;
+    
+    private final ApiDataMapper apiDataMapper;
+    
+    public ApiDataTestDatabase() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:api_data_" +
+                UUID.randomUUID().toString().replace("-", "") + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table d_api_data (id bigint not null primary key, " +
+                "insert_seq bigint not null auto_increment unique, head_version varchar(32), api_address varchar(32), " +
+                "api_method varchar(32), api_body varchar(200), api_params varchar(100), api_url varchar(100), " +
+                "call_day_time varchar(64), call_hour_time varchar(64), call_minute_time varchar(64), " +
+                "call_second_time varchar(64), type int, status int default 1, edit_time datetime, create_time datetime)");
+        jdbcTemplate.execute("create index idx_create_time on d_api_data (create_time)");
+        jdbcTemplate.execute("create index idx_api_address_insert_seq on d_api_data (api_address, insert_seq)");
+        jdbcTemplate.execute("create index idx_api_url_insert_seq on d_api_data (api_url, insert_seq)");
+        MybatisSqlSessionFactoryBean sqlSessionFactoryBean = new MybatisSqlSessionFactoryBean();
+        sqlSessionFactoryBean.setDataSource(dataSource);
+        sqlSessionFactoryBean.setMapperLocations(new ClassPathResource("mapper/ApiDataMapper.xml"));
+        SqlSessionFactory sqlSessionFactory = sqlSessionFactoryBean.getObject();
+        apiDataMapper = new SqlSessionTemplate(sqlSessionFactory).getMapper(ApiDataMapper.class);
+    }
+    
+    public ApiDataMapper getApiDataMapper() {
+        return apiDataMapper;
+    }
+    
+    public JdbcTemplate getJdbcTemplate() {
+        return jdbcTemplate;
+    }
+    
+    public long count() {
+        Long count = jdbcTemplate.queryForObject("select count(1) from d_api_data", Long.class);
+        return count == null ? 0 : count;
+    }
+    
+    public void clear() {
+        jdbcTemplate.execute("truncate table d_api_data restart identity");
+    }
+    
+    @Override
+    public void close() {
+        jdbcTemplate.execute("shutdown");
+    }
+}
@@ -0,0 +1,196 @@
+package com.damai.service;
+
+import com.damai.dto.ApiDataCursorDto;
+import com.damai.entity.ApiData;
+import com.damai.enums.BaseCode;
+import com.damai.enums.BusinessStatus;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.mapper.ApiDataMapper;
+import com.damai.vo.ApiDataCursorVo;
+import com.damai.vo.ApiDataVo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: api调用记录游标分页的稳定性测试，mapper按 ApiDataMapper.xml 中 selectCursorList 的条件在内存中实现，
+ * 翻页期间不断写入create_time和id更早的延迟记录；批量保存时mapper同样用内存中的表代替，检查按id去重和分批插入
+ * @author: 阿星不是程序员
+ **/
+public class ApiDataServiceTest {
+    
+    private static final int PAGE_SIZE = 10;
+    
+    private final List<ApiData> table = new ArrayList<>();
+    
+    private final List<Integer> insertBatchSizeList = new ArrayList<>();
+    
+    private long insertSeq;
+    
+    private ApiDataService apiDataService;
+    
+    @BeforeEach
+    public void setUp(){
+        ApiDataMapper apiDataMapper = Mockito.mock(ApiDataMapper.class);
+        Mockito.when(apiDataMapper.selectCursorList(any(), any(), anyInt())).thenAnswer(invocation -> {
+            Long cursorSeq = invocation.getArgument(1);
+            int limit = invocation.getArgument(2);
+            return table.stream()
+                    .filter(apiData -> Objects.isNull(cursorSeq) || apiData.getInsertSeq() < cursorSeq)
+                    .sorted(Comparator.comparing(ApiData::getInsertSeq).reversed())
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        });
+        Mockito.when(apiDataMapper.selectExistIdList(any())).thenAnswer(invocation -> {
+            List<Long> idList = invocation.getArgument(0);
+            return table.stream().map(ApiData::getId).filter(idList::contains).collect(Collectors.toList());
+        });
+        Mockito.when(apiDataMapper.insertBatch(any())).thenAnswer(invocation -> {
+            List<ApiData> apiDataList = invocation.getArgument(0);
+            insertBatchSizeList.add(apiDataList.size());
+            apiDataList.forEach(apiData -> apiData.setInsertSeq(++insertSeq));
+            table.addAll(apiDataList);
+            return apiDataList.size();
+        });
+        apiDataService = new ApiDataService();
+        ReflectionTestUtils.setField(apiDataService, "apiDataMapper", apiDataMapper);
+    }
+    
+    @Test
+    public void lateInsertsDoNotRepeatOrSkipCommittedRows(){
+        long baseTime = 1_700_000_000_000L;
+        Set<Long> committedIdSet = new HashSet<>();
+        for (int i = 0; i < 35; i++) {
+            committedIdSet.add(insert(10_000L + i, new Date(baseTime + i * 1000L)).getId());
+        }
+        List<Long> pagedIdList = new ArrayList<>();
+        Set<Long> lateIdSet = new HashSet<>();
+        String cursor = null;
+        int page = 0;
+        boolean hasMore = true;
+        while (hasMore) {
+            ApiDataCursorVo apiDataCursorVo = apiDataService.cursorList(cursorDto(cursor));
+            apiDataCursorVo.getList().stream().map(ApiDataVo::getId).forEach(pagedIdList::add);
+            hasMore = apiDataCursorVo.getHasMore();
+            cursor = apiDataCursorVo.getNextCursor();
+            //网关上报延迟的记录，create_time和id都比已经翻过的数据早，有的没有create_time
+            lateIdSet.add(insert(100L + page, new Date(baseTime - 60_000L)).getId());
+            lateIdSet.add(insert(200L + page, null).getId());
+            page++;
+        }
+        assertEquals(pagedIdList.size(), new HashSet<>(pagedIdList).size());
+        assertTrue(pagedIdList.containsAll(committedIdSet));
+        assertTrue(pagedIdList.stream().noneMatch(lateIdSet::contains));
+        assertEquals(4, page);
+        assertNull(cursor);
+        //重新从第一页开始时延迟的记录排在最前面
+        ApiDataCursorVo firstPage = apiDataService.cursorList(cursorDto(null));
+        assertTrue(firstPage.getList().stream().limit(lateIdSet.size()).map(ApiDataVo::getId).allMatch(lateIdSet::contains));
+    }
+    
+    @Test
+    public void rowsWithoutCreateTimeArePaged(){
+        for (int i = 0; i < PAGE_SIZE + 1; i++) {
+            insert(i, null);
+        }
+        ApiDataCursorVo firstPage = apiDataService.cursorList(cursorDto(null));
+        assertTrue(firstPage.getHasMore());
+        ApiDataCursorVo secondPage = apiDataService.cursorList(cursorDto(firstPage.getNextCursor()));
+        assertFalse(secondPage.getHasMore());
+        assertEquals(1, secondPage.getList().size());
+        assertEquals(0L, secondPage.getList().get(0).getId());
+    }
+    
+    @Test
+    public void malformedCursorIsRejected(){
+        DaMaiFrameException exception = assertThrows(DaMaiFrameException.class,
+                () -> apiDataService.cursorList(cursorDto("not-a-cursor")));
+        assertEquals(BaseCode.API_DATA_CURSOR_ERROR.getCode(), exception.getCode());
+    }
+    
+    @Test
+    public void saveBatchSkipsDuplicateAndExistingIds(){
+        ReflectionTestUtils.setField(apiDataService, "insertBatchSize", 3);
+        insert(1L, new Date());
+        List<ApiData> apiDataList = new ArrayList<>();
+        for (long id = 1; id <= 8; id++) {
+            apiDataList.add(apiData(id));
+        }
+        //同一批中重复投递的记录和没有id的记录
+        apiDataList.add(apiData(2L));
+        apiDataList.add(apiData(null));
+        apiDataList.add(null);
+        
+        assertEquals(7, apiDataService.saveApiDataBatch(apiDataList));
+        //去重后按insertBatchSize分成3、3、2条，已存在的id=1不插入
+        assertEquals(List.of(2, 3, 2), insertBatchSizeList);
+        assertEquals(8, table.size());
+        assertEquals(8, table.stream().map(ApiData::getId).distinct().count());
+        
+        //整批重新投递时不再插入
+        insertBatchSizeList.clear();
+        assertEquals(0, apiDataService.saveApiDataBatch(apiDataList));
+        assertTrue(insertBatchSizeList.isEmpty());
+        assertEquals(0, apiDataService.saveApiDataBatch(new ArrayList<>()));
+    }
+    
+    @Test
+    public void saveBatchFillsDefaultColumns(){
+        ReflectionTestUtils.setField(apiDataService, "insertBatchSize", 500);
+        Date createTime = new Date(1_700_000_000_000L);
+        ApiData withCreateTime = apiData(1L);
+        withCreateTime.setCreateTime(createTime);
+        withCreateTime.setStatus(BusinessStatus.NO.getCode());
+        ApiData withoutCreateTime = apiData(2L);
+        
+        apiDataService.saveApiDataBatch(List.of(withCreateTime, withoutCreateTime));
+        
+        assertEquals(createTime, withCreateTime.getCreateTime());
+        assertEquals(BusinessStatus.NO.getCode(), withCreateTime.getStatus());
+        assertNotNull(withCreateTime.getEditTime());
+        assertNotNull(withoutCreateTime.getCreateTime());
+        assertEquals(BusinessStatus.YES.getCode(), withoutCreateTime.getStatus());
+    }
+    
+    private ApiData apiData(Long id){
+        ApiData apiData = new ApiData();
+        apiData.setId(id);
+        return apiData;
+    }
+    
+    private ApiData insert(long id, Date createTime){
+        ApiData apiData = new ApiData();
+        apiData.setId(id);
+        apiData.setInsertSeq(++insertSeq);
+        apiData.setCreateTime(createTime);
+        table.add(apiData);
+        return apiData;
+    }
+    
+    private ApiDataCursorDto cursorDto(String cursor){
+        ApiDataCursorDto apiDataCursorDto = new ApiDataCursorDto();
+        apiDataCursorDto.setPageSize(PAGE_SIZE);
+        apiDataCursorDto.setCursor(cursor);
+        return apiDataCursorDto;
+    }
+}
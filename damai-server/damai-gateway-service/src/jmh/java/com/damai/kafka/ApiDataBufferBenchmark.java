@@ -0,0 +1,183 @@
+package com.damai.kafka;
+
+import com.alibaba.fastjson.JSON;
+import com.damai.dto.ApiDataDto;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: api调用记录发送缓冲的压测，每次调用由多个生产线程写入100万条记录，eventsPerSecond为0时不间断地写入(最坏情况)，
+ * 否则每毫秒按速率写入一批，
+ * 写完后关闭缓冲把剩余的记录发送出去，发送时和真实发送一样序列化成json数组，sendLatencyMicros模拟kafka阻塞发送的耗时，
+ * 结果中的sent和dropped是发送和被覆盖丢弃的记录数，每次调用结束时打印丢弃率
+ * @author: 阿星不是程序员
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ApiDataBufferBenchmark {
+    
+    private static final int EVENT_COUNT = 1_000_000;
+    
+    private static final int PRODUCER_COUNT = 4;
+    
+    private static final int BATCH_SIZE = 200;
+    
+    private static final long FLUSH_INTERVAL = 500;
+    
+    @Param({"8192", "65536"})
+    public int bufferSize;
+    
+    @Param({"0", "1000"})
+    public long sendLatencyMicros;
+    
+    @Param({"0", "200000"})
+    public int eventsPerSecond;
+    
+    private ExecutorService producerExecutor;
+    
+    private CountingMessageSend countingMessageSend;
+    
+    private ApiDataBuffer apiDataBuffer;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        producerExecutor = Executors.newFixedThreadPool(PRODUCER_COUNT);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        producerExecutor.shutdown();
+    }
+    
+    @Setup(Level.Invocation)
+    public void createBuffer() {
+        countingMessageSend = new CountingMessageSend(sendLatencyMicros);
+        apiDataBuffer = new ApiDataBuffer(countingMessageSend, bufferSize, BATCH_SIZE, FLUSH_INTERVAL);
+    }
+    
+    @Benchmark
+    public void offerOneMillion(DropCounters dropCounters) throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(PRODUCER_COUNT);
+        int countPerProducer = EVENT_COUNT / PRODUCER_COUNT;
+        for (int i = 0; i < PRODUCER_COUNT; i++) {
+            long base = (long)i * countPerProducer;
+            producerExecutor.execute(() -> {
+                produce(base, countPerProducer);
+                finished.countDown();
+            });
+        }
+        finished.await();
+        //关闭时把缓冲中剩余的记录发送出去
+        apiDataBuffer.destroy();
+        long sent = countingMessageSend.sentCount.get();
+        long dropped = apiDataBuffer.getDroppedCount();
+        if (sent + dropped != EVENT_COUNT) {
+            throw new IllegalStateException("sent : " + sent + ", dropped : " + dropped);
+        }
+        dropCounters.sent += sent;
+        dropCounters.dropped += dropped;
+        System.out.printf("bufferSize : %d, sendLatencyMicros : %d, eventsPerSecond : %d, sent : %d, dropped : %d, drop rate : %.2f%%%n",
+                bufferSize, sendLatencyMicros, eventsPerSecond, sent, dropped, dropped * 100.0 / EVENT_COUNT);
+    }
+    
+    private void produce(long base, int count) {
+        if (eventsPerSecond <= 0) {
+            for (int j = 0; j < count; j++) {
+                apiDataBuffer.offer(apiData(base + j));
+            }
+            return;
+        }
+        //每个生产线程每毫秒写入一批，落后时下一批补上，保持平均速率
+        int perMillis = Math.max(eventsPerSecond / PRODUCER_COUNT / 1000, 1);
+        long start = System.nanoTime();
+        int j = 0;
+        for (long tick = 1; j < count; tick++) {
+            long expected = Math.min(tick * perMillis, count);
+            for (; j < expected; j++) {
+                apiDataBuffer.offer(apiData(base + j));
+            }
+            LockSupport.parkNanos(start + TimeUnit.MILLISECONDS.toNanos(tick) - System.nanoTime());
+        }
+    }
+    
+    private static ApiDataDto apiData(long id) {
+        ApiDataDto apiDataDto = new ApiDataDto();
+        apiDataDto.setId(id);
+        apiDataDto.setApiAddress("10.0.0.1");
+        apiDataDto.setApiUrl("/damai/order/create");
+        apiDataDto.setCreateTime(new Date());
+        apiDataDto.setCallDayTime("2024-01-01");
+        apiDataDto.setCallHourTime("2024-01-01 10");
+        apiDataDto.setCallMinuteTime("2024-01-01 10:00");
+        apiDataDto.setCallSecondTime("2024-01-01 10:00:00");
+        apiDataDto.setType(1);
+        return apiDataDto;
+    }
+    
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class DropCounters {
+        
+        public long sent;
+        
+        public long dropped;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            sent = 0;
+            dropped = 0;
+        }
+    }
+    
+    /**
+     * 不访问kafka，和真实发送一样序列化批次，再按配置的时间阻塞，模拟kafka生产者缓冲已满时send的阻塞
+     * */
+    private static class CountingMessageSend extends ApiDataMessageSend {
+        
+        private final long sendLatencyMicros;
+        
+        private final AtomicLong sentCount = new AtomicLong();
+        
+        private CountingMessageSend(long sendLatencyMicros) {
+            super(null, "save_api_data");
+            this.sendLatencyMicros = sendLatencyMicros;
+        }
+        
+        @Override
+        public void sendBatchMessage(List<ApiDataDto> apiDataDtoList) {
+            if (JSON.toJSONString(apiDataDtoList).isEmpty()) {
+                return;
+            }
+            if (sendLatencyMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(sendLatencyMicros));
+            }
+            sentCount.addAndGet(apiDataDtoList.size());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.damai.path;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 路径匹配的开销随规则数量的变化，规则按四种策略平均分配，
+ * antPathMatcher逐个规则匹配(共用一个AntPathMatcher，已经缓存了切分后的规则)，pathPatternIndex一次遍历前缀树得到全部策略，
+ * 请求路径一半命中某个规则一半不命中
+ * @author: 阿星不是程序员
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathPatternIndexBenchmark {
+    
+    private static final int PATH_SIZE = 1024;
+    
+    @Param({"10", "100", "1000"})
+    public int patternCount;
+    
+    private final Map<PathPolicy, String[]> patternMap = new EnumMap<>(PathPolicy.class);
+    
+    private final AntPathMatcher antPathMatcher = new AntPathMatcher();
+    
+    private PathPatternIndex pathPatternIndex;
+    
+    private String[] paths;
+    
+    private int pathIndex;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        PathPolicy[] pathPolicies = PathPolicy.values();
+        int perPolicy = patternCount / pathPolicies.length;
+        pathPatternIndex = PathPatternIndex.empty();
+        for (int p = 0; p < pathPolicies.length; p++) {
+            String[] patterns = new String[perPolicy];
+            for (int i = 0; i < perPolicy; i++) {
+                //和配置中的规则形式一致，以/**开头，个别规则中间带通配符
+                patterns[i] = i % 10 == 0 ? "/**/service" + p + "/*/action" + i : "/**/service" + p + "/module" + i + "/action";
+            }
+            patternMap.put(pathPolicies[p], patterns);
+            pathPatternIndex.addAll(patterns, pathPolicies[p]);
+        }
+        Random random = new Random(20240701L);
+        paths = new String[PATH_SIZE];
+        for (int i = 0; i < PATH_SIZE; i++) {
+            int p = random.nextInt(pathPolicies.length);
+            int module = random.nextInt(perPolicy);
+            paths[i] = i % 2 == 0 ? "/damai/service" + p + "/module" + module + "/action"
+                    : "/damai/service" + p + "/module" + module + "/missing";
+        }
+        //结果一致才有比较的意义
+        for (String path : paths) {
+            if (!antPathMatcher(path).equals(pathPatternIndex.match(path))) {
+                throw new IllegalStateException("match result differs : " + path);
+            }
+        }
+    }
+    
+    @Benchmark
+    public Set<PathPolicy> antPathMatcher() {
+        return antPathMatcher(nextPath());
+    }
+    
+    @Benchmark
+    public Set<PathPolicy> pathPatternIndex() {
+        return pathPatternIndex.match(nextPath());
+    }
+    
+    private String nextPath() {
+        return paths[pathIndex++ & (PATH_SIZE - 1)];
+    }
+    
+    private Set<PathPolicy> antPathMatcher(String path) {
+        Set<PathPolicy> pathPolicies = EnumSet.noneOf(PathPolicy.class);
+        for (Map.Entry<PathPolicy, String[]> entry : patternMap.entrySet()) {
+            for (String pattern : entry.getValue()) {
+                if (antPathMatcher.match(pattern, path)) {
+                    pathPolicies.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return pathPolicies;
+    }
+}
@@ -0,0 +1,180 @@
+package com.damai.service;
+
+import cn.hutool.core.date.DateUtil;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.damai.core.RedisKeyManage;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.enums.RuleTimeUnit;
+import com.damai.path.PathPolicy;
+import com.damai.property.GatewayProperty;
+import com.damai.redis.RedisKeyBuild;
+import com.damai.service.lua.ApiRestrictCacheOperate;
+import com.damai.service.rule.ApiRuleHolder;
+import com.damai.service.rule.CompiledRuleSet;
+import com.damai.service.rule.LocalApiRuleCounter;
+import com.damai.vo.DepthRuleVo;
+import com.damai.vo.RuleVo;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 每次请求执行接口规则时在网关中的开销，redis的lua调用用固定的结果代替，只比较java侧的处理，
+ * legacyParsePerRequest是预编译之前每次请求解析规则json、解析深度规则时间窗口并拼装lua参数json的过程，
+ * compiledRulePath是现在的完整路径，localAggregation为true时计数在本地累加，阈值以内不访问redis
+ * @author: 阿星不是程序员
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiRuleBenchmark {
+    
+    private static final String URL = "/damai/order/create";
+    
+    private static final String COMMON_KEY = "10.0.0.1_" + URL;
+    
+    private static final String LUA_RESULT = "{\"triggerResult\":0,\"triggerCallStat\":0,\"apiCount\":1,\"threshold\":1000000,\"messageIndex\":-1}";
+    
+    @Param({"false", "true"})
+    public boolean localAggregation;
+    
+    private String ruleStr;
+    
+    private String depthRuleStr;
+    
+    private ApiRestrictService apiRestrictService;
+    
+    private MockServerHttpRequest request;
+    
+    private final Set<PathPolicy> pathPolicies = Set.of(PathPolicy.API_RESTRICT);
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        SpringUtilTestSupport.initialize();
+        //规则没有触发时每次都会打印info日志，基准测试中关闭，只比较规则的处理
+        Configurator.setLevel(ApiRestrictService.class.getName(), org.apache.logging.log4j.Level.WARN);
+        ruleStr = JSON.toJSONString(rule());
+        depthRuleStr = JSON.toJSONString(List.of(depthRule("08:00", "12:00"), depthRule("12:00", "18:00"),
+                depthRule("18:00", "23:59")));
+        
+        GatewayProperty gatewayProperty = new GatewayProperty();
+        gatewayProperty.setApiRuleLocalAggregation(localAggregation);
+        ApiRuleHolder apiRuleHolder = new ApiRuleHolder();
+        @SuppressWarnings("unchecked")
+        AtomicReference<CompiledRuleSet> compiledRuleSetReference = (AtomicReference<CompiledRuleSet>)
+                ReflectionTestUtils.getField(apiRuleHolder, "compiledRuleSetReference");
+        Objects.requireNonNull(compiledRuleSetReference).set(CompiledRuleSet.compile(1L, ruleStr, depthRuleStr));
+        apiRestrictService = new ApiRestrictService();
+        ReflectionTestUtils.setField(apiRestrictService, "gatewayProperty", gatewayProperty);
+        ReflectionTestUtils.setField(apiRestrictService, "apiRestrictCacheOperate", new FixedResultCacheOperate());
+        ReflectionTestUtils.setField(apiRestrictService, "apiRuleHolder", apiRuleHolder);
+        ReflectionTestUtils.setField(apiRestrictService, "localApiRuleCounter", new LocalApiRuleCounter());
+        request = MockServerHttpRequest.post(URL).header("x-forwarded-for", "10.0.0.1").build();
+    }
+    
+    @Benchmark
+    public String legacyParsePerRequest() {
+        RuleVo ruleVo = JSON.parseObject(ruleStr, RuleVo.class);
+        List<DepthRuleVo> depthRuleVoList = JSON.parseArray(depthRuleStr, DepthRuleVo.class);
+        JSONObject parameter = new JSONObject();
+        parameter.put("apiRuleType", 2);
+        parameter.put("ruleKey", "rule_api_limit_" + COMMON_KEY);
+        parameter.put("statTime", String.valueOf(seconds(ruleVo.getStatTime(), ruleVo.getStatTimeType())));
+        parameter.put("threshold", ruleVo.getThreshold());
+        parameter.put("effectiveTime", String.valueOf(seconds(ruleVo.getEffectiveTime(), ruleVo.getEffectiveTimeType())));
+        parameter.put("ruleLimitKey", RedisKeyBuild.createRedisKey(RedisKeyManage.RULE_LIMIT, COMMON_KEY).getRelKey());
+        parameter.put("zSetRuleStatKey", RedisKeyBuild.createRedisKey(RedisKeyManage.Z_SET_RULE_STAT, COMMON_KEY).getRelKey());
+        depthRuleVoList = depthRuleVoList.stream().peek(depthRuleVo -> {
+            depthRuleVo.setStartTimeWindowTimestamp(DateUtil.parse(DateUtil.today() + " " + depthRuleVo.getStartTimeWindow()).getTime());
+            depthRuleVo.setEndTimeWindowTimestamp(DateUtil.parse(DateUtil.today() + " " + depthRuleVo.getEndTimeWindow()).getTime());
+        }).sorted(Comparator.comparing(DepthRuleVo::getStartTimeWindowTimestamp)).collect(Collectors.toList());
+        parameter.put("depthRuleSize", String.valueOf(depthRuleVoList.size()));
+        parameter.put("currentTime", System.currentTimeMillis());
+        List<JSONObject> depthRules = new ArrayList<>();
+        for (int i = 0; i < depthRuleVoList.size(); i++) {
+            DepthRuleVo depthRuleVo = depthRuleVoList.get(i);
+            JSONObject depthRule = new JSONObject();
+            depthRule.put("statTime", seconds(depthRuleVo.getStatTime(), depthRuleVo.getStatTimeType()));
+            depthRule.put("threshold", depthRuleVo.getThreshold());
+            depthRule.put("effectiveTime", String.valueOf(seconds(depthRuleVo.getEffectiveTime(), depthRuleVo.getEffectiveTimeType())));
+            depthRule.put("depthRuleLimit", RedisKeyBuild.createRedisKey(RedisKeyManage.DEPTH_RULE_LIMIT, i, COMMON_KEY).getRelKey());
+            depthRule.put("startTimeWindowTimestamp", depthRuleVo.getStartTimeWindowTimestamp());
+            depthRule.put("endTimeWindowTimestamp", depthRuleVo.getEndTimeWindowTimestamp());
+            depthRules.add(depthRule);
+        }
+        parameter.put("depthRules", depthRules);
+        return JSON.toJSONString(parameter);
+    }
+    
+    @Benchmark
+    public Void compiledRulePath() {
+        return apiRestrictService.apiRestrict(null, URL, request, pathPolicies).block();
+    }
+    
+    private static int seconds(int time, int timeType) {
+        return Objects.equals(timeType, RuleTimeUnit.SECOND.getCode()) ? time : time * 60;
+    }
+    
+    private static RuleVo rule() {
+        RuleVo ruleVo = new RuleVo();
+        ruleVo.setStatTime(10);
+        ruleVo.setStatTimeType(RuleTimeUnit.SECOND.getCode());
+        //阈值足够大，本地聚合时始终在本地通过
+        ruleVo.setThreshold(Integer.MAX_VALUE);
+        ruleVo.setEffectiveTime(1);
+        ruleVo.setEffectiveTimeType(RuleTimeUnit.MINUTE.getCode());
+        ruleVo.setMessage("rule message");
+        return ruleVo;
+    }
+    
+    private static DepthRuleVo depthRule(String startTimeWindow, String endTimeWindow) {
+        DepthRuleVo depthRuleVo = new DepthRuleVo();
+        depthRuleVo.setStartTimeWindow(startTimeWindow);
+        depthRuleVo.setEndTimeWindow(endTimeWindow);
+        depthRuleVo.setStatTime(1);
+        depthRuleVo.setStatTimeType(RuleTimeUnit.MINUTE.getCode());
+        depthRuleVo.setThreshold(Integer.MAX_VALUE);
+        depthRuleVo.setEffectiveTime(1);
+        depthRuleVo.setEffectiveTimeType(RuleTimeUnit.MINUTE.getCode());
+        depthRuleVo.setMessage("depth rule message");
+        return depthRuleVo;
+    }
+    
+    /**
+     * 不访问redis，和真实调用一样把lua返回的json解析为结果
+     * */
+    private static class FixedResultCacheOperate extends ApiRestrictCacheOperate {
+        
+        @Override
+        public Mono<ApiRestrictData> apiRuleOperate(List<String> keys, List<String> args) {
+            return Mono.fromSupplier(() -> JSON.parseObject(LUA_RESULT, ApiRestrictData.class));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.damai.service;
+
+import com.damai.util.RsaSignTool;
+import com.damai.util.RsaTool;
+import com.damai.vo.GetChannelDataVo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 请求体解密和验签的开销，legacy每次从字符串解析密钥并按117字节分段做rsa，
+ * cached使用缓存的密钥和线程复用的Cipher，hybrid(v3)只用rsa解密一次aes密钥，请求体用aes-gcm解密
+ * @author: 阿星不是程序员
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoBenchmark {
+    
+    private static final String CODE = "0001";
+    
+    @Param({"256", "4096"})
+    public int bodySize;
+    
+    private final CryptoKeyCache cryptoKeyCache = new CryptoKeyCache();
+    
+    private GetChannelDataVo channelData;
+    
+    private String rsaEncrypted;
+    
+    private String hybridEncrypted;
+    
+    private Map<String, String> signedParams;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        channelData = new GetChannelDataVo();
+        channelData.setCode(CODE);
+        channelData.setSignPublicKey(RsaSignTool.signPublicKey);
+        channelData.setDataPublicKey(RsaSignTool.dataPublicKey);
+        channelData.setDataSecretKey(RsaSignTool.dataPrivateKey);
+        String body = "{\"programId\":\"1\",\"remark\":\"" + "x".repeat(Math.max(0, bodySize - 30)) + "\"}";
+        rsaEncrypted = RsaTool.encrypt(body, RsaSignTool.dataPublicKey);
+        hybridEncrypted = RsaTool.hybridEncrypt(body, RsaSignTool.dataPublicKey);
+        signedParams = new HashMap<>(4);
+        signedParams.put("code", CODE);
+        signedParams.put("businessBody", body);
+        signedParams.put("sign", RsaSignTool.rsaSign256(signedParams, RsaSignTool.signPrivateKey));
+    }
+    
+    @Benchmark
+    public String legacyDecrypt() {
+        return RsaTool.decrypt(rsaEncrypted, RsaSignTool.dataPrivateKey);
+    }
+    
+    @Benchmark
+    public String cachedDecrypt() {
+        return cryptoKeyCache.decrypt(CODE, channelData, rsaEncrypted);
+    }
+    
+    @Benchmark
+    public String hybridDecrypt() {
+        return cryptoKeyCache.hybridDecrypt(CODE, channelData, hybridEncrypted);
+    }
+    
+    /**
+     * 验签时会从参数中移除sign，每次使用参数的副本
+     * */
+    @Benchmark
+    public boolean legacyVerifySign() {
+        return RsaSignTool.verifyRsaSign256(new HashMap<>(signedParams), RsaSignTool.signPublicKey);
+    }
+    
+    @Benchmark
+    public boolean cachedVerifySign() {
+        return cryptoKeyCache.verifySign(CODE, channelData, new HashMap<>(signedParams));
+    }
+}
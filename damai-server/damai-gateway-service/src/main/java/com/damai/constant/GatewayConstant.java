@@ -27,4 +27,9 @@ public class GatewayConstant {
     
     public static final String V2 = "v2";
     
+    /**
+     * 混合加密，AES-GCM加密数据，RSA加密AES密钥
+     * */
+    public static final String V3 = "v3";
+    
 }
@@ -8,6 +8,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.web.reactive.error.ErrorWebExceptionHandler;
 import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpResponse;
@@ -35,8 +36,20 @@ public class GatewayDefaultExceptionHandler implements ErrorWebExceptionHandler
         response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
         //3.设置响应状态吗
         boolean exceptionFlag = false;
+        HttpStatus limitStatus = null;
         RequestTemporaryWrapper requestTemporaryWrapper = new RequestTemporaryWrapper();
-        if (ex instanceof ResponseStatusException) {
+        if (ex instanceof GatewayRateLimitException) {
+            GatewayRateLimitException gatewayRateLimitException = (GatewayRateLimitException)ex;
+            ApiResponse<String> apiResponse = ApiResponse.error(gatewayRateLimitException.getCode(), gatewayRateLimitException.getMessage());
+            requestTemporaryWrapper.setApiResponse(apiResponse);
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(gatewayRateLimitException.getRetryAfter()));
+            limitStatus = HttpStatus.TOO_MANY_REQUESTS;
+        }else if (ex instanceof GatewayPayloadTooLargeException) {
+            GatewayPayloadTooLargeException gatewayPayloadTooLargeException = (GatewayPayloadTooLargeException)ex;
+            ApiResponse<String> apiResponse = ApiResponse.error(gatewayPayloadTooLargeException.getCode(), gatewayPayloadTooLargeException.getMessage());
+            requestTemporaryWrapper.setApiResponse(apiResponse);
+            limitStatus = HttpStatus.PAYLOAD_TOO_LARGE;
+        }else if (ex instanceof ResponseStatusException) {
             ResponseStatusException responseStatusException = (ResponseStatusException)ex;
             if (responseStatusException.getStatusCode() == HttpStatus.NOT_FOUND) {
                 String path = exchange.getRequest().getPath().value();
@@ -59,7 +72,9 @@ public class GatewayDefaultExceptionHandler implements ErrorWebExceptionHandler
             requestTemporaryWrapper.setApiResponse(apiResponse);
             exceptionFlag = true;
         }
-        if (exceptionFlag) {
+        if (limitStatus != null) {
+            response.setStatusCode(limitStatus);
+        } else if (exceptionFlag) {
             response.setStatusCode(HttpStatus.OK);
         } else {
             response.setStatusCode(HttpStatus.INTERNAL_SERVER_ERROR);
@@ -0,0 +1,15 @@
+package com.damai.exception;
+
+import com.damai.enums.BaseCode;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 请求体超过限制异常，返回413状态码
+ * @author: 阿星不是程序员
+ **/
+public class GatewayPayloadTooLargeException extends DaMaiFrameException {
+    
+    public GatewayPayloadTooLargeException() {
+        super(BaseCode.REQUEST_BODY_TOO_LARGE);
+    }
+}
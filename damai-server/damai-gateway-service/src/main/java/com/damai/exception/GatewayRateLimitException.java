@@ -0,0 +1,20 @@
+package com.damai.exception;
+
+import com.damai.enums.BaseCode;
+import lombok.Getter;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 网关限流异常，返回429状态码和Retry-After
+ * @author: 阿星不是程序员
+ **/
+@Getter
+public class GatewayRateLimitException extends DaMaiFrameException {
+    
+    private final long retryAfter;
+    
+    public GatewayRateLimitException(long retryAfter) {
+        super(BaseCode.OPERATION_IS_TOO_FREQUENT_PLEASE_TRY_AGAIN_LATER);
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,46 @@
+package com.damai.filter;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 聚合后的请求体buffer的唯一所有者
+ * 解析后释放、转发时交给下游、验证出错或者请求取消时释放，这几个路径可能先后触发，buffer只会被释放一次或者交给下游一次
+ * @author: 阿星不是程序员
+ **/
+public class RequestBodyHolder {
+    
+    private final AtomicReference<DataBuffer> dataBufferReference;
+    
+    public RequestBodyHolder(DataBuffer dataBuffer) {
+        this.dataBufferReference = new AtomicReference<>(dataBuffer);
+    }
+    
+    /**
+     * 读取buffer，不转移所有权，已经释放或者交给下游时返回null
+     * */
+    public DataBuffer peek() {
+        return dataBufferReference.get();
+    }
+    
+    /**
+     * 交给下游，之后由下游负责释放，已经释放或者交给下游时返回null
+     * */
+    public DataBuffer take() {
+        return dataBufferReference.getAndSet(null);
+    }
+    
+    /**
+     * 释放buffer，重复调用或者已经交给下游时不做任何处理
+     * */
+    public void release() {
+        DataBuffer dataBuffer = dataBufferReference.getAndSet(null);
+        if (Objects.nonNull(dataBuffer)) {
+            DataBufferUtils.release(dataBuffer);
+        }
+    }
+}
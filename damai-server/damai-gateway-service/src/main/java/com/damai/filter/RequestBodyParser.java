@@ -0,0 +1,62 @@
+package com.damai.filter;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 请求体解析，直接在buffer上流式读取最外层的字段，不需要先转换为字符串
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+public class RequestBodyParser {
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    
+    /**
+     * 解析最外层的字段，字段值是对象或数组时保留请求体中的原始json字符串
+     * */
+    public static Map<String, String> parseTopLevel(DataBuffer dataBuffer) {
+        Map<String, String> map = new HashMap<>(8);
+        int readPosition = dataBuffer.readPosition();
+        try (InputStream inputStream = dataBuffer.asInputStream(); JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new DaMaiFrameException(BaseCode.REQUEST_BODY_FORMAT_ERROR);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.VALUE_NULL) {
+                    map.put(fieldName, null);
+                }else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    //按token的字节位置截取原文，不重新序列化，保证和客户端签名时的内容逐字节一致
+                    int start = (int)parser.currentTokenLocation().getByteOffset();
+                    parser.skipChildren();
+                    int end = (int)parser.currentLocation().getByteOffset();
+                    map.put(fieldName, dataBuffer.toString(readPosition + start, end - start, StandardCharsets.UTF_8));
+                }else {
+                    map.put(fieldName, parser.getText());
+                }
+            }
+            //对象结束后不能还有其它内容，和fastjson解析时要求读到结尾一致
+            if (parser.currentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                throw new DaMaiFrameException(BaseCode.REQUEST_BODY_FORMAT_ERROR);
+            }
+        }catch (IOException e) {
+            log.error("parse request body error", e);
+            throw new DaMaiFrameException(BaseCode.REQUEST_BODY_FORMAT_ERROR);
+        }
+        return map;
+    }
+}
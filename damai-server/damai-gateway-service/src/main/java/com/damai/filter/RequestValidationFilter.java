@@ -2,22 +2,23 @@ package com.damai.filter;
 
 
 import cn.hutool.core.collection.CollectionUtil;
-import com.alibaba.fastjson.JSON;
 import com.baidu.fsg.uid.UidGenerator;
-import com.damai.conf.RequestTemporaryWrapper;
 import com.damai.enums.BaseCode;
 import com.damai.exception.ArgumentError;
 import com.damai.exception.ArgumentException;
 import com.damai.exception.DaMaiFrameException;
+import com.damai.exception.GatewayPayloadTooLargeException;
+import com.damai.exception.GatewayRateLimitException;
+import com.damai.path.PathPatternIndexHolder;
+import com.damai.path.PathPolicy;
 import com.damai.pro.limit.RateLimiter;
 import com.damai.pro.limit.RateLimiterProperty;
 import com.damai.property.GatewayProperty;
 import com.damai.service.ApiRestrictService;
 import com.damai.service.ChannelDataService;
+import com.damai.service.CryptoKeyCache;
 import com.damai.service.TokenService;
 import com.damai.threadlocal.BaseParameterHolder;
-import com.damai.util.RsaSignTool;
-import com.damai.util.RsaTool;
 import com.damai.util.StringUtil;
 import com.damai.vo.GetChannelDataVo;
 import com.damai.vo.UserVo;
@@ -26,31 +27,29 @@ import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
-import org.springframework.cloud.gateway.filter.factory.rewrite.CachedBodyOutputMessage;
-import org.springframework.cloud.gateway.support.BodyInserterContext;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
 import org.springframework.core.Ordered;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.codec.ServerCodecConfigurer;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
 import org.springframework.stereotype.Component;
-import org.springframework.util.AntPathMatcher;
-import org.springframework.util.PathMatcher;
-import org.springframework.web.reactive.function.BodyInserter;
-import org.springframework.web.reactive.function.BodyInserters;
-import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.function.Function;
+import java.util.Optional;
+import java.util.Set;
 
 import static com.damai.constant.Constant.GRAY_PARAMETER;
 import static com.damai.constant.Constant.TRACE_ID;
@@ -62,6 +61,7 @@ import static com.damai.constant.GatewayConstant.REQUEST_BODY;
 import static com.damai.constant.GatewayConstant.TOKEN;
 import static com.damai.constant.GatewayConstant.USER_ID;
 import static com.damai.constant.GatewayConstant.V2;
+import static com.damai.constant.GatewayConstant.V3;
 import static com.damai.constant.GatewayConstant.VERIFY_VALUE;
 
 /**
@@ -73,22 +73,25 @@ import static com.damai.constant.GatewayConstant.VERIFY_VALUE;
 @Component
 @Slf4j
 public class RequestValidationFilter implements GlobalFilter, Ordered {
-
-    @Autowired
-    private ServerCodecConfigurer serverCodecConfigurer;
-
+    
     @Autowired
     private ChannelDataService channelDataService;
-
+    
+    @Autowired
+    private CryptoKeyCache cryptoKeyCache;
+    
     @Autowired
     private ApiRestrictService apiRestrictService;
-
+    
     @Autowired
     private TokenService tokenService;
-
+    
     @Autowired
     private GatewayProperty gatewayProperty;
     
+    @Autowired
+    private PathPatternIndexHolder pathPatternIndexHolder;
+    
     @Autowired
     private UidGenerator uidGenerator;
     
@@ -98,24 +101,28 @@ public class RequestValidationFilter implements GlobalFilter, Ordered {
     @Autowired
     private RateLimiter rateLimiter;
     
-
+    
     @Override
     public Mono<Void> filter(final ServerWebExchange exchange, final GatewayFilterChain chain) {
         if (rateLimiterProperty.getRateSwitch()) {
-            try {
-                rateLimiter.acquire();
-                return doFilter(exchange,chain);
-            } catch (InterruptedException e) {
-                log.error("interrupted error",e);
-                throw new DaMaiFrameException(BaseCode.THREAD_INTERRUPTED);
-            } finally {
-                rateLimiter.release();
-            }
+            return Mono.defer(() -> {
+                String routeId = getRouteId(exchange);
+                if (!rateLimiter.tryAcquire(routeId)) {
+                    return Mono.error(new GatewayRateLimitException(rateLimiter.getRetryAfter()));
+                }
+                //许可在整个请求链路结束(包括下游响应完成、异常、取消)时才归还
+                return doFilter(exchange, chain).doFinally(signalType -> rateLimiter.release(routeId));
+            });
         }else{
             return doFilter(exchange, chain);
         }
     }
     
+    private String getRouteId(ServerWebExchange exchange){
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        return Objects.nonNull(route) ? route.getId() : null;
+    }
+    
     public Mono<Void> doFilter(final ServerWebExchange exchange, final GatewayFilterChain chain){
         ServerHttpRequest request = exchange.getRequest();
         String traceId = request.getHeaders().getFirst(TRACE_ID);
@@ -138,108 +145,144 @@ public class RequestValidationFilter implements GlobalFilter, Ordered {
         if (Objects.nonNull(contentType) && contentType.toString().toLowerCase().contains(MediaType.APPLICATION_JSON_VALUE.toLowerCase())) {
             return readBody(exchange,chain,headMap);
         }else {
-            Map<String, String> map = doExecute("", exchange);
-            map.remove(REQUEST_BODY);
-            map.putAll(headMap);
-            request.mutate().headers(httpHeaders -> {
-                map.forEach(httpHeaders::add);
+            return doExecute(new RequestBodyHolder(null), exchange).flatMap(map -> {
+                map.remove(REQUEST_BODY);
+                map.putAll(headMap);
+                ServerHttpRequest mutateRequest = request.mutate().headers(httpHeaders -> map.forEach((key, value) -> {
+                    if (StringUtil.isNotEmpty(value)) {
+                        httpHeaders.set(key, value);
+                    }
+                })).build();
+                return chain.filter(exchange.mutate().request(mutateRequest).build());
             });
-            return chain.filter(exchange);
         }
     } 
-
-    private Mono<Void> readBody(ServerWebExchange exchange, GatewayFilterChain chain, Map<String,String> headMap){
-        log.info("current thread readBody : {}",Thread.currentThread().getName());
-        RequestTemporaryWrapper requestTemporaryWrapper = new RequestTemporaryWrapper();
-        
-        ServerRequest serverRequest = ServerRequest.create(exchange, serverCodecConfigurer.getReaders());
-        Mono<String> modifiedBody = serverRequest
-                .bodyToMono(String.class)
-                .flatMap(originalBody -> Mono.just(execute(requestTemporaryWrapper,originalBody,exchange)))
-                .switchIfEmpty(Mono.defer(() -> Mono.just(execute(requestTemporaryWrapper,"",exchange))));
-        
-        BodyInserter bodyInserter = BodyInserters.fromPublisher(modifiedBody, String.class);
-        HttpHeaders headers = new HttpHeaders();
-        headers.putAll(exchange.getRequest().getHeaders());
-        headers.remove(HttpHeaders.CONTENT_LENGTH);
-        
-        CachedBodyOutputMessage outputMessage = new CachedBodyOutputMessage(exchange, headers);
-        return bodyInserter
-                .insert(outputMessage, new BodyInserterContext())
-                .then(Mono.defer(() -> chain.filter(
-                        exchange.mutate().request(decorateHead(exchange, headers, outputMessage, requestTemporaryWrapper, headMap)).build()
-                )))
-                .onErrorResume((Function<Throwable, Mono<Void>>) throwable -> Mono.error(throwable));
-    }
     
-    public String execute(RequestTemporaryWrapper requestTemporaryWrapper,String requestBody,ServerWebExchange exchange){
-        //进行业务验证，并将相关参数放入map
-        Map<String, String> map = doExecute(requestBody, exchange);
-        String body = map.get(REQUEST_BODY);
-        map.remove(REQUEST_BODY);
-        requestTemporaryWrapper.setMap(map);
-        return body;
-    }
-
-    private Map<String,String> doExecute(String originalBody,ServerWebExchange exchange){
-        log.info("current thread verify: {}",Thread.currentThread().getName());
+    /**
+     * 请求体超过限制时直接返回413，请求体只聚合一次，不需要改写时原样转发聚合后的buffer
+     * 聚合后的buffer由 RequestBodyHolder 持有，解析后释放、出错或取消时释放、转发时交给下游，只会发生其中一次
+     * */
+    private Mono<Void> readBody(ServerWebExchange exchange, GatewayFilterChain chain, Map<String,String> headMap){
         ServerHttpRequest request = exchange.getRequest();
-        String requestBody = originalBody;
-        Map<String, String> bodyContent = new HashMap<>(32);
-        if (StringUtil.isNotEmpty(originalBody)) {
-            bodyContent = JSON.parseObject(originalBody, Map.class);
-        }
-        String code = null;
-        String token;   
-        String userId = null;
-        String url = request.getPath().value();
-        String noVerify = request.getHeaders().getFirst(NO_VERIFY);
-        boolean allowNormalAccess = gatewayProperty.isAllowNormalAccess();
-        if ((!allowNormalAccess) && (VERIFY_VALUE.equals(noVerify))) {
-            throw new DaMaiFrameException(BaseCode.ONLY_SIGNATURE_ACCESS_IS_ALLOWED);
+        int maxBodySize = gatewayProperty.getMaxBodySize();
+        if (request.getHeaders().getContentLength() > maxBodySize) {
+            return Mono.error(new GatewayPayloadTooLargeException());
         }
-        if (checkParameter(originalBody,noVerify) && !skipCheckParameter(url)) {
-
-            String encrypt = request.getHeaders().getFirst(ENCRYPT);
-            //应用渠道
-            code = bodyContent.get(CODE);
-            //token
-            token = request.getHeaders().getFirst(TOKEN);
-            
-            GetChannelDataVo channelDataVo = channelDataService.getChannelDataByCode(code);
-            
-            if (StringUtil.isNotEmpty(encrypt) && V2.equals(encrypt)) {
-                String decrypt = RsaTool.decrypt(bodyContent.get(BUSINESS_BODY),channelDataVo.getDataSecretKey());
-                bodyContent.put(BUSINESS_BODY,decrypt);
-            }
-            boolean checkFlag = RsaSignTool.verifyRsaSign256(bodyContent, channelDataVo.getSignPublicKey());
-            if (!checkFlag) {
-                throw new DaMaiFrameException(BaseCode.RSA_SIGN_ERROR);
-            }
-
-            boolean skipCheckTokenResult = skipCheckToken(url);
-            if (!skipCheckTokenResult && StringUtil.isEmpty(token)) {
-                ArgumentError argumentError = new ArgumentError();
-                argumentError.setArgumentName(token);
-                argumentError.setMessage("token参数为空");
-                List<ArgumentError> argumentErrorList = new ArrayList<>();
-                argumentErrorList.add(argumentError);
-                throw new ArgumentException(BaseCode.ARGUMENT_EMPTY.getCode(),argumentErrorList);
+        return DataBufferUtils.join(request.getBody(), maxBodySize)
+                .onErrorMap(DataBufferLimitException.class, e -> new GatewayPayloadTooLargeException())
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(dataBuffer -> {
+                    RequestBodyHolder requestBodyHolder = new RequestBodyHolder(dataBuffer.orElse(null));
+                    return doExecute(requestBodyHolder, exchange)
+                            .doOnError(e -> requestBodyHolder.release())
+                            .doOnCancel(requestBodyHolder::release)
+                            .flatMap(map -> {
+                                Flux<DataBuffer> body;
+                                long contentLength;
+                                if (map.containsKey(REQUEST_BODY)) {
+                                    //请求体被改写，原始的buffer在解析后已经释放
+                                    byte[] bytes = Optional.ofNullable(map.remove(REQUEST_BODY)).orElse("").getBytes(StandardCharsets.UTF_8);
+                                    contentLength = bytes.length;
+                                    body = contentLength > 0 ? Flux.just(exchange.getResponse().bufferFactory().wrap(bytes)) : Flux.empty();
+                                }else {
+                                    //原样转发，buffer交给下游释放
+                                    DataBuffer forwardBody = requestBodyHolder.take();
+                                    contentLength = Objects.isNull(forwardBody) ? 0 : forwardBody.readableByteCount();
+                                    body = Objects.isNull(forwardBody) ? Flux.empty() : Flux.just(forwardBody);
+                                }
+                                return chain.filter(exchange.mutate().request(decorateHead(exchange, body, contentLength, map, headMap)).build());
+                            });
+                });
+    }
+    
+    /**
+     * 验证流程：渠道数据 -> 签名验证 -> token验证 -> 接口限制，每一步都是非阻塞的
+     * */
+    private Mono<Map<String,String>> doExecute(RequestBodyHolder requestBodyHolder,ServerWebExchange exchange){
+        return Mono.defer(() -> {
+            DataBuffer originalBody = requestBodyHolder.peek();
+            ServerHttpRequest request = exchange.getRequest();
+            String url = request.getPath().value();
+            String noVerify = request.getHeaders().getFirst(NO_VERIFY);
+            boolean allowNormalAccess = gatewayProperty.isAllowNormalAccess();
+            if ((!allowNormalAccess) && (VERIFY_VALUE.equals(noVerify))) {
+                return Mono.error(new DaMaiFrameException(BaseCode.ONLY_SIGNATURE_ACCESS_IS_ALLOWED));
             }
-
-            if (!skipCheckTokenResult) {
-                UserVo userVo = tokenService.getUser(token,code,channelDataVo.getTokenSecret());
-                userId = userVo.getId();
+            Set<PathPolicy> pathPolicies = pathPatternIndexHolder.match(url);
+            if (!checkParameter(originalBody,noVerify) || pathPolicies.contains(PathPolicy.SKIP_CHECK_PARAMETER)) {
+                //不需要验证参数时不改写请求体
+                return apiRestrictService.apiRestrict(null,url,request,pathPolicies)
+                        .then(Mono.fromSupplier(() -> new HashMap<>(4)));
             }
-            
-            if (StringUtil.isEmpty(userId) && checkNeedUserId(url) && StringUtil.isNotEmpty(token)) {
-                UserVo userVo = tokenService.getUser(token,code,channelDataVo.getTokenSecret());
-                userId = userVo.getId();
+            Map<String, String> bodyContent;
+            try {
+                bodyContent = RequestBodyParser.parseTopLevel(originalBody);
+            }finally {
+                requestBodyHolder.release();
             }
+            String encrypt = request.getHeaders().getFirst(ENCRYPT);
+            //应用渠道
+            String code = bodyContent.get(CODE);
+            //token
+            String token = request.getHeaders().getFirst(TOKEN);
             
-            requestBody = bodyContent.get(BUSINESS_BODY);
+            return channelDataService.getChannelDataByCode(code)
+                    .flatMap(channelDataVo -> {
+                        if (StringUtil.isNotEmpty(encrypt) && V2.equals(encrypt)) {
+                            String decrypt = cryptoKeyCache.decrypt(code,channelDataVo,bodyContent.get(BUSINESS_BODY));
+                            bodyContent.put(BUSINESS_BODY,decrypt);
+                        }else if (StringUtil.isNotEmpty(encrypt) && V3.equals(encrypt)) {
+                            String decrypt = cryptoKeyCache.hybridDecrypt(code,channelDataVo,bodyContent.get(BUSINESS_BODY));
+                            bodyContent.put(BUSINESS_BODY,decrypt);
+                        }
+                        boolean checkFlag = cryptoKeyCache.verifySign(code, channelDataVo, bodyContent);
+                        if (!checkFlag) {
+                            return Mono.error(new DaMaiFrameException(BaseCode.RSA_SIGN_ERROR));
+                        }
+                        return getUserId(pathPolicies, token, code, channelDataVo);
+                    })
+                    .map(Optional::of)
+                    .defaultIfEmpty(Optional.empty())
+                    .flatMap(userId -> checkUserRate(userId.orElse(null)).then(apiRestrictService.apiRestrict(userId.orElse(null),url,request,pathPolicies))
+                            .then(Mono.fromSupplier(() -> buildResult(bodyContent.get(BUSINESS_BODY), code, userId.orElse(null)))));
+        });
+    }
+    
+    /**
+     * 用户维度的令牌桶限流
+     * */
+    private Mono<Void> checkUserRate(String userId){
+        if (!rateLimiterProperty.getRateSwitch()) {
+            return Mono.empty();
+        }
+        long retryAfter = rateLimiter.tryAcquireUser(userId);
+        if (retryAfter > 0) {
+            return Mono.error(new GatewayRateLimitException(retryAfter));
+        }
+        return Mono.empty();
+    }
+    
+    /**
+     * 需要验证token的路径必须携带token，需要用户id的路径携带了token时解析用户id
+     * */
+    private Mono<String> getUserId(Set<PathPolicy> pathPolicies, String token, String code, GetChannelDataVo channelDataVo){
+        boolean skipCheckTokenResult = !pathPolicies.contains(PathPolicy.CHECK_TOKEN);
+        if (!skipCheckTokenResult && StringUtil.isEmpty(token)) {
+            ArgumentError argumentError = new ArgumentError();
+            argumentError.setArgumentName(token);
+            argumentError.setMessage("token参数为空");
+            List<ArgumentError> argumentErrorList = new ArrayList<>();
+            argumentErrorList.add(argumentError);
+            return Mono.error(new ArgumentException(BaseCode.ARGUMENT_EMPTY.getCode(),argumentErrorList));
+        }
+        if (!skipCheckTokenResult || (pathPolicies.contains(PathPolicy.NEED_USER_ID) && StringUtil.isNotEmpty(token))) {
+            return tokenService.getUser(token,code,channelDataVo.getTokenSecret()).map(UserVo::getId);
         }
-        apiRestrictService.apiRestrict(userId,url,request);
+        return Mono.empty();
+    }
+    
+    private Map<String,String> buildResult(String requestBody, String code, String userId){
         Map<String,String> map = new HashMap<>(4);
         map.put(REQUEST_BODY,requestBody);
         if (StringUtil.isNotEmpty(code)) {
@@ -253,75 +296,41 @@ public class RequestValidationFilter implements GlobalFilter, Ordered {
     /**
      * 将网关层request请求头中的重要参数传递给后续的微服务中
      */
-    private ServerHttpRequestDecorator decorateHead(ServerWebExchange exchange, HttpHeaders headers, CachedBodyOutputMessage outputMessage, RequestTemporaryWrapper requestTemporaryWrapper, Map<String,String> headMap){
+    private ServerHttpRequestDecorator decorateHead(ServerWebExchange exchange, Flux<DataBuffer> body, long contentLength, 
+                                                    Map<String,String> map, Map<String,String> headMap){
+        HttpHeaders newHeaders = new HttpHeaders();
+        newHeaders.putAll(exchange.getRequest().getHeaders());
+        if (CollectionUtil.isNotEmpty(map)) {
+            newHeaders.setAll(map);
+        }
+        if (CollectionUtil.isNotEmpty(headMap)) {
+            newHeaders.setAll(headMap);
+        }
+        newHeaders.remove(HttpHeaders.TRANSFER_ENCODING);
+        newHeaders.setContentLength(contentLength);
         return new ServerHttpRequestDecorator(exchange.getRequest()){
             @Override
             public HttpHeaders getHeaders() {
-                log.info("current thread getHeaders: {}",Thread.currentThread().getName());
-                long contentLength = headers.getContentLength();
-                HttpHeaders newHeaders = new HttpHeaders();
-                newHeaders.putAll(headers);
-                Map<String, String> map = requestTemporaryWrapper.getMap();
-                if (CollectionUtil.isNotEmpty(map)) {
-                    newHeaders.setAll(map);
-                }
-                if (CollectionUtil.isNotEmpty(headMap)) {
-                    newHeaders.setAll(headMap);
-                }
-                if (contentLength > 0){
-                    newHeaders.setContentLength(contentLength);
-                }else {
-                    newHeaders.set(HttpHeaders.TRANSFER_ENCODING,"chunked");
-                }
                 if (CollectionUtil.isNotEmpty(headMap) && StringUtil.isNotEmpty(headMap.get(TRACE_ID))) {
                     MDC.put(TRACE_ID,headMap.get(TRACE_ID));
                 }
                 return newHeaders;
             }
-
+            
             @Override
             public Flux<DataBuffer> getBody() {
-                return outputMessage.getBody();
+                return body;
             }
         };
     }
-
+    
     @Override
     public int getOrder() {
         return -2;
     }
-
-    public boolean skipCheckToken(String url){
-        for (String skipCheckTokenPath : gatewayProperty.getCheckTokenPaths()) {
-            PathMatcher matcher = new AntPathMatcher();
-            if (matcher.match(skipCheckTokenPath, url)) {
-                return false;
-            }
-        }
-        return true;
-    }
-    
-    public boolean skipCheckParameter(String url){
-        for (String skipCheckTokenPath : gatewayProperty.getCheckSkipParmeterPaths()) {
-            PathMatcher matcher = new AntPathMatcher();
-            if (matcher.match(skipCheckTokenPath, url)) {
-                return true;
-            }
-        }
-        return false;
-    }
     
-    public boolean checkParameter(String originalBody,String noVerify){
-        return (!(VERIFY_VALUE.equals(noVerify))) && StringUtil.isNotEmpty(originalBody);
+    public boolean checkParameter(DataBuffer originalBody,String noVerify){
+        return (!(VERIFY_VALUE.equals(noVerify))) && Objects.nonNull(originalBody) && originalBody.readableByteCount() > 0;
     }
     
-    private boolean checkNeedUserId(String url){
-        for (String userIdPath : gatewayProperty.getUserIdPaths()) {
-            PathMatcher matcher = new AntPathMatcher();
-            if (matcher.match(userIdPath, url)) {
-                return true;
-            }
-        }
-        return false;
-    }
 }
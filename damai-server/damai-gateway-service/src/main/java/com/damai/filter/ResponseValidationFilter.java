@@ -2,10 +2,12 @@ package com.damai.filter;
 
 import com.alibaba.fastjson.JSON;
 import com.damai.common.ApiResponse;
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.property.GatewayProperty;
 import com.damai.util.StringUtil;
 import com.damai.service.ChannelDataService;
-import com.damai.util.RsaTool;
-import com.damai.vo.GetChannelDataVo;
+import com.damai.service.CryptoKeyCache;
 import lombok.extern.slf4j.Slf4j;
 import org.reactivestreams.Publisher;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,6 +18,8 @@ import org.springframework.cloud.gateway.filter.factory.rewrite.CachedBodyOutput
 import org.springframework.cloud.gateway.support.BodyInserterContext;
 import org.springframework.core.Ordered;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.ReactiveHttpOutputMessage;
 import org.springframework.http.server.reactive.ServerHttpRequest;
@@ -24,20 +28,19 @@ import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.BodyInserter;
 import org.springframework.web.reactive.function.BodyInserters;
-import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.util.Objects;
+import java.nio.charset.StandardCharsets;
 import java.util.function.BiFunction;
 
 import static com.damai.constant.GatewayConstant.CODE;
 import static com.damai.constant.GatewayConstant.ENCRYPT;
 import static com.damai.constant.GatewayConstant.NO_VERIFY;
 import static com.damai.constant.GatewayConstant.V2;
+import static com.damai.constant.GatewayConstant.V3;
 import static com.damai.constant.GatewayConstant.VERIFY_VALUE;
-import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR;
 
 
 /**
@@ -54,6 +57,12 @@ public class ResponseValidationFilter implements GlobalFilter, Ordered {
 
     @Autowired
     private ChannelDataService channelDataService;
+    
+    @Autowired
+    private CryptoKeyCache cryptoKeyCache;
+    
+    @Autowired
+    private GatewayProperty gatewayProperty;
 
     @Override
     public int getOrder() {
@@ -62,8 +71,18 @@ public class ResponseValidationFilter implements GlobalFilter, Ordered {
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        //不需要加密时响应体原样转发，不再聚合和解析
+        if (!needEncrypt(exchange.getRequest())) {
+            return chain.filter(exchange);
+        }
         return chain.filter(exchange.mutate().response(decorate(exchange)).build());
     }
+    
+    private boolean needEncrypt(ServerHttpRequest request){
+        String noVerify = request.getHeaders().getFirst(NO_VERIFY);
+        String encrypt = request.getHeaders().getFirst(ENCRYPT);
+        return (!VERIFY_VALUE.equals(noVerify)) && (V2.equals(encrypt) || V3.equals(encrypt));
+    }
 
    
     private ServerHttpResponse decorate(ServerWebExchange exchange) {
@@ -73,19 +92,20 @@ public class ResponseValidationFilter implements GlobalFilter, Ordered {
             @Override
             public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
 
-                String originalResponseContentType = exchange
-                        .getAttribute(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR);
-                HttpHeaders httpHeaders = new HttpHeaders();
-                httpHeaders.add(HttpHeaders.CONTENT_TYPE,
-                        originalResponseContentType);
-
-                ClientResponse clientResponse = ClientResponse
-                        .create(Objects.requireNonNull(exchange.getResponse().getStatusCode()))
-                        .headers(headers -> headers.putAll(httpHeaders))
-                        .body(Flux.from(body)).build();
-                
-                Mono<String> modifiedBody = clientResponse
-                        .bodyToMono(String.class)
+                //加密的是整个data字段，只能聚合完整的响应体后再处理，聚合时限制大小，超过限制的buffer在聚合中释放
+                Mono<String> modifiedBody = DataBufferUtils.join(body, gatewayProperty.getMaxResponseBodySize())
+                        .onErrorMap(DataBufferLimitException.class, e -> {
+                            //不转发未加密的响应体，响应头中下游的长度已经不适用
+                            getDelegate().getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+                            return new DaMaiFrameException(BaseCode.RESPONSE_BODY_TOO_LARGE);
+                        })
+                        .map(dataBuffer -> {
+                            try {
+                                return dataBuffer.toString(StandardCharsets.UTF_8);
+                            }finally {
+                                DataBufferUtils.release(dataBuffer);
+                            }
+                        })
                         .flatMap(originalBody -> modifyResponseBody().apply(exchange,originalBody));
 
                 BodyInserter<Mono<String>, ReactiveHttpOutputMessage> bodyInserter = BodyInserters.fromPublisher(modifiedBody,
@@ -105,10 +125,7 @@ public class ResponseValidationFilter implements GlobalFilter, Ordered {
             }
             
             private BiFunction<ServerWebExchange, String, Mono<String>> modifyResponseBody() {
-                return (serverWebExchange,responseBody) -> {
-                    String modifyResponseBody = checkResponseBody(serverWebExchange, responseBody);
-                    return Mono.just(modifyResponseBody);
-                };
+                return (serverWebExchange,responseBody) -> checkResponseBody(serverWebExchange, responseBody);
             }
 
             @Override
@@ -119,22 +136,24 @@ public class ResponseValidationFilter implements GlobalFilter, Ordered {
         };
     }
 
-    private String checkResponseBody(final ServerWebExchange serverWebExchange, final String responseBody) {
-        String modifyResponseBody = responseBody;
+    private Mono<String> checkResponseBody(final ServerWebExchange serverWebExchange, final String responseBody) {
         ServerHttpRequest request = serverWebExchange.getRequest();
-        String noVerify = request.getHeaders().getFirst(NO_VERIFY);
         String encrypt = request.getHeaders().getFirst(ENCRYPT);
-        if ((!VERIFY_VALUE.equals(noVerify)) && V2.equals(encrypt) && StringUtil.isNotEmpty(responseBody)) {
+        if (StringUtil.isNotEmpty(responseBody)) {
             ApiResponse apiResponse = JSON.parseObject(responseBody, ApiResponse.class);
             Object data = apiResponse.getData();
             if (data != null) {
                 String code = request.getHeaders().getFirst(CODE);
-                GetChannelDataVo channelDataVo = channelDataService.getChannelDataByCode(code);
-                String rsaEncrypt = RsaTool.encrypt(JSON.toJSONString(data),channelDataVo.getDataPublicKey());
-                apiResponse.setData(rsaEncrypt);
-                modifyResponseBody = JSON.toJSONString(apiResponse);
+                return channelDataService.getChannelDataByCode(code).map(channelDataVo -> {
+                    String dataStr = JSON.toJSONString(data);
+                    String encryptData = V3.equals(encrypt) ? 
+                            cryptoKeyCache.hybridEncrypt(code, channelDataVo, dataStr) : 
+                            cryptoKeyCache.encrypt(code, channelDataVo, dataStr);
+                    apiResponse.setData(encryptData);
+                    return JSON.toJSONString(apiResponse);
+                });
             }
         }
-        return modifyResponseBody;
+        return Mono.just(responseBody);
     }
 }
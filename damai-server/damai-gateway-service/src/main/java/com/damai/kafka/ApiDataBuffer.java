@@ -0,0 +1,178 @@
+package com.damai.kafka;
+
+import com.damai.dto.ApiDataDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: api调用记录的发送缓冲
+ * 请求线程只把记录写入有界的环形数组(无锁，不阻塞)，写满时覆盖最旧的记录并计数，
+ * 后台线程每隔flushInterval毫秒或积压达到batchSize条时取出记录，合并成一条kafka消息发送
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+public class ApiDataBuffer implements DisposableBean {
+    
+    private final ApiDataMessageSend apiDataMessageSend;
+    
+    private final AtomicReferenceArray<Slot> slots;
+    
+    private final int mask;
+    
+    private final int capacity;
+    
+    private final int batchSize;
+    
+    /**
+     * 下一个写入的序号，由请求线程竞争递增
+     * */
+    private final AtomicLong tail = new AtomicLong();
+    
+    /**
+     * 下一个读取的序号，只由刷新线程修改
+     * */
+    private volatile long head;
+    
+    /**
+     * 被覆盖丢弃的记录数
+     * */
+    private final AtomicLong droppedCount = new AtomicLong();
+    
+    private long reportedDroppedCount;
+    
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    
+    private final ScheduledExecutorService flushExecutor;
+    
+    public ApiDataBuffer(ApiDataMessageSend apiDataMessageSend, int bufferSize, int batchSize, long flushInterval){
+        this.apiDataMessageSend = apiDataMessageSend;
+        this.capacity = tableSizeFor(Math.max(bufferSize, 2));
+        this.mask = capacity - 1;
+        this.batchSize = Math.max(batchSize, 1);
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setName("api-data-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 写入一条记录，缓冲已满时覆盖最旧的记录
+     * */
+    public void offer(ApiDataDto apiDataDto){
+        long sequence = tail.getAndIncrement();
+        int index = (int)(sequence & mask);
+        Slot slot = new Slot(sequence, apiDataDto);
+        Slot current;
+        do {
+            current = slots.get(index);
+            if (Objects.nonNull(current) && current.sequence > sequence) {
+                //写入前已经被更新的记录覆盖，由刷新线程计入丢弃数
+                return;
+            }
+        } while (!slots.compareAndSet(index, current, slot));
+        if (sequence + 1 - head >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            try {
+                flushExecutor.execute(this::flush);
+            }catch (Exception e) {
+                flushScheduled.set(false);
+            }
+        }
+    }
+    
+    public long getDroppedCount(){
+        return droppedCount.get();
+    }
+    
+    /**
+     * 只在刷新线程中执行，保证单消费者
+     * */
+    private void flush(){
+        flushScheduled.set(false);
+        try {
+            List<ApiDataDto> batch;
+            while (!(batch = drain()).isEmpty()) {
+                apiDataMessageSend.sendBatchMessage(batch);
+                if (batch.size() < batchSize) {
+                    break;
+                }
+            }
+        }catch (Exception e) {
+            log.error("flush api data error", e);
+        }
+        long dropped = droppedCount.get();
+        if (dropped != reportedDroppedCount) {
+            log.warn("api data buffer overflow, dropped : {}, total dropped : {}", dropped - reportedDroppedCount, dropped);
+            reportedDroppedCount = dropped;
+        }
+    }
+    
+    private List<ApiDataDto> drain(){
+        long end = tail.get();
+        long sequence = head;
+        if (end - sequence > capacity) {
+            //最旧的记录已经被覆盖
+            droppedCount.addAndGet(end - capacity - sequence);
+            sequence = end - capacity;
+        }
+        List<ApiDataDto> batch = new ArrayList<>((int)Math.min(end - sequence, batchSize));
+        while (sequence < end && batch.size() < batchSize) {
+            Slot slot = slots.get((int)(sequence & mask));
+            if (Objects.isNull(slot) || slot.sequence < sequence) {
+                //序号已经被占用但还没有写入，留到下次刷新
+                break;
+            }
+            if (slot.sequence == sequence) {
+                batch.add(slot.apiDataDto);
+            }else {
+                droppedCount.incrementAndGet();
+            }
+            sequence++;
+        }
+        head = sequence;
+        return batch;
+    }
+    
+    private static int tableSizeFor(int size){
+        int n = -1 >>> Integer.numberOfLeadingZeros(size - 1);
+        return n >= (1 << 30) ? (1 << 30) : n + 1;
+    }
+    
+    @Override
+    public void destroy() {
+        flushExecutor.shutdown();
+        try {
+            if (flushExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                flush();
+            }
+        }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static final class Slot {
+    
+        private final long sequence;
+    
+        private final ApiDataDto apiDataDto;
+    
+        private Slot(long sequence, ApiDataDto apiDataDto) {
+            this.sequence = sequence;
+            this.apiDataDto = apiDataDto;
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package com.damai.kafka;
 
+import com.alibaba.fastjson.JSON;
 import com.damai.core.SpringUtil;
+import com.damai.dto.ApiDataDto;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.core.KafkaTemplate;
 
+import java.util.List;
+
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 数据发送
@@ -19,7 +23,18 @@ public class ApiDataMessageSend {
     private String topic;
     
     public void sendMessage(String message) {
-        log.info("sendMessage message : {}", message);
+        log.debug("sendMessage message : {}", message);
         kafkaTemplate.send(SpringUtil.getPrefixDistinctionName() + "-" + topic,message);
     }
+    
+    /**
+     * 把多条记录合并成一条json数组消息发送
+     * */
+    public void sendBatchMessage(List<ApiDataDto> apiDataDtoList) {
+        if (apiDataDtoList.isEmpty()) {
+            return;
+        }
+        log.debug("sendBatchMessage size : {}", apiDataDtoList.size());
+        kafkaTemplate.send(SpringUtil.getPrefixDistinctionName() + "-" + topic,JSON.toJSONString(apiDataDtoList));
+    }
 }
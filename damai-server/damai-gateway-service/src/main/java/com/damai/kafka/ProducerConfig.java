@@ -1,5 +1,6 @@
 package com.damai.kafka;
 
+import com.damai.property.GatewayProperty;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.kafka.core.KafkaTemplate;
@@ -21,4 +22,10 @@ public class ProducerConfig {
     public ApiDataMessageSend apiDataMessageSend(KafkaTemplate<String, String> kafkaTemplate, KafkaTopic kafkaTopic){
         return new ApiDataMessageSend(kafkaTemplate, kafkaTopic.getTopic());
     }
+    
+    @Bean
+    public ApiDataBuffer apiDataBuffer(ApiDataMessageSend apiDataMessageSend, GatewayProperty gatewayProperty){
+        return new ApiDataBuffer(apiDataMessageSend, gatewayProperty.getApiDataBufferSize(), 
+                gatewayProperty.getApiDataBatchSize(), gatewayProperty.getApiDataFlushInterval());
+    }
 }
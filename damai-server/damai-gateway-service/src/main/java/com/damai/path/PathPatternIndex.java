@@ -0,0 +1,219 @@
+package com.damai.path;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 按路径分段构建的前缀树，一次查找返回路径匹配到的所有策略
+ * 语义和AntPathMatcher一致：? 匹配一个字符，* 匹配段内零个或多个字符，** 匹配零个或多个段，{name} 匹配段内变量
+ * 构建完成后只读，可以在多个线程中共享
+ * @author: 阿星不是程序员
+ **/
+public class PathPatternIndex {
+    
+    private static final String PATH_SEPARATOR = "/";
+    
+    private static final String DOUBLE_WILDCARD = "**";
+    
+    private final Node root = new Node();
+    
+    private boolean hasDoubleWildcard;
+    
+    public static PathPatternIndex empty() {
+        return new PathPatternIndex();
+    }
+    
+    /**
+     * 添加路径模式及其对应的策略，只能在构建阶段调用
+     * */
+    public PathPatternIndex add(String pattern, PathPolicy pathPolicy) {
+        Node node = root;
+        for (String segment : tokenize(pattern)) {
+            if (DOUBLE_WILDCARD.equals(segment)) {
+                if (Objects.isNull(node.doubleWildcardChild)) {
+                    node.doubleWildcardChild = new Node();
+                }
+                node = node.doubleWildcardChild;
+                hasDoubleWildcard = true;
+            }else if (isWildcardSegment(segment)) {
+                node = node.wildcardChildren.computeIfAbsent(segment, WildcardChild::new).node;
+            }else {
+                node = node.literalChildren.computeIfAbsent(segment, key -> new Node());
+            }
+        }
+        node.pathPolicies.add(pathPolicy);
+        return this;
+    }
+    
+    public PathPatternIndex addAll(String[] patterns, PathPolicy pathPolicy) {
+        if (Objects.nonNull(patterns)) {
+            for (String pattern : patterns) {
+                add(pattern, pathPolicy);
+            }
+        }
+        return this;
+    }
+    
+    /**
+     * 查找路径匹配到的所有策略
+     * */
+    public Set<PathPolicy> match(String path) {
+        String[] segments = tokenize(path);
+        EnumSet<PathPolicy> result = EnumSet.noneOf(PathPolicy.class);
+        match(root, segments, 0, result, hasDoubleWildcard ? new HashSet<>() : null);
+        return result;
+    }
+    
+    public boolean match(String path, PathPolicy pathPolicy) {
+        return match(path).contains(pathPolicy);
+    }
+    
+    private void match(Node node, String[] segments, int index, Set<PathPolicy> result, Set<VisitKey> visited) {
+        //多个**时同一个节点和下标的组合只需要访问一次
+        if (Objects.nonNull(visited) && !visited.add(new VisitKey(node, index))) {
+            return;
+        }
+        if (Objects.nonNull(node.doubleWildcardChild)) {
+            for (int i = index; i <= segments.length; i++) {
+                match(node.doubleWildcardChild, segments, i, result, visited);
+            }
+        }
+        if (index == segments.length) {
+            result.addAll(node.pathPolicies);
+            return;
+        }
+        String segment = segments[index];
+        Node literalChild = node.literalChildren.get(segment);
+        if (Objects.nonNull(literalChild)) {
+            match(literalChild, segments, index + 1, result, visited);
+        }
+        for (WildcardChild wildcardChild : node.wildcardChildren.values()) {
+            if (wildcardChild.pattern.matcher(segment).matches()) {
+                match(wildcardChild.node, segments, index + 1, result, visited);
+            }
+        }
+    }
+    
+    private static String[] tokenize(String path) {
+        if (Objects.isNull(path) || path.isEmpty()) {
+            return new String[0];
+        }
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        int length = path.length();
+        while (start <= length) {
+            int end = path.indexOf(PATH_SEPARATOR, start);
+            if (end < 0) {
+                end = length;
+            }
+            String segment = path.substring(start, end).trim();
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+            start = end + 1;
+        }
+        return segments.toArray(new String[0]);
+    }
+    
+    private static boolean isWildcardSegment(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0;
+    }
+    
+    /**
+     * 将段内的通配符转换为正则
+     * */
+    private static Pattern compileSegment(String segment) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < segment.length()) {
+            char c = segment.charAt(i);
+            if (c == '*' || c == '?' || c == '{') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                if (c == '*') {
+                    regex.append(".*");
+                }else if (c == '?') {
+                    regex.append('.');
+                }else {
+                    int end = segment.indexOf('}', i);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("path pattern variable not closed : " + segment);
+                    }
+                    String variable = segment.substring(i + 1, end);
+                    int colon = variable.indexOf(':');
+                    regex.append('(').append(colon >= 0 ? variable.substring(colon + 1) : ".*").append(')');
+                    i = end;
+                }
+            }else {
+                literal.append(c);
+            }
+            i++;
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+    
+    private static class Node {
+        
+        private final Map<String, Node> literalChildren = new HashMap<>(4);
+        
+        private final Map<String, WildcardChild> wildcardChildren = new HashMap<>(2);
+        
+        private Node doubleWildcardChild;
+        
+        private final Set<PathPolicy> pathPolicies = EnumSet.noneOf(PathPolicy.class);
+    }
+    
+    private static class WildcardChild {
+        
+        private final Pattern pattern;
+        
+        private final Node node = new Node();
+        
+        private WildcardChild(String segment) {
+            this.pattern = compileSegment(segment);
+        }
+    }
+    
+    private static class VisitKey {
+        
+        private final Node node;
+        
+        private final int index;
+        
+        private VisitKey(Node node, int index) {
+            this.node = node;
+            this.index = index;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof VisitKey)) {
+                return false;
+            }
+            VisitKey visitKey = (VisitKey) o;
+            return node == visitKey.node && index == visitKey.index;
+        }
+        
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(node) * 31 + index;
+        }
+    }
+}
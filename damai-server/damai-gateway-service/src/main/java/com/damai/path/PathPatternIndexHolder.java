@@ -0,0 +1,49 @@
+package com.damai.path;
+
+import com.damai.property.GatewayProperty;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Set;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 持有根据配置构建的路径索引，配置刷新后重新构建并整体替换
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+@Component
+public class PathPatternIndexHolder implements ApplicationListener<RefreshScopeRefreshedEvent> {
+    
+    @Autowired
+    private GatewayProperty gatewayProperty;
+    
+    private volatile PathPatternIndex pathPatternIndex = PathPatternIndex.empty();
+    
+    @PostConstruct
+    public void init(){
+        rebuild();
+    }
+    
+    @Override
+    public void onApplicationEvent(RefreshScopeRefreshedEvent event) {
+        rebuild();
+    }
+    
+    public void rebuild(){
+        pathPatternIndex = PathPatternIndex.empty()
+                .addAll(gatewayProperty.getCheckTokenPaths(), PathPolicy.CHECK_TOKEN)
+                .addAll(gatewayProperty.getCheckSkipParmeterPaths(), PathPolicy.SKIP_CHECK_PARAMETER)
+                .addAll(gatewayProperty.getUserIdPaths(), PathPolicy.NEED_USER_ID)
+                .addAll(gatewayProperty.getApiRestrictPaths(), PathPolicy.API_RESTRICT);
+        log.info("rebuild gateway path pattern index");
+    }
+    
+    public Set<PathPolicy> match(String path){
+        return pathPatternIndex.match(path);
+    }
+}
@@ -0,0 +1,25 @@
+package com.damai.path;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 路径对应的网关策略
+ * @author: 阿星不是程序员
+ **/
+public enum PathPolicy {
+    /**
+     * 必须携带token并验证
+     * */
+    CHECK_TOKEN,
+    /**
+     * 跳过参数验证
+     * */
+    SKIP_CHECK_PARAMETER,
+    /**
+     * 携带token时需要解析用户id
+     * */
+    NEED_USER_ID,
+    /**
+     * 需要做频率限制
+     * */
+    API_RESTRICT
+}
@@ -1,33 +1,127 @@
 package com.damai.pro.limit;
 
-import com.damai.enums.BaseCode;
-import com.damai.exception.DaMaiFrameException;
+import com.damai.util.StringUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 线上限流工具
+ * 整体和路由维度限制同时处理中的请求数，许可在请求结束时释放；用户维度使用令牌桶限制请求速率
+ * 所有获取操作都不会等待，获取不到直接拒绝
  * @author: 阿星不是程序员
  **/
 public class RateLimiter {
     
     private final Semaphore semaphore;
-    private final TimeUnit timeUnit;
     
-    public RateLimiter(int maxPermitsPerSecond) {
-        this.timeUnit = TimeUnit.SECONDS;
-        this.semaphore = new Semaphore(maxPermitsPerSecond);
+    private final Map<String,Semaphore> routeSemaphoreMap = new ConcurrentHashMap<>(16);
+    
+    private final Cache<String,UserTokenBucket> userTokenBucketCache;
+    
+    private final RateLimiterProperty rateLimiterProperty;
+    
+    public RateLimiter(RateLimiterProperty rateLimiterProperty) {
+        this.rateLimiterProperty = rateLimiterProperty;
+        this.semaphore = new Semaphore(rateLimiterProperty.getRatePermits());
+        Map<String, Integer> routePermits = rateLimiterProperty.getRoutePermits();
+        if (Objects.nonNull(routePermits)) {
+            routePermits.forEach((routeId, permits) -> routeSemaphoreMap.put(routeId, new Semaphore(permits)));
+        }
+        this.userTokenBucketCache = Caffeine.newBuilder()
+                .expireAfterAccess(rateLimiterProperty.getUserExpire(), TimeUnit.SECONDS)
+                .build();
     }
     
-    public void acquire() throws InterruptedException {
-        if (!semaphore.tryAcquire(1, timeUnit)) {
-            throw new DaMaiFrameException(BaseCode.OPERATION_IS_TOO_FREQUENT_PLEASE_TRY_AGAIN_LATER);
+    /**
+     * 获取整体和路由的许可，路由的许可获取失败时归还整体的许可
+     * @param routeId 路由id，可以为空
+     * @return 是否获取成功
+     * */
+    public boolean tryAcquire(String routeId) {
+        if (!semaphore.tryAcquire()) {
+            return false;
+        }
+        Semaphore routeSemaphore = getRouteSemaphore(routeId);
+        if (Objects.nonNull(routeSemaphore) && !routeSemaphore.tryAcquire()) {
+            semaphore.release();
+            return false;
         }
+        return true;
     }
     
-    public void release() {
+    /**
+     * 归还整体和路由的许可，必须和获取成功的tryAcquire成对调用
+     * @param routeId 路由id，可以为空
+     * */
+    public void release(String routeId) {
+        Semaphore routeSemaphore = getRouteSemaphore(routeId);
+        if (Objects.nonNull(routeSemaphore)) {
+            routeSemaphore.release();
+        }
         semaphore.release();
     }
+    
+    /**
+     * 是否开启了用户维度的限流
+     * */
+    public boolean isUserLimitEnabled() {
+        return rateLimiterProperty.getUserPermits() > 0;
+    }
+    
+    /**
+     * 从用户的令牌桶中获取令牌
+     * @param userId 用户id
+     * @return 获取成功返回0，否则返回需要等待的秒数(向上取整)
+     * */
+    public long tryAcquireUser(String userId) {
+        if (!isUserLimitEnabled() || StringUtil.isEmpty(userId)) {
+            return 0;
+        }
+        UserTokenBucket userTokenBucket = userTokenBucketCache.get(userId, key -> {
+            int userPermits = rateLimiterProperty.getUserPermits();
+            int userBurst = rateLimiterProperty.getUserBurst() > 0 ? rateLimiterProperty.getUserBurst() : userPermits;
+            return new UserTokenBucket(userPermits, userBurst);
+        });
+        long waitNanos = userTokenBucket.tryAcquire();
+        if (waitNanos == 0) {
+            return 0;
+        }
+        return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+    
+    public long getRetryAfter() {
+        return rateLimiterProperty.getRetryAfter();
+    }
+    
+    /**
+     * 整体正在处理中的请求数
+     * */
+    public int getInFlightCount() {
+        return rateLimiterProperty.getRatePermits() - semaphore.availablePermits();
+    }
+    
+    /**
+     * 路由正在处理中的请求数，路由没有配置限制时返回-1
+     * */
+    public int getRouteInFlightCount(String routeId) {
+        Semaphore routeSemaphore = getRouteSemaphore(routeId);
+        if (Objects.isNull(routeSemaphore)) {
+            return -1;
+        }
+        return rateLimiterProperty.getRoutePermits().get(routeId) - routeSemaphore.availablePermits();
+    }
+    
+    private Semaphore getRouteSemaphore(String routeId) {
+        if (StringUtil.isEmpty(routeId)) {
+            return null;
+        }
+        return routeSemaphoreMap.get(routeId);
+    }
 }
@@ -18,6 +18,6 @@ public class RateLimiterConfig {
     
     @Bean
     public RateLimiter rateLimiter(RateLimiterProperty rateLimiterProperty){
-        return new RateLimiter(rateLimiterProperty.getRatePermits());
+        return new RateLimiter(rateLimiterProperty);
     }
 }
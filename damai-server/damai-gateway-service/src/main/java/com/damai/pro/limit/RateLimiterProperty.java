@@ -3,6 +3,8 @@ package com.damai.pro.limit;
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Value;
 
+import java.util.Map;
+
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 线上限流工具属性
@@ -14,6 +16,39 @@ public class RateLimiterProperty {
     @Value("${rate.switch:false}")
     private Boolean rateSwitch;
 
+    /**
+     * 网关整体同时处理中的请求数上限
+     * */
     @Value("${rate.permits:200}")
     private Integer ratePermits;
+    
+    /**
+     * 每个路由同时处理中的请求数上限，key为路由id，例如 rate.route-permits={'order-service':50}
+     * */
+    @Value("#{${rate.route-permits:{:}}}")
+    private Map<String,Integer> routePermits;
+    
+    /**
+     * 每个用户每秒生成的令牌数，小于等于0时不开启用户维度的限流
+     * */
+    @Value("${rate.user-permits:0}")
+    private Integer userPermits;
+    
+    /**
+     * 每个用户令牌桶的容量，小于等于0时和每秒生成的令牌数一致
+     * */
+    @Value("${rate.user-burst:0}")
+    private Integer userBurst;
+    
+    /**
+     * 用户令牌桶在没有访问后保留的时间(秒)
+     * */
+    @Value("${rate.user-expire:600}")
+    private Integer userExpire;
+    
+    /**
+     * 整体或路由维度被限流时，返回给客户端的Retry-After(秒)
+     * */
+    @Value("${rate.retry-after:1}")
+    private Integer retryAfter;
 }
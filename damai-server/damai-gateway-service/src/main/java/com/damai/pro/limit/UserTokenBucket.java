@@ -0,0 +1,41 @@
+package com.damai.pro.limit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 用户维度的令牌桶，按照时间差惰性补充令牌
+ * @author: 阿星不是程序员
+ **/
+public class UserTokenBucket {
+    
+    private final double capacity;
+    
+    private final double permitsPerNanos;
+    
+    private double tokens;
+    
+    private long lastRefillNanos;
+    
+    public UserTokenBucket(int permitsPerSecond, int burst) {
+        this.capacity = burst;
+        this.permitsPerNanos = permitsPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+    
+    /**
+     * 尝试获取一个令牌，临界区只有几次浮点运算，不会阻塞事件循环线程
+     * @return 获取成功返回0，否则返回下一个令牌生成需要等待的纳秒数
+     * */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * permitsPerNanos);
+        lastRefillNanos = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / permitsPerNanos);
+    }
+}
@@ -2,6 +2,7 @@ package com.damai.property;
 
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
 import org.springframework.stereotype.Component;
 
 /**
@@ -11,6 +12,7 @@ import org.springframework.stereotype.Component;
  **/
 @Data
 @Component
+@RefreshScope
 public class GatewayProperty {
     /**
      * 需要做频率限制的路径
@@ -30,6 +32,54 @@ public class GatewayProperty {
     @Value("${allow.normal.access:true}")
     private boolean allowNormalAccess;
     
+    /**
+     * 请求体的最大字节数，超过时返回413
+     */
+    @Value("${request.body.max-size:2097152}")
+    private int maxBodySize;
+    
+    /**
+     * 需要加密的响应体的最大字节数，加密前要聚合完整的响应体，超过时返回错误信息
+     */
+    @Value("${response.body.max-size:2097152}")
+    private int maxResponseBodySize;
+    
+    /**
+     * 普通规则是否在本地预聚合计数后批量刷新到redis
+     */
+    @Value("${api.rule.local-aggregation:false}")
+    private boolean apiRuleLocalAggregation;
+    
+    /**
+     * 本地预聚合计数刷新到redis的间隔(毫秒)
+     */
+    @Value("${api.rule.local-flush-interval:10}")
+    private long apiRuleLocalFlushInterval;
+    
+    /**
+     * api调用记录发送缓冲的容量，写满时覆盖最旧的记录
+     */
+    @Value("${api.data.buffer-size:8192}")
+    private int apiDataBufferSize;
+    
+    /**
+     * api调用记录合并成一条kafka消息的最大条数
+     */
+    @Value("${api.data.batch-size:200}")
+    private int apiDataBatchSize;
+    
+    /**
+     * api调用记录发送的间隔(毫秒)
+     */
+    @Value("${api.data.flush-interval:500}")
+    private long apiDataFlushInterval;
+    
+    /**
+     * 没有触发规则的调用的采样率，0到1之间，0为不记录
+     */
+    @Value("${api.data.sample-rate:0}")
+    private double apiDataSampleRate;
+    
     @Value("${userId.paths:/**/program/detail,/**/program/detail/v1,/**/program/detail/v2}")
     private String[] userIdPaths;
 }
@@ -19,4 +19,14 @@ public class ApiRestrictData {
     private Long threshold;
     
     private Long messageIndex;
+    
+    /**
+     * 触发的限制key剩余的限制时间(毫秒)，没有限制时为0
+     * */
+    private Long limitTtl;
+    
+    /**
+     * 触发规则后的提示信息，不由lua返回
+     * */
+    private String message;
 }
@@ -1,40 +1,36 @@
 package com.damai.service;
 
-import cn.hutool.core.collection.CollectionUtil;
-import cn.hutool.core.date.DateUtil;
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
 import com.baidu.fsg.uid.UidGenerator;
 import com.damai.core.RedisKeyManage;
 import com.damai.util.StringUtil;
 import com.damai.dto.ApiDataDto;
 import com.damai.enums.ApiRuleType;
 import com.damai.enums.BaseCode;
-import com.damai.enums.RuleTimeUnit;
 import com.damai.exception.DaMaiFrameException;
-import com.damai.kafka.ApiDataMessageSend;
+import com.damai.kafka.ApiDataBuffer;
+import com.damai.path.PathPolicy;
 import com.damai.property.GatewayProperty;
-import com.damai.redis.RedisCache;
 import com.damai.redis.RedisKeyBuild;
 import com.damai.service.lua.ApiRestrictCacheOperate;
+import com.damai.service.rule.ApiRuleHolder;
+import com.damai.service.rule.CompiledDepthRule;
+import com.damai.service.rule.CompiledRule;
+import com.damai.service.rule.CompiledRuleSet;
+import com.damai.service.rule.LocalApiRuleCounter;
 import com.damai.util.DateUtils;
-import com.damai.vo.DepthRuleVo;
-import com.damai.vo.RuleVo;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Component;
-import org.springframework.util.AntPathMatcher;
-import org.springframework.util.PathMatcher;
+import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
@@ -45,14 +41,11 @@ import java.util.stream.Collectors;
 @Component
 public class ApiRestrictService {
     
-    @Autowired
-    private RedisCache redisCache;
-    
     @Autowired
     private GatewayProperty gatewayProperty;
     
     @Autowired(required = false)
-    private ApiDataMessageSend apiDataMessageSend;
+    private ApiDataBuffer apiDataBuffer;
     
     @Autowired
     private ApiRestrictCacheOperate apiRestrictCacheOperate;
@@ -60,159 +53,135 @@ public class ApiRestrictService {
     @Autowired
     private UidGenerator uidGenerator;
     
-    public boolean checkApiRestrict(String requestUri){
-        if (gatewayProperty.getApiRestrictPaths() != null) {
-            for (String apiRestrictPath : gatewayProperty.getApiRestrictPaths()) {
-                PathMatcher matcher = new AntPathMatcher();
-                if(matcher.match(apiRestrictPath, requestUri)){
-                    return true;
-                }
-            }
+    @Autowired
+    private ApiRuleHolder apiRuleHolder;
+    
+    @Autowired
+    private LocalApiRuleCounter localApiRuleCounter;
+    
+    public Mono<Void> apiRestrict(String id, String url, ServerHttpRequest request, Set<PathPolicy> pathPolicies) {
+        if (!pathPolicies.contains(PathPolicy.API_RESTRICT)) {
+            return Mono.empty();
+        }
+        CompiledRuleSet compiledRuleSet = apiRuleHolder.get();
+        if (!compiledRuleSet.hasRule()) {
+            return Mono.fromRunnable(() -> sampleApiData(request, url));
+        }
+        String ip = getIpAddress(request);
+        
+        StringBuilder stringBuilder = new StringBuilder(ip);
+        if (StringUtil.isNotEmpty(id)) {
+            stringBuilder.append("_").append(id);
         }
-        return false;
+        String commonKey = stringBuilder.append("_").append(url).toString();
+        
+        return executeRule(commonKey, compiledRuleSet)
+                .onErrorResume(e -> {
+                    log.error("redis Lua eror", e);
+                    return Mono.empty();
+                })
+                .flatMap(apiRestrictData -> {
+                    if (apiRestrictData.getTriggerResult() != 1) {
+                        return Mono.empty();
+                    }
+                    long triggerCallStat = apiRestrictData.getTriggerCallStat();
+                    String defaultMessage = BaseCode.API_RULE_TRIGGER.getMsg();
+                    if (StringUtil.isNotEmpty(apiRestrictData.getMessage())) {
+                        defaultMessage = apiRestrictData.getMessage();
+                    }
+                    Mono<Void> trigger = Mono.error(new DaMaiFrameException(BaseCode.API_RULE_TRIGGER.getCode(),defaultMessage));
+                    if (triggerCallStat == ApiRuleType.RULE.getCode() || triggerCallStat == ApiRuleType.DEPTH_RULE.getCode()) {
+                        //只写入发送缓冲，由后台线程批量发送到kafka
+                        try {
+                            saveApiData(request, url, (int)triggerCallStat);
+                        }catch (Exception e) {
+                            log.error("saveApiData error", e);
+                        }
+                    }
+                    return trigger;
+                })
+                .switchIfEmpty(Mono.fromRunnable(() -> sampleApiData(request, url)));
     }
     
-    public void apiRestrict(String id, String url, ServerHttpRequest request) {
-        if (checkApiRestrict(url)) {
-            long triggerResult = 0L;
-            long triggerCallStat = 0L;
-            long apiCount;
-            long threshold;
-            long messageIndex;
-            String message = "";
-            
-            String ip = getIpAddress(request);
-            
-            StringBuilder stringBuilder = new StringBuilder(ip);
-            if (StringUtil.isNotEmpty(id)) {
-                stringBuilder.append("_").append(id);
+    private Mono<ApiRestrictData> executeRule(String commonKey, CompiledRuleSet compiledRuleSet){
+        CompiledRule rule = compiledRuleSet.getRule();
+        List<CompiledDepthRule> depthRules = compiledRuleSet.getDepthRules();
+        int apiRuleType = compiledRuleSet.hasDepthRule() ? ApiRuleType.DEPTH_RULE.getCode() : ApiRuleType.RULE.getCode();
+        long currentTime = System.currentTimeMillis();
+        
+        String ruleKey = "rule_api_limit_sliding" + "_" + commonKey;
+        List<String> limitKeys = new ArrayList<>(1 + depthRules.size());
+        limitKeys.add(RedisKeyBuild.createRedisKey(RedisKeyManage.RULE_LIMIT,commonKey).getRelKey());
+        if (apiRuleType == ApiRuleType.DEPTH_RULE.getCode()) {
+            for (int i = 0; i < depthRules.size(); i++) {
+                limitKeys.add(RedisKeyBuild.createRedisKey(RedisKeyManage.DEPTH_RULE_LIMIT,i,commonKey).getRelKey());
             }
-            String commonKey = stringBuilder.append("_").append(url).toString();
-            try {
-                List<DepthRuleVo> depthRuleVoList = new ArrayList<>();
-          
-                RuleVo ruleVo = redisCache.getForHash(RedisKeyBuild.createRedisKey(RedisKeyManage.ALL_RULE_HASH), RedisKeyBuild.createRedisKey(RedisKeyManage.RULE).getRelKey(),RuleVo.class);
-  
-                String depthRuleStr = redisCache.getForHash(RedisKeyBuild.createRedisKey(RedisKeyManage.ALL_RULE_HASH), RedisKeyBuild.createRedisKey(RedisKeyManage.DEPTH_RULE).getRelKey(),String.class);
-                if (StringUtil.isNotEmpty(depthRuleStr)) {
-                    depthRuleVoList = JSON.parseArray(depthRuleStr,DepthRuleVo.class);
-                }
-             
-                int apiRuleType = ApiRuleType.NO_RULE.getCode();
-                if (Optional.ofNullable(ruleVo).isPresent()) {
-                    apiRuleType = ApiRuleType.RULE.getCode();
-                    message = ruleVo.getMessage();
-                }
-                if (Optional.ofNullable(ruleVo).isPresent() && CollectionUtil.isNotEmpty(depthRuleVoList)) {
-                    apiRuleType = ApiRuleType.DEPTH_RULE.getCode();
-                }
-                if (apiRuleType == ApiRuleType.RULE.getCode() || apiRuleType == ApiRuleType.DEPTH_RULE.getCode()) {
-                    
-                    assert ruleVo != null;
-                    JSONObject parameter = getRuleParameter(apiRuleType,commonKey,ruleVo);
-                    
-                    if (apiRuleType == ApiRuleType.DEPTH_RULE.getCode()) {
-                        
-                        parameter = getDepthRuleParameter(parameter,commonKey,depthRuleVoList);
-                    }
-                    ApiRestrictData apiRestrictData = apiRestrictCacheOperate
-                            .apiRuleOperate(Collections.singletonList(JSON.toJSONString(parameter)), new Object[]{});
-                    
-                    triggerResult = apiRestrictData.getTriggerResult();
-             
-                    triggerCallStat = apiRestrictData.getTriggerCallStat();
-                
-                    apiCount = apiRestrictData.getApiCount();
-                  
-                    threshold = apiRestrictData.getThreshold();
-             
-                    messageIndex = apiRestrictData.getMessageIndex();
-                    if (messageIndex != -1) {
-                        message = Optional.ofNullable(depthRuleVoList.get((int)messageIndex))
-                                .map(DepthRuleVo::getMessage)
-                                .filter(StringUtil::isNotEmpty)
-                                .orElse(message);
-                    }
-                    log.info("api rule [key : {}], [triggerResult : {}], [triggerCallStat : {}], [apiCount : {}], [threshold : {}]",commonKey,triggerResult,triggerCallStat,apiCount,threshold);
-                }
-            }catch (Exception e) {
-                log.error("redis Lua eror", e);
+        }
+        boolean localAggregation = gatewayProperty.isApiRuleLocalAggregation();
+        if (localAggregation) {
+            LocalApiRuleCounter.CheckResult checkResult = localApiRuleCounter.check(ruleKey, limitKeys, 
+                    rule.getStatTime() * 1000, rule.getThreshold(), currentTime);
+            if (checkResult == LocalApiRuleCounter.CheckResult.PASS) {
+                return Mono.empty();
             }
-            if (triggerResult == 1) {
-                if (triggerCallStat == ApiRuleType.RULE.getCode() || triggerCallStat == ApiRuleType.DEPTH_RULE.getCode()) {
-                    saveApiData(request, url, (int)triggerCallStat);
-                }
-                String defaultMessage = BaseCode.API_RULE_TRIGGER.getMsg();
-                if (StringUtil.isNotEmpty(message)) {
-                    defaultMessage = message;
-                }
-                throw new DaMaiFrameException(BaseCode.API_RULE_TRIGGER.getCode(),defaultMessage);
+            if (checkResult == LocalApiRuleCounter.CheckResult.LIMITED) {
+                ApiRestrictData apiRestrictData = new ApiRestrictData();
+                apiRestrictData.setTriggerResult(1L);
+                apiRestrictData.setTriggerCallStat(0L);
+                apiRestrictData.setMessageIndex(-1L);
+                apiRestrictData.setMessage(Optional.ofNullable(localApiRuleCounter.getLimitedMessage(ruleKey)).orElse(rule.getMessage()));
+                return Mono.just(apiRestrictData);
             }
         }
-    }
-    
-    public JSONObject getRuleParameter(int apiRuleType, String commonKey, RuleVo ruleVo){
-        JSONObject parameter = new JSONObject();
-        
-        parameter.put("apiRuleType",apiRuleType);
-        
-        String ruleKey = "rule_api_limit" + "_" + commonKey;
-        parameter.put("ruleKey",ruleKey);
-        
-        parameter.put("statTime",String.valueOf(Objects.equals(ruleVo.getStatTimeType(), RuleTimeUnit.SECOND.getCode()) ? ruleVo.getStatTime() : ruleVo.getStatTime() * 60));
         
-        parameter.put("threshold",ruleVo.getThreshold());
+        List<String> keys = new ArrayList<>(3 + depthRules.size());
+        keys.add(ruleKey);
+        keys.add(limitKeys.get(0));
+        keys.add(RedisKeyBuild.createRedisKey(RedisKeyManage.Z_SET_RULE_STAT,commonKey).getRelKey());
         
-        parameter.put("effectiveTime",String.valueOf(Objects.equals(ruleVo.getEffectiveTimeType(), RuleTimeUnit.SECOND.getCode()) ? ruleVo.getEffectiveTime() : ruleVo.getEffectiveTime() * 60));
+        List<String> args = new ArrayList<>(6 + depthRules.size() * 5);
+        args.add(String.valueOf(apiRuleType));
+        args.add(String.valueOf(rule.getStatTime()));
+        args.add(String.valueOf(rule.getThreshold()));
+        args.add(String.valueOf(rule.getEffectiveTime()));
+        args.add(String.valueOf(currentTime));
+        args.add(String.valueOf(depthRules.size()));
+        args.add("1");
         
-        parameter.put("ruleLimitKey", RedisKeyBuild.createRedisKey(RedisKeyManage.RULE_LIMIT,commonKey).getRelKey());
-        
-        parameter.put("zSetRuleStatKey", RedisKeyBuild.createRedisKey(RedisKeyManage.Z_SET_RULE_STAT,commonKey).getRelKey());
-        
-        return parameter;
-    }
-    
-    public JSONObject getDepthRuleParameter(JSONObject parameter,String commonKey,List<DepthRuleVo> depthRuleVoList){
-        depthRuleVoList = sortStartTimeWindow(depthRuleVoList);
-        
-        parameter.put("depthRuleSize",String.valueOf(depthRuleVoList.size()));
-        
-        parameter.put("currentTime",System.currentTimeMillis());
-        
-        List<JSONObject> depthRules = new ArrayList<>();
-        for (int i = 0; i < depthRuleVoList.size(); i++) {
-            JSONObject depthRule = new JSONObject();
-            DepthRuleVo depthRuleVo = depthRuleVoList.get(i);
-            
-            depthRule.put("statTime",Objects.equals(depthRuleVo.getStatTimeType(), RuleTimeUnit.SECOND.getCode()) ? depthRuleVo.getStatTime() : depthRuleVo.getStatTime() * 60);
-            
-            depthRule.put("threshold",depthRuleVo.getThreshold());
-            
-            depthRule.put("effectiveTime",String.valueOf(Objects.equals(depthRuleVo.getEffectiveTimeType(), RuleTimeUnit.SECOND.getCode()) ? depthRuleVo.getEffectiveTime() : depthRuleVo.getEffectiveTime() * 60));
-            
-            depthRule.put("depthRuleLimit", RedisKeyBuild.createRedisKey(RedisKeyManage.DEPTH_RULE_LIMIT,i,commonKey).getRelKey());
-            
-            depthRule.put("startTimeWindowTimestamp",depthRuleVo.getStartTimeWindowTimestamp());
-            depthRule.put("endTimeWindowTimestamp",depthRuleVo.getEndTimeWindowTimestamp());
-            
-            depthRules.add(depthRule);
+        if (apiRuleType == ApiRuleType.DEPTH_RULE.getCode()) {
+            long dayStart = compiledRuleSet.getDayStart(currentTime);
+            for (int i = 0; i < depthRules.size(); i++) {
+                CompiledDepthRule depthRule = depthRules.get(i);
+                keys.add(limitKeys.get(i + 1));
+                args.add(String.valueOf(dayStart + depthRule.getStartTimeWindowOffset()));
+                args.add(String.valueOf(dayStart + depthRule.getEndTimeWindowOffset()));
+                args.add(String.valueOf(depthRule.getStatTime()));
+                args.add(String.valueOf(depthRule.getThreshold()));
+                args.add(String.valueOf(depthRule.getEffectiveTime()));
+            }
         }
-        
-        parameter.put("depthRules",depthRules);
-        
-        return parameter;
-    }
-    
-    public List<DepthRuleVo> sortStartTimeWindow(List<DepthRuleVo> depthRuleVoList){
-        return depthRuleVoList.stream().peek(depthRuleVo -> {
-            depthRuleVo.setStartTimeWindowTimestamp(getTimeWindowTimestamp(depthRuleVo.getStartTimeWindow()));
-            depthRuleVo.setEndTimeWindowTimestamp((getTimeWindowTimestamp(depthRuleVo.getEndTimeWindow())));
-        }).sorted(Comparator.comparing(DepthRuleVo::getStartTimeWindowTimestamp)).collect(Collectors.toList());
-    }
-    
-    public long getTimeWindowTimestamp(String timeWindow){
-        String today = DateUtil.today();
-        return DateUtil.parse(today + " " + timeWindow).getTime();
+        return apiRestrictCacheOperate
+                .apiRuleOperate(keys, args)
+                .doOnNext(apiRestrictData -> {
+                    String message = rule.getMessage();
+                    long effectiveTime = rule.getEffectiveTime();
+                    long messageIndex = apiRestrictData.getMessageIndex();
+                    //lua中深度规则的下标从1开始
+                    if (messageIndex != -1) {
+                        CompiledDepthRule depthRule = depthRules.get((int)messageIndex - 1);
+                        effectiveTime = depthRule.getEffectiveTime();
+                        if (StringUtil.isNotEmpty(depthRule.getMessage())) {
+                            message = depthRule.getMessage();
+                        }
+                    }
+                    apiRestrictData.setMessage(message);
+                    if (localAggregation) {
+                        localApiRuleCounter.onRemoteResult(ruleKey, apiRestrictData, effectiveTime * 1000, currentTime);
+                    }
+                    log.info("api rule [key : {}], [triggerResult : {}], [triggerCallStat : {}], [apiCount : {}], [threshold : {}]",
+                            commonKey,apiRestrictData.getTriggerResult(),apiRestrictData.getTriggerCallStat(),
+                            apiRestrictData.getApiCount(),apiRestrictData.getThreshold());
+                });
     }
     
     /**
@@ -252,7 +221,25 @@ public class ApiRestrictService {
         return ip;
     }
     
+    /**
+     * 按采样率记录没有触发规则的调用
+     * */
+    private void sampleApiData(ServerHttpRequest request, String apiUrl){
+        double sampleRate = gatewayProperty.getApiDataSampleRate();
+        if (Objects.isNull(apiDataBuffer) || sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        try {
+            saveApiData(request, apiUrl, ApiRuleType.NO_RULE.getCode());
+        }catch (Exception e) {
+            log.error("sampleApiData error", e);
+        }
+    }
+    
     public void saveApiData(ServerHttpRequest request, String apiUrl, Integer type){
+        if (Objects.isNull(apiDataBuffer)) {
+            return;
+        }
         ApiDataDto apiDataDto = new ApiDataDto();
         apiDataDto.setId(uidGenerator.getUid());
         apiDataDto.setApiAddress(getIpAddress(request));
@@ -263,6 +250,6 @@ public class ApiRestrictService {
         apiDataDto.setCallMinuteTime(DateUtils.nowStr(DateUtils.FORMAT_MINUTE));
         apiDataDto.setCallSecondTime(DateUtils.nowStr(DateUtils.FORMAT_SECOND));
         apiDataDto.setType(type);
-        Optional.ofNullable(apiDataMessageSend).ifPresent(send -> send.sendMessage(JSON.toJSONString(apiDataDto)));
+        apiDataBuffer.offer(apiDataDto);
     }
 }
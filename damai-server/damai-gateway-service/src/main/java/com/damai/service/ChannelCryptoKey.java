@@ -0,0 +1,90 @@
+package com.damai.service;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.util.RsaSignTool;
+import com.damai.util.RsaTool;
+import com.damai.vo.GetChannelDataVo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Objects;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 渠道解析后的密钥，每个密钥在第一次使用时解析，之后直接复用
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+public class ChannelCryptoKey {
+    
+    private final String signPublicKeyStr;
+    
+    private final String dataPublicKeyStr;
+    
+    private final String dataSecretKeyStr;
+    
+    private volatile PublicKey signPublicKey;
+    
+    private volatile PublicKey dataPublicKey;
+    
+    private volatile PrivateKey dataSecretKey;
+    
+    public ChannelCryptoKey(GetChannelDataVo getChannelDataVo) {
+        this.signPublicKeyStr = getChannelDataVo.getSignPublicKey();
+        this.dataPublicKeyStr = getChannelDataVo.getDataPublicKey();
+        this.dataSecretKeyStr = getChannelDataVo.getDataSecretKey();
+    }
+    
+    /**
+     * 渠道数据中的密钥是否和解析时的一致
+     * */
+    public boolean matches(GetChannelDataVo getChannelDataVo) {
+        return Objects.equals(signPublicKeyStr, getChannelDataVo.getSignPublicKey()) 
+                && Objects.equals(dataPublicKeyStr, getChannelDataVo.getDataPublicKey()) 
+                && Objects.equals(dataSecretKeyStr, getChannelDataVo.getDataSecretKey());
+    }
+    
+    public PublicKey getSignPublicKey() {
+        PublicKey key = signPublicKey;
+        if (Objects.isNull(key)) {
+            try {
+                key = RsaSignTool.getPublicKey(signPublicKeyStr);
+            }catch (Exception e) {
+                log.error("parse sign public key error",e);
+                throw new DaMaiFrameException(BaseCode.RSA_SIGN_ERROR);
+            }
+            signPublicKey = key;
+        }
+        return key;
+    }
+    
+    public PublicKey getDataPublicKey() {
+        PublicKey key = dataPublicKey;
+        if (Objects.isNull(key)) {
+            try {
+                key = RsaTool.getPublicKey(dataPublicKeyStr);
+            }catch (Exception e) {
+                log.error("parse data public key error",e);
+                throw new DaMaiFrameException(BaseCode.RSA_ENCRYPT_ERROR);
+            }
+            dataPublicKey = key;
+        }
+        return key;
+    }
+    
+    public PrivateKey getDataSecretKey() {
+        PrivateKey key = dataSecretKey;
+        if (Objects.isNull(key)) {
+            try {
+                key = RsaTool.getPrivateKey(dataSecretKeyStr);
+            }catch (Exception e) {
+                log.error("parse data secret key error",e);
+                throw new DaMaiFrameException(BaseCode.RSA_DECRYPT_ERROR);
+            }
+            dataSecretKey = key;
+        }
+        return key;
+    }
+}
@@ -1,5 +1,6 @@
 package com.damai.service;
 
+import com.alibaba.fastjson.JSON;
 import com.damai.client.BaseDataClient;
 import com.damai.common.ApiResponse;
 import com.damai.core.RedisKeyManage;
@@ -8,22 +9,21 @@ import com.damai.enums.BaseCode;
 import com.damai.exception.ArgumentError;
 import com.damai.exception.ArgumentException;
 import com.damai.exception.DaMaiFrameException;
-import com.damai.redis.RedisCache;
 import com.damai.redis.RedisKeyBuild;
 import com.damai.util.StringUtil;
 import com.damai.vo.GetChannelDataVo;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static com.damai.constant.GatewayConstant.CODE;
@@ -39,15 +39,17 @@ public class ChannelDataService {
     
     private final static String EXCEPTION_MESSAGE = "code参数为空";
     
+    private final static Duration CLIENT_TIMEOUT = Duration.ofSeconds(10);
+    
     @Lazy
     @Autowired
     private BaseDataClient baseDataClient;
     
     @Autowired
-    private RedisCache redisCache;
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
     
     @Autowired
-    private ThreadPoolExecutor threadPoolExecutor;
+    private CryptoKeyCache cryptoKeyCache;
     
     public void checkCode(String code){
         if (StringUtil.isEmpty(code)) {
@@ -60,46 +62,53 @@ public class ChannelDataService {
         }
     }
     
-    public GetChannelDataVo getChannelDataByCode(String code){
-        checkCode(code);
-        GetChannelDataVo channelDataVo = getChannelDataByRedis(code);
-        if (Objects.isNull(channelDataVo)) {
-            channelDataVo = getChannelDataByClient(code);
-            setChannelDataRedis(code,channelDataVo);
-        }
-        return channelDataVo;
+    public Mono<GetChannelDataVo> getChannelDataByCode(String code){
+        return Mono.defer(() -> {
+            checkCode(code);
+            return getChannelDataByRedis(code)
+                    .switchIfEmpty(Mono.defer(() -> getChannelDataByClient(code)
+                            .flatMap(channelDataVo -> setChannelDataRedis(code, channelDataVo))));
+        });
     }
     
-    private GetChannelDataVo getChannelDataByRedis(String code){
-        return redisCache.get(RedisKeyBuild.createRedisKey(RedisKeyManage.CHANNEL_DATA,code),GetChannelDataVo.class);
+    private Mono<GetChannelDataVo> getChannelDataByRedis(String code){
+        return reactiveStringRedisTemplate.opsForValue()
+                .get(RedisKeyBuild.createRedisKey(RedisKeyManage.CHANNEL_DATA,code).getRelKey())
+                .filter(StringUtil::isNotEmpty)
+                .map(channelData -> JSON.parseObject(channelData, GetChannelDataVo.class));
     }
     
-    private void setChannelDataRedis(String code,GetChannelDataVo getChannelDataVo){
-        redisCache.set(RedisKeyBuild.createRedisKey(RedisKeyManage.CHANNEL_DATA,code),getChannelDataVo);
+    private Mono<GetChannelDataVo> setChannelDataRedis(String code,GetChannelDataVo getChannelDataVo){
+        cryptoKeyCache.invalidate(code);
+        return reactiveStringRedisTemplate.opsForValue()
+                .set(RedisKeyBuild.createRedisKey(RedisKeyManage.CHANNEL_DATA,code).getRelKey(), JSON.toJSONString(getChannelDataVo))
+                .thenReturn(getChannelDataVo);
     }
     
-    private GetChannelDataVo getChannelDataByClient(String code){
+    /**
+     * feign调用是阻塞的，放到boundedElastic中执行，避免占用netty的事件循环线程
+     * */
+    private Mono<GetChannelDataVo> getChannelDataByClient(String code){
         GetChannelDataByCodeDto getChannelDataByCodeDto = new GetChannelDataByCodeDto();
         getChannelDataByCodeDto.setCode(code);
         
-        Future<ApiResponse<GetChannelDataVo>> future = 
-                threadPoolExecutor.submit(() -> baseDataClient.getByCode(getChannelDataByCodeDto));
-        try {
-            ApiResponse<GetChannelDataVo> getChannelDataApiResponse = future.get(10, TimeUnit.SECONDS);
-            if (Objects.equals(getChannelDataApiResponse.getCode(), BaseCode.SUCCESS.getCode())) {
-                return getChannelDataApiResponse.getData();
-            }
-        } catch (InterruptedException e) {
-            log.error("baseDataClient getByCode Interrupted",e);
-            throw new DaMaiFrameException(BaseCode.THREAD_INTERRUPTED);
-        } catch (ExecutionException e) {
-            log.error("baseDataClient getByCode execution exception",e);
-            throw new DaMaiFrameException(BaseCode.SYSTEM_ERROR);
-        } catch (TimeoutException e) {
-            log.error("baseDataClient getByCode timeout exception",e);
-            throw new DaMaiFrameException(BaseCode.EXECUTE_TIME_OUT);
-        }
-        
-        throw new DaMaiFrameException(BaseCode.CHANNEL_DATA_NOT_EXIST);
+        return Mono.fromCallable(() -> baseDataClient.getByCode(getChannelDataByCodeDto))
+                .subscribeOn(Schedulers.boundedElastic())
+                .timeout(CLIENT_TIMEOUT)
+                .onErrorMap(TimeoutException.class, e -> {
+                    log.error("baseDataClient getByCode timeout exception",e);
+                    return new DaMaiFrameException(BaseCode.EXECUTE_TIME_OUT);
+                })
+                .onErrorMap(e -> !(e instanceof DaMaiFrameException), e -> {
+                    log.error("baseDataClient getByCode execution exception",e);
+                    return new DaMaiFrameException(BaseCode.SYSTEM_ERROR);
+                })
+                .flatMap(getChannelDataApiResponse -> {
+                    if (Objects.equals(getChannelDataApiResponse.getCode(), BaseCode.SUCCESS.getCode()) 
+                            && Objects.nonNull(getChannelDataApiResponse.getData())) {
+                        return Mono.just(getChannelDataApiResponse.getData());
+                    }
+                    return Mono.<GetChannelDataVo>error(new DaMaiFrameException(BaseCode.CHANNEL_DATA_NOT_EXIST));
+                });
     }
 }
@@ -0,0 +1,89 @@
+package com.damai.service;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.util.RsaSignTool;
+import com.damai.util.RsaTool;
+import com.damai.vo.GetChannelDataVo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 按渠道缓存解析后的密钥，避免每次请求都进行base64解码和KeyFactory解析
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+@Component
+public class CryptoKeyCache {
+    
+    private final Map<String, ChannelCryptoKey> channelCryptoKeyMap = new ConcurrentHashMap<>(16);
+    
+    /**
+     * 获取渠道的密钥，渠道数据中的密钥发生变化时重新解析
+     * */
+    public ChannelCryptoKey get(String code, GetChannelDataVo getChannelDataVo) {
+        ChannelCryptoKey channelCryptoKey = channelCryptoKeyMap.get(code);
+        if (Objects.isNull(channelCryptoKey) || !channelCryptoKey.matches(getChannelDataVo)) {
+            channelCryptoKey = new ChannelCryptoKey(getChannelDataVo);
+            channelCryptoKeyMap.put(code, channelCryptoKey);
+        }
+        return channelCryptoKey;
+    }
+    
+    public void invalidate(String code) {
+        channelCryptoKeyMap.remove(code);
+    }
+    
+    public boolean verifySign(String code, GetChannelDataVo getChannelDataVo, Map<String, String> params) {
+        return RsaSignTool.verifyRsaSign256(params, get(code, getChannelDataVo).getSignPublicKey());
+    }
+    
+    public String encrypt(String code, GetChannelDataVo getChannelDataVo, String data) {
+        try {
+            return RsaTool.encrypt(data, get(code, getChannelDataVo).getDataPublicKey());
+        }catch (DaMaiFrameException e) {
+            throw e;
+        }catch (Exception e) {
+            log.error("encrypt error",e);
+            throw new DaMaiFrameException(BaseCode.RSA_ENCRYPT_ERROR);
+        }
+    }
+    
+    public String decrypt(String code, GetChannelDataVo getChannelDataVo, String data) {
+        try {
+            return RsaTool.decrypt(data, get(code, getChannelDataVo).getDataSecretKey());
+        }catch (DaMaiFrameException e) {
+            throw e;
+        }catch (Exception e) {
+            log.error("decrypt error",e);
+            throw new DaMaiFrameException(BaseCode.RSA_DECRYPT_ERROR);
+        }
+    }
+    
+    public String hybridEncrypt(String code, GetChannelDataVo getChannelDataVo, String data) {
+        try {
+            return RsaTool.hybridEncrypt(data, get(code, getChannelDataVo).getDataPublicKey());
+        }catch (DaMaiFrameException e) {
+            throw e;
+        }catch (Exception e) {
+            log.error("hybrid encrypt error",e);
+            throw new DaMaiFrameException(BaseCode.RSA_ENCRYPT_ERROR);
+        }
+    }
+    
+    public String hybridDecrypt(String code, GetChannelDataVo getChannelDataVo, String data) {
+        try {
+            return RsaTool.hybridDecrypt(data, get(code, getChannelDataVo).getDataSecretKey());
+        }catch (DaMaiFrameException e) {
+            throw e;
+        }catch (Exception e) {
+            log.error("hybrid decrypt error",e);
+            throw new DaMaiFrameException(BaseCode.RSA_DECRYPT_ERROR);
+        }
+    }
+}
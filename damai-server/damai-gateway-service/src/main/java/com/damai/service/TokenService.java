@@ -1,18 +1,18 @@
 package com.damai.service;
 
+import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.damai.core.RedisKeyManage;
 import com.damai.util.StringUtil;
 import com.damai.enums.BaseCode;
 import com.damai.exception.DaMaiFrameException;
 import com.damai.jwt.TokenUtil;
-import com.damai.redis.RedisCache;
 import com.damai.redis.RedisKeyBuild;
 import com.damai.vo.UserVo;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.stereotype.Component;
-
-import java.util.Optional;
+import reactor.core.publisher.Mono;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
@@ -24,7 +24,7 @@ import java.util.Optional;
 public class TokenService {
     
     @Autowired
-    private RedisCache redisCache;
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
     
     public String parseToken(String token,String tokenSecret){
         String userStr = TokenUtil.parseToken(token,tokenSecret);
@@ -34,12 +34,17 @@ public class TokenService {
         return null;
     }
     
-    public UserVo getUser(String token,String code,String tokenSecret){
-        UserVo userVo = null;
-        String userId = parseToken(token,tokenSecret);
-        if (StringUtil.isNotEmpty(userId)) {
-            userVo = redisCache.get(RedisKeyBuild.createRedisKey(RedisKeyManage.USER_LOGIN, code, userId), UserVo.class);
-        }
-        return Optional.ofNullable(userVo).orElseThrow(() -> new DaMaiFrameException(BaseCode.LOGIN_USER_NOT_EXIST));
+    public Mono<UserVo> getUser(String token,String code,String tokenSecret){
+        return Mono.defer(() -> {
+            String userId = parseToken(token,tokenSecret);
+            if (StringUtil.isEmpty(userId)) {
+                return Mono.<String>empty();
+            }
+            return reactiveStringRedisTemplate.opsForValue()
+                    .get(RedisKeyBuild.createRedisKey(RedisKeyManage.USER_LOGIN, code, userId).getRelKey());
+        })
+        .filter(StringUtil::isNotEmpty)
+        .map(userStr -> JSON.parseObject(userStr, UserVo.class))
+        .switchIfEmpty(Mono.error(() -> new DaMaiFrameException(BaseCode.LOGIN_USER_NOT_EXIST)));
     }
 }
@@ -1,16 +1,17 @@
 package com.damai.service.lua;
 
 import com.alibaba.fastjson.JSON;
-import com.damai.redis.RedisCache;
 import com.damai.service.ApiRestrictData;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
 
 import jakarta.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -23,7 +24,7 @@ import java.util.List;
 public class ApiRestrictCacheOperate {
     
     @Autowired
-    private RedisCache redisCache;
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
     
     private DefaultRedisScript<String> redisScript;
     
@@ -31,15 +32,17 @@ public class ApiRestrictCacheOperate {
     public void init(){
         try {
             redisScript = new DefaultRedisScript<>();
-            redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/apiLimit.lua")));
+            //脚本内容在初始化时读入内存，执行时计算sha1和NOSCRIPT后重新加载都不会在事件循环中读取classpath
+            redisScript.setScriptText(new ClassPathResource("lua/apiLimit.lua").getContentAsString(StandardCharsets.UTF_8));
             redisScript.setResultType(String.class);
         } catch (Exception e) {
             log.error("redisScript init lua error",e);
         }
     }
     
-    public ApiRestrictData apiRuleOperate(List<String> keys, Object[] args){
-        Object object = redisCache.getInstance().execute(redisScript, keys, args);
-        return JSON.parseObject((String)object, ApiRestrictData.class);
+    public Mono<ApiRestrictData> apiRuleOperate(List<String> keys, List<String> args){
+        return reactiveStringRedisTemplate.execute(redisScript, keys, args)
+                .next()
+                .map(result -> JSON.parseObject(result, ApiRestrictData.class));
     }
 }
@@ -0,0 +1,100 @@
+package com.damai.service.rule;
+
+import com.damai.core.RedisKeyManage;
+import com.damai.redis.RedisKeyBuild;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 持有预编译的规则，请求时直接读取本地规则
+ * 规则变更时customize服务会递增版本并通过pub/sub通知，另外定时对比版本防止通知丢失
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+@Component
+public class ApiRuleHolder {
+    
+    @Autowired
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+    
+    @Value("${api.rule.version-check-interval:30}")
+    private long versionCheckInterval;
+    
+    private final AtomicReference<CompiledRuleSet> compiledRuleSetReference = new AtomicReference<>(CompiledRuleSet.EMPTY);
+    
+    private final Disposable.Composite disposables = Disposables.composite();
+    
+    @PostConstruct
+    public void init(){
+        String channel = RedisKeyBuild.createRedisKey(RedisKeyManage.ALL_RULE_CHANGE_CHANNEL).getRelKey();
+        disposables.add(reactiveStringRedisTemplate.listenToChannel(channel)
+                .concatMap(message -> reload().onErrorResume(e -> {
+                    log.error("reload api rule error", e);
+                    return Mono.empty();
+                }))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+                .subscribe());
+        disposables.add(Flux.interval(Duration.ZERO, Duration.ofSeconds(versionCheckInterval))
+                .onBackpressureDrop()
+                .concatMap(tick -> reloadIfChanged().onErrorResume(e -> {
+                    log.error("check api rule version error", e);
+                    return Mono.empty();
+                }))
+                .subscribe());
+    }
+    
+    @PreDestroy
+    public void destroy(){
+        disposables.dispose();
+    }
+    
+    public CompiledRuleSet get(){
+        return compiledRuleSetReference.get();
+    }
+    
+    private Mono<Void> reloadIfChanged(){
+        return getVersion()
+                .filter(version -> version != compiledRuleSetReference.get().getVersion())
+                .flatMap(version -> reload());
+    }
+    
+    /**
+     * 先读取版本再读取规则，读取期间规则又发生了变化时，会被下一次通知或者定时检查重新加载
+     * */
+    public Mono<Void> reload(){
+        String allRuleHashKey = RedisKeyBuild.createRedisKey(RedisKeyManage.ALL_RULE_HASH).getRelKey();
+        ReactiveHashOperations<String, String, String> hashOperations = reactiveStringRedisTemplate.opsForHash();
+        return getVersion()
+                .flatMap(version -> Mono.zip(
+                        hashOperations.get(allRuleHashKey, RedisKeyBuild.createRedisKey(RedisKeyManage.RULE).getRelKey()).defaultIfEmpty(""),
+                        hashOperations.get(allRuleHashKey, RedisKeyBuild.createRedisKey(RedisKeyManage.DEPTH_RULE).getRelKey()).defaultIfEmpty(""))
+                        .map(ruleValues -> CompiledRuleSet.compile(version, ruleValues.getT1(), ruleValues.getT2())))
+                .doOnNext(compiledRuleSet -> {
+                    compiledRuleSetReference.set(compiledRuleSet);
+                    log.info("reload api rule version : {} depthRuleSize : {}", compiledRuleSet.getVersion(), compiledRuleSet.getDepthRules().size());
+                })
+                .then();
+    }
+    
+    private Mono<Long> getVersion(){
+        return reactiveStringRedisTemplate.opsForValue()
+                .get(RedisKeyBuild.createRedisKey(RedisKeyManage.ALL_RULE_VERSION).getRelKey())
+                .map(Long::parseLong)
+                .defaultIfEmpty(0L);
+    }
+}
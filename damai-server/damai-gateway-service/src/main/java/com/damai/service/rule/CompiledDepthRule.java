@@ -0,0 +1,36 @@
+package com.damai.service.rule;
+
+import com.damai.vo.DepthRuleVo;
+import lombok.Getter;
+
+import java.time.LocalTime;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 预编译的深度规则，时间窗口保存为距离当天零点的毫秒数
+ * @author: 阿星不是程序员
+ **/
+@Getter
+public class CompiledDepthRule {
+    
+    private final long startTimeWindowOffset;
+    
+    private final long endTimeWindowOffset;
+    
+    private final long statTime;
+    
+    private final long threshold;
+    
+    private final long effectiveTime;
+    
+    private final String message;
+    
+    public CompiledDepthRule(DepthRuleVo depthRuleVo) {
+        this.startTimeWindowOffset = LocalTime.parse(depthRuleVo.getStartTimeWindow()).toSecondOfDay() * 1000L;
+        this.endTimeWindowOffset = LocalTime.parse(depthRuleVo.getEndTimeWindow()).toSecondOfDay() * 1000L;
+        this.statTime = CompiledRule.toSecond(depthRuleVo.getStatTime(), depthRuleVo.getStatTimeType());
+        this.threshold = depthRuleVo.getThreshold();
+        this.effectiveTime = CompiledRule.toSecond(depthRuleVo.getEffectiveTime(), depthRuleVo.getEffectiveTimeType());
+        this.message = depthRuleVo.getMessage();
+    }
+}
@@ -0,0 +1,35 @@
+package com.damai.service.rule;
+
+import com.damai.enums.RuleTimeUnit;
+import com.damai.vo.RuleVo;
+import lombok.Getter;
+
+import java.util.Objects;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 预编译的普通规则，时间统一换算为秒
+ * @author: 阿星不是程序员
+ **/
+@Getter
+public class CompiledRule {
+    
+    private final long statTime;
+    
+    private final long threshold;
+    
+    private final long effectiveTime;
+    
+    private final String message;
+    
+    public CompiledRule(RuleVo ruleVo) {
+        this.statTime = toSecond(ruleVo.getStatTime(), ruleVo.getStatTimeType());
+        this.threshold = ruleVo.getThreshold();
+        this.effectiveTime = toSecond(ruleVo.getEffectiveTime(), ruleVo.getEffectiveTimeType());
+        this.message = ruleVo.getMessage();
+    }
+    
+    static long toSecond(Integer time, Integer timeType) {
+        return Objects.equals(timeType, RuleTimeUnit.SECOND.getCode()) ? time : time * 60L;
+    }
+}
@@ -0,0 +1,95 @@
+package com.damai.service.rule;
+
+import com.alibaba.fastjson.JSON;
+import com.damai.util.StringUtil;
+import com.damai.vo.DepthRuleVo;
+import com.damai.vo.RuleVo;
+import lombok.Getter;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 预编译的规则集合，规则变更时整体替换，请求时只读
+ * 深度规则的时间窗口按当天零点换算为时间戳，跨过零点时自动切换到新的一天
+ * @author: 阿星不是程序员
+ **/
+public class CompiledRuleSet {
+    
+    public static final CompiledRuleSet EMPTY = new CompiledRuleSet(-1L, null, Collections.emptyList(), ZoneId.systemDefault());
+    
+    @Getter
+    private final long version;
+    
+    @Getter
+    private final CompiledRule rule;
+    
+    /**
+     * 按开始时间窗口排序
+     * */
+    @Getter
+    private final List<CompiledDepthRule> depthRules;
+    
+    private final ZoneId zoneId;
+    
+    /**
+     * 当天的零点和下一天的零点
+     * */
+    private volatile long[] dayWindow = new long[]{0, 0};
+    
+    CompiledRuleSet(long version, CompiledRule rule, List<CompiledDepthRule> depthRules, ZoneId zoneId) {
+        this.version = version;
+        this.rule = rule;
+        this.depthRules = depthRules;
+        this.zoneId = zoneId;
+    }
+    
+    public static CompiledRuleSet compile(long version, String ruleStr, String depthRuleStr) {
+        return compile(version, ruleStr, depthRuleStr, ZoneId.systemDefault());
+    }
+    
+    public static CompiledRuleSet compile(long version, String ruleStr, String depthRuleStr, ZoneId zoneId) {
+        if (StringUtil.isEmpty(ruleStr)) {
+            return new CompiledRuleSet(version, null, Collections.emptyList(), zoneId);
+        }
+        CompiledRule rule = new CompiledRule(JSON.parseObject(ruleStr, RuleVo.class));
+        List<CompiledDepthRule> depthRules = Collections.emptyList();
+        if (StringUtil.isNotEmpty(depthRuleStr)) {
+            depthRules = JSON.parseArray(depthRuleStr, DepthRuleVo.class).stream()
+                    .map(CompiledDepthRule::new)
+                    .sorted(Comparator.comparingLong(CompiledDepthRule::getStartTimeWindowOffset))
+                    .collect(Collectors.toUnmodifiableList());
+        }
+        return new CompiledRuleSet(version, rule, depthRules, zoneId);
+    }
+    
+    public boolean hasRule() {
+        return Objects.nonNull(rule);
+    }
+    
+    public boolean hasDepthRule() {
+        return !depthRules.isEmpty();
+    }
+    
+    /**
+     * 获取currentTime所在那一天零点的时间戳，只有跨天时才重新计算
+     * */
+    public long getDayStart(long currentTime) {
+        long[] window = dayWindow;
+        if (currentTime >= window[0] && currentTime < window[1]) {
+            return window[0];
+        }
+        LocalDate today = Instant.ofEpochMilli(currentTime).atZone(zoneId).toLocalDate();
+        long start = today.atStartOfDay(zoneId).toInstant().toEpochMilli();
+        long end = today.plusDays(1).atStartOfDay(zoneId).toInstant().toEpochMilli();
+        dayWindow = new long[]{start, end};
+        return start;
+    }
+}
@@ -0,0 +1,374 @@
+package com.damai.service.rule;
+
+import cn.hutool.core.collection.CollectionUtil;
+import com.damai.property.GatewayProperty;
+import com.damai.service.ApiRestrictData;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 普通规则的本地预聚合计数
+ * 每个网关节点先在本地按(规则key, 窗口)累加，定时把增量批量刷新到redis并取回全局计数，
+ * 请求时用 全局计数 + 本地未刷新的增量 估算滑动窗口的计数，估算值没有超过阈值时不访问redis，
+ * 超过阈值时才执行完整的lua规则，已知被限制的key在限制key剩余的时间内本地直接拒绝，
+ * 刷新时发现限制key存在(其他节点触发或者深度规则触发)的规则，之后的请求都走redis，直到取得限制结果
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+@Component
+public class LocalApiRuleCounter {
+    
+    /**
+     * 一次刷新脚本最多包含的规则数量，超过时分多次执行
+     * */
+    static final int MAX_FLUSH_RULE_SIZE = 200;
+    
+    /**
+     * 已经结束的窗口计数器在取走增量的同时被关闭，然后从map中移除，关闭的计数器不能再累加
+     * */
+    private static final long CLOSED = Long.MIN_VALUE;
+    
+    public enum CheckResult {
+        /**
+         * 本地估算没有超过阈值，直接通过
+         * */
+        PASS,
+        /**
+         * 本地已知处于限制中
+         * */
+        LIMITED,
+        /**
+         * 需要到redis中执行完整的规则，本地估算超过阈值或者redis中存在限制key
+         * */
+        REMOTE
+    }
+    
+    @Autowired
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+    
+    @Autowired
+    private GatewayProperty gatewayProperty;
+    
+    private final Map<String, RuleCounter> ruleCounterMap = new ConcurrentHashMap<>(256);
+    
+    private DefaultRedisScript<List> flushScript;
+    
+    private Disposable flushDisposable;
+    
+    @PostConstruct
+    public void init(){
+        try {
+            flushScript = new DefaultRedisScript<>();
+            //刷新在非阻塞的定时线程中执行，脚本内容提前读入内存
+            flushScript.setScriptText(new ClassPathResource("lua/apiLimitFlush.lua").getContentAsString(StandardCharsets.UTF_8));
+            flushScript.setResultType(List.class);
+        } catch (Exception e) {
+            log.error("redisScript init lua error",e);
+        }
+        if (gatewayProperty.isApiRuleLocalAggregation()) {
+            flushDisposable = Flux.interval(Duration.ofMillis(gatewayProperty.getApiRuleLocalFlushInterval()))
+                    .onBackpressureDrop()
+                    .concatMap(tick -> flush(System.currentTimeMillis()).onErrorResume(e -> {
+                        log.error("flush local api rule count error", e);
+                        return Mono.empty();
+                    }))
+                    .subscribe();
+        }
+    }
+    
+    @PreDestroy
+    public void destroy(){
+        if (Objects.nonNull(flushDisposable)) {
+            flushDisposable.dispose();
+        }
+    }
+    
+    /**
+     * @param limitKeys 规则的限制key，普通规则限制key和深度规则限制key，刷新时一起检查是否存在
+     * */
+    public CheckResult check(String ruleKey, List<String> limitKeys, long windowSize, long threshold, long currentTime){
+        RuleCounter ruleCounter = getRuleCounter(ruleKey, limitKeys, windowSize);
+        //请求线程取得的时间可能晚于其他线程，只向后更新，避免被误判为长时间没有访问而淘汰
+        if (currentTime > ruleCounter.lastAccessTime) {
+            ruleCounter.lastAccessTime = currentTime;
+        }
+        if (ruleCounter.limitedUntil > currentTime) {
+            return CheckResult.LIMITED;
+        }
+        if (ruleCounter.remoteUntil > currentTime) {
+            return CheckResult.REMOTE;
+        }
+        long windowIndex = currentTime / windowSize;
+        long windowElapsed = currentTime - windowIndex * windowSize;
+        long currentCount = ruleCounter.getGlobalCount(windowIndex) + ruleCounter.getPendingCount(windowIndex) + 1;
+        long previousCount = ruleCounter.getGlobalCount(windowIndex - 1) + ruleCounter.getPendingCount(windowIndex - 1);
+        long count = previousCount * (windowSize - windowElapsed) / windowSize + currentCount;
+        if (count < threshold) {
+            //计数器在这期间被淘汰时累加失败，重新取得新的计数器再检查一次
+            if (!ruleCounter.increment(windowIndex)) {
+                return check(ruleKey, limitKeys, windowSize, threshold, currentTime);
+            }
+            return CheckResult.PASS;
+        }
+        return CheckResult.REMOTE;
+    }
+    
+    public String getLimitedMessage(String ruleKey){
+        RuleCounter ruleCounter = ruleCounterMap.get(ruleKey);
+        return Objects.nonNull(ruleCounter) ? ruleCounter.limitedMessage : null;
+    }
+    
+    /**
+     * 记录redis中规则的执行结果，被限制时在限制key剩余的时间内本地直接拒绝
+     * @param effectiveTime 本次触发规则的限制时间(毫秒)，lua没有返回剩余的限制时间时使用
+     * */
+    public void onRemoteResult(String ruleKey, ApiRestrictData apiRestrictData, long effectiveTime, long currentTime){
+        RuleCounter ruleCounter = ruleCounterMap.get(ruleKey);
+        if (Objects.isNull(ruleCounter)) {
+            return;
+        }
+        ruleCounter.remoteUntil = 0;
+        if (apiRestrictData.getTriggerResult() != 1) {
+            return;
+        }
+        long limitTtl = Objects.nonNull(apiRestrictData.getLimitTtl()) ? apiRestrictData.getLimitTtl() : 0;
+        ruleCounter.limitedMessage = apiRestrictData.getMessage();
+        ruleCounter.limitedUntil = currentTime + (limitTtl > 0 ? limitTtl : effectiveTime);
+    }
+    
+    private RuleCounter getRuleCounter(String ruleKey, List<String> limitKeys, long windowSize){
+        RuleCounter ruleCounter = ruleCounterMap.get(ruleKey);
+        //规则的统计时间变化后，之前的计数不再有意义，并发创建时只保留一个，避免累加到被覆盖的计数器中
+        if (Objects.isNull(ruleCounter) || ruleCounter.windowSize != windowSize || ruleCounter.evicted) {
+            ruleCounter = ruleCounterMap.compute(ruleKey, (key, existing) -> Objects.nonNull(existing) && existing.windowSize == windowSize
+                    && !existing.evicted ? existing : new RuleCounter(ruleKey, limitKeys, windowSize));
+        }else if (!ruleCounter.limitKeys.equals(limitKeys)) {
+            ruleCounter.limitKeys = limitKeys;
+        }
+        return ruleCounter;
+    }
+    
+    /**
+     * 只刷新有增量的规则，没有请求的规则不需要全局计数，有请求时最多晚一个刷新间隔取得
+     * */
+    Mono<Void> flush(long currentTime){
+        Map<Long, List<FlushEntry>> flushEntryMap = new HashMap<>(4);
+        for (RuleCounter ruleCounter : ruleCounterMap.values()) {
+            long windowSize = ruleCounter.windowSize;
+            long windowIndex = currentTime / windowSize;
+            List<FlushEntry> flushEntryList = flushEntryMap.computeIfAbsent(windowSize, size -> new ArrayList<>());
+            if (currentTime - ruleCounter.lastAccessTime > windowSize * 2) {
+                //先标记淘汰，之后不会再创建窗口计数器，已有的计数器全部取空并关闭，剩余的增量在这次一起刷新
+                ruleCounter.evict();
+                ruleCounterMap.remove(ruleCounter.ruleKey, ruleCounter);
+                for (Map.Entry<Long, AtomicLong> entry : ruleCounter.pendingMap.entrySet()) {
+                    long delta = entry.getValue().getAndSet(CLOSED);
+                    if (delta > 0) {
+                        flushEntryList.add(new FlushEntry(ruleCounter, entry.getKey(), delta));
+                    }
+                }
+                continue;
+            }
+            for (Map.Entry<Long, AtomicLong> entry : ruleCounter.pendingMap.entrySet()) {
+                long pendingWindowIndex = entry.getKey();
+                if (pendingWindowIndex == windowIndex) {
+                    continue;
+                }
+                //取走增量和清零(或关闭)是一次原子操作，和请求线程的累加不会交错丢失，已经结束的窗口关闭后移除，之后的累加会重新创建计数器
+                AtomicLong pending = entry.getValue();
+                long delta;
+                if (pendingWindowIndex < windowIndex) {
+                    delta = pending.getAndSet(CLOSED);
+                    ruleCounter.pendingMap.remove(pendingWindowIndex, pending);
+                }else {
+                    delta = pending.getAndSet(0);
+                }
+                if (delta > 0) {
+                    flushEntryList.add(new FlushEntry(ruleCounter, pendingWindowIndex, delta));
+                }
+            }
+            AtomicLong currentPending = ruleCounter.pendingMap.get(windowIndex);
+            long currentDelta = Objects.nonNull(currentPending) ? currentPending.getAndSet(0) : 0;
+            if (currentDelta > 0) {
+                flushEntryList.add(new FlushEntry(ruleCounter, windowIndex, currentDelta));
+            }
+        }
+        return Flux.fromIterable(flushEntryMap.entrySet())
+                .filter(entry -> !entry.getValue().isEmpty())
+                .concatMap(entry -> Flux.fromIterable(CollectionUtil.split(entry.getValue(), MAX_FLUSH_RULE_SIZE))
+                        .concatMap(flushEntryList -> flush(entry.getKey(), flushEntryList, currentTime)))
+                .then();
+    }
+    
+    private Mono<Void> flush(long windowSize, List<FlushEntry> flushEntryList, long currentTime){
+        List<String> keys = new ArrayList<>(flushEntryList.size() * 2);
+        List<String> args = new ArrayList<>(flushEntryList.size() * 3 + 1);
+        args.add(String.valueOf(windowSize));
+        for (FlushEntry flushEntry : flushEntryList) {
+            List<String> limitKeys = flushEntry.ruleCounter.limitKeys;
+            keys.add(flushEntry.ruleCounter.ruleKey);
+            keys.addAll(limitKeys);
+            args.add(String.valueOf(flushEntry.windowIndex));
+            args.add(String.valueOf(flushEntry.delta));
+            args.add(String.valueOf(limitKeys.size()));
+        }
+        return reactiveStringRedisTemplate.execute(flushScript, keys, args)
+                .next()
+                .doOnNext(result -> {
+                    for (int i = 0; i < flushEntryList.size(); i++) {
+                        FlushEntry flushEntry = flushEntryList.get(i);
+                        long currentCount = ((Number)result.get(i * 3)).longValue();
+                        long previousCount = ((Number)result.get(i * 3 + 1)).longValue();
+                        long limitTtl = ((Number)result.get(i * 3 + 2)).longValue();
+                        flushEntry.ruleCounter.updateGlobalCount(flushEntry.windowIndex, currentCount, previousCount);
+                        flushEntry.ruleCounter.onFlushLimit(limitTtl, currentTime);
+                    }
+                })
+                .then();
+    }
+    
+    private static class RuleCounter {
+        
+        private final String ruleKey;
+        
+        private volatile List<String> limitKeys;
+        
+        private final long windowSize;
+        
+        /**
+         * 窗口下标 -> 本地还没有刷新到redis的增量
+         * */
+        private final Map<Long, AtomicLong> pendingMap = new ConcurrentHashMap<>(4);
+        
+        /**
+         * 最近一次刷新取回的全局计数 {窗口下标, 该窗口计数, 上一个窗口计数}
+         * */
+        private volatile long[] globalCount = new long[]{Long.MIN_VALUE, 0, 0};
+        
+        private volatile long lastAccessTime;
+        
+        /**
+         * 被淘汰后不再创建窗口计数器，请求线程累加失败后会重新取得新的计数器
+         * */
+        private volatile boolean evicted;
+        
+        private volatile long limitedUntil;
+        
+        /**
+         * 刷新时发现redis中存在限制key，在这个时间之前的请求都走redis，由完整的规则取得限制信息和剩余时间
+         * */
+        private volatile long remoteUntil;
+        
+        private volatile String limitedMessage;
+        
+        private RuleCounter(String ruleKey, List<String> limitKeys, long windowSize) {
+            this.ruleKey = ruleKey;
+            this.limitKeys = limitKeys;
+            this.windowSize = windowSize;
+        }
+        
+        private long getGlobalCount(long windowIndex){
+            long[] snapshot = globalCount;
+            if (snapshot[0] == windowIndex) {
+                return snapshot[1];
+            }
+            if (snapshot[0] - 1 == windowIndex) {
+                return snapshot[2];
+            }
+            return 0;
+        }
+        
+        private long getPendingCount(long windowIndex){
+            AtomicLong pending = pendingMap.get(windowIndex);
+            return Objects.nonNull(pending) ? Math.max(pending.get(), 0) : 0;
+        }
+        
+        /**
+         * 窗口计数器被刷新关闭时说明正在从map中移除，重新获取新的计数器后再累加
+         * @return 规则计数器已经被淘汰时返回false，这次累加没有生效
+         * */
+        private boolean increment(long windowIndex){
+            while (true) {
+                AtomicLong pending = pendingMap.get(windowIndex);
+                if (Objects.isNull(pending)) {
+                    pending = createPending(windowIndex);
+                    if (Objects.isNull(pending)) {
+                        return false;
+                    }
+                }
+                long count = pending.get();
+                if (count == CLOSED) {
+                    if (evicted) {
+                        return false;
+                    }
+                    Thread.onSpinWait();
+                    continue;
+                }
+                if (pending.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+        
+        /**
+         * 每个窗口只创建一次，和淘汰使用同一个锁，淘汰之后不会再有新的计数器加入，淘汰时取空的就是全部的增量
+         * */
+        private synchronized AtomicLong createPending(long windowIndex){
+            if (evicted) {
+                return null;
+            }
+            return pendingMap.computeIfAbsent(windowIndex, index -> new AtomicLong());
+        }
+        
+        private synchronized void evict(){
+            evicted = true;
+        }
+        
+        private void updateGlobalCount(long windowIndex, long currentCount, long previousCount){
+            if (windowIndex >= globalCount[0]) {
+                globalCount = new long[]{windowIndex, currentCount, previousCount};
+            }
+        }
+        
+        private void onFlushLimit(long limitTtl, long currentTime){
+            if (limitTtl > 0 && limitedUntil <= currentTime) {
+                remoteUntil = currentTime + limitTtl;
+            }
+        }
+    }
+    
+    private static class FlushEntry {
+        
+        private final RuleCounter ruleCounter;
+        
+        private final long windowIndex;
+        
+        private final long delta;
+        
+        private FlushEntry(RuleCounter ruleCounter, long windowIndex, long delta) {
+            this.ruleCounter = ruleCounter;
+            this.windowIndex = windowIndex;
+            this.delta = delta;
+        }
+    }
+}
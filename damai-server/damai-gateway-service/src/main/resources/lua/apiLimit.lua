@@ -1,23 +1,47 @@
+-- KEYS[1] 普通规则计数的hash(field为窗口下标) KEYS[2] 普通规则限制key KEYS[3] 触发记录zset的key KEYS[3 + i] 第i个深度规则限制key
+-- ARGV[1] 规则类型 ARGV[2] 统计时间(秒) ARGV[3] 阈值 ARGV[4] 限制时间(秒) ARGV[5] 当前时间戳 ARGV[6] 深度规则数量 ARGV[7] 本次计数
+-- 之后每5个参数为一个深度规则：开始时间窗口 结束时间窗口 统计时间(秒) 阈值 限制时间(秒)
+-- 普通规则使用滑动窗口近似：上一个窗口的计数按剩余比例加权后加上当前窗口的计数
+-- 返回值中的limitTtl为触发的限制key剩余的限制时间(毫秒)，网关在本地缓存这段时间内的限制结果
+local depth_rule_parameter_start = 7
+local depth_rule_parameter_size = 5
+local trigger_record_expire_time = 86400000
 local trigger_result = 0
 local trigger_call_Stat = 0
 local api_count = 0
 local threshold = 0
-local apiRule = cjson.decode(KEYS[1])
-local api_rule_type = apiRule.apiRuleType
-local rule_key = apiRule.ruleKey
-local rule_stat_time = apiRule.statTime
-local rule_threshold = apiRule.threshold
-local rule_effective_time = apiRule.effectiveTime
-local rule_limit_key = apiRule.ruleLimitKey
-local z_set_key = apiRule.zSetRuleStatKey
-
-local current_Time = apiRule.currentTime
+local rule_key = KEYS[1]
+local rule_limit_key = KEYS[2]
+local z_set_key = KEYS[3]
+local api_rule_type = tonumber(ARGV[1])
+local rule_stat_time = tonumber(ARGV[2])
+local rule_threshold = tonumber(ARGV[3])
+local rule_effective_time = tonumber(ARGV[4])
+local current_Time = tonumber(ARGV[5])
+local depth_rule_size = tonumber(ARGV[6])
+local increment = tonumber(ARGV[7])
 local message_index = -1
 
-local count = tonumber(redis.call('incrby', rule_key, 1))
-if (count == 1) then
-    redis.call('expire', rule_key, rule_stat_time)
+local function limit_ttl(limit_key)
+    local ttl = tonumber(redis.call('pttl', limit_key))
+    if (ttl > 0) then
+        return ttl
+    end
+    return 0
+end
+
+local window_size = rule_stat_time * 1000
+local window_index = math.floor(current_Time / window_size)
+local window_elapsed = current_Time - window_index * window_size
+local current_field = string.format('%d', window_index)
+local previous_field = string.format('%d', window_index - 1)
+local current_count = tonumber(redis.call('hincrby', rule_key, current_field, increment))
+local previous_count = tonumber(redis.call('hget', rule_key, previous_field) or 0)
+if (current_count == increment) then
+    redis.call('hdel', rule_key, string.format('%d', window_index - 2))
+    redis.call('pexpire', rule_key, window_size * 2)
 end
+local count = math.floor(previous_count * (window_size - window_elapsed) / window_size) + current_count
 if ((count - rule_threshold) >= 0) then
     if (redis.call('exists', rule_limit_key) == 0) then
         redis.call('set', rule_limit_key, rule_limit_key)
@@ -25,6 +49,9 @@ if ((count - rule_threshold) >= 0) then
         trigger_call_Stat = 1
         local z_set_member = current_Time .. "_" .. tostring(count)
         redis.call('zadd',z_set_key,current_Time,z_set_member)
+        -- 只在写入触发记录时清理过期记录，深度规则统计时按时间范围zcount，不依赖清理
+        redis.call('zremrangebyscore',z_set_key,0,current_Time - trigger_record_expire_time)
+        redis.call('pexpire',z_set_key,trigger_record_expire_time)
     end
     trigger_result = 1
 end
@@ -36,21 +63,17 @@ api_count = count
 threshold = rule_threshold
 
 if (api_rule_type == 2) then
-    local depthRules = apiRule.depthRules
-    for index,depth_rule in ipairs(depthRules)  do
-        local start_time_window = depth_rule.startTimeWindowTimestamp
-        local end_time_window = depth_rule.endTimeWindowTimestamp
-        local depth_rule_stat_time = depth_rule.statTime
-        local depth_rule_threshold = depth_rule.threshold
-        local depth_rule_effective_time = depth_rule.effectiveTime
-        local depth_rule_limit_key = depth_rule.depthRuleLimit
+    for index = 1, depth_rule_size do
+        local base = depth_rule_parameter_start + (index - 1) * depth_rule_parameter_size
+        local start_time_window = tonumber(ARGV[base + 1])
+        local end_time_window = tonumber(ARGV[base + 2])
+        local depth_rule_stat_time = tonumber(ARGV[base + 3])
+        local depth_rule_threshold = tonumber(ARGV[base + 4])
+        local depth_rule_effective_time = tonumber(ARGV[base + 5])
+        local depth_rule_limit_key = KEYS[3 + index]
 
         threshold = depth_rule_threshold
 
-        if (current_Time > start_time_window) then
-            redis.call('zremrangebyscore',z_set_key,0,start_time_window - 1000)
-        end
-
         if (current_Time >= start_time_window and current_Time <= end_time_window) then
             local z_set_min_score = start_time_window;
             local z_set_max_score = current_Time;
@@ -66,18 +89,22 @@ if (api_rule_type == 2) then
                     trigger_result = 1
                     trigger_call_Stat = 2
                     message_index = index
-                    return string.format('{"triggerResult": %d, "triggerCallStat": %d, "apiCount": %d, "threshold": %d, "messageIndex": %d}'
-                    ,trigger_result,trigger_call_Stat,api_count,threshold,message_index)
+                    return string.format('{"triggerResult": %d, "triggerCallStat": %d, "apiCount": %d, "threshold": %d, "messageIndex": %d, "limitTtl": %d}'
+                    ,trigger_result,trigger_call_Stat,api_count,threshold,message_index,limit_ttl(depth_rule_limit_key))
                 end
             end
             if (redis.call('exists', depth_rule_limit_key) == 1) then
                 trigger_result = 1
                 message_index = index
-                return string.format('{"triggerResult": %d, "triggerCallStat": %d, "apiCount": %d, "threshold": %d, "messageIndex": %d}'
-                ,trigger_result,trigger_call_Stat,api_count,threshold,message_index)
+                return string.format('{"triggerResult": %d, "triggerCallStat": %d, "apiCount": %d, "threshold": %d, "messageIndex": %d, "limitTtl": %d}'
+                ,trigger_result,trigger_call_Stat,api_count,threshold,message_index,limit_ttl(depth_rule_limit_key))
             end
         end
     end
 end
-return string.format('{"triggerResult": %d, "triggerCallStat": %d, "apiCount": %d, "threshold": %d, "messageIndex": %d}'
-,trigger_result,trigger_call_Stat,api_count,threshold,message_index)
+local rule_limit_ttl = 0
+if (trigger_result == 1) then
+    rule_limit_ttl = limit_ttl(rule_limit_key)
+end
+return string.format('{"triggerResult": %d, "triggerCallStat": %d, "apiCount": %d, "threshold": %d, "messageIndex": %d, "limitTtl": %d}'
+,trigger_result,trigger_call_Stat,api_count,threshold,message_index,rule_limit_ttl)
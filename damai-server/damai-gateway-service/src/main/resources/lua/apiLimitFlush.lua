@@ -0,0 +1,34 @@
+-- 本地预聚合的计数批量刷新到redis
+-- 每个规则在KEYS中依次为：普通规则计数的hash 之后是该规则的限制key(普通规则限制key和深度规则限制key)
+-- ARGV[1] 窗口大小(毫秒) 之后每3个参数对应一个规则：窗口下标 本地累计的增量 限制key的数量
+-- 返回每个规则在该窗口和上一个窗口的全局计数，以及限制key中最长的剩余限制时间(毫秒)，没有限制时为0
+local window_size = tonumber(ARGV[1])
+local result = {}
+local key_index = 1
+local rule_size = (#ARGV - 1) / 3
+for index = 1, rule_size do
+    local base = 1 + (index - 1) * 3
+    local window_index = tonumber(ARGV[base + 1])
+    local delta = tonumber(ARGV[base + 2])
+    local limit_key_size = tonumber(ARGV[base + 3])
+    local rule_key = KEYS[key_index]
+    local current_field = string.format('%d', window_index)
+    local current_count = tonumber(redis.call('hincrby', rule_key, current_field, delta))
+    local previous_count = tonumber(redis.call('hget', rule_key, string.format('%d', window_index - 1)) or 0)
+    if (current_count == delta) then
+        redis.call('hdel', rule_key, string.format('%d', window_index - 2))
+        redis.call('pexpire', rule_key, window_size * 2)
+    end
+    local limit_ttl = 0
+    for limit_index = 1, limit_key_size do
+        local ttl = tonumber(redis.call('pttl', KEYS[key_index + limit_index]))
+        if (ttl > limit_ttl) then
+            limit_ttl = ttl
+        end
+    end
+    key_index = key_index + 1 + limit_key_size
+    result[(index - 1) * 3 + 1] = current_count
+    result[(index - 1) * 3 + 2] = previous_count
+    result[(index - 1) * 3 + 3] = limit_ttl
+end
+return result
@@ -0,0 +1,76 @@
+package com.damai.filter;
+
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.BlockingOperationError;
+import reactor.blockhound.integration.BlockHoundIntegration;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 安装BlockHound并记录非阻塞线程(netty事件循环、parallel)中的阻塞调用，
+ * 一个jvm中只能安装一次，网关的所有测试都在BlockHound下执行，记录之后照常抛出BlockingOperationError
+ * @author: 阿星不是程序员
+ **/
+public final class BlockingCallRecorder implements BeforeAllCallback {
+    
+    private static final Queue<String> BLOCKING_CALL_QUEUE = new ConcurrentLinkedQueue<>();
+    
+    private static boolean installed;
+    
+    /**
+     * 通过junit的扩展自动注册，在第一个测试类执行前安装，
+     * 安装前已经在等待任务的调度线程不会识别允许的阻塞调用，所以必须在任何调度线程创建之前安装
+     * */
+    @Override
+    public void beforeAll(ExtensionContext context) {
+        install();
+    }
+    
+    public static synchronized void install() {
+        if (installed) {
+            return;
+        }
+        BlockHound.Builder builder = BlockHound.builder();
+        Iterator<BlockHoundIntegration> iterator = ServiceLoader.load(BlockHoundIntegration.class).iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                builder.with(iterator.next());
+            }catch (ServiceConfigurationError e) {
+                //nacos中shade的netty也注册了BlockHoundIntegration但实现类不存在，跳过继续加载其它的
+            }
+        }
+        //日志由log4j2的appender同步写入文件，属于日志配置的问题，不在验证范围内
+        builder.allowBlockingCallsInside("org.apache.logging.log4j.core.config.AppenderControl", "callAppender");
+        //rsa解密的blinding从/dev/urandom读取随机数，urandom的读取不会等待
+        builder.allowBlockingCallsInside("sun.security.provider.NativePRNG$RandomIO", "implNextBytes");
+        builder.blockingMethodCallback(blockingMethod -> {
+            BLOCKING_CALL_QUEUE.add(blockingMethod.toString());
+            throw new BlockingOperationError(blockingMethod);
+        }).install();
+        installed = true;
+    }
+    
+    /**
+     * 取出并清空已经记录的阻塞调用
+     * */
+    public static List<String> drain() {
+        List<String> blockingCallList = new ArrayList<>();
+        String blockingCall;
+        while ((blockingCall = BLOCKING_CALL_QUEUE.poll()) != null) {
+            blockingCallList.add(blockingCall);
+        }
+        return blockingCallList;
+    }
+}
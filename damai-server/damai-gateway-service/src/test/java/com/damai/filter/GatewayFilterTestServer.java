@@ -0,0 +1,260 @@
+package com.damai.filter;
+
+import com.alibaba.fastjson.JSON;
+import com.baidu.fsg.uid.UidGenerator;
+import com.damai.client.BaseDataClient;
+import com.damai.core.RedisKeyManage;
+import com.damai.exception.GatewayDefaultExceptionHandler;
+import com.damai.path.PathPatternIndexHolder;
+import com.damai.pro.limit.RateLimiter;
+import com.damai.pro.limit.RateLimiterProperty;
+import com.damai.property.GatewayProperty;
+import com.damai.redis.RedisKeyBuild;
+import com.damai.service.ApiRestrictService;
+import com.damai.service.ChannelDataService;
+import com.damai.service.CryptoKeyCache;
+import com.damai.service.TokenService;
+import com.damai.service.lua.ApiRestrictCacheOperate;
+import com.damai.service.rule.ApiRuleHolder;
+import com.damai.service.rule.LocalApiRuleCounter;
+import com.damai.vo.GetChannelDataVo;
+import com.damai.vo.RuleVo;
+import com.damai.vo.UserVo;
+import io.netty.handler.codec.compression.Zstd;
+import org.mockito.Mockito;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.damai.constant.Constant.TRACE_ID;
+import static com.damai.constant.GatewayConstant.CODE;
+import static com.damai.constant.GatewayConstant.USER_ID;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 网关过滤器的测试服务，RequestValidationFilter和它依赖的服务都是真实的实现，
+ * 运行在reactor netty服务上，redis使用嵌入式redis，feign客户端用mock代替，
+ * 下游默认读取转发的请求体，把请求头和请求体以json返回
+ * @author: 阿星不是程序员
+ **/
+public class GatewayFilterTestServer implements AutoCloseable {
+    
+    public static final String ROUTE_ID = "order-service";
+    
+    public static final String DOWNSTREAM_THREAD = "downstreamThread";
+    
+    public static final String DOWNSTREAM_BODY = "downstreamBody";
+    
+    private final RedisServer redisServer;
+    
+    private final LettuceConnectionFactory lettuceConnectionFactory;
+    
+    private final ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+    
+    private final BaseDataClient baseDataClient = Mockito.mock(BaseDataClient.class);
+    
+    private final ApiRuleHolder apiRuleHolder = new ApiRuleHolder();
+    
+    private final RateLimiter rateLimiter;
+    
+    private final DisposableServer disposableServer;
+    
+    private final WebTestClient webTestClient;
+    
+    private volatile GatewayFilterChain downstream = GatewayFilterTestServer::echo;
+    
+    public GatewayFilterTestServer(GatewayProperty gatewayProperty, RateLimiterProperty rateLimiterProperty) throws IOException {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        redisServer = RedisServer.newRedisServer().port(port).bind("127.0.0.1").build();
+        redisServer.start();
+        lettuceConnectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        lettuceConnectionFactory.afterPropertiesSet();
+        lettuceConnectionFactory.start();
+        reactiveStringRedisTemplate = new ReactiveStringRedisTemplate(lettuceConnectionFactory);
+        //和服务启动时一样先建立好共享连接，请求中只使用已经建立的连接
+        reactiveStringRedisTemplate.opsForValue().get("warm-up").block();
+        
+        UidGenerator uidGenerator = Mockito.mock(UidGenerator.class);
+        AtomicLong uid = new AtomicLong();
+        Mockito.when(uidGenerator.getUid()).thenAnswer(invocation -> uid.incrementAndGet());
+        
+        CryptoKeyCache cryptoKeyCache = new CryptoKeyCache();
+        ChannelDataService channelDataService = new ChannelDataService();
+        ReflectionTestUtils.setField(channelDataService, "baseDataClient", baseDataClient);
+        ReflectionTestUtils.setField(channelDataService, "reactiveStringRedisTemplate", reactiveStringRedisTemplate);
+        ReflectionTestUtils.setField(channelDataService, "cryptoKeyCache", cryptoKeyCache);
+        TokenService tokenService = new TokenService();
+        ReflectionTestUtils.setField(tokenService, "reactiveStringRedisTemplate", reactiveStringRedisTemplate);
+        
+        ApiRestrictCacheOperate apiRestrictCacheOperate = new ApiRestrictCacheOperate();
+        ReflectionTestUtils.setField(apiRestrictCacheOperate, "reactiveStringRedisTemplate", reactiveStringRedisTemplate);
+        apiRestrictCacheOperate.init();
+        ReflectionTestUtils.setField(apiRuleHolder, "reactiveStringRedisTemplate", reactiveStringRedisTemplate);
+        ApiRestrictService apiRestrictService = new ApiRestrictService();
+        ReflectionTestUtils.setField(apiRestrictService, "gatewayProperty", gatewayProperty);
+        ReflectionTestUtils.setField(apiRestrictService, "apiRestrictCacheOperate", apiRestrictCacheOperate);
+        ReflectionTestUtils.setField(apiRestrictService, "uidGenerator", uidGenerator);
+        ReflectionTestUtils.setField(apiRestrictService, "apiRuleHolder", apiRuleHolder);
+        ReflectionTestUtils.setField(apiRestrictService, "localApiRuleCounter", new LocalApiRuleCounter());
+        
+        PathPatternIndexHolder pathPatternIndexHolder = new PathPatternIndexHolder();
+        ReflectionTestUtils.setField(pathPatternIndexHolder, "gatewayProperty", gatewayProperty);
+        pathPatternIndexHolder.rebuild();
+        rateLimiter = new RateLimiter(rateLimiterProperty);
+        
+        RequestValidationFilter requestValidationFilter = new RequestValidationFilter();
+        ReflectionTestUtils.setField(requestValidationFilter, "channelDataService", channelDataService);
+        ReflectionTestUtils.setField(requestValidationFilter, "cryptoKeyCache", cryptoKeyCache);
+        ReflectionTestUtils.setField(requestValidationFilter, "apiRestrictService", apiRestrictService);
+        ReflectionTestUtils.setField(requestValidationFilter, "tokenService", tokenService);
+        ReflectionTestUtils.setField(requestValidationFilter, "gatewayProperty", gatewayProperty);
+        ReflectionTestUtils.setField(requestValidationFilter, "pathPatternIndexHolder", pathPatternIndexHolder);
+        ReflectionTestUtils.setField(requestValidationFilter, "uidGenerator", uidGenerator);
+        ReflectionTestUtils.setField(requestValidationFilter, "rateLimiterProperty", rateLimiterProperty);
+        ReflectionTestUtils.setField(requestValidationFilter, "rateLimiter", rateLimiter);
+        
+        Route route = Route.async().id(ROUTE_ID).uri(URI.create("http://localhost:8080"))
+                .predicate(serverWebExchange -> true).build();
+        ReactorHttpHandlerAdapter reactorHttpHandlerAdapter = new ReactorHttpHandlerAdapter(WebHttpHandlerBuilder
+                .webHandler(exchange -> {
+                    exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR, route);
+                    return requestValidationFilter.filter(exchange, serverWebExchange -> downstream.filter(serverWebExchange));
+                })
+                .exceptionHandler(new GatewayDefaultExceptionHandler())
+                .build());
+        //WebTestClient和服务共用事件循环，客户端第一次解压响应时才加载zstd的native库，提前加载避免被当作服务端的阻塞调用
+        Zstd.isAvailable();
+        disposableServer = HttpServer.create().host("127.0.0.1").port(0).handle(reactorHttpHandlerAdapter).bindNow();
+        webTestClient = WebTestClient.bindToServer()
+                .baseUrl("http://127.0.0.1:" + disposableServer.port())
+                .responseTimeout(Duration.ofSeconds(30))
+                //下游会把接近上限的请求体原样返回
+                .codecs(clientCodecConfigurer -> clientCodecConfigurer.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+                .build();
+    }
+    
+    /**
+     * 读取转发的请求体并释放，把下游能看到的请求头、请求体和执行的线程返回
+     * */
+    public static Mono<Void> echo(ServerWebExchange exchange) {
+        ServerHttpRequest request = exchange.getRequest();
+        String threadName = Thread.currentThread().getName();
+        return DataBufferUtils.join(request.getBody())
+                .map(dataBuffer -> {
+                    String body = dataBuffer.toString(StandardCharsets.UTF_8);
+                    DataBufferUtils.release(dataBuffer);
+                    return body;
+                })
+                .defaultIfEmpty("")
+                .flatMap(body -> {
+                    Map<String, String> result = new HashMap<>(8);
+                    result.put(DOWNSTREAM_THREAD, threadName);
+                    result.put(DOWNSTREAM_BODY, body);
+                    result.put(CODE, request.getHeaders().getFirst(CODE));
+                    result.put(USER_ID, request.getHeaders().getFirst(USER_ID));
+                    result.put(TRACE_ID, request.getHeaders().getFirst(TRACE_ID));
+                    exchange.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                    byte[] bytes = JSON.toJSONString(result).getBytes(StandardCharsets.UTF_8);
+                    return exchange.getResponse().writeWith(Mono.just(exchange.getResponse().bufferFactory().wrap(bytes)));
+                });
+    }
+    
+    public WebTestClient getWebTestClient() {
+        return webTestClient;
+    }
+    
+    public BaseDataClient getBaseDataClient() {
+        return baseDataClient;
+    }
+    
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+    
+    public ReactiveStringRedisTemplate getReactiveStringRedisTemplate() {
+        return reactiveStringRedisTemplate;
+    }
+    
+    public void setDownstream(GatewayFilterChain downstream) {
+        this.downstream = downstream;
+    }
+    
+    public void resetDownstream() {
+        this.downstream = GatewayFilterTestServer::echo;
+    }
+    
+    public void putChannelData(GetChannelDataVo getChannelDataVo) {
+        reactiveStringRedisTemplate.opsForValue().set(RedisKeyBuild.createRedisKey(RedisKeyManage.CHANNEL_DATA,
+                getChannelDataVo.getCode()).getRelKey(), JSON.toJSONString(getChannelDataVo)).block();
+    }
+    
+    public void putLoginUser(String code, UserVo userVo) {
+        reactiveStringRedisTemplate.opsForValue().set(RedisKeyBuild.createRedisKey(RedisKeyManage.USER_LOGIN,
+                code, userVo.getId()).getRelKey(), JSON.toJSONString(userVo)).block();
+    }
+    
+    /**
+     * 和customize服务一样写入规则并递增版本，然后重新加载到本地
+     * */
+    public void putRule(RuleVo ruleVo) {
+        String allRuleHashKey = RedisKeyBuild.createRedisKey(RedisKeyManage.ALL_RULE_HASH).getRelKey();
+        reactiveStringRedisTemplate.opsForHash().put(allRuleHashKey,
+                RedisKeyBuild.createRedisKey(RedisKeyManage.RULE).getRelKey(), JSON.toJSONString(ruleVo)).block();
+        reactiveStringRedisTemplate.opsForValue().increment(
+                RedisKeyBuild.createRedisKey(RedisKeyManage.ALL_RULE_VERSION).getRelKey()).block();
+        apiRuleHolder.reload().block();
+    }
+    
+    /**
+     * 清空redis，本地的规则也重新加载为空
+     * */
+    public void flushRedis() {
+        reactiveStringRedisTemplate.execute(connection -> connection.serverCommands().flushAll()).blockLast();
+        apiRuleHolder.reload().block();
+    }
+    
+    /**
+     * 许可在响应写出之后的doFinally中归还，客户端收到响应时可能还没有归还
+     * */
+    public int awaitInFlightCount() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (rateLimiter.getInFlightCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return rateLimiter.getInFlightCount();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        disposableServer.disposeNow();
+        lettuceConnectionFactory.destroy();
+        redisServer.stop();
+    }
+}
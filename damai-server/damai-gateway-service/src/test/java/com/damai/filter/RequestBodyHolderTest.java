@@ -0,0 +1,80 @@
+package com.damai.filter;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 请求体buffer所有权的测试，使用池化的buffer，重复释放时netty会抛出引用计数异常
+ * @author: 阿星不是程序员
+ **/
+public class RequestBodyHolderTest {
+    
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    
+    @Test
+    public void releaseAfterParseAndErrorReleasesOnce() {
+        NettyDataBuffer dataBuffer = pooledBuffer();
+        RequestBodyHolder requestBodyHolder = new RequestBodyHolder(dataBuffer);
+        //和过滤器中一样：解析后在finally中释放，之后验证失败再触发doOnError
+        Mono<Object> mono = Mono.defer(() -> {
+            try {
+                RequestBodyParser.parseTopLevel(requestBodyHolder.peek());
+            }finally {
+                requestBodyHolder.release();
+            }
+            return Mono.error(new IllegalStateException("sign error"));
+        }).doOnError(e -> requestBodyHolder.release()).doOnCancel(requestBodyHolder::release);
+        
+        assertThrows(IllegalStateException.class, mono::block);
+        assertEquals(0, dataBuffer.getNativeBuffer().refCnt());
+        assertNull(requestBodyHolder.peek());
+    }
+    
+    @Test
+    public void takenBufferIsNotReleased() {
+        NettyDataBuffer dataBuffer = pooledBuffer();
+        RequestBodyHolder requestBodyHolder = new RequestBodyHolder(dataBuffer);
+        
+        assertSame(dataBuffer, requestBodyHolder.take());
+        requestBodyHolder.release();
+        assertEquals(1, dataBuffer.getNativeBuffer().refCnt());
+        assertNull(requestBodyHolder.take());
+        dataBuffer.release();
+    }
+    
+    @Test
+    public void releasedBufferIsNotTaken() {
+        NettyDataBuffer dataBuffer = pooledBuffer();
+        RequestBodyHolder requestBodyHolder = new RequestBodyHolder(dataBuffer);
+        
+        requestBodyHolder.release();
+        requestBodyHolder.release();
+        assertEquals(0, dataBuffer.getNativeBuffer().refCnt());
+        assertNull(requestBodyHolder.take());
+    }
+    
+    @Test
+    public void emptyBodyIsIgnored() {
+        RequestBodyHolder requestBodyHolder = new RequestBodyHolder(null);
+        requestBodyHolder.release();
+        assertNull(requestBodyHolder.take());
+    }
+    
+    private NettyDataBuffer pooledBuffer() {
+        byte[] bytes = "{\"code\":\"0001\",\"businessBody\":\"{}\"}".getBytes(StandardCharsets.UTF_8);
+        NettyDataBuffer dataBuffer = bufferFactory.allocateBuffer(bytes.length);
+        dataBuffer.write(bytes);
+        return dataBuffer;
+    }
+}
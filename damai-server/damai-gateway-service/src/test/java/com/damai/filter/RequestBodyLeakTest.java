@@ -0,0 +1,257 @@
+package com.damai.filter;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.damai.common.ApiResponse;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.enums.BaseCode;
+import com.damai.pro.limit.RateLimiterProperty;
+import com.damai.property.GatewayProperty;
+import com.damai.util.RsaSignTool;
+import com.damai.vo.GetChannelDataVo;
+import io.netty.buffer.AbstractByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.web.reactive.function.BodyInserters;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.damai.constant.GatewayConstant.BUSINESS_BODY;
+import static com.damai.constant.GatewayConstant.CODE;
+import static com.damai.constant.GatewayConstant.NO_VERIFY;
+import static com.damai.constant.GatewayConstant.VERIFY_VALUE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 请求体buffer泄漏的测试，netty的泄漏检测设置为PARANOID，每个ByteBuf都会被跟踪，
+ * 通过真实的http请求覆盖接近上限的请求体、超过上限的请求体(带Content-Length和分块传输)、格式错误的json和验证中途断开，
+ * 每个测试结束后触发gc，没有释放的buffer被回收时由泄漏检测的监听记录下来
+ * @author: 阿星不是程序员
+ **/
+public class RequestBodyLeakTest {
+    
+    private static final int MAX_BODY_SIZE = 1024 * 1024;
+    
+    private static final String CHANNEL_CODE = "0001";
+    
+    private static final String PATH = "/damai/order/create";
+    
+    private static final Queue<String> LEAK_QUEUE = new ConcurrentLinkedQueue<>();
+    
+    private static ResourceLeakDetector.Level originalLevel;
+    
+    private static ResourceLeakDetector<?> byteBufLeakDetector;
+    
+    private static GatewayFilterTestServer gatewayFilterTestServer;
+    
+    @BeforeAll
+    public static void startServer() throws IOException {
+        SpringUtilTestSupport.initialize();
+        originalLevel = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        //ByteBuf的泄漏检测器是AbstractByteBuf中的静态字段，默认只打印日志，这里额外记录下来用于断言
+        byteBufLeakDetector = (ResourceLeakDetector<?>) ReflectionTestUtils.getField(AbstractByteBuf.class, "leakDetector");
+        byteBufLeakDetector.setLeakListener((resourceType, records) -> LEAK_QUEUE.add(resourceType + records));
+        RateLimiterProperty rateLimiterProperty = new RateLimiterProperty();
+        rateLimiterProperty.setRateSwitch(true);
+        rateLimiterProperty.setRatePermits(100);
+        rateLimiterProperty.setRoutePermits(Map.of());
+        rateLimiterProperty.setUserPermits(0);
+        rateLimiterProperty.setUserBurst(0);
+        rateLimiterProperty.setUserExpire(600);
+        rateLimiterProperty.setRetryAfter(1);
+        GatewayProperty gatewayProperty = new GatewayProperty();
+        gatewayProperty.setAllowNormalAccess(true);
+        gatewayProperty.setMaxBodySize(MAX_BODY_SIZE);
+        gatewayFilterTestServer = new GatewayFilterTestServer(gatewayProperty, rateLimiterProperty);
+    }
+    
+    @AfterAll
+    public static void stopServer() throws IOException {
+        gatewayFilterTestServer.close();
+        byteBufLeakDetector.setLeakListener(null);
+        ResourceLeakDetector.setLevel(originalLevel);
+    }
+    
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        gatewayFilterTestServer.flushRedis();
+        gatewayFilterTestServer.resetDownstream();
+        Mockito.reset(gatewayFilterTestServer.getBaseDataClient());
+        collectLeaks();
+    }
+    
+    @AfterEach
+    public void checkLeaks() throws InterruptedException {
+        assertEquals(0, gatewayFilterTestServer.awaitInFlightCount());
+        List<String> leakList = collectLeaks();
+        assertTrue(leakList.isEmpty(), () -> String.join("\n", leakList));
+    }
+    
+    @Test
+    public void bodyNearLimitIsForwardedUntouched() {
+        String body = "{\"data\":\"" + "a".repeat(MAX_BODY_SIZE - 64) + "\"}";
+        
+        JSONObject result = post(body, true, HttpStatus.OK);
+        
+        assertEquals(body, result.getString(GatewayFilterTestServer.DOWNSTREAM_BODY));
+    }
+    
+    @Test
+    public void signedBodyNearLimitIsParsedAndRewritten() {
+        gatewayFilterTestServer.putChannelData(channelData());
+        String businessBody = "{\"remark\":\"" + "b".repeat(MAX_BODY_SIZE - 1024) + "\"}";
+        
+        JSONObject result = post(signedBody(businessBody), false, HttpStatus.OK);
+        
+        assertEquals(businessBody, result.getString(GatewayFilterTestServer.DOWNSTREAM_BODY));
+        assertEquals(CHANNEL_CODE, result.getString(CODE));
+    }
+    
+    @Test
+    public void bodyOverLimitWithContentLengthIsRejected() {
+        String body = "{\"data\":\"" + "c".repeat(MAX_BODY_SIZE) + "\"}";
+        
+        JSONObject result = post(body, false, HttpStatus.PAYLOAD_TOO_LARGE);
+        
+        assertEquals(BaseCode.REQUEST_BODY_TOO_LARGE.getCode(), result.getInteger(CODE));
+    }
+    
+    @Test
+    public void chunkedBodyOverLimitIsRejected() {
+        //分块传输没有Content-Length，聚合到超过上限时才失败，已经聚合的buffer要全部释放
+        DefaultDataBufferFactory dataBufferFactory = DefaultDataBufferFactory.sharedInstance;
+        byte[] chunk = "d".repeat(64 * 1024).getBytes(StandardCharsets.UTF_8);
+        Flux<DataBuffer> body = Flux.concat(
+                Flux.just(dataBufferFactory.wrap("{\"data\":\"".getBytes(StandardCharsets.UTF_8))),
+                Flux.range(0, MAX_BODY_SIZE / chunk.length + 2).map(i -> dataBufferFactory.wrap(chunk)),
+                Flux.just(dataBufferFactory.wrap("\"}".getBytes(StandardCharsets.UTF_8))));
+        
+        EntityExchangeResult<byte[]> result = gatewayFilterTestServer.getWebTestClient().post().uri(PATH)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromDataBuffers(body))
+                .exchange()
+                .expectBody().returnResult();
+        
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, result.getStatus());
+    }
+    
+    @Test
+    public void malformedJsonIsRejected() {
+        for (String body : List.of("{\"code\":\"0001\",\"businessBody\":", "[1,2,3]", "not json", "{\"code\":\"0001\"}}",
+                "{\"code\":\"0001\",\"businessBody\":\"" + "e".repeat(MAX_BODY_SIZE / 2))) {
+            JSONObject result = post(body, false, HttpStatus.OK);
+            
+            assertEquals(BaseCode.REQUEST_BODY_FORMAT_ERROR.getCode(), result.getInteger(CODE), body);
+        }
+        Mockito.verifyNoInteractions(gatewayFilterTestServer.getBaseDataClient());
+    }
+    
+    @Test
+    public void clientDisconnectDuringValidationReleasesBody() throws InterruptedException {
+        //渠道数据没有命中缓存，查询很慢，客户端在验证结束前断开
+        Mockito.when(gatewayFilterTestServer.getBaseDataClient().getByCode(Mockito.any())).thenAnswer(invocation -> {
+            Thread.sleep(500);
+            return ApiResponse.ok(channelData());
+        });
+        String body = signedBody("{\"remark\":\"" + "f".repeat(MAX_BODY_SIZE / 2) + "\"}");
+        
+        assertThrows(IllegalStateException.class, () -> gatewayFilterTestServer.getWebTestClient().mutate()
+                .responseTimeout(Duration.ofMillis(200)).build()
+                .post().uri(PATH)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(body)
+                .exchange());
+        //等待慢查询结束，避免影响后面的测试
+        Thread.sleep(500);
+    }
+    
+    @Test
+    public void unreleasedBufferIsDetected() throws InterruptedException {
+        //确认泄漏检测确实生效，没有释放的buffer被回收后会被记录
+        allocateWithoutRelease();
+        
+        List<String> leakList = collectLeaks();
+        
+        assertFalse(leakList.isEmpty());
+    }
+    
+    private JSONObject post(String body, boolean noVerify, HttpStatus expectedStatus) {
+        EntityExchangeResult<byte[]> result = gatewayFilterTestServer.getWebTestClient().post().uri(PATH)
+                .contentType(MediaType.APPLICATION_JSON)
+                .headers(httpHeaders -> {
+                    if (noVerify) {
+                        httpHeaders.set(NO_VERIFY, VERIFY_VALUE);
+                    }
+                })
+                .bodyValue(body)
+                .exchange()
+                .expectBody().returnResult();
+        assertEquals(expectedStatus, result.getStatus());
+        return JSON.parseObject(new String(result.getResponseBody(), StandardCharsets.UTF_8));
+    }
+    
+    private String signedBody(String businessBody) {
+        Map<String, String> map = new HashMap<>(4);
+        map.put(CODE, CHANNEL_CODE);
+        map.put(BUSINESS_BODY, businessBody);
+        map.put("sign", RsaSignTool.rsaSign256(map, RsaSignTool.signPrivateKey));
+        return JSON.toJSONString(map);
+    }
+    
+    private GetChannelDataVo channelData() {
+        GetChannelDataVo getChannelDataVo = new GetChannelDataVo();
+        getChannelDataVo.setCode(CHANNEL_CODE);
+        getChannelDataVo.setSignPublicKey(RsaSignTool.signPublicKey);
+        getChannelDataVo.setDataPublicKey(RsaSignTool.dataPublicKey);
+        getChannelDataVo.setDataSecretKey(RsaSignTool.dataPrivateKey);
+        getChannelDataVo.setTokenSecret("CSYZWECHAT");
+        return getChannelDataVo;
+    }
+    
+    private static void allocateWithoutRelease() {
+        PooledByteBufAllocator.DEFAULT.buffer(16).writeInt(1);
+    }
+    
+    /**
+     * 被回收的buffer进入引用队列后，下一次分配时才会检查并报告泄漏，所以每次gc之后分配一次
+     * */
+    private static List<String> collectLeaks() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            PooledByteBufAllocator.DEFAULT.buffer(16).release();
+        }
+        List<String> leakList = new ArrayList<>();
+        String leak;
+        while ((leak = LEAK_QUEUE.poll()) != null) {
+            leakList.add(leak);
+        }
+        return leakList;
+    }
+}
@@ -0,0 +1,104 @@
+package com.damai.filter;
+
+import com.alibaba.fastjson.JSON;
+import com.damai.util.RsaSignTool;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 请求体解析的测试，嵌套的对象和数组按原文截取，客户端对原文签名后网关验签通过，
+ * 只有字符串字段的请求体解析结果和原来fastjson解析的结果一致
+ * @author: 阿星不是程序员
+ **/
+public class RequestBodyParserTest {
+    
+    private static final String NESTED_OBJECT = "{ \"name\" : \"周杰伦 演唱会\", \"price\":1.50, \"rate\":1e2, \"tip\":\"a\\\"b\\u4e2d\",\"empty\":{} }";
+    
+    private static final String NESTED_ARRAY = "[ 3, 1 ,{\"b\":2,\"a\":1}, [ ], null, true ]";
+    
+    private static final String NESTED_BODY = "{\"code\":\"0001\",\n  \"detail\" : " + NESTED_OBJECT
+            + " ,\"idList\":" + NESTED_ARRAY + ",\"businessBody\":\"{\\\"id\\\":1}\"}";
+    
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    
+    @Test
+    public void nestedValuesKeepTheRawText() {
+        Map<String, String> map = parse(NESTED_BODY);
+        
+        assertEquals(4, map.size());
+        assertEquals("0001", map.get("code"));
+        assertEquals(NESTED_OBJECT, map.get("detail"));
+        assertEquals(NESTED_ARRAY, map.get("idList"));
+        assertEquals("{\"id\":1}", map.get("businessBody"));
+    }
+    
+    @Test
+    public void nestedValuesKeepTheRawTextWhenBufferIsPartlyRead() {
+        byte[] prefix = "ignored".getBytes(StandardCharsets.UTF_8);
+        byte[] body = NESTED_BODY.getBytes(StandardCharsets.UTF_8);
+        DataBuffer dataBuffer = DefaultDataBufferFactory.sharedInstance.allocateBuffer(prefix.length + body.length);
+        dataBuffer.write(prefix);
+        dataBuffer.write(body);
+        dataBuffer.readPosition(prefix.length);
+        
+        Map<String, String> map = RequestBodyParser.parseTopLevel(dataBuffer);
+        
+        assertEquals(NESTED_OBJECT, map.get("detail"));
+        assertEquals(NESTED_ARRAY, map.get("idList"));
+    }
+    
+    @Test
+    public void signatureOverRawNestedValuesIsVerified() {
+        //客户端按请求体里的原文签名
+        Map<String, String> signMap = new HashMap<>(8);
+        signMap.put("code", "0001");
+        signMap.put("detail", NESTED_OBJECT);
+        signMap.put("idList", NESTED_ARRAY);
+        signMap.put("businessBody", "{\"id\":1}");
+        String sign = RsaSignTool.rsaSign256(signMap, RsaSignTool.signPrivateKey);
+        String body = NESTED_BODY.substring(0, NESTED_BODY.length() - 1) + ",\"sign\":\"" + sign + "\"}";
+        
+        assertTrue(RsaSignTool.verifyRsaSign256(parse(body), RsaSignTool.signPublicKey));
+        
+        //嵌套的值改动一个空格后签名就不一致
+        String changedBody = body.replace("[ 3, 1 ,", "[ 3, 1,");
+        assertFalse(RsaSignTool.verifyRsaSign256(parse(changedBody), RsaSignTool.signPublicKey));
+    }
+    
+    @Test
+    public void stringFieldsMatchTheFastjsonBaseline() {
+        String body = "{\"code\":\"0001\",\"businessBody\":\"{\\\"programId\\\":\\\"1\\\",\\\"list\\\":[1,2]}\","
+                + "\"v\":\"2\",\"remark\":\"周杰伦\\n演唱会\"}";
+        Map<String, String> signMap = new HashMap<>(8);
+        JSON.parseObject(body, Map.class).forEach((key, value) -> signMap.put(String.valueOf(key), String.valueOf(value)));
+        String sign = RsaSignTool.rsaSign256(signMap, RsaSignTool.signPrivateKey);
+        String signedBody = body.substring(0, body.length() - 1) + ",\"sign\":\"" + sign + "\"}";
+        
+        assertEquals(signMap, parse(body));
+        assertTrue(RsaSignTool.verifyRsaSign256(parse(signedBody), RsaSignTool.signPublicKey));
+    }
+    
+    private Map<String, String> parse(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        NettyDataBuffer dataBuffer = bufferFactory.allocateBuffer(bytes.length);
+        dataBuffer.write(bytes);
+        try {
+            return RequestBodyParser.parseTopLevel(dataBuffer);
+        }finally {
+            dataBuffer.release();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.damai.filter;
+
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.pro.limit.RateLimiterProperty;
+import com.damai.property.GatewayProperty;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.damai.constant.GatewayConstant.NO_VERIFY;
+import static com.damai.constant.GatewayConstant.VERIFY_VALUE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 并发许可在真实http请求下的测试，多个客户端线程同时请求，下游延迟结束并记录同时执行的请求数，
+ * 同时执行的请求数和限流器的计数都不能超过路由的许可数，超出的请求返回429，客户端断开时许可也要归还
+ * @author: 阿星不是程序员
+ **/
+public class RequestValidationFilterConcurrencyTest {
+    
+    private static final int RATE_PERMITS = 8;
+    
+    private static final int ROUTE_PERMITS = 4;
+    
+    private static final int CLIENT_THREADS = 32;
+    
+    private static final int REQUESTS_PER_THREAD = 4;
+    
+    private static final String PATH = "/damai/program/list";
+    
+    private static GatewayFilterTestServer gatewayFilterTestServer;
+    
+    private final AtomicInteger concurrent = new AtomicInteger();
+    
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    
+    @BeforeAll
+    public static void startServer() throws IOException {
+        SpringUtilTestSupport.initialize();
+        RateLimiterProperty rateLimiterProperty = new RateLimiterProperty();
+        rateLimiterProperty.setRateSwitch(true);
+        rateLimiterProperty.setRatePermits(RATE_PERMITS);
+        rateLimiterProperty.setRoutePermits(Map.of(GatewayFilterTestServer.ROUTE_ID, ROUTE_PERMITS));
+        rateLimiterProperty.setUserPermits(0);
+        rateLimiterProperty.setUserBurst(0);
+        rateLimiterProperty.setUserExpire(600);
+        rateLimiterProperty.setRetryAfter(1);
+        GatewayProperty gatewayProperty = new GatewayProperty();
+        gatewayProperty.setAllowNormalAccess(true);
+        gatewayProperty.setMaxBodySize(2 * 1024 * 1024);
+        gatewayFilterTestServer = new GatewayFilterTestServer(gatewayProperty, rateLimiterProperty);
+    }
+    
+    @AfterAll
+    public static void stopServer() throws IOException {
+        gatewayFilterTestServer.close();
+    }
+    
+    @BeforeEach
+    public void setUp() {
+        gatewayFilterTestServer.resetDownstream();
+        concurrent.set(0);
+        maxConcurrent.set(0);
+        maxInFlight.set(0);
+    }
+    
+    @Test
+    public void concurrentRequestsNeverExceedRoutePermits() throws Exception {
+        gatewayFilterTestServer.setDownstream(exchange -> Mono.defer(() -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            maxInFlight.accumulateAndGet(gatewayFilterTestServer.getRateLimiter().getInFlightCount(), Math::max);
+            //延迟在定时线程上结束，不占用事件循环，许可在这段时间内一直被持有
+            return Mono.delay(Duration.ofMillis(20))
+                    .doFinally(signalType -> concurrent.decrementAndGet())
+                    .then(GatewayFilterTestServer.echo(exchange));
+        }));
+        
+        ExecutorService executorService = Executors.newFixedThreadPool(CLIENT_THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<int[]>> futureList = new ArrayList<>(CLIENT_THREADS);
+        for (int i = 0; i < CLIENT_THREADS; i++) {
+            futureList.add(executorService.submit(() -> {
+                start.await();
+                int[] statusCount = new int[2];
+                for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                    EntityExchangeResult<byte[]> result = get();
+                    if (result.getStatus() == HttpStatus.OK) {
+                        statusCount[0]++;
+                    }else {
+                        assertEquals(HttpStatus.TOO_MANY_REQUESTS, result.getStatus());
+                        assertEquals("1", result.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+                        statusCount[1]++;
+                    }
+                }
+                return statusCount;
+            }));
+        }
+        start.countDown();
+        int passed = 0;
+        int limited = 0;
+        for (Future<int[]> future : futureList) {
+            int[] statusCount = future.get();
+            passed += statusCount[0];
+            limited += statusCount[1];
+        }
+        executorService.shutdown();
+        
+        assertEquals(CLIENT_THREADS * REQUESTS_PER_THREAD, passed + limited);
+        assertTrue(passed > 0);
+        assertTrue(limited > 0);
+        assertTrue(maxConcurrent.get() <= ROUTE_PERMITS, "max concurrent : " + maxConcurrent.get());
+        assertTrue(maxInFlight.get() <= ROUTE_PERMITS, "max in flight : " + maxInFlight.get());
+        assertEquals(0, gatewayFilterTestServer.awaitInFlightCount());
+        assertEquals(0, gatewayFilterTestServer.getRateLimiter().getRouteInFlightCount(GatewayFilterTestServer.ROUTE_ID));
+    }
+    
+    @Test
+    public void clientDisconnectReturnsPermit() throws InterruptedException {
+        //下游永远不结束，客户端等待超时后取消请求并关闭连接，服务端随之取消订阅，许可在取消时归还
+        gatewayFilterTestServer.setDownstream(exchange -> Mono.never());
+        
+        for (int i = 0; i < ROUTE_PERMITS * 2; i++) {
+            assertThrows(IllegalStateException.class, () -> gatewayFilterTestServer.getWebTestClient().mutate()
+                    .responseTimeout(Duration.ofMillis(200)).build()
+                    .get().uri(PATH)
+                    .header(NO_VERIFY, VERIFY_VALUE)
+                    .exchange());
+            assertEquals(0, gatewayFilterTestServer.awaitInFlightCount());
+        }
+        
+        gatewayFilterTestServer.resetDownstream();
+        assertEquals(HttpStatus.OK, get().getStatus());
+    }
+    
+    private EntityExchangeResult<byte[]> get() {
+        return gatewayFilterTestServer.getWebTestClient().get().uri(PATH)
+                .header(NO_VERIFY, VERIFY_VALUE)
+                .exchange()
+                .expectBody().returnResult();
+    }
+}
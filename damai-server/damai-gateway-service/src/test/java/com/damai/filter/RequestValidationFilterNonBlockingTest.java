@@ -0,0 +1,230 @@
+package com.damai.filter;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.damai.common.ApiResponse;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.enums.BaseCode;
+import com.damai.enums.RuleTimeUnit;
+import com.damai.jwt.TokenUtil;
+import com.damai.pro.limit.RateLimiterProperty;
+import com.damai.property.GatewayProperty;
+import com.damai.util.RsaSignTool;
+import com.damai.util.RsaTool;
+import com.damai.vo.GetChannelDataVo;
+import com.damai.vo.RuleVo;
+import com.damai.vo.UserVo;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.damai.constant.GatewayConstant.BUSINESS_BODY;
+import static com.damai.constant.GatewayConstant.CODE;
+import static com.damai.constant.GatewayConstant.ENCRYPT;
+import static com.damai.constant.GatewayConstant.NO_VERIFY;
+import static com.damai.constant.GatewayConstant.TOKEN;
+import static com.damai.constant.GatewayConstant.USER_ID;
+import static com.damai.constant.GatewayConstant.V2;
+import static com.damai.constant.GatewayConstant.VERIFY_VALUE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 验证流程运行在netty事件循环上时不能有阻塞调用，安装BlockHound后用WebTestClient发送真实的http请求，
+ * 渠道数据、登录用户和规则计数都在嵌入式redis中，缓存没有命中时阻塞的feign调用必须切换到boundedElastic
+ * @author: 阿星不是程序员
+ **/
+public class RequestValidationFilterNonBlockingTest {
+    
+    private static final String CHANNEL_CODE = "0001";
+    
+    private static final String TOKEN_SECRET = "CSYZWECHAT";
+    
+    private static final String ORDER_CREATE_PATH = "/damai/order/create";
+    
+    private static final String EVENT_LOOP_THREAD = "(reactor-http|lettuce-(epoll|nio)EventLoop).*";
+    
+    private static GatewayFilterTestServer gatewayFilterTestServer;
+    
+    @BeforeAll
+    public static void startServer() throws IOException {
+        SpringUtilTestSupport.initialize();
+        BlockingCallRecorder.install();
+        RateLimiterProperty rateLimiterProperty = new RateLimiterProperty();
+        rateLimiterProperty.setRateSwitch(true);
+        rateLimiterProperty.setRatePermits(100);
+        rateLimiterProperty.setRoutePermits(Map.of());
+        rateLimiterProperty.setUserPermits(100);
+        rateLimiterProperty.setUserBurst(100);
+        rateLimiterProperty.setUserExpire(600);
+        rateLimiterProperty.setRetryAfter(1);
+        gatewayFilterTestServer = new GatewayFilterTestServer(gatewayProperty(), rateLimiterProperty);
+    }
+    
+    @AfterAll
+    public static void stopServer() throws IOException {
+        gatewayFilterTestServer.close();
+    }
+    
+    @BeforeEach
+    public void setUp() {
+        gatewayFilterTestServer.flushRedis();
+        gatewayFilterTestServer.resetDownstream();
+        Mockito.reset(gatewayFilterTestServer.getBaseDataClient());
+        BlockingCallRecorder.drain();
+    }
+    
+    @Test
+    public void signedEncryptedRequestIsValidatedOnEventLoopWithoutBlocking() throws InterruptedException {
+        gatewayFilterTestServer.putChannelData(channelData());
+        gatewayFilterTestServer.putLoginUser(CHANNEL_CODE, loginUser());
+        //阈值为2，第二次请求触发规则，两次都要执行redis中的lua
+        gatewayFilterTestServer.putRule(rule(2));
+        String businessBody = "{\"programId\":\"1\",\"ticketCount\":2}";
+        
+        JSONObject passed = post(ORDER_CREATE_PATH, signedBody(businessBody));
+        
+        assertEquals(businessBody, passed.getString(GatewayFilterTestServer.DOWNSTREAM_BODY));
+        assertEquals(CHANNEL_CODE, passed.getString(CODE));
+        assertEquals("10", passed.getString(USER_ID));
+        //整个验证流程没有切换线程，转发时仍然在netty或者lettuce的事件循环线程中
+        assertTrue(passed.getString(GatewayFilterTestServer.DOWNSTREAM_THREAD).matches(EVENT_LOOP_THREAD),
+                passed.getString(GatewayFilterTestServer.DOWNSTREAM_THREAD));
+        
+        JSONObject limited = post(ORDER_CREATE_PATH, signedBody(businessBody));
+        
+        assertEquals(BaseCode.API_RULE_TRIGGER.getCode(), limited.getInteger(CODE));
+        assertEquals(List.of(), BlockingCallRecorder.drain());
+        Mockito.verifyNoInteractions(gatewayFilterTestServer.getBaseDataClient());
+        assertEquals(0, gatewayFilterTestServer.awaitInFlightCount());
+    }
+    
+    @Test
+    public void channelDataMissCallsBlockingClientOffEventLoop() {
+        gatewayFilterTestServer.putLoginUser(CHANNEL_CODE, loginUser());
+        AtomicReference<String> clientThreadName = new AtomicReference<>();
+        Mockito.when(gatewayFilterTestServer.getBaseDataClient().getByCode(Mockito.any())).thenAnswer(invocation -> {
+            clientThreadName.set(Thread.currentThread().getName());
+            //feign是阻塞的http调用，在事件循环中执行会被BlockHound发现
+            Thread.sleep(20);
+            return ApiResponse.ok(channelData());
+        });
+        String businessBody = "{\"programId\":\"2\"}";
+        
+        JSONObject first = post(ORDER_CREATE_PATH, signedBody(businessBody));
+        JSONObject cached = post(ORDER_CREATE_PATH, signedBody(businessBody));
+        
+        assertEquals(businessBody, first.getString(GatewayFilterTestServer.DOWNSTREAM_BODY));
+        assertEquals(businessBody, cached.getString(GatewayFilterTestServer.DOWNSTREAM_BODY));
+        assertTrue(clientThreadName.get().startsWith("boundedElastic"), clientThreadName.get());
+        Mockito.verify(gatewayFilterTestServer.getBaseDataClient(), Mockito.times(1)).getByCode(Mockito.any());
+        assertEquals(List.of(), BlockingCallRecorder.drain());
+    }
+    
+    @Test
+    public void blockingCallOnEventLoopIsDetected() throws InterruptedException {
+        //确认BlockHound确实在检查事件循环线程，阻塞的下游会被发现并以错误结束
+        gatewayFilterTestServer.setDownstream(exchange -> Mono.defer(() -> {
+            sleep();
+            return GatewayFilterTestServer.echo(exchange);
+        }));
+        
+        gatewayFilterTestServer.getWebTestClient().get().uri("/damai/program/list")
+                .header(NO_VERIFY, VERIFY_VALUE)
+                .exchange()
+                .expectStatus().is5xxServerError();
+        
+        List<String> blockingCallList = BlockingCallRecorder.drain();
+        assertFalse(blockingCallList.isEmpty());
+        assertTrue(blockingCallList.get(0).contains("java.lang.Thread.sleep"), blockingCallList.toString());
+        assertEquals(0, gatewayFilterTestServer.awaitInFlightCount());
+    }
+    
+    private JSONObject post(String path, String body) {
+        EntityExchangeResult<byte[]> result = gatewayFilterTestServer.getWebTestClient().post().uri(path)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(TOKEN, TokenUtil.createToken("1", "{\"userId\":\"10\"}", 60000, TOKEN_SECRET))
+                .header(ENCRYPT, V2)
+                .bodyValue(body)
+                .exchange()
+                .expectBody().returnResult();
+        //阻塞调用会以500结束，先检查记录的阻塞调用便于定位
+        assertEquals(List.of(), BlockingCallRecorder.drain());
+        assertEquals(HttpStatus.OK, result.getStatus());
+        return JSON.parseObject(new String(result.getResponseBody(), StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * 业务参数明文签名后加密传输
+     * */
+    private String signedBody(String businessBody) {
+        Map<String, String> map = new HashMap<>(4);
+        map.put(CODE, CHANNEL_CODE);
+        map.put(BUSINESS_BODY, businessBody);
+        map.put("sign", RsaSignTool.rsaSign256(map, RsaSignTool.signPrivateKey));
+        map.put(BUSINESS_BODY, RsaTool.encrypt(businessBody, RsaSignTool.dataPublicKey));
+        return JSON.toJSONString(map);
+    }
+    
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static GatewayProperty gatewayProperty() {
+        GatewayProperty gatewayProperty = new GatewayProperty();
+        gatewayProperty.setCheckTokenPaths(new String[]{"/**/order/create"});
+        gatewayProperty.setCheckSkipParmeterPaths(new String[]{"/**/alipay/notify"});
+        gatewayProperty.setUserIdPaths(new String[]{"/**/program/detail"});
+        gatewayProperty.setApiRestrictPaths(new String[]{"/**/order/create"});
+        gatewayProperty.setAllowNormalAccess(true);
+        gatewayProperty.setMaxBodySize(2 * 1024 * 1024);
+        return gatewayProperty;
+    }
+    
+    private GetChannelDataVo channelData() {
+        GetChannelDataVo getChannelDataVo = new GetChannelDataVo();
+        getChannelDataVo.setCode(CHANNEL_CODE);
+        getChannelDataVo.setSignPublicKey(RsaSignTool.signPublicKey);
+        getChannelDataVo.setDataPublicKey(RsaSignTool.dataPublicKey);
+        getChannelDataVo.setDataSecretKey(RsaSignTool.dataPrivateKey);
+        getChannelDataVo.setTokenSecret(TOKEN_SECRET);
+        return getChannelDataVo;
+    }
+    
+    private UserVo loginUser() {
+        UserVo userVo = new UserVo();
+        userVo.setId("10");
+        userVo.setName("damai");
+        return userVo;
+    }
+    
+    private RuleVo rule(int threshold) {
+        RuleVo ruleVo = new RuleVo();
+        ruleVo.setStatTime(10);
+        ruleVo.setStatTimeType(RuleTimeUnit.SECOND.getCode());
+        ruleVo.setThreshold(threshold);
+        ruleVo.setEffectiveTime(1);
+        ruleVo.setEffectiveTimeType(RuleTimeUnit.MINUTE.getCode());
+        ruleVo.setMessage("rule message");
+        return ruleVo;
+    }
+}
@@ -0,0 +1,138 @@
+package com.damai.filter;
+
+import com.damai.exception.GatewayDefaultExceptionHandler;
+import com.damai.exception.GatewayRateLimitException;
+import com.damai.pro.limit.RateLimiter;
+import com.damai.pro.limit.RateLimiterProperty;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.URI;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 网关并发许可的测试，下游用可以手动结束的Mono代替，许可在请求链路完成、出错或取消时才归还，
+ * 获取不到许可时返回429和Retry-After
+ * @author: 阿星不是程序员
+ **/
+public class RequestValidationFilterRateLimitTest {
+    
+    private static final String ORDER_ROUTE = "order-service";
+    
+    private final GatewayFilterChain chain = Mockito.mock(GatewayFilterChain.class);
+    
+    private RateLimiter rateLimiter;
+    
+    private RequestValidationFilter requestValidationFilter;
+    
+    private Sinks.Empty<Void> downstream;
+    
+    @BeforeEach
+    public void setUp() {
+        RateLimiterProperty rateLimiterProperty = new RateLimiterProperty();
+        rateLimiterProperty.setRateSwitch(true);
+        rateLimiterProperty.setRatePermits(2);
+        rateLimiterProperty.setRoutePermits(Map.of(ORDER_ROUTE, 1));
+        rateLimiterProperty.setUserPermits(0);
+        rateLimiterProperty.setUserBurst(0);
+        rateLimiterProperty.setUserExpire(600);
+        rateLimiterProperty.setRetryAfter(2);
+        rateLimiter = new RateLimiter(rateLimiterProperty);
+        requestValidationFilter = Mockito.spy(new RequestValidationFilter());
+        ReflectionTestUtils.setField(requestValidationFilter, "rateLimiterProperty", rateLimiterProperty);
+        ReflectionTestUtils.setField(requestValidationFilter, "rateLimiter", rateLimiter);
+        //每次请求的下游都由当前的downstream决定何时结束
+        Mockito.doAnswer(invocation -> downstream.asMono()).when(requestValidationFilter).doFilter(Mockito.any(), Mockito.any());
+    }
+    
+    @Test
+    public void permitIsHeldUntilDownstreamCompletes() {
+        downstream = Sinks.empty();
+        Sinks.Empty<Void> first = downstream;
+        Disposable disposable = requestValidationFilter.filter(exchange(ORDER_ROUTE), chain).subscribe();
+        assertEquals(1, rateLimiter.getInFlightCount());
+        assertEquals(1, rateLimiter.getRouteInFlightCount(ORDER_ROUTE));
+        
+        //路由的许可已经用完
+        downstream = Sinks.empty();
+        assertThrows(GatewayRateLimitException.class, () -> requestValidationFilter.filter(exchange(ORDER_ROUTE), chain).block());
+        assertEquals(1, rateLimiter.getInFlightCount());
+        
+        first.tryEmitEmpty();
+        assertEquals(0, rateLimiter.getInFlightCount());
+        assertEquals(0, rateLimiter.getRouteInFlightCount(ORDER_ROUTE));
+        disposable.dispose();
+    }
+    
+    @Test
+    public void permitIsReleasedOnErrorAndCancel() {
+        downstream = Sinks.empty();
+        Sinks.Empty<Void> failing = downstream;
+        requestValidationFilter.filter(exchange(null), chain).subscribe(v -> {}, e -> {});
+        downstream = Sinks.empty();
+        Disposable cancelled = requestValidationFilter.filter(exchange(null), chain).subscribe();
+        assertEquals(2, rateLimiter.getInFlightCount());
+        
+        failing.tryEmitError(new IllegalStateException("downstream error"));
+        assertEquals(1, rateLimiter.getInFlightCount());
+        //客户端断开连接
+        cancelled.dispose();
+        assertEquals(0, rateLimiter.getInFlightCount());
+    }
+    
+    @Test
+    public void permitIsNotTakenBeforeSubscribe() {
+        downstream = Sinks.empty();
+        Mono<Void> mono = requestValidationFilter.filter(exchange(ORDER_ROUTE), chain);
+        assertEquals(0, rateLimiter.getInFlightCount());
+        
+        Disposable disposable = mono.subscribe();
+        assertEquals(1, rateLimiter.getInFlightCount());
+        disposable.dispose();
+        assertEquals(0, rateLimiter.getInFlightCount());
+    }
+    
+    @Test
+    public void rejectionIsMappedTo429WithRetryAfter() {
+        downstream = Sinks.empty();
+        Disposable first = requestValidationFilter.filter(exchange(null), chain).subscribe();
+        Disposable second = requestValidationFilter.filter(exchange(null), chain).subscribe();
+        MockServerWebExchange rejected = exchange(null);
+        GatewayRateLimitException exception = assertThrows(GatewayRateLimitException.class,
+                () -> requestValidationFilter.filter(rejected, chain).block());
+        
+        new GatewayDefaultExceptionHandler().handle(rejected, exception).block();
+        
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getResponse().getStatusCode());
+        assertEquals("2", rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        first.dispose();
+        second.dispose();
+        assertEquals(0, rateLimiter.getInFlightCount());
+    }
+    
+    private MockServerWebExchange exchange(String routeId) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/damai/order/get"));
+        if (routeId != null) {
+            Route route = Route.async().id(routeId).uri(URI.create("http://localhost:8080"))
+                    .predicate(serverWebExchange -> true).build();
+            exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR, route);
+        }
+        return exchange;
+    }
+}
@@ -0,0 +1,130 @@
+package com.damai.filter;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.exception.GatewayDefaultExceptionHandler;
+import com.damai.property.GatewayProperty;
+import com.damai.service.ChannelDataService;
+import com.damai.service.CryptoKeyCache;
+import com.damai.vo.GetChannelDataVo;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.damai.constant.GatewayConstant.CODE;
+import static com.damai.constant.GatewayConstant.ENCRYPT;
+import static com.damai.constant.GatewayConstant.V2;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 响应加密过滤器的测试，响应体在限制内时加密data字段，超过限制时不转发未加密的响应体，
+ * 聚合过的buffer全部释放，由异常处理返回错误信息
+ * @author: 阿星不是程序员
+ **/
+public class ResponseValidationFilterTest {
+    
+    private static final int MAX_RESPONSE_BODY_SIZE = 4096;
+    
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    
+    private final List<NettyDataBuffer> upstreamBufferList = new ArrayList<>();
+    
+    private ResponseValidationFilter responseValidationFilter;
+    
+    @BeforeEach
+    public void setUp() {
+        GatewayProperty gatewayProperty = new GatewayProperty();
+        gatewayProperty.setMaxResponseBodySize(MAX_RESPONSE_BODY_SIZE);
+        ChannelDataService channelDataService = Mockito.mock(ChannelDataService.class);
+        Mockito.when(channelDataService.getChannelDataByCode(Mockito.anyString())).thenReturn(Mono.just(new GetChannelDataVo()));
+        CryptoKeyCache cryptoKeyCache = Mockito.mock(CryptoKeyCache.class);
+        Mockito.when(cryptoKeyCache.encrypt(Mockito.anyString(), Mockito.any(), Mockito.anyString()))
+                .thenAnswer(invocation -> "encrypted:" + invocation.getArgument(2));
+        responseValidationFilter = new ResponseValidationFilter();
+        ReflectionTestUtils.setField(responseValidationFilter, "gatewayProperty", gatewayProperty);
+        ReflectionTestUtils.setField(responseValidationFilter, "channelDataService", channelDataService);
+        ReflectionTestUtils.setField(responseValidationFilter, "cryptoKeyCache", cryptoKeyCache);
+    }
+    
+    @Test
+    public void dataIsEncryptedWithinTheLimit() {
+        MockServerWebExchange exchange = exchange();
+        String responseBody = "{\"code\":0,\"data\":{\"id\":\"1\"},\"message\":\"ok\"}";
+        
+        responseValidationFilter.filter(exchange, upstream(responseBody.substring(0, 10), responseBody.substring(10))).block();
+        
+        JSONObject result = JSON.parseObject(exchange.getResponse().getBodyAsString().block());
+        assertEquals(0, result.getIntValue("code"));
+        assertEquals("encrypted:{\"id\":\"1\"}", result.getString("data"));
+        assertUpstreamReleased();
+    }
+    
+    @Test
+    public void bodyOverTheLimitIsNotForwardedAndBuffersAreReleased() {
+        MockServerWebExchange exchange = exchange();
+        exchange.getResponse().getHeaders().setContentLength(3 * 2048);
+        String chunk = "a".repeat(2048);
+        
+        DaMaiFrameException exception = assertThrows(DaMaiFrameException.class,
+                () -> responseValidationFilter.filter(exchange, upstream("{\"data\":\"" + chunk, chunk, chunk + "\"}")).block());
+        
+        assertEquals(BaseCode.RESPONSE_BODY_TOO_LARGE.getCode(), exception.getCode());
+        assertFalse(exchange.getResponse().isCommitted());
+        assertNull(exchange.getResponse().getHeaders().get(HttpHeaders.CONTENT_LENGTH));
+        assertUpstreamReleased();
+        
+        new GatewayDefaultExceptionHandler().handle(exchange, exception).block();
+        JSONObject result = JSON.parseObject(exchange.getResponse().getBodyAsString().block());
+        assertEquals(BaseCode.RESPONSE_BODY_TOO_LARGE.getCode(), result.getIntValue("code"));
+    }
+    
+    private MockServerWebExchange exchange() {
+        return MockServerWebExchange.from(MockServerHttpRequest.post("/damai/program/detail")
+                .header(ENCRYPT, V2).header(CODE, "0001"));
+    }
+    
+    /**
+     * 下游服务分多个池化的buffer返回响应体
+     * */
+    private GatewayFilterChain upstream(String... chunks) {
+        return (ServerWebExchange serverWebExchange) -> {
+            List<DataBuffer> dataBufferList = new ArrayList<>();
+            for (String chunk : chunks) {
+                byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+                NettyDataBuffer dataBuffer = bufferFactory.allocateBuffer(bytes.length);
+                dataBuffer.write(bytes);
+                upstreamBufferList.add(dataBuffer);
+                dataBufferList.add(dataBuffer);
+            }
+            return serverWebExchange.getResponse().writeWith(Flux.fromIterable(dataBufferList));
+        };
+    }
+    
+    private void assertUpstreamReleased() {
+        for (NettyDataBuffer dataBuffer : upstreamBufferList) {
+            assertEquals(0, dataBuffer.getNativeBuffer().refCnt());
+        }
+    }
+}
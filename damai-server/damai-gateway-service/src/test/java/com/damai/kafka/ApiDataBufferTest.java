@@ -0,0 +1,204 @@
+package com.damai.kafka;
+
+import com.alibaba.fastjson.JSON;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.dto.ApiDataDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: api调用记录发送缓冲的测试，发送用记录每个批次的mock代替，
+ * 检查按条数和按间隔的刷新、写满时覆盖最旧的记录，以及并发写入时每条记录要么发送一次要么计入丢弃数
+ * @author: 阿星不是程序员
+ **/
+public class ApiDataBufferTest {
+    
+    private final ConcurrentLinkedQueue<List<ApiDataDto>> batchQueue = new ConcurrentLinkedQueue<>();
+    
+    private ApiDataBuffer apiDataBuffer;
+    
+    @AfterEach
+    public void tearDown() {
+        if (apiDataBuffer != null) {
+            apiDataBuffer.destroy();
+        }
+    }
+    
+    @Test
+    public void fullBatchIsFlushedWithoutWaitingForInterval() throws InterruptedException {
+        apiDataBuffer = new ApiDataBuffer(messageSend(batchQueue::add), 1024, 100, 60000);
+        for (long i = 0; i < 100; i++) {
+            apiDataBuffer.offer(apiData(i));
+        }
+        
+        awaitSentCount(100);
+        assertEquals(1, batchQueue.size());
+        assertEquals(sequence(0, 100), sentIdList());
+    }
+    
+    @Test
+    public void partialBatchIsFlushedOnInterval() throws InterruptedException {
+        apiDataBuffer = new ApiDataBuffer(messageSend(batchQueue::add), 1024, 100, 50);
+        for (long i = 0; i < 10; i++) {
+            apiDataBuffer.offer(apiData(i));
+        }
+        
+        awaitSentCount(10);
+        assertEquals(sequence(0, 10), sentIdList());
+    }
+    
+    @Test
+    public void overflowOverwritesOldestAndCountsDropped() throws InterruptedException {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        //第一次发送阻塞住刷新线程，期间写入的记录超过缓冲容量
+        apiDataBuffer = new ApiDataBuffer(messageSend(batch -> {
+            batchQueue.add(batch);
+            if (sending.getCount() > 0) {
+                sending.countDown();
+                try {
+                    release.await();
+                }catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }), 16, 4, 60000);
+        for (long i = 0; i < 4; i++) {
+            apiDataBuffer.offer(apiData(i));
+        }
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        for (long i = 4; i < 104; i++) {
+            apiDataBuffer.offer(apiData(i));
+        }
+        release.countDown();
+        apiDataBuffer.destroy();
+        
+        List<Long> expected = sequence(0, 4);
+        expected.addAll(sequence(88, 104));
+        assertEquals(expected, sentIdList());
+        assertEquals(84, apiDataBuffer.getDroppedCount());
+    }
+    
+    @Test
+    public void concurrentProducersWithinCapacityLoseNothing() throws InterruptedException {
+        apiDataBuffer = new ApiDataBuffer(messageSend(batchQueue::add), 1 << 16, 256, 10);
+        offerConcurrently(8, 5000);
+        apiDataBuffer.destroy();
+        
+        List<Long> sentIdList = sentIdList();
+        assertEquals(40000, sentIdList.size());
+        assertEquals(40000, new HashSet<>(sentIdList).size());
+        assertEquals(0, apiDataBuffer.getDroppedCount());
+    }
+    
+    @Test
+    public void concurrentOverflowAccountsForEveryRecord() throws InterruptedException {
+        apiDataBuffer = new ApiDataBuffer(messageSend(batchQueue::add), 64, 16, 1);
+        offerConcurrently(8, 5000);
+        apiDataBuffer.destroy();
+        
+        List<Long> sentIdList = sentIdList();
+        Set<Long> sentIdSet = new HashSet<>(sentIdList);
+        assertEquals(sentIdList.size(), sentIdSet.size());
+        assertEquals(40000, sentIdSet.size() + apiDataBuffer.getDroppedCount());
+    }
+    
+    @Test
+    public void batchIsSentAsOneJsonArrayMessage() {
+        SpringUtilTestSupport.initialize();
+        @SuppressWarnings("unchecked")
+        KafkaTemplate<String, String> kafkaTemplate = Mockito.mock(KafkaTemplate.class);
+        ApiDataMessageSend apiDataMessageSend = new ApiDataMessageSend(kafkaTemplate, "save_api_data");
+        
+        apiDataMessageSend.sendBatchMessage(new ArrayList<>());
+        Mockito.verifyNoInteractions(kafkaTemplate);
+        
+        apiDataMessageSend.sendBatchMessage(List.of(apiData(1L), apiData(2L)));
+        ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(kafkaTemplate).send(Mockito.eq("damai-save_api_data"), messageCaptor.capture());
+        List<ApiDataDto> apiDataDtoList = JSON.parseArray(messageCaptor.getValue(), ApiDataDto.class);
+        assertEquals(2, apiDataDtoList.size());
+        assertEquals(2L, apiDataDtoList.get(1).getId());
+    }
+    
+    private void offerConcurrently(int threadCount, int countPerThread) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < threadCount; i++) {
+            long base = (long)i * countPerThread;
+            executorService.execute(() -> {
+                try {
+                    start.await();
+                }catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int j = 0; j < countPerThread; j++) {
+                    apiDataBuffer.offer(apiData(base + j));
+                }
+            });
+        }
+        start.countDown();
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+    }
+    
+    private ApiDataMessageSend messageSend(Consumer<List<ApiDataDto>> consumer) {
+        ApiDataMessageSend apiDataMessageSend = Mockito.mock(ApiDataMessageSend.class);
+        Mockito.doAnswer(invocation -> {
+            consumer.accept(invocation.getArgument(0));
+            return null;
+        }).when(apiDataMessageSend).sendBatchMessage(Mockito.any());
+        return apiDataMessageSend;
+    }
+    
+    private void awaitSentCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sentIdList().size() < count && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(count, sentIdList().size());
+    }
+    
+    private List<Long> sentIdList() {
+        List<Long> idList = new ArrayList<>();
+        for (List<ApiDataDto> batch : batchQueue) {
+            for (ApiDataDto apiDataDto : batch) {
+                idList.add(apiDataDto.getId());
+            }
+        }
+        return idList;
+    }
+    
+    private List<Long> sequence(long start, long end) {
+        List<Long> idList = new ArrayList<>();
+        for (long i = start; i < end; i++) {
+            idList.add(i);
+        }
+        return idList;
+    }
+    
+    private ApiDataDto apiData(long id) {
+        ApiDataDto apiDataDto = new ApiDataDto();
+        apiDataDto.setId(id);
+        return apiDataDto;
+    }
+}
@@ -0,0 +1,197 @@
+package com.damai.path;
+
+import com.damai.property.GatewayProperty;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 路径前缀树的测试，匹配结果和原来逐个使用AntPathMatcher的结果一致，
+ * 路径都以/开头、至少一段且不以/结尾，和网关收到的请求路径一致
+ * @author: 阿星不是程序员
+ **/
+public class PathPatternIndexTest {
+    
+    private static final String[] CHECK_TOKEN_PATHS = {"/**/program/order/create/v1", "/**/program/order/create/v2",
+            "/**/program/order/create/v3", "/**/program/order/create/v4", "/**/ticket/user/add", "/**/ticket/user/delete",
+            "/**/ticket/user/list", "/**/user/authentication", "/**/user/update", "/**/user/update/email",
+            "/**/user/update/mobile", "/**/user/update/password", "/**/order/cancel", "/**/order/create", "/**/order/pay",
+            "/**/order/select/list", "/**/order/get", "/**/order/cancel"};
+    
+    private static final String[] SKIP_CHECK_PARAMETER_PATHS = {"/**/alipay/notify"};
+    
+    private static final String[] USER_ID_PATHS = {"/**/program/detail", "/**/program/detail/v1", "/**/program/detail/v2"};
+    
+    private static final String[] API_RESTRICT_PATHS = {"/**/customize/test/test"};
+    
+    private static final String[] PATTERN_SEGMENTS = {"a", "b", "c", "*", "?", "a*", "*b", "{id}", "**"};
+    
+    private static final String[] PATH_SEGMENTS = {"a", "b", "c", "ab", "ba", "abc"};
+    
+    private final AntPathMatcher antPathMatcher = new AntPathMatcher();
+    
+    private final Random random = new Random(20240701L);
+    
+    @Test
+    public void configuredPathsMatchAntPathMatcher() {
+        Map<PathPolicy, String[]> patternMap = new EnumMap<>(PathPolicy.class);
+        patternMap.put(PathPolicy.CHECK_TOKEN, CHECK_TOKEN_PATHS);
+        patternMap.put(PathPolicy.SKIP_CHECK_PARAMETER, SKIP_CHECK_PARAMETER_PATHS);
+        patternMap.put(PathPolicy.NEED_USER_ID, USER_ID_PATHS);
+        patternMap.put(PathPolicy.API_RESTRICT, API_RESTRICT_PATHS);
+        PathPatternIndex pathPatternIndex = index(patternMap);
+        
+        List<String> urlList = new ArrayList<>();
+        for (String[] patterns : patternMap.values()) {
+            for (String pattern : patterns) {
+                String suffix = pattern.substring("/**".length());
+                urlList.add(suffix);
+                urlList.add("/damai" + suffix);
+                urlList.add("/damai/v1" + suffix);
+                urlList.add(suffix + "/more");
+                urlList.add(suffix.substring(0, suffix.lastIndexOf('/')));
+                urlList.add("/damai" + suffix + "x");
+            }
+        }
+        urlList.add("/damai/program/detail/v3");
+        urlList.add("/damai/user/get");
+        for (String url : urlList) {
+            assertEquals(antMatch(patternMap, url), pathPatternIndex.match(url), url);
+        }
+        assertEquals(EnumSet.of(PathPolicy.CHECK_TOKEN), pathPatternIndex.match("/damai/order/create"));
+        assertEquals(EnumSet.of(PathPolicy.NEED_USER_ID), pathPatternIndex.match("/damai/program/detail/v1"));
+        assertTrue(pathPatternIndex.match("/damai/pay/alipay/notify", PathPolicy.SKIP_CHECK_PARAMETER));
+        assertTrue(pathPatternIndex.match("/damai/program/list").isEmpty());
+    }
+    
+    @Test
+    public void randomPatternsMatchAntPathMatcher() {
+        for (int i = 0; i < 2000; i++) {
+            String pattern = randomPattern();
+            PathPatternIndex pathPatternIndex = PathPatternIndex.empty().add(pattern, PathPolicy.API_RESTRICT);
+            for (int j = 0; j < 50; j++) {
+                String url = randomPath();
+                assertEquals(antPathMatcher.match(pattern, url), pathPatternIndex.match(url, PathPolicy.API_RESTRICT),
+                        "pattern : " + pattern + " url : " + url);
+            }
+        }
+    }
+    
+    @Test
+    public void randomPatternSetsMatchAntPathMatcher() {
+        for (int i = 0; i < 200; i++) {
+            Map<PathPolicy, String[]> patternMap = new EnumMap<>(PathPolicy.class);
+            for (PathPolicy pathPolicy : PathPolicy.values()) {
+                String[] patterns = new String[1 + random.nextInt(5)];
+                for (int j = 0; j < patterns.length; j++) {
+                    patterns[j] = randomPattern();
+                }
+                patternMap.put(pathPolicy, patterns);
+            }
+            PathPatternIndex pathPatternIndex = index(patternMap);
+            for (int j = 0; j < 100; j++) {
+                String url = randomPath();
+                assertEquals(antMatch(patternMap, url), pathPatternIndex.match(url), "url : " + url);
+            }
+        }
+    }
+    
+    @Test
+    public void variableWithRegexIsMatched() {
+        PathPatternIndex pathPatternIndex = PathPatternIndex.empty().add("/**/program/{id:\\d+}", PathPolicy.NEED_USER_ID);
+        
+        assertTrue(pathPatternIndex.match("/damai/program/123", PathPolicy.NEED_USER_ID));
+        assertFalse(pathPatternIndex.match("/damai/program/abc", PathPolicy.NEED_USER_ID));
+        assertThrows(IllegalArgumentException.class, () -> PathPatternIndex.empty().add("/program/{id", PathPolicy.NEED_USER_ID));
+    }
+    
+    @Test
+    public void consecutiveDoubleWildcardsDoNotBacktrackExponentially() {
+        PathPatternIndex pathPatternIndex = PathPatternIndex.empty()
+                .add("/**/**/**/**/**/**/**/**/missing", PathPolicy.API_RESTRICT)
+                .add("/**/a/**/a/**/a/**/a/**/end", PathPolicy.CHECK_TOKEN);
+        StringBuilder url = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            url.append("/a");
+        }
+        
+        long start = System.currentTimeMillis();
+        assertTrue(pathPatternIndex.match(url.toString()).isEmpty());
+        assertEquals(EnumSet.of(PathPolicy.CHECK_TOKEN), pathPatternIndex.match(url + "/end"));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed < 5000, "elapsed : " + elapsed);
+    }
+    
+    @Test
+    public void holderRebuildReplacesIndex() {
+        GatewayProperty gatewayProperty = new GatewayProperty();
+        gatewayProperty.setCheckTokenPaths(CHECK_TOKEN_PATHS);
+        gatewayProperty.setCheckSkipParmeterPaths(SKIP_CHECK_PARAMETER_PATHS);
+        gatewayProperty.setUserIdPaths(USER_ID_PATHS);
+        PathPatternIndexHolder pathPatternIndexHolder = new PathPatternIndexHolder();
+        ReflectionTestUtils.setField(pathPatternIndexHolder, "gatewayProperty", gatewayProperty);
+        pathPatternIndexHolder.init();
+        assertTrue(pathPatternIndexHolder.match("/damai/customize/test/test").isEmpty());
+        
+        gatewayProperty.setApiRestrictPaths(API_RESTRICT_PATHS);
+        gatewayProperty.setCheckTokenPaths(new String[]{"/**/order/get"});
+        pathPatternIndexHolder.rebuild();
+        
+        assertEquals(EnumSet.of(PathPolicy.API_RESTRICT), pathPatternIndexHolder.match("/damai/customize/test/test"));
+        assertTrue(pathPatternIndexHolder.match("/damai/order/get").contains(PathPolicy.CHECK_TOKEN));
+        assertTrue(pathPatternIndexHolder.match("/damai/order/pay").isEmpty());
+    }
+    
+    private PathPatternIndex index(Map<PathPolicy, String[]> patternMap) {
+        PathPatternIndex pathPatternIndex = PathPatternIndex.empty();
+        patternMap.forEach((pathPolicy, patterns) -> pathPatternIndex.addAll(patterns, pathPolicy));
+        return pathPatternIndex;
+    }
+    
+    /**
+     * 原来的匹配方式，每个策略逐个模式使用AntPathMatcher匹配
+     * */
+    private Set<PathPolicy> antMatch(Map<PathPolicy, String[]> patternMap, String url) {
+        Set<PathPolicy> result = EnumSet.noneOf(PathPolicy.class);
+        patternMap.forEach((pathPolicy, patterns) -> {
+            for (String pattern : patterns) {
+                if (antPathMatcher.match(pattern, url)) {
+                    result.add(pathPolicy);
+                }
+            }
+        });
+        return result;
+    }
+    
+    private String randomPattern() {
+        StringBuilder pattern = new StringBuilder();
+        int segmentCount = 1 + random.nextInt(4);
+        for (int i = 0; i < segmentCount; i++) {
+            pattern.append('/').append(PATTERN_SEGMENTS[random.nextInt(PATTERN_SEGMENTS.length)]);
+        }
+        return pattern.toString();
+    }
+    
+    private String randomPath() {
+        StringBuilder path = new StringBuilder();
+        int segmentCount = 1 + random.nextInt(5);
+        for (int i = 0; i < segmentCount; i++) {
+            path.append('/').append(PATH_SEGMENTS[random.nextInt(PATH_SEGMENTS.length)]);
+        }
+        return path.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package com.damai.pro.limit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 网关限流的测试，整体和路由维度按处理中的请求数限制，获取失败时不占用许可，用户维度按令牌桶限制速率
+ * @author: 阿星不是程序员
+ **/
+public class RateLimiterTest {
+    
+    private static final String ORDER_ROUTE = "order-service";
+    
+    @Test
+    public void routePermitsAreLimitedSeparately() {
+        RateLimiter rateLimiter = new RateLimiter(property(10, Map.of(ORDER_ROUTE, 2), 0, 0));
+        
+        assertTrue(rateLimiter.tryAcquire(ORDER_ROUTE));
+        assertTrue(rateLimiter.tryAcquire(ORDER_ROUTE));
+        assertFalse(rateLimiter.tryAcquire(ORDER_ROUTE));
+        //路由获取失败时归还整体的许可
+        assertEquals(2, rateLimiter.getInFlightCount());
+        assertEquals(2, rateLimiter.getRouteInFlightCount(ORDER_ROUTE));
+        
+        //没有配置限制的路由只受整体限制
+        assertTrue(rateLimiter.tryAcquire("program-service"));
+        assertTrue(rateLimiter.tryAcquire(null));
+        assertEquals(4, rateLimiter.getInFlightCount());
+        assertEquals(-1, rateLimiter.getRouteInFlightCount("program-service"));
+        
+        rateLimiter.release(ORDER_ROUTE);
+        assertTrue(rateLimiter.tryAcquire(ORDER_ROUTE));
+        rateLimiter.release(ORDER_ROUTE);
+        rateLimiter.release(ORDER_ROUTE);
+        rateLimiter.release("program-service");
+        rateLimiter.release(null);
+        assertEquals(0, rateLimiter.getInFlightCount());
+        assertEquals(0, rateLimiter.getRouteInFlightCount(ORDER_ROUTE));
+    }
+    
+    @Test
+    public void globalPermitsAreNotExceededUnderContention() throws InterruptedException {
+        int permits = 50;
+        RateLimiter rateLimiter = new RateLimiter(property(permits, Map.of(ORDER_ROUTE, 30), 0, 0));
+        int threadCount = 16;
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger routeInFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger maxRouteInFlight = new AtomicInteger();
+        for (int i = 0; i < threadCount; i++) {
+            String routeId = i % 2 == 0 ? ORDER_ROUTE : null;
+            executorService.execute(() -> {
+                try {
+                    start.await();
+                }catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int j = 0; j < 2000; j++) {
+                    if (!rateLimiter.tryAcquire(routeId)) {
+                        continue;
+                    }
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    if (routeId != null) {
+                        maxRouteInFlight.accumulateAndGet(routeInFlight.incrementAndGet(), Math::max);
+                        routeInFlight.decrementAndGet();
+                    }
+                    inFlight.decrementAndGet();
+                    rateLimiter.release(routeId);
+                }
+            });
+        }
+        start.countDown();
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+        
+        assertTrue(maxInFlight.get() <= permits, "maxInFlight : " + maxInFlight.get());
+        assertTrue(maxRouteInFlight.get() <= 30, "maxRouteInFlight : " + maxRouteInFlight.get());
+        assertEquals(0, rateLimiter.getInFlightCount());
+        assertEquals(0, rateLimiter.getRouteInFlightCount(ORDER_ROUTE));
+    }
+    
+    @Test
+    public void userBucketAllowsBurstThenReportsRetryAfter() {
+        RateLimiter rateLimiter = new RateLimiter(property(10, null, 1, 3));
+        
+        assertTrue(rateLimiter.isUserLimitEnabled());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, rateLimiter.tryAcquireUser("1"));
+        }
+        //每秒生成一个令牌，等待时间向上取整为1秒
+        assertEquals(1, rateLimiter.tryAcquireUser("1"));
+        //其他用户不受影响
+        assertEquals(0, rateLimiter.tryAcquireUser("2"));
+    }
+    
+    @Test
+    public void userBucketRefillsOverTime() throws InterruptedException {
+        RateLimiter rateLimiter = new RateLimiter(property(10, null, 100, 0));
+        //容量没有配置时和每秒生成的令牌数一致
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, rateLimiter.tryAcquireUser("1"));
+        }
+        assertEquals(1, rateLimiter.tryAcquireUser("1"));
+        
+        TimeUnit.MILLISECONDS.sleep(50);
+        
+        assertEquals(0, rateLimiter.tryAcquireUser("1"));
+    }
+    
+    @Test
+    public void userLimitDisabledOrAnonymousAlwaysPasses() {
+        RateLimiter disabled = new RateLimiter(property(10, null, 0, 0));
+        assertFalse(disabled.isUserLimitEnabled());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, disabled.tryAcquireUser("1"));
+        }
+        RateLimiter enabled = new RateLimiter(property(10, null, 1, 1));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, enabled.tryAcquireUser(null));
+        }
+    }
+    
+    @Test
+    public void tokenBucketReportsWaitForNextToken() {
+        UserTokenBucket userTokenBucket = new UserTokenBucket(2, 1);
+        
+        assertEquals(0, userTokenBucket.tryAcquire());
+        long waitNanos = userTokenBucket.tryAcquire();
+        assertTrue(waitNanos > 0 && waitNanos <= TimeUnit.MILLISECONDS.toNanos(500), "waitNanos : " + waitNanos);
+    }
+    
+    private RateLimiterProperty property(int ratePermits, Map<String, Integer> routePermits, int userPermits, int userBurst) {
+        RateLimiterProperty rateLimiterProperty = new RateLimiterProperty();
+        rateLimiterProperty.setRateSwitch(true);
+        rateLimiterProperty.setRatePermits(ratePermits);
+        rateLimiterProperty.setRoutePermits(routePermits);
+        rateLimiterProperty.setUserPermits(userPermits);
+        rateLimiterProperty.setUserBurst(userBurst);
+        rateLimiterProperty.setUserExpire(600);
+        rateLimiterProperty.setRetryAfter(1);
+        return rateLimiterProperty;
+    }
+}
@@ -0,0 +1,141 @@
+package com.damai.service;
+
+import com.alibaba.fastjson.JSON;
+import com.damai.client.BaseDataClient;
+import com.damai.common.ApiResponse;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.enums.BaseCode;
+import com.damai.exception.ArgumentException;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.vo.GetChannelDataVo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 渠道数据获取的测试，redis用内存中的map代替，
+ * 缓存没有命中时阻塞的feign调用不能在非阻塞线程(netty事件循环)中执行
+ * @author: 阿星不是程序员
+ **/
+public class ChannelDataServiceTest {
+    
+    private static final String CODE = "0001";
+    
+    private static final String CHANNEL_DATA_KEY = "damai-channel_data_0001";
+    
+    private final Map<String, String> valueStore = new HashMap<>();
+    
+    private final BaseDataClient baseDataClient = Mockito.mock(BaseDataClient.class);
+    
+    private final CryptoKeyCache cryptoKeyCache = Mockito.mock(CryptoKeyCache.class);
+    
+    private ChannelDataService channelDataService;
+    
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        SpringUtilTestSupport.initialize();
+        
+        ReactiveValueOperations<String, String> valueOperations = Mockito.mock(ReactiveValueOperations.class);
+        Mockito.when(valueOperations.get(Mockito.anyString())).thenAnswer(invocation ->
+                Mono.fromSupplier(() -> valueStore.get(invocation.<String>getArgument(0))));
+        Mockito.when(valueOperations.set(Mockito.anyString(), Mockito.anyString())).thenAnswer(invocation ->
+                Mono.fromSupplier(() -> {
+                    valueStore.put(invocation.getArgument(0), invocation.getArgument(1));
+                    return true;
+                }));
+        ReactiveStringRedisTemplate reactiveStringRedisTemplate = Mockito.mock(ReactiveStringRedisTemplate.class);
+        Mockito.when(reactiveStringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        
+        channelDataService = new ChannelDataService();
+        ReflectionTestUtils.setField(channelDataService, "reactiveStringRedisTemplate", reactiveStringRedisTemplate);
+        ReflectionTestUtils.setField(channelDataService, "baseDataClient", baseDataClient);
+        ReflectionTestUtils.setField(channelDataService, "cryptoKeyCache", cryptoKeyCache);
+    }
+    
+    @Test
+    public void cachedChannelDataSkipsClient() {
+        valueStore.put(CHANNEL_DATA_KEY, JSON.toJSONString(channelData()));
+        
+        GetChannelDataVo getChannelDataVo = channelDataService.getChannelDataByCode(CODE).block();
+        
+        assertEquals(CODE, getChannelDataVo.getCode());
+        Mockito.verifyNoInteractions(baseDataClient, cryptoKeyCache);
+    }
+    
+    @Test
+    public void clientIsCalledOffNonBlockingThreadAndResultCached() {
+        AtomicBoolean calledInNonBlockingThread = new AtomicBoolean(true);
+        AtomicReference<String> clientThreadName = new AtomicReference<>();
+        Mockito.when(baseDataClient.getByCode(Mockito.any())).thenAnswer(invocation -> {
+            calledInNonBlockingThread.set(Schedulers.isInNonBlockingThread());
+            clientThreadName.set(Thread.currentThread().getName());
+            return ApiResponse.ok(channelData());
+        });
+        
+        Mono<GetChannelDataVo> mono = channelDataService.getChannelDataByCode(CODE);
+        //组装时不访问redis和feign
+        assertTrue(valueStore.isEmpty());
+        Mockito.verifyNoInteractions(baseDataClient);
+        
+        //在parallel这类非阻塞线程中订阅，和netty事件循环线程一样不允许阻塞
+        GetChannelDataVo getChannelDataVo = mono.subscribeOn(Schedulers.parallel()).block();
+        
+        assertEquals(CODE, getChannelDataVo.getCode());
+        assertFalse(calledInNonBlockingThread.get());
+        assertTrue(clientThreadName.get().startsWith("boundedElastic"), clientThreadName.get());
+        assertEquals(CODE, JSON.parseObject(valueStore.get(CHANNEL_DATA_KEY), GetChannelDataVo.class).getCode());
+        Mockito.verify(cryptoKeyCache).invalidate(CODE);
+        
+        //再次获取时命中缓存
+        channelDataService.getChannelDataByCode(CODE).block();
+        Mockito.verify(baseDataClient, Mockito.times(1)).getByCode(Mockito.any());
+    }
+    
+    @Test
+    public void clientErrorsAreMappedAndNotCached() {
+        Mockito.when(baseDataClient.getByCode(Mockito.any())).thenReturn(ApiResponse.error(BaseCode.SYSTEM_ERROR));
+        DaMaiFrameException notExist = assertThrows(DaMaiFrameException.class,
+                () -> channelDataService.getChannelDataByCode(CODE).block());
+        assertEquals(BaseCode.CHANNEL_DATA_NOT_EXIST.getCode(), notExist.getCode());
+        
+        Mockito.when(baseDataClient.getByCode(Mockito.any())).thenThrow(new IllegalStateException("connection refused"));
+        DaMaiFrameException systemError = assertThrows(DaMaiFrameException.class,
+                () -> channelDataService.getChannelDataByCode(CODE).block());
+        assertEquals(BaseCode.SYSTEM_ERROR.getCode(), systemError.getCode());
+        
+        assertTrue(valueStore.isEmpty());
+        Mockito.verifyNoInteractions(cryptoKeyCache);
+    }
+    
+    @Test
+    public void emptyCodeFailsOnSubscribe() {
+        Mono<GetChannelDataVo> mono = channelDataService.getChannelDataByCode("");
+        
+        assertThrows(ArgumentException.class, mono::block);
+        Mockito.verifyNoInteractions(baseDataClient);
+    }
+    
+    private GetChannelDataVo channelData() {
+        GetChannelDataVo getChannelDataVo = new GetChannelDataVo();
+        getChannelDataVo.setCode(CODE);
+        getChannelDataVo.setTokenSecret("secret");
+        return getChannelDataVo;
+    }
+}
@@ -0,0 +1,152 @@
+package com.damai.service;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.util.RsaSignTool;
+import com.damai.util.RsaTool;
+import com.damai.vo.GetChannelDataVo;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 渠道密钥缓存的测试，密钥只解析一次，渠道密钥变化时重新解析，
+ * 每个线程复用自己的Cipher和Signature，并发加解密和验签的结果和使用字符串密钥时一致
+ * @author: 阿星不是程序员
+ **/
+public class CryptoKeyCacheTest {
+    
+    private static final String CODE = "0001";
+    
+    private final CryptoKeyCache cryptoKeyCache = new CryptoKeyCache();
+    
+    @Test
+    public void keysAreParsedOnceAndReparsedWhenChanged() {
+        GetChannelDataVo channelData = channelData();
+        ChannelCryptoKey channelCryptoKey = cryptoKeyCache.get(CODE, channelData);
+        assertSame(channelCryptoKey.getDataPublicKey(), channelCryptoKey.getDataPublicKey());
+        assertSame(channelCryptoKey.getDataSecretKey(), channelCryptoKey.getDataSecretKey());
+        assertSame(channelCryptoKey.getSignPublicKey(), channelCryptoKey.getSignPublicKey());
+        assertSame(channelCryptoKey, cryptoKeyCache.get(CODE, channelData()));
+        
+        //渠道数据中的密钥被更换
+        GetChannelDataVo rotated = channelData();
+        rotated.setDataPublicKey(RsaSignTool.signPublicKey);
+        ChannelCryptoKey rotatedKey = cryptoKeyCache.get(CODE, rotated);
+        assertNotSame(channelCryptoKey, rotatedKey);
+        assertFalse(rotatedKey.matches(channelData));
+        
+        cryptoKeyCache.invalidate(CODE);
+        assertNotSame(rotatedKey, cryptoKeyCache.get(CODE, rotated));
+    }
+    
+    @Test
+    public void encryptAndDecryptMatchStringKeyImplementation() {
+        GetChannelDataVo channelData = channelData();
+        //超过一个分段的明文
+        String data = "{\"programId\":\"1\",\"title\":\"" + "演唱会".repeat(100) + "\"}";
+        
+        String encrypted = cryptoKeyCache.encrypt(CODE, channelData, data);
+        assertEquals(data, cryptoKeyCache.decrypt(CODE, channelData, encrypted));
+        assertEquals(data, RsaTool.decrypt(encrypted, RsaSignTool.dataPrivateKey));
+        assertEquals(data, cryptoKeyCache.decrypt(CODE, channelData, RsaTool.encrypt(data, RsaSignTool.dataPublicKey)));
+        
+        String hybridEncrypted = cryptoKeyCache.hybridEncrypt(CODE, channelData, data);
+        assertEquals(data, cryptoKeyCache.hybridDecrypt(CODE, channelData, hybridEncrypted));
+        assertEquals(data, RsaTool.hybridDecrypt(hybridEncrypted, RsaSignTool.dataPrivateKey));
+    }
+    
+    @Test
+    public void signIsVerifiedWithCachedKey() {
+        GetChannelDataVo channelData = channelData();
+        Map<String, String> params = new HashMap<>(8);
+        params.put("code", CODE);
+        params.put("businessBody", "{\"id\":\"1\"}");
+        String sign = RsaSignTool.rsaSign256(params, RsaSignTool.signPrivateKey);
+        
+        params.put("sign", sign);
+        assertTrue(cryptoKeyCache.verifySign(CODE, channelData, new HashMap<>(params)));
+        
+        Map<String, String> tampered = new HashMap<>(params);
+        tampered.put("businessBody", "{\"id\":\"2\"}");
+        assertFalse(cryptoKeyCache.verifySign(CODE, channelData, tampered));
+    }
+    
+    @Test
+    public void concurrentUseOfThreadLocalCiphers() throws Exception {
+        GetChannelDataVo channelData = channelData();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> futureList = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            String data = "data-" + i + "-" + "x".repeat(i * 10);
+            futureList.add(executorService.submit(() -> {
+                for (int j = 0; j < 5; j++) {
+                    if (!data.equals(cryptoKeyCache.decrypt(CODE, channelData, cryptoKeyCache.encrypt(CODE, channelData, data)))) {
+                        return false;
+                    }
+                    if (!data.equals(cryptoKeyCache.hybridDecrypt(CODE, channelData,
+                            cryptoKeyCache.hybridEncrypt(CODE, channelData, data)))) {
+                        return false;
+                    }
+                    Map<String, String> params = new HashMap<>(4);
+                    params.put("businessBody", data);
+                    params.put("sign", RsaSignTool.rsaSign256(Map.of("businessBody", data), RsaSignTool.signPrivateKey));
+                    if (!cryptoKeyCache.verifySign(CODE, channelData, params)) {
+                        return false;
+                    }
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> future : futureList) {
+            assertTrue(future.get());
+        }
+        executorService.shutdown();
+    }
+    
+    @Test
+    public void errorsAreMappedToBaseCode() {
+        GetChannelDataVo channelData = channelData();
+        String hybridEncrypted = cryptoKeyCache.hybridEncrypt(CODE, channelData, "data");
+        //改动AES密文中的一个字节，GCM校验失败
+        int index = hybridEncrypted.indexOf('.');
+        byte[] payload = Base64.getDecoder().decode(hybridEncrypted.substring(index + 1));
+        payload[payload.length - 1] ^= 1;
+        String tampered = hybridEncrypted.substring(0, index + 1) + Base64.getEncoder().encodeToString(payload);
+        DaMaiFrameException decryptException = assertThrows(DaMaiFrameException.class,
+                () -> cryptoKeyCache.hybridDecrypt(CODE, channelData, tampered));
+        assertEquals(BaseCode.RSA_DECRYPT_ERROR.getCode(), decryptException.getCode());
+        //解密失败后当前线程的Cipher仍然可以使用
+        assertEquals("data", cryptoKeyCache.hybridDecrypt(CODE, channelData, hybridEncrypted));
+        
+        GetChannelDataVo invalid = channelData();
+        invalid.setDataPublicKey("invalid");
+        DaMaiFrameException encryptException = assertThrows(DaMaiFrameException.class,
+                () -> cryptoKeyCache.encrypt("0002", invalid, "data"));
+        assertEquals(BaseCode.RSA_ENCRYPT_ERROR.getCode(), encryptException.getCode());
+    }
+    
+    private GetChannelDataVo channelData() {
+        GetChannelDataVo getChannelDataVo = new GetChannelDataVo();
+        getChannelDataVo.setCode(CODE);
+        getChannelDataVo.setSignPublicKey(RsaSignTool.signPublicKey);
+        getChannelDataVo.setDataPublicKey(RsaSignTool.dataPublicKey);
+        getChannelDataVo.setDataSecretKey(RsaSignTool.dataPrivateKey);
+        return getChannelDataVo;
+    }
+}
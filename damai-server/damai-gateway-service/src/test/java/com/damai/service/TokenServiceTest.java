@@ -0,0 +1,108 @@
+package com.damai.service;
+
+import com.alibaba.fastjson.JSON;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.jwt.TokenUtil;
+import com.damai.vo.UserVo;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: token校验的测试，登录用户从响应式redis中获取，解析token失败或者用户没有登录时以错误信号结束
+ * @author: 阿星不是程序员
+ **/
+public class TokenServiceTest {
+    
+    private static final String CODE = "0001";
+    
+    private static final String TOKEN_SECRET = "CSYZWECHAT";
+    
+    private final Map<String, String> valueStore = new HashMap<>();
+    
+    private ReactiveValueOperations<String, String> valueOperations;
+    
+    private TokenService tokenService;
+    
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        SpringUtilTestSupport.initialize();
+        
+        valueOperations = Mockito.mock(ReactiveValueOperations.class);
+        Mockito.when(valueOperations.get(Mockito.anyString())).thenAnswer(invocation ->
+                Mono.fromSupplier(() -> valueStore.get(invocation.<String>getArgument(0))));
+        ReactiveStringRedisTemplate reactiveStringRedisTemplate = Mockito.mock(ReactiveStringRedisTemplate.class);
+        Mockito.when(reactiveStringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        tokenService = new TokenService();
+        ReflectionTestUtils.setField(tokenService, "reactiveStringRedisTemplate", reactiveStringRedisTemplate);
+    }
+    
+    @Test
+    public void loggedInUserIsReturned() {
+        UserVo userVo = new UserVo();
+        userVo.setId("10");
+        userVo.setName("damai");
+        valueStore.put("damai-user_login_0001_10", JSON.toJSONString(userVo));
+        String token = TokenUtil.createToken("1", "{\"userId\":\"10\"}", 60000, TOKEN_SECRET);
+        
+        Mono<UserVo> mono = tokenService.getUser(token, CODE, TOKEN_SECRET);
+        //组装时不访问redis
+        Mockito.verifyNoInteractions(valueOperations);
+        
+        UserVo user = mono.block();
+        assertEquals("10", user.getId());
+        assertEquals("damai", user.getName());
+    }
+    
+    @Test
+    public void userNotLoggedInIsError() {
+        String token = TokenUtil.createToken("1", "{\"userId\":\"10\"}", 60000, TOKEN_SECRET);
+        
+        DaMaiFrameException exception = assertThrows(DaMaiFrameException.class,
+                () -> tokenService.getUser(token, CODE, TOKEN_SECRET).block());
+        assertEquals(BaseCode.LOGIN_USER_NOT_EXIST.getCode(), exception.getCode());
+    }
+    
+    @Test
+    public void tokenWithoutUserIdDoesNotReadRedis() {
+        String token = TokenUtil.createToken("1", "{\"name\":\"damai\"}", 60000, TOKEN_SECRET);
+        
+        DaMaiFrameException exception = assertThrows(DaMaiFrameException.class,
+                () -> tokenService.getUser(token, CODE, TOKEN_SECRET).block());
+        assertEquals(BaseCode.LOGIN_USER_NOT_EXIST.getCode(), exception.getCode());
+        Mockito.verifyNoInteractions(valueOperations);
+    }
+    
+    @Test
+    public void expiredTokenIsErrorSignal() {
+        String token = Jwts.builder()
+                .setId("1")
+                .setSubject("{\"userId\":\"10\"}")
+                .setExpiration(new Date(System.currentTimeMillis() - 60000))
+                .signWith(SignatureAlgorithm.HS256, TOKEN_SECRET)
+                .compact();
+        
+        //解析异常在订阅时以错误信号返回，不会在组装时抛出
+        Mono<UserVo> mono = tokenService.getUser(token, CODE, TOKEN_SECRET);
+        DaMaiFrameException exception = assertThrows(DaMaiFrameException.class, mono::block);
+        assertEquals(BaseCode.TOKEN_EXPIRE.getCode(), exception.getCode());
+        Mockito.verifyNoInteractions(valueOperations);
+    }
+}
@@ -0,0 +1,225 @@
+package com.damai.service.rule;
+
+import com.alibaba.fastjson.JSON;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.enums.RuleTimeUnit;
+import com.damai.vo.DepthRuleVo;
+import com.damai.vo.RuleVo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 预编译规则的测试，时间换算和深度规则的时间窗口和原来每次请求解析的结果一致，
+ * 跨过零点时切换到新的一天，版本变化时才重新加载规则
+ * @author: 阿星不是程序员
+ **/
+public class CompiledRuleSetTest {
+    
+    private static final ZoneId ZONE_ID = ZoneId.of("Asia/Shanghai");
+    
+    private final Map<String, String> valueStore = new HashMap<>();
+    
+    private final Map<String, String> ruleHash = new HashMap<>();
+    
+    private ReactiveHashOperations<String, String, String> hashOperations;
+    
+    @BeforeEach
+    public void setUp() {
+        SpringUtilTestSupport.initialize();
+    }
+    
+    @Test
+    public void timesAreConvertedToSeconds() {
+        CompiledRuleSet compiledRuleSet = CompiledRuleSet.compile(1L,
+                rule(10, RuleTimeUnit.SECOND, 2, RuleTimeUnit.MINUTE), null, ZONE_ID);
+        
+        assertTrue(compiledRuleSet.hasRule());
+        assertFalse(compiledRuleSet.hasDepthRule());
+        CompiledRule rule = compiledRuleSet.getRule();
+        assertEquals(10L, rule.getStatTime());
+        assertEquals(120L, rule.getEffectiveTime());
+        assertEquals(100L, rule.getThreshold());
+        assertEquals("rule message", rule.getMessage());
+    }
+    
+    @Test
+    public void depthRulesAreSortedAndWindowsMatchParsedTime() {
+        String depthRuleStr = JSON.toJSONString(List.of(
+                depthRule("20:00", "23:59", 3, RuleTimeUnit.MINUTE, "night"),
+                depthRule("08:30", "12:00", 30, RuleTimeUnit.SECOND, "morning"),
+                depthRule("12:00", "18:15", 1, RuleTimeUnit.MINUTE, "")));
+        CompiledRuleSet compiledRuleSet = CompiledRuleSet.compile(1L,
+                rule(10, RuleTimeUnit.SECOND, 1, RuleTimeUnit.MINUTE), depthRuleStr, ZONE_ID);
+        
+        List<CompiledDepthRule> depthRules = compiledRuleSet.getDepthRules();
+        assertEquals(List.of("morning", "", "night"), depthRules.stream().map(CompiledDepthRule::getMessage).toList());
+        assertEquals(30L, depthRules.get(0).getStatTime());
+        assertEquals(60L, depthRules.get(1).getStatTime());
+        assertEquals(180L, depthRules.get(2).getStatTime());
+        
+        //原来每次请求时把当天日期和时间窗口拼接后解析为时间戳
+        LocalDate today = LocalDate.of(2024, 6, 1);
+        long currentTime = today.atTime(15, 0).atZone(ZONE_ID).toInstant().toEpochMilli();
+        long dayStart = compiledRuleSet.getDayStart(currentTime);
+        assertEquals(timestamp(today, "08:30"), dayStart + depthRules.get(0).getStartTimeWindowOffset());
+        assertEquals(timestamp(today, "12:00"), dayStart + depthRules.get(0).getEndTimeWindowOffset());
+        assertEquals(timestamp(today, "18:15"), dayStart + depthRules.get(1).getEndTimeWindowOffset());
+        assertEquals(timestamp(today, "23:59"), dayStart + depthRules.get(2).getEndTimeWindowOffset());
+    }
+    
+    @Test
+    public void dayStartRollsOverAtMidnight() {
+        CompiledRuleSet compiledRuleSet = CompiledRuleSet.compile(1L,
+                rule(10, RuleTimeUnit.SECOND, 1, RuleTimeUnit.MINUTE), null, ZONE_ID);
+        LocalDate today = LocalDate.of(2024, 6, 1);
+        long midnight = today.plusDays(1).atStartOfDay(ZONE_ID).toInstant().toEpochMilli();
+        
+        assertEquals(timestamp(today, "00:00"), compiledRuleSet.getDayStart(midnight - 1));
+        Object window = ReflectionTestUtils.getField(compiledRuleSet, "dayWindow");
+        assertEquals(timestamp(today, "00:00"), compiledRuleSet.getDayStart(midnight - TimeUnit.HOURS.toMillis(20)));
+        //同一天内不重新计算
+        assertSame(window, ReflectionTestUtils.getField(compiledRuleSet, "dayWindow"));
+        
+        assertEquals(midnight, compiledRuleSet.getDayStart(midnight));
+        assertEquals(midnight, compiledRuleSet.getDayStart(midnight + TimeUnit.HOURS.toMillis(23)));
+        //时间回退到前一天也能得到正确的结果
+        assertEquals(timestamp(today, "00:00"), compiledRuleSet.getDayStart(midnight - 1));
+    }
+    
+    @Test
+    public void dayStartHandlesDaylightSavingTime() {
+        ZoneId zoneId = ZoneId.of("America/New_York");
+        CompiledRuleSet compiledRuleSet = CompiledRuleSet.compile(1L,
+                rule(10, RuleTimeUnit.SECOND, 1, RuleTimeUnit.MINUTE), null, zoneId);
+        //2024-03-10 只有23个小时
+        LocalDate day = LocalDate.of(2024, 3, 10);
+        long dayStart = day.atStartOfDay(zoneId).toInstant().toEpochMilli();
+        long nextDayStart = day.plusDays(1).atStartOfDay(zoneId).toInstant().toEpochMilli();
+        assertEquals(TimeUnit.HOURS.toMillis(23), nextDayStart - dayStart);
+        
+        assertEquals(dayStart, compiledRuleSet.getDayStart(nextDayStart - 1));
+        assertEquals(nextDayStart, compiledRuleSet.getDayStart(nextDayStart));
+    }
+    
+    @Test
+    public void emptyRuleDisablesDepthRules() {
+        String depthRuleStr = JSON.toJSONString(List.of(depthRule("08:30", "12:00", 30, RuleTimeUnit.SECOND, "morning")));
+        CompiledRuleSet compiledRuleSet = CompiledRuleSet.compile(3L, "", depthRuleStr, ZONE_ID);
+        
+        assertEquals(3L, compiledRuleSet.getVersion());
+        assertFalse(compiledRuleSet.hasRule());
+        assertFalse(compiledRuleSet.hasDepthRule());
+        assertNull(compiledRuleSet.getRule());
+        assertFalse(CompiledRuleSet.EMPTY.hasRule());
+    }
+    
+    @Test
+    public void holderReloadsOnlyWhenVersionChanges() {
+        ApiRuleHolder apiRuleHolder = holder();
+        assertSame(CompiledRuleSet.EMPTY, apiRuleHolder.get());
+        valueStore.put("damai-all_rule_version", "1");
+        ruleHash.put("damai-rule", rule(10, RuleTimeUnit.SECOND, 1, RuleTimeUnit.MINUTE));
+        
+        reloadIfChanged(apiRuleHolder);
+        CompiledRuleSet first = apiRuleHolder.get();
+        assertEquals(1L, first.getVersion());
+        assertTrue(first.hasRule());
+        assertFalse(first.hasDepthRule());
+        
+        Mockito.clearInvocations(hashOperations);
+        reloadIfChanged(apiRuleHolder);
+        assertSame(first, apiRuleHolder.get());
+        Mockito.verify(hashOperations, Mockito.never()).get(Mockito.anyString(), Mockito.any());
+        
+        valueStore.put("damai-all_rule_version", "2");
+        ruleHash.put("damai-depth_rule", JSON.toJSONString(List.of(
+                depthRule("08:30", "12:00", 30, RuleTimeUnit.SECOND, "morning"))));
+        reloadIfChanged(apiRuleHolder);
+        assertEquals(2L, apiRuleHolder.get().getVersion());
+        assertEquals(1, apiRuleHolder.get().getDepthRules().size());
+    }
+    
+    @Test
+    public void holderReloadWithoutRuleKeepsNoRule() {
+        ApiRuleHolder apiRuleHolder = holder();
+        
+        apiRuleHolder.reload().block();
+        
+        assertEquals(0L, apiRuleHolder.get().getVersion());
+        assertFalse(apiRuleHolder.get().hasRule());
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ApiRuleHolder holder() {
+        ReactiveValueOperations<String, String> valueOperations = Mockito.mock(ReactiveValueOperations.class);
+        Mockito.when(valueOperations.get(Mockito.anyString())).thenAnswer(invocation ->
+                Mono.justOrEmpty(valueStore.get(invocation.<String>getArgument(0))));
+        hashOperations = Mockito.mock(ReactiveHashOperations.class);
+        Mockito.when(hashOperations.get(Mockito.anyString(), Mockito.any())).thenAnswer(invocation -> {
+            assertEquals("damai-all_rule_hash", invocation.getArgument(0));
+            return Mono.justOrEmpty(ruleHash.get(invocation.<String>getArgument(1)));
+        });
+        ReactiveStringRedisTemplate reactiveStringRedisTemplate = Mockito.mock(ReactiveStringRedisTemplate.class);
+        Mockito.when(reactiveStringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        Mockito.when(reactiveStringRedisTemplate.opsForHash()).thenReturn((ReactiveHashOperations) hashOperations);
+        ApiRuleHolder apiRuleHolder = new ApiRuleHolder();
+        ReflectionTestUtils.setField(apiRuleHolder, "reactiveStringRedisTemplate", reactiveStringRedisTemplate);
+        return apiRuleHolder;
+    }
+    
+    private void reloadIfChanged(ApiRuleHolder apiRuleHolder) {
+        Mono<Void> mono = ReflectionTestUtils.invokeMethod(apiRuleHolder, "reloadIfChanged");
+        mono.block();
+    }
+    
+    private String rule(int statTime, RuleTimeUnit statTimeType, int effectiveTime, RuleTimeUnit effectiveTimeType) {
+        RuleVo ruleVo = new RuleVo();
+        ruleVo.setStatTime(statTime);
+        ruleVo.setStatTimeType(statTimeType.getCode());
+        ruleVo.setThreshold(100);
+        ruleVo.setEffectiveTime(effectiveTime);
+        ruleVo.setEffectiveTimeType(effectiveTimeType.getCode());
+        ruleVo.setMessage("rule message");
+        return JSON.toJSONString(ruleVo);
+    }
+    
+    private DepthRuleVo depthRule(String startTimeWindow, String endTimeWindow, int statTime, RuleTimeUnit statTimeType,
+                                  String message) {
+        DepthRuleVo depthRuleVo = new DepthRuleVo();
+        depthRuleVo.setStartTimeWindow(startTimeWindow);
+        depthRuleVo.setEndTimeWindow(endTimeWindow);
+        depthRuleVo.setStatTime(statTime);
+        depthRuleVo.setStatTimeType(statTimeType.getCode());
+        depthRuleVo.setThreshold(10);
+        depthRuleVo.setEffectiveTime(1);
+        depthRuleVo.setEffectiveTimeType(RuleTimeUnit.MINUTE.getCode());
+        depthRuleVo.setMessage(message);
+        return depthRuleVo;
+    }
+    
+    private long timestamp(LocalDate day, String time) {
+        return LocalDateTime.of(day, LocalTime.parse(time)).atZone(ZONE_ID).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,291 @@
+package com.damai.service.rule;
+
+import com.damai.property.GatewayProperty;
+import com.damai.service.ApiRestrictData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 本地预聚合计数的模拟测试，多个网关节点共享一个内存中的redis，按模拟时间驱动请求和刷新，
+ * 统计放行数量的准确度、限制期间的放行数量和redis脚本的执行次数，以及并发累加和刷新同时进行时增量不能丢失
+ * @author: 阿星不是程序员
+ **/
+public class LocalApiRuleCounterTest {
+    
+    private static final String RULE_KEY = "rule_api_limit_sliding_test";
+    
+    private static final String LIMIT_KEY = "rule_limit_test";
+    
+    private static final long WINDOW_SIZE = 1000;
+    
+    private static final long THRESHOLD = 1000;
+    
+    private static final long EFFECTIVE_TIME = 5000;
+    
+    private static final long FLUSH_INTERVAL = 10;
+    
+    private static final int NODE_SIZE = 4;
+    
+    private static final int REQUEST_THREADS = 4;
+    
+    private FakeRedis fakeRedis;
+    
+    private List<LocalApiRuleCounter> nodeList;
+    
+    @BeforeEach
+    public void setUp(){
+        fakeRedis = new FakeRedis();
+        nodeList = new ArrayList<>();
+        for (int i = 0; i < NODE_SIZE; i++) {
+            nodeList.add(createCounter(fakeRedis));
+        }
+    }
+    
+    @Test
+    public void limitAccuracyAndRedisCallRate(){
+        List<String> limitKeys = List.of(LIMIT_KEY);
+        long requestCount = 0;
+        long passBeforeLimit = 0;
+        long passDuringLimit = 0;
+        long passAfterLimitKnown = 0;
+        long passAfterLimit = 0;
+        long limitStart = -1;
+        //每个节点每毫秒一个请求，合计是阈值的4倍
+        for (long time = 0; time < 8000; time++) {
+            for (LocalApiRuleCounter node : nodeList) {
+                requestCount++;
+                boolean pass = request(node, limitKeys, time);
+                if (limitStart < 0 && fakeRedis.limitExpireMap.containsKey(LIMIT_KEY)) {
+                    limitStart = fakeRedis.limitExpireMap.get(LIMIT_KEY) - EFFECTIVE_TIME;
+                }
+                if (!pass) {
+                    continue;
+                }
+                if (limitStart < 0) {
+                    passBeforeLimit++;
+                }else if (time < limitStart + EFFECTIVE_TIME) {
+                    passDuringLimit++;
+                    if (time >= limitStart + FLUSH_INTERVAL * 2) {
+                        passAfterLimitKnown++;
+                    }
+                }else {
+                    passAfterLimit++;
+                }
+            }
+            if (time % FLUSH_INTERVAL == 0) {
+                for (LocalApiRuleCounter node : nodeList) {
+                    node.flush(time).block();
+                }
+            }
+        }
+        assertTrue(limitStart > 0);
+        //其他节点没有刷新的增量最多为 (节点数-1) * 刷新间隔 个请求
+        assertTrue(passBeforeLimit >= THRESHOLD - 1, "pass before limit : " + passBeforeLimit);
+        assertTrue(passBeforeLimit <= THRESHOLD + NODE_SIZE * FLUSH_INTERVAL, "pass before limit : " + passBeforeLimit);
+        //其他节点最晚在下一次刷新时得知限制，之后整个限制时间内所有节点都不能放行
+        assertTrue(passDuringLimit <= (NODE_SIZE - 1) * FLUSH_INTERVAL * 2, "pass during limit : " + passDuringLimit);
+        assertEquals(0, passAfterLimitKnown);
+        assertTrue(passAfterLimit > 0);
+        //和每个请求都执行lua相比，redis脚本的执行次数至少减少到五分之一
+        long redisCallCount = fakeRedis.flushCallCount + fakeRedis.ruleCallCount;
+        assertTrue(redisCallCount * 5 < requestCount, "redis call : " + redisCallCount + " request : " + requestCount);
+    }
+    
+    @Test
+    public void limitTriggeredElsewhereIsRoutedToRedis(){
+        List<String> limitKeys = List.of(LIMIT_KEY);
+        LocalApiRuleCounter node = nodeList.get(0);
+        assertEquals(LocalApiRuleCounter.CheckResult.PASS, node.check(RULE_KEY, limitKeys, WINDOW_SIZE, THRESHOLD, 0));
+        //其他节点或者深度规则设置的限制key，本节点的计数远低于阈值
+        fakeRedis.limitExpireMap.put(LIMIT_KEY, 60_000L);
+        fakeRedis.currentTime = 5;
+        node.flush(5).block();
+        assertEquals(LocalApiRuleCounter.CheckResult.REMOTE, node.check(RULE_KEY, limitKeys, WINDOW_SIZE, THRESHOLD, 6));
+        fakeRedis.currentTime = 6;
+        node.onRemoteResult(RULE_KEY, fakeRedis.executeRule(RULE_KEY, LIMIT_KEY, 6), EFFECTIVE_TIME, 6);
+        //按redis中剩余的限制时间在本地拒绝，而不是按规则的限制时间
+        assertEquals(LocalApiRuleCounter.CheckResult.LIMITED, node.check(RULE_KEY, limitKeys, WINDOW_SIZE, THRESHOLD, 59_999));
+        assertEquals(LocalApiRuleCounter.CheckResult.PASS, node.check(RULE_KEY, limitKeys, WINDOW_SIZE, THRESHOLD, 60_000));
+    }
+    
+    @Test
+    public void flushSendsOnlyDeltasInBoundedBatches(){
+        LocalApiRuleCounter node = nodeList.get(0);
+        int ruleSize = LocalApiRuleCounter.MAX_FLUSH_RULE_SIZE * 2 + 1;
+        for (int i = 0; i < ruleSize; i++) {
+            node.check(RULE_KEY + i, List.of(LIMIT_KEY + i), WINDOW_SIZE, THRESHOLD, 0);
+        }
+        node.flush(1).block();
+        assertEquals(3, fakeRedis.flushCallCount);
+        assertTrue(fakeRedis.maxFlushRuleSize <= LocalApiRuleCounter.MAX_FLUSH_RULE_SIZE);
+        assertEquals(ruleSize, fakeRedis.flushRuleCount);
+        //没有新的请求时不刷新
+        node.flush(2).block();
+        assertEquals(3, fakeRedis.flushCallCount);
+    }
+    
+    @Test
+    public void concurrentIncrementsSurviveFlush() throws Exception {
+        LocalApiRuleCounter node = nodeList.get(0);
+        List<String> limitKeys = List.of(LIMIT_KEY);
+        //窗口很小，刷新线程推进时间，请求线程在刷新的同时累加当前窗口和刚结束的窗口
+        long windowSize = 50;
+        AtomicLong clock = new AtomicLong();
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executorService = Executors.newFixedThreadPool(REQUEST_THREADS);
+        List<Future<Long>> futureList = new ArrayList<>(REQUEST_THREADS);
+        for (int i = 0; i < REQUEST_THREADS; i++) {
+            futureList.add(executorService.submit(() -> {
+                long passCount = 0;
+                while (running.get() || passCount == 0) {
+                    if (node.check(RULE_KEY, limitKeys, windowSize, Long.MAX_VALUE, clock.get()) == LocalApiRuleCounter.CheckResult.PASS) {
+                        passCount++;
+                    }
+                }
+                return passCount;
+            }));
+        }
+        for (int i = 0; i < 2000; i++) {
+            fakeRedis.currentTime = clock.incrementAndGet();
+            node.flush(fakeRedis.currentTime).block();
+        }
+        running.set(false);
+        long passCount = 0;
+        for (Future<Long> future : futureList) {
+            passCount += future.get();
+        }
+        executorService.shutdown();
+        //请求结束后再刷新两次，已经结束的窗口先取走增量，下一次刷新时移除
+        for (int i = 1; i <= 2; i++) {
+            fakeRedis.currentTime = clock.get() + windowSize * i;
+            node.flush(fakeRedis.currentTime).block();
+        }
+        
+        long flushedCount = fakeRedis.hashMap.get(RULE_KEY).values().stream().mapToLong(Long::longValue).sum();
+        assertEquals(passCount, flushedCount);
+    }
+    
+    private boolean request(LocalApiRuleCounter node, List<String> limitKeys, long time){
+        fakeRedis.currentTime = time;
+        LocalApiRuleCounter.CheckResult checkResult = node.check(RULE_KEY, limitKeys, WINDOW_SIZE, THRESHOLD, time);
+        if (checkResult == LocalApiRuleCounter.CheckResult.PASS) {
+            return true;
+        }
+        if (checkResult == LocalApiRuleCounter.CheckResult.LIMITED) {
+            return false;
+        }
+        ApiRestrictData apiRestrictData = fakeRedis.executeRule(RULE_KEY, LIMIT_KEY, time);
+        node.onRemoteResult(RULE_KEY, apiRestrictData, EFFECTIVE_TIME, time);
+        return apiRestrictData.getTriggerResult() != 1;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private LocalApiRuleCounter createCounter(FakeRedis fakeRedis){
+        ReactiveStringRedisTemplate redisTemplate = Mockito.mock(ReactiveStringRedisTemplate.class);
+        Mockito.when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList()))
+                .thenAnswer(invocation -> Flux.just(fakeRedis.flush(invocation.getArgument(1), invocation.getArgument(2))));
+        GatewayProperty gatewayProperty = new GatewayProperty();
+        gatewayProperty.setApiRuleLocalAggregation(false);
+        LocalApiRuleCounter counter = new LocalApiRuleCounter();
+        ReflectionTestUtils.setField(counter, "reactiveStringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(counter, "gatewayProperty", gatewayProperty);
+        counter.init();
+        return counter;
+    }
+    
+    /**
+     * 按 apiLimitFlush.lua 和 apiLimit.lua 中普通规则的逻辑实现的内存redis
+     * */
+    private static class FakeRedis {
+        
+        private final Map<String, Map<Long, Long>> hashMap = new HashMap<>();
+        
+        private final Map<String, Long> limitExpireMap = new HashMap<>();
+        
+        private long currentTime;
+        
+        private long flushCallCount;
+        
+        private long flushRuleCount;
+        
+        private long maxFlushRuleSize;
+        
+        private long ruleCallCount;
+        
+        private List<Long> flush(List<String> keys, List<String> args){
+            flushCallCount++;
+            long windowSize = Long.parseLong(args.get(0));
+            int ruleSize = (args.size() - 1) / 3;
+            flushRuleCount += ruleSize;
+            maxFlushRuleSize = Math.max(maxFlushRuleSize, ruleSize);
+            List<Long> result = new ArrayList<>();
+            int keyIndex = 0;
+            for (int i = 0; i < ruleSize; i++) {
+                long windowIndex = Long.parseLong(args.get(1 + i * 3));
+                long delta = Long.parseLong(args.get(2 + i * 3));
+                int limitKeySize = Integer.parseInt(args.get(3 + i * 3));
+                assertTrue(delta > 0);
+                Map<Long, Long> counts = hashMap.computeIfAbsent(keys.get(keyIndex), key -> new HashMap<>());
+                long currentCount = counts.merge(windowIndex, delta, Long::sum);
+                long previousCount = counts.getOrDefault(windowIndex - 1, 0L);
+                long limitTtl = 0;
+                for (int j = 1; j <= limitKeySize; j++) {
+                    limitTtl = Math.max(limitTtl, ttl(keys.get(keyIndex + j)));
+                }
+                keyIndex += 1 + limitKeySize;
+                result.add(currentCount);
+                result.add(previousCount);
+                result.add(limitTtl);
+            }
+            assertEquals(keys.size(), keyIndex);
+            assertTrue(windowSize > 0);
+            return result;
+        }
+        
+        private ApiRestrictData executeRule(String ruleKey, String limitKey, long time){
+            ruleCallCount++;
+            long windowIndex = time / WINDOW_SIZE;
+            long windowElapsed = time - windowIndex * WINDOW_SIZE;
+            Map<Long, Long> counts = hashMap.computeIfAbsent(ruleKey, key -> new HashMap<>());
+            long currentCount = counts.merge(windowIndex, 1L, Long::sum);
+            long previousCount = counts.getOrDefault(windowIndex - 1, 0L);
+            long count = previousCount * (WINDOW_SIZE - windowElapsed) / WINDOW_SIZE + currentCount;
+            if (count >= THRESHOLD && ttl(limitKey) == 0) {
+                limitExpireMap.put(limitKey, time + EFFECTIVE_TIME);
+            }
+            long limitTtl = ttl(limitKey);
+            ApiRestrictData apiRestrictData = new ApiRestrictData();
+            apiRestrictData.setTriggerResult(limitTtl > 0 ? 1L : 0L);
+            apiRestrictData.setTriggerCallStat(0L);
+            apiRestrictData.setMessageIndex(-1L);
+            apiRestrictData.setLimitTtl(limitTtl);
+            return apiRestrictData;
+        }
+        
+        private long ttl(String limitKey){
+            Long expireTime = limitExpireMap.get(limitKey);
+            return expireTime == null ? 0 : Math.max(expireTime - currentTime, 0);
+        }
+    }
+}
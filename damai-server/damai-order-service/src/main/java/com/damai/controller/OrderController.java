@@ -4,12 +4,14 @@ import com.damai.common.ApiResponse;
 import com.damai.dto.AccountOrderCountDto;
 import com.damai.dto.OrderCancelDto;
 import com.damai.dto.OrderCreateDto;
+import com.damai.dto.OrderCursorListDto;
 import com.damai.dto.OrderGetDto;
 import com.damai.dto.OrderListDto;
 import com.damai.dto.OrderPayCheckDto;
 import com.damai.dto.OrderPayDto;
 import com.damai.service.OrderService;
 import com.damai.vo.AccountOrderCountVo;
+import com.damai.vo.OrderCursorListVo;
 import com.damai.vo.OrderGetVo;
 import com.damai.vo.OrderListVo;
 import com.damai.vo.OrderPayCheckVo;
@@ -68,6 +70,12 @@ public class OrderController {
         return ApiResponse.ok(orderService.selectList(orderListDto));
     }
     
+    @Operation(summary  = "查看订单列表(游标分页)")
+    @PostMapping(value = "/select/cursor/list")
+    public ApiResponse<OrderCursorListVo> selectCursorList(@Valid @RequestBody OrderCursorListDto orderCursorListDto) {
+        return ApiResponse.ok(orderService.cursorList(orderCursorListDto));
+    }
+    
     @Operation(summary  = "查看订单详情")
     @PostMapping(value = "/get")
     public ApiResponse<OrderGetVo> get(@Valid @RequestBody OrderGetDto orderGetDto) {
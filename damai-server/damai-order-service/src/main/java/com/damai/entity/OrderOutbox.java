@@ -0,0 +1,72 @@
+package com.damai.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.damai.data.BaseTableData;
+import lombok.Data;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单发件箱 实体
+ * @author: 阿星不是程序员
+ **/
+@Data
+@TableName("d_order_outbox")
+public class OrderOutbox extends BaseTableData implements Serializable {
+    
+    @Serial
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * 主键id
+     */
+    private Long id;
+    
+    /**
+     * 订单编号，和订单使用相同的分库规则，保证和订单在同一个库的事务中写入
+     * */
+    private Long orderNumber;
+    
+    /**
+     * 用户id
+     * */
+    private Long userId;
+    
+    /**
+     * 发送渠道 1:kafka 2:延迟队列
+     * */
+    private Integer channel;
+    
+    /**
+     * 主题(不包含服务前缀)
+     * */
+    private String topic;
+    
+    /**
+     * 消息内容
+     * */
+    private String payload;
+    
+    /**
+     * 消息的投递时间，延迟队列按照这个时间计算剩余的延迟
+     * */
+    private Date deliverTime;
+    
+    /**
+     * 消息状态 1:待发送 2:已发送
+     * */
+    private Integer outboxStatus;
+    
+    /**
+     * 发送失败的次数
+     * */
+    private Integer retryCount;
+    
+    /**
+     * 下次发送的时间
+     * */
+    private Date nextRetryTime;
+}
@@ -5,6 +5,9 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.damai.entity.Order;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Date;
+import java.util.List;
+
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 订单 mapper
@@ -25,4 +28,17 @@ public interface OrderMapper extends BaseMapper<Order> {
      * @return 结果
      * */
     Integer relDelOrder();
+    
+    /**
+     * 用户订单列表游标分页，按(create_order_time, id)倒序，只查询列表展示需要的列
+     * @param userId 用户id
+     * @param orderStatus 订单状态，为空时查询全部
+     * @param cursorTime 上一页最后一条的生成订单时间，查询第一页时为空
+     * @param cursorId 上一页最后一条的id
+     * @param limit 查询条数
+     * @return 数据集合
+     * */
+    List<Order> selectCursorList(@Param("userId")Long userId, @Param("orderStatus")Integer orderStatus, 
+                                 @Param("cursorTime")Date cursorTime, @Param("cursorId")Long cursorId, 
+                                 @Param("limit")int limit);
 }
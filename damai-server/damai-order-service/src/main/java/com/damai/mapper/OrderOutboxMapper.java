@@ -0,0 +1,48 @@
+package com.damai.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.damai.entity.OrderOutbox;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单发件箱 mapper
+ * @author: 阿星不是程序员
+ **/
+public interface OrderOutboxMapper extends BaseMapper<OrderOutbox> {
+    
+    /**
+     * 查询到了发送时间的待发送消息并加锁，已被其他实例锁定的消息跳过
+     * @param now 当前时间
+     * @param limit 数量
+     * @return 结果
+     * */
+    List<OrderOutbox> selectWaitSendForUpdate(@Param("now") Date now, @Param("limit") int limit);
+    
+    /**
+     * 标记为已发送
+     * @param idList 主键id集合
+     * @param editTime 编辑时间
+     * @return 结果
+     * */
+    Integer updateSent(@Param("idList") List<Long> idList, @Param("editTime") Date editTime);
+    
+    /**
+     * 发送失败，记录下次发送的时间
+     * @param id 主键id
+     * @param nextRetryTime 下次发送的时间
+     * @param editTime 编辑时间
+     * @return 结果
+     * */
+    Integer updateRetry(@Param("id") Long id, @Param("nextRetryTime") Date nextRetryTime, @Param("editTime") Date editTime);
+    
+    /**
+     * 真实删除指定时间之前已发送的消息
+     * @param beforeTime 时间
+     * @return 结果
+     * */
+    Integer relDelSent(@Param("beforeTime") Date beforeTime);
+}
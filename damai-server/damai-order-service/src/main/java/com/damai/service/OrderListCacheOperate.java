@@ -0,0 +1,87 @@
+package com.damai.service;
+
+import com.alibaba.fastjson.JSON;
+import com.damai.redis.RedisCache;
+import com.damai.redis.RedisKeyBuild;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 用户订单列表首页缓存
+ * hash中除了缓存的页还保存一个版本字段，查询数据库之前先读取版本，写入缓存时版本已经变化说明期间订单发生过变化，
+ * 查询结果可能是旧数据，直接丢弃；删除缓存时递增版本，版本字段的过期时间和缓存相同
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+@Component
+public class OrderListCacheOperate {
+    
+    /**
+     * hash中保存版本的字段，缓存的页的字段是 订单状态_每页条数，不会和它冲突
+     * */
+    public static final String VERSION_FIELD = "version";
+    
+    private static final String INITIAL_VERSION = "0";
+    
+    @Autowired
+    private RedisCache redisCache;
+    
+    private DefaultRedisScript<Long> putScript;
+    
+    private DefaultRedisScript<Long> invalidateScript;
+    
+    @PostConstruct
+    public void init(){
+        try {
+            putScript = new DefaultRedisScript<>();
+            putScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/orderListFirstPagePut.lua")));
+            putScript.setResultType(Long.class);
+            invalidateScript = new DefaultRedisScript<>();
+            invalidateScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/orderListFirstPageInvalidate.lua")));
+            invalidateScript.setResultType(Long.class);
+        } catch (Exception e) {
+            log.error("redisScript init lua error",e);
+        }
+    }
+    
+    public <T> T get(RedisKeyBuild redisKeyBuild, String hashKey, Class<T> clazz){
+        return redisCache.getForHash(redisKeyBuild, hashKey, clazz);
+    }
+    
+    /**
+     * 当前版本，缓存不存在时为初始版本
+     * */
+    public String getVersion(RedisKeyBuild redisKeyBuild){
+        String version = redisCache.getForHash(redisKeyBuild, VERSION_FIELD, String.class);
+        return Objects.isNull(version) ? INITIAL_VERSION : version;
+    }
+    
+    /**
+     * 版本和version一致时写入
+     * @return 是否写入
+     * */
+    @SuppressWarnings("unchecked")
+    public boolean putIfVersion(RedisKeyBuild redisKeyBuild, String version, String hashKey, Object value, long ttlSeconds){
+        Long result = (Long)redisCache.getInstance().execute(putScript, Collections.singletonList(redisKeyBuild.getRelKey()),
+                version, hashKey, JSON.toJSONString(value), String.valueOf(ttlSeconds));
+        return Objects.nonNull(result) && result == 1L;
+    }
+    
+    /**
+     * 递增版本并删除缓存的页
+     * */
+    @SuppressWarnings("unchecked")
+    public void invalidate(RedisKeyBuild redisKeyBuild, long ttlSeconds){
+        redisCache.getInstance().execute(invalidateScript, Collections.singletonList(redisKeyBuild.getRelKey()),
+                String.valueOf(ttlSeconds));
+    }
+}
@@ -10,6 +10,7 @@ import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.damai.BusinessThreadPool;
 import com.damai.client.PayClient;
 import com.damai.client.UserClient;
 import com.damai.common.ApiResponse;
@@ -18,6 +19,7 @@ import com.damai.dto.AccountOrderCountDto;
 import com.damai.dto.NotifyDto;
 import com.damai.dto.OrderCancelDto;
 import com.damai.dto.OrderCreateDto;
+import com.damai.dto.OrderCursorListDto;
 import com.damai.dto.OrderGetDto;
 import com.damai.dto.OrderListDto;
 import com.damai.dto.OrderPayCheckDto;
@@ -46,6 +48,7 @@ import com.damai.redis.RedisKeyBuild;
 import com.damai.repeatexecutelimit.annotion.RepeatExecuteLimit;
 import com.damai.request.CustomizeRequestWrapper;
 import com.damai.service.delaysend.DelayOperateProgramDataSend;
+import com.damai.service.outbox.OrderOutboxService;
 import com.damai.service.properties.OrderProperties;
 import com.damai.servicelock.LockType;
 import com.damai.servicelock.annotion.ServiceLock;
@@ -54,9 +57,11 @@ import com.damai.util.ServiceLockTool;
 import com.damai.util.StringUtil;
 import com.damai.vo.AccountOrderCountVo;
 import com.damai.vo.NotifyVo;
+import com.damai.vo.OrderCursorListVo;
 import com.damai.vo.OrderGetVo;
 import com.damai.vo.OrderListVo;
 import com.damai.vo.OrderPayCheckVo;
+import com.damai.vo.OrderSummaryVo;
 import com.damai.vo.OrderTicketInfoVo;
 import com.damai.vo.SeatVo;
 import com.damai.vo.TicketUserInfoVo;
@@ -72,14 +77,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -90,6 +103,7 @@ import static com.damai.core.DistributedLockConstants.ORDER_PAY_NOTIFY_CHECK;
 import static com.damai.core.RepeatExecuteLimitConstants.CANCEL_PROGRAM_ORDER;
 import static com.damai.core.RepeatExecuteLimitConstants.CREATE_PROGRAM_ORDER_MQ;
 import static com.damai.core.RepeatExecuteLimitConstants.PROGRAM_CACHE_REVERSE_MQ;
+import static com.damai.service.constant.OrderConstant.IO_POOL_NAME;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
@@ -100,6 +114,10 @@ import static com.damai.core.RepeatExecuteLimitConstants.PROGRAM_CACHE_REVERSE_M
 @Service
 public class OrderService extends ServiceImpl<OrderMapper, Order> {
     
+    private static final String CURSOR_SEPARATOR = "_";
+    
+    private static final String ALL_ORDER_STATUS = "all";
+    
     @Autowired
     private UidGenerator uidGenerator;
     
@@ -136,6 +154,12 @@ public class OrderService extends ServiceImpl<OrderMapper, Order> {
     
     @Autowired
     private ServiceLockTool serviceLockTool;
+    
+    @Autowired
+    private OrderOutboxService orderOutboxService;
+    
+    @Autowired
+    private OrderListCacheOperate orderListCacheOperate;
 
     @Transactional(rollbackFor = Exception.class)
     public String create(OrderCreateDto orderCreateDto) {
@@ -162,12 +186,15 @@ public class OrderService extends ServiceImpl<OrderMapper, Order> {
         orderMapper.insert(order);
         //插入购票人订单
         orderTicketUserService.saveBatch(orderTicketUserList);
+        //订单超时取消的消息和订单在同一个事务中写入发件箱
+        orderOutboxService.saveDelayOrderCancel(order);
         //记录用户下此节目的订单数量操作
         redisCache.incrBy(RedisKeyBuild.createRedisKey(
                         RedisKeyManage.ACCOUNT_ORDER_COUNT,
                         orderCreateDto.getUserId(),
                         orderCreateDto.getProgramId()),
                 orderCreateDto.getOrderTicketUserCreateDtoList().size());
+        delOrderListCache(orderCreateDto.getUserId());
         return String.valueOf(order.getOrderNumber());
     }
     
@@ -248,6 +275,7 @@ public class OrderService extends ServiceImpl<OrderMapper, Order> {
                 updateOrder.setEditTime(DateUtils.now());
                 updateOrder.setOrderStatus(OrderStatus.REFUND.getCode());
                 orderMapper.update(updateOrder,Wrappers.lambdaUpdate(Order.class).eq(Order::getOrderNumber, order.getOrderNumber()));
+                delOrderListCache(order.getUserId());
             }else {
                 log.error("pay服务退款失败 dto : {} response : {}",JSON.toJSONString(refundDto),JSON.toJSONString(response));
             }
@@ -323,6 +351,7 @@ public class OrderService extends ServiceImpl<OrderMapper, Order> {
                     updateOrder.setEditTime(DateUtils.now());
                     updateOrder.setOrderStatus(OrderStatus.REFUND.getCode());
                     orderMapper.update(updateOrder,Wrappers.lambdaUpdate(Order.class).eq(Order::getOrderNumber, outTradeNo));
+                    delOrderListCache(order.getUserId());
                 }else {
                     log.error("pay服务退款失败 dto : {} response : {}",JSON.toJSONString(refundDto),JSON.toJSONString(response));
                 }
@@ -414,6 +443,7 @@ public class OrderService extends ServiceImpl<OrderMapper, Order> {
             redisCache.incrBy(RedisKeyBuild.createRedisKey(
                     RedisKeyManage.ACCOUNT_ORDER_COUNT,order.getUserId(),order.getProgramId()),-1);
         }
+        delOrderListCache(order.getUserId());
 
         
         Long programId = order.getProgramId();
@@ -579,6 +609,134 @@ public class OrderService extends ServiceImpl<OrderMapper, Order> {
         return orderListVos;
     }
     
+    /**
+     * 用户订单列表游标分页，订单表按user_id基因分片，带上user_id的查询只会路由到一张物理表，
+     * 按(create_order_time, id)倒序翻页，只查询列表展示需要的列，不再关联购票人订单。
+     * 第一页是"我的订单"页面每次进入都会查询的数据，按订单状态和每页条数缓存在用户维度的hash中，
+     * 订单创建、取消、支付、退单后删除。查询数据库之前读取缓存版本，只有版本没有变化时才写入缓存，
+     * 避免查询期间订单发生变化并删除缓存后，又把查询到的旧数据写回缓存
+     * */
+    public OrderCursorListVo cursorList(OrderCursorListDto orderCursorListDto) {
+        Long userId = orderCursorListDto.getUserId();
+        boolean firstPage = StringUtil.isEmpty(orderCursorListDto.getCursor());
+        RedisKeyBuild firstPageKey = RedisKeyBuild.createRedisKey(RedisKeyManage.ORDER_LIST_FIRST_PAGE_HASH, userId);
+        String firstPageHashKey = getFirstPageHashKey(orderCursorListDto);
+        String cacheVersion = null;
+        if (firstPage) {
+            OrderCursorListVo cacheOrderCursorListVo = 
+                    orderListCacheOperate.get(firstPageKey, firstPageHashKey, OrderCursorListVo.class);
+            if (Objects.nonNull(cacheOrderCursorListVo)) {
+                return cacheOrderCursorListVo;
+            }
+            cacheVersion = orderListCacheOperate.getVersion(firstPageKey);
+        }
+        Date cursorTime = null;
+        Long cursorId = null;
+        if (!firstPage) {
+            long[] cursor = decodeCursor(orderCursorListDto.getCursor());
+            cursorTime = new Date(cursor[0]);
+            cursorId = cursor[1];
+        }
+        int pageSize = orderCursorListDto.getPageSize();
+        List<Order> orderList = orderMapper.selectCursorList(userId, orderCursorListDto.getOrderStatus(), 
+                cursorTime, cursorId, pageSize + 1);
+        boolean hasMore = orderList.size() > pageSize;
+        if (hasMore) {
+            orderList = orderList.subList(0, pageSize);
+        }
+        OrderCursorListVo orderCursorListVo = new OrderCursorListVo();
+        orderCursorListVo.setList(BeanUtil.copyToList(orderList, OrderSummaryVo.class));
+        orderCursorListVo.setHasMore(hasMore);
+        if (hasMore) {
+            Order last = orderList.get(orderList.size() - 1);
+            orderCursorListVo.setNextCursor(encodeCursor(last.getCreateOrderTime().getTime(), last.getId()));
+        }
+        if (firstPage) {
+            orderListCacheOperate.putIfVersion(firstPageKey, cacheVersion, firstPageHashKey, orderCursorListVo, 
+                    orderProperties.getOrderListFirstPageExpireTime());
+        }
+        return orderCursorListVo;
+    }
+    
+    /**
+     * 删除用户订单列表首页缓存，在事务中时等到提交后再删除，避免提交前被并发的查询把旧数据重新放入缓存；
+     * 删除时递增缓存版本，提交前已经开始查询的请求在删除之后写入时版本不一致，不会把旧数据写回缓存
+     * */
+    public void delOrderListCache(Long userId){
+        RedisKeyBuild firstPageKey = RedisKeyBuild.createRedisKey(RedisKeyManage.ORDER_LIST_FIRST_PAGE_HASH, userId);
+        long expireTime = orderProperties.getOrderListFirstPageExpireTime();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    orderListCacheOperate.invalidate(firstPageKey, expireTime);
+                }
+            });
+            return;
+        }
+        orderListCacheOperate.invalidate(firstPageKey, expireTime);
+    }
+    
+    private String getFirstPageHashKey(OrderCursorListDto orderCursorListDto){
+        String orderStatus = Objects.isNull(orderCursorListDto.getOrderStatus()) ? 
+                ALL_ORDER_STATUS : String.valueOf(orderCursorListDto.getOrderStatus());
+        return orderStatus + CURSOR_SEPARATOR + orderCursorListDto.getPageSize();
+    }
+    
+    private String encodeCursor(long createOrderTime, long id){
+        String cursor = createOrderTime + CURSOR_SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private long[] decodeCursor(String cursor){
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int index = value.indexOf(CURSOR_SEPARATOR);
+            return new long[]{Long.parseLong(value.substring(0, index)), Long.parseLong(value.substring(index + 1))};
+        }catch (Exception e) {
+            throw new DaMaiFrameException(BaseCode.ORDER_LIST_CURSOR_ERROR);
+        }
+    }
+    
+    /**
+     * 根据订单编号批量查询订单，订单的分库分表算法把in条件中的订单编号路由到它们所在的全部库表，
+     * 由ShardingSphere分别查询后合并，订单编号较多时按批次拆分，多个批次之间并行查询
+     * @param orderNumbers 订单编号集合
+     * @return 订单集合，不存在的订单编号不会出现在结果中
+     * */
+    public List<Order> getBatch(List<Long> orderNumbers) {
+        List<Order> orderList = new ArrayList<>(CollectionUtil.size(orderNumbers));
+        if (CollectionUtil.isEmpty(orderNumbers)) {
+            return orderList;
+        }
+        Set<Long> orderNumberSet = new LinkedHashSet<>(orderNumbers.size());
+        for (Long orderNumber : orderNumbers) {
+            if (Objects.nonNull(orderNumber)) {
+                orderNumberSet.add(orderNumber);
+            }
+        }
+        if (orderNumberSet.isEmpty()) {
+            return orderList;
+        }
+        List<List<Long>> queryOrderNumberList = CollectionUtil.split(orderNumberSet, orderProperties.getOrderBatchQuerySize());
+        if (queryOrderNumberList.size() == 1) {
+            orderList.addAll(selectByOrderNumbers(queryOrderNumberList.get(0)));
+            return orderList;
+        }
+        List<Future<List<Order>>> futureList = new ArrayList<>(queryOrderNumberList.size());
+        for (List<Long> orderNumberList : queryOrderNumberList) {
+            futureList.add(BusinessThreadPool.submit(IO_POOL_NAME, () -> selectByOrderNumbers(orderNumberList)));
+        }
+        for (Future<List<Order>> future : futureList) {
+            orderList.addAll(BusinessThreadPool.getResult(future));
+        }
+        return orderList;
+    }
+    
+    private List<Order> selectByOrderNumbers(List<Long> orderNumberList){
+        return orderMapper.selectList(Wrappers.lambdaQuery(Order.class).in(Order::getOrderNumber, orderNumberList));
+    }
+    
     public OrderGetVo get(OrderGetDto orderGetDto) {
         LambdaQueryWrapper<Order> orderLambdaQueryWrapper =
                 Wrappers.lambdaQuery(Order.class).eq(Order::getOrderNumber, orderGetDto.getOrderNumber());
@@ -586,10 +744,16 @@ public class OrderService extends ServiceImpl<OrderMapper, Order> {
         if (Objects.isNull(order)) {
             throw new DaMaiFrameException(BaseCode.ORDER_NOT_EXIST);
         }
+        //查询用户和购票人的rpc调用只依赖用户id，和购票人订单的查询并行执行
+        UserGetAndTicketUserListDto userGetAndTicketUserListDto = new UserGetAndTicketUserListDto();
+        userGetAndTicketUserListDto.setUserId(order.getUserId());
+        Future<ApiResponse<UserGetAndTicketUserListVo>> userGetAndTicketUserFuture = BusinessThreadPool.submit(IO_POOL_NAME, 
+                () -> userClient.getUserAndTicketUserList(userGetAndTicketUserListDto));
         LambdaQueryWrapper<OrderTicketUser> orderTicketUserLambdaQueryWrapper = 
                 Wrappers.lambdaQuery(OrderTicketUser.class).eq(OrderTicketUser::getOrderNumber, order.getOrderNumber());
         List<OrderTicketUser> orderTicketUserList = orderTicketUserMapper.selectList(orderTicketUserLambdaQueryWrapper);
         if (CollectionUtil.isEmpty(orderTicketUserList)) {
+            userGetAndTicketUserFuture.cancel(true);
             throw new DaMaiFrameException(BaseCode.TICKET_USER_ORDER_NOT_EXIST);   
         }
         
@@ -615,10 +779,8 @@ public class OrderService extends ServiceImpl<OrderMapper, Order> {
         
         orderGetVo.setOrderTicketInfoVoList(orderTicketInfoVoList);
         
-        UserGetAndTicketUserListDto userGetAndTicketUserListDto = new UserGetAndTicketUserListDto();
-        userGetAndTicketUserListDto.setUserId(order.getUserId());
         ApiResponse<UserGetAndTicketUserListVo> userGetAndTicketUserApiResponse = 
-                userClient.getUserAndTicketUserList(userGetAndTicketUserListDto);
+                BusinessThreadPool.getResult(userGetAndTicketUserFuture);
         
         if (!Objects.equals(userGetAndTicketUserApiResponse.getCode(), BaseCode.SUCCESS.getCode())) {
             throw new DaMaiFrameException(userGetAndTicketUserApiResponse);
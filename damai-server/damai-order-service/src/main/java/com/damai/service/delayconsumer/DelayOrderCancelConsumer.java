@@ -2,29 +2,65 @@ package com.damai.service.delayconsumer;
 
 import com.alibaba.fastjson.JSON;
 import com.damai.core.SpringUtil;
+import com.damai.entity.Order;
+import com.damai.enums.BaseCode;
+import com.damai.enums.OrderStatus;
+import com.damai.exception.DaMaiFrameException;
 import com.damai.util.StringUtil;
 import com.damai.core.ConsumerTask;
 import com.damai.dto.DelayOrderCancelDto;
 import com.damai.dto.OrderCancelDto;
 import com.damai.service.OrderService;
+import com.damai.service.properties.OrderProperties;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
 import static com.damai.service.constant.OrderConstant.DELAY_ORDER_CANCEL_TOPIC;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 延迟订单取消
+ * 订单消息先放入待处理队列，同一时间只有一个消费线程负责处理，它等待delayOrderCancelBatchWindowMillis毫秒，
+ * 让同一时间到期的其他消息进入队列，然后每次最多取出200条，批量查询订单后只对未支付的订单执行取消，
+ * 已支付或已取消的订单不再加锁和开启事务；其他消费线程放入队列后等待自己的订单处理完成才返回，
+ * 所以一批的数量最多是延迟队列消费线程的数量(delay.queue.corePoolSize)。
+ * 订单取消失败时异常抛给延迟队列，由延迟队列重新投递这条消息，消息由订单发件箱至少发送一次，重复的消息也会因为订单已取消而跳过
  * @author: 阿星不是程序员
  **/
 @Slf4j
 @Component
 public class DelayOrderCancelConsumer implements ConsumerTask {
     
+    private static final int MAX_BATCH_SIZE = 200;
+    
+    private final ConcurrentLinkedQueue<PendingCancel> pendingCancelQueue = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * 是否有消费线程正在处理待处理队列
+     * */
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    
     @Autowired
     private OrderService orderService;
     
+    @Autowired
+    private OrderProperties orderProperties;
+    
     @Override
     public void execute(String content) {
         log.info("延迟订单取消消息进行消费 content : {}", content);
@@ -33,20 +69,120 @@ public class DelayOrderCancelConsumer implements ConsumerTask {
             return;
         }
         DelayOrderCancelDto delayOrderCancelDto = JSON.parseObject(content, DelayOrderCancelDto.class);
-        
-        //取消订单
+        PendingCancel pendingCancel = new PendingCancel(delayOrderCancelDto.getOrderNumber(), new CompletableFuture<>());
+        pendingCancelQueue.offer(pendingCancel);
+        //释放处理权后再检查一次，避免释放前放入队列的消息没有线程处理
+        while (!pendingCancelQueue.isEmpty() && draining.compareAndSet(false, true)) {
+            try {
+                awaitBatchWindow();
+                List<PendingCancel> pendingCancelList;
+                while (!(pendingCancelList = drain()).isEmpty()) {
+                    cancelBatch(pendingCancelList);
+                }
+            }finally {
+                draining.set(false);
+            }
+        }
+        //自己的订单可能由其他消费线程处理，处理完成后才返回，失败时抛出异常让延迟队列重新投递
+        try {
+            pendingCancel.getResult().join();
+        }catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new DaMaiFrameException(e.getCause());
+        }
+    }
+    
+    private void awaitBatchWindow(){
+        try {
+            TimeUnit.MILLISECONDS.sleep(orderProperties.getDelayOrderCancelBatchWindowMillis());
+        }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private List<PendingCancel> drain(){
+        List<PendingCancel> pendingCancelList = new ArrayList<>();
+        PendingCancel pendingCancel;
+        while (pendingCancelList.size() < MAX_BATCH_SIZE && Objects.nonNull(pendingCancel = pendingCancelQueue.poll())) {
+            pendingCancelList.add(pendingCancel);
+        }
+        return pendingCancelList;
+    }
+    
+    private void cancelBatch(List<PendingCancel> pendingCancelList){
+        Map<Long, Order> orderMap;
+        try {
+            orderMap = orderService.getBatch(pendingCancelList.stream().map(PendingCancel::getOrderNumber)
+                            .collect(Collectors.toList())).stream()
+                    .collect(Collectors.toMap(Order::getOrderNumber, Function.identity(), (v1, v2) -> v2));
+        }catch (Exception e) {
+            log.error("延迟订单取消批量查询订单失败 orderNumberList : {}", JSON.toJSONString(pendingCancelList.stream()
+                    .map(PendingCancel::getOrderNumber).collect(Collectors.toList())), e);
+            orderMap = null;
+        }
+        for (PendingCancel pendingCancel : pendingCancelList) {
+            try {
+                cancel(pendingCancel.getOrderNumber(), orderMap);
+                pendingCancel.getResult().complete(null);
+            }catch (Throwable e) {
+                pendingCancel.getResult().completeExceptionally(e);
+            }
+        }
+    }
+    
+    private void cancel(Long orderNumber, Map<Long, Order> orderMap){
+        if (Objects.nonNull(orderMap)) {
+            Order order = orderMap.get(orderNumber);
+            if (Objects.isNull(order)) {
+                log.error("延迟订单取消失败，订单不存在 orderNumber : {}", orderNumber);
+                return;
+            }
+            if (!Objects.equals(order.getOrderStatus(), OrderStatus.NO_PAY.getCode())) {
+                log.info("延迟订单取消跳过，订单已不是未支付状态 orderNumber : {} orderStatus : {}",
+                        orderNumber, order.getOrderStatus());
+                return;
+            }
+        }
         OrderCancelDto orderCancelDto = new OrderCancelDto();
-        orderCancelDto.setOrderNumber(delayOrderCancelDto.getOrderNumber());
-        boolean cancel = orderService.cancel(orderCancelDto);
-        if (cancel) {
-            log.info("延迟订单取消成功 orderCancelDto : {}",content);
-        }else {
-            log.error("延迟订单取消失败 orderCancelDto : {}",content);
+        orderCancelDto.setOrderNumber(orderNumber);
+        boolean cancel;
+        try {
+            cancel = orderService.cancel(orderCancelDto);
+        }catch (Exception e) {
+            log.error("延迟订单取消失败 orderNumber : {}",orderNumber,e);
+            throw e;
+        }
+        if (!cancel) {
+            log.error("延迟订单取消失败 orderNumber : {}",orderNumber);
+            throw new DaMaiFrameException(BaseCode.DELAY_ORDER_CANCEL_FAIL);
         }
+        log.info("延迟订单取消成功 orderNumber : {}",orderNumber);
+    }
+    
+    /**
+     * 已取消或已支付的订单会跳过，重复消费没有影响
+     * */
+    @Override
+    public boolean retryWhenFail() {
+        return true;
     }
     
     @Override
     public String topic() {
         return SpringUtil.getPrefixDistinctionName() + "-" + DELAY_ORDER_CANCEL_TOPIC;
     }
+    
+    @Getter
+    @AllArgsConstructor
+    private static class PendingCancel {
+        
+        private final Long orderNumber;
+        
+        /**
+         * 订单处理完成(取消或跳过)时正常结束，取消失败时异常结束
+         * */
+        private final CompletableFuture<Void> result;
+    }
 }
@@ -0,0 +1,69 @@
+package com.damai.service.outbox;
+
+import com.damai.service.properties.OrderProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单发件箱 定时发送
+ * 每隔固定时间发送一批待发送的消息，一批已满时继续发送下一批，每小时清理一次超过保留时间的已发送消息
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+@Component
+public class OrderOutboxRelay implements InitializingBean, DisposableBean {
+    
+    private static final long CLEAN_INTERVAL_MINUTES = 60L;
+    
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "order-outbox-relay");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    @Autowired
+    private OrderOutboxService orderOutboxService;
+    
+    @Autowired
+    private OrderProperties orderProperties;
+    
+    @Override
+    public void afterPropertiesSet() {
+        long relayIntervalMillis = orderProperties.getOrderOutboxRelayIntervalMillis();
+        scheduledExecutorService.scheduleWithFixedDelay(this::relay, relayIntervalMillis, relayIntervalMillis, TimeUnit.MILLISECONDS);
+        scheduledExecutorService.scheduleWithFixedDelay(this::clean, CLEAN_INTERVAL_MINUTES, CLEAN_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+    
+    private void relay() {
+        try {
+            int count;
+            do {
+                count = orderOutboxService.relay();
+            } while (count >= orderProperties.getOrderOutboxRelayBatchSize() && !Thread.currentThread().isInterrupted());
+        }catch (Exception e) {
+            log.error("订单发件箱消息发送 error", e);
+        }
+    }
+    
+    private void clean() {
+        try {
+            Integer count = orderOutboxService.delSent();
+            log.info("订单发件箱清理已发送消息 数量 : {}", count);
+        }catch (Exception e) {
+            log.error("订单发件箱清理已发送消息 error", e);
+        }
+    }
+    
+    @Override
+    public void destroy() {
+        scheduledExecutorService.shutdownNow();
+    }
+}
@@ -0,0 +1,143 @@
+package com.damai.service.outbox;
+
+import com.alibaba.fastjson.JSON;
+import com.baidu.fsg.uid.UidGenerator;
+import com.damai.context.DelayQueueContext;
+import com.damai.core.SpringUtil;
+import com.damai.dto.DelayOrderCancelDto;
+import com.damai.entity.Order;
+import com.damai.entity.OrderOutbox;
+import com.damai.enums.BaseCode;
+import com.damai.enums.OrderOutboxChannel;
+import com.damai.enums.OrderOutboxStatus;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.mapper.OrderOutboxMapper;
+import com.damai.service.properties.OrderProperties;
+import com.damai.util.DateUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static com.damai.service.constant.OrderConstant.DELAY_ORDER_CANCEL_TIME;
+import static com.damai.service.constant.OrderConstant.DELAY_ORDER_CANCEL_TIME_UNIT;
+import static com.damai.service.constant.OrderConstant.DELAY_ORDER_CANCEL_TOPIC;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单发件箱
+ * 要发送的消息和订单在同一个事务中写入发件箱表，由 OrderOutboxRelay 发送后标记为已发送。
+ * 发送成功但标记前宕机时消息会再次发送，所以消息至少发送一次，消费者需要保证幂等。
+ * 发件箱中所有的时间(投递时间、下次发送时间、编辑时间)和用来比较它们的当前时间都取自 DateUtils.now，不混用数据库的now()和System.currentTimeMillis
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+@Service
+public class OrderOutboxService {
+    
+    /**
+     * 发送失败后重试间隔的上限(秒)
+     * */
+    private static final long MAX_RETRY_INTERVAL_SECONDS = 60L;
+    
+    @Autowired
+    private OrderOutboxMapper orderOutboxMapper;
+    
+    @Autowired
+    private UidGenerator uidGenerator;
+    
+    @Autowired
+    private DelayQueueContext delayQueueContext;
+    
+    @Autowired
+    private OrderProperties orderProperties;
+    
+    /**
+     * 写入订单超时取消的消息，必须在创建订单的事务中调用
+     * */
+    @Transactional(propagation = Propagation.MANDATORY, rollbackFor = Exception.class)
+    public void saveDelayOrderCancel(Order order) {
+        DelayOrderCancelDto delayOrderCancelDto = new DelayOrderCancelDto();
+        delayOrderCancelDto.setOrderNumber(order.getOrderNumber());
+        Date now = DateUtils.now();
+        Date deliverTime = new Date(now.getTime() + DELAY_ORDER_CANCEL_TIME_UNIT.toMillis(DELAY_ORDER_CANCEL_TIME));
+        save(order, OrderOutboxChannel.DELAY_QUEUE, DELAY_ORDER_CANCEL_TOPIC, JSON.toJSONString(delayOrderCancelDto), deliverTime, now);
+    }
+    
+    private void save(Order order, OrderOutboxChannel channel, String topic, String payload, Date deliverTime, Date now) {
+        OrderOutbox orderOutbox = new OrderOutbox();
+        orderOutbox.setId(uidGenerator.getUid());
+        orderOutbox.setOrderNumber(order.getOrderNumber());
+        orderOutbox.setUserId(order.getUserId());
+        orderOutbox.setChannel(channel.getCode());
+        orderOutbox.setTopic(topic);
+        orderOutbox.setPayload(payload);
+        orderOutbox.setDeliverTime(deliverTime);
+        orderOutbox.setOutboxStatus(OrderOutboxStatus.WAIT_SEND.getCode());
+        orderOutbox.setRetryCount(0);
+        orderOutbox.setNextRetryTime(now);
+        orderOutbox.setCreateTime(now);
+        orderOutbox.setEditTime(now);
+        orderOutboxMapper.insert(orderOutbox);
+    }
+    
+    /**
+     * 发送一批待发送的消息，消息行在事务提交前一直被锁定，多个实例同时执行时各自发送不同的消息
+     * @return 本批查询到的消息数量
+     * */
+    @Transactional(rollbackFor = Exception.class)
+    public int relay() {
+        Date now = DateUtils.now();
+        List<OrderOutbox> orderOutboxList =
+                orderOutboxMapper.selectWaitSendForUpdate(now, orderProperties.getOrderOutboxRelayBatchSize());
+        List<Long> sentIdList = new ArrayList<>(orderOutboxList.size());
+        for (OrderOutbox orderOutbox : orderOutboxList) {
+            try {
+                publish(orderOutbox, now);
+                sentIdList.add(orderOutbox.getId());
+            }catch (Exception e) {
+                log.error("订单发件箱消息发送失败 id : {} topic : {} retryCount : {}",
+                        orderOutbox.getId(), orderOutbox.getTopic(), orderOutbox.getRetryCount(), e);
+                orderOutboxMapper.updateRetry(orderOutbox.getId(), getNextRetryTime(orderOutbox.getRetryCount(), now), now);
+            }
+        }
+        if (!sentIdList.isEmpty()) {
+            orderOutboxMapper.updateSent(sentIdList, now);
+        }
+        return orderOutboxList.size();
+    }
+    
+    /**
+     * 真实删除超过保留时间的已发送消息，标记已发送时的编辑时间同样取自 DateUtils.now
+     * */
+    public Integer delSent() {
+        Date beforeTime = new Date(DateUtils.now().getTime() -
+                TimeUnit.HOURS.toMillis(orderProperties.getOrderOutboxSentRetentionHours()));
+        return orderOutboxMapper.relDelSent(beforeTime);
+    }
+    
+    private void publish(OrderOutbox orderOutbox, Date now) {
+        String topic = SpringUtil.getPrefixDistinctionName() + "-" + orderOutbox.getTopic();
+        if (Objects.equals(orderOutbox.getChannel(), OrderOutboxChannel.DELAY_QUEUE.getCode())) {
+            long delayTime = Math.max(orderOutbox.getDeliverTime().getTime() - now.getTime(), 0L);
+            delayQueueContext.sendMessage(topic, orderOutbox.getPayload(), delayTime, TimeUnit.MILLISECONDS);
+        }else {
+            throw new DaMaiFrameException(BaseCode.ORDER_OUTBOX_CHANNEL_NOT_EXIST);
+        }
+    }
+    
+    /**
+     * 使用本次查询待发送消息时的当前时间(DateUtils.now)，服务器时区不是东八区时System.currentTimeMillis和它相差时区的偏移
+     * */
+    private Date getNextRetryTime(Integer retryCount, Date now) {
+        long retryIntervalSeconds = Math.min(1L << Math.min(retryCount, 6), MAX_RETRY_INTERVAL_SECONDS);
+        return new Date(now.getTime() + TimeUnit.SECONDS.toMillis(retryIntervalSeconds));
+    }
+}
@@ -6,7 +6,7 @@ import org.springframework.stereotype.Component;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
- * @description: 订单支付 回调地址配置
+ * @description: 订单支付 回调地址配置以及订单列表缓存、批量查询、发件箱、延迟取消配置
  * @author: 阿星不是程序员
  **/
 @Data
@@ -24,4 +24,40 @@ public class OrderProperties {
      * */
     @Value("${orderPayReturnUrl:http://localhost:5173/order/paySuccess}")
     private String orderPayReturnUrl;
+    
+    /**
+     * 用户订单列表首页缓存的过期时间(秒)
+     * */
+    @Value("${orderListFirstPageExpireTime:300}")
+    private long orderListFirstPageExpireTime;
+    
+    /**
+     * 批量查询订单时每条in语句包含的最大订单编号数量
+     * */
+    @Value("${orderBatchQuerySize:500}")
+    private int orderBatchQuerySize;
+    
+    /**
+     * 订单发件箱每批发送的消息数量
+     * */
+    @Value("${orderOutboxRelayBatchSize:100}")
+    private int orderOutboxRelayBatchSize;
+    
+    /**
+     * 订单发件箱发送的间隔时间(毫秒)
+     * */
+    @Value("${orderOutboxRelayIntervalMillis:1000}")
+    private long orderOutboxRelayIntervalMillis;
+    
+    /**
+     * 订单发件箱已发送消息的保留时间(小时)
+     * */
+    @Value("${orderOutboxSentRetentionHours:24}")
+    private long orderOutboxSentRetentionHours;
+    
+    /**
+     * 延迟订单取消收到消息后等待同一时间到期的其他消息的时间(毫秒)，等待期间到达的消息合并为一批处理
+     * */
+    @Value("${delayOrderCancelBatchWindowMillis:50}")
+    private long delayOrderCancelBatchWindowMillis;
 }
@@ -0,0 +1,6 @@
+-- 删除用户订单列表首页缓存，递增版本后删除所有已缓存的页，只保留版本字段
+local version = redis.call('HINCRBY', KEYS[1], 'version', 1)
+redis.call('DEL', KEYS[1])
+redis.call('HSET', KEYS[1], 'version', version)
+redis.call('EXPIRE', KEYS[1], tonumber(ARGV[1]))
+return version
@@ -0,0 +1,12 @@
+-- 写入用户订单列表首页缓存，版本字段和缓存的页在同一个hash中
+-- 只有查询数据库之前读到的版本和当前版本一致时才写入，查询期间发生过删除时丢弃查询结果
+local version = redis.call('HGET', KEYS[1], 'version')
+if version == false then
+    version = '0'
+end
+if version ~= ARGV[1] then
+    return 0
+end
+redis.call('HSET', KEYS[1], ARGV[2], ARGV[3])
+redis.call('EXPIRE', KEYS[1], tonumber(ARGV[4]))
+return 1
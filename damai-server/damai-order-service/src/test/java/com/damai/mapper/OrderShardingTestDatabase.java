@@ -0,0 +1,143 @@
+package com.damai.mapper;
+
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.shardingsphere.driver.api.yaml.YamlShardingSphereDataSourceFactory;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.StreamUtils;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 订单分库分表测试使用的数据库，两个H2(MySQL模式)库 ds_0、ds_1 中各建 d_order_0 到 d_order_3 四张表和一张 d_order_outbox 表，
+ * 上面用 shardingsphere-order-test.yaml 中和线上相同的分片规则和分片算法创建ShardingSphere数据源，
+ * mapper由mybatis-plus加载真实的 OrderMapper.xml、OrderOutboxMapper.xml 生成
+ * @author: 阿星不是程序员
+ **/
+public class OrderShardingTestDatabase implements AutoCloseable {
+    
+    public static final int DATABASE_COUNT = 2;
+    
+    public static final int TABLE_COUNT = 4;
+    
+    private final List<JdbcTemplate> jdbcTemplateList = new ArrayList<>();
+    
+    private final List<HikariDataSource> dataSourceList = new ArrayList<>();
+    
+    private final DataSource shardingDataSource;
+    
+    private final OrderMapper orderMapper;
+    
+    private final OrderOutboxMapper orderOutboxMapper;
+    
+    public OrderShardingTestDatabase() throws Exception {
+        String name = UUID.randomUUID().toString().replace("-", "");
+        Map<String, DataSource> dataSourceMap = new LinkedHashMap<>(DATABASE_COUNT);
+        for (int databaseIndex = 0; databaseIndex < DATABASE_COUNT; databaseIndex++) {
+            //ShardingSphere按连接池的类型读取数据源的url，和线上一样使用hikari。
+            //ShardingSphere从 PUBLIC schema 加载H2的表结构，所以不能用 DATABASE_TO_LOWER，否则加载不到表结构，跨库归并排序时报错
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl("jdbc:h2:mem:order_" + databaseIndex + "_" + name +
+                    ";MODE=MySQL;DATABASE_TO_UPPER=FALSE;DB_CLOSE_DELAY=-1");
+            dataSource.setUsername("sa");
+            //并发发送发件箱消息时每个事务在每个库占用一个连接
+            dataSource.setMaximumPoolSize(4);
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            for (int tableIndex = 0; tableIndex < TABLE_COUNT; tableIndex++) {
+                jdbcTemplate.execute("create table d_order_" + tableIndex + " (id bigint not null primary key, " +
+                        "order_number bigint not null unique, program_id bigint not null, program_item_picture varchar(1024), " +
+                        "user_id bigint not null, program_title varchar(512), program_place varchar(100), " +
+                        "program_show_time datetime, program_permit_choose_seat tinyint not null, " +
+                        "distribution_mode varchar(256), take_ticket_mode varchar(256), order_price decimal(10,0), " +
+                        "pay_order_type int, order_status int default 1, create_order_time datetime, " +
+                        "cancel_order_time datetime, pay_order_time datetime, create_time datetime, edit_time datetime, " +
+                        "status tinyint default 1)");
+                jdbcTemplate.execute("create index user_id_create_order_time_idx_" + tableIndex +
+                        " on d_order_" + tableIndex + " (user_id, create_order_time)");
+            }
+            //H2只有按主键顺序扫描时才在取够limit行后停止加锁，走 (outbox_status,next_retry_time) 索引时会锁住全部符合条件的行，
+            //所以发件箱表不建这个索引，for update skip locked 按主键顺序加锁
+            jdbcTemplate.execute("create table d_order_outbox (id bigint not null primary key, order_number bigint not null, " +
+                    "user_id bigint not null, channel tinyint not null, topic varchar(256) not null, payload text not null, " +
+                    "deliver_time datetime not null, outbox_status tinyint not null default 1, retry_count int not null default 0, " +
+                    "next_retry_time datetime not null, create_time datetime, edit_time datetime, status tinyint default 1)");
+            dataSourceMap.put("ds_" + databaseIndex, dataSource);
+            dataSourceList.add(dataSource);
+            jdbcTemplateList.add(jdbcTemplate);
+        }
+        byte[] yaml;
+        try (InputStream inputStream = new ClassPathResource("shardingsphere-order-test.yaml").getInputStream()) {
+            yaml = StreamUtils.copyToByteArray(inputStream);
+        }
+        shardingDataSource = YamlShardingSphereDataSourceFactory.createDataSource(dataSourceMap, yaml);
+        MybatisSqlSessionFactoryBean sqlSessionFactoryBean = new MybatisSqlSessionFactoryBean();
+        sqlSessionFactoryBean.setDataSource(shardingDataSource);
+        sqlSessionFactoryBean.setMapperLocations(new ClassPathResource("mapper/OrderMapper.xml"),
+                new ClassPathResource("mapper/OrderOutboxMapper.xml"));
+        SqlSessionFactory sqlSessionFactory = sqlSessionFactoryBean.getObject();
+        SqlSessionTemplate sqlSessionTemplate = new SqlSessionTemplate(sqlSessionFactory);
+        orderMapper = sqlSessionTemplate.getMapper(OrderMapper.class);
+        orderOutboxMapper = sqlSessionTemplate.getMapper(OrderOutboxMapper.class);
+    }
+    
+    public OrderMapper getOrderMapper() {
+        return orderMapper;
+    }
+    
+    public OrderOutboxMapper getOrderOutboxMapper() {
+        return orderOutboxMapper;
+    }
+    
+    /**
+     * ShardingSphere数据源，用来创建事务管理器
+     * */
+    public DataSource getShardingDataSource() {
+        return shardingDataSource;
+    }
+    
+    /**
+     * 直接访问某个分库，用来检查数据实际落在哪张表
+     * */
+    public JdbcTemplate getJdbcTemplate(int databaseIndex) {
+        return jdbcTemplateList.get(databaseIndex);
+    }
+    
+    /**
+     * 用户的订单实际所在的 库编号_表编号
+     * */
+    public List<String> locate(Long userId) {
+        List<String> locationList = new ArrayList<>();
+        for (int databaseIndex = 0; databaseIndex < DATABASE_COUNT; databaseIndex++) {
+            for (int tableIndex = 0; tableIndex < TABLE_COUNT; tableIndex++) {
+                Long count = jdbcTemplateList.get(databaseIndex).queryForObject(
+                        "select count(1) from d_order_" + tableIndex + " where user_id = ?", Long.class, userId);
+                if (count != null && count > 0) {
+                    locationList.add(databaseIndex + "_" + tableIndex);
+                }
+            }
+        }
+        return locationList;
+    }
+    
+    @Override
+    public void close() throws Exception {
+        for (final JdbcTemplate jdbcTemplate : jdbcTemplateList) {
+            jdbcTemplate.execute("shutdown");
+        }
+        //ShardingSphere关闭时会一起关闭各个分库的连接池
+        if (shardingDataSource instanceof AutoCloseable) {
+            ((AutoCloseable)shardingDataSource).close();
+        }
+        dataSourceList.forEach(HikariDataSource::close);
+    }
+}
@@ -0,0 +1,126 @@
+package com.damai.service;
+
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.entity.Order;
+import com.damai.mapper.OrderMapper;
+import com.damai.mapper.OrderShardingTestDatabase;
+import com.damai.service.properties.OrderProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 批量查询订单在ShardingSphere分库分表上的测试，订单分布在两个库和全部四张表，
+ * 一条in查询中的订单编号属于不同的库表时由分片算法路由到它们所在的全部库表，每个订单都能查到
+ * @author: 阿星不是程序员
+ **/
+public class OrderBatchShardingTest {
+    
+    private static final int ORDER_COUNT = 40;
+    
+    private OrderShardingTestDatabase orderShardingTestDatabase;
+    
+    private OrderMapper orderMapper;
+    
+    private OrderService orderService;
+    
+    private OrderProperties orderProperties;
+    
+    private final List<Long> orderNumberList = new ArrayList<>();
+    
+    @BeforeEach
+    public void setUp() throws Exception {
+        SpringUtilTestSupport.initialize();
+        orderShardingTestDatabase = new OrderShardingTestDatabase();
+        orderMapper = orderShardingTestDatabase.getOrderMapper();
+        orderProperties = new OrderProperties();
+        orderService = new OrderService();
+        ReflectionTestUtils.setField(orderService, "orderMapper", orderMapper);
+        ReflectionTestUtils.setField(orderService, "orderProperties", orderProperties);
+        for (long id = 1; id <= ORDER_COUNT; id++) {
+            orderNumberList.add(insertOrder(id, 100 + id).getOrderNumber());
+        }
+        //订单分布在两个库和全部四张表
+        Set<String> locationSet = new HashSet<>();
+        for (long id = 1; id <= ORDER_COUNT; id++) {
+            locationSet.addAll(orderShardingTestDatabase.locate(100 + id));
+        }
+        assertEquals(Set.of(0, 1), locationSet.stream().map(location -> location.charAt(0) - '0').collect(Collectors.toSet()));
+        assertEquals(Set.of(0, 1, 2, 3), locationSet.stream().map(location -> location.charAt(2) - '0').collect(Collectors.toSet()));
+    }
+    
+    @AfterEach
+    public void tearDown() throws Exception {
+        orderShardingTestDatabase.close();
+    }
+    
+    @Test
+    public void oneInQueryReturnsOrdersOfEveryShard() {
+        orderProperties.setOrderBatchQuerySize(500);
+        
+        assertEquals(new HashSet<>(orderNumberList), orderNumbers(orderService.getBatch(orderNumberList)));
+    }
+    
+    @Test
+    public void parallelBatchesReturnOrdersOfEveryShard() {
+        orderProperties.setOrderBatchQuerySize(3);
+        List<Long> shuffledList = new ArrayList<>(orderNumberList);
+        Collections.shuffle(shuffledList);
+        
+        List<Order> orderList = orderService.getBatch(shuffledList);
+        
+        assertEquals(ORDER_COUNT, orderList.size());
+        assertEquals(new HashSet<>(orderNumberList), orderNumbers(orderList));
+    }
+    
+    @Test
+    public void missingDuplicateAndNullOrderNumbersAreIgnored() {
+        orderProperties.setOrderBatchQuerySize(500);
+        //不存在的订单编号，基因和已有的订单相同
+        long missingOrderNumber = (1000L << 2) | 1;
+        List<Long> queryList = new ArrayList<>(Arrays.asList(orderNumberList.get(0), null, orderNumberList.get(1),
+                orderNumberList.get(0), missingOrderNumber, orderNumberList.get(2), orderNumberList.get(3)));
+        
+        List<Order> orderList = orderService.getBatch(queryList);
+        
+        assertEquals(4, orderList.size());
+        assertEquals(new HashSet<>(orderNumberList.subList(0, 4)), orderNumbers(orderList));
+        assertTrue(orderService.getBatch(Collections.singletonList(missingOrderNumber)).isEmpty());
+        assertTrue(orderService.getBatch(Collections.singletonList(null)).isEmpty());
+    }
+    
+    private Set<Long> orderNumbers(List<Order> orderList) {
+        return orderList.stream().map(Order::getOrderNumber).collect(Collectors.toSet());
+    }
+    
+    /**
+     * 订单编号的低两位是用户id的基因，和线上生成订单编号的方式一致
+     * */
+    private Order insertOrder(long id, long userId) {
+        Order order = new Order();
+        order.setId(id);
+        order.setOrderNumber((id << 2) | (userId & 3));
+        order.setProgramId(1L);
+        order.setUserId(userId);
+        order.setProgramPermitChooseSeat(0);
+        order.setOrderStatus(1);
+        order.setCreateOrderTime(new Date());
+        order.setStatus(1);
+        orderMapper.insert(order);
+        return order;
+    }
+}
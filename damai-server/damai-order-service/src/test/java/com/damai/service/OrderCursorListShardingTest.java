@@ -0,0 +1,180 @@
+package com.damai.service;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.dto.OrderCursorListDto;
+import com.damai.entity.Order;
+import com.damai.mapper.OrderMapper;
+import com.damai.mapper.OrderShardingTestDatabase;
+import com.damai.service.properties.OrderProperties;
+import com.damai.vo.OrderCursorListVo;
+import com.damai.vo.OrderSummaryVo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 订单列表游标分页在ShardingSphere分库分表上的测试，两个H2库各四张订单表，分片规则和算法和线上相同，
+ * 用户的订单按用户id的基因落在同一个库的同一张表，游标分页只查询这一张表，
+ * 下单时间相同的订单按id区分，翻页过程中新提交的订单不会让已经翻过的订单重复出现
+ * @author: 阿星不是程序员
+ **/
+public class OrderCursorListShardingTest {
+    
+    private static final long BASE_TIME = 1_700_000_000_000L;
+    
+    /**
+     * 两个用户的基因分别是 00 和 01，落在不同的库
+     * */
+    private static final Long USER_ID = 4L;
+    
+    private static final Long OTHER_USER_ID = 5L;
+    
+    private static final int PAGE_SIZE = 10;
+    
+    private OrderShardingTestDatabase orderShardingTestDatabase;
+    
+    private OrderMapper orderMapper;
+    
+    private OrderService orderService;
+    
+    private long nextId;
+    
+    @BeforeEach
+    public void setUp() throws Exception {
+        SpringUtilTestSupport.initialize();
+        orderShardingTestDatabase = new OrderShardingTestDatabase();
+        orderMapper = orderShardingTestDatabase.getOrderMapper();
+        orderService = new OrderService();
+        ReflectionTestUtils.setField(orderService, "orderMapper", orderMapper);
+        //首页缓存在OrderListCacheTest中测试，这里每次都查询数据库
+        ReflectionTestUtils.setField(orderService, "orderListCacheOperate", Mockito.mock(OrderListCacheOperate.class));
+        ReflectionTestUtils.setField(orderService, "orderProperties", new OrderProperties());
+    }
+    
+    @AfterEach
+    public void tearDown() throws Exception {
+        orderShardingTestDatabase.close();
+    }
+    
+    @Test
+    public void ordersOfUserAreRoutedToOneTable() {
+        insertOrder(USER_ID, 1, BASE_TIME);
+        insertOrder(USER_ID, 3, BASE_TIME + 1000);
+        insertOrder(OTHER_USER_ID, 1, BASE_TIME);
+        
+        List<String> userLocationList = orderShardingTestDatabase.locate(USER_ID);
+        List<String> otherUserLocationList = orderShardingTestDatabase.locate(OTHER_USER_ID);
+        assertEquals(1, userLocationList.size());
+        assertEquals(1, otherUserLocationList.size());
+        //库编号不同
+        assertNotEquals(userLocationList.get(0).charAt(0), otherUserLocationList.get(0).charAt(0));
+    }
+    
+    @Test
+    public void cursorPagesVisitEveryOrderOnceInOrder() {
+        List<Order> expectedList = new ArrayList<>();
+        for (int i = 0; i < 35; i++) {
+            //每三个订单的下单时间相同，只能靠id区分先后
+            expectedList.add(insertOrder(USER_ID, i % 2 == 0 ? 1 : 3, BASE_TIME + (i / 3) * 1000L));
+        }
+        for (int i = 0; i < 5; i++) {
+            insertOrder(OTHER_USER_ID, 1, BASE_TIME + i * 1000L);
+        }
+        Order deleted = insertOrder(USER_ID, 1, BASE_TIME + 100_000L);
+        //分片键不能出现在更新的字段中，和OrderService一样只按订单编号更新
+        Order updateOrder = new Order();
+        updateOrder.setStatus(0);
+        orderMapper.update(updateOrder, Wrappers.lambdaUpdate(Order.class).eq(Order::getOrderNumber, deleted.getOrderNumber()));
+        expectedList.sort(Comparator.comparing(Order::getCreateOrderTime).thenComparing(Order::getId).reversed());
+        
+        List<Long> pagedOrderNumberList = pageAll(null);
+        
+        assertEquals(expectedList.stream().map(Order::getOrderNumber).collect(Collectors.toList()), pagedOrderNumberList);
+        
+        List<Long> paidOrderNumberList = pageAll(3);
+        assertEquals(expectedList.stream().filter(order -> order.getOrderStatus() == 3).map(Order::getOrderNumber)
+                .collect(Collectors.toList()), paidOrderNumberList);
+    }
+    
+    @Test
+    public void ordersCreatedWhilePagingDoNotRepeatPages() {
+        for (int i = 0; i < 25; i++) {
+            insertOrder(USER_ID, 1, BASE_TIME + i * 1000L);
+        }
+        
+        OrderCursorListVo firstPage = orderService.cursorList(cursorDto(null, null));
+        //翻页期间用户又提交了订单，排在最前面，不影响后面的页
+        insertOrder(USER_ID, 1, BASE_TIME + 60_000L);
+        OrderCursorListVo secondPage = orderService.cursorList(cursorDto(firstPage.getNextCursor(), null));
+        OrderCursorListVo thirdPage = orderService.cursorList(cursorDto(secondPage.getNextCursor(), null));
+        
+        List<Long> orderNumberList = new ArrayList<>();
+        for (final OrderCursorListVo page : List.of(firstPage, secondPage, thirdPage)) {
+            page.getList().stream().map(OrderSummaryVo::getOrderNumber).forEach(orderNumberList::add);
+        }
+        assertEquals(25, orderNumberList.size());
+        assertEquals(25, new HashSet<>(orderNumberList).size());
+        assertTrue(firstPage.getHasMore());
+        assertTrue(secondPage.getHasMore());
+        assertFalse(thirdPage.getHasMore());
+        assertNull(thirdPage.getNextCursor());
+        //重新从第一页开始时能看到新的订单
+        assertEquals(26, pageAll(null).size());
+    }
+    
+    private List<Long> pageAll(Integer orderStatus) {
+        List<Long> orderNumberList = new ArrayList<>();
+        String cursor = null;
+        do {
+            OrderCursorListVo orderCursorListVo = orderService.cursorList(cursorDto(cursor, orderStatus));
+            assertTrue(orderCursorListVo.getList().size() <= PAGE_SIZE);
+            orderCursorListVo.getList().stream().map(OrderSummaryVo::getOrderNumber).forEach(orderNumberList::add);
+            cursor = orderCursorListVo.getNextCursor();
+        } while (cursor != null);
+        return orderNumberList;
+    }
+    
+    /**
+     * 订单编号的低两位是用户id的基因，和线上生成订单编号的方式一致，按订单编号和按用户id路由到同一张表
+     * */
+    private Order insertOrder(Long userId, int orderStatus, long createOrderTime) {
+        long id = ++nextId;
+        Order order = new Order();
+        order.setId(id);
+        order.setOrderNumber((id << 2) | (userId & 3));
+        order.setProgramId(1L);
+        order.setUserId(userId);
+        order.setProgramPermitChooseSeat(0);
+        order.setOrderStatus(orderStatus);
+        order.setCreateOrderTime(new Date(createOrderTime));
+        order.setStatus(1);
+        orderMapper.insert(order);
+        return order;
+    }
+    
+    private OrderCursorListDto cursorDto(String cursor, Integer orderStatus) {
+        OrderCursorListDto orderCursorListDto = new OrderCursorListDto();
+        orderCursorListDto.setUserId(USER_ID);
+        orderCursorListDto.setPageSize(PAGE_SIZE);
+        orderCursorListDto.setCursor(cursor);
+        orderCursorListDto.setOrderStatus(orderStatus);
+        return orderCursorListDto;
+    }
+}
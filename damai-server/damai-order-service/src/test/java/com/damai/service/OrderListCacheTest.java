@@ -0,0 +1,211 @@
+package com.damai.service;
+
+import com.damai.core.RedisKeyManage;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.dto.OrderCursorListDto;
+import com.damai.entity.Order;
+import com.damai.mapper.OrderMapper;
+import com.damai.redis.RedisCacheImpl;
+import com.damai.redis.RedisKeyBuild;
+import com.damai.service.properties.OrderProperties;
+import com.damai.vo.OrderCursorListVo;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单列表首页缓存的测试，在嵌入式redis上执行真实的写入和删除lua脚本，
+ * 查询数据库期间订单发生变化并删除缓存时，查询到的旧数据不能写回缓存
+ * @author: 阿星不是程序员
+ **/
+public class OrderListCacheTest {
+    
+    private static final Long USER_ID = 1L;
+    
+    /**
+     * 用户的订单，模拟数据库
+     * */
+    private final List<Order> orderTable = new ArrayList<>();
+    
+    private static RedisServer redisServer;
+    
+    private static LettuceConnectionFactory lettuceConnectionFactory;
+    
+    private static StringRedisTemplate stringRedisTemplate;
+    
+    private final OrderListCacheOperate orderListCacheOperate = new OrderListCacheOperate();
+    
+    private OrderMapper orderMapper;
+    
+    private OrderService orderService;
+    
+    /**
+     * 查询数据库时执行，模拟查询期间并发提交的订单
+     * */
+    private Runnable duringQuery;
+    
+    @BeforeAll
+    public static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        redisServer = RedisServer.newRedisServer().port(port).bind("127.0.0.1").build();
+        redisServer.start();
+        lettuceConnectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        lettuceConnectionFactory.afterPropertiesSet();
+        lettuceConnectionFactory.start();
+        stringRedisTemplate = new StringRedisTemplate(lettuceConnectionFactory);
+    }
+    
+    @AfterAll
+    public static void stopRedis() throws IOException {
+        lettuceConnectionFactory.destroy();
+        redisServer.stop();
+    }
+    
+    @BeforeEach
+    public void setUp() {
+        SpringUtilTestSupport.initialize();
+        //执行的是真实的lua脚本
+        ReflectionTestUtils.setField(orderListCacheOperate, "redisCache", new RedisCacheImpl(stringRedisTemplate));
+        orderListCacheOperate.init();
+        stringRedisTemplate.delete(firstPageKey().getRelKey());
+        
+        orderMapper = Mockito.mock(OrderMapper.class);
+        Mockito.when(orderMapper.selectCursorList(ArgumentMatchers.eq(USER_ID), ArgumentMatchers.any(),
+                ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.anyInt())).thenAnswer(invocation -> {
+            //查询的快照在并发的订单提交之前
+            List<Order> snapshot = new ArrayList<>(orderTable);
+            if (duringQuery != null) {
+                Runnable runnable = duringQuery;
+                duringQuery = null;
+                runnable.run();
+            }
+            return snapshot;
+        });
+        orderService = new OrderService();
+        ReflectionTestUtils.setField(orderService, "orderMapper", orderMapper);
+        ReflectionTestUtils.setField(orderService, "orderListCacheOperate", orderListCacheOperate);
+        OrderProperties orderProperties = new OrderProperties();
+        //和配置的默认值相同，过期时间为0时EXPIRE会直接删除缓存
+        ReflectionTestUtils.setField(orderProperties, "orderListFirstPageExpireTime", 300L);
+        ReflectionTestUtils.setField(orderService, "orderProperties", orderProperties);
+        insertOrder(1L);
+    }
+    
+    @Test
+    public void firstPageIsCachedWhenNothingChanges() {
+        assertEquals(1, orderService.cursorList(firstPageDto()).getList().size());
+        assertEquals(1, orderService.cursorList(firstPageDto()).getList().size());
+        
+        Mockito.verify(orderMapper, Mockito.times(1)).selectCursorList(ArgumentMatchers.eq(USER_ID),
+                ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.anyInt());
+    }
+    
+    @Test
+    public void staleFirstPageIsNotWrittenBackAfterInvalidate() {
+        //读请求没有命中缓存，查询数据库期间新订单提交并删除缓存
+        duringQuery = () -> {
+            insertOrder(2L);
+            orderService.delOrderListCache(USER_ID);
+        };
+        
+        OrderCursorListVo staleOrderCursorListVo = orderService.cursorList(firstPageDto());
+        
+        assertEquals(1, staleOrderCursorListVo.getList().size());
+        assertNull(orderListCacheOperate.get(firstPageKey(), "all_10", OrderCursorListVo.class));
+        assertEquals(2, orderService.cursorList(firstPageDto()).getList().size());
+        assertEquals(2, orderListCacheOperate.get(firstPageKey(), "all_10", OrderCursorListVo.class).getList().size());
+    }
+    
+    @Test
+    public void invalidateRemovesAllCachedPages() {
+        orderService.cursorList(firstPageDto());
+        OrderCursorListDto paidOrderCursorListDto = firstPageDto();
+        paidOrderCursorListDto.setOrderStatus(3);
+        orderService.cursorList(paidOrderCursorListDto);
+        
+        orderService.delOrderListCache(USER_ID);
+        
+        assertNull(orderListCacheOperate.get(firstPageKey(), "all_10", OrderCursorListVo.class));
+        assertNull(orderListCacheOperate.get(firstPageKey(), "3_10", OrderCursorListVo.class));
+        assertEquals("1", orderListCacheOperate.getVersion(firstPageKey()));
+    }
+    
+    @Test
+    public void putIsRejectedWhenVersionChanged() {
+        String version = orderListCacheOperate.getVersion(firstPageKey());
+        assertEquals("0", version);
+        //缓存不存在时没有版本字段，按初始版本写入
+        assertTrue(orderListCacheOperate.putIfVersion(firstPageKey(), version, "all_10", new OrderCursorListVo(), 300));
+        assertFalse(stringRedisTemplate.opsForHash().hasKey(firstPageKey().getRelKey(), OrderListCacheOperate.VERSION_FIELD));
+        
+        orderListCacheOperate.invalidate(firstPageKey(), 300);
+        orderListCacheOperate.invalidate(firstPageKey(), 300);
+        
+        assertEquals("2", orderListCacheOperate.getVersion(firstPageKey()));
+        assertFalse(orderListCacheOperate.putIfVersion(firstPageKey(), version, "all_10", new OrderCursorListVo(), 300));
+        assertFalse(orderListCacheOperate.putIfVersion(firstPageKey(), "1", "all_10", new OrderCursorListVo(), 300));
+        assertEquals(Set.of(OrderListCacheOperate.VERSION_FIELD), 
+                stringRedisTemplate.opsForHash().keys(firstPageKey().getRelKey()));
+        assertTrue(orderListCacheOperate.putIfVersion(firstPageKey(), "2", "all_10", new OrderCursorListVo(), 300));
+        assertNotNull(orderListCacheOperate.get(firstPageKey(), "all_10", OrderCursorListVo.class));
+    }
+    
+    @Test
+    public void putAndInvalidateRefreshExpireTime() {
+        String key = firstPageKey().getRelKey();
+        orderListCacheOperate.putIfVersion(firstPageKey(), "0", "all_10", new OrderCursorListVo(), 100);
+        Long putExpire = stringRedisTemplate.getExpire(key, TimeUnit.SECONDS);
+        assertTrue(putExpire != null && putExpire > 0 && putExpire <= 100, "expire : " + putExpire);
+        
+        //删除后只剩版本字段，同样会过期，不会永久保留
+        orderListCacheOperate.invalidate(firstPageKey(), 50);
+        Long invalidateExpire = stringRedisTemplate.getExpire(key, TimeUnit.SECONDS);
+        assertTrue(invalidateExpire != null && invalidateExpire > 0 && invalidateExpire <= 50, "expire : " + invalidateExpire);
+    }
+    
+    private void insertOrder(Long id) {
+        Order order = new Order();
+        order.setId(id);
+        order.setUserId(USER_ID);
+        order.setOrderStatus(1);
+        order.setCreateOrderTime(new Date());
+        orderTable.add(0, order);
+    }
+    
+    private OrderCursorListDto firstPageDto() {
+        OrderCursorListDto orderCursorListDto = new OrderCursorListDto();
+        orderCursorListDto.setUserId(USER_ID);
+        orderCursorListDto.setPageSize(10);
+        return orderCursorListDto;
+    }
+    
+    private RedisKeyBuild firstPageKey() {
+        return RedisKeyBuild.createRedisKey(RedisKeyManage.ORDER_LIST_FIRST_PAGE_HASH, USER_ID);
+    }
+}
@@ -0,0 +1,203 @@
+package com.damai.service.delayconsumer;
+
+import com.alibaba.fastjson.JSON;
+import com.damai.core.ConsumerTask;
+import com.damai.dto.DelayOrderCancelDto;
+import com.damai.dto.OrderCancelDto;
+import com.damai.entity.Order;
+import com.damai.enums.BaseCode;
+import com.damai.enums.OrderStatus;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.service.OrderService;
+import com.damai.service.properties.OrderProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 延迟订单取消的测试，多个消费线程同时收到同一时间到期的消息时合并为批次处理，
+ * 每个消费线程等自己的订单处理完成才返回，取消失败时异常抛给延迟队列重新投递
+ * @author: 阿星不是程序员
+ **/
+public class DelayOrderCancelConsumerTest {
+    
+    private static final int CONSUME_THREAD_COUNT = 8;
+    
+    /**
+     * 每次批量查询的订单编号
+     * */
+    private final List<List<Long>> batchList = new CopyOnWriteArrayList<>();
+    
+    private final Set<Long> cancelledSet = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * 消费线程返回时自己的订单还没有处理完成的订单编号
+     * */
+    private final Set<Long> returnedEarlySet = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * 消费线程抛出的异常
+     * */
+    private final Map<Long, Exception> failedMap = new ConcurrentHashMap<>();
+    
+    private OrderService orderService;
+    
+    private DelayOrderCancelConsumer delayOrderCancelConsumer;
+    
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        orderService = Mockito.mock(OrderService.class);
+        Mockito.when(orderService.getBatch(Mockito.anyList())).thenAnswer(invocation -> {
+            List<Long> orderNumberList = new ArrayList<>(invocation.<List<Long>>getArgument(0));
+            batchList.add(orderNumberList);
+            List<Order> orderList = new ArrayList<>(orderNumberList.size());
+            for (Long orderNumber : orderNumberList) {
+                Order order = new Order();
+                order.setOrderNumber(orderNumber);
+                //编号为偶数的订单已经支付
+                order.setOrderStatus(orderNumber % 2 == 0 ? OrderStatus.PAY.getCode() : OrderStatus.NO_PAY.getCode());
+                orderList.add(order);
+            }
+            return orderList;
+        });
+        Mockito.when(orderService.cancel(Mockito.any())).thenAnswer(invocation ->
+                cancelledSet.add(invocation.<OrderCancelDto>getArgument(0).getOrderNumber()));
+        OrderProperties orderProperties = new OrderProperties();
+        orderProperties.setDelayOrderCancelBatchWindowMillis(20L);
+        delayOrderCancelConsumer = new DelayOrderCancelConsumer();
+        ReflectionTestUtils.setField(delayOrderCancelConsumer, "orderService", orderService);
+        ReflectionTestUtils.setField(delayOrderCancelConsumer, "orderProperties", orderProperties);
+    }
+    
+    @Test
+    public void messagesDueTogetherAreBatched() throws InterruptedException {
+        consume(150, CONSUME_THREAD_COUNT);
+        
+        //消费线程等待自己的订单处理完成，一批最多是消费线程的数量
+        assertTrue(batchList.size() < 75, "batchCount : " + batchList.size());
+        batchList.forEach(batch -> assertTrue(batch.size() <= CONSUME_THREAD_COUNT, "batchSize : " + batch.size()));
+        assertEquals(150, batchList.stream().mapToInt(List::size).sum());
+        assertEquals(expectedCancelled(150), cancelledSet);
+        assertTrue(returnedEarlySet.isEmpty(), "returned early : " + returnedEarlySet);
+        assertTrue(failedMap.isEmpty());
+    }
+    
+    @Test
+    public void batchIsLimitedTo200() throws InterruptedException {
+        consume(450, 450);
+        
+        assertTrue(batchList.size() >= 3, "batchCount : " + batchList.size());
+        batchList.forEach(batch -> assertTrue(batch.size() <= 200));
+        assertEquals(450, batchList.stream().mapToInt(List::size).sum());
+        assertEquals(expectedCancelled(450), cancelledSet);
+        assertTrue(returnedEarlySet.isEmpty(), "returned early : " + returnedEarlySet);
+    }
+    
+    @Test
+    public void singleMessageIsCancelled() {
+        delayOrderCancelConsumer.execute(message(1L));
+        
+        assertEquals(List.of(List.of(1L)), batchList);
+        assertEquals(Set.of(1L), cancelledSet);
+    }
+    
+    @Test
+    public void failedCancelIsThrownToOwnConsumer() throws InterruptedException {
+        Mockito.doAnswer(invocation -> {
+            Long orderNumber = invocation.<OrderCancelDto>getArgument(0).getOrderNumber();
+            if (orderNumber == 3L) {
+                throw new IllegalStateException("database unavailable");
+            }
+            if (orderNumber == 5L) {
+                return false;
+            }
+            return cancelledSet.add(orderNumber);
+        }).when(orderService).cancel(Mockito.any());
+        
+        consume(20, CONSUME_THREAD_COUNT);
+        
+        //只有取消失败的订单的消费线程抛出异常，同一批的其他订单不受影响
+        assertEquals(Set.of(3L, 5L), failedMap.keySet());
+        assertEquals("database unavailable", failedMap.get(3L).getMessage());
+        assertEquals(BaseCode.DELAY_ORDER_CANCEL_FAIL.getCode(), ((DaMaiFrameException)failedMap.get(5L)).getCode());
+        Set<Long> expectedSet = expectedCancelled(20);
+        expectedSet.removeAll(Set.of(3L, 5L));
+        assertEquals(expectedSet, cancelledSet);
+    }
+    
+    @Test
+    public void batchQueryFailureFallsBackToSingleCancel() {
+        Mockito.doThrow(new IllegalStateException("timeout")).when(orderService).getBatch(Mockito.anyList());
+        
+        delayOrderCancelConsumer.execute(message(2L));
+        
+        //查询失败时不知道订单状态，直接执行取消，由取消自己判断订单状态
+        assertEquals(Set.of(2L), cancelledSet);
+    }
+    
+    @Test
+    public void failedMessageAsksForRedelivery() {
+        //延迟队列默认不重新投递，订单取消可以重复执行，开启重新投递
+        assertTrue(delayOrderCancelConsumer.retryWhenFail());
+        assertFalse(Mockito.mock(ConsumerTask.class, Mockito.CALLS_REAL_METHODS).retryWhenFail());
+    }
+    
+    /**
+     * 和延迟队列一样，由多个消费线程并发执行，消费线程返回时检查自己的订单已经处理完成
+     * */
+    private void consume(int messageCount, int consumeThreadCount) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(consumeThreadCount);
+        for (long orderNumber = 1; orderNumber <= messageCount; orderNumber++) {
+            Long currentOrderNumber = orderNumber;
+            String content = message(orderNumber);
+            executorService.execute(() -> {
+                try {
+                    delayOrderCancelConsumer.execute(content);
+                }catch (Exception e) {
+                    failedMap.put(currentOrderNumber, e);
+                    return;
+                }
+                boolean handled = batchList.stream().anyMatch(batch -> batch.contains(currentOrderNumber)) &&
+                        (currentOrderNumber % 2 == 0 || cancelledSet.contains(currentOrderNumber));
+                if (!handled) {
+                    returnedEarlySet.add(currentOrderNumber);
+                }
+            });
+        }
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+    }
+    
+    private Set<Long> expectedCancelled(int messageCount) {
+        Set<Long> expectedSet = new HashSet<>();
+        for (long orderNumber = 1; orderNumber <= messageCount; orderNumber += 2) {
+            expectedSet.add(orderNumber);
+        }
+        return expectedSet;
+    }
+    
+    private String message(Long orderNumber) {
+        DelayOrderCancelDto delayOrderCancelDto = new DelayOrderCancelDto();
+        delayOrderCancelDto.setOrderNumber(orderNumber);
+        return JSON.toJSONString(delayOrderCancelDto);
+    }
+}
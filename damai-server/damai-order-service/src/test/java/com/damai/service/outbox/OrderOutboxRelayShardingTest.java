@@ -0,0 +1,262 @@
+package com.damai.service.outbox;
+
+import com.baidu.fsg.uid.UidGenerator;
+import com.damai.context.DelayQueueContext;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.entity.Order;
+import com.damai.mapper.OrderShardingTestDatabase;
+import com.damai.service.properties.OrderProperties;
+import com.damai.util.DateUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 订单发件箱在ShardingSphere分库上的测试，执行真实的 OrderOutboxMapper.xml，
+ * 发件箱表每个库一张，查询待发送消息和删除已发送消息广播到两个库，
+ * 两个relay并发执行时 for update skip locked 让它们各自发送不同的消息，发送失败的消息到了下次发送时间再发送，
+ * 超过保留时间的已发送消息被删除
+ * @author: 阿星不是程序员
+ **/
+public class OrderOutboxRelayShardingTest {
+    
+    private static final int MESSAGE_COUNT = 16;
+    
+    private static final int BATCH_SIZE = 3;
+    
+    private OrderShardingTestDatabase orderShardingTestDatabase;
+    
+    private TransactionTemplate transactionTemplate;
+    
+    private OrderOutboxService orderOutboxService;
+    
+    private OrderProperties orderProperties;
+    
+    /**
+     * 延迟队列收到的消息
+     * */
+    private final List<String> delayQueueMessageList = new CopyOnWriteArrayList<>();
+    
+    /**
+     * 发送时执行的动作，按消息内容区分，用来让发送阻塞或一直失败
+     * */
+    private final Map<String, Runnable> publishActionMap = new ConcurrentHashMap<>();
+    
+    @BeforeEach
+    public void setUp() throws Exception {
+        SpringUtilTestSupport.initialize();
+        orderShardingTestDatabase = new OrderShardingTestDatabase();
+        transactionTemplate = new TransactionTemplate(
+                new DataSourceTransactionManager(orderShardingTestDatabase.getShardingDataSource()));
+        
+        UidGenerator uidGenerator = Mockito.mock(UidGenerator.class);
+        AtomicLong nextId = new AtomicLong(1);
+        Mockito.when(uidGenerator.getUid()).thenAnswer(invocation -> nextId.getAndIncrement());
+        DelayQueueContext delayQueueContext = Mockito.mock(DelayQueueContext.class);
+        Mockito.doAnswer(invocation -> {
+            String content = invocation.getArgument(1);
+            Runnable action = publishActionMap.get(content);
+            if (action != null) {
+                action.run();
+            }
+            delayQueueMessageList.add(content);
+            return null;
+        }).when(delayQueueContext).sendMessage(Mockito.anyString(), Mockito.anyString(), Mockito.anyLong(), Mockito.any());
+        
+        orderProperties = new OrderProperties();
+        orderProperties.setOrderOutboxRelayBatchSize(BATCH_SIZE);
+        orderProperties.setOrderOutboxSentRetentionHours(1);
+        orderOutboxService = new OrderOutboxService();
+        ReflectionTestUtils.setField(orderOutboxService, "orderOutboxMapper", orderShardingTestDatabase.getOrderOutboxMapper());
+        ReflectionTestUtils.setField(orderOutboxService, "uidGenerator", uidGenerator);
+        ReflectionTestUtils.setField(orderOutboxService, "delayQueueContext", delayQueueContext);
+        ReflectionTestUtils.setField(orderOutboxService, "orderProperties", orderProperties);
+        
+        //用户id的基因分布在两个库
+        for (long orderNumber = 1; orderNumber <= MESSAGE_COUNT; orderNumber++) {
+            Order order = new Order();
+            order.setUserId(orderNumber % 8);
+            order.setOrderNumber((orderNumber << 3) | order.getUserId());
+            transactionTemplate.executeWithoutResult(status -> orderOutboxService.saveDelayOrderCancel(order));
+        }
+        assertTrue(count(0, "1 = 1") > 0);
+        assertTrue(count(1, "1 = 1") > 0);
+        assertEquals(MESSAGE_COUNT, count(0, "1 = 1") + count(1, "1 = 1"));
+    }
+    
+    @AfterEach
+    public void tearDown() throws Exception {
+        orderShardingTestDatabase.close();
+    }
+    
+    @Test
+    public void concurrentRelaysSkipRowsLockedByEachOther() throws Exception {
+        //第一个relay发送第一条消息时阻塞，持有本批消息的行锁
+        CountDownLatch firstRelayLocked = new CountDownLatch(1);
+        CountDownLatch releaseFirstRelay = new CountDownLatch(1);
+        List<Long> firstBatch = waitSendIdList(BATCH_SIZE);
+        publishActionMap.put(payload(firstBatch.get(0)), () -> {
+            firstRelayLocked.countDown();
+            await(releaseFirstRelay);
+        });
+        CompletableFuture<Integer> firstRelay = CompletableFuture.supplyAsync(this::relay);
+        assertTrue(firstRelayLocked.await(10, TimeUnit.SECONDS));
+        
+        //第二个relay不等待被锁定的行，直接发送其他消息
+        CompletableFuture<Integer> secondRelay = CompletableFuture.supplyAsync(this::relay);
+        assertEquals(BATCH_SIZE, secondRelay.get(10, TimeUnit.SECONDS));
+        assertFalse(firstRelay.isDone());
+        Set<String> secondSent = new HashSet<>(delayQueueMessageList);
+        firstBatch.forEach(id -> assertFalse(secondSent.contains(payload(id))));
+        
+        releaseFirstRelay.countDown();
+        assertEquals(BATCH_SIZE, firstRelay.get(10, TimeUnit.SECONDS));
+        
+        relayAll();
+        //没有发送失败时每条消息只发送一次
+        assertEquals(MESSAGE_COUNT, delayQueueMessageList.size());
+        assertEquals(MESSAGE_COUNT, new HashSet<>(delayQueueMessageList).size());
+        assertEquals(0, count(0, "outbox_status = 1") + count(1, "outbox_status = 1"));
+    }
+    
+    @Test
+    public void failedMessageIsRetriedAtNextRetryTime() {
+        Long failedId = waitSendIdList(1).get(0);
+        int databaseIndex = databaseIndex(failedId);
+        //已经失败过5次，下次重试间隔32秒，测试期间不会到达下次发送的时间
+        orderShardingTestDatabase.getJdbcTemplate(databaseIndex).update(
+                "update d_order_outbox set retry_count = 5 where id = ?", failedId);
+        publishActionMap.put(payload(failedId), () -> {
+            throw new IllegalStateException("redis unavailable");
+        });
+        
+        relayAll();
+        
+        assertEquals(MESSAGE_COUNT - 1, delayQueueMessageList.size());
+        assertFalse(delayQueueMessageList.contains(payload(failedId)));
+        assertEquals(6, queryForLong(databaseIndex, "select retry_count from d_order_outbox where id = ?", failedId));
+        assertEquals(1, count(databaseIndex, "id = ? and outbox_status = 1 and next_retry_time > ?", failedId,
+                new Date(DateUtils.now().getTime() + TimeUnit.SECONDS.toMillis(20))));
+        //还没有到下次发送的时间
+        assertEquals(0, relay());
+        
+        publishActionMap.remove(payload(failedId));
+        orderShardingTestDatabase.getJdbcTemplate(databaseIndex).update(
+                "update d_order_outbox set next_retry_time = ? where id = ?", DateUtils.now(), failedId);
+        assertEquals(1, relay());
+        assertEquals(payload(failedId), delayQueueMessageList.get(MESSAGE_COUNT - 1));
+        assertEquals(0, count(databaseIndex, "outbox_status = 1"));
+    }
+    
+    @Test
+    public void delSentRemovesSentMessagesOlderThanRetentionFromEveryDatabase() {
+        //这条消息一直发送失败，保持待发送
+        Long waitSendId = waitSendIdList(1).get(0);
+        publishActionMap.put(payload(waitSendId), () -> {
+            throw new IllegalStateException("redis unavailable");
+        });
+        relayAll();
+        
+        //刚发送的消息在保留时间内
+        assertEquals(0, orderOutboxService.delSent());
+        
+        //每个库各有一条已发送的消息超过了保留时间，一条还在保留时间内
+        Set<Long> expiredIdSet = new HashSet<>();
+        for (int databaseIndex = 0; databaseIndex < OrderShardingTestDatabase.DATABASE_COUNT; databaseIndex++) {
+            List<Long> sentIdList = orderShardingTestDatabase.getJdbcTemplate(databaseIndex).queryForList(
+                    "select id from d_order_outbox where outbox_status = 2 order by id", Long.class);
+            expiredIdSet.add(sentIdList.get(0));
+            editTimeBefore(databaseIndex, sentIdList.get(0), TimeUnit.MINUTES.toMillis(61));
+            editTimeBefore(databaseIndex, sentIdList.get(1), TimeUnit.MINUTES.toMillis(59));
+        }
+        //未发送的消息不论编辑时间都不删除
+        editTimeBefore(databaseIndex(waitSendId), waitSendId, TimeUnit.HOURS.toMillis(2));
+        
+        assertEquals(OrderShardingTestDatabase.DATABASE_COUNT, orderOutboxService.delSent());
+        expiredIdSet.forEach(id -> assertEquals(0, count(databaseIndex(id), "id = ?", id)));
+        assertEquals(MESSAGE_COUNT - OrderShardingTestDatabase.DATABASE_COUNT, count(0, "1 = 1") + count(1, "1 = 1"));
+        assertEquals(1, count(databaseIndex(waitSendId), "id = ? and outbox_status = 1", waitSendId));
+    }
+    
+    private int relay() {
+        return transactionTemplate.execute(status -> orderOutboxService.relay());
+    }
+    
+    private void relayAll() {
+        while (relay() > 0) {
+            //一直发送到没有到达发送时间的消息
+        }
+    }
+    
+    /**
+     * 按发件箱的查询顺序(主键升序)取前几条待发送消息的id
+     * */
+    private List<Long> waitSendIdList(int limit) {
+        List<Long> idList = new ArrayList<>();
+        for (int databaseIndex = 0; databaseIndex < OrderShardingTestDatabase.DATABASE_COUNT; databaseIndex++) {
+            idList.addAll(orderShardingTestDatabase.getJdbcTemplate(databaseIndex).queryForList(
+                    "select id from d_order_outbox where outbox_status = 1", Long.class));
+        }
+        idList.sort(Long::compareTo);
+        return idList.subList(0, limit);
+    }
+    
+    private String payload(Long id) {
+        for (int databaseIndex = 0; databaseIndex < OrderShardingTestDatabase.DATABASE_COUNT; databaseIndex++) {
+            List<String> payloadList = orderShardingTestDatabase.getJdbcTemplate(databaseIndex).queryForList(
+                    "select payload from d_order_outbox where id = ?", String.class, id);
+            if (!payloadList.isEmpty()) {
+                return payloadList.get(0);
+            }
+        }
+        return null;
+    }
+    
+    private int databaseIndex(Long id) {
+        return count(0, "id = ?", id) > 0 ? 0 : 1;
+    }
+    
+    private void editTimeBefore(int databaseIndex, Long id, long millis) {
+        orderShardingTestDatabase.getJdbcTemplate(databaseIndex).update("update d_order_outbox set edit_time = ? where id = ?",
+                new Date(DateUtils.now().getTime() - millis), id);
+    }
+    
+    private long count(int databaseIndex, String condition, Object... args) {
+        return queryForLong(databaseIndex, "select count(1) from d_order_outbox where " + condition, args);
+    }
+    
+    private long queryForLong(int databaseIndex, String sql, Object... args) {
+        Long value = orderShardingTestDatabase.getJdbcTemplate(databaseIndex).queryForObject(sql, Long.class, args);
+        return value == null ? 0 : value;
+    }
+    
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.damai.service.outbox;
+
+import com.damai.context.DelayQueueContext;
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.entity.OrderOutbox;
+import com.damai.enums.OrderOutboxChannel;
+import com.damai.enums.OrderOutboxStatus;
+import com.damai.mapper.OrderOutboxMapper;
+import com.damai.service.properties.OrderProperties;
+import com.damai.util.DateUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.BeanUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单发件箱的故障注入测试，发件箱表使用内存实现，relay抛出异常时按事务回滚恢复表数据，
+ * 发送失败的消息推迟重试且不影响同一批的其他消息，发送后标记前宕机的消息会再次发送
+ * @author: 阿星不是程序员
+ **/
+public class OrderOutboxServiceTest {
+    
+    private static final String DELAY_TOPIC = "delay_order_cancel_topic";
+    
+    /**
+     * 发件箱表，按主键排序
+     * */
+    private final Map<Long, OrderOutbox> outboxTable = new TreeMap<>();
+    
+    /**
+     * 延迟队列收到的消息
+     * */
+    private final List<String> delayQueueMessageList = new CopyOnWriteArrayList<>();
+    
+    /**
+     * 延迟队列接下来发送失败的次数
+     * */
+    private final AtomicInteger delayQueueFailCount = new AtomicInteger();
+    
+    /**
+     * 标记已发送时接下来失败的次数，模拟发送后提交前宕机
+     * */
+    private final AtomicInteger updateSentFailCount = new AtomicInteger();
+    
+    private OrderOutboxService orderOutboxService;
+    
+    @BeforeEach
+    public void setUp() {
+        SpringUtilTestSupport.initialize();
+        
+        OrderOutboxMapper orderOutboxMapper = Mockito.mock(OrderOutboxMapper.class);
+        Mockito.when(orderOutboxMapper.selectWaitSendForUpdate(Mockito.any(), Mockito.anyInt())).thenAnswer(invocation -> {
+            Date now = invocation.getArgument(0);
+            int limit = invocation.getArgument(1);
+            List<OrderOutbox> orderOutboxList = new ArrayList<>();
+            for (OrderOutbox orderOutbox : outboxTable.values()) {
+                if (orderOutboxList.size() < limit && Objects.equals(orderOutbox.getOutboxStatus(), OrderOutboxStatus.WAIT_SEND.getCode())
+                        && !orderOutbox.getNextRetryTime().after(now)) {
+                    orderOutboxList.add(copy(orderOutbox));
+                }
+            }
+            return orderOutboxList;
+        });
+        Mockito.when(orderOutboxMapper.updateSent(Mockito.anyList(), Mockito.any())).thenAnswer(invocation -> {
+            if (updateSentFailCount.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+                throw new IllegalStateException("connection lost before commit");
+            }
+            List<Long> idList = invocation.getArgument(0);
+            idList.forEach(id -> outboxTable.get(id).setOutboxStatus(OrderOutboxStatus.SENT.getCode()));
+            return idList.size();
+        });
+        Mockito.when(orderOutboxMapper.updateRetry(Mockito.anyLong(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+            OrderOutbox orderOutbox = outboxTable.get(invocation.<Long>getArgument(0));
+            orderOutbox.setRetryCount(orderOutbox.getRetryCount() + 1);
+            orderOutbox.setNextRetryTime(invocation.getArgument(1));
+            return 1;
+        });
+        
+        DelayQueueContext delayQueueContext = Mockito.mock(DelayQueueContext.class);
+        Mockito.doAnswer(invocation -> {
+            if (delayQueueFailCount.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+                throw new IllegalStateException("redis unavailable");
+            }
+            delayQueueMessageList.add(invocation.getArgument(1));
+            return null;
+        }).when(delayQueueContext).sendMessage(Mockito.anyString(), Mockito.anyString(), Mockito.anyLong(), Mockito.any());
+        
+        OrderProperties orderProperties = new OrderProperties();
+        orderProperties.setOrderOutboxRelayBatchSize(10);
+        orderOutboxService = new OrderOutboxService();
+        ReflectionTestUtils.setField(orderOutboxService, "orderOutboxMapper", orderOutboxMapper);
+        ReflectionTestUtils.setField(orderOutboxService, "delayQueueContext", delayQueueContext);
+        ReflectionTestUtils.setField(orderOutboxService, "orderProperties", orderProperties);
+    }
+    
+    @Test
+    public void failedMessageIsRetriedWithoutBlockingTheBatch() {
+        insert(1L, OrderOutboxChannel.DELAY_QUEUE, "order-1");
+        insert(2L, OrderOutboxChannel.DELAY_QUEUE, "order-2");
+        insert(3L, OrderOutboxChannel.DELAY_QUEUE, "order-3");
+        delayQueueFailCount.set(1);
+        
+        assertEquals(3, relay());
+        
+        assertEquals(List.of("order-2", "order-3"), delayQueueMessageList);
+        OrderOutbox failed = outboxTable.get(1L);
+        assertEquals(OrderOutboxStatus.WAIT_SEND.getCode(), failed.getOutboxStatus());
+        assertEquals(1, failed.getRetryCount());
+        assertTrue(failed.getNextRetryTime().after(DateUtils.now()));
+        //还没有到下次发送的时间
+        assertEquals(0, relay());
+        
+        failed.setNextRetryTime(new Date(0));
+        assertEquals(1, relay());
+        assertEquals(List.of("order-2", "order-3", "order-1"), delayQueueMessageList);
+        outboxTable.values().forEach(orderOutbox -> assertEquals(OrderOutboxStatus.SENT.getCode(), orderOutbox.getOutboxStatus()));
+    }
+    
+    @Test
+    public void retryIntervalGrowsExponentiallyUpTo60Seconds() {
+        insert(1L, OrderOutboxChannel.DELAY_QUEUE, "order-1");
+        delayQueueFailCount.set(Integer.MAX_VALUE);
+        long[] expectedSeconds = {1, 2, 4, 8, 16, 32, 60, 60};
+        for (long expected : expectedSeconds) {
+            outboxTable.get(1L).setNextRetryTime(new Date(0));
+            //和发件箱使用同一个精确到秒的时间，执行期间跨过一秒时间隔多一秒
+            long start = DateUtils.now().getTime();
+            relay();
+            long interval = outboxTable.get(1L).getNextRetryTime().getTime() - start;
+            assertTrue(interval >= TimeUnit.SECONDS.toMillis(expected)
+                    && interval <= TimeUnit.SECONDS.toMillis(expected) + 1000, "interval : " + interval);
+        }
+        assertEquals(expectedSeconds.length, outboxTable.get(1L).getRetryCount());
+        assertEquals(0, delayQueueMessageList.size());
+    }
+    
+    @Test
+    public void crashAfterPublishResendsTheMessage() {
+        insert(1L, OrderOutboxChannel.DELAY_QUEUE, "order-1");
+        insert(2L, OrderOutboxChannel.DELAY_QUEUE, "order-2");
+        updateSentFailCount.set(1);
+        
+        assertThrows(IllegalStateException.class, this::relay);
+        assertEquals(List.of("order-1", "order-2"), delayQueueMessageList);
+        outboxTable.values().forEach(orderOutbox -> assertEquals(OrderOutboxStatus.WAIT_SEND.getCode(), orderOutbox.getOutboxStatus()));
+        
+        assertEquals(2, relay());
+        //至少发送一次，由消费者保证幂等
+        assertEquals(List.of("order-1", "order-2", "order-1", "order-2"), delayQueueMessageList);
+        assertEquals(0, relay());
+    }
+    
+    @Test
+    public void unknownChannelIsRetried() {
+        OrderOutbox orderOutbox = insert(1L, OrderOutboxChannel.DELAY_QUEUE, "order-1");
+        orderOutbox.setChannel(99);
+        
+        assertEquals(1, relay());
+        
+        assertEquals(1, outboxTable.get(1L).getRetryCount());
+        assertEquals(0, delayQueueMessageList.size());
+    }
+    
+    /**
+     * 和@Transactional一样，抛出异常时回滚本次对发件箱表的修改
+     * */
+    private int relay() {
+        Map<Long, OrderOutbox> snapshot = new TreeMap<>();
+        outboxTable.forEach((id, orderOutbox) -> snapshot.put(id, copy(orderOutbox)));
+        try {
+            return orderOutboxService.relay();
+        }catch (RuntimeException e) {
+            outboxTable.clear();
+            outboxTable.putAll(snapshot);
+            throw e;
+        }
+    }
+    
+    private OrderOutbox insert(Long orderNumber, OrderOutboxChannel channel, String payload) {
+        OrderOutbox orderOutbox = new OrderOutbox();
+        orderOutbox.setId(orderNumber);
+        orderOutbox.setOrderNumber(orderNumber);
+        orderOutbox.setUserId(orderNumber);
+        orderOutbox.setChannel(channel.getCode());
+        orderOutbox.setTopic(DELAY_TOPIC);
+        orderOutbox.setPayload(payload);
+        orderOutbox.setDeliverTime(new Date(DateUtils.now().getTime() + TimeUnit.MINUTES.toMillis(15)));
+        orderOutbox.setOutboxStatus(OrderOutboxStatus.WAIT_SEND.getCode());
+        orderOutbox.setRetryCount(0);
+        orderOutbox.setNextRetryTime(new Date(0));
+        outboxTable.put(orderOutbox.getId(), orderOutbox);
+        return orderOutbox;
+    }
+    
+    private OrderOutbox copy(OrderOutbox orderOutbox) {
+        OrderOutbox copy = new OrderOutbox();
+        BeanUtils.copyProperties(orderOutbox, copy);
+        return copy;
+    }
+}
@@ -8,7 +8,6 @@ import com.baidu.fsg.uid.UidGenerator;
 import com.damai.client.OrderClient;
 import com.damai.common.ApiResponse;
 import com.damai.core.RedisKeyManage;
-import com.damai.dto.DelayOrderCancelDto;
 import com.damai.dto.OrderCreateDto;
 import com.damai.dto.OrderTicketUserCreateDto;
 import com.damai.dto.ProgramOrderCreateDto;
@@ -19,7 +18,6 @@ import com.damai.enums.OrderStatus;
 import com.damai.enums.SellStatus;
 import com.damai.exception.DaMaiFrameException;
 import com.damai.redis.RedisKeyBuild;
-import com.damai.service.delaysend.DelayOrderCancelSend;
 import com.damai.service.kafka.CreateOrderMqDomain;
 import com.damai.service.kafka.CreateOrderSend;
 import com.damai.service.lua.ProgramCacheCreateOrderData;
@@ -70,9 +68,6 @@ public class ProgramOrderService {
     @Autowired
     ProgramCacheCreateOrderResolutionOperate programCacheCreateOrderResolutionOperate;
 
-    @Autowired
-    private DelayOrderCancelSend delayOrderCancelSend;
-
     @Autowired
     private CreateOrderSend createOrderSend;
 
@@ -392,8 +387,7 @@ public class ProgramOrderService {
      * 执行订单创建(RPC方式)
      * <p>该方法用于执行订单创建的具体操作，使用RPC方式调用订单服务。主要流程包括:
      * 1. 构建订单创建参数
-     * 2. 通过RPC调用订单服务创建订单
-     * 3. 发送延迟取消订单消息</p>
+     * 2. 通过RPC调用订单服务创建订单，订单超时取消的消息由订单服务在创建订单的事务中写入发件箱</p>
      *
      * @param programOrderCreateDto 节目订单创建参数对象
      * @param purchaseSeatList 已购买的座位列表
@@ -403,22 +397,14 @@ public class ProgramOrderService {
     private String doCreate(ProgramOrderCreateDto programOrderCreateDto, List<SeatVo> purchaseSeatList) {
         OrderCreateDto orderCreateDto = buildCreateOrderParam(programOrderCreateDto, purchaseSeatList);
 
-        String orderNumber = createOrderByRpc(orderCreateDto, purchaseSeatList);
-
-        //订单超时处理
-        DelayOrderCancelDto delayOrderCancelDto = new DelayOrderCancelDto();
-        delayOrderCancelDto.setOrderNumber(orderCreateDto.getOrderNumber());
-        delayOrderCancelSend.sendMessage(JSON.toJSONString(delayOrderCancelDto));
-
-        return orderNumber;
+        return createOrderByRpc(orderCreateDto, purchaseSeatList);
     }
 
     /**
      * 执行订单创建(消息队列方式)
      * <p>该方法用于执行订单创建的具体操作，使用消息队列方式异步创建订单。主要流程包括:
      * 1. 构建订单创建参数
-     * 2. 通过消息队列发送订单创建消息
-     * 3. 发送延迟取消订单消息</p>
+     * 2. 通过消息队列发送订单创建消息，订单超时取消的消息由订单服务在创建订单的事务中写入发件箱</p>
      *
      * @param programOrderCreateDto 节目订单创建参数对象
      * @param purchaseSeatList 已购买的座位列表
@@ -428,13 +414,7 @@ public class ProgramOrderService {
     private String doCreateV2(ProgramOrderCreateDto programOrderCreateDto, List<SeatVo> purchaseSeatList) {
         OrderCreateDto orderCreateDto = buildCreateOrderParam(programOrderCreateDto, purchaseSeatList);
 
-        String orderNumber = createOrderByMq(orderCreateDto, purchaseSeatList);
-
-        DelayOrderCancelDto delayOrderCancelDto = new DelayOrderCancelDto();
-        delayOrderCancelDto.setOrderNumber(orderCreateDto.getOrderNumber());
-        delayOrderCancelSend.sendMessage(JSON.toJSONString(delayOrderCancelDto));
-
-        return orderNumber;
+        return createOrderByMq(orderCreateDto, purchaseSeatList);
     }
 
     /**
@@ -11,6 +11,7 @@ import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.damai.BusinessThreadPool;
 import com.damai.RedisStreamPushHandler;
+import com.damai.handler.BloomFilterHandler;
 import com.damai.client.BaseDataClient;
 import com.damai.client.OrderClient;
 import com.damai.client.UserClient;
@@ -90,6 +91,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -105,6 +107,7 @@ import static com.damai.core.DistributedLockConstants.GET_PROGRAM_LOCK;
 import static com.damai.core.DistributedLockConstants.PROGRAM_GROUP_LOCK;
 import static com.damai.core.DistributedLockConstants.PROGRAM_LOCK;
 import static com.damai.core.RepeatExecuteLimitConstants.CANCEL_PROGRAM_ORDER;
+import static com.damai.service.constant.ProgramOrderConstant.PRELOAD_POOL_NAME;
 import static com.damai.util.DateUtils.FORMAT_DATE;
 
 /**
@@ -171,6 +174,9 @@ public class ProgramService extends ServiceImpl<ProgramMapper, Program> {
     @Autowired
     private RedisStreamPushHandler redisStreamPushHandler;
     
+    @Autowired
+    private BloomFilterHandler bloomFilterHandler;
+    
     @Autowired
     private LocalCacheProgram localCacheProgram;
     
@@ -205,6 +211,7 @@ public class ProgramService extends ServiceImpl<ProgramMapper, Program> {
         BeanUtil.copyProperties(programAddDto,program);
         program.setId(uidGenerator.getUid());
         programMapper.insert(program);
+        bloomFilterHandler.add(String.valueOf(program.getId()));
         return program.getId();
     }
     
@@ -377,20 +384,8 @@ public class ProgramService extends ServiceImpl<ProgramMapper, Program> {
         List<Long> programIdList = iPage.getRecords().stream().map(Program::getId).collect(Collectors.toList());
         Map<Long, TicketCategoryAggregate> ticketCategorieMap = selectTicketCategorieMap(programIdList);
         
-        Map<Long,String> tempAreaMap = new HashMap<>(64);
-        AreaSelectDto areaSelectDto = new AreaSelectDto();
-        areaSelectDto.setIdList(iPage.getRecords().stream().map(Program::getAreaId).distinct().collect(Collectors.toList()));
-        ApiResponse<List<AreaVo>> areaResponse = baseDataClient.selectByIdList(areaSelectDto);
-        if (Objects.equals(areaResponse.getCode(), ApiResponse.ok().getCode())) {
-            if (CollectionUtil.isNotEmpty(areaResponse.getData())) {
-                tempAreaMap = areaResponse.getData().stream()
-                        .collect(Collectors.toMap(AreaVo::getId,AreaVo::getName,(v1,v2) -> v2));
-            }
-        }else {
-            log.error("base-data selectByIdList rpc error areaResponse:{}", JSON.toJSONString(areaResponse));
-        }
-
-        Map<Long,String> areaMap = tempAreaMap;
+        Map<Long,String> areaMap = 
+                selectAreaNameMap(iPage.getRecords().stream().map(Program::getAreaId).distinct().collect(Collectors.toList()));
         return PageUtil.convertPage(iPage, programJoinShowTime -> {
             ProgramListVo programListVo = new ProgramListVo();
             BeanUtil.copyProperties(programJoinShowTime, programListVo);
@@ -704,6 +699,39 @@ public class ProgramService extends ServiceImpl<ProgramMapper, Program> {
         return programs.stream().map(Program::getId).collect(Collectors.toList());
     }
     
+    public long getProgramCount(){
+        LambdaQueryWrapper<Program> programLambdaQueryWrapper =
+                Wrappers.lambdaQuery(Program.class).eq(Program::getProgramStatus, BusinessStatus.YES.getCode());
+        return programMapper.selectCount(programLambdaQueryWrapper);
+    }
+    
+    /**
+     * 节目最近一次的编辑时间，没有节目时返回null
+     * */
+    public Date getProgramLastEditTime(){
+        LambdaQueryWrapper<Program> programLambdaQueryWrapper =
+                Wrappers.lambdaQuery(Program.class).select(Program::getEditTime)
+                        .orderByDesc(Program::getEditTime).last("limit 1");
+        return Optional.ofNullable(programMapper.selectOne(programLambdaQueryWrapper)).map(Program::getEditTime).orElse(null);
+    }
+    
+    /**
+     * 按id升序分页查询节目id
+     * @param lastId 上一页最后一个id，第一页为null
+     * @param pageSize 每页条数
+     * @return 节目id集合
+     * */
+    public List<Long> getProgramIdPage(Long lastId, int pageSize){
+        LambdaQueryWrapper<Program> programLambdaQueryWrapper =
+                Wrappers.lambdaQuery(Program.class).eq(Program::getProgramStatus, BusinessStatus.YES.getCode())
+                        .gt(Objects.nonNull(lastId), Program::getId, lastId)
+                        .orderByAsc(Program::getId)
+                        .last("limit " + pageSize)
+                        .select(Program::getId);
+        List<Program> programs = programMapper.selectList(programLambdaQueryWrapper);
+        return programs.stream().map(Program::getId).collect(Collectors.toList());
+    }
+    
     public ProgramVo getDetailFromDb(Long programId) {
         ProgramVo programVo = createProgramVo(programId);
         
@@ -728,6 +756,84 @@ public class ProgramService extends ServiceImpl<ProgramMapper, Program> {
         return programVo;
     }
     
+    /**
+     * 批量查询节目详情(数据库查询)，节目、分类、演出时间都用in查询，地区名称用一次批量rpc查询
+     * @param programIdList 节目id集合
+     * @return 节目详情集合，顺序和节目id集合相同，不存在或者没有演出时间的节目跳过
+     * */
+    public List<ProgramVo> getDetailFromDbBatch(List<Long> programIdList) {
+        if (CollectionUtil.isEmpty(programIdList)) {
+            return new ArrayList<>();
+        }
+        Map<Long, Program> programMap = programMapper.selectBatchIds(programIdList).stream()
+                .collect(Collectors.toMap(Program::getId, program -> program, (v1, v2) -> v2));
+        if (programMap.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Set<Long> programCategoryIdSet = new HashSet<>(programMap.size() * 2);
+        for (Program program : programMap.values()) {
+            Optional.ofNullable(program.getProgramCategoryId()).ifPresent(programCategoryIdSet::add);
+            Optional.ofNullable(program.getParentProgramCategoryId()).ifPresent(programCategoryIdSet::add);
+        }
+        Map<Long, String> programCategoryMap = programCategoryIdSet.isEmpty() ? new HashMap<>(0) :
+                selectProgramCategoryMap(programCategoryIdSet);
+        
+        LambdaQueryWrapper<ProgramShowTime> programShowTimeLambdaQueryWrapper =
+                Wrappers.lambdaQuery(ProgramShowTime.class).in(ProgramShowTime::getProgramId, programMap.keySet());
+        Map<Long, ProgramShowTime> programShowTimeMap = programShowTimeMapper.selectList(programShowTimeLambdaQueryWrapper)
+                .stream().collect(Collectors.toMap(ProgramShowTime::getProgramId, programShowTime -> programShowTime, (v1, v2) -> v1));
+        
+        Map<Long, String> areaMap = selectAreaNameMap(programMap.values().stream()
+                .map(Program::getAreaId).filter(Objects::nonNull).distinct().collect(Collectors.toList()));
+        
+        List<ProgramVo> programVoList = new ArrayList<>(programMap.size());
+        for (Long programId : programIdList) {
+            Program program = programMap.get(programId);
+            if (Objects.isNull(program)) {
+                log.warn("批量查询节目详情 节目不存在 programId : {}", programId);
+                continue;
+            }
+            ProgramShowTime programShowTime = programShowTimeMap.get(programId);
+            if (Objects.isNull(programShowTime)) {
+                log.error("批量查询节目详情 节目演出时间不存在 programId : {}", programId);
+                continue;
+            }
+            ProgramVo programVo = new ProgramVo();
+            BeanUtil.copyProperties(program, programVo);
+            programVo.setAreaName(areaMap.get(program.getAreaId()));
+            programVo.setProgramCategoryName(programCategoryMap.get(program.getProgramCategoryId()));
+            programVo.setParentProgramCategoryName(programCategoryMap.get(program.getParentProgramCategoryId()));
+            programVo.setShowTime(programShowTime.getShowTime());
+            programVo.setShowDayTime(programShowTime.getShowDayTime());
+            programVo.setShowWeekTime(programShowTime.getShowWeekTime());
+            programVoList.add(programVo);
+        }
+        return programVoList;
+    }
+    
+    /**
+     * 批量查询地区名称，rpc调用失败时返回空map
+     * @param areaIdList 地区id集合
+     * @return key:地区id value:地区名称
+     * */
+    private Map<Long, String> selectAreaNameMap(List<Long> areaIdList) {
+        if (CollectionUtil.isEmpty(areaIdList)) {
+            return new HashMap<>(0);
+        }
+        AreaSelectDto areaSelectDto = new AreaSelectDto();
+        areaSelectDto.setIdList(areaIdList);
+        ApiResponse<List<AreaVo>> areaResponse = baseDataClient.selectByIdList(areaSelectDto);
+        if (Objects.equals(areaResponse.getCode(), ApiResponse.ok().getCode())) {
+            if (CollectionUtil.isNotEmpty(areaResponse.getData())) {
+                return areaResponse.getData().stream()
+                        .collect(Collectors.toMap(AreaVo::getId,AreaVo::getName,(v1,v2) -> v2));
+            }
+        }else {
+            log.error("base-data selectByIdList rpc error areaResponse:{}", JSON.toJSONString(areaResponse));
+        }
+        return new HashMap<>(0);
+    }
+    
     private void preloadTicketUserList(Integer highHeat){
         if (Objects.equals(highHeat, BusinessStatus.NO.getCode())) {
             return;
@@ -742,7 +848,7 @@ public class ProgramService extends ServiceImpl<ProgramMapper, Program> {
         if (!userLogin) {
             return;
         }
-        BusinessThreadPool.execute(() -> {
+        BusinessThreadPool.execute(PRELOAD_POOL_NAME, () -> {
             try {
                 if (!redisCache.hasKey(RedisKeyBuild.createRedisKey(RedisKeyManage.TICKET_USER_LIST,userId))) {
                     TicketUserListDto ticketUserListDto = new TicketUserListDto();
@@ -774,7 +880,7 @@ public class ProgramService extends ServiceImpl<ProgramMapper, Program> {
         if (!userLogin) {
             return;
         }
-        BusinessThreadPool.execute(() -> {
+        BusinessThreadPool.execute(PRELOAD_POOL_NAME, () -> {
             try {
                 if (!redisCache.hasKey(RedisKeyBuild.createRedisKey(RedisKeyManage.ACCOUNT_ORDER_COUNT,userId,programId))) {
                     AccountOrderCountDto accountOrderCountDto = new AccountOrderCountDto();
@@ -885,5 +991,13 @@ public class ProgramService extends ServiceImpl<ProgramMapper, Program> {
         localCacheProgramShowTime.del(RedisKeyBuild.createRedisKey(RedisKeyManage.PROGRAM_SHOW_TIME, programId).getRelKey());
         localCacheTicketCategory.del(programId);
     }
+    
+    public void delAllLocalCache(){
+        log.warn("清空全部本地缓存");
+        localCacheProgram.delAll();
+        localCacheProgramGroup.delAll();
+        localCacheProgramShowTime.delAll();
+        localCacheTicketCategory.delAll();
+    }
 }
 
@@ -74,4 +74,8 @@ public class LocalCacheProgram {
     public void del(String id){
         localCache.invalidate(id);
     }
+    
+    public void delAll(){
+        localCache.invalidateAll();
+    }
 }
@@ -71,4 +71,8 @@ public class LocalCacheProgramGroup {
     public void del(String id){
         localCache.invalidate(id);
     }
+    
+    public void delAll(){
+        localCache.invalidateAll();
+    }
 }
@@ -78,4 +78,8 @@ public class LocalCacheTicketCategory {
     public void del(Long id){
         localCache.invalidate(id);
     }
+    
+    public void delAll(){
+        localCache.invalidateAll();
+    }
 }
@@ -2,6 +2,7 @@ package com.damai.service.composite.impl;
 
 import cn.hutool.core.collection.CollectionUtil;
 import com.alibaba.fastjson.JSON;
+import com.damai.BusinessThreadPool;
 import com.damai.client.OrderClient;
 import com.damai.client.UserClient;
 import com.damai.common.ApiResponse;
@@ -28,9 +29,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static com.damai.service.constant.ProgramOrderConstant.IO_POOL_NAME;
+
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 用户检查
@@ -57,52 +61,36 @@ public class ProgramUserExistCheckHandler extends AbstractProgramCheckHandler {
     
     @Override
     protected void execute(ProgramOrderCreateDto programOrderCreateDto) {
-        List<TicketUserVo> ticketUserVoList = redisCache.getValueIsList(RedisKeyBuild.createRedisKey(
-                RedisKeyManage.TICKET_USER_LIST, programOrderCreateDto.getUserId()), TicketUserVo.class);
-        if (CollectionUtil.isEmpty(ticketUserVoList)) {
-            TicketUserListDto ticketUserListDto = new TicketUserListDto();
-            ticketUserListDto.setUserId(programOrderCreateDto.getUserId());
-            ApiResponse<List<TicketUserVo>> apiResponse = userClient.list(ticketUserListDto);
-            if (Objects.equals(apiResponse.getCode(), BaseCode.SUCCESS.getCode())) {
-                ticketUserVoList = apiResponse.getData();
-            }else {
-                log.error("user client rpc getUserAndTicketUserList select response : {}", JSON.toJSONString(apiResponse));
-                throw new DaMaiFrameException(apiResponse);
-            }
-        }
-        if (CollectionUtil.isEmpty(ticketUserVoList)) {
-            throw new DaMaiFrameException(BaseCode.TICKET_USER_EMPTY);
-        }
-        Map<Long, TicketUserVo> ticketUserVoMap = ticketUserVoList.stream()
-                .collect(Collectors.toMap(TicketUserVo::getId, ticketUserVo -> ticketUserVo, (v1, v2) -> v2));
-        for (Long ticketUserId : programOrderCreateDto.getTicketUserIdList()) {
-            if (Objects.isNull(ticketUserVoMap.get(ticketUserId))) {
+        Long userId = programOrderCreateDto.getUserId();
+        Long programId = programOrderCreateDto.getProgramId();
+        //购票人和账户下单数量都是redis加rpc的阻塞调用，和节目详情并行查询
+        Future<List<TicketUserVo>> ticketUserListFuture = 
+                BusinessThreadPool.submit(IO_POOL_NAME, () -> getTicketUserList(userId));
+        Future<Integer> accountOrderCountFuture = 
+                BusinessThreadPool.submit(IO_POOL_NAME, () -> getAccountOrderCount(userId, programId));
+        Integer count;
+        try {
+            ProgramGetDto programGetDto = new ProgramGetDto();
+            programGetDto.setId(programId);
+            ProgramVo programVo = programService.detailV2(programGetDto);
+            List<TicketUserVo> ticketUserVoList = BusinessThreadPool.getResult(ticketUserListFuture);
+            if (CollectionUtil.isEmpty(ticketUserVoList)) {
                 throw new DaMaiFrameException(BaseCode.TICKET_USER_EMPTY);
             }
-        }
-        ProgramGetDto programGetDto = new ProgramGetDto();
-        programGetDto.setId(programOrderCreateDto.getProgramId());
-        ProgramVo programVo = programService.detailV2(programGetDto);
-        if (Objects.isNull(programVo)) {
-            throw new DaMaiFrameException(BaseCode.PROGRAM_NOT_EXIST);
-        }
-        Integer count = 0;
-        if (redisCache.hasKey(RedisKeyBuild.createRedisKey(RedisKeyManage.ACCOUNT_ORDER_COUNT,
-                programOrderCreateDto.getUserId(),programOrderCreateDto.getProgramId()))) {
-            count = redisCache.get(RedisKeyBuild.createRedisKey(RedisKeyManage.ACCOUNT_ORDER_COUNT,
-                    programOrderCreateDto.getUserId(),programOrderCreateDto.getProgramId()), Integer.class);
-        }else {
-            AccountOrderCountDto accountOrderCountDto = new AccountOrderCountDto();
-            accountOrderCountDto.setUserId(programOrderCreateDto.getUserId());
-            accountOrderCountDto.setProgramId(programOrderCreateDto.getProgramId());
-            ApiResponse<AccountOrderCountVo> apiResponse = orderClient.accountOrderCount(accountOrderCountDto);
-            if (Objects.equals(apiResponse.getCode(), BaseCode.SUCCESS.getCode())) {
-                count = Optional.ofNullable(apiResponse.getData()).map(AccountOrderCountVo::getCount).orElse(0);
-                redisCache.set(RedisKeyBuild.createRedisKey(RedisKeyManage.ACCOUNT_ORDER_COUNT,
-                                programOrderCreateDto.getUserId(),
-                                programOrderCreateDto.getProgramId()),
-                        count, tokenExpireManager.getTokenExpireTime() + 1, TimeUnit.MINUTES);
+            Map<Long, TicketUserVo> ticketUserVoMap = ticketUserVoList.stream()
+                    .collect(Collectors.toMap(TicketUserVo::getId, ticketUserVo -> ticketUserVo, (v1, v2) -> v2));
+            for (Long ticketUserId : programOrderCreateDto.getTicketUserIdList()) {
+                if (Objects.isNull(ticketUserVoMap.get(ticketUserId))) {
+                    throw new DaMaiFrameException(BaseCode.TICKET_USER_EMPTY);
+                }
             }
+            if (Objects.isNull(programVo)) {
+                throw new DaMaiFrameException(BaseCode.PROGRAM_NOT_EXIST);
+            }
+            count = BusinessThreadPool.getResult(accountOrderCountFuture);
+        } finally {
+            ticketUserListFuture.cancel(true);
+            accountOrderCountFuture.cancel(true);
         }
         
         Integer seatCount = Optional.ofNullable(programOrderCreateDto.getSeatDtoList()).map(List::size).orElse(0);
@@ -118,6 +106,39 @@ public class ProgramUserExistCheckHandler extends AbstractProgramCheckHandler {
 //        }
     }
     
+    private List<TicketUserVo> getTicketUserList(Long userId) {
+        List<TicketUserVo> ticketUserVoList = redisCache.getValueIsList(RedisKeyBuild.createRedisKey(
+                RedisKeyManage.TICKET_USER_LIST, userId), TicketUserVo.class);
+        if (CollectionUtil.isNotEmpty(ticketUserVoList)) {
+            return ticketUserVoList;
+        }
+        TicketUserListDto ticketUserListDto = new TicketUserListDto();
+        ticketUserListDto.setUserId(userId);
+        ApiResponse<List<TicketUserVo>> apiResponse = userClient.list(ticketUserListDto);
+        if (Objects.equals(apiResponse.getCode(), BaseCode.SUCCESS.getCode())) {
+            return apiResponse.getData();
+        }
+        log.error("user client rpc getUserAndTicketUserList select response : {}", JSON.toJSONString(apiResponse));
+        throw new DaMaiFrameException(apiResponse);
+    }
+    
+    private Integer getAccountOrderCount(Long userId, Long programId) {
+        RedisKeyBuild accountOrderCountKey = RedisKeyBuild.createRedisKey(RedisKeyManage.ACCOUNT_ORDER_COUNT, userId, programId);
+        if (redisCache.hasKey(accountOrderCountKey)) {
+            return redisCache.get(accountOrderCountKey, Integer.class);
+        }
+        Integer count = 0;
+        AccountOrderCountDto accountOrderCountDto = new AccountOrderCountDto();
+        accountOrderCountDto.setUserId(userId);
+        accountOrderCountDto.setProgramId(programId);
+        ApiResponse<AccountOrderCountVo> apiResponse = orderClient.accountOrderCount(accountOrderCountDto);
+        if (Objects.equals(apiResponse.getCode(), BaseCode.SUCCESS.getCode())) {
+            count = Optional.ofNullable(apiResponse.getData()).map(AccountOrderCountVo::getCount).orElse(0);
+            redisCache.set(accountOrderCountKey, count, tokenExpireManager.getTokenExpireTime() + 1, TimeUnit.MINUTES);
+        }
+        return count;
+    }
+    
     @Override
     public Integer executeParentOrder() {
         return 1;
@@ -1,7 +1,5 @@
 package com.damai.service.constant;
 
-import java.util.concurrent.TimeUnit;
-
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 相关常量
@@ -9,13 +7,22 @@ import java.util.concurrent.TimeUnit;
  **/
 public class ProgramOrderConstant {
     
-    public static final String DELAY_ORDER_CANCEL_TOPIC ="d_delay_order_cancel_topic";
+    public static final String DELAY_OPERATE_PROGRAM_DATA_TOPIC = "d_delay_operate_program_data_topic";
     
-    public static final Long DELAY_ORDER_CANCEL_TIME = 10L;
+    public static final Long ORDER_TABLE_COUNT = 4L;
     
-    public static final TimeUnit DELAY_ORDER_CANCEL_TIME_UNIT = TimeUnit.MINUTES;
+    /**
+     * 节目详情请求中预热购票人和账户订单数量的线程池
+     * */
+    public static final String PRELOAD_POOL_NAME = "preload";
     
-    public static final String DELAY_OPERATE_PROGRAM_DATA_TOPIC = "d_delay_operate_program_data_topic";
+    /**
+     * 启动时初始化缓存和es数据的线程池
+     * */
+    public static final String INIT_POOL_NAME = "init";
     
-    public static final Long ORDER_TABLE_COUNT = 4L;
+    /**
+     * 阻塞在redis和rpc调用上的并行查询、kafka发送回调的线程池
+     * */
+    public static final String IO_POOL_NAME = "io";
 }
@@ -1,6 +1,6 @@
 package com.damai.service.init;
 
-import cn.hutool.core.collection.CollectionUtil;
+import com.damai.handler.BloomFilterDataSource;
 import com.damai.handler.BloomFilterHandler;
 import com.damai.initialize.base.AbstractApplicationPostConstructHandler;
 import com.damai.service.ProgramService;
@@ -9,14 +9,16 @@ import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
- * @description: 节目id布隆过滤器初始化
+ * @description: 节目id布隆过滤器初始化，没有构建过或者误判率过高时在后台分页读取节目id重建
  * @author: 阿星不是程序员
  **/
 @Component
-public class ProgramBloomFilterInit extends AbstractApplicationPostConstructHandler {
+public class ProgramBloomFilterInit extends AbstractApplicationPostConstructHandler implements BloomFilterDataSource {
     
     @Autowired
     private ProgramService programService;
@@ -31,10 +33,25 @@ public class ProgramBloomFilterInit extends AbstractApplicationPostConstructHand
     
     @Override
     public void executeInit(final ConfigurableApplicationContext context) {
-        List<Long> allProgramIdList = programService.getAllProgramIdList();
-        if (CollectionUtil.isEmpty(allProgramIdList)) {
-            return;
-        }
-        allProgramIdList.forEach(programId -> bloomFilterHandler.add(String.valueOf(programId)));
+        bloomFilterHandler.scheduleRebuild(this);
+    }
+    
+    @Override
+    public long count() {
+        return programService.getProgramCount();
+    }
+    
+    @Override
+    public void forEachPage(final int pageSize, final Consumer<List<String>> pageConsumer) {
+        Long lastId = null;
+        List<Long> programIdList;
+        do {
+            programIdList = programService.getProgramIdPage(lastId, pageSize);
+            if (programIdList.isEmpty()) {
+                return;
+            }
+            pageConsumer.accept(programIdList.stream().map(String::valueOf).collect(Collectors.toList()));
+            lastId = programIdList.get(programIdList.size() - 1);
+        } while (programIdList.size() >= pageSize);
     }
 }
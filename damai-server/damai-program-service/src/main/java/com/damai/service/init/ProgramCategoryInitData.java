@@ -6,6 +6,9 @@ import com.damai.service.ProgramCategoryService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.stereotype.Component;
+
+import static com.damai.service.constant.ProgramOrderConstant.INIT_POOL_NAME;
+
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 节目种类缓存
@@ -25,7 +28,7 @@ public class ProgramCategoryInitData extends AbstractApplicationPostConstructHan
     
     @Override
     public void executeInit(final ConfigurableApplicationContext context) {
-        BusinessThreadPool.execute(() -> {
+        BusinessThreadPool.execute(INIT_POOL_NAME, () -> {
             programCategoryService.programCategoryRedisDataInit();
         });
     }
@@ -6,6 +6,9 @@ package com.damai.service.init;
  **/
 public class ProgramDocumentParamName {
     
+    /**
+     * 加上前缀后作为别名，查询和删除都通过别名进行，实际的索引名字为 别名-时间戳
+     * */
     public static final String INDEX_NAME = "program";
     
     public static final String INDEX_TYPE = "program";
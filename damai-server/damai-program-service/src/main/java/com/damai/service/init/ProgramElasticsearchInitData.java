@@ -1,23 +1,45 @@
 package com.damai.service.init;
 
+import cn.hutool.core.collection.CollectionUtil;
+import cn.hutool.core.util.StrUtil;
 import com.damai.BusinessThreadPool;
 import com.damai.core.SpringUtil;
 import com.damai.dto.EsDocumentMappingDto;
 import com.damai.entity.TicketCategoryAggregate;
 import com.damai.initialize.base.AbstractApplicationPostConstructHandler;
 import com.damai.service.ProgramService;
+import com.damai.servicelock.LockType;
 import com.damai.util.BusinessEsHandle;
+import com.damai.util.DateUtils;
+import com.damai.util.ServiceLockTool;
 import com.damai.vo.ProgramVo;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.damai.core.DistributedLockConstants.PROGRAM_ES_INIT_LOCK;
+import static com.damai.service.constant.ProgramOrderConstant.INIT_POOL_NAME;
+import static com.damai.service.constant.ProgramOrderConstant.IO_POOL_NAME;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
@@ -28,12 +50,38 @@ import java.util.Optional;
 @Component
 public class ProgramElasticsearchInitData extends AbstractApplicationPostConstructHandler {
     
+    /**
+     * 每批组装的节目数量
+     * */
+    private static final int PROGRAM_BATCH_SIZE = 200;
+    
+    /**
+     * 同时组装的批次数量
+     * */
+    private static final int ASSEMBLE_PARALLELISM = 4;
+    
+    /**
+     * 每次 _bulk 请求的最大字节数
+     * */
+    private static final long BULK_BATCH_BYTES = 5L * 1024 * 1024;
+    
+    /**
+     * 校验新索引时抽样检查的文档数量
+     * */
+    private static final int VERIFY_SAMPLE_SIZE = 20;
+    
+    @Value("${program.es.index.max-age-hours:24}")
+    private long indexMaxAgeHours;
+    
     @Autowired
     private BusinessEsHandle businessEsHandle;
     
     @Autowired
     private ProgramService programService;
     
+    @Autowired
+    private ServiceLockTool serviceLockTool;
+    
     
     @Override
     public Integer executeOrder() {
@@ -42,24 +90,253 @@ public class ProgramElasticsearchInitData extends AbstractApplicationPostConstru
     
     @Override
     public void executeInit(final ConfigurableApplicationContext context) {
-        BusinessThreadPool.execute(() -> {
+        BusinessThreadPool.execute(INIT_POOL_NAME, () -> {
             try {
-                initElasticsearchData();
+                checkAndInitElasticsearchData();
             }catch (Exception e) {
                 log.error("executeInit error",e);
             }
         });
     }
     
+    /**
+     * 多个实例同时启动时只有拿到锁的实例检查和重建索引，创建索引、切换别名和删除旧索引都在锁内完成，
+     * 其它实例直接跳过，索引不需要重建时只清理重建中断留下的索引
+     * */
+    public void checkAndInitElasticsearchData(){
+        String aliasName = getAliasName();
+        RLock lock = serviceLockTool.getLock(LockType.Reentrant, PROGRAM_ES_INIT_LOCK, new String[]{aliasName});
+        if (!lock.tryLock()) {
+            log.info("节目es索引正在其他实例重建 别名 : {}", aliasName);
+            return;
+        }
+        try {
+            List<String> currentIndexList = businessEsHandle.getAliasIndexList(aliasName);
+            if (needRebuild(aliasName, currentIndexList)) {
+                initElasticsearchData();
+            }else {
+                deleteUnfinishedIndex(aliasName, currentIndexList.get(0));
+            }
+        }finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * 别名不存在(包括只有改用别名之前的同名索引)、索引超过最长使用时间、索引创建之后有节目被编辑过、
+     * 文档数量和数据库中的节目数量不一致时需要重建
+     * */
+    private boolean needRebuild(String aliasName, List<String> currentIndexList){
+        if (Objects.isNull(currentIndexList) || currentIndexList.size() != 1) {
+            log.info("节目es别名不存在或者指向多个索引，重建索引 别名 : {} 索引 : {}", aliasName, currentIndexList);
+            return true;
+        }
+        Long createTime = getIndexCreateTime(aliasName, currentIndexList.get(0));
+        long now = DateUtils.now().getTime();
+        if (Objects.isNull(createTime) || now - createTime > TimeUnit.HOURS.toMillis(indexMaxAgeHours)) {
+            log.info("节目es索引超过最长使用时间，重建索引 索引 : {}", currentIndexList.get(0));
+            return true;
+        }
+        Date lastEditTime = programService.getProgramLastEditTime();
+        if (Objects.nonNull(lastEditTime) && lastEditTime.getTime() >= createTime) {
+            log.info("节目es索引创建之后有节目被编辑，重建索引 索引 : {} 节目最近编辑时间 : {}", 
+                    currentIndexList.get(0), DateUtils.formatDateTime(lastEditTime));
+            return true;
+        }
+        long count = businessEsHandle.count(aliasName);
+        long programCount = programService.getProgramCount();
+        if (count != programCount) {
+            log.info("节目es文档数量和节目数量不一致，重建索引 文档数量 : {} 节目数量 : {}", count, programCount);
+            return true;
+        }
+        log.info("节目es索引不需要重建 别名 : {} 索引 : {}", aliasName, currentIndexList.get(0));
+        return false;
+    }
+    
+    /**
+     * 重建节目索引，查询始终通过别名进行，重建期间别名仍然指向旧索引，需要在持有锁时调用
+     * 1. 创建带时间戳的新索引
+     * 2. 节目id分批并行组装文档，每批用批量查询得到节目详情，组装好的文档按顺序用 _bulk 写入新索引
+     * 3. 按数据库中当前的节目补齐新索引，重建期间失效的节目的删除请求发给了旧索引，在这里重放
+     * 4. 校验新索引的文档数量并抽样检查文档是否存在，校验失败时删除新索引，别名和旧索引(包括改用别名之前和别名同名的索引)保持不变
+     * 5. 原子地把别名切换到新索引，再补齐一次切换前最后一刻失效的节目，之后的删除请求都通过别名发给新索引
+     * 6. 删除除新索引和切换前的索引之外的旧索引，包括重建中断留下的索引
+     * */
     public void initElasticsearchData(){
-        if (!indexAdd()) {
+        String aliasName = getAliasName();
+        String indexName = aliasName + "-" + DateUtils.now().getTime();
+        if (!indexAdd(indexName)) {
             return;
         }
         List<Long> allProgramIdList = programService.getAllProgramIdList();
-        Map<Long, TicketCategoryAggregate> ticketCategorieMap = programService.selectTicketCategorieMap(allProgramIdList);
-        
-        for (Long programId : allProgramIdList) {
-            ProgramVo programVo = programService.getDetailFromDb(programId);
+        List<List<Long>> programIdBatchList = CollectionUtil.split(allProgramIdList, PROGRAM_BATCH_SIZE);
+        Deque<Future<List<Map<String,Object>>>> futureDeque = new ArrayDeque<>(ASSEMBLE_PARALLELISM);
+        ReindexResult reindexResult = new ReindexResult();
+        for (List<Long> programIdBatch : programIdBatchList) {
+            if (futureDeque.size() >= ASSEMBLE_PARALLELISM) {
+                bulkAdd(indexName, futureDeque.poll(), reindexResult);
+            }
+            futureDeque.offer(BusinessThreadPool.submit(IO_POOL_NAME, () -> assembleDocumentList(programIdBatch)));
+        }
+        while (!futureDeque.isEmpty()) {
+            bulkAdd(indexName, futureDeque.poll(), reindexResult);
+        }
+        log.info("节目es数据写入完成 索引 : {} 节目数量 : {} 文档数量 : {} 失败批次数量 : {}", 
+                indexName, allProgramIdList.size(), reindexResult.programIdSet.size(), reindexResult.failBatchCount);
+        if (reindexResult.failBatchCount == 0) {
+            reconcile(indexName, reindexResult);
+        }
+        if (!verify(indexName, reindexResult)) {
+            log.error("节目es新索引校验失败，别名和旧索引保持不变 别名 : {} 新索引 : {}", aliasName, indexName);
+            businessEsHandle.deleteIndex(indexName);
+            return;
+        }
+        List<String> currentIndexList = businessEsHandle.getAliasIndexList(aliasName);
+        if (Objects.isNull(currentIndexList)) {
+            log.error("节目es别名查询失败，别名和旧索引保持不变 别名 : {} 新索引 : {}", aliasName, indexName);
+            businessEsHandle.deleteIndex(indexName);
+            return;
+        }
+        if (!businessEsHandle.switchAlias(aliasName, indexName)) {
+            log.error("节目es别名切换失败 别名 : {} 新索引 : {}", aliasName, indexName);
+            businessEsHandle.deleteIndex(indexName);
+            return;
+        }
+        log.info("节目es别名切换完成 别名 : {} 新索引 : {} 旧索引 : {}", aliasName, indexName, currentIndexList);
+        reconcile(indexName, reindexResult);
+        deleteExpireIndex(aliasName, indexName, currentIndexList);
+    }
+    
+    /**
+     * 写入的节目和数据库中当前有效的节目比较，删除已经失效的节目，补充新生效的节目
+     * */
+    private void reconcile(String indexName, ReindexResult reindexResult){
+        Set<Long> programIdSet = new HashSet<>(programService.getAllProgramIdList());
+        List<Long> deleteIdList = reindexResult.programIdSet.stream().filter(id -> !programIdSet.contains(id))
+                .collect(Collectors.toList());
+        List<Long> addIdList = programIdSet.stream().filter(id -> !reindexResult.programIdSet.contains(id))
+                .collect(Collectors.toList());
+        for (Long programId : deleteIdList) {
+            businessEsHandle.deleteByDocumentId(indexName, String.valueOf(programId));
+            reindexResult.programIdSet.remove(programId);
+            reindexResult.sampleIdList.remove(String.valueOf(programId));
+        }
+        for (List<Long> programIdBatch : CollectionUtil.split(addIdList, PROGRAM_BATCH_SIZE)) {
+            bulkAdd(indexName, CompletableFuture.completedFuture(assembleDocumentList(programIdBatch)), reindexResult);
+        }
+        if (!deleteIdList.isEmpty() || !addIdList.isEmpty()) {
+            log.info("节目es重建期间的节目变化已补齐 索引 : {} 删除节目 : {} 新增节目 : {}", indexName, deleteIdList, addIdList);
+        }
+    }
+    
+    private void bulkAdd(String indexName, Future<List<Map<String,Object>>> future, ReindexResult reindexResult){
+        try {
+            List<Map<String,Object>> documentList = BusinessThreadPool.getResult(future);
+            boolean result = businessEsHandle.bulkAdd(indexName, ProgramDocumentParamName.INDEX_TYPE, documentList,
+                    ProgramDocumentParamName.ID, BULK_BATCH_BYTES);
+            if (!result) {
+                reindexResult.failBatchCount++;
+                return;
+            }
+            documentList.forEach(document -> reindexResult.programIdSet.add((Long)document.get(ProgramDocumentParamName.ID)));
+            if (!documentList.isEmpty() && reindexResult.sampleIdList.size() < VERIFY_SAMPLE_SIZE) {
+                Map<String,Object> document = documentList.get(ThreadLocalRandom.current().nextInt(documentList.size()));
+                reindexResult.sampleIdList.add(String.valueOf(document.get(ProgramDocumentParamName.ID)));
+            }
+        }catch (Exception e) {
+            log.error("节目es数据批量写入失败", e);
+            reindexResult.failBatchCount++;
+        }
+    }
+    
+    /**
+     * 没有失败的批次，文档数量和写入数量一致，抽样的文档都能查到
+     * */
+    private boolean verify(String indexName, ReindexResult reindexResult){
+        if (reindexResult.failBatchCount > 0) {
+            return false;
+        }
+        businessEsHandle.refreshIndex(indexName);
+        long count = businessEsHandle.count(indexName);
+        if (count != reindexResult.programIdSet.size()) {
+            log.error("节目es新索引文档数量不一致 索引 : {} 写入数量 : {} 实际数量 : {}", 
+                    indexName, reindexResult.programIdSet.size(), count);
+            return false;
+        }
+        int existCount = businessEsHandle.countExistDocument(indexName, ProgramDocumentParamName.INDEX_TYPE, 
+                reindexResult.sampleIdList);
+        if (existCount != reindexResult.sampleIdList.size()) {
+            log.error("节目es新索引抽样文档缺失 索引 : {} 抽样数量 : {} 存在数量 : {}", 
+                    indexName, reindexResult.sampleIdList.size(), existCount);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * 切换别名后只保留新索引和切换前别名指向的索引(用于回滚)，其它带时间戳的索引都删除，包括重建中断留下的索引
+     * */
+    private void deleteExpireIndex(String aliasName, String currentIndexName, List<String> previousIndexList){
+        for (String index : getTimestampIndexList(aliasName)) {
+            if (Objects.equals(index, currentIndexName) || previousIndexList.contains(index)) {
+                continue;
+            }
+            deleteIndex(index);
+        }
+    }
+    
+    /**
+     * 不需要重建时删除比别名指向的索引更新的索引，这些索引是重建中断后留下的，持有锁时不会有其它实例正在写入
+     * */
+    private void deleteUnfinishedIndex(String aliasName, String currentIndexName){
+        Long currentCreateTime = getIndexCreateTime(aliasName, currentIndexName);
+        if (Objects.isNull(currentCreateTime)) {
+            return;
+        }
+        for (String index : getTimestampIndexList(aliasName)) {
+            if (getIndexCreateTime(aliasName, index) > currentCreateTime) {
+                deleteIndex(index);
+            }
+        }
+    }
+    
+    private void deleteIndex(String index){
+        log.info("删除节目es旧索引 : {}", index);
+        if (!businessEsHandle.deleteIndex(index)) {
+            log.warn("删除节目es旧索引失败，下次重建时再删除 索引 : {}", index);
+        }
+    }
+    
+    /**
+     * 别名加时间戳命名的索引
+     * */
+    private List<String> getTimestampIndexList(String aliasName){
+        return businessEsHandle.getIndexList(aliasName + "-*").stream()
+                .filter(index -> Objects.nonNull(getIndexCreateTime(aliasName, index)))
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * 索引名字中的时间戳，不是别名加时间戳命名的索引返回null
+     * */
+    private Long getIndexCreateTime(String aliasName, String indexName){
+        String indexPrefix = aliasName + "-";
+        if (!indexName.startsWith(indexPrefix) || indexName.length() == indexPrefix.length() 
+                || !StrUtil.isNumeric(indexName.substring(indexPrefix.length()))) {
+            return null;
+        }
+        return Long.parseLong(indexName.substring(indexPrefix.length()));
+    }
+    
+    private String getAliasName(){
+        return SpringUtil.getPrefixDistinctionName() + "-" + ProgramDocumentParamName.INDEX_NAME;
+    }
+    
+    private List<Map<String,Object>> assembleDocumentList(List<Long> programIdList){
+        List<ProgramVo> programVoList = programService.getDetailFromDbBatch(programIdList);
+        Map<Long, TicketCategoryAggregate> ticketCategorieMap = programService.selectTicketCategorieMap(programIdList);
+        List<Map<String,Object>> documentList = new ArrayList<>(programVoList.size());
+        for (ProgramVo programVo : programVoList) {
             Map<String,Object> map = new HashMap<>(32);
             map.put(ProgramDocumentParamName.ID,programVo.getId());
             map.put(ProgramDocumentParamName.PROGRAM_GROUP_ID,programVo.getProgramGroupId());
@@ -85,21 +362,14 @@ public class ProgramElasticsearchInitData extends AbstractApplicationPostConstru
             map.put(ProgramDocumentParamName.MAX_PRICE,
                     Optional.ofNullable(ticketCategorieMap.get(programVo.getId()))
                             .map(TicketCategoryAggregate::getMaxPrice).orElse(null));
-            businessEsHandle.add(SpringUtil.getPrefixDistinctionName() + "-" + 
-                    ProgramDocumentParamName.INDEX_NAME, ProgramDocumentParamName.INDEX_TYPE,map);
+            documentList.add(map);
         }
+        return documentList;
     }
     
-    public boolean indexAdd(){
-        boolean result = businessEsHandle.checkIndex(SpringUtil.getPrefixDistinctionName() + "-" +
-                ProgramDocumentParamName.INDEX_NAME, ProgramDocumentParamName.INDEX_TYPE);
-        if (result) {
-            businessEsHandle.deleteIndex(SpringUtil.getPrefixDistinctionName() + "-" +
-                    ProgramDocumentParamName.INDEX_NAME);
-        }
+    public boolean indexAdd(String indexName){
         try {
-            businessEsHandle.createIndex(SpringUtil.getPrefixDistinctionName() + "-" +
-                    ProgramDocumentParamName.INDEX_NAME, ProgramDocumentParamName.INDEX_TYPE,getEsMapping());
+            businessEsHandle.createIndex(indexName, ProgramDocumentParamName.INDEX_TYPE, getEsMapping());
             return true;
         }catch (Exception e) {
             log.error("createIndex error",e);
@@ -133,4 +403,13 @@ public class ProgramElasticsearchInitData extends AbstractApplicationPostConstru
         
         return list;
     }
+    
+    private static class ReindexResult {
+        
+        private final Set<Long> programIdSet = new HashSet<>();
+        
+        private int failBatchCount;
+        
+        private final List<String> sampleIdList = new ArrayList<>(VERIFY_SAMPLE_SIZE);
+    }
 }
@@ -1,5 +1,6 @@
 package com.damai.service.kafka;
 
+import com.damai.BusinessThreadPool;
 import com.damai.core.SpringUtil;
 import com.damai.mq.callback.FailureCallback;
 import com.damai.mq.callback.SuccessCallback;
@@ -13,6 +14,8 @@ import org.springframework.stereotype.Component;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
+import static com.damai.service.constant.ProgramOrderConstant.IO_POOL_NAME;
+
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: kafka 创建订单 发送
@@ -35,12 +38,13 @@ public class CreateOrderSend {
         log.info("创建订单kafka发送消息 消息体 : {}", message);
         CompletableFuture<SendResult<String, String>> completableFuture = 
                 kafkaTemplate.send(SpringUtil.getPrefixDistinctionName() + "-" + kafkaTopic.getTopic(), message);
-        completableFuture.whenComplete((result,ex) -> {
+        //失败回调中会操作redis回滚缓存，不能阻塞kafka生产者的io线程
+        completableFuture.whenCompleteAsync((result,ex) -> {
             if (Objects.isNull(ex)) {
                 successCallback.onSuccess(result);
             }else {
                 failureCallback.onFailure(ex);
             }
-        });
+        }, BusinessThreadPool.getExecutor(IO_POOL_NAME));
     }
 }
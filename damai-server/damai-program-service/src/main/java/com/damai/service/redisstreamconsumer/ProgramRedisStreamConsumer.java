@@ -24,4 +24,9 @@ public class ProgramRedisStreamConsumer implements MessageConsumer {
         Long programId = Long.parseLong(message.getValue());
         programService.delLocalCache(programId);
     }
+    
+    @Override
+    public void flush() {
+        programService.delAllLocalCache();
+    }
 }
@@ -0,0 +1,379 @@
+package com.damai.service.init;
+
+import com.damai.core.SpringUtilTestSupport;
+import com.damai.service.ProgramService;
+import com.damai.util.DateUtils;
+import com.damai.util.ServiceLockTool;
+import com.damai.util.BusinessEsHandle;
+import com.damai.vo.ProgramVo;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.redisson.api.RLock;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 节目索引重建的调用顺序测试，用本地http服务模拟es，记录每次请求，
+ * 校验失败或者别名查询失败时只删除新索引，不会切换别名，也不会删除改用别名之前和别名同名的旧索引，
+ * 只有拿到锁并且索引需要重建时才重建，重建期间的节目变化在切换前后补齐，切换后只保留新索引和切换前的索引
+ * @author: 阿星不是程序员
+ **/
+public class ProgramElasticsearchInitDataTest {
+    
+    private static final String ALIAS_NAME = "damai-program";
+    
+    private static final int PROGRAM_SIZE = 450;
+    
+    private HttpServer server;
+    
+    private RestClient restClient;
+    
+    private ProgramElasticsearchInitData programElasticsearchInitData;
+    
+    private final List<String> requestList = Collections.synchronizedList(new ArrayList<>());
+    
+    private final List<String> aliasesBodyList = Collections.synchronizedList(new ArrayList<>());
+    
+    /**
+     * GET /_alias 返回的状态码
+     * */
+    private volatile int aliasStatus = 404;
+    
+    /**
+     * HEAD 别名名字返回的状态码，200表示存在改用别名之前创建的同名索引
+     * */
+    private volatile int legacyIndexStatus = 200;
+    
+    /**
+     * _count 返回的数量和写入数量的差值
+     * */
+    private volatile int countOffset = 0;
+    
+    private volatile long bulkDocumentCount;
+    
+    /**
+     * 别名当前指向的索引，GET /_alias 返回200时使用
+     * */
+    private volatile String aliasIndex;
+    
+    /**
+     * 通过别名统计的文档数量
+     * */
+    private volatile long aliasDocumentCount;
+    
+    /**
+     * GET /_cat/indices 返回的索引
+     * */
+    private volatile List<String> catIndexList = new ArrayList<>();
+    
+    private ProgramService programService;
+    
+    private RLock lock;
+    
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        restClient = RestClient.builder(new HttpHost("127.0.0.1", server.getAddress().getPort())).build();
+        
+        SpringUtilTestSupport.initialize();
+        
+        programService = Mockito.mock(ProgramService.class);
+        Mockito.when(programService.getAllProgramIdList()).thenReturn(programIdList(1, PROGRAM_SIZE));
+        Mockito.when(programService.getDetailFromDbBatch(anyList())).thenAnswer(invocation -> {
+            List<Long> idList = invocation.getArgument(0);
+            return idList.stream().map(id -> {
+                ProgramVo programVo = new ProgramVo();
+                programVo.setId(id);
+                programVo.setTitle("program-" + id);
+                return programVo;
+            }).collect(Collectors.toList());
+        });
+        Mockito.when(programService.selectTicketCategorieMap(anyList())).thenReturn(new HashMap<>(0));
+        
+        programElasticsearchInitData = new ProgramElasticsearchInitData();
+        ReflectionTestUtils.setField(programElasticsearchInitData, "businessEsHandle",
+                new BusinessEsHandle(restClient, true, false));
+        ReflectionTestUtils.setField(programElasticsearchInitData, "programService", programService);
+        ReflectionTestUtils.setField(programElasticsearchInitData, "indexMaxAgeHours", 24L);
+        lock = Mockito.mock(RLock.class);
+        Mockito.when(lock.tryLock()).thenReturn(true);
+        ServiceLockTool serviceLockTool = Mockito.mock(ServiceLockTool.class);
+        Mockito.when(serviceLockTool.getLock(Mockito.any(), Mockito.anyString(), Mockito.any(String[].class))).thenReturn(lock);
+        ReflectionTestUtils.setField(programElasticsearchInitData, "serviceLockTool", serviceLockTool);
+    }
+    
+    @AfterEach
+    public void tearDown() throws IOException {
+        restClient.close();
+        server.stop(0);
+    }
+    
+    @Test
+    public void verifyFailureKeepsLegacyIndex() {
+        countOffset = -1;
+        programElasticsearchInitData.initElasticsearchData();
+        
+        String newIndex = createdIndex();
+        assertEquals("DELETE /" + newIndex, requestList.get(requestList.size() - 1));
+        assertTrue(aliasesBodyList.isEmpty());
+        assertFalse(requestList.contains("DELETE /" + ALIAS_NAME));
+    }
+    
+    @Test
+    public void verifyFailureWithoutLiveIndexStillAborts() {
+        legacyIndexStatus = 404;
+        countOffset = 1;
+        programElasticsearchInitData.initElasticsearchData();
+        
+        assertEquals("DELETE /" + createdIndex(), requestList.get(requestList.size() - 1));
+        assertTrue(aliasesBodyList.isEmpty());
+    }
+    
+    @Test
+    public void aliasLookupErrorKeepsLegacyIndex() {
+        aliasStatus = 500;
+        programElasticsearchInitData.initElasticsearchData();
+        
+        String newIndex = createdIndex();
+        assertEquals(List.of("GET /_alias/" + ALIAS_NAME, "DELETE /" + newIndex),
+                requestList.subList(requestList.size() - 2, requestList.size()));
+        assertTrue(aliasesBodyList.isEmpty());
+        assertFalse(requestList.contains("DELETE /" + ALIAS_NAME));
+    }
+    
+    @Test
+    public void verifiedIndexReplacesLegacyIndex() {
+        programElasticsearchInitData.initElasticsearchData();
+        
+        String newIndex = createdIndex();
+        assertEquals(PROGRAM_SIZE, bulkDocumentCount);
+        int refreshPosition = requestList.indexOf("POST /" + newIndex + "/_refresh");
+        int countPosition = requestList.indexOf("GET /" + newIndex + "/_count");
+        int switchPosition = requestList.indexOf("POST /_aliases");
+        assertTrue(refreshPosition > 0 && refreshPosition < countPosition && countPosition < switchPosition);
+        assertEquals(1, aliasesBodyList.size());
+        String aliasesBody = aliasesBodyList.get(0);
+        assertTrue(aliasesBody.contains("\"add\""));
+        assertTrue(aliasesBody.contains("\"remove_index\""));
+        assertFalse(requestList.contains("DELETE /" + newIndex));
+    }
+    
+    @Test
+    public void programChangedDuringRebuildIsReplayedBeforeAndAfterSwitch() {
+        List<Long> beforeSwitchList = programIdList(1, PROGRAM_SIZE + 1);
+        beforeSwitchList.remove(Long.valueOf(7));
+        List<Long> afterSwitchList = new ArrayList<>(beforeSwitchList);
+        afterSwitchList.remove(Long.valueOf(8));
+        //写入时读取全部节目，切换前节目7失效、节目451生效，切换前最后一刻节目8失效
+        Mockito.when(programService.getAllProgramIdList())
+                .thenReturn(programIdList(1, PROGRAM_SIZE), beforeSwitchList, afterSwitchList);
+        programElasticsearchInitData.initElasticsearchData();
+        
+        String newIndex = createdIndex();
+        int switchPosition = requestList.indexOf("POST /_aliases");
+        assertEquals(1, aliasesBodyList.size());
+        int deletePosition = requestList.indexOf("DELETE /" + newIndex + "/_doc/7");
+        assertTrue(deletePosition > 0 && deletePosition < requestList.indexOf("GET /" + newIndex + "/_count"));
+        assertTrue(requestList.indexOf("DELETE /" + newIndex + "/_doc/8") > switchPosition);
+        assertEquals(PROGRAM_SIZE + 1 - 2, bulkDocumentCount);
+    }
+    
+    @Test
+    public void switchDeletesEveryTimestampIndexExceptNewAndPrevious() {
+        aliasStatus = 200;
+        aliasIndex = ALIAS_NAME + "-2000";
+        catIndexList = List.of(ALIAS_NAME + "-1000", ALIAS_NAME + "-2000", ALIAS_NAME + "-3000", ALIAS_NAME + "-backup");
+        programElasticsearchInitData.initElasticsearchData();
+        
+        String newIndex = createdIndex();
+        assertEquals(1, aliasesBodyList.size());
+        assertTrue(requestList.contains("DELETE /" + ALIAS_NAME + "-1000"));
+        //重建中断留下的索引
+        assertTrue(requestList.contains("DELETE /" + ALIAS_NAME + "-3000"));
+        assertFalse(requestList.contains("DELETE /" + ALIAS_NAME + "-2000"));
+        assertFalse(requestList.contains("DELETE /" + ALIAS_NAME + "-backup"));
+        assertFalse(requestList.contains("DELETE /" + newIndex));
+    }
+    
+    @Test
+    public void freshIndexIsNotRebuiltAndUnfinishedIndexIsDeleted() {
+        long createTime = freshIndex();
+        String unfinishedIndex = ALIAS_NAME + "-" + (createTime + 1000);
+        String previousIndex = ALIAS_NAME + "-" + (createTime - 1000);
+        catIndexList = List.of(previousIndex, aliasIndex, unfinishedIndex);
+        programElasticsearchInitData.checkAndInitElasticsearchData();
+        
+        assertTrue(requestList.stream().noneMatch(request -> request.startsWith("PUT ")));
+        assertTrue(requestList.contains("DELETE /" + unfinishedIndex));
+        assertFalse(requestList.contains("DELETE /" + previousIndex));
+        assertFalse(requestList.contains("DELETE /" + aliasIndex));
+        Mockito.verify(lock).unlock();
+    }
+    
+    @Test
+    public void editedProgramTriggersRebuild() {
+        long createTime = freshIndex();
+        Mockito.when(programService.getProgramLastEditTime()).thenReturn(new Date(createTime + 1000));
+        programElasticsearchInitData.checkAndInitElasticsearchData();
+        
+        createdIndex();
+        assertEquals(1, aliasesBodyList.size());
+        Mockito.verify(lock).unlock();
+    }
+    
+    @Test
+    public void countMismatchTriggersRebuild() {
+        freshIndex();
+        aliasDocumentCount = PROGRAM_SIZE - 1;
+        programElasticsearchInitData.checkAndInitElasticsearchData();
+        
+        createdIndex();
+        assertEquals(1, aliasesBodyList.size());
+    }
+    
+    @Test
+    public void expiredIndexTriggersRebuild() {
+        freshIndex();
+        aliasIndex = ALIAS_NAME + "-" + (DateUtils.now().getTime() - TimeUnit.HOURS.toMillis(25));
+        programElasticsearchInitData.checkAndInitElasticsearchData();
+        
+        createdIndex();
+        assertEquals(1, aliasesBodyList.size());
+    }
+    
+    @Test
+    public void missingAliasTriggersRebuild() {
+        programElasticsearchInitData.checkAndInitElasticsearchData();
+        
+        createdIndex();
+        assertEquals(1, aliasesBodyList.size());
+        Mockito.verify(lock).unlock();
+    }
+    
+    @Test
+    public void rebuildIsSkippedWhileAnotherInstanceHoldsTheLock() {
+        Mockito.when(lock.tryLock()).thenReturn(false);
+        programElasticsearchInitData.checkAndInitElasticsearchData();
+        
+        assertTrue(requestList.isEmpty());
+        Mockito.verify(lock, Mockito.never()).unlock();
+    }
+    
+    /**
+     * 别名指向一小时前创建的索引，之后没有节目被编辑，文档数量和节目数量一致
+     * */
+    private long freshIndex() {
+        long createTime = DateUtils.now().getTime() - TimeUnit.HOURS.toMillis(1);
+        aliasStatus = 200;
+        aliasIndex = ALIAS_NAME + "-" + createTime;
+        aliasDocumentCount = PROGRAM_SIZE;
+        Mockito.when(programService.getProgramLastEditTime()).thenReturn(new Date(createTime - 1000));
+        Mockito.when(programService.getProgramCount()).thenReturn((long)PROGRAM_SIZE);
+        return createTime;
+    }
+    
+    private List<Long> programIdList(long start, long end) {
+        List<Long> programIdList = new ArrayList<>();
+        for (long id = start; id <= end; id++) {
+            programIdList.add(id);
+        }
+        return programIdList;
+    }
+    
+    private String createdIndex() {
+        List<String> createList = requestList.stream().filter(request -> request.startsWith("PUT /" + ALIAS_NAME + "-"))
+                .collect(Collectors.toList());
+        assertEquals(1, createList.size());
+        return createList.get(0).substring("PUT /".length());
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String body;
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            body = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        requestList.add(method + " " + path);
+        if ("HEAD".equals(method)) {
+            exchange.sendResponseHeaders(path.equals("/" + ALIAS_NAME) ? legacyIndexStatus : 404, -1);
+            exchange.close();
+            return;
+        }
+        if (path.startsWith("/_alias/")) {
+            if (aliasStatus == 200) {
+                respond(exchange, 200, "{\"" + aliasIndex + "\":{\"aliases\":{\"" + ALIAS_NAME + "\":{}}}}");
+            }else if (aliasStatus == 404) {
+                respond(exchange, 404, "{\"error\":\"alias [" + ALIAS_NAME + "] missing\",\"status\":404}");
+            }else {
+                respond(exchange, aliasStatus, "{\"error\":\"stub error\",\"status\":" + aliasStatus + "}");
+            }
+        }else if ("/_aliases".equals(path)) {
+            aliasesBodyList.add(body);
+            respond(exchange, 200, "{\"acknowledged\":true}");
+        }else if (path.startsWith("/_cat/indices/")) {
+            respond(exchange, 200, catIndexList.stream().map(index -> "{\"index\":\"" + index + "\"}")
+                    .collect(Collectors.joining(",", "[", "]")));
+        }else if (path.endsWith("/_bulk")) {
+            synchronized (this) {
+                bulkDocumentCount += body.lines().filter(line -> line.startsWith("{\"index\"")).count();
+            }
+            respond(exchange, 200, "{\"errors\":false,\"items\":[]}");
+        }else if (path.endsWith("/_refresh")) {
+            respond(exchange, 200, "{}");
+        }else if (path.equals("/" + ALIAS_NAME + "/_count")) {
+            respond(exchange, 200, "{\"count\":" + aliasDocumentCount + "}");
+        }else if ("DELETE".equals(method) && path.contains("/_doc/")) {
+            synchronized (this) {
+                bulkDocumentCount--;
+            }
+            respond(exchange, 200, "{\"result\":\"deleted\"}");
+        }else if (path.endsWith("/_count")) {
+            respond(exchange, 200, "{\"count\":" + (bulkDocumentCount + countOffset) + "}");
+        }else if (path.endsWith("/_mget")) {
+            int idCount = body.split(",").length;
+            StringBuilder docs = new StringBuilder();
+            for (int i = 0; i < idCount; i++) {
+                docs.append(i == 0 ? "" : ",").append("{\"found\":true}");
+            }
+            respond(exchange, 200, "{\"docs\":[" + docs + "]}");
+        }else {
+            respond(exchange, 200, "{\"acknowledged\":true}");
+        }
+    }
+    
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+}
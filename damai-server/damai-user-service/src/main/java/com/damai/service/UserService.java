@@ -385,4 +385,23 @@ public class UserService extends ServiceImpl<UserMapper, User> {
         List<User> users = userMapper.selectList(lambdaQueryWrapper);
         return users.stream().map(User::getMobile).collect(Collectors.toList());
     }
+    
+    public long getUserCount(){
+        return userMapper.selectCount(Wrappers.emptyWrapper());
+    }
+    
+    /**
+     * 按id升序分页查询用户
+     * @param lastId 上一页最后一个id，第一页为null
+     * @param pageSize 每页条数
+     * @return 用户集合，只包含id和手机号
+     * */
+    public List<User> getMobilePage(Long lastId, int pageSize){
+        LambdaQueryWrapper<User> lambdaQueryWrapper = Wrappers.lambdaQuery(User.class)
+                .gt(Objects.nonNull(lastId), User::getId, lastId)
+                .orderByAsc(User::getId)
+                .last("limit " + pageSize)
+                .select(User::getId, User::getMobile);
+        return userMapper.selectList(lambdaQueryWrapper);
+    }
 }
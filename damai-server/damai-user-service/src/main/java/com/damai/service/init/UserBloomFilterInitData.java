@@ -1,7 +1,7 @@
 package com.damai.service.init;
 
-import cn.hutool.core.collection.CollectionUtil;
-import com.damai.BusinessThreadPool;
+import com.damai.entity.User;
+import com.damai.handler.BloomFilterDataSource;
 import com.damai.handler.BloomFilterHandler;
 import com.damai.initialize.base.AbstractApplicationPostConstructHandler;
 import com.damai.service.UserService;
@@ -10,14 +10,17 @@ import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
- * @description: 节目种类缓存
+ * @description: 用户手机号布隆过滤器初始化，没有构建过或者误判率过高时在后台分页读取手机号重建
  * @author: 阿星不是程序员
  **/
 @Component
-public class UserBloomFilterInitData extends AbstractApplicationPostConstructHandler {
+public class UserBloomFilterInitData extends AbstractApplicationPostConstructHandler implements BloomFilterDataSource {
     
     @Autowired
     private BloomFilterHandler bloomFilterHandler;
@@ -33,11 +36,25 @@ public class UserBloomFilterInitData extends AbstractApplicationPostConstructHan
     
     @Override
     public void executeInit(final ConfigurableApplicationContext context) {
-        BusinessThreadPool.execute(() -> {
-            List<String> allMobile = userService.getAllMobile();
-            if (CollectionUtil.isNotEmpty(allMobile)) {
-                allMobile.forEach(mobile -> bloomFilterHandler.add(mobile));
+        bloomFilterHandler.scheduleRebuild(this);
+    }
+    
+    @Override
+    public long count() {
+        return userService.getUserCount();
+    }
+    
+    @Override
+    public void forEachPage(final int pageSize, final Consumer<List<String>> pageConsumer) {
+        Long lastId = null;
+        List<User> userList;
+        do {
+            userList = userService.getMobilePage(lastId, pageSize);
+            if (userList.isEmpty()) {
+                return;
             }
-        });
+            pageConsumer.accept(userList.stream().map(User::getMobile).filter(Objects::nonNull).collect(Collectors.toList()));
+            lastId = userList.get(userList.size() - 1).getId();
+        } while (userList.size() >= pageSize);
     }
 }
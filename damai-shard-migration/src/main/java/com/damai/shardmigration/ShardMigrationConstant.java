@@ -0,0 +1,15 @@
+package com.damai.shardmigration;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容 常量
+ * @author: 阿星不是程序员
+ **/
+public class ShardMigrationConstant {
+    
+    public static final String ID_COLUMN = "id";
+    
+    public static final String ORDER_NUMBER_COLUMN = "order_number";
+    
+    public static final String USER_ID_COLUMN = "user_id";
+}
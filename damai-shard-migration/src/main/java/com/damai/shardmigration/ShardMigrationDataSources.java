@@ -0,0 +1,83 @@
+package com.damai.shardmigration;
+
+import com.damai.shardmigration.config.ShardMigrationProperties;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 扩容前后每个物理库的数据源，迁移使用独立的小连接池，不占用业务的连接
+ * @author: 阿星不是程序员
+ **/
+public class ShardMigrationDataSources implements DisposableBean {
+    
+    private final Map<String, HikariDataSource> sourceDataSourceMap;
+    
+    private final Map<String, HikariDataSource> targetDataSourceMap;
+    
+    private final Map<String, JdbcTemplate> sourceJdbcTemplateMap = new HashMap<>(8);
+    
+    private final Map<String, JdbcTemplate> targetJdbcTemplateMap = new HashMap<>(8);
+    
+    private final Map<String, TransactionTemplate> targetTransactionTemplateMap = new HashMap<>(8);
+    
+    public ShardMigrationDataSources(ShardMigrationProperties shardMigrationProperties) {
+        this.sourceDataSourceMap = create(shardMigrationProperties.getSourceDataSources(), "source");
+        this.targetDataSourceMap = create(shardMigrationProperties.getTargetDataSources(), "target");
+        sourceDataSourceMap.forEach((name, dataSource) -> sourceJdbcTemplateMap.put(name, new JdbcTemplate(dataSource)));
+        targetDataSourceMap.forEach((name, dataSource) -> {
+            targetJdbcTemplateMap.put(name, new JdbcTemplate(dataSource));
+            targetTransactionTemplateMap.put(name, new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+        });
+    }
+    
+    public JdbcTemplate getSource(String dataSourceName) {
+        return getJdbcTemplate(sourceJdbcTemplateMap, dataSourceName, "source");
+    }
+    
+    public JdbcTemplate getTarget(String dataSourceName) {
+        return getJdbcTemplate(targetJdbcTemplateMap, dataSourceName, "target");
+    }
+    
+    public TransactionTemplate getTargetTransactionTemplate(String dataSourceName) {
+        getTarget(dataSourceName);
+        return targetTransactionTemplateMap.get(dataSourceName);
+    }
+    
+    private JdbcTemplate getJdbcTemplate(Map<String, JdbcTemplate> jdbcTemplateMap, String dataSourceName, String type) {
+        JdbcTemplate jdbcTemplate = jdbcTemplateMap.get(dataSourceName);
+        if (Objects.isNull(jdbcTemplate)) {
+            throw new IllegalStateException("shard migration " + type + " data source not configured : " + dataSourceName);
+        }
+        return jdbcTemplate;
+    }
+    
+    private Map<String, HikariDataSource> create(Map<String, ShardMigrationProperties.DataSourceProperties> dataSourcePropertiesMap,
+                                                 String type) {
+        Map<String, HikariDataSource> dataSourceMap = new HashMap<>(8);
+        dataSourcePropertiesMap.forEach((name, dataSourceProperties) -> {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("shard-migration-" + type + "-" + name);
+            dataSource.setDriverClassName(dataSourceProperties.getDriverClassName());
+            dataSource.setJdbcUrl(dataSourceProperties.getJdbcUrl());
+            dataSource.setUsername(dataSourceProperties.getUsername());
+            dataSource.setPassword(dataSourceProperties.getPassword());
+            dataSource.setMaximumPoolSize(dataSourceProperties.getMaximumPoolSize());
+            dataSourceMap.put(name, dataSource);
+        });
+        return dataSourceMap;
+    }
+    
+    @Override
+    public void destroy() {
+        sourceDataSourceMap.values().forEach(HikariDataSource::close);
+        targetDataSourceMap.values().forEach(HikariDataSource::close);
+    }
+}
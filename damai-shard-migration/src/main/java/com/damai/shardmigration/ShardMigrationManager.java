@@ -0,0 +1,203 @@
+package com.damai.shardmigration;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.shardmigration.backfill.ShardBackfillWorker;
+import com.damai.shardmigration.backfill.ShardCheckpointStore;
+import com.damai.shardmigration.config.ShardMigrationProperties;
+import com.damai.shardmigration.dualwrite.ShardDualWriter;
+import com.damai.shardmigration.layout.ShardExpansionPlan;
+import com.damai.shardmigration.layout.ShardExpansionPlanner;
+import com.damai.shardmigration.layout.ShardMove;
+import com.damai.shardmigration.verify.ShardRoutingConflictResult;
+import com.damai.shardmigration.verify.ShardVerifier;
+import com.damai.shardmigration.verify.ShardVerifyResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容 管理
+ * 扩容步骤：
+ * 1. 扩容基因位时，先把生成订单编号使用的表数量改为扩容后的表数量，低位基因不变，对扩容前的布局没有影响
+ * 2. 创建扩容后的库表，所有实例配置 shard-migration.dual-write-enabled=true 开启双写
+ * 3. 回填，中断后再次执行会从进度继续。扩容基因位时回填前先检查路由，在第1步之前生成的订单编号多出的基因位和用户id不一致，
+ *    这些订单在扩容后按用户id查询不到，存在时拒绝扩容，只扩容分库数量时基因位不变，不会出现不一致
+ * 4. 校验，不一致的节点重新校验，仍然不一致时覆盖回填
+ * 5. 把shardingsphere配置切换到扩容后的布局，关闭双写
+ * 回填和校验同一时间只执行一个，在单独的线程中执行
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+public class ShardMigrationManager implements DisposableBean {
+    
+    private final ShardMigrationProperties shardMigrationProperties;
+    
+    private final ShardExpansionPlanner shardExpansionPlanner;
+    
+    private final ShardBackfillWorker shardBackfillWorker;
+    
+    private final ShardVerifier shardVerifier;
+    
+    private final ShardCheckpointStore shardCheckpointStore;
+    
+    private final ShardMigrationSwitch shardMigrationSwitch;
+    
+    private final ShardDualWriter shardDualWriter;
+    
+    private final ExecutorService migrationExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r);
+        thread.setName("shard-migration");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final AtomicReference<String> runningTask = new AtomicReference<>();
+    
+    private volatile List<ShardVerifyResult> lastVerifyResults = Collections.emptyList();
+    
+    private volatile List<ShardRoutingConflictResult> lastPrecheckResults = Collections.emptyList();
+    
+    private volatile String lastError;
+    
+    public ShardMigrationManager(ShardMigrationProperties shardMigrationProperties,
+                                 ShardExpansionPlanner shardExpansionPlanner,
+                                 ShardBackfillWorker shardBackfillWorker,
+                                 ShardVerifier shardVerifier,
+                                 ShardCheckpointStore shardCheckpointStore,
+                                 ShardMigrationSwitch shardMigrationSwitch,
+                                 ShardDualWriter shardDualWriter) {
+        this.shardMigrationProperties = shardMigrationProperties;
+        this.shardExpansionPlanner = shardExpansionPlanner;
+        this.shardBackfillWorker = shardBackfillWorker;
+        this.shardVerifier = shardVerifier;
+        this.shardCheckpointStore = shardCheckpointStore;
+        this.shardMigrationSwitch = shardMigrationSwitch;
+        this.shardDualWriter = shardDualWriter;
+    }
+    
+    public ShardExpansionPlan plan() {
+        return shardExpansionPlanner.plan(shardMigrationProperties.getSource().toShardLayout(),
+                shardMigrationProperties.getTarget().toShardLayout());
+    }
+    
+    /**
+     * 开始回填
+     * @param overwrite 是否覆盖扩容后已经存在的行
+     * */
+    public void startBackfill(boolean overwrite) {
+        if (!shardMigrationSwitch.isDualWriteEnabled()) {
+            throw new DaMaiFrameException(BaseCode.SHARD_MIGRATION_DUAL_WRITE_DISABLED);
+        }
+        ShardExpansionPlan plan = plan();
+        submit(overwrite ? "overwrite-backfill" : "backfill", () -> {
+            if (plan.isGeneWidening()) {
+                precheck(plan);
+            }
+            for (String logicTable : shardMigrationProperties.getLogicTables()) {
+                shardBackfillWorker.backfill(plan, logicTable, overwrite);
+            }
+        });
+    }
+    
+    public void startPrecheck() {
+        ShardExpansionPlan plan = plan();
+        submit("precheck", () -> precheck(plan));
+    }
+    
+    public void startVerify() {
+        ShardExpansionPlan plan = plan();
+        submit("verify", () -> {
+            List<ShardVerifyResult> results = new ArrayList<>();
+            for (String logicTable : shardMigrationProperties.getLogicTables()) {
+                results.addAll(shardVerifier.verify(plan, logicTable));
+            }
+            lastVerifyResults = results;
+            long mismatchCount = results.stream().filter(result -> !result.getMatch()).count();
+            log.info("shard verify finish node count : {} mismatch count : {}", results.size(), mismatchCount);
+        });
+    }
+    
+    private void precheck(ShardExpansionPlan plan) throws InterruptedException {
+        List<ShardRoutingConflictResult> results = new ArrayList<>();
+        for (String logicTable : shardMigrationProperties.getLogicTables()) {
+            results.add(shardVerifier.precheck(plan, logicTable));
+        }
+        lastPrecheckResults = results;
+        long conflictCount = results.stream().mapToLong(ShardRoutingConflictResult::getConflictCount).sum();
+        log.info("shard precheck finish conflict count : {}", conflictCount);
+        if (conflictCount > 0) {
+            throw new DaMaiFrameException(BaseCode.SHARD_MIGRATION_ROUTING_CONFLICT);
+        }
+    }
+    
+    public void setDualWriteEnabled(boolean dualWriteEnabled) {
+        shardMigrationSwitch.setDualWriteEnabled(dualWriteEnabled);
+        log.warn("shard dual write enabled : {}", dualWriteEnabled);
+    }
+    
+    public Map<String, Object> status() {
+        ShardExpansionPlan plan = plan();
+        Map<String, Object> planMap = new LinkedHashMap<>();
+        planMap.put("source", plan.getSource().toString());
+        planMap.put("target", plan.getTarget().toString());
+        planMap.put("geneWidening", plan.isGeneWidening());
+        planMap.put("orderNumberTableCount", plan.getOrderNumberTableCount());
+        planMap.put("moves", plan.getMoves().stream().map(ShardMove::toString).collect(Collectors.toList()));
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("plan", planMap);
+        status.put("dualWriteEnabled", shardMigrationSwitch.isDualWriteEnabled());
+        status.put("dualWriteCount", shardDualWriter.getWriteCount());
+        status.put("dualWriteFailureCount", shardDualWriter.getFailureCount());
+        status.put("dualWritePendingRetryCount", shardDualWriter.getPendingRetryCount());
+        status.put("dualWriteConflictCount", shardDualWriter.getConflictCount());
+        status.put("dualWriteUnresolvedCount", shardDualWriter.getUnresolvedCount());
+        status.put("runningTask", runningTask.get());
+        status.put("lastError", lastError);
+        status.put("checkpoints", shardCheckpointStore.loadAll());
+        status.put("precheckResults", lastPrecheckResults);
+        status.put("verifyResults", lastVerifyResults);
+        return status;
+    }
+    
+    private void submit(String taskName, MigrationTask task) {
+        if (!runningTask.compareAndSet(null, taskName)) {
+            throw new DaMaiFrameException(BaseCode.SHARD_MIGRATION_RUNNING);
+        }
+        migrationExecutor.execute(() -> {
+            lastError = null;
+            try {
+                task.run();
+            }catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lastError = taskName + " interrupted";
+            }catch (Exception e) {
+                log.error("shard migration task error taskName : {}", taskName, e);
+                lastError = taskName + " error : " + e.getMessage();
+            }finally {
+                runningTask.set(null);
+            }
+        });
+    }
+    
+    @Override
+    public void destroy() {
+        migrationExecutor.shutdownNow();
+    }
+    
+    @FunctionalInterface
+    private interface MigrationTask {
+        
+        void run() throws Exception;
+    }
+}
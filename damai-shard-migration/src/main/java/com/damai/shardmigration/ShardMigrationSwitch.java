@@ -0,0 +1,23 @@
+package com.damai.shardmigration;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容 双写开关，只对当前实例生效，回填前需要通过配置在所有实例开启
+ * @author: 阿星不是程序员
+ **/
+public class ShardMigrationSwitch {
+    
+    private volatile boolean dualWriteEnabled;
+    
+    public ShardMigrationSwitch(boolean dualWriteEnabled) {
+        this.dualWriteEnabled = dualWriteEnabled;
+    }
+    
+    public boolean isDualWriteEnabled() {
+        return dualWriteEnabled;
+    }
+    
+    public void setDualWriteEnabled(boolean dualWriteEnabled) {
+        this.dualWriteEnabled = dualWriteEnabled;
+    }
+}
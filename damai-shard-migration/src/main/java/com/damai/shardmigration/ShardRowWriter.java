@@ -0,0 +1,43 @@
+package com.damai.shardmigration;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 把从原布局读出的行按原样写入扩容后布局的物理表，回填和双写共用
+ * @author: 阿星不是程序员
+ **/
+public class ShardRowWriter {
+    
+    /**
+     * @param insertPrefix insert into 或者 insert ignore into
+     * */
+    public static void batchInsert(JdbcTemplate jdbcTemplate, String insertPrefix, String tableName,
+                                   List<Map<String, Object>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<String> columns = new ArrayList<>(rows.get(0).keySet());
+        String sql = insertPrefix + " " + tableName + " (" +
+                columns.stream().map(column -> "`" + column + "`").collect(Collectors.joining(",")) + ") values (" +
+                columns.stream().map(column -> "?").collect(Collectors.joining(",")) + ")";
+        List<Object[]> batchArgs = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            Object[] args = new Object[columns.size()];
+            for (int i = 0; i < columns.size(); i++) {
+                args[i] = row.get(columns.get(i));
+            }
+            batchArgs.add(args);
+        }
+        jdbcTemplate.batchUpdate(sql, batchArgs);
+    }
+    
+    public static long getLong(Map<String, Object> row, String column) {
+        return ((Number)row.get(column)).longValue();
+    }
+}
@@ -0,0 +1,150 @@
+package com.damai.shardmigration.backfill;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.shardmigration.ShardMigrationDataSources;
+import com.damai.shardmigration.ShardRowWriter;
+import com.damai.shardmigration.config.ShardMigrationProperties;
+import com.damai.shardmigration.dualwrite.ShardDualWriter;
+import com.damai.shardmigration.layout.ShardExpansionPlan;
+import com.damai.shardmigration.layout.ShardMove;
+import com.damai.shardmigration.layout.ShardNode;
+import com.damai.shardmigration.layout.ShardRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.damai.shardmigration.ShardMigrationConstant.ID_COLUMN;
+import static com.damai.shardmigration.ShardMigrationConstant.ORDER_NUMBER_COLUMN;
+import static com.damai.shardmigration.ShardMigrationConstant.USER_ID_COLUMN;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容 数据回填
+ * 按扩容前的节点逐表以主键顺序分批读取，按订单编号计算扩容后的节点后批量写入，每批完成后保存进度，中断后从进度继续。
+ * 行按订单编号放置，订单编号和用户id在扩容后路由到的节点必须相同，否则按用户id查询不到，遇到这样的行时停止回填，
+ * 只有进行过基因扩容并且还存在扩容前生成的订单时才会出现，扩容管理会在回填前检查并拒绝。
+ * 回填和双写并行时，已经由双写插入的行不会被覆盖(insert ignore)；
+ * 校验发现不一致时可以用覆盖模式从头重新回填，覆盖时按订单编号经过双写器的通道复制，不会用读到的旧数据覆盖双写的新数据
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+public class ShardBackfillWorker {
+    
+    private final ShardMigrationProperties shardMigrationProperties;
+    
+    private final ShardMigrationDataSources shardMigrationDataSources;
+    
+    private final ShardCheckpointStore shardCheckpointStore;
+    
+    private final ShardRouter shardRouter;
+    
+    private final ShardDualWriter shardDualWriter;
+    
+    public ShardBackfillWorker(ShardMigrationProperties shardMigrationProperties,
+                               ShardMigrationDataSources shardMigrationDataSources,
+                               ShardCheckpointStore shardCheckpointStore,
+                               ShardRouter shardRouter,
+                               ShardDualWriter shardDualWriter) {
+        this.shardMigrationProperties = shardMigrationProperties;
+        this.shardMigrationDataSources = shardMigrationDataSources;
+        this.shardCheckpointStore = shardCheckpointStore;
+        this.shardRouter = shardRouter;
+        this.shardDualWriter = shardDualWriter;
+    }
+    
+    /**
+     * 回填一张逻辑表
+     * @param plan 扩容计划
+     * @param logicTable 逻辑表
+     * @param overwrite 是否覆盖扩容后已经存在的行，覆盖时清空进度从头开始
+     * */
+    public void backfill(ShardExpansionPlan plan, String logicTable, boolean overwrite) throws InterruptedException {
+        if (overwrite) {
+            shardCheckpointStore.reset(logicTable);
+        }
+        for (ShardMove move : plan.getMoves()) {
+            backfill(plan, logicTable, move.getSourceNode(), overwrite);
+        }
+    }
+    
+    private void backfill(ShardExpansionPlan plan, String logicTable, ShardNode sourceNode, boolean overwrite)
+            throws InterruptedException {
+        ShardCheckpoint checkpoint = shardCheckpointStore.load(logicTable, sourceNode.toString());
+        if (checkpoint.getFinished()) {
+            log.info("shard backfill skip finished logicTable : {} sourceNode : {}", logicTable, sourceNode);
+            return;
+        }
+        JdbcTemplate sourceJdbcTemplate = shardMigrationDataSources.getSource(sourceNode.getDataSourceName());
+        String selectSql = "select * from " + sourceNode.getTableName(logicTable) + " where " + ID_COLUMN +
+                " > ? order by " + ID_COLUMN + " limit ?";
+        int batchSize = shardMigrationProperties.getBatchSize();
+        log.info("shard backfill start logicTable : {} sourceNode : {} lastId : {}", logicTable, sourceNode, checkpoint.getLastId());
+        while (true) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("shard backfill interrupted");
+            }
+            List<Map<String, Object>> rows = sourceJdbcTemplate.queryForList(selectSql, checkpoint.getLastId(), batchSize);
+            if (rows.isEmpty()) {
+                checkpoint.setFinished(true);
+                shardCheckpointStore.save(checkpoint);
+                break;
+            }
+            Map<ShardNode, List<Map<String, Object>>> targetRowMap = new LinkedHashMap<>();
+            long conflictCount = 0;
+            for (Map<String, Object> row : rows) {
+                ShardNode targetNode = shardRouter.route(plan.getTarget(), ShardRowWriter.getLong(row, ORDER_NUMBER_COLUMN));
+                targetRowMap.computeIfAbsent(targetNode, k -> new ArrayList<>()).add(row);
+                if (!Objects.equals(targetNode, shardRouter.route(plan.getTarget(), ShardRowWriter.getLong(row, USER_ID_COLUMN)))) {
+                    conflictCount++;
+                }
+            }
+            if (conflictCount > 0) {
+                checkpoint.setConflictCount(checkpoint.getConflictCount() + conflictCount);
+                shardCheckpointStore.save(checkpoint);
+                log.error("shard backfill routing conflict logicTable : {} sourceNode : {} lastId : {} conflictCount : {}",
+                        logicTable, sourceNode, checkpoint.getLastId(), conflictCount);
+                throw new DaMaiFrameException(BaseCode.SHARD_MIGRATION_ROUTING_CONFLICT);
+            }
+            if (overwrite) {
+                copy(logicTable, rows);
+            }else {
+                for (Map.Entry<ShardNode, List<Map<String, Object>>> entry : targetRowMap.entrySet()) {
+                    ShardRowWriter.batchInsert(shardMigrationDataSources.getTarget(entry.getKey().getDataSourceName()),
+                            "insert ignore into", entry.getKey().getTableName(logicTable), entry.getValue());
+                }
+            }
+            checkpoint.setLastId(ShardRowWriter.getLong(rows.get(rows.size() - 1), ID_COLUMN));
+            checkpoint.setCopiedCount(checkpoint.getCopiedCount() + rows.size());
+            checkpoint.setFinished(rows.size() < batchSize);
+            shardCheckpointStore.save(checkpoint);
+            if (checkpoint.getFinished()) {
+                break;
+            }
+            if (shardMigrationProperties.getBatchIntervalMillis() > 0) {
+                Thread.sleep(shardMigrationProperties.getBatchIntervalMillis());
+            }
+        }
+        log.info("shard backfill finish logicTable : {} sourceNode : {} copiedCount : {} conflictCount : {}",
+                logicTable, sourceNode, checkpoint.getCopiedCount(), checkpoint.getConflictCount());
+    }
+    
+    private void copy(String logicTable, List<Map<String, Object>> rows) {
+        Set<Long> orderNumbers = new LinkedHashSet<>();
+        for (Map<String, Object> row : rows) {
+            orderNumbers.add(ShardRowWriter.getLong(row, ORDER_NUMBER_COLUMN));
+        }
+        long failureCount = shardDualWriter.copyAndWait(logicTable, orderNumbers);
+        if (failureCount > 0) {
+            log.warn("shard overwrite backfill copy failed logicTable : {} failureCount : {}, retried by dual writer",
+                    logicTable, failureCount);
+        }
+    }
+}
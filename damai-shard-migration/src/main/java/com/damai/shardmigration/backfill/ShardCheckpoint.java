@@ -0,0 +1,30 @@
+package com.damai.shardmigration.backfill;
+
+import lombok.Data;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 一个扩容前节点的回填进度
+ * @author: 阿星不是程序员
+ **/
+@Data
+public class ShardCheckpoint {
+    
+    private String logicTable;
+    
+    private String sourceNode;
+    
+    /**
+     * 已经回填的最大主键id
+     * */
+    private Long lastId = 0L;
+    
+    private Long copiedCount = 0L;
+    
+    /**
+     * 订单编号和用户id计算出的扩容后节点不一致的行数
+     * */
+    private Long conflictCount = 0L;
+    
+    private Boolean finished = false;
+}
@@ -0,0 +1,78 @@
+package com.damai.shardmigration.backfill;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 回填进度保存在扩容后的库中，表结构见 sql/cloud/damai_shard_migration_checkpoint.sql
+ * @author: 阿星不是程序员
+ **/
+public class ShardCheckpointStore {
+    
+    private static final String SELECT_SQL = "select logic_table, source_node, last_id, copied_count, conflict_count, finished " +
+            "from d_shard_migration_checkpoint where logic_table = ? and source_node = ?";
+    
+    private static final String SELECT_ALL_SQL = "select logic_table, source_node, last_id, copied_count, conflict_count, finished " +
+            "from d_shard_migration_checkpoint order by logic_table, source_node";
+    
+    private static final String UPDATE_SQL = "update d_shard_migration_checkpoint set last_id = ?, copied_count = ?, " +
+            "conflict_count = ?, finished = ?, edit_time = now() where logic_table = ? and source_node = ?";
+    
+    private static final String INSERT_SQL = "insert into d_shard_migration_checkpoint (logic_table, source_node, last_id, " +
+            "copied_count, conflict_count, finished, create_time, edit_time) values (?, ?, ?, ?, ?, ?, now(), now())";
+    
+    private static final String DELETE_SQL = "delete from d_shard_migration_checkpoint where logic_table = ?";
+    
+    private final JdbcTemplate jdbcTemplate;
+    
+    public ShardCheckpointStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+    
+    public ShardCheckpoint load(String logicTable, String sourceNode) {
+        List<ShardCheckpoint> checkpoints = jdbcTemplate.query(SELECT_SQL, (rs, rowNum) -> map(rs), logicTable, sourceNode);
+        if (checkpoints.isEmpty()) {
+            ShardCheckpoint checkpoint = new ShardCheckpoint();
+            checkpoint.setLogicTable(logicTable);
+            checkpoint.setSourceNode(sourceNode);
+            return checkpoint;
+        }
+        return checkpoints.get(0);
+    }
+    
+    public List<ShardCheckpoint> loadAll() {
+        return jdbcTemplate.query(SELECT_ALL_SQL, (rs, rowNum) -> map(rs));
+    }
+    
+    /**
+     * 只有回填线程写入，先更新，不存在时再插入
+     * */
+    public void save(ShardCheckpoint checkpoint) {
+        int finished = checkpoint.getFinished() ? 1 : 0;
+        int updated = jdbcTemplate.update(UPDATE_SQL, checkpoint.getLastId(), checkpoint.getCopiedCount(),
+                checkpoint.getConflictCount(), finished, checkpoint.getLogicTable(), checkpoint.getSourceNode());
+        if (updated == 0) {
+            jdbcTemplate.update(INSERT_SQL, checkpoint.getLogicTable(), checkpoint.getSourceNode(), checkpoint.getLastId(),
+                    checkpoint.getCopiedCount(), checkpoint.getConflictCount(), finished);
+        }
+    }
+    
+    public void reset(String logicTable) {
+        jdbcTemplate.update(DELETE_SQL, logicTable);
+    }
+    
+    private ShardCheckpoint map(ResultSet rs) throws SQLException {
+        ShardCheckpoint checkpoint = new ShardCheckpoint();
+        checkpoint.setLogicTable(rs.getString("logic_table"));
+        checkpoint.setSourceNode(rs.getString("source_node"));
+        checkpoint.setLastId(rs.getLong("last_id"));
+        checkpoint.setCopiedCount(rs.getLong("copied_count"));
+        checkpoint.setConflictCount(rs.getLong("conflict_count"));
+        checkpoint.setFinished(rs.getInt("finished") == 1);
+        return checkpoint;
+    }
+}
@@ -0,0 +1,121 @@
+package com.damai.shardmigration.config;
+
+import com.damai.shardmigration.ShardMigrationDataSources;
+import com.damai.shardmigration.ShardMigrationManager;
+import com.damai.shardmigration.ShardMigrationSwitch;
+import com.damai.shardmigration.backfill.ShardBackfillWorker;
+import com.damai.shardmigration.backfill.ShardCheckpointStore;
+import com.damai.shardmigration.dualwrite.ShardDualWriteInterceptor;
+import com.damai.shardmigration.dualwrite.ShardDualWriter;
+import com.damai.shardmigration.dualwrite.ShardRowCopier;
+import com.damai.shardmigration.endpoint.ShardMigrationEndpoint;
+import com.damai.shardmigration.layout.ShardExpansionPlanner;
+import com.damai.shardmigration.layout.ShardRouter;
+import com.damai.shardmigration.verify.ShardVerifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容 配置，shard-migration.enabled=true 时生效
+ * @author: 阿星不是程序员
+ **/
+@EnableConfigurationProperties(ShardMigrationProperties.class)
+@ConditionalOnProperty(prefix = ShardMigrationProperties.PREFIX, name = "enabled", havingValue = "true")
+public class ShardMigrationAutoConfiguration {
+    
+    @Bean
+    public ShardRouter shardRouter() {
+        return new ShardRouter();
+    }
+    
+    @Bean
+    public ShardExpansionPlanner shardExpansionPlanner(ShardRouter shardRouter) {
+        return new ShardExpansionPlanner(shardRouter);
+    }
+    
+    @Bean
+    public ShardMigrationDataSources shardMigrationDataSources(ShardMigrationProperties shardMigrationProperties) {
+        return new ShardMigrationDataSources(shardMigrationProperties);
+    }
+    
+    @Bean
+    public ShardCheckpointStore shardCheckpointStore(ShardMigrationProperties shardMigrationProperties,
+                                                     ShardMigrationDataSources shardMigrationDataSources) {
+        return new ShardCheckpointStore(shardMigrationDataSources.getTarget(shardMigrationProperties.getCheckpointDataSourceName()));
+    }
+    
+    @Bean
+    public ShardBackfillWorker shardBackfillWorker(ShardMigrationProperties shardMigrationProperties,
+                                                   ShardMigrationDataSources shardMigrationDataSources,
+                                                   ShardCheckpointStore shardCheckpointStore,
+                                                   ShardRouter shardRouter,
+                                                   ShardDualWriter shardDualWriter) {
+        return new ShardBackfillWorker(shardMigrationProperties, shardMigrationDataSources, shardCheckpointStore,
+                shardRouter, shardDualWriter);
+    }
+    
+    @Bean
+    public ShardVerifier shardVerifier(ShardMigrationProperties shardMigrationProperties,
+                                       ShardMigrationDataSources shardMigrationDataSources,
+                                       ShardRouter shardRouter) {
+        return new ShardVerifier(shardMigrationProperties, shardMigrationDataSources, shardRouter);
+    }
+    
+    @Bean
+    public ShardMigrationSwitch shardMigrationSwitch(ShardMigrationProperties shardMigrationProperties) {
+        return new ShardMigrationSwitch(shardMigrationProperties.getDualWriteEnabled());
+    }
+    
+    @Bean
+    public ShardRowCopier shardRowCopier(ShardMigrationProperties shardMigrationProperties,
+                                         ShardMigrationDataSources shardMigrationDataSources,
+                                         ShardRouter shardRouter) {
+        return new ShardRowCopier(shardMigrationDataSources, shardRouter, shardMigrationProperties.getSource().toShardLayout(),
+                shardMigrationProperties.getTarget().toShardLayout());
+    }
+    
+    @Bean
+    public ShardDualWriter shardDualWriter(ShardMigrationProperties shardMigrationProperties, ShardRowCopier shardRowCopier) {
+        return new ShardDualWriter(shardRowCopier, shardMigrationProperties.getDualWriteLaneCount(),
+                shardMigrationProperties.getDualWriteRetryIntervalMillis());
+    }
+    
+    /**
+     * mybatis-plus的自动配置会把容器中的Interceptor注册为插件
+     */
+    @Bean
+    public ShardDualWriteInterceptor shardDualWriteInterceptor(ShardMigrationProperties shardMigrationProperties,
+                                                               ShardMigrationSwitch shardMigrationSwitch,
+                                                               ShardDualWriter shardDualWriter) {
+        return new ShardDualWriteInterceptor(shardMigrationSwitch, shardDualWriter, shardMigrationProperties.getLogicTables());
+    }
+    
+    @Bean
+    public ShardMigrationManager shardMigrationManager(ShardMigrationProperties shardMigrationProperties,
+                                                       ShardExpansionPlanner shardExpansionPlanner,
+                                                       ShardBackfillWorker shardBackfillWorker,
+                                                       ShardVerifier shardVerifier,
+                                                       ShardCheckpointStore shardCheckpointStore,
+                                                       ShardMigrationSwitch shardMigrationSwitch,
+                                                       ShardDualWriter shardDualWriter) {
+        return new ShardMigrationManager(shardMigrationProperties, shardExpansionPlanner, shardBackfillWorker,
+                shardVerifier, shardCheckpointStore, shardMigrationSwitch, shardDualWriter);
+    }
+    
+    /**
+     * 引入了actuator时注册运维端点
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+    static class ShardMigrationEndpointConfiguration {
+        
+        @Bean
+        public ShardMigrationEndpoint shardMigrationEndpoint(ShardMigrationManager shardMigrationManager) {
+            return new ShardMigrationEndpoint(shardMigrationManager);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.damai.shardmigration.config;
+
+import com.damai.shardmigration.layout.ShardLayout;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单分片扩容 配置属性
+ * @author: 阿星不是程序员
+ **/
+@Data
+@ConfigurationProperties(prefix = ShardMigrationProperties.PREFIX)
+public class ShardMigrationProperties {
+    
+    public static final String PREFIX = "shard-migration";
+    
+    /**
+     * 是否启用分片扩容
+     */
+    private Boolean enabled = false;
+    
+    /**
+     * 是否把订单表的写操作同时写入扩容后的布局，回填开始前所有实例都要开启
+     */
+    private Boolean dualWriteEnabled = false;
+    
+    /**
+     * 双写的通道数量，同一个订单编号的双写在同一个通道中按顺序执行
+     */
+    private Integer dualWriteLaneCount = 4;
+    
+    /**
+     * 双写失败的订单编号重新复制的间隔(毫秒)
+     */
+    private Long dualWriteRetryIntervalMillis = 5000L;
+    
+    /**
+     * 扩容前的布局
+     */
+    private LayoutProperties source = new LayoutProperties(2, 4);
+    
+    /**
+     * 扩容后的布局
+     */
+    private LayoutProperties target = new LayoutProperties(4, 8);
+    
+    /**
+     * 需要迁移的逻辑表，使用相同的分片算法
+     */
+    private List<String> logicTables = new ArrayList<>(List.of("d_order", "d_order_ticket_user"));
+    
+    /**
+     * 回填和校验时每批读取的行数
+     */
+    private Integer batchSize = 500;
+    
+    /**
+     * 回填每批之间的间隔(毫秒)，用来控制对线上库的压力
+     */
+    private Long batchIntervalMillis = 0L;
+    
+    /**
+     * 保存回填进度的数据源，取扩容后布局中的数据源名称
+     */
+    private String checkpointDataSourceName = "ds_0";
+    
+    /**
+     * 扩容前每个库的数据源，名称为ds_0、ds_1...
+     */
+    private Map<String, DataSourceProperties> sourceDataSources = new HashMap<>(8);
+    
+    /**
+     * 扩容后每个库的数据源，名称为ds_0、ds_1...
+     */
+    private Map<String, DataSourceProperties> targetDataSources = new HashMap<>(8);
+    
+    @Data
+    public static class LayoutProperties {
+        
+        /**
+         * 分库数量，必须是2的幂
+         */
+        private Integer databaseCount;
+        
+        /**
+         * 每个库的分表数量，必须是2的幂
+         */
+        private Integer tableCount;
+        
+        public LayoutProperties() {
+        }
+        
+        public LayoutProperties(Integer databaseCount, Integer tableCount) {
+            this.databaseCount = databaseCount;
+            this.tableCount = tableCount;
+        }
+        
+        public ShardLayout toShardLayout() {
+            return new ShardLayout(databaseCount, tableCount);
+        }
+    }
+    
+    @Data
+    public static class DataSourceProperties {
+        
+        private String driverClassName = "com.mysql.cj.jdbc.Driver";
+        
+        private String jdbcUrl;
+        
+        private String username;
+        
+        private String password;
+        
+        /**
+         * 迁移使用的连接数，和业务连接池分开
+         */
+        private Integer maximumPoolSize = 4;
+    }
+}
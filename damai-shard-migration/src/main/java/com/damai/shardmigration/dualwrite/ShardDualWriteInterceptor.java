@@ -0,0 +1,128 @@
+package com.damai.shardmigration.dualwrite;
+
+import com.damai.shardmigration.ShardMigrationSwitch;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static com.damai.shardmigration.ShardMigrationConstant.ORDER_NUMBER_COLUMN;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容 双写插件
+ * 开启双写时，涉及迁移表的insert/update/delete在原布局执行成功后，取出语句涉及的订单编号，
+ * 在事务中时等到事务提交后再交给双写器按订单编号把原布局中的当前数据复制到扩容后的布局，回滚的写入不会出现在扩容后的布局中。
+ * 不重放语句本身，多个事务提交后的双写顺序和提交顺序不同时，后执行的复制读到的也是最新的数据
+ * @author: 阿星不是程序员
+ **/
+@Intercepts({@Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})})
+public class ShardDualWriteInterceptor implements Interceptor {
+    
+    private final ShardMigrationSwitch shardMigrationSwitch;
+    
+    private final ShardDualWriter shardDualWriter;
+    
+    private final Map<String, Pattern> logicTablePatternMap = new LinkedHashMap<>();
+    
+    private final ShardKeyExtractor shardKeyExtractor = new ShardKeyExtractor(ORDER_NUMBER_COLUMN);
+    
+    public ShardDualWriteInterceptor(ShardMigrationSwitch shardMigrationSwitch, ShardDualWriter shardDualWriter,
+                                     List<String> logicTables) {
+        this.shardMigrationSwitch = shardMigrationSwitch;
+        this.shardDualWriter = shardDualWriter;
+        for (String logicTable : logicTables) {
+            logicTablePatternMap.put(logicTable, Pattern.compile("\\b" + Pattern.quote(logicTable) + "\\b", Pattern.CASE_INSENSITIVE));
+        }
+    }
+    
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object result = invocation.proceed();
+        if (!shardMigrationSwitch.isDualWriteEnabled()) {
+            return result;
+        }
+        MappedStatement mappedStatement = (MappedStatement)invocation.getArgs()[0];
+        Object parameter = invocation.getArgs()[1];
+        BoundSql boundSql = mappedStatement.getBoundSql(parameter);
+        String logicTable = matchLogicTable(boundSql.getSql());
+        if (Objects.isNull(logicTable)) {
+            return result;
+        }
+        Set<Long> orderNumbers = shardKeyExtractor.extract(boundSql.getSql(), capture(mappedStatement, parameter, boundSql));
+        ShardDualWriteStatement statement = new ShardDualWriteStatement(mappedStatement.getId(), boundSql.getSql(),
+                logicTable, orderNumbers);
+        if (orderNumbers.isEmpty()) {
+            shardDualWriter.unresolved(statement);
+            return result;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    shardDualWriter.submit(statement);
+                }
+            });
+        }else {
+            shardDualWriter.submit(statement);
+        }
+        return result;
+    }
+    
+    private String matchLogicTable(String sql) {
+        for (Map.Entry<String, Pattern> entry : logicTablePatternMap.entrySet()) {
+            if (entry.getValue().matcher(sql).find()) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 和mybatis的DefaultParameterHandler取参数值的方式相同
+     * */
+    private List<Object> capture(MappedStatement mappedStatement, Object parameter, BoundSql boundSql) {
+        Configuration configuration = mappedStatement.getConfiguration();
+        List<Object> parameterValues = new ArrayList<>(boundSql.getParameterMappings().size());
+        MetaObject metaObject = null;
+        for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+            if (parameterMapping.getMode() == ParameterMode.OUT) {
+                parameterValues.add(null);
+                continue;
+            }
+            String property = parameterMapping.getProperty();
+            Object value;
+            if (boundSql.hasAdditionalParameter(property)) {
+                value = boundSql.getAdditionalParameter(property);
+            }else if (Objects.isNull(parameter)) {
+                value = null;
+            }else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass())) {
+                value = parameter;
+            }else {
+                if (Objects.isNull(metaObject)) {
+                    metaObject = configuration.newMetaObject(parameter);
+                }
+                value = metaObject.getValue(property);
+            }
+            parameterValues.add(value);
+        }
+        return parameterValues;
+    }
+}
@@ -0,0 +1,32 @@
+package com.damai.shardmigration.dualwrite;
+
+import lombok.Getter;
+
+import java.util.Set;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 需要双写的语句，订单编号在执行原语句时取出，事务提交后参数对象再被修改也不影响双写
+ * @author: 阿星不是程序员
+ **/
+@Getter
+public class ShardDualWriteStatement {
+    
+    private final String statementId;
+    
+    private final String sql;
+    
+    private final String logicTable;
+    
+    /**
+     * 语句涉及的订单编号，为空时不能双写
+     * */
+    private final Set<Long> orderNumbers;
+    
+    public ShardDualWriteStatement(String statementId, String sql, String logicTable, Set<Long> orderNumbers) {
+        this.statementId = statementId;
+        this.sql = sql;
+        this.logicTable = logicTable;
+        this.orderNumbers = orderNumbers;
+    }
+}
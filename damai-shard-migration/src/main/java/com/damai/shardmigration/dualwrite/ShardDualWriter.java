@@ -0,0 +1,197 @@
+package com.damai.shardmigration.dualwrite;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 双写器，按订单编号把原布局中的当前数据复制到扩容后的布局
+ * 订单编号按哈希分到固定的单线程通道，同一个实例中同一个订单编号的复制按提交顺序串行执行，每次复制读取的都是已提交的最新数据，
+ * 所以多个事务的双写顺序不会让旧数据覆盖新数据。多个服务实例之间没有共同的通道，由 ShardRowCopier 在扩容后的库中先加行锁再读取来保证顺序，
+ * 切换前的校验(ShardVerifier)比较全部数据，发现不一致时覆盖回填，是最终的保证。复制失败时重试，重试后仍然失败的订单编号记录下来定时重新复制，
+ * 写入失败不影响业务
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+public class ShardDualWriter implements DisposableBean {
+    
+    private static final int MAX_ATTEMPTS = 3;
+    
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+    
+    private final ShardRowCopier shardRowCopier;
+    
+    private final ExecutorService[] lanes;
+    
+    private final ScheduledExecutorService retryExecutor;
+    
+    private final Set<FailedKey> failedKeys = ConcurrentHashMap.newKeySet();
+    
+    private final AtomicLong writeCount = new AtomicLong();
+    
+    private final AtomicLong failureCount = new AtomicLong();
+    
+    private final AtomicLong conflictCount = new AtomicLong();
+    
+    private final AtomicLong unresolvedCount = new AtomicLong();
+    
+    public ShardDualWriter(ShardRowCopier shardRowCopier, int laneCount, long retryIntervalMillis) {
+        this.shardRowCopier = shardRowCopier;
+        this.lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String threadName = "shard-dual-write-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(r -> newThread(r, threadName));
+        }
+        this.retryExecutor = Executors.newSingleThreadScheduledExecutor(r -> newThread(r, "shard-dual-write-retry"));
+        retryExecutor.scheduleWithFixedDelay(this::retryFailed, retryIntervalMillis, retryIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    public void submit(ShardDualWriteStatement statement) {
+        for (Long orderNumber : statement.getOrderNumbers()) {
+            submit(statement.getLogicTable(), orderNumber);
+        }
+    }
+    
+    /**
+     * @return 复制是否成功
+     * */
+    public CompletableFuture<Boolean> submit(String logicTable, long orderNumber) {
+        try {
+            return CompletableFuture.supplyAsync(() -> copy(logicTable, orderNumber), lane(orderNumber));
+        }catch (RejectedExecutionException e) {
+            log.error("shard dual write rejected logicTable : {} orderNumber : {}", logicTable, orderNumber);
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+    
+    /**
+     * 覆盖回填时经过同样的通道复制，和双写互不覆盖
+     * @return 复制失败的订单编号数量
+     * */
+    public long copyAndWait(String logicTable, Collection<Long> orderNumbers) {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(orderNumbers.size());
+        for (Long orderNumber : orderNumbers) {
+            futures.add(submit(logicTable, orderNumber));
+        }
+        return futures.stream().map(CompletableFuture::join).filter(success -> !success).count();
+    }
+    
+    /**
+     * 取不到订单编号的语句不能双写，只能由校验发现后覆盖回填
+     * */
+    public void unresolved(ShardDualWriteStatement statement) {
+        unresolvedCount.incrementAndGet();
+        log.error("shard dual write order number not found statementId : {} sql : {}", statement.getStatementId(),
+                statement.getSql());
+    }
+    
+    private boolean copy(String logicTable, long orderNumber) {
+        Exception lastException = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                shardRowCopier.copy(logicTable, orderNumber);
+                writeCount.incrementAndGet();
+                return true;
+            }catch (Exception e) {
+                if (e instanceof DaMaiFrameException &&
+                        Objects.equals(((DaMaiFrameException)e).getCode(), BaseCode.SHARD_MIGRATION_ROUTING_CONFLICT.getCode())) {
+                    //按用户id会路由到别的节点，重试也不会成功
+                    conflictCount.incrementAndGet();
+                    log.error("shard dual write routing conflict logicTable : {} orderNumber : {}", logicTable, orderNumber);
+                    return false;
+                }
+                lastException = e;
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+                }catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        failureCount.incrementAndGet();
+        failedKeys.add(new FailedKey(logicTable, orderNumber));
+        log.error("shard dual write error logicTable : {} orderNumber : {}", logicTable, orderNumber, lastException);
+        return false;
+    }
+    
+    void retryFailed() {
+        for (FailedKey failedKey : new ArrayList<>(failedKeys)) {
+            if (failedKeys.remove(failedKey)) {
+                submit(failedKey.logicTable, failedKey.orderNumber);
+            }
+        }
+    }
+    
+    /**
+     * 通道只在当前实例内串行，多个实例之间的顺序见 ShardRowCopier
+     * */
+    private ExecutorService lane(long orderNumber) {
+        return lanes[Math.floorMod(Long.hashCode(orderNumber), lanes.length)];
+    }
+    
+    private static Thread newThread(Runnable r, String threadName) {
+        Thread thread = new Thread(r);
+        thread.setName(threadName);
+        thread.setDaemon(true);
+        return thread;
+    }
+    
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+    
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+    
+    public long getConflictCount() {
+        return conflictCount.get();
+    }
+    
+    public long getUnresolvedCount() {
+        return unresolvedCount.get();
+    }
+    
+    public long getPendingRetryCount() {
+        return failedKeys.size();
+    }
+    
+    @Override
+    public void destroy() {
+        retryExecutor.shutdownNow();
+        for (ExecutorService lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+    
+    @EqualsAndHashCode
+    private static final class FailedKey {
+        
+        private final String logicTable;
+        
+        private final long orderNumber;
+        
+        private FailedKey(String logicTable, long orderNumber) {
+            this.logicTable = logicTable;
+            this.orderNumber = orderNumber;
+        }
+    }
+}
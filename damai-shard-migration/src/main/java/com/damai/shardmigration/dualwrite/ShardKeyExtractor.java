@@ -0,0 +1,136 @@
+package com.damai.shardmigration.dualwrite;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 从双写语句中取出订单编号
+ * insert 从列名中找到订单编号列，按每组values中的位置取参数；update/delete 从where条件中的 order_number = ? 或者
+ * order_number in (?, ...) 取参数。订单表的写操作都带有订单编号，取不到时返回空集合，由调用方记录
+ * @author: 阿星不是程序员
+ **/
+public class ShardKeyExtractor {
+    
+    private static final Pattern INSERT_PATTERN = Pattern.compile(
+            "^\\s*(?:insert|replace)\\s+(?:ignore\\s+)?into\\s+\\S+\\s*\\(([^)]*)\\)\\s*values\\s*(.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    
+    private static final Pattern VALUES_GROUP_PATTERN = Pattern.compile("\\(([^)]*)\\)");
+    
+    private static final Pattern WHERE_PATTERN = Pattern.compile("\\bwhere\\b", Pattern.CASE_INSENSITIVE);
+    
+    private final String keyColumn;
+    
+    private final Pattern equalPattern;
+    
+    private final Pattern inPattern;
+    
+    public ShardKeyExtractor(String keyColumn) {
+        this.keyColumn = keyColumn;
+        String column = "(?<![\\w`])(?:`?\\w+`?\\.)?`?" + Pattern.quote(keyColumn) + "`?";
+        this.equalPattern = Pattern.compile(column + "\\s*=\\s*(\\?)", Pattern.CASE_INSENSITIVE);
+        this.inPattern = Pattern.compile(column + "\\s+in\\s*\\(([\\s?,]*)\\)", Pattern.CASE_INSENSITIVE);
+    }
+    
+    /**
+     * @param sql 带有占位符的sql
+     * @param parameterValues 按占位符顺序的参数值
+     * @return 语句涉及的订单编号，取不到时为空
+     * */
+    public Set<Long> extract(String sql, List<Object> parameterValues) {
+        Set<Long> keys = new LinkedHashSet<>();
+        Matcher insertMatcher = INSERT_PATTERN.matcher(sql);
+        if (insertMatcher.matches()) {
+            extractInsert(insertMatcher.group(1), insertMatcher.group(2), parameterValues, keys);
+            return keys;
+        }
+        Matcher whereMatcher = WHERE_PATTERN.matcher(sql);
+        if (!whereMatcher.find()) {
+            return keys;
+        }
+        int whereEnd = whereMatcher.end();
+        Matcher equalMatcher = equalPattern.matcher(sql);
+        while (equalMatcher.find(whereEnd)) {
+            addKey(parameterValues, countPlaceholder(sql, equalMatcher.start(1)), keys);
+            whereEnd = equalMatcher.end();
+        }
+        whereEnd = whereMatcher.end();
+        Matcher inMatcher = inPattern.matcher(sql);
+        while (inMatcher.find(whereEnd)) {
+            int parameterIndex = countPlaceholder(sql, inMatcher.start(1));
+            int size = countPlaceholder(inMatcher.group(1), inMatcher.group(1).length());
+            for (int i = 0; i < size; i++) {
+                addKey(parameterValues, parameterIndex + i, keys);
+            }
+            whereEnd = inMatcher.end();
+        }
+        return keys;
+    }
+    
+    private void extractInsert(String columnPart, String valuesPart, List<Object> parameterValues, Set<Long> keys) {
+        List<String> columns = new ArrayList<>();
+        for (String column : columnPart.split(",")) {
+            columns.add(column.trim().replace("`", ""));
+        }
+        int keyIndex = -1;
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(keyColumn)) {
+                keyIndex = i;
+                break;
+            }
+        }
+        if (keyIndex < 0) {
+            return;
+        }
+        Matcher groupMatcher = VALUES_GROUP_PATTERN.matcher(valuesPart);
+        int groupIndex = 0;
+        Set<Long> insertKeys = new LinkedHashSet<>();
+        while (groupMatcher.find()) {
+            String[] values = groupMatcher.group(1).split(",");
+            //values中有字面量时无法按位置对应参数
+            if (values.length != columns.size()) {
+                return;
+            }
+            for (String value : values) {
+                if (!"?".equals(value.trim())) {
+                    return;
+                }
+            }
+            addKey(parameterValues, groupIndex * columns.size() + keyIndex, insertKeys);
+            groupIndex++;
+        }
+        keys.addAll(insertKeys);
+    }
+    
+    private void addKey(List<Object> parameterValues, int parameterIndex, Set<Long> keys) {
+        if (parameterIndex >= parameterValues.size()) {
+            return;
+        }
+        Object value = parameterValues.get(parameterIndex);
+        if (value instanceof Number) {
+            keys.add(((Number)value).longValue());
+        }else if (Objects.nonNull(value)) {
+            try {
+                keys.add(Long.parseLong(value.toString().trim()));
+            }catch (NumberFormatException e) {
+                //不是订单编号的参数忽略
+            }
+        }
+    }
+    
+    private int countPlaceholder(String sql, int end) {
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (sql.charAt(i) == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
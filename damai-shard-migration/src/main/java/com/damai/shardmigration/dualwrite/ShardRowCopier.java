@@ -0,0 +1,70 @@
+package com.damai.shardmigration.dualwrite;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.shardmigration.ShardMigrationDataSources;
+import com.damai.shardmigration.ShardRowWriter;
+import com.damai.shardmigration.layout.ShardLayout;
+import com.damai.shardmigration.layout.ShardNode;
+import com.damai.shardmigration.layout.ShardRouter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.damai.shardmigration.ShardMigrationConstant.ORDER_NUMBER_COLUMN;
+import static com.damai.shardmigration.ShardMigrationConstant.USER_ID_COLUMN;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 按订单编号把原布局中的当前数据复制到扩容后的布局
+ * 在扩容后的库中用一个事务先删除这个订单编号的行再插入读到的行，复制可以重复执行，原布局中已经删除的行在扩容后的布局中也会删除。
+ * 删除在读取扩容前的数据之前执行，删除加的行锁(没有行时mysql加间隙锁)让多个服务实例对同一个订单编号的复制在扩容后的库中排队，
+ * 后提交的复制一定是在前一个提交之后才读取扩容前的数据，不会用旧数据覆盖新数据；
+ * 两个实例同时对还没有行的订单编号加间隙锁时插入会死锁，mysql回滚其中一个，由双写器重试
+ * @author: 阿星不是程序员
+ **/
+public class ShardRowCopier {
+    
+    private final ShardMigrationDataSources shardMigrationDataSources;
+    
+    private final ShardRouter shardRouter;
+    
+    private final ShardLayout source;
+    
+    private final ShardLayout target;
+    
+    public ShardRowCopier(ShardMigrationDataSources shardMigrationDataSources, ShardRouter shardRouter,
+                          ShardLayout source, ShardLayout target) {
+        this.shardMigrationDataSources = shardMigrationDataSources;
+        this.shardRouter = shardRouter;
+        this.source = source;
+        this.target = target;
+    }
+    
+    /**
+     * @return 复制的行数
+     * */
+    public int copy(String logicTable, long orderNumber) {
+        ShardNode sourceNode = shardRouter.route(source, orderNumber);
+        JdbcTemplate sourceJdbcTemplate = shardMigrationDataSources.getSource(sourceNode.getDataSourceName());
+        ShardNode targetNode = shardRouter.route(target, orderNumber);
+        JdbcTemplate targetJdbcTemplate = shardMigrationDataSources.getTarget(targetNode.getDataSourceName());
+        String tableName = targetNode.getTableName(logicTable);
+        Integer count = shardMigrationDataSources.getTargetTransactionTemplate(targetNode.getDataSourceName()).execute(status -> {
+            //先删除拿到扩容后这个订单编号的行锁，再读取扩容前的数据
+            targetJdbcTemplate.update("delete from " + tableName + " where " + ORDER_NUMBER_COLUMN + " = ?", orderNumber);
+            List<Map<String, Object>> rows = sourceJdbcTemplate.queryForList(
+                    "select * from " + sourceNode.getTableName(logicTable) + " where " + ORDER_NUMBER_COLUMN + " = ?", orderNumber);
+            for (Map<String, Object> row : rows) {
+                if (!Objects.equals(targetNode, shardRouter.route(target, ShardRowWriter.getLong(row, USER_ID_COLUMN)))) {
+                    throw new DaMaiFrameException(BaseCode.SHARD_MIGRATION_ROUTING_CONFLICT);
+                }
+            }
+            ShardRowWriter.batchInsert(targetJdbcTemplate, "insert into", tableName, rows);
+            return rows.size();
+        });
+        return Objects.isNull(count) ? 0 : count;
+    }
+}
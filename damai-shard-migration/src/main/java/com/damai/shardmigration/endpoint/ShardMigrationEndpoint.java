@@ -0,0 +1,60 @@
+package com.damai.shardmigration.endpoint;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.shardmigration.ShardMigrationManager;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.util.Map;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容 运维端点
+ * GET  /actuator/shardmigration 查看计划、双写、回填进度、路由检查和校验结果
+ * POST /actuator/shardmigration/{operation} operation为 precheck、backfill、overwrite-backfill、verify、dual-write-on、dual-write-off
+ * @author: 阿星不是程序员
+ **/
+@Endpoint(id = "shardmigration")
+public class ShardMigrationEndpoint {
+    
+    private final ShardMigrationManager shardMigrationManager;
+    
+    public ShardMigrationEndpoint(ShardMigrationManager shardMigrationManager) {
+        this.shardMigrationManager = shardMigrationManager;
+    }
+    
+    @ReadOperation
+    public Map<String, Object> status() {
+        return shardMigrationManager.status();
+    }
+    
+    @WriteOperation
+    public Map<String, Object> operate(@Selector String operation) {
+        switch (operation) {
+            case "precheck":
+                shardMigrationManager.startPrecheck();
+                break;
+            case "backfill":
+                shardMigrationManager.startBackfill(false);
+                break;
+            case "overwrite-backfill":
+                shardMigrationManager.startBackfill(true);
+                break;
+            case "verify":
+                shardMigrationManager.startVerify();
+                break;
+            case "dual-write-on":
+                shardMigrationManager.setDualWriteEnabled(true);
+                break;
+            case "dual-write-off":
+                shardMigrationManager.setDualWriteEnabled(false);
+                break;
+            default:
+                throw new DaMaiFrameException(BaseCode.SHARD_MIGRATION_OPERATION_NOT_EXIST);
+        }
+        return shardMigrationManager.status();
+    }
+}
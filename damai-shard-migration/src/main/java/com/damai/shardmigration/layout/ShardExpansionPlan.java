@@ -0,0 +1,43 @@
+package com.damai.shardmigration.layout;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容计划
+ * @author: 阿星不是程序员
+ **/
+@Getter
+public class ShardExpansionPlan {
+    
+    private final ShardLayout source;
+    
+    private final ShardLayout target;
+    
+    /**
+     * 扩容后分表基因位数是否增加，增加时生成订单编号使用的表数量需要先改为扩容后的表数量，
+     * 在这之前生成的订单编号多出的基因位不是用户id的基因，这部分订单按用户id查询时会路由到别的表，回填前检查到时拒绝扩容
+     * */
+    private final boolean geneWidening;
+    
+    /**
+     * 扩容前实际有数据的节点，分库也由基因计算，所以扩容前的物理表不一定都有数据
+     * */
+    private final List<ShardMove> moves;
+    
+    public ShardExpansionPlan(ShardLayout source, ShardLayout target, List<ShardMove> moves) {
+        this.source = source;
+        this.target = target;
+        this.geneWidening = target.getGeneBits() > source.getGeneBits();
+        this.moves = moves;
+    }
+    
+    /**
+     * 生成订单编号时使用的表数量
+     * */
+    public int getOrderNumberTableCount() {
+        return target.getTableCount();
+    }
+}
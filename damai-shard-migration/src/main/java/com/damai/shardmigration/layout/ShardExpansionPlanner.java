@@ -0,0 +1,54 @@
+package com.damai.shardmigration.layout;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容规划
+ * 订单编号的低位是用户id的基因，扩容前基因为g的数据在扩容后的基因是 g + j * 扩容前表数量，
+ * 按扩容后的布局计算这些基因所在的节点，得到每个扩容前节点的数据会分布到哪些节点
+ * @author: 阿星不是程序员
+ **/
+public class ShardExpansionPlanner {
+    
+    private final ShardRouter shardRouter;
+    
+    public ShardExpansionPlanner(ShardRouter shardRouter) {
+        this.shardRouter = shardRouter;
+    }
+    
+    public ShardExpansionPlan plan(ShardLayout source, ShardLayout target) {
+        validate(source);
+        validate(target);
+        if (target.getDatabaseCount() < source.getDatabaseCount() || target.getTableCount() < source.getTableCount()) {
+            throw new DaMaiFrameException(BaseCode.SHARD_MIGRATION_LAYOUT_ERROR);
+        }
+        int widenFactor = target.getTableCount() / source.getTableCount();
+        List<ShardMove> moves = new ArrayList<>(source.getTableCount());
+        for (long gene = 0; gene < source.getTableCount(); gene++) {
+            ShardNode sourceNode = shardRouter.routeGene(source, gene);
+            Set<ShardNode> targetNodes = new LinkedHashSet<>();
+            for (long j = 0; j < widenFactor; j++) {
+                targetNodes.add(shardRouter.routeGene(target, gene + j * source.getTableCount()));
+            }
+            moves.add(new ShardMove(gene, sourceNode, new ArrayList<>(targetNodes)));
+        }
+        return new ShardExpansionPlan(source, target, moves);
+    }
+    
+    /**
+     * 分库和分表算法都用 (数量 - 1) & 值 取模，数量必须是2的幂，分表至少需要一位基因
+     * */
+    private void validate(ShardLayout layout) {
+        if (layout.getDatabaseCount() < 1 || Integer.bitCount(layout.getDatabaseCount()) != 1 ||
+                layout.getTableCount() < 2 || Integer.bitCount(layout.getTableCount()) != 1) {
+            throw new DaMaiFrameException(BaseCode.SHARD_MIGRATION_LAYOUT_ERROR);
+        }
+    }
+}
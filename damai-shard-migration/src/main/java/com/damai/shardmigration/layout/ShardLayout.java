@@ -0,0 +1,49 @@
+package com.damai.shardmigration.layout;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分库分表布局
+ * @author: 阿星不是程序员
+ **/
+@Getter
+public class ShardLayout {
+    
+    private final int databaseCount;
+    
+    private final int tableCount;
+    
+    public ShardLayout(int databaseCount, int tableCount) {
+        this.databaseCount = databaseCount;
+        this.tableCount = tableCount;
+    }
+    
+    /**
+     * 分表使用的基因位数
+     * */
+    public int getGeneBits() {
+        return Integer.numberOfTrailingZeros(tableCount);
+    }
+    
+    /**
+     * 布局中所有的物理节点
+     * */
+    public List<ShardNode> allNodes() {
+        List<ShardNode> nodes = new ArrayList<>(databaseCount * tableCount);
+        for (int databaseIndex = 0; databaseIndex < databaseCount; databaseIndex++) {
+            for (int tableIndex = 0; tableIndex < tableCount; tableIndex++) {
+                nodes.add(new ShardNode(databaseIndex, tableIndex));
+            }
+        }
+        return nodes;
+    }
+    
+    @Override
+    public String toString() {
+        return databaseCount + "x" + tableCount;
+    }
+}
@@ -0,0 +1,34 @@
+package com.damai.shardmigration.layout;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 一个扩容前节点的数据在扩容后可能分布到的节点
+ * @author: 阿星不是程序员
+ **/
+@Getter
+public class ShardMove {
+    
+    /**
+     * 扩容前节点中数据的基因
+     * */
+    private final long sourceGene;
+    
+    private final ShardNode sourceNode;
+    
+    private final List<ShardNode> targetNodes;
+    
+    public ShardMove(long sourceGene, ShardNode sourceNode, List<ShardNode> targetNodes) {
+        this.sourceGene = sourceGene;
+        this.sourceNode = sourceNode;
+        this.targetNodes = targetNodes;
+    }
+    
+    @Override
+    public String toString() {
+        return sourceNode + " -> " + targetNodes;
+    }
+}
@@ -0,0 +1,38 @@
+package com.damai.shardmigration.layout;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分库分表的物理节点，数据源名称和表名的规则和shardingsphere配置中的actualDataNodes一致
+ * @author: 阿星不是程序员
+ **/
+@Getter
+@EqualsAndHashCode
+public class ShardNode {
+    
+    private static final String DATA_SOURCE_PREFIX = "ds_";
+    
+    private final int databaseIndex;
+    
+    private final int tableIndex;
+    
+    public ShardNode(int databaseIndex, int tableIndex) {
+        this.databaseIndex = databaseIndex;
+        this.tableIndex = tableIndex;
+    }
+    
+    public String getDataSourceName() {
+        return DATA_SOURCE_PREFIX + databaseIndex;
+    }
+    
+    public String getTableName(String logicTable) {
+        return logicTable + "_" + tableIndex;
+    }
+    
+    @Override
+    public String toString() {
+        return getDataSourceName() + "." + tableIndex;
+    }
+}
@@ -0,0 +1,39 @@
+package com.damai.shardmigration.layout;
+
+import com.damai.shardingsphere.DatabaseOrderComplexGeneArithmetic;
+import com.damai.shardingsphere.TableOrderComplexGeneArithmetic;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 按订单分库分表算法计算分片键所在的物理节点
+ * @author: 阿星不是程序员
+ **/
+public class ShardRouter {
+    
+    /**
+     * 分库算法从分片键的二进制字符串末尾截取基因，只有基因时二进制字符串可能比基因位数短，
+     * 补上一个高位保证截取到的是完整的基因
+     * */
+    private static final long GENE_PROBE_HIGH_BIT = 1L << 62;
+    
+    private final DatabaseOrderComplexGeneArithmetic databaseOrderComplexGeneArithmetic = new DatabaseOrderComplexGeneArithmetic();
+    
+    private final TableOrderComplexGeneArithmetic tableOrderComplexGeneArithmetic = new TableOrderComplexGeneArithmetic();
+    
+    /**
+     * 分片键(订单编号或者用户id)所在的节点
+     * */
+    public ShardNode route(ShardLayout layout, long shardingValue) {
+        long databaseIndex = databaseOrderComplexGeneArithmetic.calculateDatabaseIndex(layout.getDatabaseCount(),
+                shardingValue, layout.getTableCount());
+        long tableIndex = tableOrderComplexGeneArithmetic.calculateTableIndex(layout.getTableCount(), shardingValue);
+        return new ShardNode((int)databaseIndex, (int)tableIndex);
+    }
+    
+    /**
+     * 基因所在的节点
+     * */
+    public ShardNode routeGene(ShardLayout layout, long gene) {
+        return route(layout, GENE_PROBE_HIGH_BIT | gene);
+    }
+}
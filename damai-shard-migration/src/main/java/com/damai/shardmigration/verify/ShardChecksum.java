@@ -0,0 +1,72 @@
+package com.damai.shardmigration.verify;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 一个节点的数据校验和，每行按列名排序后计算crc32，行之间用累加和异或合并，和行的读取顺序无关
+ * @author: 阿星不是程序员
+ **/
+@Getter
+public class ShardChecksum {
+    
+    private long count;
+    
+    private long sum;
+    
+    private long xor;
+    
+    public void add(Map<String, Object> row) {
+        CRC32 crc32 = new CRC32();
+        for (Map.Entry<String, Object> entry : new TreeMap<>(row).entrySet()) {
+            crc32.update(entry.getKey().toLowerCase().getBytes(StandardCharsets.UTF_8));
+            crc32.update('=');
+            crc32.update(normalize(entry.getValue()).getBytes(StandardCharsets.UTF_8));
+            crc32.update(';');
+        }
+        long value = crc32.getValue();
+        count++;
+        sum += value;
+        xor ^= value;
+    }
+    
+    /**
+     * 同一个值从不同的库读出时类型可能不同，统一转换成字符串
+     * */
+    private String normalize(Object value) {
+        if (Objects.isNull(value)) {
+            return "\0";
+        }
+        if (value instanceof Date) {
+            return String.valueOf(((Date)value).getTime());
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal)value).stripTrailingZeros().toPlainString();
+        }
+        if (value instanceof byte[]) {
+            return Arrays.toString((byte[])value);
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean)value) ? "1" : "0";
+        }
+        return String.valueOf(value);
+    }
+    
+    public boolean matches(ShardChecksum other) {
+        return count == other.count && sum == other.sum && xor == other.xor;
+    }
+    
+    @Override
+    public String toString() {
+        return count + ":" + Long.toHexString(sum) + ":" + Long.toHexString(xor);
+    }
+}
@@ -0,0 +1,29 @@
+package com.damai.shardmigration.verify;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 一张逻辑表的扩容路由检查结果
+ * @author: 阿星不是程序员
+ **/
+@Data
+public class ShardRoutingConflictResult {
+    
+    private String logicTable;
+    
+    private Long scannedCount = 0L;
+    
+    /**
+     * 订单编号和用户id在扩容后路由到不同节点的行数
+     * */
+    private Long conflictCount = 0L;
+    
+    /**
+     * 部分冲突的订单编号，用来排查
+     * */
+    private List<Long> sampleOrderNumbers = new ArrayList<>();
+}
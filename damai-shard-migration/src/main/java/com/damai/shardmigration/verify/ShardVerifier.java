@@ -0,0 +1,126 @@
+package com.damai.shardmigration.verify;
+
+import com.damai.shardmigration.ShardMigrationDataSources;
+import com.damai.shardmigration.ShardRowWriter;
+import com.damai.shardmigration.config.ShardMigrationProperties;
+import com.damai.shardmigration.layout.ShardExpansionPlan;
+import com.damai.shardmigration.layout.ShardMove;
+import com.damai.shardmigration.layout.ShardNode;
+import com.damai.shardmigration.layout.ShardRouter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import static com.damai.shardmigration.ShardMigrationConstant.ID_COLUMN;
+import static com.damai.shardmigration.ShardMigrationConstant.ORDER_NUMBER_COLUMN;
+import static com.damai.shardmigration.ShardMigrationConstant.USER_ID_COLUMN;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容 数据校验
+ * 扫描扩容前的所有节点，按订单编号计算每行在扩容后的节点并累加校验和，再扫描扩容后的每个节点计算实际的校验和进行比较。
+ * 校验时业务仍在写入，不一致的节点在双写开启的情况下重新校验，仍然不一致时用覆盖模式重新回填。
+ * 扩容基因位时，回填前先检查扩容前的数据中订单编号和用户id在扩容后是否路由到同一个节点
+ * @author: 阿星不是程序员
+ **/
+public class ShardVerifier {
+    
+    private static final int SAMPLE_SIZE = 20;
+    
+    private final ShardMigrationProperties shardMigrationProperties;
+    
+    private final ShardMigrationDataSources shardMigrationDataSources;
+    
+    private final ShardRouter shardRouter;
+    
+    public ShardVerifier(ShardMigrationProperties shardMigrationProperties,
+                         ShardMigrationDataSources shardMigrationDataSources,
+                         ShardRouter shardRouter) {
+        this.shardMigrationProperties = shardMigrationProperties;
+        this.shardMigrationDataSources = shardMigrationDataSources;
+        this.shardRouter = shardRouter;
+    }
+    
+    /**
+     * 检查订单编号和用户id在扩容后路由到的节点是否一致
+     * */
+    public ShardRoutingConflictResult precheck(ShardExpansionPlan plan, String logicTable) throws InterruptedException {
+        ShardRoutingConflictResult result = new ShardRoutingConflictResult();
+        result.setLogicTable(logicTable);
+        for (ShardMove move : plan.getMoves()) {
+            ShardNode sourceNode = move.getSourceNode();
+            scan(shardMigrationDataSources.getSource(sourceNode.getDataSourceName()), sourceNode.getTableName(logicTable), row -> {
+                result.setScannedCount(result.getScannedCount() + 1);
+                long orderNumber = ShardRowWriter.getLong(row, ORDER_NUMBER_COLUMN);
+                if (!Objects.equals(shardRouter.route(plan.getTarget(), orderNumber),
+                        shardRouter.route(plan.getTarget(), ShardRowWriter.getLong(row, USER_ID_COLUMN)))) {
+                    result.setConflictCount(result.getConflictCount() + 1);
+                    if (result.getSampleOrderNumbers().size() < SAMPLE_SIZE) {
+                        result.getSampleOrderNumbers().add(orderNumber);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+    
+    public List<ShardVerifyResult> verify(ShardExpansionPlan plan, String logicTable) throws InterruptedException {
+        Map<ShardNode, ShardChecksum> expectedChecksumMap = new HashMap<>(64);
+        for (ShardMove move : plan.getMoves()) {
+            ShardNode sourceNode = move.getSourceNode();
+            scan(shardMigrationDataSources.getSource(sourceNode.getDataSourceName()), sourceNode.getTableName(logicTable), row -> {
+                ShardNode targetNode = shardRouter.route(plan.getTarget(), ShardRowWriter.getLong(row, ORDER_NUMBER_COLUMN));
+                expectedChecksumMap.computeIfAbsent(targetNode, k -> new ShardChecksum()).add(row);
+            });
+        }
+        List<ShardVerifyResult> results = new ArrayList<>();
+        for (ShardNode targetNode : plan.getTarget().allNodes()) {
+            ShardChecksum actualChecksum = new ShardChecksum();
+            long[] misplacedCount = new long[1];
+            scan(shardMigrationDataSources.getTarget(targetNode.getDataSourceName()), targetNode.getTableName(logicTable), row -> {
+                actualChecksum.add(row);
+                if (!Objects.equals(targetNode, shardRouter.route(plan.getTarget(), ShardRowWriter.getLong(row, ORDER_NUMBER_COLUMN))) ||
+                        !Objects.equals(targetNode, shardRouter.route(plan.getTarget(), ShardRowWriter.getLong(row, USER_ID_COLUMN)))) {
+                    misplacedCount[0]++;
+                }
+            });
+            ShardChecksum expectedChecksum = expectedChecksumMap.getOrDefault(targetNode, new ShardChecksum());
+            ShardVerifyResult result = new ShardVerifyResult();
+            result.setLogicTable(logicTable);
+            result.setTargetNode(targetNode.toString());
+            result.setExpectedCount(expectedChecksum.getCount());
+            result.setExpectedChecksum(expectedChecksum.toString());
+            result.setActualCount(actualChecksum.getCount());
+            result.setActualChecksum(actualChecksum.toString());
+            result.setMisplacedCount(misplacedCount[0]);
+            result.setMatch(expectedChecksum.matches(actualChecksum) && misplacedCount[0] == 0);
+            results.add(result);
+        }
+        return results;
+    }
+    
+    private void scan(JdbcTemplate jdbcTemplate, String tableName, Consumer<Map<String, Object>> consumer)
+            throws InterruptedException {
+        String selectSql = "select * from " + tableName + " where " + ID_COLUMN + " > ? order by " + ID_COLUMN + " limit ?";
+        int batchSize = shardMigrationProperties.getBatchSize();
+        long lastId = 0L;
+        List<Map<String, Object>> rows;
+        do {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("shard verify interrupted");
+            }
+            rows = jdbcTemplate.queryForList(selectSql, lastId, batchSize);
+            for (Map<String, Object> row : rows) {
+                consumer.accept(row);
+            }
+            if (!rows.isEmpty()) {
+                lastId = ShardRowWriter.getLong(rows.get(rows.size() - 1), ID_COLUMN);
+            }
+        } while (rows.size() >= batchSize);
+    }
+}
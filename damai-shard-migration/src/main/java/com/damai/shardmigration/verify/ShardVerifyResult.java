@@ -0,0 +1,37 @@
+package com.damai.shardmigration.verify;
+
+import lombok.Data;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 扩容后一个节点的校验结果
+ * @author: 阿星不是程序员
+ **/
+@Data
+public class ShardVerifyResult {
+    
+    private String logicTable;
+    
+    private String targetNode;
+    
+    /**
+     * 按扩容前的数据计算出应该在该节点的行数和校验和
+     * */
+    private Long expectedCount;
+    
+    private String expectedChecksum;
+    
+    /**
+     * 该节点实际的行数和校验和
+     * */
+    private Long actualCount;
+    
+    private String actualChecksum;
+    
+    /**
+     * 该节点中订单编号或者用户id不属于该节点的行数
+     * */
+    private Long misplacedCount;
+    
+    private Boolean match;
+}
@@ -0,0 +1,169 @@
+package com.damai.shardmigration;
+
+import com.damai.shardmigration.backfill.ShardCheckpointStore;
+import com.damai.shardmigration.config.ShardMigrationProperties;
+import com.damai.shardmigration.layout.ShardLayout;
+import com.damai.shardmigration.layout.ShardNode;
+import com.damai.shardmigration.layout.ShardRouter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 分片扩容测试使用的内存数据库，扩容前后的每个库都是一个H2(MySQL模式)库，按布局建好订单表和回填进度表
+ * @author: 阿星不是程序员
+ **/
+public class ShardMigrationTestDatabase implements AutoCloseable {
+    
+    public static final String ORDER_TABLE = "d_order";
+    
+    public static final String TICKET_USER_TABLE = "d_order_ticket_user";
+    
+    public static final int TICKET_USER_SIZE = 2;
+    
+    private final ShardMigrationProperties shardMigrationProperties;
+    
+    private final ShardMigrationDataSources shardMigrationDataSources;
+    
+    private final ShardRouter shardRouter = new ShardRouter();
+    
+    private final AtomicLong idGenerator = new AtomicLong();
+    
+    public ShardMigrationTestDatabase(ShardLayout source, ShardLayout target) {
+        String name = "shard_" + UUID.randomUUID().toString().replace("-", "");
+        shardMigrationProperties = new ShardMigrationProperties();
+        shardMigrationProperties.setSource(new ShardMigrationProperties.LayoutProperties(source.getDatabaseCount(), source.getTableCount()));
+        shardMigrationProperties.setTarget(new ShardMigrationProperties.LayoutProperties(target.getDatabaseCount(), target.getTableCount()));
+        shardMigrationProperties.setLogicTables(new ArrayList<>(List.of(ORDER_TABLE, TICKET_USER_TABLE)));
+        //小批量保证回填和校验会经过多个批次
+        shardMigrationProperties.setBatchSize(7);
+        for (int i = 0; i < source.getDatabaseCount(); i++) {
+            shardMigrationProperties.getSourceDataSources().put("ds_" + i, dataSourceProperties(name + "_source_" + i));
+        }
+        for (int i = 0; i < target.getDatabaseCount(); i++) {
+            shardMigrationProperties.getTargetDataSources().put("ds_" + i, dataSourceProperties(name + "_target_" + i));
+        }
+        shardMigrationDataSources = new ShardMigrationDataSources(shardMigrationProperties);
+        createTables(source, true);
+        createTables(target, false);
+        shardMigrationDataSources.getTarget(shardMigrationProperties.getCheckpointDataSourceName()).execute(
+                "create table d_shard_migration_checkpoint (id bigint auto_increment primary key, " +
+                        "logic_table varchar(64) not null, source_node varchar(128) not null, last_id bigint not null default 0, " +
+                        "copied_count bigint not null default 0, conflict_count bigint not null default 0, " +
+                        "finished tinyint not null default 0, create_time datetime, edit_time datetime, " +
+                        "unique (logic_table, source_node))");
+    }
+    
+    /**
+     * 订单编号的低位基因取用户id的低位
+     * */
+    public static long orderNumber(long sequence, long userId, int geneBits) {
+        return (sequence << geneBits) | (userId & ((1L << geneBits) - 1));
+    }
+    
+    /**
+     * 按扩容前的布局插入一个订单和它的购票人订单
+     * */
+    public void insertOrder(long orderNumber, long userId, int orderStatus) {
+        ShardNode sourceNode = shardRouter.route(getSource(), orderNumber);
+        JdbcTemplate jdbcTemplate = shardMigrationDataSources.getSource(sourceNode.getDataSourceName());
+        jdbcTemplate.update("insert into " + sourceNode.getTableName(ORDER_TABLE) +
+                        " (id, order_number, user_id, order_status) values (?, ?, ?, ?)",
+                idGenerator.incrementAndGet(), orderNumber, userId, orderStatus);
+        for (int i = 0; i < TICKET_USER_SIZE; i++) {
+            jdbcTemplate.update("insert into " + sourceNode.getTableName(TICKET_USER_TABLE) +
+                            " (id, order_number, user_id, order_status) values (?, ?, ?, ?)",
+                    idGenerator.incrementAndGet(), orderNumber, userId, orderStatus);
+        }
+    }
+    
+    /**
+     * 只修改扩容前的数据，模拟没有双写的修改
+     * */
+    public void updateSourceOrderStatus(long orderNumber, int orderStatus) {
+        ShardNode sourceNode = shardRouter.route(getSource(), orderNumber);
+        JdbcTemplate jdbcTemplate = shardMigrationDataSources.getSource(sourceNode.getDataSourceName());
+        for (String logicTable : shardMigrationProperties.getLogicTables()) {
+            jdbcTemplate.update("update " + sourceNode.getTableName(logicTable) + " set order_status = ? where order_number = ?",
+                    orderStatus, orderNumber);
+        }
+    }
+    
+    public List<Map<String, Object>> sourceRows(String logicTable, long orderNumber) {
+        ShardNode sourceNode = shardRouter.route(getSource(), orderNumber);
+        return shardMigrationDataSources.getSource(sourceNode.getDataSourceName()).queryForList(
+                "select * from " + sourceNode.getTableName(logicTable) + " where order_number = ? order by id", orderNumber);
+    }
+    
+    public List<Map<String, Object>> targetRows(String logicTable, long orderNumber) {
+        ShardNode targetNode = shardRouter.route(getTarget(), orderNumber);
+        return shardMigrationDataSources.getTarget(targetNode.getDataSourceName()).queryForList(
+                "select * from " + targetNode.getTableName(logicTable) + " where order_number = ? order by id", orderNumber);
+    }
+    
+    public long targetCount(String logicTable) {
+        long count = 0;
+        for (ShardNode targetNode : getTarget().allNodes()) {
+            Long nodeCount = shardMigrationDataSources.getTarget(targetNode.getDataSourceName()).queryForObject(
+                    "select count(*) from " + targetNode.getTableName(logicTable), Long.class);
+            count += nodeCount == null ? 0 : nodeCount;
+        }
+        return count;
+    }
+    
+    public ShardCheckpointStore createCheckpointStore() {
+        return new ShardCheckpointStore(shardMigrationDataSources.getTarget(shardMigrationProperties.getCheckpointDataSourceName()));
+    }
+    
+    public ShardLayout getSource() {
+        return shardMigrationProperties.getSource().toShardLayout();
+    }
+    
+    public ShardLayout getTarget() {
+        return shardMigrationProperties.getTarget().toShardLayout();
+    }
+    
+    public ShardMigrationProperties getShardMigrationProperties() {
+        return shardMigrationProperties;
+    }
+    
+    public ShardMigrationDataSources getShardMigrationDataSources() {
+        return shardMigrationDataSources;
+    }
+    
+    public ShardRouter getShardRouter() {
+        return shardRouter;
+    }
+    
+    private void createTables(ShardLayout layout, boolean source) {
+        for (ShardNode node : layout.allNodes()) {
+            JdbcTemplate jdbcTemplate = source ? shardMigrationDataSources.getSource(node.getDataSourceName()) :
+                    shardMigrationDataSources.getTarget(node.getDataSourceName());
+            for (String logicTable : shardMigrationProperties.getLogicTables()) {
+                jdbcTemplate.execute("create table " + node.getTableName(logicTable) + " (id bigint primary key, " +
+                        "order_number bigint not null, user_id bigint not null, order_status int not null, edit_time datetime)");
+            }
+        }
+    }
+    
+    private ShardMigrationProperties.DataSourceProperties dataSourceProperties(String databaseName) {
+        ShardMigrationProperties.DataSourceProperties dataSourceProperties = new ShardMigrationProperties.DataSourceProperties();
+        dataSourceProperties.setDriverClassName("org.h2.Driver");
+        dataSourceProperties.setJdbcUrl("jdbc:h2:mem:" + databaseName + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        dataSourceProperties.setUsername("sa");
+        dataSourceProperties.setPassword("");
+        return dataSourceProperties;
+    }
+    
+    @Override
+    public void close() {
+        shardMigrationProperties.getSourceDataSources().keySet().forEach(name -> shardMigrationDataSources.getSource(name).execute("shutdown"));
+        shardMigrationProperties.getTargetDataSources().keySet().forEach(name -> shardMigrationDataSources.getTarget(name).execute("shutdown"));
+        shardMigrationDataSources.destroy();
+    }
+}
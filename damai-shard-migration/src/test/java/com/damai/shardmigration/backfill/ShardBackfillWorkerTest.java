@@ -0,0 +1,174 @@
+package com.damai.shardmigration.backfill;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.shardmigration.ShardMigrationTestDatabase;
+import com.damai.shardmigration.dualwrite.ShardDualWriter;
+import com.damai.shardmigration.dualwrite.ShardRowCopier;
+import com.damai.shardmigration.layout.ShardExpansionPlan;
+import com.damai.shardmigration.layout.ShardExpansionPlanner;
+import com.damai.shardmigration.layout.ShardLayout;
+import com.damai.shardmigration.verify.ShardRoutingConflictResult;
+import com.damai.shardmigration.verify.ShardVerifier;
+import com.damai.shardmigration.verify.ShardVerifyResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.damai.shardmigration.ShardMigrationTestDatabase.ORDER_TABLE;
+import static com.damai.shardmigration.ShardMigrationTestDatabase.TICKET_USER_SIZE;
+import static com.damai.shardmigration.ShardMigrationTestDatabase.TICKET_USER_TABLE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 回填和校验在内存数据库上的测试，包括只扩容分库、覆盖回填和基因扩容时的路由冲突
+ * @author: 阿星不是程序员
+ **/
+public class ShardBackfillWorkerTest {
+    
+    private static final int ORDER_SIZE = 60;
+    
+    private static final long USER_ID_BASE = 1_000_000L;
+    
+    private static final long SEQUENCE_BASE = 1L << 30;
+    
+    private ShardMigrationTestDatabase database;
+    
+    private ShardDualWriter shardDualWriter;
+    
+    @AfterEach
+    public void tearDown() {
+        if (shardDualWriter != null) {
+            shardDualWriter.destroy();
+        }
+        database.close();
+    }
+    
+    @Test
+    public void backfillThenVerifyMatches() throws InterruptedException {
+        init(new ShardLayout(2, 4), new ShardLayout(4, 4));
+        List<Long> orderNumbers = insertOrders(database.getSource().getGeneBits());
+        ShardExpansionPlan plan = plan();
+        assertFalse(plan.isGeneWidening());
+        ShardBackfillWorker worker = createWorker();
+        worker.backfill(plan, ORDER_TABLE, false);
+        worker.backfill(plan, TICKET_USER_TABLE, false);
+        
+        assertEquals(ORDER_SIZE, database.targetCount(ORDER_TABLE));
+        assertEquals(ORDER_SIZE * TICKET_USER_SIZE, database.targetCount(TICKET_USER_TABLE));
+        for (Long orderNumber : orderNumbers) {
+            assertEquals(database.sourceRows(ORDER_TABLE, orderNumber), database.targetRows(ORDER_TABLE, orderNumber));
+        }
+        assertAllMatch(plan);
+        List<ShardCheckpoint> checkpoints = database.createCheckpointStore().loadAll();
+        assertTrue(checkpoints.stream().allMatch(ShardCheckpoint::getFinished));
+        assertEquals(ORDER_SIZE * (1 + TICKET_USER_SIZE),
+                checkpoints.stream().mapToLong(ShardCheckpoint::getCopiedCount).sum());
+        //再次执行时从进度继续，不会重复写入
+        worker.backfill(plan, ORDER_TABLE, false);
+        assertEquals(ORDER_SIZE, database.targetCount(ORDER_TABLE));
+    }
+    
+    @Test
+    public void overwriteBackfillRepairsStaleRows() throws InterruptedException {
+        init(new ShardLayout(2, 4), new ShardLayout(4, 4));
+        List<Long> orderNumbers = insertOrders(database.getSource().getGeneBits());
+        ShardExpansionPlan plan = plan();
+        ShardBackfillWorker worker = createWorker();
+        worker.backfill(plan, ORDER_TABLE, false);
+        worker.backfill(plan, TICKET_USER_TABLE, false);
+        //没有经过双写的修改，校验发现不一致
+        database.updateSourceOrderStatus(orderNumbers.get(0), 9);
+        ShardVerifier verifier = createVerifier();
+        assertTrue(verifier.verify(plan, ORDER_TABLE).stream().anyMatch(result -> !result.getMatch()));
+        
+        worker.backfill(plan, ORDER_TABLE, true);
+        worker.backfill(plan, TICKET_USER_TABLE, true);
+        assertAllMatch(plan);
+        assertEquals(database.sourceRows(TICKET_USER_TABLE, orderNumbers.get(0)),
+                database.targetRows(TICKET_USER_TABLE, orderNumbers.get(0)));
+    }
+    
+    @Test
+    public void geneWideningWithHistoricOrdersIsRefused() throws InterruptedException {
+        init(new ShardLayout(2, 4), new ShardLayout(2, 8));
+        //扩容前生成的订单编号只带有2位基因，第3位和用户id不一致
+        insertOrders(database.getSource().getGeneBits());
+        ShardExpansionPlan plan = plan();
+        assertTrue(plan.isGeneWidening());
+        
+        ShardRoutingConflictResult precheckResult = createVerifier().precheck(plan, ORDER_TABLE);
+        assertEquals(ORDER_SIZE, precheckResult.getScannedCount());
+        assertTrue(precheckResult.getConflictCount() > 0);
+        assertFalse(precheckResult.getSampleOrderNumbers().isEmpty());
+        
+        DaMaiFrameException exception = assertThrows(DaMaiFrameException.class,
+                () -> createWorker().backfill(plan, ORDER_TABLE, false));
+        assertEquals(BaseCode.SHARD_MIGRATION_ROUTING_CONFLICT.getCode(), exception.getCode());
+        //冲突的行不会写入扩容后的布局
+        for (ShardVerifyResult result : createVerifier().verify(plan, ORDER_TABLE)) {
+            assertEquals(0L, result.getMisplacedCount());
+        }
+        assertTrue(database.createCheckpointStore().loadAll().stream().anyMatch(checkpoint -> checkpoint.getConflictCount() > 0));
+    }
+    
+    @Test
+    public void geneWideningWithWidenedOrdersIsAllowed() throws InterruptedException {
+        init(new ShardLayout(2, 4), new ShardLayout(2, 8));
+        //先把生成订单编号使用的表数量改为扩容后的数量，之后生成的订单编号带有3位用户id基因
+        insertOrders(database.getTarget().getGeneBits());
+        ShardExpansionPlan plan = plan();
+        assertEquals(0L, createVerifier().precheck(plan, ORDER_TABLE).getConflictCount());
+        ShardBackfillWorker worker = createWorker();
+        worker.backfill(plan, ORDER_TABLE, false);
+        worker.backfill(plan, TICKET_USER_TABLE, false);
+        assertAllMatch(plan);
+    }
+    
+    private void init(ShardLayout source, ShardLayout target) {
+        database = new ShardMigrationTestDatabase(source, target);
+        shardDualWriter = new ShardDualWriter(new ShardRowCopier(database.getShardMigrationDataSources(),
+                database.getShardRouter(), source, target), 4, 60_000);
+    }
+    
+    private List<Long> insertOrders(int geneBits) {
+        List<Long> orderNumbers = new ArrayList<>(ORDER_SIZE);
+        for (int i = 0; i < ORDER_SIZE; i++) {
+            long userId = USER_ID_BASE + i % 17;
+            long orderNumber = ShardMigrationTestDatabase.orderNumber(SEQUENCE_BASE + i, userId, geneBits);
+            database.insertOrder(orderNumber, userId, 1);
+            orderNumbers.add(orderNumber);
+        }
+        return orderNumbers;
+    }
+    
+    private ShardExpansionPlan plan() {
+        return new ShardExpansionPlanner(database.getShardRouter()).plan(database.getSource(), database.getTarget());
+    }
+    
+    private ShardBackfillWorker createWorker() {
+        return new ShardBackfillWorker(database.getShardMigrationProperties(), database.getShardMigrationDataSources(),
+                database.createCheckpointStore(), database.getShardRouter(), shardDualWriter);
+    }
+    
+    private ShardVerifier createVerifier() {
+        return new ShardVerifier(database.getShardMigrationProperties(), database.getShardMigrationDataSources(),
+                database.getShardRouter());
+    }
+    
+    private void assertAllMatch(ShardExpansionPlan plan) throws InterruptedException {
+        ShardVerifier verifier = createVerifier();
+        for (String logicTable : List.of(ORDER_TABLE, TICKET_USER_TABLE)) {
+            for (ShardVerifyResult result : verifier.verify(plan, logicTable)) {
+                assertTrue(result.getMatch(), result.toString());
+                assertEquals(0L, result.getMisplacedCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.damai.shardmigration.dualwrite;
+
+import com.damai.shardmigration.ShardMigrationDataSources;
+import com.damai.shardmigration.ShardMigrationTestDatabase;
+import com.damai.shardmigration.layout.ShardLayout;
+import com.damai.shardmigration.layout.ShardNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.damai.shardmigration.ShardMigrationTestDatabase.ORDER_TABLE;
+import static com.damai.shardmigration.ShardMigrationTestDatabase.TICKET_USER_TABLE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 双写器在内存数据库上的测试，多个线程并发修改同一批订单并且乱序提交双写，最终扩容后的数据和扩容前一致；
+ * 两个服务实例的双写器复制同一个订单编号时，先读取到旧数据的复制不会覆盖后读取到的新数据；
+ * 复制失败的订单编号在恢复后重新复制
+ * @author: 阿星不是程序员
+ **/
+public class ShardDualWriterTest {
+    
+    private static final int ORDER_SIZE = 8;
+    
+    private static final int THREAD_SIZE = 8;
+    
+    private static final int UPDATE_SIZE_PER_THREAD = 40;
+    
+    private ShardMigrationTestDatabase database;
+    
+    private ShardDualWriter shardDualWriter;
+    
+    private final List<Long> orderNumbers = new ArrayList<>();
+    
+    @BeforeEach
+    public void setUp() {
+        ShardLayout source = new ShardLayout(2, 4);
+        ShardLayout target = new ShardLayout(4, 4);
+        database = new ShardMigrationTestDatabase(source, target);
+        shardDualWriter = new ShardDualWriter(new ShardRowCopier(database.getShardMigrationDataSources(),
+                database.getShardRouter(), source, target), 4, 60_000);
+        for (int i = 0; i < ORDER_SIZE; i++) {
+            long userId = 1_000_000L + i;
+            long orderNumber = ShardMigrationTestDatabase.orderNumber((1L << 30) + i, userId, source.getGeneBits());
+            database.insertOrder(orderNumber, userId, 1);
+            orderNumbers.add(orderNumber);
+        }
+    }
+    
+    @AfterEach
+    public void tearDown() {
+        shardDualWriter.destroy();
+        database.close();
+    }
+    
+    @Test
+    public void outOfOrderCopiesConverge() throws InterruptedException {
+        ConcurrentLinkedQueue<CompletableFuture<Boolean>> futures = new ConcurrentLinkedQueue<>();
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch finishLatch = new CountDownLatch(THREAD_SIZE);
+        for (int i = 0; i < THREAD_SIZE; i++) {
+            new Thread(() -> {
+                try {
+                    startLatch.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int j = 0; j < UPDATE_SIZE_PER_THREAD; j++) {
+                        long orderNumber = orderNumbers.get(random.nextInt(ORDER_SIZE));
+                        database.updateSourceOrderStatus(orderNumber, random.nextInt(1000));
+                        //提交后到双写之间的延迟不同，双写的顺序和提交的顺序不一致
+                        Thread.sleep(random.nextInt(3));
+                        futures.add(shardDualWriter.submit(ORDER_TABLE, orderNumber));
+                        futures.add(shardDualWriter.submit(TICKET_USER_TABLE, orderNumber));
+                    }
+                }catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }finally {
+                    finishLatch.countDown();
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        finishLatch.await();
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.join());
+        }
+        for (Long orderNumber : orderNumbers) {
+            assertEquals(database.sourceRows(ORDER_TABLE, orderNumber), database.targetRows(ORDER_TABLE, orderNumber));
+            assertEquals(database.sourceRows(TICKET_USER_TABLE, orderNumber), database.targetRows(TICKET_USER_TABLE, orderNumber));
+        }
+        assertEquals(0, shardDualWriter.getFailureCount());
+        assertEquals((long)THREAD_SIZE * UPDATE_SIZE_PER_THREAD * 2, shardDualWriter.getWriteCount());
+    }
+    
+    @Test
+    public void copiesFromTwoInstancesDoNotOverwriteNewerData() throws InterruptedException {
+        long orderNumber = orderNumbers.get(0);
+        assertTrue(shardDualWriter.submit(ORDER_TABLE, orderNumber).join());
+        //另一个服务实例的双写器，读取扩容前的数据后暂停
+        CountDownLatch readLatch = new CountDownLatch(1);
+        CountDownLatch resumeLatch = new CountDownLatch(1);
+        ShardMigrationDataSources pausedDataSources = Mockito.spy(database.getShardMigrationDataSources());
+        String sourceDataSourceName = database.getShardRouter().route(database.getSource(), orderNumber).getDataSourceName();
+        JdbcTemplate sourceJdbcTemplate = database.getShardMigrationDataSources().getSource(sourceDataSourceName);
+        Mockito.doReturn(new JdbcTemplate(sourceJdbcTemplate.getDataSource()) {
+            @Override
+            public List<Map<String, Object>> queryForList(String sql, Object... args) {
+                List<Map<String, Object>> rows = super.queryForList(sql, args);
+                readLatch.countDown();
+                try {
+                    resumeLatch.await();
+                }catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return rows;
+            }
+        }).when(pausedDataSources).getSource(sourceDataSourceName);
+        ShardDualWriter otherInstanceDualWriter = new ShardDualWriter(new ShardRowCopier(pausedDataSources,
+                database.getShardRouter(), database.getSource(), database.getTarget()), 4, 60_000);
+        try {
+            database.updateSourceOrderStatus(orderNumber, 2);
+            CompletableFuture<Boolean> staleCopy = otherInstanceDualWriter.submit(ORDER_TABLE, orderNumber);
+            assertTrue(readLatch.await(5, TimeUnit.SECONDS));
+            
+            //暂停的复制读到的是2，之后订单又修改为3，本实例复制
+            database.updateSourceOrderStatus(orderNumber, 3);
+            CompletableFuture<Boolean> newCopy = shardDualWriter.submit(ORDER_TABLE, orderNumber);
+            Thread.sleep(300);
+            //暂停的复制持有扩容后的行锁，后面的复制等待它提交后才读取
+            assertFalse(newCopy.isDone());
+            resumeLatch.countDown();
+            
+            assertTrue(staleCopy.join());
+            assertTrue(newCopy.join());
+            List<Map<String, Object>> targetRows = database.targetRows(ORDER_TABLE, orderNumber);
+            assertEquals(1, targetRows.size());
+            assertEquals(3, ((Number)targetRows.get(0).get("order_status")).intValue());
+        }finally {
+            resumeLatch.countDown();
+            otherInstanceDualWriter.destroy();
+        }
+    }
+    
+    @Test
+    public void failedCopyIsRetried() throws InterruptedException {
+        long orderNumber = orderNumbers.get(0);
+        ShardNode targetNode = database.getShardRouter().route(database.getTarget(), orderNumber);
+        JdbcTemplate targetJdbcTemplate = database.getShardMigrationDataSources().getTarget(targetNode.getDataSourceName());
+        String tableName = targetNode.getTableName(ORDER_TABLE);
+        //扩容后的表暂时不可用
+        targetJdbcTemplate.execute("alter table " + tableName + " rename to " + tableName + "_unavailable");
+        database.updateSourceOrderStatus(orderNumber, 2);
+        
+        assertFalse(shardDualWriter.submit(ORDER_TABLE, orderNumber).join());
+        assertEquals(1, shardDualWriter.getFailureCount());
+        assertEquals(1, shardDualWriter.getPendingRetryCount());
+        assertEquals(0, shardDualWriter.getWriteCount());
+        
+        targetJdbcTemplate.execute("alter table " + tableName + "_unavailable rename to " + tableName);
+        shardDualWriter.retryFailed();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (shardDualWriter.getWriteCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, shardDualWriter.getWriteCount());
+        assertEquals(0, shardDualWriter.getPendingRetryCount());
+        assertEquals(database.sourceRows(ORDER_TABLE, orderNumber), database.targetRows(ORDER_TABLE, orderNumber));
+    }
+}
@@ -0,0 +1,104 @@
+package com.damai.shardmigration.dualwrite;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 从mybatis-plus生成的订单表语句中取订单编号的测试
+ * @author: 阿星不是程序员
+ **/
+public class ShardKeyExtractorTest {
+    
+    private final ShardKeyExtractor shardKeyExtractor = new ShardKeyExtractor("order_number");
+    
+    @Test
+    public void extractFromInsert() {
+        String sql = "INSERT INTO d_order  ( id, order_number, program_id, user_id )  VALUES  ( ?, ?, ?, ? )";
+        assertEquals(Set.of(11L), shardKeyExtractor.extract(sql, List.of(1L, 11L, 100L, 7L)));
+    }
+    
+    @Test
+    public void extractFromMultiRowInsert() {
+        String sql = "insert into d_order_ticket_user (`id`, `order_number`, `user_id`) values (?, ?, ?), (?, ?, ?)";
+        assertEquals(Set.of(11L, 12L), shardKeyExtractor.extract(sql, List.of(1L, 11L, 7L, 2L, "12", 7L)));
+    }
+    
+    @Test
+    public void insertWithLiteralIsUnresolved() {
+        String sql = "insert into d_order (id, order_number, user_id) values (?, 11, ?)";
+        assertTrue(shardKeyExtractor.extract(sql, List.of(1L, 7L)).isEmpty());
+    }
+    
+    @Test
+    public void extractFromUpdate() {
+        String sql = "UPDATE d_order  SET order_status=?, edit_time=?  WHERE  (order_number = ? AND user_id = ?)";
+        assertEquals(Set.of(11L), shardKeyExtractor.extract(sql, Arrays.asList(2, null, 11L, 7L)));
+    }
+    
+    @Test
+    public void extractFromUpdateWithAliasAndIn() {
+        String sql = "update d_order_ticket_user t set t.order_status = ? where t.`order_number` in ( ?, ? ) and t.user_id = ?";
+        assertEquals(Set.of(11L, 12L), shardKeyExtractor.extract(sql, List.of(2, 11L, 12L, 7L)));
+    }
+    
+    @Test
+    public void setClauseIsNotKey() {
+        String sql = "update d_order set order_number = ? where id = ?";
+        assertTrue(shardKeyExtractor.extract(sql, List.of(11L, 1L)).isEmpty());
+    }
+    
+    @Test
+    public void similarColumnIsNotKey() {
+        String sql = "delete from d_order where out_order_number = ?";
+        assertTrue(shardKeyExtractor.extract(sql, List.of(11L)).isEmpty());
+    }
+    
+    @Test
+    public void extractFromMultiRowInsertWithKeyLast() {
+        String sql = "INSERT INTO d_order_ticket_user (`id`, `user_id`, `order_number`)\n VALUES (?, ?, ?),\n (?, ?, ?),\n (?, ?, ?)";
+        assertEquals(Set.of(11L, 12L), shardKeyExtractor.extract(sql, List.of(1L, 7L, 11L, 2L, 7L, 11L, 3L, 7L, 12L)));
+    }
+    
+    @Test
+    public void multiRowInsertWithLiteralInLaterRowIsUnresolved() {
+        String sql = "insert into d_order_ticket_user (id, order_number, user_id) values (?, ?, ?), (?, 12, ?)";
+        assertTrue(shardKeyExtractor.extract(sql, List.of(1L, 11L, 7L, 2L, 7L)).isEmpty());
+    }
+    
+    @Test
+    public void extractFromAliasedUpdateWithIn() {
+        String sql = "UPDATE d_order AS o SET o.order_status = ?, o.edit_time = ? WHERE o.user_id = ? AND o.order_number IN (?, ?, ?)";
+        assertEquals(Set.of(11L, 12L, 13L), shardKeyExtractor.extract(sql, Arrays.asList(2, null, 7L, 11L, 12L, 13L)));
+    }
+    
+    @Test
+    public void extractFromBacktickAlias() {
+        String sql = "update d_order_ticket_user `t` set `t`.`order_status` = ? where `t`.`order_number` = ? and `t`.`status` = ?";
+        assertEquals(Set.of(11L), shardKeyExtractor.extract(sql, List.of(2, 11L, 1)));
+    }
+    
+    @Test
+    public void extractFromDeleteWithInAcrossLines() {
+        String sql = "DELETE FROM d_order_ticket_user WHERE status = ? AND order_number IN\n (\n ?,\n ?\n )";
+        assertEquals(Set.of(11L, 12L), shardKeyExtractor.extract(sql, List.of(1, 11L, 12L)));
+    }
+    
+    @Test
+    public void extractFromEqualAndInTogether() {
+        String sql = "update d_order set order_status = ? where (order_number = ? or order_number in (?, ?)) and user_id = ?";
+        assertEquals(Set.of(11L, 12L, 13L), shardKeyExtractor.extract(sql, List.of(2, 11L, 12L, 13L, 7L)));
+    }
+    
+    @Test
+    public void aliasedSimilarColumnIsNotKey() {
+        String sql = "update d_order o set o.order_status = ? where o.out_order_number in (?, ?)";
+        assertTrue(shardKeyExtractor.extract(sql, List.of(2, 11L, 12L)).isEmpty());
+    }
+}
@@ -0,0 +1,104 @@
+package com.damai.shardingsphere;
+
+import org.apache.shardingsphere.infra.hint.HintManager;
+import org.apache.shardingsphere.sharding.api.sharding.complex.ComplexKeysShardingValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 订单分库分表路由的压测，每次调用分库和分表算法各一次，分片配置和线上相同(2个库，每个库4张表)，
+ * source 为分片值的来源：sql 只有sql中的订单编号，hint 只有路由提示，sqlAndHint 两者都有(需要检查是否一致)
+ * @author: 阿星不是程序员
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderShardRoutingBenchmark {
+    
+    private static final String LOGIC_TABLE = "d_order";
+    
+    private static final List<String> DATABASE_NAMES = List.of("ds_0", "ds_1");
+    
+    private static final List<String> TABLE_NAMES = List.of("d_order_0", "d_order_1", "d_order_2", "d_order_3");
+    
+    private static final int KEY_COUNT = 1024;
+    
+    @Param({"sql", "hint", "sqlAndHint"})
+    public String source;
+    
+    private DatabaseOrderComplexGeneArithmetic databaseArithmetic;
+    
+    private TableOrderComplexGeneArithmetic tableArithmetic;
+    
+    private ComplexKeysShardingValue<Long>[] shardingValues;
+    
+    private HintManager hintManager;
+    
+    private int index;
+    
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        Properties databaseProps = new Properties();
+        databaseProps.setProperty("sharding-count", "2");
+        databaseProps.setProperty("table-sharding-count", "4");
+        databaseArithmetic = new DatabaseOrderComplexGeneArithmetic();
+        databaseArithmetic.init(databaseProps);
+        Properties tableProps = new Properties();
+        tableProps.setProperty("sharding-count", "4");
+        tableArithmetic = new TableOrderComplexGeneArithmetic();
+        tableArithmetic.init(tableProps);
+        Random random = new Random(20240601L);
+        //提示和sql中的订单编号基因相同，路由到同一张表
+        long gene = 0b10L;
+        shardingValues = new ComplexKeysShardingValue[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            long orderNumber = ((random.nextLong() >>> 3) << 2) | gene;
+            Map<String, Collection<Long>> values = "hint".equals(source) ? Collections.emptyMap() :
+                    Collections.singletonMap("order_number", List.of(orderNumber));
+            shardingValues[i] = new ComplexKeysShardingValue<>(LOGIC_TABLE, values, Collections.emptyMap());
+        }
+        if (!"sql".equals(source)) {
+            hintManager = OrderShardHint.route((1L << 20) | gene);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (Objects.nonNull(hintManager)) {
+            hintManager.close();
+        }
+    }
+    
+    @Benchmark
+    public void route(Blackhole blackhole) {
+        ComplexKeysShardingValue<Long> shardingValue = shardingValues[index++ & (KEY_COUNT - 1)];
+        blackhole.consume(databaseArithmetic.doSharding(DATABASE_NAMES, shardingValue));
+        blackhole.consume(tableArithmetic.doSharding(TABLE_NAMES, shardingValue));
+    }
+}
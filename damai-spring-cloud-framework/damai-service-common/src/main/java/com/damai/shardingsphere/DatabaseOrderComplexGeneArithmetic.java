@@ -1,18 +1,18 @@
 package com.damai.shardingsphere;
 
-import cn.hutool.core.collection.CollectionUtil;
 import com.damai.enums.BaseCode;
 import com.damai.exception.DaMaiFrameException;
-import com.damai.util.StringUtil;
 import org.apache.shardingsphere.sharding.api.sharding.complex.ComplexKeysShardingAlgorithm;
 import org.apache.shardingsphere.sharding.api.sharding.complex.ComplexKeysShardingValue;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 订单分库
@@ -27,45 +27,79 @@ public class DatabaseOrderComplexGeneArithmetic implements ComplexKeysShardingAl
     
     private int tableShardingCount;
     
+    /**
+     * 按配置的分库数量和分表数量预先计算好的每个基因对应的库编号，下标为基因
+     * */
+    private long[] geneDatabaseIndexes;
+    
+    /**
+     * 库编号和路由结果的缓存
+     * */
+    private final Map<Long, Collection<String>> databaseNamesCache = new ConcurrentHashMap<>(16);
+    
     @Override
     public void init(Properties props) {
         this.shardingCount = Integer.parseInt(props.getProperty(SHARDING_COUNT_KEY_NAME));
         this.tableShardingCount = Integer.parseInt(props.getProperty(TABLE_SHARDING_COUNT_KEY_NAME));
+        int geneBits = (int)log2N(tableShardingCount);
+        if (geneBits > 0) {
+            long[] geneDatabaseIndexes = new long[1 << geneBits];
+            for (int gene = 0; gene < geneDatabaseIndexes.length; gene++) {
+                geneDatabaseIndexes[gene] = calculateGeneDatabaseIndex(shardingCount, gene, geneBits);
+            }
+            this.geneDatabaseIndexes = geneDatabaseIndexes;
+        }
     }
     @Override
     public Collection<String> doSharding(Collection<String> allActualSplitDatabaseNames, ComplexKeysShardingValue<Long> complexKeysShardingValue) {
-        List<String> actualDatabaseNames = new ArrayList<>(allActualSplitDatabaseNames.size());
-        Map<String, Collection<Long>> columnNameAndShardingValuesMap = complexKeysShardingValue.getColumnNameAndShardingValuesMap();
-        if (CollectionUtil.isEmpty(columnNameAndShardingValuesMap)) {
-            return allActualSplitDatabaseNames;
+        //sql中的分片值优先，没有时才使用路由提示，两者都有时必须路由到同一个库，in条件有多个值时路由到这些值所在的全部库
+        Collection<Long> values = OrderShardingValueResolver.resolve(complexKeysShardingValue);
+        Long hintValue = OrderShardHint.getDatabaseHintValue(complexKeysShardingValue.getLogicTableName());
+        if (values.isEmpty()) {
+            if (Objects.isNull(hintValue)) {
+                return allActualSplitDatabaseNames;
+            }
+            values = Collections.singletonList(hintValue);
         }
-        
-        Collection<Long> orderNumberValues = columnNameAndShardingValuesMap.get("order_number");
-        Collection<Long> userIdValues = columnNameAndShardingValuesMap.get("user_id");
-        
-        Long value = null;
-        if (CollectionUtil.isNotEmpty(orderNumberValues)) {
-            value = orderNumberValues.stream().findFirst().orElseThrow(() -> new DaMaiFrameException(BaseCode.ORDER_NUMBER_NOT_EXIST));
-        } else if (CollectionUtil.isNotEmpty(userIdValues)) {
-            value = userIdValues.stream().findFirst().orElseThrow(() -> new DaMaiFrameException(BaseCode.USER_ID_NOT_EXIST));
+        if (values.size() == 1) {
+            return getActualDatabaseNames(allActualSplitDatabaseNames, getDatabaseIndex(values.iterator().next(), hintValue));
         }
-        if (Objects.nonNull(value)) {
-            long databaseIndex = calculateDatabaseIndex(shardingCount,value,tableShardingCount);
-            String databaseIndexStr = String.valueOf(databaseIndex);
-            for (String actualSplitDatabaseName : allActualSplitDatabaseNames) {
-                if (actualSplitDatabaseName.contains(databaseIndexStr)) {
-                    actualDatabaseNames.add(actualSplitDatabaseName);
-                    break;
-                }
-            }
+        Set<String> actualDatabaseNames = new LinkedHashSet<>();
+        for (Long value : values) {
+            actualDatabaseNames.addAll(getActualDatabaseNames(allActualSplitDatabaseNames, getDatabaseIndex(value, hintValue)));
+        }
+        return actualDatabaseNames;
+    }
+    
+    private long getDatabaseIndex(Long value, Long hintValue) {
+        long databaseIndex = calculateDatabaseIndex(shardingCount,value,tableShardingCount);
+        if (Objects.nonNull(hintValue) && hintValue != value.longValue() &&
+                calculateDatabaseIndex(shardingCount,hintValue,tableShardingCount) != databaseIndex) {
+            throw new DaMaiFrameException(BaseCode.ORDER_SHARD_HINT_CONFLICT);
+        }
+        return databaseIndex;
+    }
+    
+    private Collection<String> getActualDatabaseNames(Collection<String> allActualSplitDatabaseNames, long databaseIndex) {
+        Collection<String> actualDatabaseNames = databaseNamesCache.get(databaseIndex);
+        if (Objects.nonNull(actualDatabaseNames) && allActualSplitDatabaseNames.containsAll(actualDatabaseNames)) {
             return actualDatabaseNames;
-        }else {
-            return allActualSplitDatabaseNames;
         }
+        String databaseIndexStr = String.valueOf(databaseIndex);
+        for (String actualSplitDatabaseName : allActualSplitDatabaseNames) {
+            if (actualSplitDatabaseName.contains(databaseIndexStr)) {
+                actualDatabaseNames = Collections.singletonList(actualSplitDatabaseName);
+                databaseNamesCache.put(databaseIndex, actualDatabaseNames);
+                return actualDatabaseNames;
+            }
+        }
+        return Collections.emptyList();
     }
     
     /**
      * 计算给定表索引应分配到的数据库编号。
+     * 基因是分片键二进制的低 log2(表总数) 位，库编号只和基因有关，
+     * 使用配置的数量时直接取预先计算的结果，其余情况按位计算，不再生成二进制字符串
      *
      * @param databaseCount 数据库总数
      * @param splicingKey    分片键
@@ -73,19 +107,40 @@ public class DatabaseOrderComplexGeneArithmetic implements ComplexKeysShardingAl
      * @return 分配到的数据库编号
      */
     public long calculateDatabaseIndex(Integer databaseCount, Long splicingKey, Integer tableCount) {
-        String splicingKeyBinary = Long.toBinaryString(splicingKey);
-        long replacementLength = log2N(tableCount);
-        String geneBinaryStr = splicingKeyBinary.substring(splicingKeyBinary.length() - (int) replacementLength);
-        
-        if (StringUtil.isNotEmpty(geneBinaryStr)) {
-            int h;
-            int geneOptimizeHashCode = (h = geneBinaryStr.hashCode()) ^ (h >>> 16);
-            return (databaseCount - 1) & geneOptimizeHashCode;
+        int geneBits = (int)log2N(tableCount);
+        if (geneBits <= 0 || binaryLength(splicingKey) < geneBits) {
+            throw new DaMaiFrameException(BaseCode.NOT_FOUND_GENE);
+        }
+        long gene = splicingKey & ((1L << geneBits) - 1);
+        if (Objects.nonNull(geneDatabaseIndexes) && databaseCount == shardingCount && tableCount == tableShardingCount) {
+            return geneDatabaseIndexes[(int)gene];
+        }
+        return calculateGeneDatabaseIndex(databaseCount, gene, geneBits);
+    }
+    
+    /**
+     * 和基因二进制字符串的hashCode计算结果相同：从高位到低位依次 h = 31 * h + ('0' 或 '1')
+     * */
+    private static long calculateGeneDatabaseIndex(int databaseCount, long gene, int geneBits) {
+        int h = 0;
+        for (int bit = geneBits - 1; bit >= 0; bit--) {
+            h = 31 * h + ('0' + (int)((gene >>> bit) & 1));
         }
-        throw new DaMaiFrameException(BaseCode.NOT_FOUND_GENE);
+        int geneOptimizeHashCode = h ^ (h >>> 16);
+        return (databaseCount - 1) & geneOptimizeHashCode;
+    }
+    
+    /**
+     * Long.toBinaryString 的长度
+     * */
+    private static int binaryLength(long value) {
+        return value == 0 ? 1 : Long.SIZE - Long.numberOfLeadingZeros(value);
     }
     
+    /**
+     * 数量向下取整的以2为底的对数，数量是2的幂时就是二进制末尾0的个数
+     * */
     public long log2N(long count) {
-        return (long)(Math.log(count)/ Math.log(2));
+        return count > 0 ? Long.SIZE - 1 - Long.numberOfLeadingZeros(count) : 0;
     }
 }
@@ -0,0 +1,55 @@
+package com.damai.shardingsphere;
+
+import org.apache.shardingsphere.infra.hint.HintManager;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单分片路由提示
+ * 已知订单编号的语句可以用订单编号指定路由，订单的分库分表算法优先使用sql中的分片值，sql中没有分片值时才使用提示的值，
+ * 两者都有时必须路由到同一个库表，否则抛出异常，避免提示的值写错时把数据写到或查询到别的库表，
+ * 使用方式：try (HintManager ignored = OrderShardHint.route(orderNumber)) { 执行sql }
+ * @author: 阿星不是程序员
+ **/
+public final class OrderShardHint {
+    
+    private static final List<String> LOGIC_TABLES = List.of("d_order", "d_order_ticket_user");
+    
+    private OrderShardHint() {
+    }
+    
+    /**
+     * 当前线程之后的sql按照订单编号路由，直到返回的HintManager关闭
+     * */
+    public static HintManager route(Long orderNumber) {
+        HintManager hintManager = HintManager.getInstance();
+        for (String logicTable : LOGIC_TABLES) {
+            hintManager.addDatabaseShardingValue(logicTable, orderNumber);
+            hintManager.addTableShardingValue(logicTable, orderNumber);
+        }
+        return hintManager;
+    }
+    
+    static Long getDatabaseHintValue(String logicTableName) {
+        if (!HintManager.isInstantiated()) {
+            return null;
+        }
+        return firstValue(HintManager.getDatabaseShardingValues(logicTableName));
+    }
+    
+    static Long getTableHintValue(String logicTableName) {
+        if (!HintManager.isInstantiated()) {
+            return null;
+        }
+        return firstValue(HintManager.getTableShardingValues(logicTableName));
+    }
+    
+    private static Long firstValue(Collection<Comparable<?>> values) {
+        if (values.isEmpty()) {
+            return null;
+        }
+        return ((Number)values.iterator().next()).longValue();
+    }
+}
@@ -0,0 +1,54 @@
+package com.damai.shardingsphere;
+
+import cn.hutool.core.collection.CollectionUtil;
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import org.apache.shardingsphere.sharding.api.sharding.complex.ComplexKeysShardingValue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单分库分表算法的分片值，订单编号优先，其次是用户id，in条件有多个值时返回全部的值
+ * @author: 阿星不是程序员
+ **/
+final class OrderShardingValueResolver {
+    
+    private static final String ORDER_NUMBER_COLUMN = "order_number";
+    
+    private static final String USER_ID_COLUMN = "user_id";
+    
+    private OrderShardingValueResolver() {
+    }
+    
+    /**
+     * 没有分片值时返回空集合
+     * */
+    static Collection<Long> resolve(ComplexKeysShardingValue<Long> complexKeysShardingValue) {
+        Map<String, Collection<Long>> columnNameAndShardingValuesMap = complexKeysShardingValue.getColumnNameAndShardingValuesMap();
+        if (CollectionUtil.isEmpty(columnNameAndShardingValuesMap)) {
+            return Collections.emptyList();
+        }
+        Collection<Long> orderNumberValues = columnNameAndShardingValuesMap.get(ORDER_NUMBER_COLUMN);
+        if (CollectionUtil.isNotEmpty(orderNumberValues)) {
+            return checkValues(orderNumberValues, BaseCode.ORDER_NUMBER_NOT_EXIST);
+        }
+        Collection<Long> userIdValues = columnNameAndShardingValuesMap.get(USER_ID_COLUMN);
+        if (CollectionUtil.isNotEmpty(userIdValues)) {
+            return checkValues(userIdValues, BaseCode.USER_ID_NOT_EXIST);
+        }
+        return Collections.emptyList();
+    }
+    
+    private static Collection<Long> checkValues(Collection<Long> values, BaseCode baseCode) {
+        for (Long value : values) {
+            if (Objects.isNull(value)) {
+                throw new DaMaiFrameException(baseCode);
+            }
+        }
+        return values;
+    }
+}
@@ -1,6 +1,5 @@
 package com.damai.shardingsphere;
 
-import cn.hutool.core.collection.CollectionUtil;
 import com.damai.enums.BaseCode;
 import com.damai.exception.DaMaiFrameException;
 import org.apache.shardingsphere.sharding.api.sharding.complex.ComplexKeysShardingAlgorithm;
@@ -8,10 +7,14 @@ import org.apache.shardingsphere.sharding.api.sharding.complex.ComplexKeysShardi
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 订单分表
@@ -19,36 +22,67 @@ import java.util.Properties;
  **/
 public class TableOrderComplexGeneArithmetic implements ComplexKeysShardingAlgorithm<Long> {
     
-   
+    
     private static final String SHARDING_COUNT_KEY_NAME = "sharding-count";
     
     private int shardingCount;
     
+    /**
+     * 逻辑表名和路由结果的缓存，列表下标为表编号
+     * */
+    private final Map<String, List<Collection<String>>> tableNamesCache = new ConcurrentHashMap<>(8);
+    
     @Override
     public void init(Properties props) {
         shardingCount = Integer.parseInt(props.getProperty(SHARDING_COUNT_KEY_NAME));
     }
     @Override
     public Collection<String> doSharding(Collection<String> allActualSplitTableNames, ComplexKeysShardingValue<Long> complexKeysShardingValue) {
-        List<String> actualTableNames = new ArrayList<>(allActualSplitTableNames.size());
         String logicTableName = complexKeysShardingValue.getLogicTableName();
-        Map<String, Collection<Long>> columnNameAndShardingValuesMap = complexKeysShardingValue.getColumnNameAndShardingValuesMap();
-        if (CollectionUtil.isEmpty(columnNameAndShardingValuesMap)) {
-            return allActualSplitTableNames;
+        //sql中的分片值优先，没有时才使用路由提示，两者都有时必须路由到同一张表，in条件有多个值时路由到这些值所在的全部表
+        Collection<Long> values = OrderShardingValueResolver.resolve(complexKeysShardingValue);
+        Long hintValue = OrderShardHint.getTableHintValue(logicTableName);
+        if (values.isEmpty()) {
+            if (Objects.isNull(hintValue)) {
+                return allActualSplitTableNames;
+            }
+            values = Collections.singletonList(hintValue);
+        }
+        List<Collection<String>> tableNames = tableNamesCache.computeIfAbsent(logicTableName, this::createTableNames);
+        if (values.size() == 1) {
+            return tableNames.get((int)getTableIndex(values.iterator().next(), hintValue));
         }
-        Collection<Long> orderNumberValues = columnNameAndShardingValuesMap.get("order_number");
-        Collection<Long> userIdValues = columnNameAndShardingValuesMap.get("user_id");
-        
-        Long value = null;
-        if (CollectionUtil.isNotEmpty(orderNumberValues)) {
-            value = orderNumberValues.stream().findFirst().orElseThrow(() -> new DaMaiFrameException(BaseCode.ORDER_NUMBER_NOT_EXIST));
-        } else if (CollectionUtil.isNotEmpty(userIdValues)) {
-            value = userIdValues.stream().findFirst().orElseThrow(() -> new DaMaiFrameException(BaseCode.USER_ID_NOT_EXIST));
+        Set<String> actualTableNames = new LinkedHashSet<>();
+        for (Long value : values) {
+            actualTableNames.addAll(tableNames.get((int)getTableIndex(value, hintValue)));
+        }
+        return actualTableNames;
+    }
+    
+    private long getTableIndex(Long value, Long hintValue) {
+        long tableIndex = calculateTableIndex(shardingCount, value);
+        if (Objects.nonNull(hintValue) && calculateTableIndex(shardingCount, hintValue) != tableIndex) {
+            throw new DaMaiFrameException(BaseCode.ORDER_SHARD_HINT_CONFLICT);
         }
-        if (Objects.nonNull(value)) {
-            actualTableNames.add(logicTableName + "_" + ((shardingCount - 1) & value));
-            return actualTableNames;
+        return tableIndex;
+    }
+    
+    private List<Collection<String>> createTableNames(String logicTableName) {
+        List<Collection<String>> tableNames = new ArrayList<>(shardingCount);
+        for (int tableIndex = 0; tableIndex < shardingCount; tableIndex++) {
+            tableNames.add(Collections.singletonList(logicTableName + "_" + tableIndex));
         }
-        return allActualSplitTableNames;
+        return tableNames;
+    }
+    
+    /**
+     * 计算分片键应分配到的表编号。
+     *
+     * @param tableCount  表总数
+     * @param splicingKey 分片键
+     * @return 分配到的表编号
+     */
+    public long calculateTableIndex(Integer tableCount, Long splicingKey) {
+        return (tableCount - 1) & splicingKey;
     }
 }
@@ -0,0 +1,221 @@
+package com.damai.shardingsphere;
+
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import org.apache.shardingsphere.infra.hint.HintManager;
+import org.apache.shardingsphere.sharding.api.sharding.complex.ComplexKeysShardingValue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 订单分库分表路由的测试，按位计算的库编号和原来基于二进制字符串hashCode的计算结果一致，
+ * 订单编号和用户id基因相同时路由到同一个库表，in条件的多个值路由到它们所在的全部库表，
+ * sql中的分片值优先于路由提示，两者路由不一致时拒绝执行
+ * @author: 阿星不是程序员
+ **/
+public class OrderShardRoutingTest {
+    
+    private static final String LOGIC_TABLE = "d_order";
+    
+    private static final int DATABASE_COUNT = 2;
+    
+    private static final int TABLE_COUNT = 4;
+    
+    private static final List<String> DATABASE_NAMES = List.of("ds_0", "ds_1");
+    
+    private static final List<String> TABLE_NAMES = List.of("d_order_0", "d_order_1", "d_order_2", "d_order_3");
+    
+    private final Random random = new Random(20240601L);
+    
+    private DatabaseOrderComplexGeneArithmetic databaseArithmetic;
+    
+    private TableOrderComplexGeneArithmetic tableArithmetic;
+    
+    @BeforeEach
+    public void setUp() {
+        Properties databaseProps = new Properties();
+        databaseProps.setProperty("sharding-count", String.valueOf(DATABASE_COUNT));
+        databaseProps.setProperty("table-sharding-count", String.valueOf(TABLE_COUNT));
+        databaseArithmetic = new DatabaseOrderComplexGeneArithmetic();
+        databaseArithmetic.init(databaseProps);
+        Properties tableProps = new Properties();
+        tableProps.setProperty("sharding-count", String.valueOf(TABLE_COUNT));
+        tableArithmetic = new TableOrderComplexGeneArithmetic();
+        tableArithmetic.init(tableProps);
+    }
+    
+    @Test
+    public void databaseIndexMatchesBinaryStringImplementation() {
+        for (int databaseCount = 1; databaseCount <= 16; databaseCount <<= 1) {
+            for (int tableCount = 2; tableCount <= (1 << 20); tableCount <<= 1) {
+                for (int i = 0; i < 2000; i++) {
+                    long key = randomKey();
+                    assertEquals(legacyDatabaseIndex(databaseCount, key, tableCount),
+                            databaseArithmetic.calculateDatabaseIndex(databaseCount, key, tableCount),
+                            "databaseCount : " + databaseCount + " tableCount : " + tableCount + " key : " + key);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void precomputedGenesMatchBinaryStringImplementation() {
+        for (int i = 0; i < 100000; i++) {
+            long key = randomKey();
+            assertEquals(legacyDatabaseIndex(DATABASE_COUNT, key, TABLE_COUNT),
+                    databaseArithmetic.calculateDatabaseIndex(DATABASE_COUNT, key, TABLE_COUNT));
+        }
+    }
+    
+    @Test
+    public void orderNumberAndUserIdWithSameGeneRouteTogether() {
+        for (int i = 0; i < 10000; i++) {
+            long userId = randomKey();
+            //订单编号的低位是用户id的基因
+            long orderNumber = (randomKey() << 2) | (userId & (TABLE_COUNT - 1));
+            assertEquals(routeDatabase(sqlValue("user_id", userId)), routeDatabase(sqlValue("order_number", orderNumber)));
+            assertEquals(routeTable(sqlValue("user_id", userId)), routeTable(sqlValue("order_number", orderNumber)));
+        }
+    }
+    
+    @Test
+    public void orderNumberIsPreferredOverUserId() {
+        long orderNumber = 0b1101L;
+        long userId = 0b1110L;
+        Map<String, Collection<Long>> values = new HashMap<>(4);
+        values.put("user_id", List.of(userId));
+        values.put("order_number", List.of(orderNumber));
+        
+        assertEquals(routeTable(sqlValue("order_number", orderNumber)), routeTable(values));
+        assertEquals(List.of("d_order_1"), routeTable(values));
+    }
+    
+    @Test
+    public void routingResultIsCached() {
+        Collection<String> first = routeTable(sqlValue("order_number", 0b110L));
+        assertSame(first, routeTable(sqlValue("order_number", 0b1010L)));
+        Collection<String> database = routeDatabase(sqlValue("order_number", 0b110L));
+        assertSame(database, routeDatabase(sqlValue("order_number", 0b110L)));
+    }
+    
+    @Test
+    public void noShardingValueRoutesToAll() {
+        assertEquals(DATABASE_NAMES, routeDatabase(Collections.emptyMap()));
+        assertEquals(TABLE_NAMES, routeTable(Collections.emptyMap()));
+    }
+    
+    @Test
+    public void sqlValuesArePreferredOverHint() {
+        //同一张表(低两位相同)中的另一个订单编号作为提示
+        long hintedOrderNumber = 0b10011L;
+        Map<String, Collection<Long>> sqlValues = sqlValue("order_number", 0b1011L);
+        try (HintManager ignored = OrderShardHint.route(hintedOrderNumber)) {
+            assertEquals(List.of("d_order_3"), routeTable(sqlValues));
+            assertEquals(List.of("ds_" + legacyDatabaseIndex(DATABASE_COUNT, 0b1011L, TABLE_COUNT)), routeDatabase(sqlValues));
+        }
+    }
+    
+    @Test
+    public void hintIsUsedWithoutSqlValues() {
+        long hintedOrderNumber = 0b1011L;
+        try (HintManager ignored = OrderShardHint.route(hintedOrderNumber)) {
+            assertEquals(List.of("d_order_3"), routeTable(Collections.emptyMap()));
+            assertEquals(List.of("ds_" + legacyDatabaseIndex(DATABASE_COUNT, hintedOrderNumber, TABLE_COUNT)),
+                    routeDatabase(Collections.emptyMap()));
+        }
+        assertEquals(TABLE_NAMES, routeTable(Collections.emptyMap()));
+    }
+    
+    @Test
+    public void hintConflictingWithSqlValuesIsRejected() {
+        Map<String, Collection<Long>> sqlValues = sqlValue("order_number", 0b1000L);
+        try (HintManager ignored = OrderShardHint.route(0b1011L)) {
+            DaMaiFrameException tableException = assertThrows(DaMaiFrameException.class, () -> routeTable(sqlValues));
+            assertEquals(BaseCode.ORDER_SHARD_HINT_CONFLICT.getCode(), tableException.getCode());
+        }
+        //基因 00 和 01 在两个库
+        try (HintManager ignored = OrderShardHint.route(0b1001L)) {
+            DaMaiFrameException databaseException = assertThrows(DaMaiFrameException.class, () -> routeDatabase(sqlValues));
+            assertEquals(BaseCode.ORDER_SHARD_HINT_CONFLICT.getCode(), databaseException.getCode());
+        }
+        assertEquals(List.of("d_order_0"), routeTable(sqlValues));
+    }
+    
+    @Test
+    public void inValuesRouteToEveryShardTheyBelongTo() {
+        //基因 00、01、10 分别在 d_order_0、d_order_1、d_order_2，基因 00 和 01 在两个库
+        Map<String, Collection<Long>> values = Collections.singletonMap("order_number", List.of(0b1000L, 0b1001L, 0b1110L, 0b10000L));
+        
+        assertEquals(List.of("d_order_0", "d_order_1", "d_order_2"), List.copyOf(routeTable(values)));
+        assertEquals(DATABASE_NAMES.size(), routeDatabase(values).size());
+        //都在同一张表时只路由到这张表
+        assertEquals(List.of("d_order_0"), List.copyOf(routeTable(Collections.singletonMap("order_number", List.of(0b1000L, 0b10000L)))));
+    }
+    
+    @Test
+    public void hintConflictingWithAnyInValueIsRejected() {
+        Map<String, Collection<Long>> values = Collections.singletonMap("order_number", List.of(0b1000L, 0b1001L));
+        try (HintManager ignored = OrderShardHint.route(0b1000L)) {
+            DaMaiFrameException exception = assertThrows(DaMaiFrameException.class, () -> routeTable(values));
+            assertEquals(BaseCode.ORDER_SHARD_HINT_CONFLICT.getCode(), exception.getCode());
+        }
+    }
+    
+    @Test
+    public void keyShorterThanGeneIsRejected() {
+        assertThrows(DaMaiFrameException.class, () -> databaseArithmetic.calculateDatabaseIndex(DATABASE_COUNT, 1L, TABLE_COUNT));
+        assertEquals(legacyDatabaseIndex(DATABASE_COUNT, 0b10L, TABLE_COUNT),
+                databaseArithmetic.calculateDatabaseIndex(DATABASE_COUNT, 0b10L, TABLE_COUNT));
+    }
+    
+    @Test
+    public void log2NMatchesMathLog() {
+        for (long count = 1; count <= (1L << 40); count <<= 1) {
+            assertEquals((long) (Math.log(count) / Math.log(2)), databaseArithmetic.log2N(count));
+        }
+    }
+    
+    private Collection<String> routeDatabase(Map<String, Collection<Long>> values) {
+        return databaseArithmetic.doSharding(DATABASE_NAMES, new ComplexKeysShardingValue<>(LOGIC_TABLE, values, Collections.emptyMap()));
+    }
+    
+    private Collection<String> routeTable(Map<String, Collection<Long>> values) {
+        return tableArithmetic.doSharding(TABLE_NAMES, new ComplexKeysShardingValue<>(LOGIC_TABLE, values, Collections.emptyMap()));
+    }
+    
+    private Map<String, Collection<Long>> sqlValue(String column, long value) {
+        return Collections.singletonMap(column, List.of(value));
+    }
+    
+    /**
+     * 雪花id范围内的正数，二进制长度至少20位
+     * */
+    private long randomKey() {
+        return (random.nextLong() >>> 1) | (1L << 20);
+    }
+    
+    /**
+     * 原来基于基因二进制字符串hashCode的计算方式
+     * */
+    private static long legacyDatabaseIndex(int databaseCount, long splicingKey, int tableCount) {
+        String splicingKeyBinary = Long.toBinaryString(splicingKey);
+        int replacementLength = (int) (Math.log(tableCount) / Math.log(2));
+        String geneBinaryStr = splicingKeyBinary.substring(splicingKeyBinary.length() - replacementLength);
+        int h;
+        int geneOptimizeHashCode = (h = geneBinaryStr.hashCode()) ^ (h >>> 16);
+        return (databaseCount - 1) & geneOptimizeHashCode;
+    }
+}
@@ -1,5 +1,6 @@
 package com.damai.feign;
 
+import com.damai.threadlocal.BaseParameterHolder;
 import com.damai.util.StringUtil;
 import feign.RequestInterceptor;
 import feign.RequestTemplate;
@@ -45,6 +46,15 @@ public class FeignRequestInterceptor implements RequestInterceptor {
                 template.header(TRACE_ID,traceId);
                 template.header(CODE,code);
                 template.header(GRAY_PARAMETER,gray);
+            }else {
+                //在业务线程池中发起的调用没有请求上下文，使用线程池传递过来的参数
+                String gray = BaseParameterHolder.getParameter(GRAY_PARAMETER);
+                if (StringUtil.isEmpty(gray)) {
+                    gray = serverGray;
+                }
+                template.header(TRACE_ID,BaseParameterHolder.getParameter(TRACE_ID));
+                template.header(CODE,BaseParameterHolder.getParameter(CODE));
+                template.header(GRAY_PARAMETER,gray);
             }
         }catch (Exception e) {
             log.error("FeignRequestInterceptor apply error",e);
@@ -0,0 +1,129 @@
+package com.damai.context;
+
+import com.damai.threadlocal.BaseParameterHolder;
+import org.apache.logging.log4j.ThreadContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.MDC;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: 线程上下文传递的压测，一个请求中提交 TASK_COUNT 个任务，每个任务包装后在当前线程执行一次，
+ * legacy是快照之前BaseThreadPool的做法，提交时复制MDC，执行前后再复制两次并创建HashMap，
+ * snapshot是ContextSnapshot，上下文没有变化时所有任务共享同一个快照，
+ * 用 -prof gc 运行，结果中的 gc.alloc.rate.norm 是每个任务分配的字节数
+ * @author: 阿星不是程序员
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextSnapshotBenchmark {
+    
+    private static final int TASK_COUNT = 8;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        ThreadContext.put("traceId", "7f0c2b9e4d3a4c6f");
+        BaseParameterHolder.setParameter("userId", "1");
+        BaseParameterHolder.setParameter("code", "0001");
+        BaseParameterHolder.setParameter("mark", "mark");
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ThreadContext.clearMap();
+        BaseParameterHolder.removeParameterMap();
+        ContextSnapshot.clear();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(TASK_COUNT)
+    public void legacy(Blackhole blackhole) {
+        for (int i = 0; i < TASK_COUNT; i++) {
+            Runnable task = LegacyContext.wrapTask(() -> blackhole.consume(MDC.get("traceId")),
+                    MDC.getCopyOfContextMap(), BaseParameterHolder.getParameterMap());
+            task.run();
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(TASK_COUNT)
+    public void snapshot(Blackhole blackhole) {
+        for (int i = 0; i < TASK_COUNT; i++) {
+            Runnable task = ContextSnapshot.wrap(() -> blackhole.consume(MDC.get("traceId")));
+            task.run();
+        }
+    }
+    
+    /**
+     * 快照之前BaseThreadPool.wrapTask的实现
+     * */
+    private static class LegacyContext {
+        
+        private static Runnable wrapTask(final Runnable runnable, final Map<String, String> parentMdcContext,
+                                         final Map<String, String> parentHoldContext) {
+            return () -> {
+                Map<String, Map<String, String>> preprocess = preprocess(parentMdcContext, parentHoldContext);
+                Map<String, String> holdContext = preprocess.get("holdContext");
+                Map<String, String> mdcContext = preprocess.get("mdcContext");
+                try {
+                    runnable.run();
+                } finally {
+                    postProcess(mdcContext, holdContext);
+                }
+            };
+        }
+        
+        private static Map<String, Map<String, String>> preprocess(final Map<String, String> parentMdcContext,
+                                                                   final Map<String, String> parentHoldContext) {
+            Map<String, Map<String, String>> map = new HashMap<>(8);
+            Map<String, String> holdContext = BaseParameterHolder.getParameterMap();
+            Map<String, String> mdcContext = MDC.getCopyOfContextMap();
+            if (parentMdcContext == null) {
+                MDC.clear();
+            } else {
+                MDC.setContextMap(parentMdcContext);
+            }
+            if (parentHoldContext == null) {
+                BaseParameterHolder.removeParameterMap();
+            } else {
+                BaseParameterHolder.setParameterMap(parentHoldContext);
+            }
+            map.put("holdContext", holdContext);
+            map.put("mdcContext", mdcContext);
+            return map;
+        }
+        
+        private static void postProcess(Map<String, String> mdcContext, Map<String, String> holdContext) {
+            if (mdcContext == null) {
+                MDC.clear();
+            } else {
+                MDC.setContextMap(mdcContext);
+            }
+            if (holdContext == null) {
+                BaseParameterHolder.removeParameterMap();
+            } else {
+                BaseParameterHolder.setParameterMap(holdContext);
+            }
+        }
+    }
+}
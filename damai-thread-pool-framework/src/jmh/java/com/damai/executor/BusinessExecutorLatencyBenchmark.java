@@ -0,0 +1,92 @@
+package com.damai.executor;
+
+import com.damai.config.BusinessThreadPoolProperties.PoolProperties;
+import com.damai.registry.BusinessExecutorRegistry;
+import com.damai.rejectedexecutionhandler.RejectedPolicyType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料
+ * @description: io线程池的请求延迟压测，虚拟线程执行器和平台线程池对比，
+ * 64个请求线程同时执行，每个请求并行发起 fanOut 个阻塞 ioMillis 毫秒的调用(模拟redis和rpc)并等待全部返回，
+ * 线程池参数和订单、节目服务中io线程池的配置相同，SampleTime模式的结果中看 p0.99，
+ * 虚拟线程需要用jdk21及以上运行(PATH中的java，不只是JAVA_HOME)，低版本jdk上virtual会退化为平台线程池，两组结果相同
+ * @author: 阿星不是程序员
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Threads(64)
+@Fork(1)
+public class BusinessExecutorLatencyBenchmark {
+    
+    @Param({"platform", "virtual"})
+    public String executorType;
+    
+    @Param({"8"})
+    public int fanOut;
+    
+    @Param({"5"})
+    public long ioMillis;
+    
+    private BusinessExecutorService executor;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        PoolProperties poolProperties = new PoolProperties();
+        poolProperties.setVirtual("virtual".equals(executorType));
+        poolProperties.setMaxConcurrency(2000);
+        poolProperties.setCorePoolSize(32);
+        poolProperties.setMaximumPoolSize(64);
+        poolProperties.setQueueCapacity(1000);
+        poolProperties.setRejectedPolicy(RejectedPolicyType.CALLER_RUNS);
+        executor = BusinessExecutorRegistry.createExecutor("io", poolProperties);
+        if (poolProperties.getVirtual() && !executor.isVirtual()) {
+            System.out.println("virtual thread is not supported by java " + System.getProperty("java.version") +
+                    ", virtual falls back to platform threads");
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    
+    @Benchmark
+    public int request() throws Exception {
+        List<Future<Integer>> futureList = new ArrayList<>(fanOut);
+        for (int i = 0; i < fanOut; i++) {
+            int index = i;
+            futureList.add(executor.submit(() -> {
+                TimeUnit.MILLISECONDS.sleep(ioMillis);
+                return index;
+            }));
+        }
+        int sum = 0;
+        for (final Future<Integer> future : futureList) {
+            sum += future.get();
+        }
+        return sum;
+    }
+}
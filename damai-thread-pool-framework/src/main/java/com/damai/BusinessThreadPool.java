@@ -2,56 +2,73 @@ package com.damai;
 
 
 import com.damai.base.BaseThreadPool;
-import com.damai.namefactory.BusinessNameThreadFactory;
-import com.damai.rejectedexecutionhandler.ThreadPoolRejectedExecutionHandler;
+import com.damai.config.BusinessThreadPoolProperties.PoolProperties;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.executor.BusinessExecutorService;
+import com.damai.registry.BusinessExecutorRegistry;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 线程池
+ * 任务交给容器中的BusinessExecutorRegistry对应名称的线程池执行，容器还没有启动时使用默认参数的备用线程池
  * @author: 阿星不是程序员
  **/
 
 public class BusinessThreadPool extends BaseThreadPool {
-    private static ThreadPoolExecutor execute = null;
-
-    static {
-        execute = new ThreadPoolExecutor(
-                
-                Runtime.getRuntime().availableProcessors() + 1,
-                
-                maximumPoolSize(),
-                
-                60,
-               
-                TimeUnit.SECONDS,
-                
-                new ArrayBlockingQueue<>(600),
-                
-                new BusinessNameThreadFactory(),
-                
-                new ThreadPoolRejectedExecutionHandler.BusinessAbortPolicy());
-    }
-
-    private static Integer maximumPoolSize() {
-        return new BigDecimal(Runtime.getRuntime().availableProcessors())
-                .divide(new BigDecimal("0.2"), 0, RoundingMode.HALF_UP).intValue();
-    }
     
-   
     public static void execute(Runnable r) {
-        execute.execute(wrapTask(r, getContextForTask(), getContextForHold()));
+        execute(BusinessExecutorRegistry.DEFAULT_POOL_NAME, r);
+    }
+    
+    public static void execute(String poolName, Runnable r) {
+        getExecutor(poolName).execute(r);
     }
-
     
     public static <T> Future<T> submit(Callable<T> c) {
-        return execute.submit(wrapTask(c, getContextForTask(), getContextForHold()));
+        return submit(BusinessExecutorRegistry.DEFAULT_POOL_NAME, c);
+    }
+    
+    public static <T> Future<T> submit(String poolName, Callable<T> c) {
+        return getExecutor(poolName).submit(c);
+    }
+    
+    /**
+     * 等待异步任务的结果，任务中抛出的DaMaiFrameException原样抛出，其它异常包装成DaMaiFrameException
+     * */
+    public static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaMaiFrameException(e);
+        }catch (ExecutionException e) {
+            Throwable cause = Objects.nonNull(e.getCause()) ? e.getCause() : e;
+            if (cause instanceof DaMaiFrameException) {
+                throw (DaMaiFrameException)cause;
+            }
+            throw new DaMaiFrameException(cause);
+        }
+    }
+    
+    /**
+     * 获取指定名称的线程池，可以作为CompletableFuture异步回调的执行器
+     * */
+    public static BusinessExecutorService getExecutor(String poolName) {
+        BusinessExecutorRegistry registry = BusinessExecutorRegistry.getInstance();
+        if (Objects.isNull(registry)) {
+            return FallbackExecutorHolder.EXECUTOR;
+        }
+        return registry.getExecutor(poolName);
+    }
+    
+    private static class FallbackExecutorHolder {
+        
+        private static final BusinessExecutorService EXECUTOR = 
+                BusinessExecutorRegistry.createExecutor("fallback", new PoolProperties());
     }
 }
@@ -0,0 +1,87 @@
+package com.damai.config;
+
+import com.damai.executor.BusinessExecutorService;
+import com.damai.executor.VirtualThreadPinnedMonitor;
+import com.damai.registry.BusinessExecutorRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AllArgsConstructor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 业务线程池 监控指标，之后按名称新建的线程池也会注册
+ * @author: 阿星不是程序员
+ **/
+@AllArgsConstructor
+public class BusinessExecutorMeterBinder implements MeterBinder {
+    
+    private static final String POOL_TAG = "pool";
+    
+    private static final String TYPE_TAG = "type";
+    
+    private final BusinessExecutorRegistry businessExecutorRegistry;
+    
+    private final VirtualThreadPinnedMonitor virtualThreadPinnedMonitor;
+    
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        businessExecutorRegistry.addExecutorListener(executor -> bind(executor, registry));
+        FunctionCounter.builder("business.executor.virtual.pinned", virtualThreadPinnedMonitor, 
+                        VirtualThreadPinnedMonitor::getApplicationPinnedCount)
+                .description("虚拟线程在项目代码中被钉住的次数")
+                .tag("location", "application")
+                .register(registry);
+        FunctionCounter.builder("business.executor.virtual.pinned", virtualThreadPinnedMonitor, 
+                        VirtualThreadPinnedMonitor::getOtherPinnedCount)
+                .description("虚拟线程在第三方或jdk代码中被钉住的次数")
+                .tag("location", "other")
+                .register(registry);
+    }
+    
+    private void bind(BusinessExecutorService executor, MeterRegistry registry) {
+        String poolName = executor.getPoolName();
+        String type = executor.isVirtual() ? "virtual" : "platform";
+        Gauge.builder("business.executor.active", executor, BusinessExecutorService::getActiveCount)
+                .description("正在执行任务的线程数")
+                .tag(POOL_TAG, poolName)
+                .tag(TYPE_TAG, type)
+                .register(registry);
+        Gauge.builder("business.executor.pool.size", executor, BusinessExecutorService::getPoolSize)
+                .description("当前线程数")
+                .tag(POOL_TAG, poolName)
+                .tag(TYPE_TAG, type)
+                .register(registry);
+        Gauge.builder("business.executor.queued", executor, BusinessExecutorService::getQueueSize)
+                .description("队列中等待执行的任务数")
+                .tag(POOL_TAG, poolName)
+                .tag(TYPE_TAG, type)
+                .register(registry);
+        Gauge.builder("business.executor.queue.remaining", executor, BusinessExecutorService::getQueueRemainingCapacity)
+                .description("队列剩余容量")
+                .tag(POOL_TAG, poolName)
+                .tag(TYPE_TAG, type)
+                .register(registry);
+        FunctionCounter.builder("business.executor.rejected", executor, BusinessExecutorService::getRejectedCount)
+                .description("触发拒绝策略的次数")
+                .tag(POOL_TAG, poolName)
+                .tag(TYPE_TAG, type)
+                .register(registry);
+        FunctionTimer.builder("business.executor.task.wait", executor, BusinessExecutorService::getFinishedTaskCount, 
+                        BusinessExecutorService::getTotalWaitTime, TimeUnit.NANOSECONDS)
+                .description("任务从提交到开始执行的耗时")
+                .tag(POOL_TAG, poolName)
+                .tag(TYPE_TAG, type)
+                .register(registry);
+        FunctionTimer.builder("business.executor.task.execute", executor, BusinessExecutorService::getFinishedTaskCount, 
+                        BusinessExecutorService::getTotalExecuteTime, TimeUnit.NANOSECONDS)
+                .description("任务的执行耗时")
+                .tag(POOL_TAG, poolName)
+                .tag(TYPE_TAG, type)
+                .register(registry);
+    }
+}
@@ -0,0 +1,51 @@
+package com.damai.config;
+
+import com.damai.executor.VirtualThreadPinnedMonitor;
+import com.damai.registry.BusinessExecutorRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 业务线程池 配置
+ * @author: 阿星不是程序员
+ **/
+@EnableConfigurationProperties(BusinessThreadPoolProperties.class)
+public class BusinessThreadPoolAutoConfiguration {
+    
+    @Bean
+    public BusinessExecutorRegistry businessExecutorRegistry(BusinessThreadPoolProperties businessThreadPoolProperties) {
+        return new BusinessExecutorRegistry(businessThreadPoolProperties);
+    }
+    
+    /**
+     * 创建了虚拟线程执行器时启动钉住检测
+     */
+    @Bean
+    public VirtualThreadPinnedMonitor virtualThreadPinnedMonitor(BusinessThreadPoolProperties businessThreadPoolProperties,
+                                                                 BusinessExecutorRegistry businessExecutorRegistry) {
+        VirtualThreadPinnedMonitor virtualThreadPinnedMonitor = new VirtualThreadPinnedMonitor(businessThreadPoolProperties);
+        businessExecutorRegistry.addExecutorListener(executor -> {
+            if (executor.isVirtual()) {
+                virtualThreadPinnedMonitor.start();
+            }
+        });
+        return virtualThreadPinnedMonitor;
+    }
+    
+    /**
+     * 引入了micrometer时注册监控指标
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.binder.MeterBinder")
+    static class BusinessExecutorMeterConfiguration {
+        
+        @Bean
+        public BusinessExecutorMeterBinder businessExecutorMeterBinder(BusinessExecutorRegistry businessExecutorRegistry, 
+                                                                       VirtualThreadPinnedMonitor virtualThreadPinnedMonitor) {
+            return new BusinessExecutorMeterBinder(businessExecutorRegistry, virtualThreadPinnedMonitor);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.damai.config;
+
+import com.damai.rejectedexecutionhandler.RejectedPolicyType;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 业务线程池 配置属性
+ * @author: 阿星不是程序员
+ **/
+@Data
+@ConfigurationProperties(prefix = BusinessThreadPoolProperties.PREFIX)
+public class BusinessThreadPoolProperties {
+    
+    public static final String PREFIX = "business-thread-pool";
+    
+    /**
+     * 关闭时等待线程池中任务执行完的时间(秒)
+     */
+    private Long awaitTerminationSeconds = 10L;
+    
+    /**
+     * 按名称配置的线程池，default线程池没有配置时使用默认参数，其它名称必须配置后才能使用
+     */
+    private Map<String, PoolProperties> pools = new HashMap<>(8);
+    
+    /**
+     * 存在虚拟线程执行器时是否检测虚拟线程钉住
+     */
+    private Boolean pinnedMonitorEnabled = true;
+    
+    /**
+     * 钉住超过该时间(毫秒)才记录
+     */
+    private Long pinnedThreshold = 20L;
+    
+    /**
+     * 钉住位置在该包下时认为是项目自己的代码
+     */
+    private String pinnedPackagePrefix = "com.damai";
+    
+    @Data
+    public static class PoolProperties {
+        
+        /**
+         * 核心线程数，默认为 cpu核数 + 1
+         */
+        private Integer corePoolSize = Runtime.getRuntime().availableProcessors() + 1;
+        
+        /**
+         * 最大线程数，默认为 cpu核数 / 0.2
+         */
+        private Integer maximumPoolSize = Runtime.getRuntime().availableProcessors() * 5;
+        
+        /**
+         * 空闲线程存活时间(秒)
+         */
+        private Long keepAliveSeconds = 60L;
+        
+        private Integer queueCapacity = 600;
+        
+        /**
+         * 队列已满且线程数已达最大值时的拒绝策略，默认和原来的线程池一样直接拒绝，
+         * caller_runs会让提交线程(如请求线程)执行任务，需要按线程池单独配置
+         */
+        private RejectedPolicyType rejectedPolicy = RejectedPolicyType.ABORT;
+        
+        /**
+         * 拒绝策略为bounded_wait时提交线程最多等待的时间(毫秒)
+         */
+        private Long waitTimeout = 1000L;
+        
+        /**
+         * 是否使用虚拟线程执行，需要jdk21及以上，低版本jdk退化为平台线程池
+         */
+        private Boolean virtual = false;
+        
+        /**
+         * 虚拟线程执行器同时执行的最大任务数，达到后按拒绝策略处理
+         */
+        private Integer maxConcurrency = 1000;
+    }
+}
@@ -0,0 +1,139 @@
+package com.damai.context;
+
+import com.damai.threadlocal.BaseParameterHolder;
+import org.apache.logging.log4j.ThreadContext;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 线程上下文快照
+ * log4j2的MDC和BaseParameterHolder都是写时复制的不可变map，快照只保存这两个map的引用，
+ * 同一个请求中上下文没有变化时提交的多个任务共享同一个快照，不再为每个任务复制map
+ * @author: 阿星不是程序员
+ **/
+public final class ContextSnapshot {
+    
+    private static final ContextSnapshot EMPTY = new ContextSnapshot(Collections.emptyMap(), Collections.emptyMap());
+    
+    /**
+     * 当前线程最近一次获取的快照，上下文没有变化时直接复用
+     * */
+    private static final ThreadLocal<ContextSnapshot> CURRENT = new ThreadLocal<>();
+    
+    private final Map<String, String> mdcContext;
+    
+    private final Map<String, String> parameterContext;
+    
+    private ContextSnapshot(Map<String, String> mdcContext, Map<String, String> parameterContext) {
+        this.mdcContext = mdcContext;
+        this.parameterContext = parameterContext;
+    }
+    
+    /**
+     * 获取当前线程的上下文快照
+     * */
+    public static ContextSnapshot capture() {
+        Map<String, String> mdcContext = ThreadContext.getImmutableContext();
+        Map<String, String> parameterContext = BaseParameterHolder.getParameterMap();
+        if (mdcContext.isEmpty() && parameterContext.isEmpty()) {
+            return EMPTY;
+        }
+        ContextSnapshot snapshot = CURRENT.get();
+        if (snapshot != null && sameContext(snapshot.mdcContext, mdcContext) 
+                && sameContext(snapshot.parameterContext, parameterContext)) {
+            return snapshot;
+        }
+        snapshot = new ContextSnapshot(mdcContext, parameterContext);
+        CURRENT.set(snapshot);
+        return snapshot;
+    }
+    
+    /**
+     * log4j-core的MDC每次返回同一个不可变map，比较引用即可，
+     * 桥接到slf4j等每次返回副本的实现时再比较内容，上下文没有变化时仍然复用快照
+     * */
+    private static boolean sameContext(Map<String, String> cached, Map<String, String> current) {
+        return cached == current || cached.equals(current);
+    }
+    
+    /**
+     * 请求结束时清除当前线程缓存的快照
+     * */
+    public static void clear() {
+        CURRENT.remove();
+    }
+    
+    public static Runnable wrap(Runnable runnable) {
+        return capture().bind(runnable);
+    }
+    
+    public static <T> Callable<T> wrap(Callable<T> callable) {
+        return capture().bind(callable);
+    }
+    
+    /**
+     * 可以用于CompletableFuture.supplyAsync
+     * */
+    public static <T> Supplier<T> wrap(Supplier<T> supplier) {
+        return capture().bind(supplier);
+    }
+    
+    public Runnable bind(Runnable runnable) {
+        return () -> {
+            ContextSnapshot previous = attach();
+            try {
+                runnable.run();
+            } finally {
+                previous.restore();
+            }
+        };
+    }
+    
+    public <T> Callable<T> bind(Callable<T> callable) {
+        return () -> {
+            ContextSnapshot previous = attach();
+            try {
+                return callable.call();
+            } finally {
+                previous.restore();
+            }
+        };
+    }
+    
+    public <T> Supplier<T> bind(Supplier<T> supplier) {
+        return () -> {
+            ContextSnapshot previous = attach();
+            try {
+                return supplier.get();
+            } finally {
+                previous.restore();
+            }
+        };
+    }
+    
+    /**
+     * 把快照设置到当前线程，返回设置之前的上下文用于恢复
+     * */
+    private ContextSnapshot attach() {
+        Map<String, String> previousMdcContext = ThreadContext.getImmutableContext();
+        Map<String, String> previousParameterContext = BaseParameterHolder.getParameterMap();
+        ContextSnapshot previous = previousMdcContext.isEmpty() && previousParameterContext.isEmpty() ? 
+                EMPTY : new ContextSnapshot(previousMdcContext, previousParameterContext);
+        restore();
+        return previous;
+    }
+    
+    private void restore() {
+        if (ThreadContext.getImmutableContext() != mdcContext) {
+            ThreadContext.clearMap();
+            if (!mdcContext.isEmpty()) {
+                ThreadContext.putAll(mdcContext);
+            }
+        }
+        BaseParameterHolder.setParameterMap(parameterContext);
+    }
+}
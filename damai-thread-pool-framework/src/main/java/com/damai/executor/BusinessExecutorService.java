@@ -0,0 +1,55 @@
+package com.damai.executor;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 业务线程池，平台线程池和虚拟线程执行器的统一视图，用于监控指标
+ * @author: 阿星不是程序员
+ **/
+public interface BusinessExecutorService extends ExecutorService {
+    
+    String getPoolName();
+    
+    /**
+     * 是否为虚拟线程执行器
+     * */
+    boolean isVirtual();
+    
+    /**
+     * 正在执行任务的线程数
+     * */
+    int getActiveCount();
+    
+    /**
+     * 当前线程数
+     * */
+    int getPoolSize();
+    
+    /**
+     * 等待执行的任务数
+     * */
+    int getQueueSize();
+    
+    /**
+     * 还能接收的任务数
+     * */
+    int getQueueRemainingCapacity();
+    
+    long getRejectedCount();
+    
+    /**
+     * 执行结束(包括在提交线程中执行)的任务数
+     * */
+    long getFinishedTaskCount();
+    
+    /**
+     * 任务从提交到开始执行的累计耗时(纳秒)
+     * */
+    long getTotalWaitTime();
+    
+    /**
+     * 任务执行的累计耗时(纳秒)
+     * */
+    long getTotalExecuteTime();
+}
@@ -0,0 +1,124 @@
+package com.damai.executor;
+
+import com.damai.base.BaseThreadPool;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 业务线程池
+ * 提交的任务会携带提交线程的MDC和参数上下文，并统计拒绝次数、排队耗时和执行耗时
+ * @author: 阿星不是程序员
+ **/
+public class BusinessThreadPoolExecutor extends ThreadPoolExecutor implements BusinessExecutorService {
+    
+    private final String poolName;
+    
+    private final LongAdder rejectedCount = new LongAdder();
+    
+    private final LongAdder finishedTaskCount = new LongAdder();
+    
+    private final LongAdder totalWaitTime = new LongAdder();
+    
+    private final LongAdder totalExecuteTime = new LongAdder();
+    
+    public BusinessThreadPoolExecutor(String poolName, int corePoolSize, int maximumPoolSize, long keepAliveTime, 
+                                      TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, 
+                                      RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        this.poolName = poolName;
+    }
+    
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new TimedTask(command, BaseThreadPool.wrapCurrentContext(command), System.nanoTime()));
+    }
+    
+    /**
+     * 拒绝策略拿到的是包装后的任务，取出调用方提交的原始任务，submit提交时是调用方持有的Future
+     * */
+    public static Runnable getSubmittedTask(Runnable r) {
+        return r instanceof TimedTask ? ((TimedTask)r).command : r;
+    }
+    
+    @Override
+    public String getPoolName() {
+        return poolName;
+    }
+    
+    @Override
+    public boolean isVirtual() {
+        return false;
+    }
+    
+    public void incrementRejectedCount() {
+        rejectedCount.increment();
+    }
+    
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+    
+    @Override
+    public long getFinishedTaskCount() {
+        return finishedTaskCount.sum();
+    }
+    
+    @Override
+    public long getTotalWaitTime() {
+        return totalWaitTime.sum();
+    }
+    
+    @Override
+    public long getTotalExecuteTime() {
+        return totalExecuteTime.sum();
+    }
+    
+    @Override
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+    
+    @Override
+    public int getQueueRemainingCapacity() {
+        return getQueue().remainingCapacity();
+    }
+    
+    @Override
+    public String toString() {
+        return poolName + ":" + super.toString();
+    }
+    
+    private final class TimedTask implements Runnable {
+        
+        private final Runnable command;
+        
+        private final Runnable task;
+        
+        private final long submitTime;
+        
+        private TimedTask(Runnable command, Runnable task, long submitTime) {
+            this.command = command;
+            this.task = task;
+            this.submitTime = submitTime;
+        }
+        
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            totalWaitTime.add(startTime - submitTime);
+            try {
+                task.run();
+            } finally {
+                totalExecuteTime.add(System.nanoTime() - startTime);
+                finishedTaskCount.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.damai.executor;
+
+import com.damai.base.BaseThreadPool;
+import com.damai.rejectedexecutionhandler.RejectedPolicyType;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 虚拟线程执行器，适合大量阻塞在redis和rpc调用上的任务
+ * 每个任务一个虚拟线程，没有队列，用信号量限制同时执行的任务数保护下游，达到上限时按拒绝策略处理，
+ * 和平台线程池一样携带提交线程的MDC和参数上下文
+ * @author: 阿星不是程序员
+ **/
+public class BusinessVirtualThreadExecutor extends AbstractExecutorService implements BusinessExecutorService {
+    
+    private final String poolName;
+    
+    private final ExecutorService delegate;
+    
+    private final Semaphore permits;
+    
+    private final RejectedPolicyType rejectedPolicyType;
+    
+    private final long waitTimeout;
+    
+    private final AtomicInteger activeCount = new AtomicInteger();
+    
+    private final LongAdder rejectedCount = new LongAdder();
+    
+    private final LongAdder finishedTaskCount = new LongAdder();
+    
+    private final LongAdder totalWaitTime = new LongAdder();
+    
+    private final LongAdder totalExecuteTime = new LongAdder();
+    
+    public BusinessVirtualThreadExecutor(String poolName, ExecutorService delegate, int maxConcurrency, 
+                                         RejectedPolicyType rejectedPolicyType, long waitTimeout) {
+        this.poolName = poolName;
+        this.delegate = delegate;
+        this.permits = new Semaphore(maxConcurrency);
+        this.rejectedPolicyType = rejectedPolicyType;
+        this.waitTimeout = waitTimeout;
+    }
+    
+    @Override
+    public void execute(Runnable command) {
+        Runnable task = BaseThreadPool.wrapCurrentContext(command);
+        long submitTime = System.nanoTime();
+        if (!permits.tryAcquire() && !rejected(command, task, submitTime)) {
+            return;
+        }
+        try {
+            delegate.execute(() -> run(task, submitTime, true));
+        }catch (RejectedExecutionException e) {
+            permits.release();
+            rejectedCount.increment();
+            throw e;
+        }
+    }
+    
+    /**
+     * 达到并发上限时的处理
+     *
+     * @param command 调用方提交的原始任务，submit提交时是调用方持有的Future
+     * @param task 携带了上下文的任务
+     * @return 是否已经拿到许可，需要继续交给虚拟线程执行
+     * */
+    private boolean rejected(Runnable command, Runnable task, long submitTime) {
+        rejectedCount.increment();
+        switch (rejectedPolicyType) {
+            case CALLER_RUNS:
+                if (!isShutdown()) {
+                    run(task, submitTime, false);
+                }
+                return false;
+            case BOUNDED_WAIT:
+                try {
+                    if (permits.tryAcquire(waitTimeout, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new RejectedExecutionException("business task " + task + " rejected after waiting " + waitTimeout + 
+                        "ms from " + this);
+            case DISCARD:
+                //取消Future，否则等待结果的调用方会一直阻塞
+                if (command instanceof Future) {
+                    ((Future<?>)command).cancel(false);
+                }
+                return false;
+            default:
+                throw new RejectedExecutionException("threadPoolApplicationName business task " + task + 
+                        " rejected from " + this);
+        }
+    }
+    
+    private void run(Runnable task, long submitTime, boolean release) {
+        long startTime = System.nanoTime();
+        totalWaitTime.add(startTime - submitTime);
+        activeCount.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            activeCount.decrementAndGet();
+            totalExecuteTime.add(System.nanoTime() - startTime);
+            finishedTaskCount.increment();
+            if (release) {
+                permits.release();
+            }
+        }
+    }
+    
+    @Override
+    public String getPoolName() {
+        return poolName;
+    }
+    
+    @Override
+    public boolean isVirtual() {
+        return true;
+    }
+    
+    @Override
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+    
+    @Override
+    public int getPoolSize() {
+        return activeCount.get();
+    }
+    
+    @Override
+    public int getQueueSize() {
+        return 0;
+    }
+    
+    @Override
+    public int getQueueRemainingCapacity() {
+        return permits.availablePermits();
+    }
+    
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+    
+    @Override
+    public long getFinishedTaskCount() {
+        return finishedTaskCount.sum();
+    }
+    
+    @Override
+    public long getTotalWaitTime() {
+        return totalWaitTime.sum();
+    }
+    
+    @Override
+    public long getTotalExecuteTime() {
+        return totalExecuteTime.sum();
+    }
+    
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+    
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+    
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+    
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+    
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+    
+    @Override
+    public String toString() {
+        return poolName + ":virtual[active = " + activeCount.get() + ", available permits = " + 
+                permits.availablePermits() + ", completed tasks = " + finishedTaskCount.sum() + "]";
+    }
+}
@@ -0,0 +1,103 @@
+package com.damai.executor;
+
+import com.damai.config.BusinessThreadPoolProperties;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 虚拟线程钉住(pinned)检测
+ * 虚拟线程在synchronized块中阻塞时会钉住载体线程，通过jfr的jdk.VirtualThreadPinned事件发现，
+ * 钉住位置在项目自己的代码中时打印告警并计数，只有创建了虚拟线程执行器时才启动
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+public class VirtualThreadPinnedMonitor implements DisposableBean {
+    
+    private static final String VIRTUAL_THREAD_PINNED_EVENT = "jdk.VirtualThreadPinned";
+    
+    private final BusinessThreadPoolProperties businessThreadPoolProperties;
+    
+    private final LongAdder applicationPinnedCount = new LongAdder();
+    
+    private final LongAdder otherPinnedCount = new LongAdder();
+    
+    private RecordingStream recordingStream;
+    
+    public VirtualThreadPinnedMonitor(BusinessThreadPoolProperties businessThreadPoolProperties) {
+        this.businessThreadPoolProperties = businessThreadPoolProperties;
+    }
+    
+    public synchronized void start() {
+        if (Objects.nonNull(recordingStream) || !businessThreadPoolProperties.getPinnedMonitorEnabled()) {
+            return;
+        }
+        try {
+            RecordingStream stream = new RecordingStream();
+            stream.enable(VIRTUAL_THREAD_PINNED_EVENT)
+                    .withThreshold(Duration.ofMillis(businessThreadPoolProperties.getPinnedThreshold()))
+                    .withStackTrace();
+            stream.onEvent(VIRTUAL_THREAD_PINNED_EVENT, this::onPinned);
+            stream.startAsync();
+            recordingStream = stream;
+            log.info("virtual thread pinned monitor started threshold : {}ms", businessThreadPoolProperties.getPinnedThreshold());
+        }catch (Exception e) {
+            log.warn("virtual thread pinned monitor start error", e);
+        }
+    }
+    
+    private void onPinned(RecordedEvent event) {
+        RecordedFrame frame = findApplicationFrame(event.getStackTrace());
+        if (Objects.isNull(frame)) {
+            otherPinnedCount.increment();
+            return;
+        }
+        applicationPinnedCount.increment();
+        log.warn("virtual thread pinned {}ms at {}.{}:{} , move blocking calls out of synchronized or use ReentrantLock", 
+                event.getDuration().toMillis(), frame.getMethod().getType().getName(), frame.getMethod().getName(), 
+                frame.getLineNumber());
+    }
+    
+    private RecordedFrame findApplicationFrame(RecordedStackTrace stackTrace) {
+        if (Objects.isNull(stackTrace)) {
+            return null;
+        }
+        String packagePrefix = businessThreadPoolProperties.getPinnedPackagePrefix();
+        for (final RecordedFrame frame : stackTrace.getFrames()) {
+            if (frame.isJavaFrame() && frame.getMethod().getType().getName().startsWith(packagePrefix)) {
+                return frame;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 钉住位置在项目代码中的次数
+     * */
+    public long getApplicationPinnedCount() {
+        return applicationPinnedCount.sum();
+    }
+    
+    /**
+     * 钉住位置在第三方或jdk代码中的次数
+     * */
+    public long getOtherPinnedCount() {
+        return otherPinnedCount.sum();
+    }
+    
+    @Override
+    public synchronized void destroy() {
+        if (Objects.nonNull(recordingStream)) {
+            recordingStream.close();
+            recordingStream = null;
+        }
+    }
+}
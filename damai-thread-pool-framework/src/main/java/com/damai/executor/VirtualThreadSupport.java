@@ -0,0 +1,73 @@
+package com.damai.executor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 虚拟线程支持
+ * 项目按jdk17编译，通过反射调用jdk21的Thread.ofVirtual和Executors.newThreadPerTaskExecutor，
+ * 运行在低版本jdk上时不可用，由调用方退化为平台线程池
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+public final class VirtualThreadSupport {
+    
+    private static final Method OF_VIRTUAL_METHOD;
+    
+    private static final Method NAME_METHOD;
+    
+    private static final Method FACTORY_METHOD;
+    
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR_METHOD;
+    
+    static {
+        Method ofVirtualMethod = null;
+        Method nameMethod = null;
+        Method factoryMethod = null;
+        Method newThreadPerTaskExecutorMethod = null;
+        try {
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            nameMethod = builderClass.getMethod("name", String.class, long.class);
+            factoryMethod = builderClass.getMethod("factory");
+            newThreadPerTaskExecutorMethod = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        }catch (Exception e) {
+            ofVirtualMethod = null;
+        }
+        OF_VIRTUAL_METHOD = ofVirtualMethod;
+        NAME_METHOD = nameMethod;
+        FACTORY_METHOD = factoryMethod;
+        NEW_THREAD_PER_TASK_EXECUTOR_METHOD = newThreadPerTaskExecutorMethod;
+    }
+    
+    private VirtualThreadSupport() {
+    }
+    
+    public static boolean isAvailable() {
+        return Objects.nonNull(OF_VIRTUAL_METHOD);
+    }
+    
+    /**
+     * 创建每个任务一个虚拟线程的执行器，线程名为 namePrefix + 序号，不可用时返回null
+     * */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        if (!isAvailable()) {
+            return null;
+        }
+        try {
+            Object builder = OF_VIRTUAL_METHOD.invoke(null);
+            builder = NAME_METHOD.invoke(builder, namePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory)FACTORY_METHOD.invoke(builder);
+            return (ExecutorService)NEW_THREAD_PER_TASK_EXECUTOR_METHOD.invoke(null, threadFactory);
+        }catch (Exception e) {
+            log.error("create virtual thread executor error namePrefix : {}", namePrefix, e);
+            return null;
+        }
+    }
+}
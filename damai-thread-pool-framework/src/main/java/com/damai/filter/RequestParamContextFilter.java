@@ -1,6 +1,7 @@
 package com.damai.filter;
 
 
+import com.damai.context.ContextSnapshot;
 import com.damai.util.StringUtil;
 import org.slf4j.MDC;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -26,10 +27,13 @@ public class RequestParamContextFilter extends OncePerRequestFilter {
         if (StringUtil.isNotEmpty(traceId)){
             MDC.put(TRACE_ID,traceId);
         }
+        //请求的上下文在这里已经设置完，提前生成快照，请求中提交的任务共享这一份
+        ContextSnapshot.capture();
         try {
             filterChain.doFilter(request, response);
         }finally {
             MDC.remove(TRACE_ID);
+            ContextSnapshot.clear();
         }
     }
 }
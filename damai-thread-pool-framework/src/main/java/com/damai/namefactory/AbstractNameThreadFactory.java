@@ -22,6 +22,18 @@ public abstract class AbstractNameThreadFactory implements ThreadFactory {
                 Thread.currentThread().getThreadGroup();
         namePrefix = getNamePrefix() + "--thread--";
     }
+    
+    /**
+     * 直接指定线程名前缀，不再调用getNamePrefix
+     *
+     * @param namePrefix 线程名前缀
+     */
+    protected AbstractNameThreadFactory(String namePrefix) {
+        SecurityManager s = System.getSecurityManager();
+        group = (s != null) ? s.getThreadGroup() :
+                Thread.currentThread().getThreadGroup();
+        this.namePrefix = namePrefix + "--thread--";
+    }
 
     /**
      * 子类实现获取线程池名称的前缀
@@ -7,6 +7,20 @@ package com.damai.namefactory;
  * @author: 阿星不是程序员
  **/
 public class BusinessNameThreadFactory extends AbstractNameThreadFactory {
+    
+    public BusinessNameThreadFactory() {
+        super();
+    }
+    
+    /**
+     * 命名线程池的线程工厂
+     * 例子:task-pool-preload--1(线程池的数量)
+     *
+     * @param poolName 线程池名称
+     */
+    public BusinessNameThreadFactory(String poolName) {
+        super("task-pool-" + poolName + "--" + POOL_NUM.getAndIncrement());
+    }
 
     /**
      * 将线程池工厂的前缀
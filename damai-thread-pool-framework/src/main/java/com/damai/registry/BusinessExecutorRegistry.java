@@ -0,0 +1,138 @@
+package com.damai.registry;
+
+import com.damai.config.BusinessThreadPoolProperties;
+import com.damai.config.BusinessThreadPoolProperties.PoolProperties;
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.executor.BusinessExecutorService;
+import com.damai.executor.BusinessThreadPoolExecutor;
+import com.damai.executor.BusinessVirtualThreadExecutor;
+import com.damai.executor.VirtualThreadSupport;
+import com.damai.namefactory.BusinessNameThreadFactory;
+import com.damai.rejectedexecutionhandler.ThreadPoolRejectedExecutionHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 业务线程池注册中心
+ * 按名称隔离线程池，启动时的批量任务和请求链路上的预热任务互不影响，每个线程池的参数和拒绝策略单独配置
+ * @author: 阿星不是程序员
+ **/
+@Slf4j
+public class BusinessExecutorRegistry implements DisposableBean {
+    
+    public static final String DEFAULT_POOL_NAME = "default";
+    
+    private static volatile BusinessExecutorRegistry instance;
+    
+    private final BusinessThreadPoolProperties businessThreadPoolProperties;
+    
+    private final Map<String, BusinessExecutorService> executorMap = new ConcurrentHashMap<>(8);
+    
+    public BusinessExecutorRegistry(BusinessThreadPoolProperties businessThreadPoolProperties) {
+        this.businessThreadPoolProperties = businessThreadPoolProperties;
+        Map<String, PoolProperties> pools = businessThreadPoolProperties.getPools();
+        executorMap.put(DEFAULT_POOL_NAME, createExecutor(DEFAULT_POOL_NAME, 
+                pools.getOrDefault(DEFAULT_POOL_NAME, new PoolProperties())));
+        pools.forEach((poolName, poolProperties) -> executorMap.computeIfAbsent(poolName, 
+                key -> createExecutor(key, poolProperties)));
+        instance = this;
+    }
+    
+    /**
+     * 容器中的注册中心，容器启动前或已经关闭时返回null
+     * */
+    public static BusinessExecutorRegistry getInstance() {
+        return instance;
+    }
+    
+    /**
+     * 获取指定名称的线程池，线程池都在启动时按配置创建，名称写错时直接报错，不会悄悄创建一个默认参数的线程池
+     * */
+    public BusinessExecutorService getExecutor(String poolName) {
+        BusinessExecutorService executor = executorMap.get(poolName);
+        if (Objects.isNull(executor)) {
+            log.error("business thread pool {} is not configured, configured pools : {}", poolName, executorMap.keySet());
+            throw new DaMaiFrameException(BaseCode.BUSINESS_THREAD_POOL_NOT_EXIST);
+        }
+        return executor;
+    }
+    
+    public BusinessExecutorService getDefaultExecutor() {
+        return getExecutor(DEFAULT_POOL_NAME);
+    }
+    
+    public Collection<BusinessExecutorService> getExecutors() {
+        return executorMap.values();
+    }
+    
+    /**
+     * 对所有线程池执行回调，线程池在启动时已经全部创建
+     * */
+    public void addExecutorListener(Consumer<BusinessExecutorService> executorListener) {
+        executorMap.values().forEach(executorListener);
+    }
+    
+    /**
+     * 配置了虚拟线程且当前jdk支持时创建虚拟线程执行器，否则创建平台线程池
+     * */
+    public static BusinessExecutorService createExecutor(String poolName, PoolProperties poolProperties) {
+        if (poolProperties.getVirtual()) {
+            ExecutorService delegate = VirtualThreadSupport.newThreadPerTaskExecutor("task-virtual-" + poolName + "--");
+            if (Objects.nonNull(delegate)) {
+                log.info("create business virtual thread executor name : {} maxConcurrency : {} rejectedPolicy : {}", 
+                        poolName, poolProperties.getMaxConcurrency(), poolProperties.getRejectedPolicy());
+                return new BusinessVirtualThreadExecutor(poolName, delegate, poolProperties.getMaxConcurrency(), 
+                        poolProperties.getRejectedPolicy(), poolProperties.getWaitTimeout());
+            }
+            log.warn("virtual thread is not supported by java {}, business thread pool {} falls back to platform threads", 
+                    System.getProperty("java.version"), poolName);
+        }
+        int corePoolSize = poolProperties.getCorePoolSize();
+        int maximumPoolSize = Math.max(poolProperties.getMaximumPoolSize(), corePoolSize);
+        BusinessThreadPoolExecutor executor = new BusinessThreadPoolExecutor(
+                poolName,
+                corePoolSize,
+                maximumPoolSize,
+                poolProperties.getKeepAliveSeconds(),
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(poolProperties.getQueueCapacity()),
+                new BusinessNameThreadFactory(poolName),
+                ThreadPoolRejectedExecutionHandler.create(poolProperties.getRejectedPolicy(), poolProperties.getWaitTimeout()));
+        log.info("create business thread pool name : {} corePoolSize : {} maximumPoolSize : {} queueCapacity : {} rejectedPolicy : {}",
+                poolName, corePoolSize, maximumPoolSize, poolProperties.getQueueCapacity(), poolProperties.getRejectedPolicy());
+        return executor;
+    }
+    
+    @Override
+    public void destroy() {
+        if (instance == this) {
+            instance = null;
+        }
+        executorMap.values().forEach(BusinessExecutorService::shutdown);
+        long deadline = System.currentTimeMillis() + 
+                TimeUnit.SECONDS.toMillis(businessThreadPoolProperties.getAwaitTerminationSeconds());
+        for (final BusinessExecutorService executor : executorMap.values()) {
+            try {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !executor.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                    log.warn("business thread pool {} did not terminate in time, remaining task : {}", 
+                            executor.getPoolName(), executor.shutdownNow().size());
+                }
+            }catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.damai.rejectedexecutionhandler;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 拒绝策略类型
+ * @author: 阿星不是程序员
+ **/
+public enum RejectedPolicyType {
+    
+    /**
+     * 抛出RejectedExecutionException
+     * */
+    ABORT,
+    
+    /**
+     * 由提交任务的线程直接执行，提交方被拖慢形成背压
+     * */
+    CALLER_RUNS,
+    
+    /**
+     * 提交线程最多等待waitTimeout毫秒放入队列，超时后抛出RejectedExecutionException
+     * */
+    BOUNDED_WAIT,
+    
+    /**
+     * 直接丢弃，只记录拒绝次数
+     * */
+    DISCARD
+}
@@ -1,28 +1,112 @@
 package com.damai.rejectedexecutionhandler;
 
+import com.damai.executor.BusinessThreadPoolExecutor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
  * @description: 拒绝策略
  * @author: 阿星不是程序员
  **/
+@Slf4j
 public class ThreadPoolRejectedExecutionHandler {
     
+    public static RejectedExecutionHandler create(RejectedPolicyType rejectedPolicyType, long waitTimeout) {
+        switch (rejectedPolicyType) {
+            case CALLER_RUNS:
+                return new BusinessCallerRunsPolicy();
+            case BOUNDED_WAIT:
+                return new BusinessBoundedWaitPolicy(waitTimeout);
+            case DISCARD:
+                return new BusinessDiscardPolicy();
+            default:
+                return new BusinessAbortPolicy();
+        }
+    }
     
-    public static class BusinessAbortPolicy implements RejectedExecutionHandler {
-
+    /**
+     * 每次触发拒绝都先计数，再交给具体的策略处理
+     * */
+    public abstract static class AbstractBusinessRejectedPolicy implements RejectedExecutionHandler {
+        
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor instanceof BusinessThreadPoolExecutor) {
+                ((BusinessThreadPoolExecutor)executor).incrementRejectedCount();
+            }
+            doRejectedExecution(r, executor);
+        }
+        
+        protected abstract void doRejectedExecution(Runnable r, ThreadPoolExecutor executor);
+    }
+    
+    public static class BusinessAbortPolicy extends AbstractBusinessRejectedPolicy {
+        
         public BusinessAbortPolicy() {
         }
-
+        
         @Override
-        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-
+        protected void doRejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            
             throw new RejectedExecutionException("threadPoolApplicationName business task " + r.toString() +
                     " rejected from " +
                     executor.toString());
         }
     }
+    
+    public static class BusinessCallerRunsPolicy extends AbstractBusinessRejectedPolicy {
+        
+        @Override
+        protected void doRejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                log.warn("business task discarded, executor is shutdown : {}", executor);
+                return;
+            }
+            r.run();
+        }
+    }
+    
+    public static class BusinessBoundedWaitPolicy extends AbstractBusinessRejectedPolicy {
+        
+        private final long waitTimeout;
+        
+        public BusinessBoundedWaitPolicy(long waitTimeout) {
+            this.waitTimeout = waitTimeout;
+        }
+        
+        @Override
+        protected void doRejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("business task " + r + " rejected, executor is shutdown " + executor);
+            }
+            try {
+                if (executor.getQueue().offer(r, waitTimeout, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new RejectedExecutionException("business task " + r + " rejected after waiting " + waitTimeout + 
+                    "ms from " + executor);
+        }
+    }
+    
+    public static class BusinessDiscardPolicy extends AbstractBusinessRejectedPolicy {
+        
+        @Override
+        protected void doRejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            //只通过拒绝次数的指标体现，避免高峰期打出大量日志
+            //submit提交的任务要取消Future，否则等待结果的调用方会一直阻塞
+            Runnable submittedTask = BusinessThreadPoolExecutor.getSubmittedTask(r);
+            if (submittedTask instanceof Future) {
+                ((Future<?>)submittedTask).cancel(false);
+            }
+        }
+    }
 }
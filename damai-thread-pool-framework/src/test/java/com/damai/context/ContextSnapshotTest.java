@@ -0,0 +1,156 @@
+package com.damai.context;
+
+import com.damai.config.BusinessThreadPoolProperties.PoolProperties;
+import com.damai.executor.BusinessExecutorService;
+import com.damai.registry.BusinessExecutorRegistry;
+import com.damai.threadlocal.BaseParameterHolder;
+import org.apache.logging.log4j.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 线程上下文快照的测试，上下文没有变化时共享同一个快照，任务在其它线程中能拿到提交线程的MDC和参数，
+ * 执行完后恢复执行线程原来的上下文
+ * @author: 阿星不是程序员
+ **/
+public class ContextSnapshotTest {
+    
+    private static final String TRACE_ID = "traceId";
+    
+    private static final String USER_ID = "userId";
+    
+    @AfterEach
+    public void tearDown() {
+        ThreadContext.clearMap();
+        BaseParameterHolder.removeParameterMap();
+        ContextSnapshot.clear();
+    }
+    
+    @Test
+    public void snapshotIsSharedWhileContextUnchanged() {
+        assertSame(ContextSnapshot.capture(), ContextSnapshot.capture());
+        
+        ThreadContext.put(TRACE_ID, "t1");
+        BaseParameterHolder.setParameter(USER_ID, "1");
+        ContextSnapshot snapshot = ContextSnapshot.capture();
+        assertSame(snapshot, ContextSnapshot.capture());
+        
+        BaseParameterHolder.setParameter("code", "0001");
+        ContextSnapshot parameterChanged = ContextSnapshot.capture();
+        assertNotSame(snapshot, parameterChanged);
+        assertSame(parameterChanged, ContextSnapshot.capture());
+        
+        ThreadContext.put(TRACE_ID, "t2");
+        ContextSnapshot mdcChanged = ContextSnapshot.capture();
+        assertNotSame(parameterChanged, mdcChanged);
+        
+        //请求结束清除缓存后重新创建
+        ContextSnapshot.clear();
+        assertNotSame(mdcChanged, ContextSnapshot.capture());
+    }
+    
+    @Test
+    public void contextIsPropagatedToWorkerAndRestored() throws Exception {
+        PoolProperties poolProperties = new PoolProperties();
+        poolProperties.setCorePoolSize(1);
+        poolProperties.setMaximumPoolSize(1);
+        BusinessExecutorService executor = BusinessExecutorRegistry.createExecutor("context", poolProperties);
+        try {
+            ThreadContext.put(TRACE_ID, "t1");
+            BaseParameterHolder.setParameter(USER_ID, "1");
+            String[] seen = executor.submit(() -> new String[]{ThreadContext.get(TRACE_ID),
+                    BaseParameterHolder.getParameter(USER_ID)}).get(5, TimeUnit.SECONDS);
+            assertEquals("t1", seen[0]);
+            assertEquals("1", seen[1]);
+            
+            //同一个线程执行下一个任务时不会残留上一个任务的上下文
+            ThreadContext.clearMap();
+            BaseParameterHolder.removeParameterMap();
+            String[] next = executor.submit(() -> new String[]{ThreadContext.get(TRACE_ID),
+                    BaseParameterHolder.getParameter(USER_ID)}).get(5, TimeUnit.SECONDS);
+            assertNull(next[0]);
+            assertNull(next[1]);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void bindInCallerThreadRestoresCallerContext() {
+        ThreadContext.put(TRACE_ID, "task");
+        BaseParameterHolder.setParameter(USER_ID, "2");
+        ContextSnapshot snapshot = ContextSnapshot.capture();
+        
+        ThreadContext.put(TRACE_ID, "caller");
+        BaseParameterHolder.setParameter(USER_ID, "1");
+        Map<String, String> callerParameterMap = BaseParameterHolder.getParameterMap();
+        String[] seen = new String[2];
+        //拒绝策略为caller_runs时任务在提交线程中执行
+        snapshot.bind(() -> {
+            seen[0] = ThreadContext.get(TRACE_ID);
+            seen[1] = BaseParameterHolder.getParameter(USER_ID);
+        }).run();
+        
+        assertEquals("task", seen[0]);
+        assertEquals("2", seen[1]);
+        assertEquals("caller", ThreadContext.get(TRACE_ID));
+        assertSame(callerParameterMap, BaseParameterHolder.getParameterMap());
+    }
+    
+    @Test
+    public void wrappedSupplierAndCallableCarryContext() throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            ThreadContext.put(TRACE_ID, "t1");
+            BaseParameterHolder.setParameter(USER_ID, "1");
+            
+            Supplier<String> traceIdSupplier = () -> ThreadContext.get(TRACE_ID);
+            Callable<String> userIdCallable = () -> BaseParameterHolder.getParameter(USER_ID);
+            String traceId = CompletableFuture.supplyAsync(ContextSnapshot.wrap(traceIdSupplier), executorService)
+                    .get(5, TimeUnit.SECONDS);
+            String userId = executorService.submit(ContextSnapshot.wrap(userIdCallable)).get(5, TimeUnit.SECONDS);
+            String unwrapped = executorService.submit(() -> BaseParameterHolder.getParameter(USER_ID)).get(5, TimeUnit.SECONDS);
+            
+            assertEquals("t1", traceId);
+            assertEquals("1", userId);
+            assertNull(unwrapped);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void parameterMapIsCopyOnWrite() {
+        BaseParameterHolder.setParameter(USER_ID, "1");
+        Map<String, String> parameterMap = BaseParameterHolder.getParameterMap();
+        
+        assertThrows(UnsupportedOperationException.class, () -> parameterMap.put("code", "0001"));
+        BaseParameterHolder.setParameter("code", "0001");
+        assertEquals(1, parameterMap.size());
+        assertEquals("0001", BaseParameterHolder.getParameter("code"));
+        
+        Map<String, String> current = BaseParameterHolder.getParameterMap();
+        BaseParameterHolder.removeParameter("missing");
+        assertSame(current, BaseParameterHolder.getParameterMap());
+        BaseParameterHolder.removeParameter("code");
+        BaseParameterHolder.removeParameter(USER_ID);
+        assertTrue(BaseParameterHolder.getParameterMap().isEmpty());
+        assertNull(BaseParameterHolder.getThreadLocal().get());
+    }
+}
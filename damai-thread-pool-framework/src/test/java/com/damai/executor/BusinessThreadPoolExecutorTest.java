@@ -0,0 +1,177 @@
+package com.damai.executor;
+
+import com.damai.config.BusinessThreadPoolProperties.PoolProperties;
+import com.damai.registry.BusinessExecutorRegistry;
+import com.damai.rejectedexecutionhandler.RejectedPolicyType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 业务线程池拒绝策略和统计的测试，线程池只有一个线程和一个队列位置，
+ * 第一个任务阻塞住线程，第二个任务占满队列，第三个任务触发拒绝策略
+ * @author: 阿星不是程序员
+ **/
+public class BusinessThreadPoolExecutorTest {
+    
+    private final CountDownLatch release = new CountDownLatch(1);
+    
+    private final AtomicInteger executedCount = new AtomicInteger();
+    
+    private BusinessThreadPoolExecutor executor;
+    
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void abortPolicyThrowsAndCountsRejection() throws InterruptedException {
+        executor = fullExecutor(RejectedPolicyType.ABORT, 1000);
+        
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(executedCount::incrementAndGet));
+        assertEquals(1, executor.getRejectedCount());
+        
+        release.countDown();
+        awaitTermination();
+        assertEquals(2, executedCount.get());
+    }
+    
+    @Test
+    public void callerRunsPolicyRunsInSubmittingThread() throws InterruptedException {
+        executor = fullExecutor(RejectedPolicyType.CALLER_RUNS, 1000);
+        AtomicReference<Thread> runThread = new AtomicReference<>();
+        
+        executor.execute(() -> runThread.set(Thread.currentThread()));
+        
+        assertEquals(Thread.currentThread(), runThread.get());
+        assertEquals(1, executor.getRejectedCount());
+        release.countDown();
+        awaitTermination();
+        //在提交线程中执行的任务也计入完成数
+        assertEquals(3, executor.getFinishedTaskCount());
+    }
+    
+    @Test
+    public void discardPolicyDropsTaskSilently() throws InterruptedException {
+        executor = fullExecutor(RejectedPolicyType.DISCARD, 1000);
+        
+        executor.execute(() -> executedCount.addAndGet(100));
+        executor.execute(() -> executedCount.addAndGet(100));
+        
+        assertEquals(2, executor.getRejectedCount());
+        release.countDown();
+        awaitTermination();
+        assertEquals(2, executedCount.get());
+    }
+    
+    @Test
+    public void discardPolicyCancelsSubmittedFuture() throws Exception {
+        executor = fullExecutor(RejectedPolicyType.DISCARD, 1000);
+        
+        Future<Integer> future = executor.submit(() -> executedCount.addAndGet(100));
+        
+        //被丢弃的任务立即结束，等待结果的调用方不会一直阻塞
+        assertTrue(future.isCancelled());
+        assertThrows(CancellationException.class, () -> future.get(1, TimeUnit.SECONDS));
+        assertEquals(1, executor.getRejectedCount());
+        release.countDown();
+        awaitTermination();
+        assertEquals(2, executedCount.get());
+    }
+    
+    @Test
+    public void boundedWaitPolicyRejectsAfterTimeout() throws InterruptedException {
+        executor = fullExecutor(RejectedPolicyType.BOUNDED_WAIT, 100);
+        
+        long start = System.nanoTime();
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(executedCount::incrementAndGet));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        assertTrue(elapsed >= 90, "elapsed : " + elapsed);
+        assertEquals(1, executor.getRejectedCount());
+    }
+    
+    @Test
+    public void boundedWaitPolicyEnqueuesWhenSpaceFrees() throws Exception {
+        executor = fullExecutor(RejectedPolicyType.BOUNDED_WAIT, 5000);
+        ExecutorService submitter = Executors.newSingleThreadExecutor();
+        Future<?> submitted = submitter.submit(() -> executor.execute(executedCount::incrementAndGet));
+        
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(submitted.isDone());
+        release.countDown();
+        submitted.get(5, TimeUnit.SECONDS);
+        awaitTermination();
+        submitter.shutdown();
+        
+        assertEquals(3, executedCount.get());
+        assertEquals(1, executor.getRejectedCount());
+    }
+    
+    @Test
+    public void waitAndExecuteTimeAreAccumulated() throws InterruptedException {
+        executor = fullExecutor(RejectedPolicyType.ABORT, 1000);
+        TimeUnit.MILLISECONDS.sleep(50);
+        release.countDown();
+        awaitTermination();
+        
+        assertEquals(2, executor.getFinishedTaskCount());
+        //第一个任务至少阻塞了50毫秒，第二个任务至少排队了50毫秒
+        assertTrue(executor.getTotalExecuteTime() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(executor.getTotalWaitTime() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertFalse(executor.isVirtual());
+        assertEquals("test", executor.getPoolName());
+    }
+    
+    /**
+     * 创建一个线程已经被阻塞、队列已满的线程池
+     * */
+    private BusinessThreadPoolExecutor fullExecutor(RejectedPolicyType rejectedPolicyType, long waitTimeout) throws InterruptedException {
+        PoolProperties poolProperties = new PoolProperties();
+        poolProperties.setCorePoolSize(1);
+        poolProperties.setMaximumPoolSize(1);
+        poolProperties.setQueueCapacity(1);
+        poolProperties.setRejectedPolicy(rejectedPolicyType);
+        poolProperties.setWaitTimeout(waitTimeout);
+        BusinessThreadPoolExecutor businessThreadPoolExecutor =
+                (BusinessThreadPoolExecutor)BusinessExecutorRegistry.createExecutor("test", poolProperties);
+        CountDownLatch started = new CountDownLatch(1);
+        businessThreadPoolExecutor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            }catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executedCount.incrementAndGet();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        businessThreadPoolExecutor.execute(executedCount::incrementAndGet);
+        assertEquals(0, businessThreadPoolExecutor.getQueueRemainingCapacity());
+        return businessThreadPoolExecutor;
+    }
+    
+    private void awaitTermination() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
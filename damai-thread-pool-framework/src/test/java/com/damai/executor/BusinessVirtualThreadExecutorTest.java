@@ -0,0 +1,216 @@
+package com.damai.executor;
+
+import com.damai.BusinessThreadPool;
+import com.damai.config.BusinessThreadPoolProperties.PoolProperties;
+import com.damai.enums.BaseCode;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.registry.BusinessExecutorRegistry;
+import com.damai.rejectedexecutionhandler.RejectedPolicyType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 虚拟线程执行器的测试，并发上限和拒绝策略的行为和虚拟线程无关，
+ * 用平台线程的执行器代替虚拟线程执行器，在任何jdk版本上都可以执行
+ * @author: 阿星不是程序员
+ **/
+public class BusinessVirtualThreadExecutorTest {
+    
+    private static final int MAX_CONCURRENCY = 2;
+    
+    private final CountDownLatch release = new CountDownLatch(1);
+    
+    private final AtomicInteger executedCount = new AtomicInteger();
+    
+    private BusinessVirtualThreadExecutor executor;
+    
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void abortPolicyRejectsAboveMaxConcurrency() throws InterruptedException {
+        executor = busyExecutor(RejectedPolicyType.ABORT, 1000);
+        
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(executedCount::incrementAndGet));
+        assertEquals(1, executor.getRejectedCount());
+        assertEquals(MAX_CONCURRENCY, executor.getActiveCount());
+        
+        release.countDown();
+        awaitTermination();
+        assertEquals(MAX_CONCURRENCY, executedCount.get());
+        //许可全部归还
+        assertEquals(MAX_CONCURRENCY, executor.getQueueRemainingCapacity());
+    }
+    
+    @Test
+    public void callerRunsPolicyRunsWithoutPermit() throws InterruptedException {
+        executor = busyExecutor(RejectedPolicyType.CALLER_RUNS, 1000);
+        AtomicReference<Thread> runThread = new AtomicReference<>();
+        
+        executor.execute(() -> runThread.set(Thread.currentThread()));
+        
+        assertSame(Thread.currentThread(), runThread.get());
+        release.countDown();
+        awaitTermination();
+        assertEquals(MAX_CONCURRENCY + 1, executor.getFinishedTaskCount());
+        assertEquals(MAX_CONCURRENCY, executor.getQueueRemainingCapacity());
+    }
+    
+    @Test
+    public void boundedWaitPolicyWaitsForPermit() throws Exception {
+        executor = busyExecutor(RejectedPolicyType.BOUNDED_WAIT, 5000);
+        ExecutorService submitter = Executors.newSingleThreadExecutor();
+        Future<?> submitted = submitter.submit(() -> executor.execute(executedCount::incrementAndGet));
+        
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(submitted.isDone());
+        release.countDown();
+        submitted.get(5, TimeUnit.SECONDS);
+        awaitTermination();
+        submitter.shutdown();
+        
+        assertEquals(MAX_CONCURRENCY + 1, executedCount.get());
+        assertEquals(MAX_CONCURRENCY, executor.getQueueRemainingCapacity());
+    }
+    
+    @Test
+    public void boundedWaitPolicyRejectsAfterTimeout() throws InterruptedException {
+        executor = busyExecutor(RejectedPolicyType.BOUNDED_WAIT, 100);
+        
+        long start = System.nanoTime();
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(executedCount::incrementAndGet));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        assertTrue(elapsed >= 90, "elapsed : " + elapsed);
+        assertEquals(0, executor.getQueueRemainingCapacity());
+    }
+    
+    @Test
+    public void discardPolicyDropsTask() throws InterruptedException {
+        executor = busyExecutor(RejectedPolicyType.DISCARD, 1000);
+        
+        executor.execute(() -> executedCount.addAndGet(100));
+        
+        assertEquals(1, executor.getRejectedCount());
+        release.countDown();
+        awaitTermination();
+        assertEquals(MAX_CONCURRENCY, executedCount.get());
+    }
+    
+    @Test
+    public void discardPolicyCancelsSubmittedFuture() throws InterruptedException {
+        executor = busyExecutor(RejectedPolicyType.DISCARD, 1000);
+        
+        Future<Integer> future = executor.submit(() -> executedCount.addAndGet(100));
+        
+        //被丢弃的任务立即结束，等待结果的调用方不会一直阻塞
+        assertTrue(future.isCancelled());
+        assertThrows(CancellationException.class, () -> future.get(1, TimeUnit.SECONDS));
+        assertEquals(1, executor.getRejectedCount());
+        release.countDown();
+        awaitTermination();
+        assertEquals(MAX_CONCURRENCY, executedCount.get());
+    }
+    
+    @Test
+    public void permitIsReturnedWhenDelegateRejects() {
+        executor = new BusinessVirtualThreadExecutor("test", Executors.newCachedThreadPool(), MAX_CONCURRENCY,
+                RejectedPolicyType.ABORT, 1000);
+        executor.shutdown();
+        
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(executedCount::incrementAndGet));
+        assertEquals(MAX_CONCURRENCY, executor.getQueueRemainingCapacity());
+        assertEquals(1, executor.getRejectedCount());
+        assertTrue(executor.isShutdown());
+    }
+    
+    @Test
+    public void virtualPoolFallsBackToPlatformThreadsWhenUnsupported() throws Exception {
+        PoolProperties poolProperties = new PoolProperties();
+        poolProperties.setVirtual(true);
+        BusinessExecutorService businessExecutorService = BusinessExecutorRegistry.createExecutor("io", poolProperties);
+        try {
+            assertEquals(VirtualThreadSupport.isAvailable(), businessExecutorService.isVirtual());
+            String threadName = businessExecutorService.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+            String namePrefix = VirtualThreadSupport.isAvailable() ? "task-virtual-io--" : "task-pool-io--";
+            assertTrue(threadName.startsWith(namePrefix), threadName);
+        } finally {
+            businessExecutorService.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void resultUnwrapsBusinessException() {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> success = executorService.submit(() -> "ok");
+            assertEquals("ok", BusinessThreadPool.getResult(success));
+            
+            Future<String> businessError = executorService.submit(() -> {
+                throw new DaMaiFrameException(BaseCode.PARAMETER_ERROR);
+            });
+            DaMaiFrameException businessException = assertThrows(DaMaiFrameException.class,
+                    () -> BusinessThreadPool.getResult(businessError));
+            assertEquals(BaseCode.PARAMETER_ERROR.getCode(), businessException.getCode());
+            
+            IllegalStateException cause = new IllegalStateException("rpc error");
+            Future<String> otherError = executorService.submit(() -> {
+                throw cause;
+            });
+            DaMaiFrameException wrapped = assertThrows(DaMaiFrameException.class, () -> BusinessThreadPool.getResult(otherError));
+            assertSame(cause, wrapped.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    /**
+     * 创建一个同时执行的任务数已经达到上限的执行器
+     * */
+    private BusinessVirtualThreadExecutor busyExecutor(RejectedPolicyType rejectedPolicyType, long waitTimeout) throws InterruptedException {
+        BusinessVirtualThreadExecutor businessVirtualThreadExecutor = new BusinessVirtualThreadExecutor("test",
+                Executors.newCachedThreadPool(), MAX_CONCURRENCY, rejectedPolicyType, waitTimeout);
+        CountDownLatch started = new CountDownLatch(MAX_CONCURRENCY);
+        for (int i = 0; i < MAX_CONCURRENCY; i++) {
+            businessVirtualThreadExecutor.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                }catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                executedCount.incrementAndGet();
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(0, businessVirtualThreadExecutor.getQueueRemainingCapacity());
+        return businessVirtualThreadExecutor;
+    }
+    
+    private void awaitTermination() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
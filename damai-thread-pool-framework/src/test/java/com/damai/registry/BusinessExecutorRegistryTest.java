@@ -0,0 +1,142 @@
+package com.damai.registry;
+
+import com.damai.BusinessThreadPool;
+import com.damai.config.BusinessThreadPoolProperties;
+import com.damai.config.BusinessThreadPoolProperties.PoolProperties;
+import com.damai.exception.DaMaiFrameException;
+import com.damai.executor.BusinessExecutorService;
+import com.damai.executor.BusinessThreadPoolExecutor;
+import com.damai.rejectedexecutionhandler.RejectedPolicyType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @program: 极度真实还原大麦网高并发实战项目。 添加 阿星不是程序员 微信，添加时备注 大麦 来获取项目的完整资料 
+ * @description: 业务线程池注册中心的测试，按名称隔离线程池并使用各自的配置，关闭时等待任务执行完
+ * @author: 阿星不是程序员
+ **/
+public class BusinessExecutorRegistryTest {
+    
+    private static final String PRELOAD_POOL_NAME = "preload";
+    
+    private BusinessExecutorRegistry businessExecutorRegistry;
+    
+    @BeforeEach
+    public void setUp() {
+        PoolProperties preload = new PoolProperties();
+        preload.setCorePoolSize(2);
+        preload.setMaximumPoolSize(4);
+        preload.setQueueCapacity(10);
+        preload.setRejectedPolicy(RejectedPolicyType.ABORT);
+        BusinessThreadPoolProperties businessThreadPoolProperties = new BusinessThreadPoolProperties();
+        businessThreadPoolProperties.getPools().put(PRELOAD_POOL_NAME, preload);
+        businessThreadPoolProperties.setAwaitTerminationSeconds(5L);
+        businessExecutorRegistry = new BusinessExecutorRegistry(businessThreadPoolProperties);
+    }
+    
+    @AfterEach
+    public void tearDown() {
+        businessExecutorRegistry.destroy();
+    }
+    
+    @Test
+    public void poolsAreIsolatedByName() {
+        BusinessExecutorService preload = businessExecutorRegistry.getExecutor(PRELOAD_POOL_NAME);
+        
+        assertSame(preload, businessExecutorRegistry.getExecutor(PRELOAD_POOL_NAME));
+        assertNotSame(preload, businessExecutorRegistry.getDefaultExecutor());
+        BusinessThreadPoolExecutor preloadExecutor = (BusinessThreadPoolExecutor)preload;
+        assertEquals(2, preloadExecutor.getCorePoolSize());
+        assertEquals(4, preloadExecutor.getMaximumPoolSize());
+        assertEquals(10, preloadExecutor.getQueueRemainingCapacity());
+        
+        //没有配置的default线程池按默认参数创建
+        BusinessThreadPoolExecutor defaultExecutor = (BusinessThreadPoolExecutor)businessExecutorRegistry.getDefaultExecutor();
+        assertEquals(new PoolProperties().getCorePoolSize(), defaultExecutor.getCorePoolSize());
+        assertEquals(600, defaultExecutor.getQueueRemainingCapacity());
+        assertEquals(2, businessExecutorRegistry.getExecutors().size());
+    }
+    
+    @Test
+    public void unknownPoolNameIsRejected() {
+        //名称写错时报错，不会悄悄创建一个默认参数的线程池
+        assertThrows(DaMaiFrameException.class, () -> businessExecutorRegistry.getExecutor("preloads"));
+        assertThrows(DaMaiFrameException.class, () -> BusinessThreadPool.getExecutor("preloads"));
+        assertEquals(2, businessExecutorRegistry.getExecutors().size());
+    }
+    
+    @Test
+    public void defaultRejectedPolicyIsAbort() {
+        //caller_runs会让请求线程执行任务，只能按线程池显式配置
+        assertEquals(RejectedPolicyType.ABORT, new PoolProperties().getRejectedPolicy());
+        assertThrows(RejectedExecutionException.class, () -> {
+            for (int i = 0; i < 10_000; i++) {
+                businessExecutorRegistry.getDefaultExecutor().execute(() -> {
+                    try {
+                        TimeUnit.SECONDS.sleep(1);
+                    }catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        });
+        businessExecutorRegistry.getDefaultExecutor().shutdownNow();
+    }
+    
+    @Test
+    public void threadNameContainsPoolName() throws Exception {
+        String threadName = businessExecutorRegistry.getExecutor(PRELOAD_POOL_NAME)
+                .submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+        
+        assertTrue(threadName.startsWith("task-pool-" + PRELOAD_POOL_NAME + "--"), threadName);
+    }
+    
+    @Test
+    public void listenerIsCalledForConfiguredPools() {
+        List<String> poolNameList = new ArrayList<>();
+        businessExecutorRegistry.addExecutorListener(executor -> poolNameList.add(executor.getPoolName()));
+        
+        assertEquals(2, poolNameList.size());
+        assertTrue(poolNameList.contains(BusinessExecutorRegistry.DEFAULT_POOL_NAME));
+        assertTrue(poolNameList.contains(PRELOAD_POOL_NAME));
+    }
+    
+    @Test
+    public void staticEntryUsesRegistryUntilDestroyed() throws InterruptedException {
+        assertSame(businessExecutorRegistry, BusinessExecutorRegistry.getInstance());
+        BusinessExecutorService preload = businessExecutorRegistry.getExecutor(PRELOAD_POOL_NAME);
+        assertSame(preload, BusinessThreadPool.getExecutor(PRELOAD_POOL_NAME));
+        
+        AtomicBoolean finished = new AtomicBoolean(false);
+        BusinessThreadPool.execute(PRELOAD_POOL_NAME, () -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            }catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finished.set(true);
+        });
+        businessExecutorRegistry.destroy();
+        
+        //关闭时等待正在执行的任务完成
+        assertTrue(finished.get());
+        assertTrue(preload.isTerminated());
+        assertNull(BusinessExecutorRegistry.getInstance());
+        assertEquals("fallback", BusinessThreadPool.getExecutor(PRELOAD_POOL_NAME).getPoolName());
+    }
+}
@@ -7,6 +7,7 @@ DROP TABLE IF EXISTS `d_api_data`;
 /*!40101 SET character_set_client = utf8 */;
 CREATE TABLE `d_api_data` (
   `id` bigint(20) NOT NULL COMMENT '主键id',
+  `insert_seq` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '写入顺序，游标分页使用',
   `head_version` varchar(32) DEFAULT NULL COMMENT '请求版本',
   `api_address` varchar(32) DEFAULT NULL COMMENT '客户端ip',
   `api_method` varchar(32) DEFAULT NULL COMMENT '请求方法',
@@ -22,9 +23,10 @@ CREATE TABLE `d_api_data` (
   `edit_time` datetime DEFAULT NULL COMMENT '编辑时间',
   `create_time` datetime DEFAULT NULL COMMENT '创建时间',
   PRIMARY KEY (`id`),
+  UNIQUE KEY `uk_insert_seq` (`insert_seq`) USING BTREE,
   KEY `idx_create_time` (`create_time`) USING BTREE,
-  KEY `idx_api_address` (`api_address`) USING BTREE,
-  KEY `idx_api_url` (`api_url`) USING BTREE,
+  KEY `idx_api_address_insert_seq` (`api_address`,`insert_seq`) USING BTREE,
+  KEY `idx_api_url_insert_seq` (`api_url`,`insert_seq`) USING BTREE,
   KEY `idx_call_day_time` (`call_day_time`) USING BTREE,
   KEY `idx_call_hour_time` (`call_hour_time`) USING BTREE,
   KEY `idx_call_minute_time` (`call_minute_time`) USING BTREE,
@@ -106,5 +108,3 @@ LOCK TABLES `d_rule` WRITE;
 /*!40000 ALTER TABLE `d_rule` DISABLE KEYS */;
 /*!40000 ALTER TABLE `d_rule` ENABLE KEYS */;
 UNLOCK TABLES;
-
-
@@ -0,0 +1,14 @@
+USE damai_customize;
+
+--
+-- d_api_data 游标分页和过期清理所需的列和索引
+-- 游标分页按 insert_seq 倒序，insert_seq 由数据库在写入时自增分配，网关上报延迟的记录写入后序号也更大，
+-- 带条件查询时先按 api_address/api_url 等值过滤再按 insert_seq 扫描，过期清理和按时间范围查询使用 create_time 索引
+--
+
+ALTER TABLE `d_api_data` ADD COLUMN `insert_seq` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '写入顺序，游标分页使用' AFTER `id`,
+    ADD UNIQUE KEY `uk_insert_seq` (`insert_seq`);
+DROP INDEX `idx_api_address` ON `d_api_data`;
+DROP INDEX `idx_api_url` ON `d_api_data`;
+CREATE INDEX `idx_api_address_insert_seq` ON `d_api_data` (`api_address`, `insert_seq`);
+CREATE INDEX `idx_api_url_insert_seq` ON `d_api_data` (`api_url`, `insert_seq`);
@@ -0,0 +1,55 @@
+--
+-- d_order_outbox 订单发件箱表
+-- 订单超时取消等需要和订单一起生效的消息，在创建订单的事务中写入发件箱，由订单服务的 OrderOutboxRelay 发送到延迟队列。
+-- 每个订单库一张表，和订单使用相同的分库规则(shardingsphere-order-*.yaml 中的 d_order_outbox)
+--
+
+USE damai_order_0;
+
+DROP TABLE IF EXISTS `d_order_outbox`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `d_order_outbox` (
+  `id` bigint(20) NOT NULL COMMENT '主键id',
+  `order_number` bigint(20) NOT NULL COMMENT '订单编号',
+  `user_id` bigint(20) NOT NULL COMMENT '用户id',
+  `channel` tinyint(1) NOT NULL COMMENT '发送渠道 2:延迟队列',
+  `topic` varchar(256) NOT NULL COMMENT '主题(不包含服务前缀)',
+  `payload` text NOT NULL COMMENT '消息内容',
+  `deliver_time` datetime NOT NULL COMMENT '消息的投递时间',
+  `outbox_status` tinyint(1) NOT NULL DEFAULT '1' COMMENT '消息状态 1:待发送 2:已发送',
+  `retry_count` int(11) NOT NULL DEFAULT '0' COMMENT '发送失败的次数',
+  `next_retry_time` datetime NOT NULL COMMENT '下次发送的时间',
+  `create_time` datetime DEFAULT NULL COMMENT '创建时间',
+  `edit_time` datetime DEFAULT NULL COMMENT '编辑时间',
+  `status` tinyint(1) DEFAULT '1' COMMENT '1:正常 0:删除',
+  PRIMARY KEY (`id`),
+  KEY `outbox_status_next_retry_time_IDX` (`outbox_status`,`next_retry_time`) USING BTREE,
+  KEY `order_number_IDX` (`order_number`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='订单发件箱表';
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+USE damai_order_1;
+
+DROP TABLE IF EXISTS `d_order_outbox`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `d_order_outbox` (
+  `id` bigint(20) NOT NULL COMMENT '主键id',
+  `order_number` bigint(20) NOT NULL COMMENT '订单编号',
+  `user_id` bigint(20) NOT NULL COMMENT '用户id',
+  `channel` tinyint(1) NOT NULL COMMENT '发送渠道 2:延迟队列',
+  `topic` varchar(256) NOT NULL COMMENT '主题(不包含服务前缀)',
+  `payload` text NOT NULL COMMENT '消息内容',
+  `deliver_time` datetime NOT NULL COMMENT '消息的投递时间',
+  `outbox_status` tinyint(1) NOT NULL DEFAULT '1' COMMENT '消息状态 1:待发送 2:已发送',
+  `retry_count` int(11) NOT NULL DEFAULT '0' COMMENT '发送失败的次数',
+  `next_retry_time` datetime NOT NULL COMMENT '下次发送的时间',
+  `create_time` datetime DEFAULT NULL COMMENT '创建时间',
+  `edit_time` datetime DEFAULT NULL COMMENT '编辑时间',
+  `status` tinyint(1) DEFAULT '1' COMMENT '1:正常 0:删除',
+  PRIMARY KEY (`id`),
+  KEY `outbox_status_next_retry_time_IDX` (`outbox_status`,`next_retry_time`) USING BTREE,
+  KEY `order_number_IDX` (`order_number`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='订单发件箱表';
+/*!40101 SET character_set_client = @saved_cs_client */;
@@ -0,0 +1,27 @@
+--
+-- d_order 用户订单列表游标分页所需的索引
+-- 订单表按 user_id 基因分片，同一用户的订单落在同一张物理表，游标分页按 (create_order_time, id) 倒序，
+-- 二级索引的叶子节点已经包含主键id，所以 (user_id, create_order_time) 的索引可以直接满足 order by create_order_time desc, id desc
+--
+
+USE damai_order_0;
+
+DROP INDEX `user_id_IDX` ON `d_order_0`;
+CREATE INDEX `user_id_create_order_time_IDX` ON `d_order_0` (`user_id`, `create_order_time`);
+DROP INDEX `user_id_IDX` ON `d_order_1`;
+CREATE INDEX `user_id_create_order_time_IDX` ON `d_order_1` (`user_id`, `create_order_time`);
+DROP INDEX `user_id_IDX` ON `d_order_2`;
+CREATE INDEX `user_id_create_order_time_IDX` ON `d_order_2` (`user_id`, `create_order_time`);
+DROP INDEX `user_id_IDX` ON `d_order_3`;
+CREATE INDEX `user_id_create_order_time_IDX` ON `d_order_3` (`user_id`, `create_order_time`);
+
+USE damai_order_1;
+
+DROP INDEX `user_id_IDX` ON `d_order_0`;
+CREATE INDEX `user_id_create_order_time_IDX` ON `d_order_0` (`user_id`, `create_order_time`);
+DROP INDEX `user_id_IDX` ON `d_order_1`;
+CREATE INDEX `user_id_create_order_time_IDX` ON `d_order_1` (`user_id`, `create_order_time`);
+DROP INDEX `user_id_IDX` ON `d_order_2`;
+CREATE INDEX `user_id_create_order_time_IDX` ON `d_order_2` (`user_id`, `create_order_time`);
+DROP INDEX `user_id_IDX` ON `d_order_3`;
+CREATE INDEX `user_id_create_order_time_IDX` ON `d_order_3` (`user_id`, `create_order_time`);
@@ -0,0 +1,22 @@
+--
+-- 订单分库分表在线扩容 回填进度表
+-- 建在 shard-migration.checkpoint-data-source-name 配置的扩容前数据源中(默认ds_0，即damai_order_0)，
+-- 扩容后的库和表(damai_order_2、damai_order_3 以及 d_order_4 ~ d_order_7 等)按 damai_order_0.sql 中的表结构提前创建
+--
+
+USE damai_order_0;
+
+DROP TABLE IF EXISTS `d_shard_migration_checkpoint`;
+CREATE TABLE `d_shard_migration_checkpoint` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '主键id',
+  `logic_table` varchar(64) NOT NULL COMMENT '逻辑表名',
+  `source_node` varchar(128) NOT NULL COMMENT '扩容前的节点 例如ds_0.3',
+  `last_id` bigint(20) NOT NULL DEFAULT '0' COMMENT '已经回填到的主键id',
+  `copied_count` bigint(20) NOT NULL DEFAULT '0' COMMENT '已经回填的行数',
+  `conflict_count` bigint(20) NOT NULL DEFAULT '0' COMMENT '按订单编号和按用户id计算的节点不一致的行数，大于0时回填停止',
+  `finished` tinyint(1) NOT NULL DEFAULT '0' COMMENT '1:回填完成 0:回填中',
+  `create_time` datetime DEFAULT NULL COMMENT '创建时间',
+  `edit_time` datetime DEFAULT NULL COMMENT '编辑时间',
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `logic_table_source_node_IDX` (`logic_table`,`source_node`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='订单分片扩容回填进度表';